@@ -20,6 +20,8 @@
 
 package moa.streams;
 
+import com.github.javacliparser.IntOption;
+import com.github.javacliparser.MultiChoiceOption;
 import com.github.javacliparser.StringOption;
 import com.yahoo.labs.samoa.instances.Instance;
 import com.yahoo.labs.samoa.instances.Instances;
@@ -32,6 +34,7 @@ import moa.core.InstanceExample;
 import moa.core.ObjectRepository;
 import moa.options.AbstractOptionHandler;
 import moa.tasks.TaskMonitor;
+import org.apache.kafka.clients.consumer.Consumer;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
@@ -41,7 +44,9 @@ import org.apache.kafka.common.serialization.LongDeserializer;
 
 import java.io.Closeable;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -61,6 +66,12 @@ import java.util.Queue;
  *   - The serialised form of the instances is using Java's own
  *     serialisation tools (i.e. {@link ObjectSerializer}).
  *
+ * When the number of partition threads is non-zero, the topic's partitions
+ * are consumed by background threads (see {@link PartitionedKafkaBuffer})
+ * and merged either round-robin (deterministic) or in arrival order. In
+ * this mode each partition is considered ended when a record with a null
+ * value is found on it, and the stream ends when all partitions have.
+ *
  * @author Corey Sterling (csterlin at waikato dot ac dot nz)
  */
 public class KafkaStream extends AbstractOptionHandler implements
@@ -86,10 +97,31 @@ public class KafkaStream extends AbstractOptionHandler implements
   public StringOption portOption = new StringOption("port", 'p',
     "The Kafka broker port", "");
 
+  // The number of background consumer threads
+  public IntOption partitionThreadsOption = new IntOption("partitionThreads", 'T',
+    "The number of background consumer threads (0 = consume on the calling thread, -1 = one thread per partition)",
+    0, -1, Integer.MAX_VALUE);
+
+  // The size of the buffer filled by the background consumer threads
+  public IntOption bufferSizeOption = new IntOption("bufferSize", 'b',
+    "The number of instances buffered by the background consumer threads",
+    10000, 1, Integer.MAX_VALUE);
+
+  // How instances from different partitions are merged
+  public MultiChoiceOption mergePolicyOption = new MultiChoiceOption("mergePolicy", 'm',
+    "How instances from different partitions are merged when using background consumer threads",
+    new String[]{"RoundRobin", "Arrival"},
+    new String[]{"One instance from each partition in turn (deterministic)",
+      "In the order the instances were decoded"},
+    0);
+
   // -- TRANSIENTS -- //
 
   // The consumer which will retrieve records from the Kafka stream
-  protected transient KafkaConsumer<Long, Instance> m_Consumer = null;
+  protected transient Consumer<Long, Instance> m_Consumer = null;
+
+  // The buffer filled by the background consumer threads
+  protected transient PartitionedKafkaBuffer m_PartitionedBuffer = null;
 
   // A buffer of instances retrieved from the Kafka stream
   protected transient Queue<Instance> m_InstanceBuffer = null;
@@ -112,6 +144,11 @@ public class KafkaStream extends AbstractOptionHandler implements
 
   @Override
   public InstancesHeader getHeader() {
+    if (usesPartitionThreads()) {
+      cacheHeaderIfNecessary(partitionedBuffer().peek());
+      return m_Header;
+    }
+
     fillBufferIfNecessary();
 
     return m_Header;
@@ -119,6 +156,10 @@ public class KafkaStream extends AbstractOptionHandler implements
 
   @Override
   public long estimatedRemainingInstances() {
+    // The background threads can't know this
+    if (usesPartitionThreads())
+      return -1;
+
     fillBufferIfNecessary();
 
     // If we've reached the end of the stream, what's in the buffer is all
@@ -132,6 +173,9 @@ public class KafkaStream extends AbstractOptionHandler implements
 
   @Override
   public boolean hasMoreInstances() {
+    if (usesPartitionThreads())
+      return !partitionedBuffer().isExhausted();
+
     fillBufferIfNecessary();
 
     return !m_EndOfStreamReached;
@@ -139,6 +183,12 @@ public class KafkaStream extends AbstractOptionHandler implements
 
   @Override
   public Example<Instance> nextInstance() {
+    // Take from the background threads if in use
+    if (usesPartitionThreads()) {
+      Instance instance = partitionedBuffer().take();
+      return (instance == null) ? null : new InstanceExample(instance);
+    }
+
     // Retrieve more instances from Kafka if the buffer is empty
     fillBufferIfNecessary();
 
@@ -157,6 +207,10 @@ public class KafkaStream extends AbstractOptionHandler implements
 
   @Override
   public void restart() {
+    // Stop any background threads; they are restarted from the beginning
+    // of the topic when next needed
+    closePartitionedBuffer();
+
     // Get the consumer in a usable state and restart it
     restartConsumer();
 
@@ -189,6 +243,8 @@ public class KafkaStream extends AbstractOptionHandler implements
 
   @Override
   public void close() {
+    closePartitionedBuffer();
+
     if (m_Consumer != null) {
       m_Consumer.unsubscribe();
       m_Consumer.close();
@@ -207,7 +263,7 @@ public class KafkaStream extends AbstractOptionHandler implements
       return;
 
     // Create the consumer
-    m_Consumer = new KafkaConsumer<>(createConsumerConfiguration());
+    m_Consumer = createConsumer();
 
     // Subscribe to the given topic
     m_Consumer.subscribe(Collections.singletonList(topicOption.getValue()));
@@ -216,6 +272,91 @@ public class KafkaStream extends AbstractOptionHandler implements
     restartConsumer();
   }
 
+  /**
+   * Creates a new, unsubscribed consumer. Tests can override this to
+   * supply a mock consumer.
+   */
+  protected Consumer<Long, Instance> createConsumer() {
+    return new KafkaConsumer<>(createConsumerConfiguration());
+  }
+
+  /**
+   * Whether the topic is consumed by background threads.
+   */
+  protected boolean usesPartitionThreads() {
+    return partitionThreadsOption.getValue() != 0;
+  }
+
+  /**
+   * Gets the buffer filled by the background consumer threads, starting
+   * the threads if necessary.
+   */
+  protected PartitionedKafkaBuffer partitionedBuffer() {
+    if (m_PartitionedBuffer != null)
+      return m_PartitionedBuffer;
+
+    // Look up the topic's partitions using a temporary consumer
+    String topic = topicOption.getValue();
+    List<TopicPartition> partitions = new ArrayList<>();
+    try (Consumer<Long, Instance> consumer = createConsumer()) {
+      for (PartitionInfo info : consumer.partitionsFor(topic))
+        partitions.add(new TopicPartition(topic, info.partition()));
+    }
+    partitions.sort(Comparator.comparingInt(TopicPartition::partition));
+
+    m_PartitionedBuffer = new PartitionedKafkaBuffer(
+      partitions,
+      partitionThreadsOption.getValue(),
+      bufferSizeOption.getValue(),
+      mergePolicyOption.getChosenIndex() == 0
+        ? PartitionedKafkaBuffer.MergePolicy.ROUND_ROBIN
+        : PartitionedKafkaBuffer.MergePolicy.ARRIVAL,
+      this::createConsumer);
+
+    return m_PartitionedBuffer;
+  }
+
+  /**
+   * Stops the background consumer threads, if running.
+   */
+  protected void closePartitionedBuffer() {
+    if (m_PartitionedBuffer != null)
+      m_PartitionedBuffer.close();
+
+    m_PartitionedBuffer = null;
+  }
+
+  /**
+   * Gets the last known consumer lag per partition. Only available when
+   * using background consumer threads; empty otherwise.
+   */
+  public Map<TopicPartition, Long> getPartitionLag() {
+    if (m_PartitionedBuffer == null)
+      return new HashMap<>();
+
+    return m_PartitionedBuffer.getLag();
+  }
+
+  /**
+   * Gets the last known consumer lag summed over all partitions.
+   */
+  public long getTotalLag() {
+    if (m_PartitionedBuffer == null)
+      return 0;
+
+    return m_PartitionedBuffer.getTotalLag();
+  }
+
+  /**
+   * Gets the number of instances currently buffered.
+   */
+  public int getBufferOccupancy() {
+    if (m_PartitionedBuffer != null)
+      return m_PartitionedBuffer.getOccupancy();
+
+    return (m_InstanceBuffer == null) ? 0 : m_InstanceBuffer.size();
+  }
+
   /**
    * Creates the configuration for the Kafka consumer.
    */
@@ -313,8 +454,6 @@ public class KafkaStream extends AbstractOptionHandler implements
 
     // Add each instance to the buffer
     for (ConsumerRecord<Long, Instance> record : records) {
-      System.out.println(record.key());
-
       // Extract the instance from the record
       Instance instance = record.value();
 
@@ -337,13 +476,17 @@ public class KafkaStream extends AbstractOptionHandler implements
    * Caches the header for these instances if it hasn't already.
    */
   protected void cacheHeaderIfNecessary() {
+    cacheHeaderIfNecessary(m_InstanceBuffer.peek());
+  }
+
+  /**
+   * Caches the header of the given instance if it hasn't already.
+   */
+  protected void cacheHeaderIfNecessary(Instance instance) {
     // Skip if we've already cached a header
     if (m_Header != null)
       return;
 
-    // Get one of the instances
-    Instance instance = m_InstanceBuffer.peek();
-
     // If there isn't one (should always be at this point), abort
     if (instance == null)
       return;
@@ -0,0 +1,546 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * PartitionedKafkaBuffer.java
+ * Copyright (C) 2026 University of Waikato, Hamilton, NZ
+ */
+
+package moa.streams;
+
+import com.yahoo.labs.samoa.instances.Instance;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Bounded, concurrently-filled buffer of instances consumed from the
+ * partitions of a Kafka topic. Each worker thread owns its own consumer
+ * which is manually assigned a subset of the topic's partitions, so
+ * polling and deserialisation happen off the learner's thread.
+ *
+ * Instances are handed off to the reader in one of two orders:
+ *   - round-robin: one instance from each partition in turn, in
+ *     partition order. Deterministic for a given topic content.
+ *   - arrival: in the order the workers decoded them.
+ *
+ * A worker never blocks on the queue of a single partition: records that
+ * do not fit are held back and their partition is paused until the reader
+ * makes room, so a worker owning several partitions keeps feeding the
+ * others in the meantime.
+ *
+ * A partition is finished once a record with a null value is found on
+ * it. The buffer is exhausted once all partitions are finished and all
+ * buffered instances have been taken.
+ */
+public class PartitionedKafkaBuffer implements Closeable {
+
+  /** How long a worker waits in a single poll before re-checking for shutdown. */
+  public static final Duration POLL_TIMEOUT = Duration.ofMillis(100);
+
+  /** How long the reader waits on an empty queue before re-checking state. */
+  protected static final long TAKE_TIMEOUT_MS = 50;
+
+  /** Minimum interval between lag refreshes by a worker. */
+  protected static final long LAG_REFRESH_INTERVAL_MS = 1000;
+
+  /**
+   * The order in which instances from different partitions are handed
+   * off to the reader.
+   */
+  public enum MergePolicy {
+    ROUND_ROBIN,
+    ARRIVAL
+  }
+
+  // The partitions being consumed, in merge order
+  protected final List<TopicPartition> m_Partitions;
+
+  // The merge policy in use
+  protected final MergePolicy m_MergePolicy;
+
+  // The total capacity of the buffer
+  protected final int m_Capacity;
+
+  // Per-partition queues (round-robin) or a single shared queue (arrival)
+  protected final List<BlockingQueue<Instance>> m_Queues;
+
+  // Whether each partition has delivered its end-of-stream marker
+  protected final boolean[] m_Finished;
+
+  // The last known lag for each partition (-1 if not yet known)
+  protected final long[] m_Lag;
+
+  // The worker threads
+  protected final List<Thread> m_Threads = new ArrayList<>();
+
+  // The consumers owned by the workers
+  protected final List<Consumer<Long, Instance>> m_Consumers = new ArrayList<>();
+
+  // Whether the workers should keep running
+  protected volatile boolean m_Running = true;
+
+  // The first failure encountered by any worker
+  protected volatile RuntimeException m_Failure = null;
+
+  // The next partition to take from in round-robin mode
+  protected int m_NextPartition = 0;
+
+  // The instance retrieved by a peek but not yet taken
+  protected Instance m_Next = null;
+
+  /**
+   * Starts consuming the given partitions.
+   *
+   * @param partitions          the partitions to consume
+   * @param numThreads          the number of worker threads; values less than
+   *                            one mean one thread per partition
+   * @param capacity            the total number of instances to buffer
+   * @param mergePolicy         the hand-off order
+   * @param consumerFactory     creates a fresh, unsubscribed consumer per worker
+   */
+  public PartitionedKafkaBuffer(List<TopicPartition> partitions,
+                                int numThreads,
+                                int capacity,
+                                MergePolicy mergePolicy,
+                                Supplier<Consumer<Long, Instance>> consumerFactory) {
+    if (partitions.isEmpty())
+      throw new IllegalArgumentException("No partitions to consume");
+
+    m_Partitions = new ArrayList<>(partitions);
+    m_MergePolicy = mergePolicy;
+    m_Capacity = Math.max(capacity, 1);
+    m_Finished = new boolean[m_Partitions.size()];
+    m_Lag = new long[m_Partitions.size()];
+    Arrays.fill(m_Lag, -1);
+
+    // Create the hand-off queues
+    m_Queues = new ArrayList<>();
+    if (mergePolicy == MergePolicy.ROUND_ROBIN) {
+      int perPartition = Math.max(m_Capacity / m_Partitions.size(), 1);
+      for (int i = 0; i < m_Partitions.size(); i++)
+        m_Queues.add(new ArrayBlockingQueue<>(perPartition));
+    }
+    else {
+      m_Queues.add(new ArrayBlockingQueue<>(m_Capacity));
+    }
+
+    // Deal the partitions out to the workers
+    if (numThreads < 1 || numThreads > m_Partitions.size())
+      numThreads = m_Partitions.size();
+    List<List<Integer>> assignments = new ArrayList<>();
+    for (int i = 0; i < numThreads; i++)
+      assignments.add(new ArrayList<>());
+    for (int i = 0; i < m_Partitions.size(); i++)
+      assignments.get(i % numThreads).add(i);
+
+    // Start the workers
+    for (int i = 0; i < numThreads; i++) {
+      Consumer<Long, Instance> consumer = consumerFactory.get();
+      m_Consumers.add(consumer);
+      Thread thread = new Thread(new Worker(consumer, assignments.get(i)),
+        "KafkaStream-partition-worker-" + i);
+      thread.setDaemon(true);
+      m_Threads.add(thread);
+    }
+    for (Thread thread : m_Threads)
+      thread.start();
+  }
+
+  /**
+   * Gets the next instance without removing it, blocking until one is
+   * available. Returns null if the buffer is exhausted.
+   */
+  public Instance peek() {
+    if (m_Next == null)
+      m_Next = fetch();
+
+    return m_Next;
+  }
+
+  /**
+   * Removes and returns the next instance, blocking until one is
+   * available. Returns null if the buffer is exhausted.
+   */
+  public Instance take() {
+    Instance result = peek();
+    m_Next = null;
+    return result;
+  }
+
+  /**
+   * Whether the buffer is exhausted. Blocks until an instance is
+   * available or all partitions are finished.
+   */
+  public boolean isExhausted() {
+    return peek() == null;
+  }
+
+  /**
+   * Gets the number of instances currently held in the buffer.
+   */
+  public int getOccupancy() {
+    int result = (m_Next != null) ? 1 : 0;
+    for (BlockingQueue<Instance> queue : m_Queues)
+      result += queue.size();
+
+    return result;
+  }
+
+  /**
+   * Gets the total capacity of the buffer.
+   */
+  public int getCapacity() {
+    int result = 0;
+    for (BlockingQueue<Instance> queue : m_Queues)
+      result += queue.size() + queue.remainingCapacity();
+
+    return result;
+  }
+
+  /**
+   * Gets the last known consumer lag (records between the consumer's
+   * position and the end of the partition) for each partition. Partitions
+   * whose lag is not yet known are omitted.
+   */
+  public Map<TopicPartition, Long> getLag() {
+    Map<TopicPartition, Long> result = new HashMap<>();
+    synchronized (m_Lag) {
+      for (int i = 0; i < m_Partitions.size(); i++) {
+        if (m_Lag[i] >= 0)
+          result.put(m_Partitions.get(i), m_Lag[i]);
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Gets the last known total lag over all partitions.
+   */
+  public long getTotalLag() {
+    long result = 0;
+    synchronized (m_Lag) {
+      for (long lag : m_Lag) {
+        if (lag > 0)
+          result += lag;
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Stops the workers and closes their consumers.
+   */
+  @Override
+  public void close() {
+    m_Running = false;
+
+    for (Consumer<Long, Instance> consumer : m_Consumers)
+      consumer.wakeup();
+
+    for (Thread thread : m_Threads) {
+      try {
+        thread.join();
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+
+    m_Threads.clear();
+    m_Consumers.clear();
+  }
+
+  /**
+   * Retrieves the next instance according to the merge policy.
+   */
+  protected Instance fetch() {
+    try {
+      if (m_MergePolicy == MergePolicy.ROUND_ROBIN)
+        return fetchRoundRobin();
+      else
+        return fetchArrival();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    }
+  }
+
+  /**
+   * Takes from the next unfinished partition in turn.
+   */
+  protected Instance fetchRoundRobin() throws InterruptedException {
+    int numPartitions = m_Partitions.size();
+    int exhausted = 0;
+
+    while (exhausted < numPartitions) {
+      int partition = m_NextPartition;
+      BlockingQueue<Instance> queue = m_Queues.get(partition);
+
+      // Wait on this partition until it produces or finishes
+      while (true) {
+        Instance instance = queue.poll(TAKE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        if (instance != null) {
+          m_NextPartition = (partition + 1) % numPartitions;
+          return instance;
+        }
+        checkFailure();
+        if (isFinished(partition) && queue.isEmpty())
+          break;
+      }
+
+      // Skip finished partitions
+      m_NextPartition = (partition + 1) % numPartitions;
+      exhausted++;
+    }
+
+    return null;
+  }
+
+  /**
+   * Takes from the shared queue in arrival order.
+   */
+  protected Instance fetchArrival() throws InterruptedException {
+    BlockingQueue<Instance> queue = m_Queues.get(0);
+
+    while (true) {
+      Instance instance = queue.poll(TAKE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+      if (instance != null)
+        return instance;
+      checkFailure();
+      if (allFinished() && queue.isEmpty())
+        return null;
+    }
+  }
+
+  /**
+   * Whether the given partition has delivered its end-of-stream marker.
+   */
+  protected boolean isFinished(int partition) {
+    synchronized (m_Finished) {
+      return m_Finished[partition];
+    }
+  }
+
+  /**
+   * Whether all partitions have delivered their end-of-stream markers.
+   */
+  protected boolean allFinished() {
+    synchronized (m_Finished) {
+      for (boolean finished : m_Finished) {
+        if (!finished)
+          return false;
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Rethrows any failure from a worker on the reader's thread.
+   */
+  protected void checkFailure() {
+    if (m_Failure != null)
+      throw m_Failure;
+  }
+
+  /**
+   * Consumes a subset of the partitions into the hand-off queues.
+   */
+  protected class Worker implements Runnable {
+
+    // The consumer owned by this worker
+    protected final Consumer<Long, Instance> m_Consumer;
+
+    // The partitions this worker consumes, keyed to their indices
+    protected final Map<TopicPartition, Integer> m_IndexOf = new HashMap<>();
+
+    // The records polled but not yet placed in a hand-off queue
+    protected final Map<TopicPartition, Deque<ConsumerRecord<Long, Instance>>> m_Pending = new LinkedHashMap<>();
+
+    // When the lag was last refreshed
+    protected long m_LastLagRefresh = 0;
+
+    public Worker(Consumer<Long, Instance> consumer, List<Integer> indices) {
+      m_Consumer = consumer;
+      for (int index : indices)
+        m_IndexOf.put(m_Partitions.get(index), index);
+    }
+
+    @Override
+    public void run() {
+      try {
+        List<TopicPartition> assigned = new ArrayList<>(m_IndexOf.keySet());
+        m_Consumer.assign(assigned);
+        m_Consumer.seekToBeginning(assigned);
+
+        while (m_Running && !assigned.isEmpty()) {
+          // Don't wait for new records while held back ones may fit
+          ConsumerRecords<Long, Instance> records = m_Consumer.poll(m_Pending.isEmpty() ? POLL_TIMEOUT : Duration.ZERO);
+
+          for (TopicPartition partition : records.partitions())
+            m_Pending.computeIfAbsent(partition, k -> new ArrayDeque<>()).addAll(records.records(partition));
+
+          if (!enqueuePending(assigned) && !m_Pending.isEmpty())
+            awaitSpace();
+
+          refreshLagIfNecessary();
+        }
+      }
+      catch (WakeupException e) {
+        // Shutdown requested
+      }
+      catch (RuntimeException e) {
+        m_Failure = e;
+      }
+      finally {
+        m_Consumer.close();
+      }
+    }
+
+    /**
+     * Places as many held back records as fit in the hand-off queues,
+     * pausing the partitions whose records do not all fit and resuming
+     * the others. Finished partitions are removed from the assigned ones.
+     * Returns whether any record was placed.
+     */
+    protected boolean enqueuePending(List<TopicPartition> assigned) {
+      boolean placed = false;
+      Iterator<Map.Entry<TopicPartition, Deque<ConsumerRecord<Long, Instance>>>> iter = m_Pending.entrySet().iterator();
+
+      while (iter.hasNext()) {
+        Map.Entry<TopicPartition, Deque<ConsumerRecord<Long, Instance>>> entry = iter.next();
+        TopicPartition partition = entry.getKey();
+        Deque<ConsumerRecord<Long, Instance>> records = entry.getValue();
+        int before = records.size();
+        boolean finished = !enqueue(m_IndexOf.get(partition), records);
+        placed |= records.size() < before;
+
+        if (finished) {
+          iter.remove();
+          assigned.remove(partition);
+          m_Consumer.pause(Collections.singletonList(partition));
+        }
+        else if (records.isEmpty()) {
+          iter.remove();
+          m_Consumer.resume(Collections.singletonList(partition));
+        }
+        else {
+          m_Consumer.pause(Collections.singletonList(partition));
+        }
+      }
+
+      return placed;
+    }
+
+    /**
+     * Places the records of one partition in its hand-off queue, as long as
+     * there is room, removing them from the given ones. Returns false if the
+     * partition has finished.
+     */
+    protected boolean enqueue(int index, Deque<ConsumerRecord<Long, Instance>> records) {
+      BlockingQueue<Instance> queue = queueOf(index);
+
+      while (!records.isEmpty()) {
+        Instance instance = records.peekFirst().value();
+
+        // A null value marks the end of this partition
+        if (instance == null) {
+          records.clear();
+          synchronized (m_Finished) {
+            m_Finished[index] = true;
+          }
+          return false;
+        }
+
+        if (!queue.offer(instance))
+          break;
+        records.removeFirst();
+      }
+
+      return true;
+    }
+
+    /**
+     * Waits until the reader makes room for the first held back record,
+     * at most {@link #TAKE_TIMEOUT_MS}.
+     */
+    protected void awaitSpace() {
+      Map.Entry<TopicPartition, Deque<ConsumerRecord<Long, Instance>>> entry = m_Pending.entrySet().iterator().next();
+      Deque<ConsumerRecord<Long, Instance>> records = entry.getValue();
+
+      try {
+        if (queueOf(m_IndexOf.get(entry.getKey())).offer(records.peekFirst().value(), TAKE_TIMEOUT_MS, TimeUnit.MILLISECONDS))
+          records.removeFirst();
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new WakeupException();
+      }
+    }
+
+    /**
+     * Gets the hand-off queue of the partition with the given index.
+     */
+    protected BlockingQueue<Instance> queueOf(int index) {
+      return m_Queues.get(m_MergePolicy == MergePolicy.ROUND_ROBIN ? index : 0);
+    }
+
+    /**
+     * Updates the lag of this worker's partitions, at most once per
+     * {@link #LAG_REFRESH_INTERVAL_MS}.
+     */
+    protected void refreshLagIfNecessary() {
+      long now = System.currentTimeMillis();
+      if (now - m_LastLagRefresh < LAG_REFRESH_INTERVAL_MS)
+        return;
+      m_LastLagRefresh = now;
+
+      Map<TopicPartition, Long> endOffsets = m_Consumer.endOffsets(m_IndexOf.keySet());
+      Map<Integer, Long> lags = new HashMap<>();
+      for (Map.Entry<TopicPartition, Long> entry : endOffsets.entrySet()) {
+        long position = m_Consumer.position(entry.getKey());
+        lags.put(m_IndexOf.get(entry.getKey()), Math.max(entry.getValue() - position, 0));
+      }
+
+      synchronized (m_Lag) {
+        for (Map.Entry<Integer, Long> entry : lags.entrySet())
+          m_Lag[entry.getKey()] = entry.getValue();
+      }
+    }
+  }
+}
@@ -0,0 +1,204 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * KafkaStreamTest.java
+ * Copyright (C) 2026 University of Waikato, Hamilton, NZ
+ */
+
+package moa.streams;
+
+import com.yahoo.labs.samoa.instances.Attribute;
+import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests the background partition consumption of {@link KafkaStream}
+ * against mock consumers, so no broker is required.
+ */
+public class KafkaStreamTest {
+
+  protected static final String TOPIC = "instances";
+
+  /**
+   * Stream whose consumers are mocks serving a fixed set of values per
+   * partition. A null value marks the end of a partition.
+   */
+  protected static class MockKafkaStream extends KafkaStream {
+
+    protected final double[][] m_Values;
+
+    protected final InstancesHeader m_Dataset;
+
+    public MockKafkaStream(double[][] values) {
+      m_Values = values;
+      List<Attribute> attributes = new ArrayList<>();
+      attributes.add(new Attribute("value"));
+      m_Dataset = new InstancesHeader(new Instances(TOPIC, attributes, 0));
+      topicOption.setValue(TOPIC);
+    }
+
+    @Override
+    protected Consumer<Long, Instance> createConsumer() {
+      final MockConsumer<Long, Instance> consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+
+      List<PartitionInfo> infos = new ArrayList<>();
+      Map<TopicPartition, Long> beginning = new HashMap<>();
+      Map<TopicPartition, Long> end = new HashMap<>();
+      for (int p = 0; p < m_Values.length; p++) {
+        infos.add(new PartitionInfo(TOPIC, p, Node.noNode(), new Node[0], new Node[0]));
+        beginning.put(new TopicPartition(TOPIC, p), 0L);
+        end.put(new TopicPartition(TOPIC, p), (long) m_Values[p].length + 1);
+      }
+      consumer.updatePartitions(TOPIC, infos);
+      consumer.updateBeginningOffsets(beginning);
+      consumer.updateEndOffsets(end);
+
+      // Serve the records once the worker has assigned its partitions
+      consumer.schedulePollTask(() -> {
+        for (TopicPartition partition : consumer.assignment()) {
+          double[] values = m_Values[partition.partition()];
+          long offset = 0;
+          for (double value : values) {
+            Instance instance = new DenseInstance(1.0, new double[]{value});
+            instance.setDataset(m_Dataset);
+            consumer.addRecord(new ConsumerRecord<>(TOPIC, partition.partition(), offset, offset, instance));
+            offset++;
+          }
+          consumer.addRecord(new ConsumerRecord<>(TOPIC, partition.partition(), offset, offset, null));
+        }
+      });
+
+      return consumer;
+    }
+  }
+
+  /**
+   * Reads the remaining instance values from the stream.
+   */
+  protected List<Double> drain(KafkaStream stream) {
+    List<Double> result = new ArrayList<>();
+    while (stream.hasMoreInstances())
+      result.add(stream.nextInstance().getData().value(0));
+
+    return result;
+  }
+
+  @Test
+  public void testRoundRobinIsDeterministic() {
+    MockKafkaStream stream = new MockKafkaStream(new double[][]{
+      {0, 1, 2}, {10, 11}, {20, 21, 22, 23}});
+    stream.partitionThreadsOption.setValue(-1);
+    stream.bufferSizeOption.setValue(4);
+    stream.mergePolicyOption.setChosenIndex(0);
+
+    try {
+      assertEquals(1, stream.getHeader().numAttributes());
+      List<Double> values = drain(stream);
+      List<Double> expected = new ArrayList<>();
+      for (double v : new double[]{0, 10, 20, 1, 11, 21, 2, 22, 23})
+        expected.add(v);
+      assertEquals(expected, values);
+      assertNull(stream.nextInstance());
+      assertFalse(stream.hasMoreInstances());
+    }
+    finally {
+      stream.close();
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void testRoundRobinWithSharedWorker() {
+    // One worker owns both partitions, each queue holds two instances
+    double[][] values = new double[2][10];
+    for (int i = 0; i < 10; i++) {
+      values[0][i] = i;
+      values[1][i] = 10 + i;
+    }
+    MockKafkaStream stream = new MockKafkaStream(values);
+    stream.partitionThreadsOption.setValue(1);
+    stream.bufferSizeOption.setValue(4);
+    stream.mergePolicyOption.setChosenIndex(0);
+
+    try {
+      List<Double> expected = new ArrayList<>();
+      for (int i = 0; i < 10; i++) {
+        expected.add(values[0][i]);
+        expected.add(values[1][i]);
+      }
+      assertEquals(expected, drain(stream));
+    }
+    finally {
+      stream.close();
+    }
+  }
+
+  @Test
+  public void testArrivalOrderDeliversEverything() {
+    MockKafkaStream stream = new MockKafkaStream(new double[][]{
+      {0, 1, 2}, {10, 11}, {20, 21, 22, 23}});
+    stream.partitionThreadsOption.setValue(2);
+    stream.mergePolicyOption.setChosenIndex(1);
+
+    try {
+      List<Double> values = drain(stream);
+      assertEquals(9, values.size());
+      Set<Double> expected = new HashSet<>();
+      for (double v : new double[]{0, 1, 2, 10, 11, 20, 21, 22, 23})
+        expected.add(v);
+      assertEquals(expected, new HashSet<>(values));
+      assertEquals(0, stream.getBufferOccupancy());
+    }
+    finally {
+      stream.close();
+    }
+  }
+
+  @Test
+  public void testRestartReconsumesFromBeginning() {
+    MockKafkaStream stream = new MockKafkaStream(new double[][]{{0, 1}, {10}});
+    stream.partitionThreadsOption.setValue(1);
+
+    try {
+      assertEquals(3, drain(stream).size());
+      stream.restart();
+      assertEquals(3, drain(stream).size());
+    }
+    finally {
+      stream.close();
+    }
+  }
+}
@@ -20,8 +20,8 @@
 package moa.classifiers.core.statisticaltests;
 
 import java.util.Arrays;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.Random;
+import java.util.stream.IntStream;
 
 import moa.core.ObjectRepository;
 import moa.options.AbstractOptionHandler;
@@ -29,8 +29,7 @@ import moa.tasks.TaskMonitor;
 
 import org.apache.commons.math3.complex.Complex;
 
-import Jama.EigenvalueDecomposition;
-import Jama.Matrix;
+import com.github.javacliparser.FlagOption;
 import com.github.javacliparser.FloatOption;
 import com.github.javacliparser.IntOption;
 import com.github.javacliparser.MultiChoiceOption;
@@ -52,6 +51,9 @@ public class Cramer extends AbstractOptionHandler implements StatisticalTest {
     private List<Instance> sample1i;
     private List<Instance> sample2i;
 
+    private SampleWindow window1;
+    private SampleWindow window2;
+
     public FloatOption confidenceLevelOption = new FloatOption(
             "confidenceLevel",
             'q',
@@ -77,6 +79,18 @@ public class Cramer extends AbstractOptionHandler implements StatisticalTest {
             "K value.", 160, 1,
             Integer.MAX_VALUE);
 
+    public MultiChoiceOption simulationOption = new MultiChoiceOption("simulation", 's',
+            "How the distribution of the statistic under the null hypothesis is obtained.",
+            new String[]{"ordinary", "permutation"},
+            new String[]{"Eigenvalues of the kernel matrix", "Permutation replicates"},
+            0);
+
+    public IntOption randomSeedOption = new IntOption("randomSeed", 'z',
+            "Seed for the permutation replicates.", 1);
+
+    public FlagOption parallelReplicatesOption = new FlagOption("parallelReplicates", 'p',
+            "Compute the permutation replicates in parallel.");
+
     public static final int CRAMER = 0;
     public static final int BAHR = 1;
     public static final int LOG = 2;
@@ -142,112 +156,259 @@ public class Cramer extends AbstractOptionHandler implements StatisticalTest {
         return (1 - 1 / ((1 + x) * (1 + x)));
     }
 
-    private double subtractRows(double[][] matrix, int i, int j) {
-        double sum = 0;
-        for (int k = 0; k < matrix[i].length; k++) {
-            sum += (matrix[i][k] - matrix[j][k]) * (matrix[i][k] - matrix[j][k]);
-        }
-        return sum;
-    }
-
-    private void kernel(int kernel, double[][] lookup) {
-        for (double[] lookup1 : lookup) {
-            for (int j = 0; j < lookup1.length; j++) {
-                switch (kernel) {
-                    case CRAMER:
-                        lookup1[j] = this.phiCramer(lookup1[j]);
-                        break;
-                    case BAHR:
-                        lookup1[j] = this.phiBahr(lookup1[j]);
-                        break;
-                    case FRACA:
-                        lookup1[j] = this.phiFracA(lookup1[j]);
-                        break;
-                    case FRACB:
-                        lookup1[j] = this.phiFracB(lookup1[j]);
-                        break;
-                    case LOG:
-                        lookup1[j] = this.phiLog(lookup1[j]);
-                        break;
+    private static void checkInterrupted() throws InterruptedException {
+        if (Thread.interrupted()) {
+            // We've been interrupted: no more crunching.
+            throw new InterruptedException();
+        }
+    }
+
+    /**
+     * Computes the squared distances between the rows of daten as a flat
+     * row-major matrix.
+     */
+    private double[] distances(double[][] daten) throws InterruptedException {
+        int N = daten.length;
+        double[] lookup = new double[N * N];
+        for (int i = 1; i < N; i++) {
+            checkInterrupted();
+            double[] a = daten[i];
+            for (int j = 0; j < i; j++) {
+                double[] b = daten[j];
+                double sum = 0;
+                for (int c = 0; c < a.length; c++) {
+                    double diff = a[c] - b[c];
+                    sum += diff * diff;
                 }
+                lookup[i * N + j] = sum;
+                lookup[j * N + i] = sum;
             }
         }
+        return lookup;
     }
 
-    private double sumCells(double[][] lookup, int[] xind, int[] yind) {
-        double sum = 0;
-        for (int i = 0; i < xind.length; i++) {
-            for (int j = 0; j < yind.length; j++) {
-                sum += lookup[xind[i]][yind[j]];
-            }
+    private void kernel(int kernel, double[] lookup) {
+        switch (kernel) {
+            case CRAMER:
+                for (int i = 0; i < lookup.length; i++) {
+                    lookup[i] = this.phiCramer(lookup[i]);
+                }
+                break;
+            case BAHR:
+                for (int i = 0; i < lookup.length; i++) {
+                    lookup[i] = this.phiBahr(lookup[i]);
+                }
+                break;
+            case FRACA:
+                for (int i = 0; i < lookup.length; i++) {
+                    lookup[i] = this.phiFracA(lookup[i]);
+                }
+                break;
+            case FRACB:
+                for (int i = 0; i < lookup.length; i++) {
+                    lookup[i] = this.phiFracB(lookup[i]);
+                }
+                break;
+            case LOG:
+                for (int i = 0; i < lookup.length; i++) {
+                    lookup[i] = this.phiLog(lookup[i]);
+                }
+                break;
         }
-        return sum;
     }
 
-    private double cramerStatistic(int m, int n, double[][] lookup) {
-        int[] xind = new int[m];
-        for (int i = 0; i < m; i++) {
-            xind[i] = i;
-        }
-        int[] yind = new int[n];
-        for (int i = m, j = 0; i < m + n; i++, j++) {
-            yind[j] = i;
-        }
+    private double cramerStatistic(int m, int n, double sxx, double syy, double sxy) {
         double mm = m, nn = n;
-        return mm * nn / (mm + nn) * (2 * this.sumCells(lookup, xind, yind) / (mm * nn) - this.sumCells(lookup, xind, xind) / (mm * mm) - this.sumCells(lookup, yind, yind) / (nn * nn));
-    }
-
-    class Boot {
-
-        double t0;
-        double[][] t;
-    }
-
-    private double rank(double t0, double[][] t) {
-        double[] temp = new double[t.length * t[0].length + 1];
-        temp[0] = t0;
-        int p = 1;
-        for (double[] t1 : t) {
-            for (int j = 0; j < t1.length; j++) {
-                temp[p++] = t1[j];
+        return mm * nn / (mm + nn) * (2 * sxy / (mm * nn) - sxx / (mm * mm) - syy / (nn * nn));
+    }
+
+    /**
+     * Computes the statistic for the first m rows against the last n rows of
+     * the kernel matrix, summing each block in a single pass.
+     */
+    private double cramerStatistic(int m, int n, double[] lookup) {
+        int N = m + n;
+        double sxx = 0, syy = 0, sxy = 0;
+        for (int i = 0; i < N; i++) {
+            int row = i * N;
+            double inX = 0, inY = 0;
+            for (int j = 0; j < m; j++) {
+                inX += lookup[row + j];
             }
-        }
-        double[] ordTemp = temp.clone();
-        Arrays.sort(ordTemp);
-        Map<Double, Double> map = new TreeMap();
-        for (int i = 0; i < ordTemp.length; i++) {
-            double xTemp = ordTemp[i], sum = i;
-            int count = 1;
-            while (i + 1 < ordTemp.length && xTemp == ordTemp[++i]) {
-                sum += i;
-                count++;
+            for (int j = m; j < N; j++) {
+                inY += lookup[row + j];
             }
-            map.put(xTemp, 1 + sum / count);
-            if (i + 1 == ordTemp.length) {
-                map.put(ordTemp[i], 1.0 + i);
-                break;
+            if (i < m) {
+                sxx += inX;
+                sxy += inY;
             } else {
-                i--;
+                syy += inY;
             }
         }
-        return map.get(t0);
+        return this.cramerStatistic(m, n, sxx, syy, sxy);
     }
 
-    private double[] linearize(double[][] matrix) {
-        double[] vector = new double[matrix.length * matrix[0].length];
-        int p = 0;
-        for (double[] matrix1 : matrix) {
-            for (int j = 0; j < matrix1.length; j++) {
-                vector[p++] = matrix1[j];
+    /**
+     * Computes the statistic after randomly reassigning the N observations
+     * to samples of sizes m and n. The kernel matrix is shared by all the
+     * replicates: only a 0/1 membership mask is built per replicate, so each
+     * one is a single contiguous pass over the matrix.
+     */
+    private double permutationStatistic(double[] lookup, double[] rowSums,
+            double total, int m, int n, long seed) {
+        int N = m + n;
+        Random random = new Random(seed);
+        int[] perm = new int[N];
+        for (int i = 0; i < N; i++) {
+            perm[i] = i;
+        }
+        double[] mask = new double[N];
+        for (int i = 0; i < m; i++) {
+            int j = i + random.nextInt(N - i);
+            int t = perm[i];
+            perm[i] = perm[j];
+            perm[j] = t;
+            mask[perm[i]] = 1;
+        }
+        double sxx = 0, syy = 0;
+        for (int i = 0; i < N; i++) {
+            int row = i * N;
+            double inX = 0;
+            for (int j = 0; j < N; j++) {
+                inX += lookup[row + j] * mask[j];
+            }
+            if (mask[i] != 0) {
+                sxx += inX;
+            } else {
+                syy += rowSums[i] - inX;
+            }
+        }
+        double sxy = (total - sxx - syy) / 2;
+        return this.cramerStatistic(m, n, sxx, syy, sxy);
+    }
+
+    /**
+     * Computes the eigenvalues of a symmetric matrix given by its lower
+     * triangle (row i holding i + 1 values), which is destroyed. Householder
+     * reduction to tridiagonal form followed by QL iterations with implicit
+     * shifts; eigenvectors are not accumulated.
+     */
+    static double[] symmetricEigenvalues(double[][] a) throws InterruptedException {
+        int n = a.length;
+        double[] d = new double[n];
+        double[] e = new double[n];
+        for (int i = n - 1; i > 0; i--) {
+            checkInterrupted();
+            int l = i - 1;
+            double h = 0;
+            double[] ai = a[i];
+            if (l > 0) {
+                double scale = 0;
+                for (int k = 0; k < i; k++) {
+                    scale += Math.abs(ai[k]);
+                }
+                if (scale == 0) {
+                    e[i] = ai[l];
+                } else {
+                    for (int k = 0; k < i; k++) {
+                        ai[k] /= scale;
+                        h += ai[k] * ai[k];
+                    }
+                    double f = ai[l];
+                    double g = f >= 0 ? -Math.sqrt(h) : Math.sqrt(h);
+                    e[i] = scale * g;
+                    h -= f * g;
+                    ai[l] = f - g;
+                    f = 0;
+                    for (int j = 0; j < i; j++) {
+                        double[] aj = a[j];
+                        g = 0;
+                        for (int k = 0; k <= j; k++) {
+                            g += aj[k] * ai[k];
+                        }
+                        for (int k = j + 1; k < i; k++) {
+                            g += a[k][j] * ai[k];
+                        }
+                        e[j] = g / h;
+                        f += e[j] * ai[j];
+                    }
+                    double hh = f / (h + h);
+                    for (int j = 0; j < i; j++) {
+                        f = ai[j];
+                        g = e[j] - hh * f;
+                        e[j] = g;
+                        double[] aj = a[j];
+                        for (int k = 0; k <= j; k++) {
+                            aj[k] -= f * e[k] + g * ai[k];
+                        }
+                    }
+                }
+            } else {
+                e[i] = ai[l];
             }
         }
-        return vector;
+        for (int i = 0; i < n; i++) {
+            d[i] = a[i][i];
+        }
+        for (int i = 1; i < n; i++) {
+            e[i - 1] = e[i];
+        }
+        e[n - 1] = 0;
+        for (int l = 0; l < n; l++) {
+            int iter = 0;
+            int m;
+            do {
+                for (m = l; m < n - 1; m++) {
+                    double dd = Math.abs(d[m]) + Math.abs(d[m + 1]);
+                    if (Math.abs(e[m]) <= 2.220446049250313E-16 * dd) {
+                        break;
+                    }
+                }
+                if (m != l) {
+                    if (iter++ == 60) {
+                        throw new RuntimeException("Eigenvalues did not converge.");
+                    }
+                    double g = (d[l + 1] - d[l]) / (2 * e[l]);
+                    double r = Math.hypot(g, 1);
+                    g = d[m] - d[l] + e[l] / (g + (g >= 0 ? r : -r));
+                    double s = 1;
+                    double c = 1;
+                    double p = 0;
+                    int i;
+                    for (i = m - 1; i >= l; i--) {
+                        double f = s * e[i];
+                        double b = c * e[i];
+                        r = Math.hypot(f, g);
+                        e[i + 1] = r;
+                        if (r == 0) {
+                            d[i + 1] -= p;
+                            e[m] = 0;
+                            break;
+                        }
+                        s = f / r;
+                        c = g / r;
+                        g = d[i + 1] - p;
+                        r = (d[i] - g) * s + 2 * c * b;
+                        p = s * r;
+                        d[i + 1] = g + p;
+                        g = c * r - b;
+                    }
+                    if (r == 0 && i >= l) {
+                        continue;
+                    }
+                    d[l] -= p;
+                    e[l] = g;
+                    e[m] = 0;
+                }
+            } while (m != l);
+        }
+        return d;
     }
 
     private double[] createVector(int replicates) {
         double[] result = new double[replicates];
         for (int i = 0; i < replicates; i++) {
-            result[i] = (i + 1) / replicates;
+            result[i] = (i + 1.0) / replicates;
         }
         return result;
     }
@@ -258,14 +419,6 @@ public class Cramer extends AbstractOptionHandler implements StatisticalTest {
         }
     }
 
-    private void divide(double[][] matrix, double divisor) {
-        for (double[] matrix1 : matrix) {
-            for (int j = 0; j < matrix1.length; j++) {
-                matrix1[j] /= divisor;
-            }
-        }
-    }
-
     private double[] createArray(int M, double k) {
         double[] result = new double[M];
         for (int i = 0; i < M; i++) {
@@ -282,31 +435,22 @@ public class Cramer extends AbstractOptionHandler implements StatisticalTest {
         return result;
     }
 
-    private Complex[][] complex(Complex[] v, double[] t) {
-        Complex[][] complex = new Complex[v.length][t.length];
-        for (int i = 0; i < v.length; i++) {
-            for (int j = 0; j < t.length; j++) {
-                complex[i][j] = v[i].multiply(t[j]).add(new Complex(1, 0)).log().multiply(-0.5);
-            }
-        }
-        return complex;
-    }
-
     private Complex[] characteristic(double[] lambdasquare, double[] t) {
         // z<--0.5*log(1-2i*lambdasquare%*%t(t));
-        Complex c = new Complex(0, -2);
-        Complex[] temp = new Complex[lambdasquare.length];
-        for (int i = 0; i < temp.length; i++) {
-            temp[i] = c.multiply(lambdasquare[i]);
-        }
-        Complex[][] z = this.complex(temp, t);
         // return(exp(complex(length(t),rowsum(Re(z),rep(1,length(lambdasquare))),rowsum(Im(z),rep(1,length(lambdasquare))))))
+        // Each term is -0.5*log(1+iv) with v=-2*lambda*t, whose real part is
+        // -0.5*log|1+iv| and imaginary part -0.5*atan2(v,1).
         double[] real = new double[t.length];
         double[] imag = new double[t.length];
-        for (int j = 0; j < t.length; j++) {
-            for (Complex[] z1 : z) {
-                real[j] += z1[j].getReal();
-                imag[j] += z1[j].getImaginary();
+        for (double lambda : lambdasquare) {
+            if (lambda == 0) {
+                continue;
+            }
+            double c = -2 * lambda;
+            for (int j = 0; j < t.length; j++) {
+                double v = c * t[j];
+                real[j] -= 0.5 * Math.log(Math.hypot(1, v));
+                imag[j] -= 0.5 * Math.atan2(v, 1);
             }
         }
         Complex[] result = new Complex[t.length];
@@ -480,11 +624,11 @@ public class Cramer extends AbstractOptionHandler implements StatisticalTest {
     }
 
     public CramerTest cramerTest(List<Instance> x, List<Instance> y) {
-        return this.cramerTest(x, y, this.confidenceLevelOption.getValue(), this.replicatesOption.getValue(), "ordinary", false, this.kernelOption.getChosenIndex(), this.maxMOption.getValue(), this.kOption.getValue());
+        return this.cramerTest(x, y, this.confidenceLevelOption.getValue(), this.replicatesOption.getValue(), this.simulationOption.getChosenLabel(), false, this.kernelOption.getChosenIndex(), this.maxMOption.getValue(), this.kOption.getValue());
     }
 
     public CramerTest cramerTest1(List<List<Double>> x, List<List<Double>> y) {
-        return this.cramerTest1(x, y, this.confidenceLevelOption.getValue(), this.replicatesOption.getValue(), "ordinary", false, this.kernelOption.getChosenIndex(), this.maxMOption.getValue(), this.kOption.getValue());
+        return this.cramerTest1(x, y, this.confidenceLevelOption.getValue(), this.replicatesOption.getValue(), this.simulationOption.getChosenLabel(), false, this.kernelOption.getChosenIndex(), this.maxMOption.getValue(), this.kOption.getValue());
     }
 
     public CramerTest cramerTest1(List<List<Double>> x, List<List<Double>> y, double confLevel, int replicates, String sim, boolean justStatistic, int kernel, double maxM, int k) {
@@ -512,94 +656,132 @@ public class Cramer extends AbstractOptionHandler implements StatisticalTest {
 
     private CramerTest compute(CramerTest RVAL, double[][] daten, int replicates, String sim, boolean justStatistic, int kernel, double maxM, int k) {
         // lookup<-matrix(rep(0,(RVAL$m+RVAL$n)^2),ncol=(RVAL$m+RVAL$n))
-        double[][] lookup = new double[RVAL.m + RVAL.n][RVAL.m + RVAL.n];
         // for (i in 2:(RVAL$m+RVAL$n)) for (j in 1:(i-1)) { lookup[i,j]<-sum((daten[i,]-daten[j,])^2); lookup[j,i]<-lookup[i,j]; }
-        for (int i = 1; i < RVAL.m + RVAL.n; i++) {
-            for (int j = 0; j <= i - 1; j++) {
-                lookup[i][j] = this.subtractRows(daten, i, j);
-                lookup[j][i] = lookup[i][j];
-            }
+        try {
+            double[] lookup = this.distances(daten);
+            return this.computeFromLookup(RVAL, lookup, replicates, sim, justStatistic, kernel, maxM, k);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Cramer test interrupted.", e);
         }
+    }
+
+    /**
+     * Completes the test from the squared distances between all the
+     * observations, given as a flat row-major matrix that is overwritten
+     * with the kernel values.
+     */
+    private CramerTest computeFromLookup(CramerTest RVAL, double[] lookup, int replicates, String sim, boolean justStatistic, int kernel, double maxM, int k) throws InterruptedException {
         // lookup<-eval(call(kernel,lookup))
         this.kernel(kernel, lookup);
+        // RVAL$statistic<-.cramer.statistic(daten,1:(RVAL$m+RVAL$n),RVAL$m,RVAL$n,lookup)
+        RVAL.statistic = this.cramerStatistic(RVAL.m, RVAL.n, lookup);
         if (justStatistic) {
-            RVAL.statistic = this.cramerStatistic(RVAL.m, RVAL.n, lookup);
-        } else if (sim.equals("eigenvalue")) {
-            /* To be implemented! */
-            Boot boot = new Boot();
-            RVAL.statistic = boot.t0;
-            RVAL.pValue = 1 - this.rank(boot.t0, boot.t) / (replicates + 1);
-            double[] toSort = this.linearize(boot.t);
-            Arrays.sort(toSort);
-            RVAL.critValue = toSort[(int) Math.round(RVAL.confLevel * RVAL.replicates)];
-            if (RVAL.statistic > RVAL.critValue) {
-                RVAL.result = 1;
+            return RVAL;
+        }
+        // N<-RVAL$m+RVAL$n
+        int N = RVAL.m + RVAL.n;
+        // C1<-rep(0,N)
+        // for (i in 1:N) for (j in 1:N) C1[i]<-C1[i]+lookup[i,j]
+        double[] C1 = new double[N];
+        double total = 0;
+        for (int i = 0; i < N; i++) {
+            int row = i * N;
+            double sum = 0;
+            for (int j = 0; j < N; j++) {
+                sum += lookup[row + j];
             }
-            RVAL.hypdistX = toSort;
-            RVAL.hypdistFx = this.createVector(replicates);
-        } else {
-            // RVAL$statistic<-.cramer.statistic(daten,1:(RVAL$m+RVAL$n),RVAL$m,RVAL$n,lookup)
-            RVAL.statistic = this.cramerStatistic(RVAL.m, RVAL.n, lookup);
-            // N<-RVAL$m+RVAL$n
-            int N = RVAL.m + RVAL.n;
-            // C1<-rep(0,N)
-            double[] C1 = new double[N];
-            // for (i in 1:N) for (j in 1:N) C1[i]<-C1[i]+lookup[i,j]
-            for (int i = 0; i < N; i++) {
-                for (int j = 0; j < N; j++) {
-                    C1[i] += lookup[i][j];
-                }
-            }
-            // C1<-C1/N
-            this.divide(C1, N);
-            // C2<-0
-            double C2 = 0;
-            // for (i in 1:N) for (j in 1:N) C2<-C2+lookup[i,j]
-            for (int i = 0; i < N; i++) {
-                for (int j = 0; j < N; j++) {
-                    C2 += lookup[i][j];
-                }
+            C1[i] = sum;
+            total += sum;
+        }
+        if (sim.equals("permutation")) {
+            this.permutationTest(RVAL, lookup, C1, total, replicates);
+            return RVAL;
+        }
+        // C1<-C1/N
+        this.divide(C1, N);
+        // C2<-0
+        // for (i in 1:N) for (j in 1:N) C2<-C2+lookup[i,j]
+        // C2<-C2/N^2
+        double C2 = total / ((double) N * N);
+        // B<-matrix(rep(0,N^2),ncol=N)
+        // for (i in 1:N) for (j in 1:N) B[i,j]<-C1[i]+C1[j]-C2-lookup[i,j]
+        // B<-B/N
+        // B is symmetric, so only its lower triangle is built
+        double[][] B = new double[N][];
+        for (int i = 0; i < N; i++) {
+            int row = i * N;
+            double[] b = new double[i + 1];
+            for (int j = 0; j <= i; j++) {
+                b[j] = (C1[i] + C1[j] - C2 - lookup[row + j]) / N;
             }
-            // C2<-C2/N^2
-            C2 /= (N * N);
-            // B<-matrix(rep(0,N^2),ncol=N)
-            double[][] B = new double[N][N];
-            // for (i in 1:N) for (j in 1:N) B[i,j]<-C1[i]+C1[j]-C2-lookup[i,j]
-            for (int i = 0; i < N; i++) {
-                for (int j = 0; j < N; j++) {
-                    B[i][j] = C1[i] + C1[j] - C2 - lookup[i][j];
-                }
-            }
-            // B<-B/N
-            this.divide(B, N);
-            // RVAL$ev<-eigen(B,FALSE)
-            Matrix matrix = new Matrix(B);
-            EigenvalueDecomposition evd = matrix.eig();
-            double[] lambdasquare = evd.getRealEigenvalues();
-            Arrays.sort(lambdasquare);
-            this.reverse(lambdasquare);
-            RVAL.ev = lambdasquare;
-            // kritwert<-.cramer.kritwertfft(Re((RVAL$ev)$values),conf.level,maxM,K)
-            Kritwert kw = this.kritwertfft(lambdasquare, RVAL.confLevel, maxM, k);
-            // RVAL$p.value<-1-(kritwert$hypdist.Fx)[which.min(abs((kritwert$hypdist.x)[1:(3*length(kritwert$hypdist.x)/4)]-RVAL$statistic))];
-            double[] temp = Arrays.copyOf(kw.x, 3 * kw.x.length / 4);
-            temp = this.plus(temp, -RVAL.statistic);
-            for (int i = 0; i < temp.length; i++) {
-                temp[i] = Math.abs(temp[i]);
+            B[i] = b;
+        }
+        // RVAL$ev<-eigen(B,FALSE)
+        double[] lambdasquare = symmetricEigenvalues(B);
+        Arrays.sort(lambdasquare);
+        this.reverse(lambdasquare);
+        RVAL.ev = lambdasquare;
+        // kritwert<-.cramer.kritwertfft(Re((RVAL$ev)$values),conf.level,maxM,K)
+        Kritwert kw = this.kritwertfft(lambdasquare, RVAL.confLevel, maxM, k);
+        // RVAL$p.value<-1-(kritwert$hypdist.Fx)[which.min(abs((kritwert$hypdist.x)[1:(3*length(kritwert$hypdist.x)/4)]-RVAL$statistic))];
+        double[] temp = Arrays.copyOf(kw.x, 3 * kw.x.length / 4);
+        temp = this.plus(temp, -RVAL.statistic);
+        for (int i = 0; i < temp.length; i++) {
+            temp[i] = Math.abs(temp[i]);
+        }
+        RVAL.pValue = 1 - kw.Fx[this.whichMin(temp)];
+        // RVAL$crit.value<-kritwert$quantile
+        RVAL.critValue = kw.quantile;
+        // RVAL$hypdist.x<-kritwert$hypdist.x
+        RVAL.hypdistX = kw.x;
+        // RVAL$hypdist.Fx<-kritwert$hypdist.Fx
+        RVAL.hypdistFx = kw.Fx;
+        // if (RVAL$statistic>RVAL$crit.value) RVAL$result<-1
+        if (RVAL.statistic > RVAL.critValue) {
+            RVAL.result = 1.0;
+        }
+        return RVAL;
+    }
+
+    /**
+     * Estimates the null distribution of the statistic from permutation
+     * replicates that all reuse the kernel matrix.
+     */
+    private void permutationTest(CramerTest RVAL, final double[] lookup, final double[] rowSums,
+            final double total, int replicates) throws InterruptedException {
+        final int m = RVAL.m;
+        final int n = RVAL.n;
+        final long seed = this.randomSeedOption.getValue();
+        final double[] t = new double[replicates];
+        if (this.parallelReplicatesOption.isSet()) {
+            IntStream.range(0, replicates).parallel().forEach(r
+                    -> t[r] = this.permutationStatistic(lookup, rowSums, total, m, n, seed + r * 0x9E3779B97F4A7C15L));
+            checkInterrupted();
+        } else {
+            for (int r = 0; r < replicates; r++) {
+                checkInterrupted();
+                t[r] = this.permutationStatistic(lookup, rowSums, total, m, n, seed + r * 0x9E3779B97F4A7C15L);
             }
-            RVAL.pValue = 1 - kw.Fx[this.whichMin(temp)];
-            // RVAL$crit.value<-kritwert$quantile
-            RVAL.critValue = kw.quantile;
-            // RVAL$hypdist.x<-kritwert$hypdist.x
-            RVAL.hypdistX = kw.x;
-            // RVAL$hypdist.Fx<-kritwert$hypdist.Fx
-            RVAL.hypdistFx = kw.Fx;
-            // if (RVAL$statistic>RVAL$crit.value) RVAL$result<-1
-            if (RVAL.statistic > RVAL.critValue) {
-                RVAL.result = 1.0;
+        }
+        // p.value<-1-rank(c(t0,t))[1]/(replicates+1), ties getting their average rank
+        int below = 0, ties = 0;
+        for (double v : t) {
+            if (v < RVAL.statistic) {
+                below++;
+            } else if (v == RVAL.statistic) {
+                ties++;
             }
         }
-        return RVAL;
+        double rank = below + 1 + ties / 2.0;
+        RVAL.pValue = 1 - rank / (replicates + 1);
+        Arrays.sort(t);
+        RVAL.critValue = t[Math.min(replicates - 1, (int) Math.round(RVAL.confLevel * replicates))];
+        if (RVAL.statistic > RVAL.critValue) {
+            RVAL.result = 1;
+        }
+        RVAL.hypdistX = t;
+        RVAL.hypdistFx = this.createVector(replicates);
     }
 
     public CramerTest cramerTest(List<Instance> x, List<Instance> y, double confLevel, int replicates, String sim, boolean justStatistic, int kernel, double maxM, int k) {
@@ -631,6 +813,21 @@ public class Cramer extends AbstractOptionHandler implements StatisticalTest {
         return this.compute(RVAL, daten, replicates, sim, justStatistic, kernel, maxM, k);
     }
 
+    /**
+     * Performs the test on two windows, reading the distances inside each
+     * window from their caches.
+     *
+     * @throws InterruptedException if the thread is interrupted meanwhile
+     */
+    public CramerTest cramerTest(SampleWindow x, SampleWindow y) throws InterruptedException {
+        CramerTest RVAL = new CramerTest(0, 0, 0, 0, 0, 0, 0, this.confidenceLevelOption.getValue(), this.replicatesOption.getValue(), null, null, null);
+        RVAL.d = x.get(0).numAttributes();
+        RVAL.m = x.size();
+        RVAL.n = y.size();
+        double[] lookup = SampleWindow.pairwiseDistances(x, y);
+        return this.computeFromLookup(RVAL, lookup, this.replicatesOption.getValue(), this.simulationOption.getChosenLabel(), false, this.kernelOption.getChosenIndex(), this.maxMOption.getValue(), this.kOption.getValue());
+    }
+
     private void reverse(double[] array) {
         double temp;
         for (int i = 0, j = array.length - 1; i < j; i++, j--) {
@@ -722,7 +919,7 @@ public class Cramer extends AbstractOptionHandler implements StatisticalTest {
 
     @Override
     public double test(List<Instance> x, List<Instance> y) {
-        return this.cramerTest(x, y).confLevel;
+        return this.cramerTest(x, y).pValue;
     }
 
     @Override
@@ -733,6 +930,9 @@ public class Cramer extends AbstractOptionHandler implements StatisticalTest {
 
     @Override
     public Double call() throws Exception {
+        if (this.window1 != null) {
+            return this.cramerTest(this.window1, this.window2).pValue;
+        }
         return this.test(sample1i, sample2i);
     }
 
@@ -740,5 +940,15 @@ public class Cramer extends AbstractOptionHandler implements StatisticalTest {
     public void set(List<Instance> x, List<Instance> y) {
         this.sample1i = x;
         this.sample2i = y;
+        this.window1 = null;
+        this.window2 = null;
+    }
+
+    @Override
+    public void set(SampleWindow x, SampleWindow y) {
+        this.window1 = x;
+        this.window2 = y;
+        this.sample1i = null;
+        this.sample2i = null;
     }
 }
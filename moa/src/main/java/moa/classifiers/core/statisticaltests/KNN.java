@@ -21,10 +21,7 @@ package moa.classifiers.core.statisticaltests;
 
 import com.github.javacliparser.IntOption;
 import com.yahoo.labs.samoa.instances.Instance;
-import java.util.Arrays;
-import java.util.Comparator;
 import java.util.List;
-import java.util.PriorityQueue;
 
 import moa.core.ObjectRepository;
 import moa.options.AbstractOptionHandler;
@@ -41,15 +38,15 @@ public class KNN extends AbstractOptionHandler implements StatisticalTest {
     private List<Instance> sample1i;
     private List<Instance> sample2i;
 
+    private SampleWindow window1;
+    private SampleWindow window2;
+
     public IntOption kValueOption = new IntOption("kValue", 'k',
             "K value of the K nearest neighbours algorithm.", 5, 1,
             Integer.MAX_VALUE);
 
-    private double[] compute(double[][] set, int d, int n1, int n2) throws InterruptedException {
+    private double[] compute(int[] counts, int n1, int n2) {
         double n = n1 + n2;
-        Arrays.fill(set[d], 0, n1, 1.0);
-        Arrays.fill(set[d], n1, n1 + n2, 2.0);
-        int[] counts = this.knn(set, n1 + n2, d, this.kValueOption.getValue());
         double Tk = 0;
         for (int i = 0; i < counts.length; i++) {
             Tk += counts[i];
@@ -66,14 +63,6 @@ public class KNN extends AbstractOptionHandler implements StatisticalTest {
         return new double[]{Tk, Z, P};
     }
 
-    private double[] attributeToDoubleArray(List<Instance> list, int attIndex) {
-        double[] ret = new double[list.size()];
-        for (int i = 0; i < list.size(); i++) {
-            ret[i] = list.get(i).value(attIndex);
-        }
-        return ret;
-    }
-
     public double[] mtsknn(List<Instance> x, List<Instance> y) throws InterruptedException {
         if (x.get(0).numAttributes() != y.get(0).numAttributes()) {
             System.out.println("The dimensions of two samples must match!!!");
@@ -82,14 +71,137 @@ public class KNN extends AbstractOptionHandler implements StatisticalTest {
         int d = x.get(0).numAttributes() - 1;
         int n1 = x.size();
         int n2 = y.size();
-        double[][] set = new double[d + 1][n1 + n2];
-        for (int i = 0; i < d; i++) {
-            double[] t1 = this.attributeToDoubleArray(x, i);
-            double[] t2 = this.attributeToDoubleArray(y, i);
-            System.arraycopy(t1, 0, set[i], 0, t1.length);
-            System.arraycopy(t2, 0, set[i], t1.length, t2.length);
+        int n = n1 + n2;
+        // Instances of both samples, row-major, without the class
+        double[] points = new double[n * d];
+        for (int i = 0; i < n; i++) {
+            Instance inst = i < n1 ? x.get(i) : y.get(i - n1);
+            for (int a = 0; a < d; a++) {
+                points[i * d + a] = inst.value(a);
+            }
+        }
+        int k = this.kValueOption.getValue();
+        int[] counts = new int[n];
+        double[] distances = new double[n];
+        double[] heapDistances = new double[k];
+        int[] heapIndexes = new int[k];
+        for (int i = 0; i != n; ++i) {
+            if (Thread.interrupted()) {
+                // We've been interrupted: no more crunching.
+                throw new InterruptedException();
+            }
+            int from = i * d;
+            for (int j = 0; j != n; ++j) {
+                int to = j * d;
+                double sum = 0;
+                for (int a = 0; a != d; ++a) {
+                    double diff = points[from + a] - points[to + a];
+                    sum += diff * diff;
+                }
+                distances[j] = sum;
+            }
+            counts[i] = sameSampleNeighbours(distances, i, n1, n, k,
+                    heapDistances, heapIndexes);
+        }
+        return this.compute(counts, n1, n2);
+    }
+
+    /**
+     * Performs the test on two windows, reading the distances inside each
+     * window from their caches.
+     *
+     * @return the statistic, the normalised statistic and the p-value
+     * @throws InterruptedException if the thread is interrupted meanwhile
+     */
+    public double[] mtsknn(SampleWindow x, SampleWindow y) throws InterruptedException {
+        int n1 = x.size();
+        int n2 = y.size();
+        int n = n1 + n2;
+        int k = this.kValueOption.getValue();
+        int[] counts = new int[n];
+        double[] distances = new double[n];
+        double[] heapDistances = new double[k];
+        int[] heapIndexes = new int[k];
+        for (int i = 0; i != n; ++i) {
+            if (Thread.interrupted()) {
+                // We've been interrupted: no more crunching.
+                throw new InterruptedException();
+            }
+            SampleWindow.distancesFrom(x, y, i, distances);
+            counts[i] = sameSampleNeighbours(distances, i, n1, n, k,
+                    heapDistances, heapIndexes);
+        }
+        return this.compute(counts, n1, n2);
+    }
+
+    /**
+     * Computes, for one instance, the number of its k nearest neighbours that
+     * are from the same sample. The k smallest distances are selected with a
+     * primitive max-heap in a single pass; among equal distances the lower
+     * indexes are kept.
+     *
+     * @param distances Distances from instance i to all the instances, the
+     * first n1 being from the first sample.
+     * @return the number of the closest neighbours that are from the same
+     * sample.
+     */
+    private static int sameSampleNeighbours(double[] distances, int i, int n1,
+            int n, int k, double[] heapDistances, int[] heapIndexes) {
+        int size = 0;
+        for (int j = 0; j != n; ++j) {
+            if (j == i) {
+                continue;
+            }
+            double e = distances[j];
+            if (size < k) {
+                // sift up: j is the largest index so far, so it goes above
+                // any parent that is not strictly farther
+                int c = size++;
+                while (c > 0) {
+                    int parent = (c - 1) >>> 1;
+                    if (heapDistances[parent] > e) {
+                        break;
+                    }
+                    heapDistances[c] = heapDistances[parent];
+                    heapIndexes[c] = heapIndexes[parent];
+                    c = parent;
+                }
+                heapDistances[c] = e;
+                heapIndexes[c] = j;
+            } else if (e < heapDistances[0]) {
+                // replace the farthest and sift down
+                int c = 0;
+                while (true) {
+                    int child = 2 * c + 1;
+                    if (child >= k) {
+                        break;
+                    }
+                    int right = child + 1;
+                    if (right < k && (heapDistances[right] > heapDistances[child]
+                            || (heapDistances[right] == heapDistances[child]
+                            && heapIndexes[right] > heapIndexes[child]))) {
+                        child = right;
+                    }
+                    if (!(heapDistances[child] > e
+                            || (heapDistances[child] == e && heapIndexes[child] > j))) {
+                        break;
+                    }
+                    heapDistances[c] = heapDistances[child];
+                    heapIndexes[c] = heapIndexes[child];
+                    c = child;
+                }
+                heapDistances[c] = e;
+                heapIndexes[c] = j;
+            }
+        }
+        boolean first = i < n1;
+        int count = 0;
+        for (int h = 0; h < size; h++) {
+            if ((heapIndexes[h] < n1) == first) {
+                count++;
+            }
         }
-        return this.compute(set, d, n1, n2);
+        return count;
     }
 
     private double pnorm(double x, double mu, double sigma, boolean lower_tail,
@@ -121,106 +233,6 @@ public class KNN extends AbstractOptionHandler implements StatisticalTest {
         return (lower_tail ? ret[0] : ret[1]);
     }
 
-    private class DIPair {
-
-        double e = 0;
-        int i = 0;
-
-        public DIPair(double e0, int i0) {
-            this.e = e0;
-            this.i = i0;
-        }
-
-        public double getE() {
-            return e;
-        }
-
-        public int getI() {
-            return i;
-        }
-    }
-
-    private class HigherComparator implements Comparator<DIPair> {
-
-        @Override
-        public int compare(DIPair o1, DIPair o2) {
-            return (o1.e > o2.e) ? -1 : ((o1.e == o2.e) ? 0 : 1);
-        }
-    }
-
-    // Calculando as distancias entre dois pontos para todos os atributos
-    private double dist(double[][] points, int v1, int v2, int d) {
-        double sum = 0;
-        for (int i = 0; i != d; ++i) {
-            // Do not use Math.pow! It is 8x slower than computing directly
-            sum += (points[i][v1] - points[i][v2])
-                    * (points[i][v1] - points[i][v2]);
-        }
-        return sum;
-    }
-
-    /**
-     * Computes, for each instance, the number of the k nearest neighbors that
-     * are from the same sample.
-     *
-     * @param points Instances of both samples put together, with the last
-     * column having 1 for the first sample and 2 for the second sample.
-     * @param n Number of instances.
-     * @param d Number of attributes + 1 column.
-     * @param k K nearest neighbors.
-     * @return the number of the closest neighbors that are from the same
-     * sample.
-     * @throws InterruptedException
-     */
-    private int[] knn(double[][] points, int n, int d, int k) throws InterruptedException {
-        int[] counts = new int[n];
-        int[] closest = new int[n * k];
-        // Percorrendo todos os atributos
-        for (int i = 0; i != n; ++i) {
-            if (Thread.interrupted()) {
-                // We've been interrupted: no more crunching.
-                throw new InterruptedException();
-            }
-            PriorityQueue<DIPair> q = new PriorityQueue(k,
-                    new HigherComparator());
-            // Percorrendo os valores do atributo
-            for (int j = 0; j != n; ++j) {
-                if (i != j) {
-                    DIPair dis = new DIPair(this.dist(points, i, j, d), j);
-                    if (q.size() == k) {
-                        if (dis.getE() < q.peek().getE()) {
-                            q.add(dis);
-                            q.poll();
-                        }
-                    } else {
-                        q.add(dis);
-                    }
-                }
-            }
-            // Armazenando as posicoes das k menores distancias em ordem
-            // crescente para cada instancia
-            for (int j = 0; j != k; ++j) {
-                closest[i * k + j] = q.poll().getI();
-            }
-        }
-        // Percorrendo todas as instancias
-        for (int i = 0; i != n; ++i) {
-            if (Thread.interrupted()) {
-                // We've been interrupted: no more crunching.
-                throw new InterruptedException();
-            }
-            // Percorrendo os k valores mais proximos
-            for (int j = 0; j != k; ++j) {
-                // Verificando se as instancias mais proximas sao da mesma
-                // amostra
-                if (points[d][closest[i * k + j]] == points[d][i]) {
-                    counts[i] += 1;
-                }
-            }
-        }
-        return counts;
-    }
-
     private double R_DT(boolean lower_tail, boolean log_p) {
         return (lower_tail) ? ((log_p) ? Double.NEGATIVE_INFINITY : 0)
                 : ((log_p) ? 0 : 1);
@@ -411,6 +423,9 @@ public class KNN extends AbstractOptionHandler implements StatisticalTest {
 
     @Override
     public Double call() throws Exception {
+        if (this.window1 != null) {
+            return this.mtsknn(this.window1, this.window2)[2];
+        }
         return this.test(sample1i, sample2i);
     }
 
@@ -418,6 +433,16 @@ public class KNN extends AbstractOptionHandler implements StatisticalTest {
     public void set(List<Instance> x, List<Instance> y) {
         this.sample1i = x;
         this.sample2i = y;
+        this.window1 = null;
+        this.window2 = null;
+    }
+
+    @Override
+    public void set(SampleWindow x, SampleWindow y) {
+        this.window1 = x;
+        this.window2 = y;
+        this.sample1i = null;
+        this.sample2i = null;
     }
 
     public static void main(String[] args) throws Exception {
@@ -0,0 +1,297 @@
+/*
+ *    SampleWindow.java
+ *    Copyright (C) 2020 University of Waikato, Hamilton, New Zealand
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.classifiers.core.statisticaltests;
+
+import com.yahoo.labs.samoa.instances.Instance;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A bounded sliding window of instances used as a sample by the statistical
+ * tests. The attribute values (class excluded) are kept as primitive rows, and
+ * the squared Euclidean distances between the instances of the window can be
+ * cached, so that a window compared many times against other samples only
+ * pays for the distances across samples.
+ *
+ * The cache is filled lazily: adding an instance only marks it, and the
+ * distances of the instances added since are computed by the first test
+ * reading the window. The cache grows with the number of instances in the
+ * window, up to capacity * capacity doubles, and is not serialized. Tests
+ * may read a window from several threads as long as it does not change
+ * meanwhile.
+ *
+ * Instances are addressed by their position in the window, 0 being the
+ * oldest one.
+ *
+ * @version $Revision: 1 $
+ */
+public class SampleWindow implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    protected final int capacity;
+
+    protected final Instance[] instances;
+
+    protected final double[][] rows;
+
+    protected final boolean cacheDistances;
+
+    /** Squared distances between slots, null until first used. */
+    protected transient double[][] distances;
+
+    /** The number of newest instances whose distances are not cached. */
+    protected int stale;
+
+    protected int start;
+
+    protected int size;
+
+    /**
+     * Creates an empty window.
+     *
+     * @param capacity the maximum number of instances, older ones are
+     * discarded first
+     * @param cacheDistances whether the distances between the instances of
+     * the window are cached (up to capacity * capacity doubles)
+     */
+    public SampleWindow(int capacity, boolean cacheDistances) {
+        this.capacity = capacity;
+        this.instances = new Instance[capacity];
+        this.rows = new double[capacity][];
+        this.cacheDistances = cacheDistances;
+    }
+
+    /**
+     * Adds an instance, discarding the oldest one if the window is full.
+     */
+    public void add(Instance instance) {
+        int slot;
+        if (this.size == this.capacity) {
+            slot = this.start;
+            this.start = (this.start + 1) % this.capacity;
+        } else {
+            slot = (this.start + this.size) % this.capacity;
+            this.size++;
+        }
+        double[] row = new double[instance.numAttributes() - 1];
+        for (int j = 0; j < row.length; j++) {
+            row[j] = instance.value(j);
+        }
+        this.instances[slot] = instance;
+        this.rows[slot] = row;
+        this.stale = Math.min(this.stale + 1, this.size);
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    public boolean isCachingDistances() {
+        return this.cacheDistances;
+    }
+
+    public Instance get(int index) {
+        return this.instances[slot(index)];
+    }
+
+    /**
+     * Returns the attribute values, class excluded, of the instance at the
+     * given position. The array must not be modified.
+     */
+    public double[] getRow(int index) {
+        return this.rows[slot(index)];
+    }
+
+    /**
+     * Returns the squared Euclidean distance between two instances of the
+     * window.
+     */
+    public double getDistance(int i, int j) {
+        updateDistances();
+        return distance(i, j);
+    }
+
+    /**
+     * Computes the distances of the instances added since the last update
+     * into the cache, growing it first if needed. Does nothing when
+     * distances are not cached.
+     */
+    protected synchronized void updateDistances() {
+        if (!this.cacheDistances) {
+            return;
+        }
+        if ((this.distances == null) || (this.distances.length < this.size)) {
+            // Until the window is full its slots are 0 to size - 1
+            int length = Math.min(this.capacity, Math.max(this.size,
+                    (this.distances == null) ? 16 : 2 * this.distances.length));
+            double[][] grown = new double[length][length];
+            if (this.distances == null) {
+                this.stale = this.size;
+            } else {
+                for (int i = 0; i < this.distances.length; i++) {
+                    System.arraycopy(this.distances[i], 0, grown[i], 0, this.distances.length);
+                }
+            }
+            this.distances = grown;
+        }
+        // Each pair with a stale instance is computed once, by its newest one
+        for (int i = this.size - this.stale; i < this.size; i++) {
+            int slot = slot(i);
+            double[] row = this.rows[slot];
+            for (int j = 0; j <= i; j++) {
+                int other = slot(j);
+                double d = squaredDistance(row, this.rows[other]);
+                this.distances[slot][other] = d;
+                this.distances[other][slot] = d;
+            }
+        }
+        this.stale = 0;
+    }
+
+    /**
+     * Returns the distance between two instances, from the cache if present,
+     * which must be up to date.
+     */
+    protected double distance(int i, int j) {
+        if (this.cacheDistances) {
+            return this.distances[slot(i)][slot(j)];
+        }
+        return squaredDistance(getRow(i), getRow(j));
+    }
+
+    /**
+     * Returns the instances of the window, oldest first, in a new list.
+     */
+    public List<Instance> getInstances() {
+        List<Instance> list = new ArrayList<Instance>(this.size);
+        for (int i = 0; i < this.size; i++) {
+            list.add(get(i));
+        }
+        return list;
+    }
+
+    protected int slot(int index) {
+        return (this.start + index) % this.capacity;
+    }
+
+    /**
+     * Computes the squared distances between all the instances of x followed
+     * by all the instances of y. Distances inside each window are read from
+     * its cache when present, so only distances across windows are computed.
+     *
+     * @return a row-major (n1 + n2) x (n1 + n2) matrix
+     * @throws InterruptedException if the thread is interrupted meanwhile
+     */
+    public static double[] pairwiseDistances(SampleWindow x, SampleWindow y)
+            throws InterruptedException {
+        int n1 = x.size();
+        int n = n1 + y.size();
+        double[] matrix = new double[n * n];
+        x.copyDistances(matrix, n, 0);
+        y.copyDistances(matrix, n, n1);
+        for (int i = 0; i < n1; i++) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            double[] row = x.getRow(i);
+            for (int j = n1; j < n; j++) {
+                double d = squaredDistance(row, y.getRow(j - n1));
+                matrix[i * n + j] = d;
+                matrix[j * n + i] = d;
+            }
+        }
+        return matrix;
+    }
+
+    /**
+     * Computes the squared distances from one instance to all the instances
+     * of x followed by all the instances of y, reading distances inside a
+     * window from its cache when present.
+     *
+     * @param i the position of the instance in x followed by y
+     * @param out the array to fill, of length at least n1 + n2
+     */
+    public static void distancesFrom(SampleWindow x, SampleWindow y, int i,
+            double[] out) {
+        int n1 = x.size();
+        int n2 = y.size();
+        if (i < n1) {
+            x.updateDistances();
+            double[] row = x.getRow(i);
+            for (int j = 0; j < n1; j++) {
+                out[j] = x.distance(i, j);
+            }
+            for (int j = 0; j < n2; j++) {
+                out[n1 + j] = squaredDistance(row, y.getRow(j));
+            }
+        } else {
+            double[] row = y.getRow(i - n1);
+            for (int j = 0; j < n1; j++) {
+                out[j] = squaredDistance(row, x.getRow(j));
+            }
+            y.updateDistances();
+            for (int j = 0; j < n2; j++) {
+                out[n1 + j] = y.distance(i - n1, j);
+            }
+        }
+    }
+
+    /**
+     * Copies the distances of the window into the diagonal block of a
+     * row-major matrix that starts at the given offset.
+     */
+    protected void copyDistances(double[] matrix, int n, int offset)
+            throws InterruptedException {
+        updateDistances();
+        for (int i = 0; i < this.size; i++) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            int base = (offset + i) * n + offset;
+            if (this.cacheDistances) {
+                double[] cached = this.distances[slot(i)];
+                for (int j = 0; j < this.size; j++) {
+                    matrix[base + j] = cached[slot(j)];
+                }
+            } else {
+                double[] row = getRow(i);
+                for (int j = 0; j < i; j++) {
+                    double d = squaredDistance(row, getRow(j));
+                    matrix[base + j] = d;
+                    matrix[(offset + j) * n + offset + i] = d;
+                }
+            }
+        }
+    }
+
+    protected static double squaredDistance(double[] a, double[] b) {
+        double sum = 0;
+        for (int k = 0; k < a.length; k++) {
+            double diff = a[k] - b[k];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+}
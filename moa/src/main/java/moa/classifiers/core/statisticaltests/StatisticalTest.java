@@ -45,4 +45,15 @@ public interface StatisticalTest extends OptionHandler, Callable<Double> {
      * @param y List of instances
      */
     public void set(List<Instance> x, List<Instance> y);
+    /**
+     * This method sets the samples for later use in concurrent scenarios.
+     * Tests that can exploit the primitive rows and cached distances of the
+     * windows override it; by default the instances are copied into lists.
+     * The windows must not be modified until call() returns.
+     * @param x Window of instances
+     * @param y Window of instances
+     */
+    public default void set(SampleWindow x, SampleWindow y) {
+        this.set(x.getInstances(), y.getInstances());
+    }
 }
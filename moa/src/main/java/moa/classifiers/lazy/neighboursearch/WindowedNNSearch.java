@@ -0,0 +1,641 @@
+/*
+ *   This program is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   This program is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ *    WindowedNNSearch.java
+ *    Copyright (C) 2020 University of Waikato
+ */
+
+package moa.classifiers.lazy.neighboursearch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+
+/**
+ * Brute force nearest neighbour search over a first-in first-out window of
+ * instances that is kept between searches. It returns exactly the neighbours,
+ * in the same order, that a LinearNNSearch with a normalized
+ * EuclideanDistance built over the current window would return, but:
+ * <ul>
+ * <li>attribute values are stored as primitive rows and the attribute ranges
+ * are maintained on insertion and eviction instead of being recomputed for
+ * every search;</li>
+ * <li>the neighbours found for a target are cached and survive insertions
+ * that cannot change them (the new instance is farther than the current
+ * k-th neighbour and the ranges did not change), and evictions of instances
+ * that are not among them as long as no two of them are at the same
+ * distance: with ties, the order in which they are reported depends on the
+ * scan, which an eviction changes;</li>
+ * <li>the neighbours of all the instances of the window can be computed in
+ * one batch, optionally in parallel.</li>
+ * </ul>
+ * The caller adds instances to the window with update(Instance) and removes
+ * the oldest one with removeOldest(), mirroring the changes it makes to the
+ * Instances given to the constructor, or calls synchronize() after changing
+ * them, as long as instances are only added at the end and deleted from the
+ * front.
+ *
+ * @version $Revision: 1 $
+ */
+public class WindowedNNSearch
+  extends NearestNeighbourSearch {
+
+  /** for serialization. */
+  private static final long serialVersionUID = 1L;
+
+  /** The neighbours found for one target. */
+  protected static class Neighbours
+    implements java.io.Serializable {
+
+    /** for serialization. */
+    private static final long serialVersionUID = 1L;
+
+    /** the number of neighbours asked for. */
+    protected int m_K;
+
+    /** the attribute values of the target. */
+    protected double[] m_TargetRow;
+
+    /** the sequence numbers of the neighbours, in result order. */
+    protected long[] m_Sequences;
+
+    /** the squared distances of the neighbours, in result order. */
+    protected double[] m_Distances;
+
+    /** the largest squared distance among the neighbours. */
+    protected double m_KthDistance;
+  }
+
+  /** the instances of the window, oldest first, in a ring. */
+  protected Instance[] m_Window;
+
+  /** the attribute values of the instances of the window. */
+  protected double[][] m_Rows;
+
+  /** the position in the ring of the oldest instance. */
+  protected int m_Head;
+
+  /** the number of instances in the window. */
+  protected int m_Size;
+
+  /** the sequence number of the oldest instance. */
+  protected long m_FirstSequence;
+
+  /** whether each attribute is nominal. */
+  protected boolean[] m_Nominal;
+
+  /** the attribute minima. */
+  protected double[] m_Min;
+
+  /** the attribute maxima. */
+  protected double[] m_Max;
+
+  /** the attribute widths. */
+  protected double[] m_Width;
+
+  /** whether the ranges must be recomputed after an eviction. */
+  protected boolean m_RangesDirty;
+
+  /** the neighbours found per target, valid for the current window. */
+  protected Map<Instance, Neighbours> m_Cache = new IdentityHashMap<Instance, Neighbours>();
+
+  /** the number of targets cached by single searches before the cache is
+   * emptied. */
+  protected int m_CacheLimit = Integer.MAX_VALUE;
+
+  /** the distances of the last neighbours returned. */
+  protected double[] m_Distances;
+
+  /**
+   * Constructor that indexes the supplied set of instances.
+   *
+   * @param insts	the instances to use
+   */
+  public WindowedNNSearch(Instances insts) {
+    super(insts);
+    int numAtt = insts.numAttributes();
+    m_Nominal = new boolean[numAtt];
+    for (int j = 0; j < numAtt; j++)
+      m_Nominal[j] = insts.attribute(j).isNominal();
+    m_Min = new double[numAtt];
+    m_Max = new double[numAtt];
+    m_Width = new double[numAtt];
+    rebuild();
+  }
+
+  /**
+   * Returns a string describing this nearest neighbour search algorithm.
+   *
+   * @return 		a description of the algorithm
+   */
+  public String globalInfo() {
+    return
+        "Brute force nearest neighbour search over a sliding window, with "
+      + "cached neighbours and incrementally maintained attribute ranges.";
+  }
+
+  /**
+   * Sets the number of targets whose neighbours found by single searches
+   * are cached before the cache is emptied. Every cached target costs one
+   * distance computation per insertion, so callers that never search the
+   * same target again after a few insertions should keep it low.
+   *
+   * @param limit	the maximum number of cached targets
+   */
+  public void setCacheLimit(int limit) {
+    m_CacheLimit = limit;
+  }
+
+  /**
+   * Returns the maximum number of cached targets.
+   *
+   * @return		the limit
+   */
+  public int getCacheLimit() {
+    return m_CacheLimit;
+  }
+
+  /**
+   * Returns the number of instances in the window.
+   *
+   * @return		the size of the window
+   */
+  public int size() {
+    return m_Size;
+  }
+
+  /**
+   * Returns the instance at the given position of the window, 0 being the
+   * oldest one.
+   *
+   * @param position	the position
+   * @return		the instance
+   */
+  public Instance instance(int position) {
+    return m_Window[ring(position)];
+  }
+
+  /**
+   * Adds an instance at the end of the window. The instance must already
+   * have been added to the Instances given to the constructor.
+   *
+   * @param ins		the instance to add
+   */
+  public void update(Instance ins) {
+    double[] row = append(ins);
+    boolean rangesChanged = m_RangesDirty || updateRanges(row);
+    if (rangesChanged) {
+      m_Cache.clear();
+      return;
+    }
+    // A new instance is examined last, so it only changes the neighbours of
+    // a target if it is at most as far as their k-th neighbour.
+    Iterator<Map.Entry<Instance, Neighbours>> it = m_Cache.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<Instance, Neighbours> entry = it.next();
+      if (entry.getKey() == ins)
+        continue;
+      Neighbours n = entry.getValue();
+      if (n.m_Sequences.length < n.m_K)
+        it.remove();
+      else if (distance(n.m_TargetRow, row, n.m_KthDistance) <= n.m_KthDistance)
+        it.remove();
+    }
+  }
+
+  /**
+   * Removes the oldest instance of the window. The caller must also remove
+   * it from the Instances given to the constructor.
+   */
+  public void removeOldest() {
+    Instance oldest = m_Window[m_Head];
+    long sequence = m_FirstSequence;
+    double[] row = m_Rows[m_Head];
+    m_Window[m_Head] = null;
+    m_Rows[m_Head] = null;
+    m_Head = (m_Head + 1) % m_Window.length;
+    m_Size--;
+    m_FirstSequence++;
+    for (int j = 0; j < row.length; j++) {
+      if (usesRange(j) && (row[j] == m_Min[j] || row[j] == m_Max[j])) {
+        m_RangesDirty = true;
+        break;
+      }
+    }
+    if (m_RangesDirty) {
+      m_Cache.clear();
+      return;
+    }
+    Iterator<Map.Entry<Instance, Neighbours>> it = m_Cache.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<Instance, Neighbours> entry = it.next();
+      if (entry.getKey() == oldest || !survivesEviction(entry.getValue(), sequence))
+        it.remove();
+    }
+  }
+
+  /**
+   * Returns whether the neighbours of a target are unchanged by the eviction
+   * of an instance. Without ties they are the k nearest ones in order of
+   * distance, whatever the scan order; with ties, or fewer than k, the
+   * eviction may change which ones are reported or their order.
+   *
+   * @param n		the neighbours of the target
+   * @param sequence	the sequence number of the evicted instance
+   * @return		true if the neighbours can be kept
+   */
+  protected static boolean survivesEviction(Neighbours n, long sequence) {
+    if (n.m_Sequences.length != n.m_K)
+      return false;
+    for (int i = 0; i < n.m_Sequences.length; i++) {
+      if (n.m_Sequences[i] == sequence)
+        return false;
+      if (i > 0 && n.m_Distances[i] == n.m_Distances[i - 1])
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Brings the window in line with the Instances given to the constructor,
+   * after instances were added at their end or deleted from their front.
+   * Any other change makes the whole window be rebuilt.
+   */
+  public void synchronize() {
+    int numInstances = m_Instances.numInstances();
+    Instance first = numInstances > 0 ? m_Instances.instance(0) : null;
+    while (m_Size > 0 && m_Window[m_Head] != first)
+      removeOldest();
+    if (m_Size == 0 || m_Size > numInstances
+        || m_Window[ring(m_Size - 1)] != m_Instances.instance(m_Size - 1)) {
+      rebuild();
+      return;
+    }
+    for (int i = m_Size; i < numInstances; i++)
+      update(m_Instances.instance(i));
+  }
+
+  /**
+   * Returns the k nearest instances of the window to the supplied instance.
+   *
+   * @param target 	the instance to find the k nearest neighbours for
+   * @param kNN		the number of nearest neighbours to find
+   * @return		the k nearest neighbors
+   * @throws Exception  if the neighbours could not be found
+   */
+  public Instances kNearestNeighbours(Instance target, int kNN) throws Exception {
+    List<Instance> list = kNearestNeighbourList(target, kNN);
+    Instances neighbours = new Instances(m_Instances, list.size());
+    for (Instance ins : list)
+      neighbours.add(ins);
+    return neighbours;
+  }
+
+  /**
+   * Returns the k nearest instances of the window to the supplied instance,
+   * without building an Instances object.
+   *
+   * @param target 	the instance to find the k nearest neighbours for
+   * @param kNN		the number of nearest neighbours to find
+   * @return		the k nearest neighbors, nearest first
+   * @throws Exception  if the neighbours could not be found
+   */
+  public List<Instance> kNearestNeighbourList(Instance target, int kNN) throws Exception {
+    validateRanges();
+    Neighbours n = m_Cache.get(target);
+    if (n == null || n.m_K != kNN) {
+      n = search(target, rowOf(target), kNN);
+      if (m_Cache.size() >= m_CacheLimit)
+        m_Cache.clear();
+      m_Cache.put(target, n);
+    }
+    List<Instance> list = new ArrayList<Instance>(n.m_Sequences.length);
+    for (long sequence : n.m_Sequences)
+      list.add(instance((int) (sequence - m_FirstSequence)));
+    m_Distances = n.m_Distances.clone();
+    for (int i = 0; i < m_Distances.length; i++)
+      m_Distances[i] = Math.sqrt(m_Distances[i]);
+    return list;
+  }
+
+  /**
+   * Computes the neighbours of every instance of the window that does not
+   * have them cached yet, so that later searches are answered from the
+   * cache.
+   *
+   * @param kNN		the number of nearest neighbours to find
+   * @param executor	the threads to use, or null for the calling thread
+   * @throws Exception  if the neighbours could not be found
+   */
+  public void searchAll(final int kNN, ExecutorService executor) throws Exception {
+    validateRanges();
+    final List<Instance> targets = new ArrayList<Instance>();
+    Set<Instance> seen = Collections.newSetFromMap(new IdentityHashMap<Instance, Boolean>());
+    for (int i = 0; i < m_Size; i++) {
+      Instance target = instance(i);
+      Neighbours n = m_Cache.get(target);
+      if ((n == null || n.m_K != kNN) && seen.add(target))
+        targets.add(target);
+    }
+    if (executor == null) {
+      for (Instance target : targets)
+        m_Cache.put(target, search(target, rowOf(target), kNN));
+      return;
+    }
+    int numTasks = Math.min(targets.size(), 4 * Runtime.getRuntime().availableProcessors());
+    List<Future<Neighbours[]>> futures = new ArrayList<Future<Neighbours[]>>();
+    for (int t = 0; t < numTasks; t++) {
+      final int first = t;
+      final int step = numTasks;
+      futures.add(executor.submit(() -> {
+        Neighbours[] found = new Neighbours[targets.size()];
+        for (int i = first; i < targets.size(); i += step) {
+          Instance target = targets.get(i);
+          found[i] = search(target, rowOf(target), kNN);
+        }
+        return found;
+      }));
+    }
+    for (int t = 0; t < numTasks; t++) {
+      Neighbours[] found = futures.get(t).get();
+      for (int i = t; i < targets.size(); i += numTasks)
+        m_Cache.put(targets.get(i), found[i]);
+    }
+  }
+
+  /**
+   * Returns the nearest instance of the window to the supplied instance.
+   *
+   * @param target 	the instance to find the nearest neighbour for
+   * @return		the nearest neighbor
+   * @throws Exception 	if the nearest neighbour could not be found
+   */
+  public Instance nearestNeighbour(Instance target) throws Exception {
+    return kNearestNeighbourList(target, 1).get(0);
+  }
+
+  /**
+   * Returns the distances of the last neighbours returned.
+   *
+   * @return		the distances
+   * @throws Exception 	if no search was done yet
+   */
+  public double[] getDistances() throws Exception {
+    if (m_Distances == null)
+      throw new Exception("No distances available. Please call either "+
+                          "kNearestNeighbours or nearestNeighbours first.");
+    return m_Distances;
+  }
+
+  /**
+   * Not supported: the window is built from the instances given to the
+   * constructor and kept in sync through update and removeOldest.
+   *
+   * @param insts	the instances
+   * @throws Exception	always
+   */
+  public void setInstances(Instances insts) throws Exception {
+    throw new Exception("WindowedNNSearch cannot change its instances, create a new one.");
+  }
+
+  /**
+   * Scans the window like LinearNNSearch.kNearestNeighbours does.
+   */
+  protected Neighbours search(Instance target, double[] targetRow, int kNN) throws Exception {
+    MyHeap heap = new MyHeap(kNN);
+    double distance;
+    int firstkNN = 0;
+    for (int i = 0; i < m_Size; i++) {
+      Instance ins = m_Window[ring(i)];
+      if (target == ins)
+        continue;
+      if (firstkNN < kNN) {
+        distance = distance(targetRow, m_Rows[ring(i)], Double.POSITIVE_INFINITY);
+        heap.put(i, distance);
+        firstkNN++;
+      }
+      else {
+        MyHeapElement temp = heap.peek();
+        distance = distance(targetRow, m_Rows[ring(i)], temp.distance);
+        if (distance < temp.distance)
+          heap.putBySubstitute(i, distance);
+        else if (distance == temp.distance)
+          heap.putKthNearest(i, distance);
+      }
+    }
+
+    Neighbours n = new Neighbours();
+    n.m_K = kNN;
+    n.m_TargetRow = targetRow;
+    int total = heap.size() + heap.noOfKthNearest();
+    n.m_Sequences = new long[total];
+    n.m_Distances = new double[total];
+    n.m_KthDistance = heap.size() > 0 ? heap.peek().distance : 0;
+    int i = 1;
+    MyHeapElement h;
+    while (heap.noOfKthNearest() > 0) {
+      h = heap.getKthNearest();
+      n.m_Sequences[total - i] = m_FirstSequence + h.index;
+      n.m_Distances[total - i] = h.distance;
+      i++;
+    }
+    while (heap.size() > 0) {
+      h = heap.get();
+      n.m_Sequences[total - i] = m_FirstSequence + h.index;
+      n.m_Distances[total - i] = h.distance;
+      i++;
+    }
+    return n;
+  }
+
+  /**
+   * Computes the squared normalized Euclidean distance between two rows the
+   * way EuclideanDistance does, giving up once it exceeds the cut off.
+   */
+  protected double distance(double[] first, double[] second, double cutOffValue) {
+    int classIndex = m_Instances.classIndex();
+    double distance = 0;
+    for (int j = 0; j < first.length; j++) {
+      if (j == classIndex)
+        continue;
+      double diff = difference(j, first[j], second[j]);
+      distance += diff * diff;
+      if (distance > cutOffValue)
+        return Double.POSITIVE_INFINITY;
+    }
+    return distance;
+  }
+
+  /**
+   * Computes the difference between two attribute values like
+   * NormalizableDistance does when normalizing.
+   */
+  protected double difference(int index, double val1, double val2) {
+    if (m_Nominal[index]) {
+      if (Double.isNaN(val1) || Double.isNaN(val2) || ((int) val1 != (int) val2))
+        return 1;
+      else
+        return 0;
+    }
+    if (Double.isNaN(val1) || Double.isNaN(val2)) {
+      if (Double.isNaN(val1) && Double.isNaN(val2))
+        return 1;
+      double diff = Double.isNaN(val2) ? norm(val1, index) : norm(val2, index);
+      if (diff < 0.5)
+        diff = 1.0 - diff;
+      return diff;
+    }
+    return norm(val1, index) - norm(val2, index);
+  }
+
+  /**
+   * Normalizes a value of a numeric attribute.
+   */
+  protected double norm(double x, int i) {
+    if (Double.isNaN(m_Min[i]) || (m_Max[i] == m_Min[i]))
+      return 0;
+    else
+      return (x - m_Min[i]) / m_Width[i];
+  }
+
+  /**
+   * Returns the row of an instance of the window, or its values if it is
+   * not in the window.
+   */
+  protected double[] rowOf(Instance ins) {
+    for (int i = m_Size - 1; i >= 0; i--) {
+      if (m_Window[ring(i)] == ins)
+        return m_Rows[ring(i)];
+    }
+    return toRow(ins);
+  }
+
+  protected double[] toRow(Instance ins) {
+    double[] row = new double[m_Nominal.length];
+    for (int j = 0; j < row.length; j++)
+      row[j] = ins.value(j);
+    return row;
+  }
+
+  protected double[] append(Instance ins) {
+    if (m_Size == m_Window.length) {
+      Instance[] window = new Instance[2 * m_Window.length];
+      double[][] rows = new double[window.length][];
+      for (int i = 0; i < m_Size; i++) {
+        window[i] = m_Window[ring(i)];
+        rows[i] = m_Rows[ring(i)];
+      }
+      m_Window = window;
+      m_Rows = rows;
+      m_Head = 0;
+    }
+    double[] row = toRow(ins);
+    int slot = ring(m_Size);
+    m_Window[slot] = ins;
+    m_Rows[slot] = row;
+    m_Size++;
+    return row;
+  }
+
+  protected int ring(int position) {
+    return (m_Head + position) % m_Window.length;
+  }
+
+  /**
+   * Returns whether the distance depends on the range of an attribute, which
+   * is the case for the numeric attributes other than the class.
+   *
+   * @param index	the attribute index
+   * @return		true if the range is used to normalize the attribute
+   */
+  protected boolean usesRange(int index) {
+    return !m_Nominal[index] && index != m_Instances.classIndex();
+  }
+
+  /**
+   * Widens the ranges with a new row.
+   *
+   * @return		true if any range used by the distance changed
+   */
+  protected boolean updateRanges(double[] row) {
+    boolean changed = false;
+    for (int j = 0; j < row.length; j++) {
+      double value = row[j];
+      if (Double.isNaN(value))
+        continue;
+      boolean widened = false;
+      if (value < m_Min[j]) {
+        m_Min[j] = value;
+        widened = true;
+      }
+      if (value > m_Max[j]) {
+        m_Max[j] = value;
+        widened = true;
+      }
+      if (widened) {
+        m_Width[j] = m_Max[j] - m_Min[j];
+        changed |= usesRange(j);
+      }
+    }
+    return changed;
+  }
+
+  /**
+   * Fills the window again with the Instances given to the constructor.
+   */
+  protected void rebuild() {
+    int capacity = Math.max(16, m_Instances.numInstances());
+    m_Window = new Instance[capacity];
+    m_Rows = new double[capacity][];
+    m_Head = 0;
+    m_Size = 0;
+    for (int i = 0; i < m_Instances.numInstances(); i++)
+      append(m_Instances.instance(i));
+    recomputeRanges();
+    m_Cache.clear();
+  }
+
+  protected void validateRanges() {
+    if (m_RangesDirty) {
+      recomputeRanges();
+      m_Cache.clear();
+    }
+  }
+
+  /**
+   * Recomputes the ranges over the whole window, as
+   * NormalizableDistance.initializeRanges() does.
+   */
+  protected void recomputeRanges() {
+    for (int j = 0; j < m_Min.length; j++) {
+      m_Min[j] = Double.POSITIVE_INFINITY;
+      m_Max[j] = -Double.POSITIVE_INFINITY;
+      m_Width[j] = Double.POSITIVE_INFINITY;
+    }
+    for (int i = 0; i < m_Size; i++)
+      updateRanges(m_Rows[ring(i)]);
+    m_RangesDirty = false;
+  }
+}
@@ -24,15 +24,17 @@ import com.github.javacliparser.IntOption;
 import com.yahoo.labs.samoa.instances.Instance;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import moa.classifiers.Classifier;
+import moa.classifiers.core.statisticaltests.SampleWindow;
 import moa.classifiers.core.statisticaltests.StatisticalTest;
 import moa.classifiers.drift.SingleClassifierDrift;
 import moa.core.MiscUtils;
@@ -63,9 +65,9 @@ public class RCD extends SingleClassifierDrift {
     private class ClassifierKS implements Serializable {
 
         private final Classifier classifier;
-        private final List<Instance> instances;
+        private final SampleWindow instances;
 
-        public ClassifierKS(Classifier classifier, List<Instance> instances) {
+        public ClassifierKS(Classifier classifier, SampleWindow instances) {
             this.classifier = classifier;
             this.instances = instances;
         }
@@ -74,11 +76,52 @@ public class RCD extends SingleClassifierDrift {
             return classifier;
         }
 
-        public List<Instance> getInstances() {
+        public SampleWindow getInstances() {
             return instances;
         }
     }
 
+    /**
+     * A statistical test submitted to the thread pool. The test is either
+     * started by a pool thread or skipped by the learner, never both, so that
+     * the learner can wait for the started ones before modifying the windows
+     * they read.
+     */
+    private static class TestTask implements Callable<Double> {
+
+        private final StatisticalTest test;
+        private final CountDownLatch finished;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        public TestTask(StatisticalTest test, CountDownLatch finished) {
+            this.test = test;
+            this.finished = finished;
+        }
+
+        @Override
+        public Double call() throws Exception {
+            if (!this.claimed.compareAndSet(false, true)) {
+                return Double.NaN;
+            }
+            try {
+                return this.test.call();
+            } finally {
+                this.finished.countDown();
+            }
+        }
+
+        /**
+         * Prevents the test from starting. Returns false if it already has.
+         */
+        public boolean skip() {
+            if (this.claimed.compareAndSet(false, true)) {
+                this.finished.countDown();
+                return true;
+            }
+            return false;
+        }
+    }
+
     public ClassOption statisticalTestOption = new ClassOption("statisticalTest",
             'a', "Non-parametric multivariate statistical test to use.", StatisticalTest.class,
             "KNN");
@@ -109,13 +152,19 @@ public class RCD extends SingleClassifierDrift {
             'q', "Quantity of identified classifiers to check.", 1, 1,
             Integer.MAX_VALUE);
 
+    public IntOption distanceCacheLimitOption = new IntOption("distanceCacheLimit",
+            'x', "Cache the distances between the instances of each buffer when the buffer size is at most this value. 0 means never.", 1000, 0,
+            Integer.MAX_VALUE);
+
     private List<ClassifierKS> classifiers;
 
-    protected List<Instance> currentChunk;
+    protected SampleWindow currentChunk;
 
-    protected List<Instance> currentChunk2;
+    protected SampleWindow currentChunk2;
 
-    protected List<Instance> testChunk;
+    protected SampleWindow testChunk;
+
+    protected transient ExecutorService threadPool;
 
     protected int bufferSize;
 
@@ -133,6 +182,31 @@ public class RCD extends SingleClassifierDrift {
         this.testChunk = null;
         this.previousState = Integer.MIN_VALUE;
         this.index = 0;
+        if (this.threadPool != null) {
+            this.threadPool.shutdownNow();
+            this.threadPool = null;
+        }
+    }
+
+    /**
+     * Returns the pool running the statistical tests, created on first use
+     * and kept for the lifetime of the learner. Its threads are daemons so an
+     * unused learner does not keep the virtual machine alive.
+     */
+    protected ExecutorService getThreadPool() {
+        if (this.threadPool == null) {
+            this.threadPool = Executors.newFixedThreadPool(this.threadSizeOption.getValue(), r -> {
+                Thread thread = new Thread(r, "RCD-test");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return this.threadPool;
+    }
+
+    protected SampleWindow newChunk() {
+        int limit = this.distanceCacheLimitOption.getValue();
+        return new SampleWindow(this.bufferSize, this.bufferSize <= limit);
     }
 
     @Override
@@ -154,7 +228,7 @@ public class RCD extends SingleClassifierDrift {
                 switch (this.previousState) {
                     case DDM_INCONTROL_LEVEL:
                         this.newclassifier.resetLearning();
-                        this.currentChunk2 = new ArrayList();
+                        this.currentChunk2 = this.newChunk();
                         break;
                 }
                 this.newclassifier.trainOnInstance(inst);
@@ -197,7 +271,7 @@ public class RCD extends SingleClassifierDrift {
                         this.currentChunk2 = null;
                         break;
                     default:
-                        this.currentChunk = new ArrayList();
+                        this.currentChunk = this.newChunk();
                         this.classifiers.add(new ClassifierKS(
                                 this.classifier, this.currentChunk));
                         break;
@@ -209,17 +283,14 @@ public class RCD extends SingleClassifierDrift {
         this.classifier.trainOnInstance(inst);
     }
 
-    private void addInstance(List<Instance> instances, Instance instance) {
-        if (instances.size() >= bufferSize) {
-            instances.remove(0);
-        }
+    private void addInstance(SampleWindow instances, Instance instance) {
         instances.add(instance);
     }
 
     @Override
     public double[] getVotesForInstance(Instance inst) {
         if (this.testChunk == null) {
-            this.testChunk = new ArrayList();
+            this.testChunk = this.newChunk();
         }
         this.addInstance(this.testChunk, inst);
         if (this.index++ == testFrequencyOption.getValue()) {
@@ -234,52 +305,80 @@ public class RCD extends SingleClassifierDrift {
     }
 
     /**
-     * Searches for the classifier best suited for actual data. All statistical
-     * tests are performed in parallel.
+     * Searches for the classifier best suited for actual data. Statistical
+     * tests are performed in parallel and results are read in the order the
+     * classifiers were stored; once enough classifiers have been identified
+     * the remaining tests are cancelled.
      *
      * @param classifier Classifier to be added
      * @param instances Instances used to build the classifier
      * @return
      */
     private ClassifierKS getPreviousClassifier(Classifier classifier,
-            List<Instance> instances) {
-        ExecutorService threadPool = Executors.newFixedThreadPool(this.threadSizeOption.getValue());
+            SampleWindow instances) {
+        ExecutorService threadPool = this.getThreadPool();
+        StatisticalTest st = (StatisticalTest) getPreparedClassOption(this.statisticalTestOption);
         int SIZE = this.classifiers.size();
-        Map<Integer, Future<Double>> futures = new HashMap<>();
+        List<Integer> indexes = new ArrayList<>();
+        List<StatisticalTest> tests = new ArrayList<>();
         for (int i = 0; i < SIZE; i++) {
             ClassifierKS cs = this.classifiers.get(i);
             if (cs != null) {
                 if (cs.getClassifier() != classifier) {
-                    StatisticalTest st = (StatisticalTest) getPreparedClassOption(this.statisticalTestOption);
                     StatisticalTest temp = (StatisticalTest) st.copy();
                     temp.set(instances, cs.getInstances());
-                    futures.put(i, threadPool.submit(temp));
+                    indexes.add(i);
+                    tests.add(temp);
                 }
             } else {
                 break;
             }
         }
+        CountDownLatch finished = new CountDownLatch(tests.size());
+        List<TestTask> tasks = new ArrayList<>(tests.size());
+        List<Future<Double>> futures = new ArrayList<>(tests.size());
+        for (StatisticalTest test : tests) {
+            TestTask task = new TestTask(test, finished);
+            tasks.add(task);
+            futures.add(threadPool.submit(task));
+        }
         ClassifierKS cks = null;
         int qtd = this.quantityClassifiersTestOption.getValue();
         double maxPValue = this.similarityBetweenDistributionsOption.getValue();
         try {
-            for (int i = 0; i < SIZE && qtd > 0; i++) {
-                Future<Double> f = futures.get(i);
-                if (f != null) {
-                    double p = f.get();
-                    if (p < maxPValue) {
-                        maxPValue = p;
-                        cks = this.classifiers.get(i);
-                        qtd--;
-                    }
+            for (int i = 0; i < futures.size() && qtd > 0; i++) {
+                double p = futures.get(i).get();
+                if (p < maxPValue) {
+                    maxPValue = p;
+                    cks = this.classifiers.get(indexes.get(i));
+                    qtd--;
                 }
             }
         } catch (InterruptedException e) {
             System.out.println("Processing interrupted.");
         } catch (ExecutionException e) {
             throw new RuntimeException("Error computing statistical test.", e);
+        } finally {
+            // Tests still queued are skipped and running ones interrupted;
+            // the windows they read must not change until they have stopped.
+            for (int i = 0; i < futures.size(); i++) {
+                if (!tasks.get(i).skip()) {
+                    futures.get(i).cancel(true);
+                }
+            }
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    finished.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
         }
-        threadPool.shutdownNow();
         return cks;
     }
 }
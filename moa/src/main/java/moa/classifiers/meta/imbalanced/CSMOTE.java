@@ -23,8 +23,7 @@ import moa.classifiers.AbstractClassifier;
 import moa.classifiers.MultiClassClassifier;
 import moa.classifiers.Classifier;
 import moa.classifiers.core.driftdetection.ADWIN;
-import moa.classifiers.lazy.neighboursearch.LinearNNSearch;
-import moa.classifiers.lazy.neighboursearch.NearestNeighbourSearch;
+import moa.classifiers.lazy.neighboursearch.WindowedNNSearch;
 import weka.core.Attribute;
 
 import moa.core.Measurement;
@@ -42,7 +41,11 @@ import com.yahoo.labs.samoa.instances.WekaToSamoaInstanceConverter;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 
 /**
@@ -69,6 +72,8 @@ import java.util.Random;
  * <li>-m : Minimum number of samples in the minority class for applying SMOTE. Default is 100</li>
  * <li>-d : Should use ADWIN as drift detector? If enabled it is used by the method 
  * 	to track the performance of the classifiers and adapt when a drift is detected.</li>
+ * <li>-j : Number of threads used to search the neighbours of the whole window
+ * 	when a SMOTE round needs many synthetic samples. Default is 1</li>
  * </ul>
  *
  * @author Alessio Bernardo (alessio dot bernardo at polimi dot com) 
@@ -101,6 +106,10 @@ public class CSMOTE extends AbstractClassifier implements MultiClassClassifier {
     public FlagOption disableDriftDetectionOption = new FlagOption("disableDriftDetection", 'd',
             "Should use ADWIN as drift detector?");
     
+    public IntOption numberOfJobsOption = new IntOption("numberOfJobs", 'j',
+            "Number of threads searching neighbours when a SMOTE round generates many samples (-1 means as much as available).",
+            1, -1, Integer.MAX_VALUE);
+    
     protected Classifier learner;                  
         
     protected int neighbors; 
@@ -119,7 +128,12 @@ public class CSMOTE extends AbstractClassifier implements MultiClassClassifier {
     protected int nGeneratedMinorityTotal;
     protected int nGeneratedMajorityTotal;    
     protected HashMap<Instance,Integer> instanceGenerated = new HashMap<Instance,Integer>();
-    protected ArrayList<Integer> alreadyUsed = new ArrayList<Integer>();            
+    protected HashSet<Integer> alreadyUsed = new HashSet<Integer>();            
+    
+    //neighbour indexes over the min and maj windows, kept between SMOTE rounds
+    protected WindowedNNSearch minSearch = null;
+    protected WindowedNNSearch majSearch = null;
+    protected transient ExecutorService threadPool;
     
     protected SamoaToWekaInstanceConverter samoaToWeka = new SamoaToWekaInstanceConverter();
     protected WekaToSamoaInstanceConverter wekaToSamoa = new WekaToSamoaInstanceConverter();    
@@ -144,6 +158,12 @@ public class CSMOTE extends AbstractClassifier implements MultiClassClassifier {
       	this.adwinDriftDetector = new ADWIN();
       	this.min = null;
       	this.maj = null;
+      	this.minSearch = null;
+      	this.majSearch = null;
+      	if (this.threadPool != null) {
+      		this.threadPool.shutdownNow();
+      		this.threadPool = null;
+      	}
       	this.W.clear();  
       	this.classifierRandom = new Random(this.randomSeed);
     }
@@ -179,6 +199,7 @@ public class CSMOTE extends AbstractClassifier implements MultiClassClassifier {
 		
 		//Apply SMOTE only if the number of minority class samples are greater than -m
 		if (allowSMOTE) {				
+			searchAllNeighboursIfWorthwhile();
 			//Apply the online SMOTE version until the ratio will be equal to the threshold			
 			while (this.threshold > calculateRatio()) {								
 				Instance newInstance = onlineSMOTE();
@@ -260,17 +281,89 @@ public class CSMOTE extends AbstractClassifier implements MultiClassClassifier {
     }        
     
     private double calculateRatio() {
+    	return calculateRatio(this.nGeneratedMinorityTotal, this.nGeneratedMajorityTotal);
+    }
+    
+    private double calculateRatio(int nGeneratedMinority, int nGeneratedMajority) {
     	double ratio = 0.0;
     	//class 0 is the real minority
-		if ((this.nMinorityTotal + this.nGeneratedMinorityTotal) <= (this.nMajorityTotal + this.nGeneratedMajorityTotal)) {
-			ratio = ( (double) this.nMinorityTotal + (double) this.nGeneratedMinorityTotal ) / ( (double) this.nMinorityTotal + (double) this.nGeneratedMinorityTotal + (double) this.nGeneratedMajorityTotal + (double) this.nMajorityTotal );			
+		if ((this.nMinorityTotal + nGeneratedMinority) <= (this.nMajorityTotal + nGeneratedMajority)) {
+			ratio = ( (double) this.nMinorityTotal + (double) nGeneratedMinority ) / ( (double) this.nMinorityTotal + (double) nGeneratedMinority + (double) nGeneratedMajority + (double) this.nMajorityTotal );			
 		}
 		//class 1 is the real minority
 		else {
-			ratio = ( (double) this.nMajorityTotal + (double) this.nGeneratedMajorityTotal ) / ( (double) this.nMinorityTotal + (double) this.nGeneratedMinorityTotal + (double) this.nGeneratedMajorityTotal + (double) this.nMajorityTotal );			
+			ratio = ( (double) this.nMajorityTotal + (double) nGeneratedMajority ) / ( (double) this.nMinorityTotal + (double) nGeneratedMinority + (double) nGeneratedMajority + (double) this.nMajorityTotal );			
 		}    				
     	return ratio;
     }
+    
+    //when the SMOTE round needs at least as many samples of a class as a single thread
+    //would search in the time all the threads search the whole window, search it in parallel
+    private void searchAllNeighboursIfWorthwhile() {
+    	int numberOfJobs = this.numberOfJobsOption.getValue();
+    	if (numberOfJobs == -1) {
+    		numberOfJobs = Runtime.getRuntime().availableProcessors();
+    	}
+    	if (numberOfJobs <= 1) {
+    		return;
+    	}
+    	//the same loop as the SMOTE round, on the counters only
+    	int nGeneratedMinority = this.nGeneratedMinorityTotal;
+    	int nGeneratedMajority = this.nGeneratedMajorityTotal;
+    	int minorityNeeded = 0;
+    	int majorityNeeded = 0;
+    	while (this.threshold > calculateRatio(nGeneratedMinority, nGeneratedMajority)) {
+    		if ((this.nMinorityTotal + nGeneratedMinority) < (this.nMajorityTotal + nGeneratedMajority)) {
+    			nGeneratedMinority ++;
+    			minorityNeeded ++;
+    		} else {
+    			nGeneratedMajority ++;
+    			majorityNeeded ++;
+    		}
+    	}
+    	try {
+    		if (this.min == this.maj) {
+    			searchAllNeighbours(this.min, minorityNeeded + majorityNeeded, numberOfJobs);
+    		} else {
+    			searchAllNeighbours(this.min, minorityNeeded, numberOfJobs);
+    			searchAllNeighbours(this.maj, majorityNeeded, numberOfJobs);
+    		}
+    	} catch (Exception e) {
+    		throw new RuntimeException("Error searching the neighbours in parallel.", e);
+    	}
+    }
+    
+    private void searchAllNeighbours(Instances samples, int needed, int numberOfJobs) throws Exception {
+    	if (needed == 0 || (long) needed * numberOfJobs < samples.numInstances()) {
+    		return;
+    	}
+    	if (this.threadPool == null) {
+    		this.threadPool = Executors.newFixedThreadPool(numberOfJobs, r -> {
+    			Thread thread = new Thread(r, "CSMOTE-search");
+    			thread.setDaemon(true);
+    			return thread;
+    		});
+    	}
+    	neighbourSearch(samples).searchAll(Math.min(this.neighbors, samples.numInstances() - 1), this.threadPool);
+    }
+    
+    //the index over the given window, up to date with its content
+    private WindowedNNSearch neighbourSearch(Instances samples) {
+    	WindowedNNSearch search = samples == this.min ? this.minSearch : this.majSearch;
+    	if (search == null) {
+    		search = new WindowedNNSearch(samples);
+    	} else {
+    		search.synchronize();
+    	}
+    	//min and maj may be the same dataset, which then shares its index
+    	if (samples == this.min) {
+    		this.minSearch = search;
+    	}
+    	if (samples == this.maj) {
+    		this.majSearch = search;
+    	}
+    	return search;
+    }
 	
     //introduce a new instance
     private Instance onlineSMOTE() {
@@ -307,31 +400,39 @@ public class CSMOTE extends AbstractClassifier implements MultiClassClassifier {
         }
     	Instance instanceI = minoritySamples.instance(pos);    	
     	
-    	NearestNeighbourSearch search;
-    	search = new LinearNNSearch(minoritySamples);     	 
 		try {
-			Instances neighbours = search.kNearestNeighbours(instanceI,Math.min(this.neighbors,minoritySamples.numInstances()-1));			
+			List<Instance> neighbours = neighbourSearch(minoritySamples).kNearestNeighbourList(instanceI,Math.min(this.neighbors,minoritySamples.numInstances()-1));			
 			// create synthetic sample    	
 			double[] values = new double[minoritySamples.numAttributes()];
-			int nn = this.classifierRandom.nextInt(neighbours.numInstances());
-			Enumeration attrEnum = this.samoaToWeka.wekaInstance(minoritySamples.instance(0)).enumerateAttributes();
+			int nn = this.classifierRandom.nextInt(neighbours.size());
+			weka.core.Instance header = this.samoaToWeka.wekaInstance(minoritySamples.instance(0));
+			weka.core.Instance wekaI = this.samoaToWeka.wekaInstance(instanceI);
+			weka.core.Instance wekaNN = this.samoaToWeka.wekaInstance(neighbours.get(nn));
+			weka.core.Instance[] wekaNeighbours = null;
+			Enumeration attrEnum = header.enumerateAttributes();
 			while(attrEnum.hasMoreElements()) {
 				Attribute attr = (Attribute) attrEnum.nextElement();				
-				if (!attr.equals(this.samoaToWeka.wekaInstance(minoritySamples.instance(0)).classAttribute())) {
+				if (!attr.equals(header.classAttribute())) {
 					if (attr.isNumeric()) {
-						double dif = this.samoaToWeka.wekaInstance(neighbours.instance(nn)).value(attr) - this.samoaToWeka.wekaInstance(instanceI).value(attr);
+						double dif = wekaNN.value(attr) - wekaI.value(attr);
 						double gap = this.classifierRandom.nextDouble();
-						values[attr.index()] = (double) (this.samoaToWeka.wekaInstance(instanceI).value(attr) + gap * dif);
+						values[attr.index()] = (double) (wekaI.value(attr) + gap * dif);
 					} else if (attr.isDate()) {
-						double dif = this.samoaToWeka.wekaInstance(neighbours.instance(nn)).value(attr) - this.samoaToWeka.wekaInstance(instanceI).value(attr);
+						double dif = wekaNN.value(attr) - wekaI.value(attr);
 						double gap = this.classifierRandom.nextDouble();
-						values[attr.index()] = (long) (this.samoaToWeka.wekaInstance(instanceI).value(attr) + gap * dif);
+						values[attr.index()] = (long) (wekaI.value(attr) + gap * dif);
 					} else {
+						if (wekaNeighbours == null) {
+							wekaNeighbours = new weka.core.Instance[neighbours.size()];
+							for (int nnEx = 0; nnEx < neighbours.size(); nnEx++) {
+								wekaNeighbours[nnEx] = this.samoaToWeka.wekaInstance(neighbours.get(nnEx));
+							}
+						}
 						int[] valueCounts = new int[attr.numValues()];
-						int iVal = (int) this.samoaToWeka.wekaInstance(instanceI).value(attr);
+						int iVal = (int) wekaI.value(attr);
 						valueCounts[iVal]++;
-						for (int nnEx = 0; nnEx < neighbours.numInstances(); nnEx++) {
-							int val = (int) this.samoaToWeka.wekaInstance(neighbours.instance(nnEx)).value(attr);
+						for (int nnEx = 0; nnEx < wekaNeighbours.length; nnEx++) {
+							int val = (int) wekaNeighbours[nnEx].value(attr);
 							valueCounts[val]++;
 						}
 						int maxIndex = 0;
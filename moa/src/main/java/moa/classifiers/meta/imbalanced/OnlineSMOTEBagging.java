@@ -37,11 +37,11 @@ import com.github.javacliparser.FlagOption;
 import com.github.javacliparser.IntOption;
 import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.Random;
 
 import moa.classifiers.core.driftdetection.ADWIN;
-import moa.classifiers.lazy.neighboursearch.LinearNNSearch;
-import moa.classifiers.lazy.neighboursearch.NearestNeighbourSearch;
+import moa.classifiers.lazy.neighboursearch.WindowedNNSearch;
 
 
 /**
@@ -102,6 +102,8 @@ public class OnlineSMOTEBagging extends AbstractClassifier implements MultiClass
     protected ArrayList<Classifier> ensemble = new ArrayList<Classifier>();
     protected ArrayList<ADWIN> adwinEnsemble = new ArrayList<ADWIN>();   
     protected Instances posSamples;
+    //index over posSamples, kept up to date instead of rebuilt for every synthetic sample
+    protected WindowedNNSearch posSearch;
     protected SamoaToWekaInstanceConverter samoaToWeka = new SamoaToWekaInstanceConverter();
     
     @Override
@@ -119,6 +121,7 @@ public class OnlineSMOTEBagging extends AbstractClassifier implements MultiClass
         	}        	
 		}
         this.posSamples = null;
+        this.posSearch = null;
         this.classifierRandom = new Random(this.randomSeed);
     }
 
@@ -236,30 +239,46 @@ public class OnlineSMOTEBagging extends AbstractClassifier implements MultiClass
     	int k = 5;
     	if (this.posSamples.numInstances() > 1) {
     		Instance x = this.posSamples.instance(this.posSamples.numInstances() - 1);    		
-    		NearestNeighbourSearch search = new LinearNNSearch(this.posSamples);
+    		if (this.posSearch == null) {
+    			this.posSearch = new WindowedNNSearch(this.posSamples);
+    			//only the last positive sample is searched, until the next one arrives
+    			this.posSearch.setCacheLimit(1);
+    		} else {
+    			this.posSearch.synchronize();
+    		}
     		try {
-				Instances neighbours = search.kNearestNeighbours(x,Math.min(k,this.posSamples.numInstances()-1));
+				List<Instance> neighbours = this.posSearch.kNearestNeighbourList(x,Math.min(k,this.posSamples.numInstances()-1));
 				// create synthetic sample    	
 				double[] values = new double[this.posSamples.numAttributes()];
-				int nn = this.classifierRandom.nextInt(neighbours.numInstances());
-				Enumeration attrEnum = this.samoaToWeka.wekaInstance(this.posSamples.instance(0)).enumerateAttributes();
+				int nn = this.classifierRandom.nextInt(neighbours.size());
+				weka.core.Instance header = this.samoaToWeka.wekaInstance(this.posSamples.instance(0));
+				weka.core.Instance wekaX = this.samoaToWeka.wekaInstance(x);
+				weka.core.Instance wekaNN = this.samoaToWeka.wekaInstance(neighbours.get(nn));
+				weka.core.Instance[] wekaNeighbours = null;
+				Enumeration attrEnum = header.enumerateAttributes();
 				while(attrEnum.hasMoreElements()) {
 					Attribute attr = (Attribute) attrEnum.nextElement();				
-					if (!attr.equals(this.samoaToWeka.wekaInstance(this.posSamples.instance(0)).classAttribute())) {
+					if (!attr.equals(header.classAttribute())) {
 						if (attr.isNumeric()) {
-							double dif = this.samoaToWeka.wekaInstance(neighbours.instance(nn)).value(attr) - this.samoaToWeka.wekaInstance(x).value(attr);
+							double dif = wekaNN.value(attr) - wekaX.value(attr);
 							double gap = this.classifierRandom.nextDouble();
-							values[attr.index()] = (double) (this.samoaToWeka.wekaInstance(x).value(attr) + gap * dif);
+							values[attr.index()] = (double) (wekaX.value(attr) + gap * dif);
 						} else if (attr.isDate()) {
-							double dif = this.samoaToWeka.wekaInstance(neighbours.instance(nn)).value(attr) - this.samoaToWeka.wekaInstance(x).value(attr);
+							double dif = wekaNN.value(attr) - wekaX.value(attr);
 							double gap = this.classifierRandom.nextDouble();
-							values[attr.index()] = (long) (this.samoaToWeka.wekaInstance(x).value(attr) + gap * dif);
+							values[attr.index()] = (long) (wekaX.value(attr) + gap * dif);
 						} else {
+							if (wekaNeighbours == null) {
+								wekaNeighbours = new weka.core.Instance[neighbours.size()];
+								for (int nnEx = 0; nnEx < neighbours.size(); nnEx++) {
+									wekaNeighbours[nnEx] = this.samoaToWeka.wekaInstance(neighbours.get(nnEx));
+								}
+							}
 							int[] valueCounts = new int[attr.numValues()];
-							int iVal = (int) this.samoaToWeka.wekaInstance(x).value(attr);
+							int iVal = (int) wekaX.value(attr);
 							valueCounts[iVal]++;
-							for (int nnEx = 0; nnEx < neighbours.numInstances(); nnEx++) {
-								int val = (int) this.samoaToWeka.wekaInstance(neighbours.instance(nnEx)).value(attr);
+							for (int nnEx = 0; nnEx < wekaNeighbours.length; nnEx++) {
+								int val = (int) wekaNeighbours[nnEx].value(attr);
 								valueCounts[val]++;
 							}
 							int maxIndex = 0;
@@ -33,16 +33,19 @@ import com.yahoo.labs.samoa.instances.Instance;
 import com.yahoo.labs.samoa.instances.SamoaToWekaInstanceConverter;
 import com.yahoo.labs.samoa.instances.WekaToSamoaInstanceConverter;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Collection;
 import java.util.Enumeration;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 
@@ -58,6 +61,9 @@ import java.util.Random;
  * Then the best model based on k-statistic is chosen to continue the experiment with a new sample.
  </p>
  *
+ * <p>The synthetic samples are generated first, on the calling thread, so that the random
+ * choices do not depend on the number of threads, then the 3 models are trained concurrently.</p>
+ *
  * <p>See details in:<br> Alessio Bernardo, Albert Bifet, Emanuele Della Valle. 
  * Incremental Rebalancing Learning \\on Evolving Data Streams. In ICDM Workshop, 2020.</p>
  *
@@ -67,6 +73,7 @@ import java.util.Random;
  * <li>-g : Maximum number of samples in the batch for applying SMOTE. Default is -1 (no limit)</li>
  * <li>-h : Minimum number of samples in the ResetBatch for applying SMOTE. Default is -1 (no limit)</li>
  * <li>-g : Maximum number of samples in the ResetBatch for applying SMOTE. Default is -1 (no limit)</li>
+ * <li>-j : Number of threads training the 3 models after a drift. Default is 1</li>
  * </ul>
  *
  * @author Alessio Bernardo (alessio dot bernardo at polimi dot com)
@@ -100,6 +107,10 @@ public class RebalanceStream extends AbstractClassifier implements MultiClassCla
             "Maximum number of instances in the Resetbatch in order to rebalance it  (-1 = no limit).",
             -1, -1, Integer.MAX_VALUE);
     
+    public IntOption numberOfJobsOption = new IntOption("numberOfJobs", 'j',
+            "Number of threads training learnerBal, learnerReset and learnerResetBal after a drift (1 = calling thread).",
+            1, 1, 3);
+    
     protected Classifier learner;
     protected Classifier learnerResetBal;
     protected Classifier learnerReset;
@@ -128,13 +139,18 @@ public class RebalanceStream extends AbstractClassifier implements MultiClassCla
     protected double accBal = 0;
     protected double kStatBal = 0;		   
     
-    protected ArrayList<Instance> batch = new ArrayList<Instance>();
-    protected ArrayList<Instance> batchMinority = new ArrayList<Instance>();
-    protected ArrayList<Instance> batchMajority = new ArrayList<Instance>();
+    protected ArrayDeque<Instance> batch = new ArrayDeque<Instance>();
+    protected ArrayDeque<Instance> batchMinority = new ArrayDeque<Instance>();
+    protected ArrayDeque<Instance> batchMajority = new ArrayDeque<Instance>();
+    
+    protected ArrayDeque<Instance> resetBatch = new ArrayDeque<Instance>();
+    protected ArrayDeque<Instance> resetBatchMinority = new ArrayDeque<Instance>();
+    protected ArrayDeque<Instance> resetBatchMajority = new ArrayDeque<Instance>();
     
-    protected ArrayList<Instance> resetBatch = new ArrayList<Instance>();
-    protected ArrayList<Instance> resetBatchMinority = new ArrayList<Instance>();
-    protected ArrayList<Instance> resetBatchMajority = new ArrayList<Instance>();
+    //header of the batches given to SMOTE, built once
+    protected Instances batchHeader;
+    
+    protected transient ExecutorService threadPool;
 
     boolean warning = false;    
     SamoaToWekaInstanceConverter samoaToWeka = new SamoaToWekaInstanceConverter();
@@ -148,22 +164,31 @@ public class RebalanceStream extends AbstractClassifier implements MultiClassCla
     protected int nGeneratedMajorityTotal;
     protected HashMap<Instance,Integer> instanceGenerated = new HashMap<Instance,Integer>();
     
-    protected ArrayList<Integer> alreadyUsed = new ArrayList<Integer>();        
+    protected HashSet<Integer> alreadyUsed = new HashSet<Integer>();        
     protected int effectiveNearestNeighbors;
     protected Instances minorityInstances;
+    //minorityInstances converted once, and the attribute values used for the distances
+    protected Instance[] minoritySamoaInstances;
+    protected double[][] minorityValues;
 	protected Map vdmMap = new HashMap();
 	protected int[] indexValues;
 	
     
     @Override
     public void resetLearningImpl() {     	    	
-        this.learner = (Classifier) getPreparedClassOption(this.baseLearnerOption);
-        this.learnerResetBal = (Classifier) getPreparedClassOption(this.baseLearnerOption);
-        this.learnerReset = (Classifier) getPreparedClassOption(this.baseLearnerOption);
-        this.learnerBal = (Classifier) getPreparedClassOption(this.baseLearnerOption);
+        //each model gets its own copy of the base learner, the models being trained concurrently
+        this.learner = ((Classifier) getPreparedClassOption(this.baseLearnerOption)).copy();
+        this.learnerResetBal = ((Classifier) getPreparedClassOption(this.baseLearnerOption)).copy();
+        this.learnerReset = ((Classifier) getPreparedClassOption(this.baseLearnerOption)).copy();
+        this.learnerBal = ((Classifier) getPreparedClassOption(this.baseLearnerOption)).copy();
      
         this.adwin.resetChange();
         this.nAttributes = -1;
+        this.batchHeader = null;
+        if (this.threadPool != null) {
+        	this.threadPool.shutdownNow();
+        	this.threadPool = null;
+        }
         
         this.learner.resetLearning();
       	clean(this.confusionMatrixLearner,this.accLearner,this.kStatLearner); 
@@ -197,6 +222,8 @@ public class RebalanceStream extends AbstractClassifier implements MultiClassCla
         this.effectiveNearestNeighbors = -1;
         this.alreadyUsed.clear();
       	this.minorityInstances = null;      
+      	this.minoritySamoaInstances = null;
+      	this.minorityValues = null;
       	this.vdmMap.clear();
       	this.instanceGenerated.clear();
       	this.indexValues = null;
@@ -272,16 +299,17 @@ public class RebalanceStream extends AbstractClassifier implements MultiClassCla
     		int windowSize = this.batch.size();
     		int diff = windowSize - newWidth;    		       	
     		for (int i = 0; i < diff; i ++) {    			
-    			Instance instanceRemoved = this.batch.remove(0);
+    			Instance instanceRemoved = this.batch.pollFirst();
+    			//the class batches keep the order of the batch, so the removed instance is their oldest one
     			if (instanceRemoved.classValue() == 1.0) {
-    				this.batchMajority.remove(instanceRemoved);
+    				this.batchMajority.pollFirst();
     				this.nMajorityTotal --;
     				if (this.instanceGenerated.get(instanceRemoved) != null) {
         				this.nGeneratedMajorityTotal -= this.instanceGenerated.get(instanceRemoved);
         				this.instanceGenerated.remove(instanceRemoved);
             		}
     			} else {
-    				this.batchMinority.remove(instanceRemoved);
+    				this.batchMinority.pollFirst();
     				this.nMinorityTotal --;
     				if (this.instanceGenerated.get(instanceRemoved) != null) {
         				this.nGeneratedMinorityTotal -= this.instanceGenerated.get(instanceRemoved);
@@ -327,16 +355,17 @@ public class RebalanceStream extends AbstractClassifier implements MultiClassCla
     	this.kStatLearner = calculateKStatistic(this.confusionMatrixLearner, this.accLearner);   
     	
     	//learnerBal
+    	List<Instance> batchBal = new ArrayList<Instance>();
     	double ratio = calculateRatio(this.nMajorityTotal,this.nMinorityTotal,this.nGeneratedMajorityTotal,this.nGeneratedMinorityTotal); 					
 		//if the ratio is less than threshold, 
 		//I apply the online SMOTE version 
 		//until the ratio will be equal to the threshold
-		boolean rebalance = false;		
+		boolean rebalanceBal = false;		
 		if (this.nMinorityTotal > 1 && this.nMajorityTotal > 1) {
 			this.learnerBal.prepareForUse();
 			while (0.5 > ratio) {
 				Instance newInstance;
-				rebalance = true;			
+				rebalanceBal = true;			
 		    	//class 0 is the real minority
 		    	if ((this.nMinorityTotal + this.nGeneratedMinorityTotal) < (this.nMajorityTotal + this.nGeneratedMajorityTotal)) {
 		    		newInstance = generateNewInstance(this.batchMinority,true);
@@ -347,54 +376,33 @@ public class RebalanceStream extends AbstractClassifier implements MultiClassCla
 					newInstance = generateNewInstance(this.batchMajority,true);
 					this.nGeneratedMajorityTotal ++;			
 				}			
-				//prequential evaluation
-				fillConfusionMatrix(newInstance,this.confusionMatrixBal,this.learnerBal);        				        				        				        				
-				//model training
-				this.learnerBal.trainOnInstance(newInstance);				
+				batchBal.add(newInstance);
 				ratio = calculateRatio(this.nMajorityTotal,this.nMinorityTotal,this.nGeneratedMajorityTotal,this.nGeneratedMinorityTotal);	
 			} 
 		}
-
-		if (rebalance) {
-			//calculate accuracy and KStatistic of learnerBal
-			this.accBal = calculateAccuracy(this.confusionMatrixBal);
-	    	this.kStatBal = calculateKStatistic(this.confusionMatrixBal, this.accBal);
-		} else {
-			this.kStatBal = -1;
-		}		
     	
-		this.alreadyUsed.clear();
-		this.effectiveNearestNeighbors = -1;
-		this.minorityInstances.clear();
-		this.vdmMap.clear();
+		cleanSMOTE();
     	    	
         //resetBatchBal from resetBatch
-        Instances resetBatchBal = createRandomInstances();  
-        resetBatchBal = fillNewBatch(this.resetBatch);                        
+        Instances resetBatchBal = fillNewBatch(this.resetBatch);                        
         resetBatchBal.setClassIndex(resetBatchBal.numAttributes() - 1);
         
         //learnerReset on resetBatchBal without smote
+        List<Instance> batchReset = new ArrayList<Instance>(resetBatchBal.numInstances());
         this.learnerReset.prepareForUse();			
 		for (int r = 0; r < resetBatchBal.numInstances(); r ++) {
-			Instance trainInstBal = this.wekaToSamoa.samoaInstance(resetBatchBal.instance(r));
-			//prequential evaluation
-			fillConfusionMatrix(trainInstBal,this.confusionMatrixReset,this.learnerReset);
-			//model training
-			this.learnerReset.trainOnInstance(trainInstBal);
+			batchReset.add(this.wekaToSamoa.samoaInstance(resetBatchBal.instance(r)));
 		}
-		
-		//calculate accuracy and kStatistic of learnerReset
-		this.accReset = calculateAccuracy(this.confusionMatrixReset);
-    	this.kStatReset = calculateKStatistic(this.confusionMatrixReset, this.accReset); 						                 
         
         //learnerResetBal on resetBatchBal
+        List<Instance> batchResetBal = new ArrayList<Instance>();
     	int minGenerated = 0;
 		int maxGenerated = 0;
     	ratio = calculateRatio(this.resetBatchMajority.size(),this.resetBatchMinority.size(),maxGenerated,minGenerated); 					
 		//if the ratio is less than threshold, 
 		//I apply the online SMOTE version 
 		//until the ratio will be equal to the threshold
-		rebalance = false;	
+		boolean rebalanceResetBal = false;	
 		if (this.resetBatchMinority.size() > 1 && this.resetBatchMajority.size() > 1) {
 			this.learnerResetBal.prepareForUse();
 			while (0.5 > ratio) {			
@@ -409,26 +417,37 @@ public class RebalanceStream extends AbstractClassifier implements MultiClassCla
 					newInstance = generateNewInstance(this.resetBatchMajority,false);
 					maxGenerated ++;														
 				}			
-				//prequential evaluation				
-				fillConfusionMatrix(newInstance,this.confusionMatrixResetBal,this.learnerResetBal);        				        				        				        				
-				//model training
-				this.learnerResetBal.trainOnInstance(newInstance);				
+				batchResetBal.add(newInstance);
 				ratio = calculateRatio(this.resetBatchMajority.size(),this.resetBatchMinority.size(),maxGenerated,minGenerated);	
 			} 
 		}
+    	
+		cleanSMOTE();
+		
+		//prequential evaluation and training of the 3 models
+		trainModels(new Classifier[] {this.learnerBal, this.learnerReset, this.learnerResetBal},
+				new List[] {batchBal, batchReset, batchResetBal},
+				new int[][][] {this.confusionMatrixBal, this.confusionMatrixReset, this.confusionMatrixResetBal});
+		
+		if (rebalanceBal) {
+			//calculate accuracy and KStatistic of learnerBal
+			this.accBal = calculateAccuracy(this.confusionMatrixBal);
+	    	this.kStatBal = calculateKStatistic(this.confusionMatrixBal, this.accBal);
+		} else {
+			this.kStatBal = -1;
+		}		
+		
+		//calculate accuracy and kStatistic of learnerReset
+		this.accReset = calculateAccuracy(this.confusionMatrixReset);
+    	this.kStatReset = calculateKStatistic(this.confusionMatrixReset, this.accReset); 						                 
 
-		if (rebalance) {
+		if (rebalanceResetBal) {
 			//calculate accuracy and kStatistic of learnerResetBal
 			this.accResetBal = calculateAccuracy(this.confusionMatrixResetBal);
         	this.kStatResetBal = calculateKStatistic(this.confusionMatrixResetBal, this.accResetBal); 
 		} else {
 			this.kStatResetBal = -1;
 		}		
-    	
-		this.alreadyUsed.clear();
-		this.effectiveNearestNeighbors = -1;
-		this.minorityInstances.clear();
-		this.vdmMap.clear();
         
     	//find the best model based on kStatistic
     	int maxPos = findMaxKStatistic();  
@@ -438,7 +457,62 @@ public class RebalanceStream extends AbstractClassifier implements MultiClassCla
     	resetAfterDrift();    	
     }
     
-    private Instance generateNewInstance(ArrayList<Instance> minoritySamples, boolean newInstanceBatch) {     	     	   
+    //reset the SMOTE structures of the last batch rebalanced
+    private void cleanSMOTE() {
+		this.alreadyUsed.clear();
+		this.effectiveNearestNeighbors = -1;
+		this.minorityInstances.clear();
+		this.minoritySamoaInstances = null;
+		this.minorityValues = null;
+		this.vdmMap.clear();
+    }
+    
+    //evaluate prequentially and train each model on its batch, the models concurrently
+    private void trainModels(final Classifier[] learners, final List<Instance>[] batches, final int[][][] confusionMatrices) throws Exception {
+    	int numberOfJobs = Math.min(this.numberOfJobsOption.getValue(), learners.length);
+    	if (numberOfJobs <= 1) {
+    		for (int m = 0; m < learners.length; m ++) {
+    			trainModel(learners[m], batches[m], confusionMatrices[m]);
+    		}
+    		return;
+    	}
+    	if (this.threadPool == null) {
+    		this.threadPool = Executors.newFixedThreadPool(numberOfJobs, r -> {
+    			Thread thread = new Thread(r, "RebalanceStream-train");
+    			thread.setDaemon(true);
+    			return thread;
+    		});
+    	}
+    	List<Future<?>> futures = new ArrayList<Future<?>>(learners.length);
+    	for (int m = 0; m < learners.length; m ++) {
+    		final int model = m;
+    		futures.add(this.threadPool.submit(() -> trainModel(learners[model], batches[model], confusionMatrices[model])));
+    	}
+    	try {
+    		for (Future<?> future : futures) {
+    			future.get();
+    		}
+    	} catch (ExecutionException e) {
+    		for (Future<?> future : futures) {
+    			future.cancel(true);
+    		}
+    		if (e.getCause() instanceof Exception) {
+    			throw (Exception) e.getCause();
+    		}
+    		throw e;
+    	}
+    }
+    
+    private void trainModel(Classifier learner, List<Instance> batch, int[][] confusionMatrix) {
+    	for (Instance trainInst : batch) {
+    		//prequential evaluation
+    		fillConfusionMatrix(trainInst,confusionMatrix,learner);
+    		//model training
+    		learner.trainOnInstance(trainInst);
+    	}
+    }
+    
+    private Instance generateNewInstance(Collection<Instance> minoritySamples, boolean newInstanceBatch) {     	     	   
     	//check if I need to check the neighbors and fill the Value Distance Metric matrices
     	if (this.effectiveNearestNeighbors == -1) {
     		setParameters(minoritySamples);
@@ -467,20 +541,22 @@ public class RebalanceStream extends AbstractClassifier implements MultiClassCla
         	this.alreadyUsed.clear();
         }
         
-    	Instance instanceI = this.wekaToSamoa.samoaInstance(this.minorityInstances.instance(pos));
+    	Instance instanceI = this.minoritySamoaInstances[pos];
+    	double[] valuesI = this.minorityValues[pos];
     	
-    	//find k nearest neighbors for the chosen instance
-    	List distanceToInstance = new LinkedList();
+    	//find k nearest neighbors for the chosen instance, the first ones found when tied
+    	double[] nnDistances = new double[nnArray.length];
+    	int found = 0;
     	for (int j = 0; j < this.minorityInstances.numInstances(); j++) {
-    		Instance instanceJ = this.wekaToSamoa.samoaInstance(this.minorityInstances.instance(j));
     		if (pos != j) {
+    			double[] valuesJ = this.minorityValues[j];
     			double distance = 0;
     			Enumeration attrEnum = this.minorityInstances.enumerateAttributes();
     			while(attrEnum.hasMoreElements()) {
     				Attribute attr = (Attribute) attrEnum.nextElement();
     				if (!attr.equals(this.minorityInstances.classAttribute())) {
-    					double iVal = this.samoaToWeka.wekaInstance(instanceI).value(attr);
-    					double jVal = this.samoaToWeka.wekaInstance(instanceJ).value(attr);
+    					double iVal = valuesI[attr.index()];
+    					double jVal = valuesJ[attr.index()];
     					if (attr.isNumeric()) {
     						distance += Math.pow(iVal - jVal, 2);
     					} else {
@@ -489,45 +565,40 @@ public class RebalanceStream extends AbstractClassifier implements MultiClassCla
     				}
     			}
     			distance = Math.pow(distance, .5);
-    			distanceToInstance.add(new Object[] {distance, instanceJ});
-    		}
-    	}
-
-    	// sort the neighbors according to distance
-    	Collections.sort(distanceToInstance, new Comparator() {
-    		public int compare(Object o1, Object o2) {
-    			double distance1 = (Double) ((Object[]) o1)[0];
-    			double distance2 = (Double) ((Object[]) o2)[0];
-    			return Double.compare(distance1, distance2);
+    			//insert it among the nearest ones found so far
+    			if (found < nnArray.length || Double.compare(distance, nnDistances[found - 1]) < 0) {
+    				int slot = found < nnArray.length ? found++ : found - 1;
+    				while (slot > 0 && Double.compare(distance, nnDistances[slot - 1]) < 0) {
+    					nnDistances[slot] = nnDistances[slot - 1];
+    					nnArray[slot] = nnArray[slot - 1];
+    					slot--;
+    				}
+    				nnDistances[slot] = distance;
+    				nnArray[slot] = this.minoritySamoaInstances[j];
+    			}
     		}
-    	});
-
-    	// populate the actual nearest neighbor instance array
-    	Iterator entryIterator = distanceToInstance.iterator();
-    	int j = 0;
-    	while(entryIterator.hasNext() && j < this.effectiveNearestNeighbors) {
-    		nnArray[j] = (Instance) ((Object[])entryIterator.next())[1];
-    		j++;
     	}
 
     	// create synthetic sample    	
 		double[] values = new double[this.minorityInstances.numAttributes()];
 		int nn = this.classifierRandom.nextInt(this.effectiveNearestNeighbors);
+		weka.core.Instance wekaI = this.samoaToWeka.wekaInstance(instanceI);
+		weka.core.Instance wekaNN = this.samoaToWeka.wekaInstance(nnArray[nn]);
 		Enumeration attrEnum = this.minorityInstances.enumerateAttributes();
 		while(attrEnum.hasMoreElements()) {
 			Attribute attr = (Attribute) attrEnum.nextElement();
 			if (!attr.equals(this.minorityInstances.classAttribute())) {
 				if (attr.isNumeric()) {
-					double dif = this.samoaToWeka.wekaInstance(nnArray[nn]).value(attr) - this.samoaToWeka.wekaInstance(instanceI).value(attr);
+					double dif = wekaNN.value(attr) - wekaI.value(attr);
 					double gap = this.classifierRandom.nextDouble();
-					values[attr.index()] = (double) (this.samoaToWeka.wekaInstance(instanceI).value(attr) + gap * dif);
+					values[attr.index()] = (double) (wekaI.value(attr) + gap * dif);
 				} else if (attr.isDate()) {
-					double dif = this.samoaToWeka.wekaInstance(nnArray[nn]).value(attr) - this.samoaToWeka.wekaInstance(instanceI).value(attr);
+					double dif = wekaNN.value(attr) - wekaI.value(attr);
 					double gap = this.classifierRandom.nextDouble();
-					values[attr.index()] = (long) (this.samoaToWeka.wekaInstance(instanceI).value(attr) + gap * dif);
+					values[attr.index()] = (long) (wekaI.value(attr) + gap * dif);
 				} else {
 					int[] valueCounts = new int[attr.numValues()];
-					int iVal = (int) this.samoaToWeka.wekaInstance(instanceI).value(attr);
+					int iVal = (int) wekaI.value(attr);
 					valueCounts[iVal]++;
 					for (int nnEx = 0; nnEx < this.effectiveNearestNeighbors; nnEx++) {
 						int val = (int) this.samoaToWeka.wekaInstance(nnArray[nnEx]).value(attr);
@@ -562,7 +633,7 @@ public class RebalanceStream extends AbstractClassifier implements MultiClassCla
 		return synthetic;	
     }
     
-    private void setParameters(ArrayList<Instance> minoritySamples) {
+    private void setParameters(Collection<Instance> minoritySamples) {
     	if (5 >= minoritySamples.size()) {
     		this.effectiveNearestNeighbors = minoritySamples.size() -1;
     	} else {
@@ -571,6 +642,14 @@ public class RebalanceStream extends AbstractClassifier implements MultiClassCla
        	        	    	
     	this.minorityInstances = fillNewBatch(minoritySamples);
     	this.minorityInstances.setClassIndex(this.minorityInstances.numAttributes() - 1);
+    	
+    	//convert the instances once instead of for every distance
+    	this.minoritySamoaInstances = new Instance[this.minorityInstances.numInstances()];
+    	this.minorityValues = new double[this.minorityInstances.numInstances()][];
+    	for (int j = 0; j < this.minorityInstances.numInstances(); j++) {
+    		this.minoritySamoaInstances[j] = this.wekaToSamoa.samoaInstance(this.minorityInstances.instance(j));
+    		this.minorityValues[j] = this.samoaToWeka.wekaInstance(this.minoritySamoaInstances[j]).toDoubleArray();
+    	}
     	    	    	
     	//compute Value Distance Metric matrices for nominal features                   
     	Enumeration attrEnum = this.minorityInstances.enumerateAttributes();        
@@ -626,7 +705,14 @@ public class RebalanceStream extends AbstractClassifier implements MultiClassCla
     
     //create the dateset of instances with 2 class 
     //and the number of attributes chosen in the stream configuration
-    private Instances createRandomInstances() {
+    private Instances createRandomInstances(int capacity) {
+    	if (this.batchHeader == null) {
+    		this.batchHeader = createBatchHeader();
+    	}
+    	return new Instances(this.batchHeader, capacity);
+    }
+    
+    private Instances createBatchHeader() {
 		ArrayList<Attribute> atts = new ArrayList<Attribute>();
 		ArrayList<String> label = new ArrayList<String>();
 		
@@ -690,10 +776,10 @@ public class RebalanceStream extends AbstractClassifier implements MultiClassCla
     }
     
     //create a dataset of instances ready to iterate
-    private Instances fillNewBatch(ArrayList<Instance> batch) {
-    	Instances newBatch = createRandomInstances();
-    	for (int l = 0; l < batch.size(); l ++) {
-        	newBatch.add(this.samoaToWeka.wekaInstance(batch.get(l)));                    	
+    private Instances fillNewBatch(Collection<Instance> batch) {
+    	Instances newBatch = createRandomInstances(batch.size());
+    	for (Instance instance : batch) {
+        	newBatch.add(this.samoaToWeka.wekaInstance(instance));                    	
         }
     	
     	return newBatch;
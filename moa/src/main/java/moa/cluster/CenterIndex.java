@@ -0,0 +1,475 @@
+/*
+ *    CenterIndex.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ *
+ */
+
+package moa.cluster;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * A ball tree over the centers of a changing set of micro-clusters, used to
+ * find the micro-cluster closest to a point without scanning all of them.
+ *
+ * Micro-clusters are added, moved and removed one at a time. A micro-cluster
+ * that moves inside the ball of its leaf stays there and the balls of its
+ * ancestors grow to cover its new center, one that leaves it is inserted
+ * again; the tree is rebuilt once it has changed more times than it has items.
+ *
+ * The stored centers and radii are only used to discard candidates. The
+ * remaining ones are scored by a function of the caller, so that a query gives
+ * the same answer as a linear scan with that function, ties included, as long
+ * as the score of an item is never below the distance to its stored center
+ * minus the radius weight times its stored radius (up to rounding errors).
+ *
+ * @param <T> the type of the micro-clusters
+ */
+public class CenterIndex<T> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int LEAF_SIZE = 16;
+
+    /** Relative tolerance covering the rounding errors of the stored values. */
+    private static final double TOLERANCE = 1e-9;
+
+    private static class Node implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        double[] center;
+
+        /** Covers the stored centers of the items below. */
+        double radius;
+
+        /** The largest stored radius of the items below. */
+        double maxItemRadius;
+
+        Node parent;
+
+        Node left;
+
+        Node right;
+
+        /** The items of a leaf, null for inner nodes. */
+        int[] items;
+
+        int numItems;
+    }
+
+    private final int dimensions;
+
+    private Node root;
+
+    private double[][] centers = new double[16][];
+
+    private double[] radii = new double[16];
+
+    private long[] ranks = new long[16];
+
+    private Object[] items = new Object[16];
+
+    private Node[] leaves = new Node[16];
+
+    private int[] freeHandles = new int[16];
+
+    private int numFreeHandles;
+
+    private int handleLimit;
+
+    private int size;
+
+    private int changes;
+
+    /**
+     * Creates an empty index.
+     *
+     * @param dimensions the number of dimensions of the centers
+     */
+    public CenterIndex(int dimensions) {
+        this.dimensions = dimensions;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Adds a micro-cluster.
+     *
+     * @param item the micro-cluster
+     * @param center its center, which is copied
+     * @param radius an upper bound of its radius, used for queries with a
+     * radius weight
+     * @param rank the position of the micro-cluster in the order that breaks
+     * ties between equal scores, lower first
+     * @return the handle of the micro-cluster in the index
+     */
+    public int add(T item, double[] center, double radius, long rank) {
+        int handle;
+        if (this.numFreeHandles > 0) {
+            handle = this.freeHandles[--this.numFreeHandles];
+        } else {
+            if (this.handleLimit == this.items.length) {
+                int capacity = 2 * this.items.length;
+                this.centers = Arrays.copyOf(this.centers, capacity);
+                this.radii = Arrays.copyOf(this.radii, capacity);
+                this.ranks = Arrays.copyOf(this.ranks, capacity);
+                this.items = Arrays.copyOf(this.items, capacity);
+                this.leaves = Arrays.copyOf(this.leaves, capacity);
+                this.freeHandles = Arrays.copyOf(this.freeHandles, capacity);
+            }
+            handle = this.handleLimit++;
+        }
+        this.centers[handle] = center.clone();
+        this.radii[handle] = radius;
+        this.ranks[handle] = rank;
+        this.items[handle] = item;
+        this.size++;
+        if (this.root == null) {
+            this.root = newLeaf(null);
+        }
+        insert(handle);
+        changed();
+        return handle;
+    }
+
+    /**
+     * Records that a micro-cluster moved or that its radius changed.
+     *
+     * @param handle the handle of the micro-cluster
+     * @param center its new center, which is copied
+     * @param radius an upper bound of its new radius
+     */
+    public void update(int handle, double[] center, double radius) {
+        System.arraycopy(center, 0, this.centers[handle], 0, this.dimensions);
+        this.radii[handle] = radius;
+        Node leaf = this.leaves[handle];
+        if (distance(leaf.center, center) > leaf.radius) {
+            // Moved out of its leaf, as replaced micro-clusters do: reinserted
+            // rather than growing the balls on its old path
+            detach(leaf, handle);
+            insert(handle);
+        } else {
+            for (Node node = leaf; node != null; node = node.parent) {
+                cover(node, handle);
+            }
+        }
+        changed();
+    }
+
+    /**
+     * Removes a micro-cluster. Its handle may be reused by a later addition.
+     *
+     * @param handle the handle of the micro-cluster
+     */
+    public void remove(int handle) {
+        detach(this.leaves[handle], handle);
+        this.centers[handle] = null;
+        this.items[handle] = null;
+        this.leaves[handle] = null;
+        this.freeHandles[this.numFreeHandles++] = handle;
+        this.size--;
+        changed();
+    }
+
+    /**
+     * Removes all the micro-clusters.
+     */
+    public void clear() {
+        Arrays.fill(this.centers, null);
+        Arrays.fill(this.items, null);
+        Arrays.fill(this.leaves, null);
+        this.root = null;
+        this.numFreeHandles = 0;
+        this.handleLimit = 0;
+        this.size = 0;
+        this.changes = 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T get(int handle) {
+        return (T) this.items[handle];
+    }
+
+    /**
+     * Finds the micro-cluster with the lowest score, the one of lowest rank
+     * among equal scores, as a scan over the micro-clusters in rank order
+     * keeping the first strictly lower score would.
+     *
+     * @param point the point of the query
+     * @param radiusWeight how much of the radius of a micro-cluster the score
+     * may subtract from the distance of the point to its center, 0 for a plain
+     * distance
+     * @param threshold only scores strictly below it are considered
+     * @param minRank only micro-clusters of rank strictly above it are
+     * considered
+     * @param exclude the handle of a micro-cluster not to consider, or -1
+     * @param score the exact score of a micro-cluster
+     * @return the handle of the micro-cluster found, or -1 if none qualifies
+     */
+    public int nearest(double[] point, double radiusWeight, double threshold,
+            long minRank, int exclude, ToDoubleFunction<? super T> score) {
+        if (this.root == null) {
+            return -1;
+        }
+        double pointNorm = 0.0;
+        for (int i = 0; i < this.dimensions; i++) {
+            pointNorm = Math.max(pointNorm, Math.abs(point[i]));
+        }
+        int best = -1;
+        double bestScore = threshold;
+        Node[] stack = new Node[64];
+        double[] bounds = new double[64];
+        int top = 0;
+        stack[top] = this.root;
+        bounds[top++] = Double.NEGATIVE_INFINITY;
+        while (top > 0) {
+            Node node = stack[--top];
+            if (bounds[top] > bestScore) {
+                continue;
+            }
+            if (node.items != null) {
+                for (int i = 0; i < node.numItems; i++) {
+                    int handle = node.items[i];
+                    if (handle == exclude || this.ranks[handle] <= minRank) {
+                        continue;
+                    }
+                    double d = distance(point, this.centers[handle]);
+                    double r = radiusWeight * this.radii[handle];
+                    if (d - r - TOLERANCE * (1.0 + pointNorm + d + r) > bestScore) {
+                        continue;
+                    }
+                    double s = score.applyAsDouble(get(handle));
+                    if (s < bestScore || (s == bestScore && best != -1
+                            && this.ranks[handle] < this.ranks[best])) {
+                        best = handle;
+                        bestScore = s;
+                    }
+                }
+                continue;
+            }
+            double leftBound = lowerBound(point, pointNorm, node.left, radiusWeight);
+            double rightBound = lowerBound(point, pointNorm, node.right, radiusWeight);
+            if (top + 2 > stack.length) {
+                stack = Arrays.copyOf(stack, 2 * stack.length);
+                bounds = Arrays.copyOf(bounds, 2 * bounds.length);
+            }
+            // The closer child is searched first
+            if (leftBound <= rightBound) {
+                stack[top] = node.right;
+                bounds[top++] = rightBound;
+                stack[top] = node.left;
+                bounds[top++] = leftBound;
+            } else {
+                stack[top] = node.left;
+                bounds[top++] = leftBound;
+                stack[top] = node.right;
+                bounds[top++] = rightBound;
+            }
+        }
+        return best;
+    }
+
+    private double lowerBound(double[] point, double pointNorm, Node node, double radiusWeight) {
+        double d = distance(point, node.center);
+        double r = node.radius + radiusWeight * node.maxItemRadius;
+        return d - r - TOLERANCE * (1.0 + pointNorm + d + r);
+    }
+
+    /**
+     * Puts an item in the leaf whose path follows the closest centers.
+     */
+    private void insert(int handle) {
+        double[] center = this.centers[handle];
+        Node node = this.root;
+        while (node.items == null) {
+            cover(node, handle);
+            double toLeft = distance(center, node.left.center);
+            double toRight = distance(center, node.right.center);
+            node = (toLeft <= toRight) ? node.left : node.right;
+        }
+        cover(node, handle);
+        if (node.numItems == node.items.length) {
+            node.items = Arrays.copyOf(node.items, 2 * node.items.length);
+        }
+        node.items[node.numItems++] = handle;
+        this.leaves[handle] = node;
+        if (node.numItems > 2 * LEAF_SIZE) {
+            split(node);
+        }
+    }
+
+    private void detach(Node leaf, int handle) {
+        for (int i = 0; i < leaf.numItems; i++) {
+            if (leaf.items[i] == handle) {
+                leaf.items[i] = leaf.items[--leaf.numItems];
+                break;
+            }
+        }
+    }
+
+    /**
+     * Grows the ball of a node to cover the center and radius of an item.
+     */
+    private void cover(Node node, int handle) {
+        double d = distance(node.center, this.centers[handle]);
+        if (d > node.radius) {
+            node.radius = d;
+        }
+        if (this.radii[handle] > node.maxItemRadius) {
+            node.maxItemRadius = this.radii[handle];
+        }
+    }
+
+    private void changed() {
+        if (++this.changes > this.size) {
+            rebuild();
+        }
+    }
+
+    private void rebuild() {
+        int[] handles = new int[this.size];
+        int n = 0;
+        for (int handle = 0; handle < this.handleLimit; handle++) {
+            if (this.leaves[handle] != null) {
+                handles[n++] = handle;
+            }
+        }
+        this.root = (n == 0) ? null : build(handles, 0, n, null);
+        this.changes = 0;
+    }
+
+    /**
+     * Replaces an overflowing leaf by a subtree. The balls of its ancestors
+     * already cover its items.
+     */
+    private void split(Node leaf) {
+        int[] handles = Arrays.copyOf(leaf.items, leaf.numItems);
+        Node subtree = build(handles, 0, handles.length, leaf.parent);
+        if (leaf.parent == null) {
+            this.root = subtree;
+        } else if (leaf.parent.left == leaf) {
+            leaf.parent.left = subtree;
+        } else {
+            leaf.parent.right = subtree;
+        }
+    }
+
+    private Node newLeaf(Node parent) {
+        Node leaf = new Node();
+        leaf.center = new double[this.dimensions];
+        leaf.items = new int[2 * LEAF_SIZE + 1];
+        leaf.parent = parent;
+        return leaf;
+    }
+
+    /**
+     * Builds the subtree of the items handles[from..to), splitting at the
+     * median of the dimension along which the centers spread most.
+     */
+    private Node build(int[] handles, int from, int to, Node parent) {
+        Node node;
+        if (to - from <= LEAF_SIZE) {
+            node = newLeaf(parent);
+        } else {
+            node = new Node();
+            node.center = new double[this.dimensions];
+            node.parent = parent;
+        }
+        double[] min = new double[this.dimensions];
+        double[] max = new double[this.dimensions];
+        Arrays.fill(min, Double.POSITIVE_INFINITY);
+        Arrays.fill(max, Double.NEGATIVE_INFINITY);
+        for (int i = from; i < to; i++) {
+            double[] c = this.centers[handles[i]];
+            for (int j = 0; j < this.dimensions; j++) {
+                node.center[j] += c[j];
+                min[j] = Math.min(min[j], c[j]);
+                max[j] = Math.max(max[j], c[j]);
+            }
+        }
+        for (int j = 0; j < this.dimensions; j++) {
+            node.center[j] /= (to - from);
+        }
+        for (int i = from; i < to; i++) {
+            cover(node, handles[i]);
+        }
+        if (node.items != null) {
+            for (int i = from; i < to; i++) {
+                node.items[node.numItems++] = handles[i];
+                this.leaves[handles[i]] = node;
+            }
+            return node;
+        }
+        int split = 0;
+        for (int j = 1; j < this.dimensions; j++) {
+            if (max[j] - min[j] > max[split] - min[split]) {
+                split = j;
+            }
+        }
+        int middle = (from + to) >>> 1;
+        select(handles, from, to - 1, middle, split);
+        node.left = build(handles, from, middle, node);
+        node.right = build(handles, middle, to, node);
+        return node;
+    }
+
+    /**
+     * Partially sorts handles[lo..hi] so that the item at position k is the
+     * one that a sort by the given coordinate would put there.
+     */
+    private void select(int[] handles, int lo, int hi, int k, int dimension) {
+        while (lo < hi) {
+            double pivot = this.centers[handles[(lo + hi) >>> 1]][dimension];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (this.centers[handles[i]][dimension] < pivot) {
+                    i++;
+                }
+                while (this.centers[handles[j]][dimension] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int tmp = handles[i];
+                    handles[i] = handles[j];
+                    handles[j] = tmp;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private double distance(double[] a, double[] b) {
+        double sum = 0.0;
+        for (int i = 0; i < this.dimensions; i++) {
+            double d = a[i] - b[i];
+            sum += d * d;
+        }
+        return Math.sqrt(sum);
+    }
+}
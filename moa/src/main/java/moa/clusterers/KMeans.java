@@ -21,7 +21,11 @@
 package moa.clusterers;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 import moa.cluster.CFCluster;
 import moa.cluster.Cluster;
 import moa.cluster.Clustering;
@@ -38,6 +42,16 @@ import moa.cluster.SphereCluster;
  */
 public class KMeans {
 
+    /**
+     * number of distance computations per pass from which the points are processed in parallel
+     */
+    private static final long PARALLEL_MIN_WORK = 1 << 16;
+
+    /**
+     * relative margin for the bound checks, far above the rounding errors of the bounds
+     */
+    private static final double BOUND_SLACK = 1e-9;
+
     /**
      * This kMeans implementation clusters a big number of microclusters 
      * into a smaller amount of macro clusters. To make it comparable to other 
@@ -51,43 +65,285 @@ public class KMeans {
      * @return
      */
     public static Clustering kMeans(Cluster[] centers, List<? extends Cluster> data ) {
+        return kMeans(centers, data, 101, false);
+    }
+
+    /**
+     * Lloyd's k-means of (micro)clusters from the given initial centers. The
+     * weight of each resulting center is the number of clusters assigned to
+     * it, centers without clusters are moved to the origin.
+     *
+     * @param centers initial centers
+     * @param data list of (micro)clusters
+     * @param maxIterations maximum number of center updates, the iterations stop
+     * earlier once the centers do not change any more
+     * @return the centers as SphereClusters, their radius covers the assigned clusters
+     */
+    public static Clustering kMeans(Cluster[] centers, List<? extends Cluster> data, int maxIterations) {
+        return kMeans(centers, data, maxIterations, true);
+    }
+
+    private static Clustering kMeans(Cluster[] centers, List<? extends Cluster> data, int maxIterations,
+            boolean setWeights) {
         int k = centers.length;
+        int dimensions = centers[0].getCenter().length;
 
-	int dimensions = centers[0].getCenter().length;
+        double[] points = new double[data.size() * dimensions];
+        for (int i = 0; i < data.size(); i++) {
+            System.arraycopy(data.get(i).getCenter(), 0, points, i * dimensions, dimensions);
+        }
+        double[] flatCenters = new double[k * dimensions];
+        for (int i = 0; i < k; i++) {
+            System.arraycopy(centers[i].getCenter(), 0, flatCenters, i * dimensions, dimensions);
+        }
 
-	ArrayList<ArrayList<Cluster>> clustering =
-		new ArrayList<ArrayList<Cluster>>();
-	for ( int i = 0; i < k; i++ ) {
-	    clustering.add( new ArrayList<Cluster>() );
-	}
+        int[] assignment = new int[data.size()];
+        lloyd(points, null, dimensions, flatCenters, maxIterations, false, assignment);
 
-	int repetitions = 100;
-	while ( repetitions-- >= 0 ) {
-	    // Assign points to clusters
-	    for ( Cluster point : data ) {
-		double minDistance = distance( point.getCenter(), centers[0].getCenter() );
-		int closestCluster = 0;
-		for ( int i = 1; i < k; i++ ) {
-		    double distance = distance( point.getCenter(), centers[i].getCenter() );
-		    if ( distance < minDistance ) {
-			closestCluster = i;
-			minDistance = distance;
-		    }
-		}
+        // wrap the centers with the radius and number of their last assigned clusters
+        double[] radius = new double[k];
+        int[] count = new int[k];
+        for (int i = 0; i < assignment.length; i++) {
+            int c = assignment[i];
+            double dist = distance(flatCenters, c * dimensions, points, i * dimensions, dimensions);
+            if (dist > radius[c]) {
+                radius[c] = dist;
+            }
+            count[c]++;
+        }
+        SphereCluster[] result = new SphereCluster[k];
+        for (int i = 0; i < k; i++) {
+            double[] center = Arrays.copyOfRange(flatCenters, i * dimensions, (i + 1) * dimensions);
+            result[i] = new SphereCluster(center, radius[i]);
+            if (setWeights && count[i] > 0) {
+                result[i].setWeight(count[i]);
+            }
+        }
+        return new Clustering(result);
+    }
 
-		clustering.get( closestCluster ).add( point );
-	    }
+    /**
+     * Runs Lloyd iterations on points stored in a flat array, the engine of
+     * the k-means macro clusterings. Points skip the comparison with all
+     * centers as long as Hamerly's bounds, i.e. the distance to the own center
+     * grown by its drift against the distance to the second closest center
+     * shrunk by the largest drift, show that the own center is still the
+     * closest one. The bounds only skip clear decisions, so the assignments
+     * are the ones of a full scan with ties going to the lower center index.
+     * Center sums are added in point order, large inputs are assigned and
+     * summed on the common fork-join pool.
+     *
+     * @param points n*d coordinates of the points
+     * @param weights weights of the points, null if all weights are 1
+     * @param d dimensions
+     * @param centers k*d coordinates of the initial centers, replaced by the final centers
+     * @param maxIterations maximum number of center updates
+     * @param keepEmptyCenters whether centers without weight stay in place instead of moving to the origin
+     * @param assignment receives the center index of each point, assigned before the last center update
+     * @return the number of center updates
+     */
+    public static int lloyd(double[] points, double[] weights, int d, double[] centers, int maxIterations,
+            boolean keepEmptyCenters, int[] assignment) {
+        int n = points.length / d;
+        int k = centers.length / d;
+        boolean parallel = (long) n * k * d >= PARALLEL_MIN_WORK;
 
-	    // Calculate new centers and clear clustering lists
-	    SphereCluster[] newCenters = new SphereCluster[centers.length];
-	    for ( int i = 0; i < k; i++ ) {
-		newCenters[i] = calculateCenter( clustering.get( i ), dimensions );
-		clustering.get( i ).clear();
-	    }
-	    centers = newCenters;
-	}
+        double[] upper = new double[n];
+        double[] lower = new double[n];
+        forEach(n, parallel, i -> assignToClosest(points, i, centers, k, d, assignment, upper, lower));
+
+        double[] newCenters = new double[centers.length];
+        double[] drift = new double[k];
+        double[] halfSeparation = new double[k];
+        int[] order = new int[n];
+        int[] offsets = new int[k + 1];
+        int iterations = 0;
+        while (iterations < maxIterations) {
+            iterations++;
+
+            // members of each center in point order
+            Arrays.fill(offsets, 0);
+            for (int i = 0; i < n; i++) {
+                offsets[assignment[i] + 1]++;
+            }
+            for (int c = 0; c < k; c++) {
+                offsets[c + 1] += offsets[c];
+            }
+            int[] next = Arrays.copyOf(offsets, k);
+            for (int i = 0; i < n; i++) {
+                order[next[assignment[i]]++] = i;
+            }
+
+            forEach(k, parallel, c -> {
+                int offset = c * d;
+                double weightSum = 0.0;
+                Arrays.fill(newCenters, offset, offset + d, 0.0);
+                for (int m = offsets[c]; m < offsets[c + 1]; m++) {
+                    int i = order[m];
+                    double w = (weights == null) ? 1.0 : weights[i];
+                    for (int j = 0; j < d; j++) {
+                        newCenters[offset + j] += w * points[i * d + j];
+                    }
+                    weightSum += w;
+                }
+                for (int j = 0; j < d; j++) {
+                    if (weightSum != 0.0) {
+                        newCenters[offset + j] /= weightSum;
+                    } else if (keepEmptyCenters) {
+                        newCenters[offset + j] = centers[offset + j];
+                    }
+                }
+            });
+
+            boolean converged = true;
+            double maxDrift = 0.0;
+            double secondMaxDrift = 0.0;
+            int maxDriftIndex = -1;
+            for (int c = 0; c < k; c++) {
+                drift[c] = distance(centers, c * d, newCenters, c * d, d);
+                if (converged) {
+                    for (int j = c * d; j < (c + 1) * d; j++) {
+                        if (centers[j] != newCenters[j] && !(Double.isNaN(centers[j]) && Double.isNaN(newCenters[j]))) {
+                            converged = false;
+                            break;
+                        }
+                    }
+                }
+                if (drift[c] > maxDrift) {
+                    secondMaxDrift = maxDrift;
+                    maxDrift = drift[c];
+                    maxDriftIndex = c;
+                } else if (drift[c] > secondMaxDrift) {
+                    secondMaxDrift = drift[c];
+                }
+            }
+            System.arraycopy(newCenters, 0, centers, 0, centers.length);
+            if (converged || iterations == maxIterations) {
+                break;
+            }
+
+            for (int c = 0; c < k; c++) {
+                double min = Double.POSITIVE_INFINITY;
+                for (int c1 = 0; c1 < k; c1++) {
+                    if (c1 != c) {
+                        min = Math.min(min, distance(centers, c * d, centers, c1 * d, d));
+                    }
+                }
+                halfSeparation[c] = 0.5 * min;
+            }
 
-	return new Clustering( centers );
+            final double maxDriftFinal = maxDrift;
+            final double secondMaxDriftFinal = secondMaxDrift;
+            final int maxDriftIndexFinal = maxDriftIndex;
+            forEach(n, parallel, i -> {
+                int a = assignment[i];
+                upper[i] += drift[a];
+                lower[i] -= (a == maxDriftIndexFinal) ? secondMaxDriftFinal : maxDriftFinal;
+                double bound = Math.max(halfSeparation[a], lower[i]);
+                if (isClearlyLess(upper[i], bound)) {
+                    return;
+                }
+                upper[i] = distance(points, i * d, centers, a * d, d);
+                if (isClearlyLess(upper[i], bound)) {
+                    return;
+                }
+                assignToClosest(points, i, centers, k, d, assignment, upper, lower);
+            });
+        }
+        return iterations;
+    }
+
+    /**
+     * Selects k initial centers like k-means++: the first one uniformly at
+     * random, every further one with a probability proportional to the
+     * weighted squared distance to its closest selected center.
+     *
+     * Citation: David Arthur, Sergei Vassilvitskii:
+     * k-means++: the advantages of careful seeding.
+     * SODA 2007: 1027-1035
+     *
+     * @param k number of centers
+     * @param points n*d coordinates of the points
+     * @param weights weights of the points, null if all weights are 1
+     * @param d dimensions
+     * @param random source of the random choices
+     * @return k*d coordinates of the selected centers
+     */
+    public static double[] kMeansPlusPlus(int k, double[] points, double[] weights, int d, Random random) {
+        int n = points.length / d;
+        boolean parallel = (long) n * d >= PARALLEL_MIN_WORK;
+        double[] centers = new double[k * d];
+        System.arraycopy(points, random.nextInt(n) * d, centers, 0, d);
+
+        double[] distance = new double[n];
+        Arrays.fill(distance, Double.POSITIVE_INFINITY);
+        for (int c = 1; c < k; c++) {
+            int last = (c - 1) * d;
+            forEach(n, parallel, i -> {
+                double w = (weights == null) ? 1.0 : weights[i];
+                distance[i] = Math.min(distance[i], w * distanceSquared(centers, last, points, i * d, d));
+            });
+            double sum = 0.0;
+            for (int i = 0; i < n; i++) {
+                sum += distance[i];
+            }
+            int candidate = 0;
+            if (sum > 0) {
+                double nextCenterValue = sum * random.nextDouble();
+                double currentValue = distance[0];
+                while (!(nextCenterValue < currentValue)) {
+                    currentValue += distance[++candidate];
+                }
+            }
+            System.arraycopy(points, candidate * d, centers, c * d, d);
+        }
+        return centers;
+    }
+
+    /**
+     * Compares the point to all centers, sets the closest one (the lowest
+     * index among equal distances) and the distances to it and to the second
+     * closest one.
+     */
+    private static void assignToClosest(double[] points, int i, double[] centers, int k, int d,
+            int[] assignment, double[] upper, double[] lower) {
+        double minDistance = distance(points, i * d, centers, 0, d);
+        double secondDistance = Double.POSITIVE_INFINITY;
+        int closestCluster = 0;
+        for (int c = 1; c < k; c++) {
+            double distance = distance(points, i * d, centers, c * d, d);
+            if (distance < minDistance) {
+                secondDistance = minDistance;
+                closestCluster = c;
+                minDistance = distance;
+            } else if (distance < secondDistance) {
+                secondDistance = distance;
+            }
+        }
+        assignment[i] = closestCluster;
+        upper[i] = minDistance;
+        lower[i] = secondDistance;
+    }
+
+    /**
+     * Whether a is smaller than b by more than the rounding errors the bounds
+     * can accumulate.
+     */
+    private static boolean isClearlyLess(double a, double b) {
+        if (b == Double.POSITIVE_INFINITY) {
+            return a < b;
+        }
+        return a < b - BOUND_SLACK * (Math.abs(a) + Math.abs(b));
+    }
+
+    private static void forEach(int size, boolean parallel, IntConsumer action) {
+        if (parallel) {
+            IntStream.range(0, size).parallel().forEach(action);
+        } else {
+            for (int i = 0; i < size; i++) {
+                action.accept(i);
+            }
+        }
     }
 
     private static double distance(double[] pointA, double [] pointB){
@@ -99,39 +355,17 @@ public class KMeans {
         return Math.sqrt(distance);
     }
 
+    private static double distance(double[] a, int offsetA, double[] b, int offsetB, int d) {
+        return Math.sqrt(distanceSquared(a, offsetA, b, offsetB, d));
+    }
 
-    private static SphereCluster calculateCenter( ArrayList<Cluster> cluster, int dimensions ) {
-	double[] res = new double[dimensions];
-	for ( int i = 0; i < res.length; i++ ) {
-	    res[i] = 0.0;
-	}
-
-	if ( cluster.size() == 0 ) {
-	    return new SphereCluster( res, 0.0 );
-	}
-
-	for ( Cluster point : cluster ) {
-            double [] center = point.getCenter();
-            for (int i = 0; i < res.length; i++) {
-               res[i] += center[i];
-            }
-	}
-
-	// Normalize
-	for ( int i = 0; i < res.length; i++ ) {
-	    res[i] /= cluster.size();
-	}
-
-	// Calculate radius
-	double radius = 0.0;
-	for ( Cluster point : cluster ) {
-	    double dist = distance( res, point.getCenter() );
-	    if ( dist > radius ) {
-		radius = dist;
-	    }
-	}
-
-	return new SphereCluster( res, radius );
+    private static double distanceSquared(double[] a, int offsetA, double[] b, int offsetB, int d) {
+        double distance = 0.0;
+        for (int i = 0; i < d; i++) {
+            double diff = a[offsetA + i] - b[offsetB + i];
+            distance += diff * diff;
+        }
+        return distance;
     }
 
     public static Clustering gaussianMeans(Clustering gtClustering, Clustering clustering) {
@@ -20,14 +20,16 @@
 
 package moa.clusterers.clustream;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
+import moa.cluster.CenterIndex;
 import moa.cluster.Cluster;
 import moa.cluster.Clustering;
 import moa.cluster.SphereCluster;
 import moa.clusterers.AbstractClusterer;
+import moa.clusterers.KMeans;
 import moa.core.Measurement;
 import com.github.javacliparser.IntOption;
 import com.yahoo.labs.samoa.instances.DenseInstance;
@@ -54,6 +56,7 @@ public class Clustream extends AbstractClusterer{
 	private int timeWindow;
 	private long timestamp = -1;
 	private ClustreamKernel[] kernels;
+	private CenterIndex<Integer> kernelIndex; // Centers of the kernels, handle i is kernels[i]
 	private boolean initialized;
 	private List<ClustreamKernel> buffer; // Buffer for initialization with kNN
 	private int bufferSize;
@@ -67,6 +70,7 @@ public class Clustream extends AbstractClusterer{
 	@Override
 	public void resetLearningImpl() {
 		this.kernels = new ClustreamKernel[maxNumKernelsOption.getValue()];
+		this.kernelIndex = null;
 		this.timeWindow = timeWindowOption.getValue();
 		this.initialized = false;
 		this.buffer = new LinkedList<ClustreamKernel>();
@@ -101,22 +105,22 @@ public class Clustream extends AbstractClusterer{
 				kernels[i] = new ClustreamKernel( new DenseInstance(1.0,centers[i].getCenter()), dim, timestamp, t, m );
 			}
 
+			kernelIndex = new CenterIndex<Integer>(dim);
+			for ( int i = 0; i < kernels.length; i++ ) {
+				kernelIndex.add( i, kernels[i].getCenter(), 0.0, i );
+			}
+
 			buffer.clear();
 			initialized = true;
 		}
 
 
 		// 1. Determine closest kernel
-		ClustreamKernel closestKernel = null;
-		double minDistance = Double.MAX_VALUE;
-		for ( int i = 0; i < kernels.length; i++ ) {
-			//System.out.println(i+" "+kernels[i].getWeight()+" "+kernels[i].getDeviation());
-			double distance = distance(instance.toDoubleArray(), kernels[i].getCenter() );
-			if ( distance < minDistance ) {
-				closestKernel = kernels[i];
-				minDistance = distance;
-			}
-		}
+		final double[] point = instance.toDoubleArray();
+		int closest = kernelIndex.nearest( point, 0.0, Double.MAX_VALUE, -1, -1,
+				i -> distance( point, kernels[i].getCenter() ) );
+		ClustreamKernel closestKernel = kernels[closest];
+		double minDistance = distance( point, closestKernel.getCenter() );
 
 		// 2. Check whether instance fits into closestKernel
 		double radius = 0.0;
@@ -124,14 +128,11 @@ public class Clustream extends AbstractClusterer{
 			// Special case: estimate radius by determining the distance to the
 			// next closest cluster
 			radius = Double.MAX_VALUE;
-			double[] center = closestKernel.getCenter();
-			for ( int i = 0; i < kernels.length; i++ ) {
-				if ( kernels[i] == closestKernel ) {
-					continue;
-				}
-
-				double distance = distance(kernels[i].getCenter(), center );
-				radius = Math.min( distance, radius );
+			final double[] center = closestKernel.getCenter();
+			int next = kernelIndex.nearest( center, 0.0, Double.MAX_VALUE, -1, closest,
+					i -> distance( kernels[i].getCenter(), center ) );
+			if ( next != -1 ) {
+				radius = distance( kernels[next].getCenter(), center );
 			}
 		} else {
 			radius = closestKernel.getRadius();
@@ -140,6 +141,7 @@ public class Clustream extends AbstractClusterer{
 		if ( minDistance < radius ) {
 			// Date fits, put into kernel and be happy
 			closestKernel.insert( instance, timestamp );
+			kernelIndex.update( closest, closestKernel.getCenter(), 0.0 );
 			return;
 		}
 
@@ -151,6 +153,7 @@ public class Clustream extends AbstractClusterer{
 		for ( int i = 0; i < kernels.length; i++ ) {
 			if ( kernels[i].getRelevanceStamp() < threshold ) {
 				kernels[i] = new ClustreamKernel( instance, dim, timestamp, t, m );
+				kernelIndex.update( i, kernels[i].getCenter(), 0.0 );
 				return;
 			}
 		}
@@ -160,20 +163,22 @@ public class Clustream extends AbstractClusterer{
 		int closestB = 0;
 		minDistance = Double.MAX_VALUE;
 		for ( int i = 0; i < kernels.length; i++ ) {
-			double[] centerA = kernels[i].getCenter();
-			for ( int j = i + 1; j < kernels.length; j++ ) {
-				double dist = distance( centerA, kernels[j].getCenter() );
-				if ( dist < minDistance ) {
-					minDistance = dist;
-					closestA = i;
-					closestB = j;
-				}
+			// Only a kernel after i closer than the closest pair so far can replace it
+			final double[] centerA = kernels[i].getCenter();
+			int j = kernelIndex.nearest( centerA, 0.0, minDistance, i, -1,
+					b -> distance( centerA, kernels[b].getCenter() ) );
+			if ( j != -1 ) {
+				minDistance = distance( centerA, kernels[j].getCenter() );
+				closestA = i;
+				closestB = j;
 			}
 		}
 		assert (closestA != closestB);
 
 		kernels[closestA].add( kernels[closestB] );
 		kernels[closestB] = new ClustreamKernel( instance, dim, timestamp, t,  m );
+		kernelIndex.update( closestA, kernels[closestA].getCenter(), 0.0 );
+		kernelIndex.update( closestB, kernels[closestB].getCenter(), 0.0 );
 	}
 
 	@Override
@@ -224,11 +229,15 @@ public class Clustream extends AbstractClusterer{
 	//    }
 
 	public static Clustering kMeans( int k, List<? extends Cluster> data ) {
-		Random random = new Random(0);
+		int dimensions = data.get(0).getCenter().length;
+		double[] points = new double[data.size() * dimensions];
+		for (int i = 0; i < data.size(); i++) {
+			System.arraycopy(data.get(i).getCenter(), 0, points, i * dimensions, dimensions);
+		}
+		double[] seeds = KMeans.kMeansPlusPlus(k, points, null, dimensions, new Random(0));
 		Cluster[] centers = new Cluster[k];
 		for (int i = 0; i < centers.length; i++) {
-			int rid = random.nextInt(k);
-			centers[i] = new SphereCluster(data.get(rid).getCenter(),0);
+			centers[i] = new SphereCluster(Arrays.copyOfRange(seeds, i * dimensions, (i + 1) * dimensions),0);
 		}
 		Clustering clustering = kMeans(k, centers, data);
 		return clustering;
@@ -242,75 +251,7 @@ public class Clustream extends AbstractClusterer{
 		assert (centers.length == k);
 		assert (k > 0);
 
-		int dimensions = centers[0].getCenter().length;
-
-		ArrayList<ArrayList<Cluster>> clustering = new ArrayList<ArrayList<Cluster>>();
-		for ( int i = 0; i < k; i++ ) {
-			clustering.add( new ArrayList<Cluster>() );
-		}
-
-		int repetitions = 100;
-		while ( repetitions-- >= 0 ) {
-			// Assign points to clusters
-			for ( Cluster point : data ) {
-				double minDistance = distance( point.getCenter(), centers[0].getCenter() );
-				int closestCluster = 0;
-				for ( int i = 1; i < k; i++ ) {
-					double distance = distance( point.getCenter(), centers[i].getCenter() );
-					if ( distance < minDistance ) {
-						closestCluster = i;
-						minDistance = distance;
-					}
-				}
-
-				clustering.get( closestCluster ).add( point );
-			}
-
-			// Calculate new centers and clear clustering lists
-			SphereCluster[] newCenters = new SphereCluster[centers.length];
-			for ( int i = 0; i < k; i++ ) {
-				newCenters[i] = calculateCenter( clustering.get( i ), dimensions );
-				clustering.get( i ).clear();
-			}
-			centers = newCenters;
-		}
-
-		return new Clustering( centers );
-	}
-
-	private static SphereCluster calculateCenter( ArrayList<Cluster> cluster, int dimensions ) {
-		double[] res = new double[dimensions];
-		for ( int i = 0; i < res.length; i++ ) {
-			res[i] = 0.0;
-		}
-
-		if ( cluster.size() == 0 ) {
-			return new SphereCluster( res, 0.0 );
-		}
-
-		for ( Cluster point : cluster ) {
-			double [] center = point.getCenter();
-			for (int i = 0; i < res.length; i++) {
-				res[i] += center[i];
-			}
-		}
-
-		// Normalize
-		for ( int i = 0; i < res.length; i++ ) {
-			res[i] /= cluster.size();
-		}
-
-		// Calculate radius
-		double radius = 0.0;
-		for ( Cluster point : cluster ) {
-			double dist = distance( res, point.getCenter() );
-			if ( dist > radius ) {
-				radius = dist;
-			}
-		}
-		SphereCluster sc = new SphereCluster( res, radius );
-		sc.setWeight(cluster.size());
-		return sc;
+		return KMeans.kMeans( centers, data, 101 );
 	}
 
 	@Override
@@ -27,16 +27,17 @@
 package moa.clusterers.clustream;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
 
 import moa.cluster.CFCluster;
+import moa.cluster.CenterIndex;
 import moa.cluster.Cluster;
 import moa.cluster.Clustering;
 import moa.cluster.SphereCluster;
 import moa.clusterers.AbstractClusterer;
+import moa.clusterers.KMeans;
 import moa.core.Measurement;
 import com.github.javacliparser.IntOption;
 import com.yahoo.labs.samoa.instances.DenseInstance;
@@ -64,6 +65,7 @@ public class WithKmeans extends AbstractClusterer {
 	private int timeWindow;
 	private long timestamp = -1;
 	private ClustreamKernel[] kernels;
+	private CenterIndex<Integer> kernelIndex; // Centers of the kernels, handle i is kernels[i]
 	private boolean initialized;
 	private List<ClustreamKernel> buffer; // Buffer for initialization with kNN
 	private int bufferSize;
@@ -77,6 +79,7 @@ public class WithKmeans extends AbstractClusterer {
 	@Override
 	public void resetLearningImpl() {
 		this.kernels = new ClustreamKernel[maxNumKernelsOption.getValue()];
+		this.kernelIndex = null;
 		this.timeWindow = timeWindowOption.getValue();
 		this.initialized = false;
 		this.buffer = new LinkedList<ClustreamKernel>();
@@ -98,6 +101,11 @@ public class WithKmeans extends AbstractClusterer {
 				for (int i = 0; i < buffer.size(); i++) {
 					kernels[i] = new ClustreamKernel(new DenseInstance(1.0, buffer.get(i).getCenter()), dim, timestamp, t, m);
 				}
+
+				kernelIndex = new CenterIndex<Integer>(dim);
+				for (int i = 0; i < kernels.length; i++) {
+					kernelIndex.add(i, kernels[i].getCenter(), 0.0, i);
+				}
 	
 				buffer.clear();
 				initialized = true;
@@ -106,16 +114,11 @@ public class WithKmeans extends AbstractClusterer {
 
 
 		// 1. Determine closest kernel
-		ClustreamKernel closestKernel = null;
-		double minDistance = Double.MAX_VALUE;
-		for ( int i = 0; i < kernels.length; i++ ) {
-			//System.out.println(i+" "+kernels[i].getWeight()+" "+kernels[i].getDeviation());
-			double distance = distance(instance.toDoubleArray(), kernels[i].getCenter());
-			if (distance < minDistance) {
-				closestKernel = kernels[i];
-				minDistance = distance;
-			}
-		}
+		final double[] point = instance.toDoubleArray();
+		int closest = kernelIndex.nearest(point, 0.0, Double.MAX_VALUE, -1, -1,
+				i -> distance(point, kernels[i].getCenter()));
+		ClustreamKernel closestKernel = kernels[closest];
+		double minDistance = distance(point, closestKernel.getCenter());
 
 		// 2. Check whether instance fits into closestKernel
 		double radius = 0.0;
@@ -123,14 +126,11 @@ public class WithKmeans extends AbstractClusterer {
 			// Special case: estimate radius by determining the distance to the
 			// next closest cluster
 			radius = Double.MAX_VALUE;
-			double[] center = closestKernel.getCenter();
-			for ( int i = 0; i < kernels.length; i++ ) {
-				if ( kernels[i] == closestKernel ) {
-					continue;
-				}
-
-				double distance = distance(kernels[i].getCenter(), center );
-				radius = Math.min( distance, radius );
+			final double[] center = closestKernel.getCenter();
+			int next = kernelIndex.nearest( center, 0.0, Double.MAX_VALUE, -1, closest,
+					i -> distance( kernels[i].getCenter(), center ) );
+			if ( next != -1 ) {
+				radius = distance( kernels[next].getCenter(), center );
 			}
 		} else {
 			radius = closestKernel.getRadius();
@@ -139,6 +139,7 @@ public class WithKmeans extends AbstractClusterer {
 		if ( minDistance < radius ) {
 			// Date fits, put into kernel and be happy
 			closestKernel.insert( instance, timestamp );
+			kernelIndex.update( closest, closestKernel.getCenter(), 0.0 );
 			return;
 		}
 
@@ -150,6 +151,7 @@ public class WithKmeans extends AbstractClusterer {
 		for ( int i = 0; i < kernels.length; i++ ) {
 			if ( kernels[i].getRelevanceStamp() < threshold ) {
 				kernels[i] = new ClustreamKernel( instance, dim, timestamp, t, m );
+				kernelIndex.update( i, kernels[i].getCenter(), 0.0 );
 				return;
 			}
 		}
@@ -159,20 +161,22 @@ public class WithKmeans extends AbstractClusterer {
 		int closestB = 0;
 		minDistance = Double.MAX_VALUE;
 		for ( int i = 0; i < kernels.length; i++ ) {
-			double[] centerA = kernels[i].getCenter();
-			for ( int j = i + 1; j < kernels.length; j++ ) {
-				double dist = distance( centerA, kernels[j].getCenter() );
-				if ( dist < minDistance ) {
-					minDistance = dist;
-					closestA = i;
-					closestB = j;
-				}
+			// Only a kernel after i closer than the closest pair so far can replace it
+			final double[] centerA = kernels[i].getCenter();
+			int j = kernelIndex.nearest( centerA, 0.0, minDistance, i, -1,
+					b -> distance( centerA, kernels[b].getCenter() ) );
+			if ( j != -1 ) {
+				minDistance = distance( centerA, kernels[j].getCenter() );
+				closestA = i;
+				closestB = j;
 			}
 		}
 		assert (closestA != closestB);
 
 		kernels[closestA].add( kernels[closestB] );
 		kernels[closestB] = new ClustreamKernel( instance, dim, timestamp, t,  m );
+		kernelIndex.update( closestA, kernels[closestA].getCenter(), 0.0 );
+		kernelIndex.update( closestB, kernels[closestB].getCenter(), 0.0 );
 	}
 	
 	@Override
@@ -305,53 +309,8 @@ public class WithKmeans extends AbstractClusterer {
 		assert (centers.length == k);
 		assert (k > 0);
 
-		int dimensions = centers[0].getCenter().length;
-
-		ArrayList<ArrayList<Cluster>> clustering = new ArrayList<ArrayList<Cluster>>();
-		for (int i = 0; i < k; i++) {
-			clustering.add(new ArrayList<Cluster>());
-		}
-
-		while (true) {
-			// Assign points to clusters
-			for (Cluster point : data) {
-				double minDistance = distance(point.getCenter(), centers[0].getCenter());
-				int closestCluster = 0;
-				for (int i = 1; i < k; i++) {
-					double distance = distance(point.getCenter(), centers[i].getCenter());
-					if (distance < minDistance) {
-						closestCluster = i;
-						minDistance = distance;
-					}
-				}
-
-				clustering.get(closestCluster).add(point);
-			}
-
-			// Calculate new centers and clear clustering lists
-			SphereCluster[] newCenters = new SphereCluster[centers.length];
-			for (int i = 0; i < k; i++) {
-				newCenters[i] = calculateCenter(clustering.get(i), dimensions);
-				clustering.get(i).clear();
-			}
-			
-			// Convergence check
-			boolean converged = true;
-			for (int i = 0; i < k; i++) {
-				if (!Arrays.equals(centers[i].getCenter(), newCenters[i].getCenter())) {
-					converged = false;
-					break;
-				}
-			}
-			
-			if (converged) {
-				break;
-			} else {
-				centers = newCenters;
-			}
-		}
-
-		return new Clustering(centers);
+		// iterate until the centers do not change any more
+		return KMeans.kMeans(centers, data, Integer.MAX_VALUE);
 	}
 	
 	/**
@@ -405,49 +364,6 @@ public class WithKmeans extends AbstractClusterer {
 
 	
 
-	/**
-	 * k-means helper: Calculate a wrapping cluster of assigned points[microclusters].
-	 * 
-	 * @param assigned
-	 * @param dimensions
-	 * @return SphereCluster (with center and radius)
-	 */
-	private static SphereCluster calculateCenter(ArrayList<Cluster> assigned, int dimensions) {
-		double[] result = new double[dimensions];
-		for (int i = 0; i < result.length; i++) {
-			result[i] = 0.0;
-		}
-
-		if (assigned.size() == 0) {
-			return new SphereCluster(result, 0.0);
-		}
-
-		for (Cluster point : assigned) {
-			double[] center = point.getCenter();
-			for (int i = 0; i < result.length; i++) {
-				result[i] += center[i];
-			}
-		}
-
-		// Normalize
-		for (int i = 0; i < result.length; i++) {
-			result[i] /= assigned.size();
-		}
-
-		// Calculate radius: biggest wrapping distance from center
-		double radius = 0.0;
-		for (Cluster point : assigned) {
-			double dist = distance(result, point.getCenter());
-			if (dist > radius) {
-				radius = dist;
-			}
-		}
-		SphereCluster sc = new SphereCluster(result, radius);
-		sc.setWeight(assigned.size());
-		return sc;
-	}
-
-	
 	/** Miscellaneous **/
 	
 	@Override
@@ -169,6 +169,20 @@ public class ClusKernel extends CFCluster{
         return this.totalN == 0;
     }
 
+    /**
+     * Makes this cluster represent just the given point, as the constructor
+     * from a point would, so that a kernel can be reused for successive points.
+     * @param point The point, which is copied.
+     */
+    protected void setPoint(double[] point) {
+        this.totalN = 1;
+        this.N = 1;
+        for (int i = 0; i < this.LS.length; i++) {
+            this.LS[i] = point[i];
+            this.SS[i] = Math.pow(point[i], 2);
+        }
+    }
+
     /**
      * Remove all points from this cluster.
      */
@@ -29,6 +29,8 @@ import moa.clusterers.AbstractClusterer;
 import moa.core.Measurement;
 import com.github.javacliparser.IntOption;
 import com.github.javacliparser.FlagOption;
+import com.github.javacliparser.FloatOption;
+import com.github.javacliparser.MultiChoiceOption;
 import com.yahoo.labs.samoa.instances.Instance;
 
 /**
@@ -49,6 +51,24 @@ public class ClusTree extends AbstractClusterer{
 	public FlagOption breadthFirstStrategyOption = new FlagOption(
 			"breadthFirstStrategy", 'B',
 			"Use breadth first strategy");
+
+	public MultiChoiceOption budgetModeOption = new MultiChoiceOption(
+			"budgetMode", 'b',
+			"How the time available to insert a point is determined. Ignored by the breadth first strategy.",
+			new String[]{"Unbounded", "Deadline", "ArrivalRate"},
+			new String[]{"Every insertion descends to a leaf",
+				"Each insertion gets timeBudget nanoseconds",
+				"Each insertion gets a fraction of the observed time between two points, at most timeBudget nanoseconds"},
+			0);
+
+	public IntOption timeBudgetOption = new IntOption("timeBudget",
+			'T', "Time budget in nanoseconds of an insertion in the Deadline mode, and its upper bound in the ArrivalRate mode.",
+			100000, 0, Integer.MAX_VALUE);
+
+	public FloatOption arrivalBudgetFractionOption = new FloatOption(
+			"arrivalBudgetFraction", 'f',
+			"Fraction of the average time between two points given to an insertion in the ArrivalRate mode.",
+			0.8, 0.0, 1.0);
     
     protected int getDefaultHeight() {
     	return 8;
@@ -101,6 +121,28 @@ public class ClusTree extends AbstractClusterer{
     
     //TODO: cleanup
     private Entry alsoUpdate;
+
+    /**
+     * The budget given to every insertion in the Unbounded mode. The tree
+     * reports no operations, so it never runs out.
+     */
+    private SimpleBudget operationBudget;
+    /**
+     * The budget restarted for every insertion in the time-bounded modes.
+     */
+    private ArrivalRateBudget timeBudget;
+    /**
+     * Number of insertions that ran out of time before reaching a leaf.
+     */
+    private long numberParkedInsertions;
+    /**
+     * Kernel reused to hold each new point, whose values are copied by the tree.
+     */
+    private ClusKernel pointKernel;
+    /**
+     * Kernel reused as the hitchhiker buffer carried down by each insertion.
+     */
+    private ClusKernel carriedBuffer;
     
     @Override
     public void resetLearningImpl() {
@@ -114,12 +156,23 @@ public class ClusTree extends AbstractClusterer{
         height = 0;
         numRootSplits = 0;
         numberInsertions = 0;
+        operationBudget = new SimpleBudget(1000);
+        timeBudget = new ArrivalRateBudget();
+        numberParkedInsertions = 0;
+        pointKernel = null;
+        carriedBuffer = null;
     }
 
 
     @Override
     protected Measurement[] getModelMeasurementsImpl() {
-        return null;
+        if (this.budgetModeOption.getChosenIndex() == 0) {
+            return null;
+        }
+        return new Measurement[]{
+            new Measurement("parked insertions", this.numberParkedInsertions),
+            new Measurement("average inter-arrival time (ns)", this.timeBudget.getAverageInterArrival())
+        };
     }
 
     public boolean isRandomizable() {
@@ -143,6 +196,7 @@ public class ClusTree extends AbstractClusterer{
 
     @Override
     public void trainOnInstanceImpl(Instance instance) {
+        Budget budget = nextBudget();
         timestamp++;
         
         //TODO check if instance contains label
@@ -155,8 +209,39 @@ public class ClusTree extends AbstractClusterer{
                 System.out.println("Wrong dimensionality, expected:"+numberDimensions+ "found:"+instance.numAttributes());
         }
 
-        ClusKernel newPointAsKernel = new ClusKernel(instance.toDoubleArray(), numberDimensions);
-        insert(newPointAsKernel, new SimpleBudget(1000),timestamp);
+        if (pointKernel == null) {
+            pointKernel = new ClusKernel(new double[numberDimensions], numberDimensions);
+        }
+        pointKernel.setPoint(instance.toDoubleArray());
+        insert(pointKernel, budget, timestamp);
+    }
+
+    /**
+     * Returns the budget of the insertion of a point that arrives now,
+     * according to the budget mode.
+     * @return The budget, which is only valid until the next call.
+     */
+    protected Budget nextBudget() {
+        int mode = this.budgetModeOption.getChosenIndex();
+        if (mode == 0) {
+            this.operationBudget.reset(1000);
+            return this.operationBudget;
+        }
+        if (mode == 2) {
+            this.timeBudget.restartOnArrival(this.timeBudgetOption.getValue(),
+                    this.arrivalBudgetFractionOption.getValue());
+        } else {
+            this.timeBudget.restart(this.timeBudgetOption.getValue());
+        }
+        return this.timeBudget;
+    }
+
+    /**
+     * @return The number of insertions that ran out of time and left their
+     * point in a hitchhiker buffer before reaching a leaf.
+     */
+    public long getNumberParkedInsertions() {
+        return this.numberParkedInsertions;
     }
 
 
@@ -179,7 +264,11 @@ public class ClusTree extends AbstractClusterer{
         else{
 	    	Entry rootEntry = new Entry(this.numberDimensions,
 	                root, timestamp, null, null);
-	        ClusKernel carriedBuffer = new ClusKernel(this.numberDimensions);
+	        if (this.carriedBuffer == null) {
+	            this.carriedBuffer = new ClusKernel(this.numberDimensions);
+	        } else {
+	            this.carriedBuffer.clear();
+	        }
 	        Entry toInsertHere = insert(newPoint, carriedBuffer, root, rootEntry,
 	                budget, timestamp);
 	
@@ -395,6 +484,9 @@ public class ClusTree extends AbstractClusterer{
 	            assert (currentNode.isLeaf());
 	            currentNode.addEntry(bufferEntry, timestamp);
 	        }
+	        // The buffer has found its place, it must not be inserted again
+	        // if a split propagates upwards.
+	        carriedBuffer.clear();
 	    }
 	
 	    // Normally the insertion of the carries buffer does not change the
@@ -493,6 +585,7 @@ public class ClusTree extends AbstractClusterer{
             }
 
             if (!budget.hasMoreTime()) {
+                this.numberParkedInsertions++;
                 bestEntry.aggregateToBuffer(pointToInsert, timestamp,
                         this.negLambda);
                 if (!isCarriedBufferEmpty) {
@@ -511,9 +604,8 @@ public class ClusTree extends AbstractClusterer{
             }
             // Take the buffer of the best entry for the point to be inserted
             // along.
-            ClusKernel takeAlongBuffer = bestEntry.emptyBuffer(timestamp,
+            bestEntry.emptyBufferInto(carriedBuffer, timestamp,
                     this.negLambda);
-            carriedBuffer.add(takeAlongBuffer);
 
             // Recursive call.
             toInsertHere = insert(pointToInsert, carriedBuffer,
@@ -569,21 +661,24 @@ public class ClusTree extends AbstractClusterer{
      * @see Entry#calcDistance(Entry)
      */
     private BestMergeInNode calculateBestMergeInNode(Node node) {
-        assert (node.numFreeEntries() == 0);
+        assert (node.numFreeEntries() <= 1);
 
         Entry[] entries = node.getEntries();
+        // The empty entries are at the end of the node.
+        int numEntries = entries.length - node.numFreeEntries();
 
         int toMerge1 = -1;
         int toMerge2 = -1;
         double distanceBetweenMergeEntries = Double.NaN;
 
         double minDistance = Double.MAX_VALUE;
-        for (int i = 0; i < entries.length; i++) {
+        for (int i = 0; i < numEntries; i++) {
             Entry e1 = entries[i];
-            for (int j = i + 1; j < entries.length; j++) {
+            for (int j = i + 1; j < numEntries; j++) {
                 Entry e2 = entries[j];
                 double distance = e1.calcDistance(e2);
                 if (distance < minDistance) {
+                    minDistance = distance;
                     toMerge1 = i;
                     toMerge2 = j;
                     distanceBetweenMergeEntries = distance;
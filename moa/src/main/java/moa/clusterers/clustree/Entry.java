@@ -221,8 +221,10 @@ public class Entry implements Serializable {
      */
     protected void initializeEntry(Entry other, long currentTime) {
         assert (this.isEmpty());
-        assert (other.getBuffer().isEmpty());
         this.data.add(other.data);
+        // Points parked in the buffer of the other entry still have to be
+        // taken down by later insertions.
+        this.buffer.add(other.buffer);
         this.timestamp = currentTime;
         this.child = other.child;
         if (child!=null){
@@ -375,6 +377,18 @@ public class Entry implements Serializable {
         return bufferCopy;
     }
 
+    /**
+     * Clear the buffer in this entry after adding it to the given cluster.
+     * Unlike <code>emptyBuffer</code> it does not allocate a copy.
+     * @param target The cluster the buffer is added to.
+     */
+    protected void emptyBufferInto(ClusKernel target, long currentTime,
+            double negLambda) {
+        this.buffer.makeOlder(currentTime - this.timestamp, negLambda);
+        target.add(this.buffer);
+        this.buffer.clear();
+    }
+
     /**
      * Check if this <code>Entry</code> is empty or not. An <code>Entry</code>
      * is empty if the <code>data Kernel</code> is empty, since then the buffer
@@ -305,15 +305,18 @@ public class Node implements Serializable {
      * has to be greater than the the first position.
      */
     protected void mergeEntries(int pos1, int pos2) {
-        assert (this.numFreeEntries() == 0);
         assert (pos1 < pos2);
 
         this.entries[pos1].mergeWith(this.entries[pos2]);
 
+        // Move the merged entry to the end, so that no entry is referenced
+        // twice after the shift.
+        Entry merged = entries[pos2];
         for (int i = pos2; i < entries.length - 1; i++) {
             entries[i] = entries[i + 1];
         }
-        entries[entries.length - 1].clear();
+        entries[entries.length - 1] = merged;
+        merged.clear();
     }
 
     protected void makeOlder(long currentTime, double negLambda) {
@@ -0,0 +1,95 @@
+/*
+ *    ArrivalRateBudget.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ *
+ */
+
+package moa.clusterers.clustree.util;
+
+/**
+ * A <code>TimeBudget</code> that follows the arrival rate of the stream: it
+ * keeps a moving average of the time between two arrivals, and each arrival
+ * gets a fraction of it, at most a given number of nanoseconds. Until the
+ * second arrival, the average is unknown and the full time is given.
+ */
+public class ArrivalRateBudget extends TimeBudget {
+
+    /**
+     * Weight of the newest inter-arrival time in its average.
+     */
+    public static final double INTER_ARRIVAL_ALPHA = 0.05;
+
+    /**
+     * Average time between two arrivals, in nanoseconds, 0 until it is known.
+     */
+    private double averageInterArrival;
+    /**
+     * The moment of the last arrival, as given by System.nanoTime(), 0 before
+     * the first one.
+     */
+    private long lastArrival;
+
+    /**
+     * Forgets the arrivals seen so far.
+     */
+    public void reset() {
+        this.averageInterArrival = 0;
+        this.lastArrival = 0;
+    }
+
+    /**
+     * Records an arrival now and starts the budget it gets.
+     * @param maxNanos The most time an arrival gets, in nanoseconds.
+     * @param fraction The fraction of the average inter-arrival time it gets.
+     * @return The time given, in nanoseconds.
+     */
+    public long restartOnArrival(long maxNanos, double fraction) {
+        return restartOnArrival(System.nanoTime(), maxNanos, fraction);
+    }
+
+    /**
+     * Records an arrival at a given moment and starts the budget it gets from
+     * that moment.
+     * @param now The moment of the arrival, as given by
+     * <code>System.nanoTime()</code>.
+     * @param maxNanos The most time an arrival gets, in nanoseconds.
+     * @param fraction The fraction of the average inter-arrival time it gets.
+     * @return The time given, in nanoseconds.
+     */
+    public long restartOnArrival(long now, long maxNanos, double fraction) {
+        long nanos = maxNanos;
+        if (this.lastArrival != 0) {
+            long interArrival = now - this.lastArrival;
+            if (this.averageInterArrival == 0) {
+                this.averageInterArrival = interArrival;
+            } else {
+                this.averageInterArrival += INTER_ARRIVAL_ALPHA
+                        * (interArrival - this.averageInterArrival);
+            }
+            nanos = Math.min(nanos, (long) (fraction * this.averageInterArrival));
+        }
+        this.lastArrival = now;
+        restart(now, nanos);
+        return nanos;
+    }
+
+    /**
+     * @return The average time between two arrivals in nanoseconds, 0 until
+     * two arrivals were seen.
+     */
+    public double getAverageInterArrival() {
+        return this.averageInterArrival;
+    }
+}
@@ -35,6 +35,16 @@ public class SimpleBudget implements Budget {
         this.time = time;
     }
 
+    /**
+     * Gives the budget a new amount of time, so that it can be reused for
+     * another insertion.
+     * @param time The new amount of time.
+     */
+    public void reset(int time) {
+        assert (time >= 0);
+        this.time = time;
+    }
+
     @Override
     public boolean hasMoreTime() {
         return time > 0;
@@ -0,0 +1,110 @@
+/*
+ *    TimeBudget.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *    
+ *    
+ */
+
+package moa.clusterers.clustree.util;
+
+/**
+ * A <code>Budget</code> measured in wall-clock time: the insertion may go on
+ * until a deadline, for instance the expected arrival of the next point of the
+ * stream. The operations reported by the tree are ignored. The same object can
+ * be reused for successive insertions by restarting it.
+ */
+public class TimeBudget implements Budget {
+
+    private long deadline;
+
+    /**
+     * Creates a budget that has no time left until it is restarted.
+     */
+    public TimeBudget() {
+        this.deadline = System.nanoTime();
+    }
+
+    /**
+     * Starts a new budget from now on.
+     * @param nanos The time available, in nanoseconds.
+     */
+    public void restart(long nanos) {
+        assert (nanos >= 0);
+        this.deadline = System.nanoTime() + nanos;
+    }
+
+    /**
+     * Starts a new budget from a given moment.
+     * @param start The moment the budget starts, as given by
+     * <code>System.nanoTime()</code>.
+     * @param nanos The time available, in nanoseconds.
+     */
+    public void restart(long start, long nanos) {
+        assert (nanos >= 0);
+        this.deadline = start + nanos;
+    }
+
+    @Override
+    public boolean hasMoreTime() {
+        return System.nanoTime() - this.deadline < 0;
+    }
+
+    @Override
+    public void integerAddition() {
+    }
+
+    @Override
+    public void integerAddition(int number) {
+    }
+
+    @Override
+    public void doubleAddition() {
+    }
+
+    @Override
+    public void doubleAddition(int number) {
+    }
+
+    @Override
+    public void integerMultiplication() {
+    }
+
+    @Override
+    public void integerMultiplication(int number) {
+    }
+
+    @Override
+    public void doubleMultiplication() {
+    }
+
+    @Override
+    public void doubleMultiplication(int number) {
+    }
+
+    @Override
+    public void integerDivision() {
+    }
+
+    @Override
+    public void integerDivision(int number) {
+    }
+
+    @Override
+    public void doubleDivision() {
+    }
+
+    @Override
+    public void doubleDivision(int number) {
+    }
+}
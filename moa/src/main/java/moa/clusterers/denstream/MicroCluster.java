@@ -127,6 +127,24 @@ public class MicroCluster extends CFCluster {
         return max;
     }
 
+    /**
+     * Bounds getRadius(timestamp) from above for every timestamp until the
+     * next insertion. The decay cancels out of the radius, which only changes
+     * through rounding errors.
+     */
+    public double getRadiusBound() {
+        double max = 0;
+        for (int i = 0; i < SS.length; i++) {
+            double x1 = SS[i] / N;
+            double x2 = Math.pow(LS[i] / N, 2);
+            double bound = Math.sqrt(Math.max(x1 - x2, 0) + 1e-12 * (x1 + x2));
+            if (bound > max) {
+                max = bound;
+            }
+        }
+        return max;
+    }
+
     @Override
     public MicroCluster copy() {
         MicroCluster copy = new MicroCluster(this.LS.clone(), this.LS.length, this.getCreationTime(), this.lambda, this.currentTimestamp);
@@ -25,7 +25,9 @@
 package moa.clusterers.denstream;
 
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 
+import moa.cluster.CenterIndex;
 import moa.cluster.Cluster;
 import moa.cluster.Clustering;
 import moa.clusterers.AbstractClusterer;
@@ -73,6 +75,11 @@ public class WithDBSCAN extends AbstractClusterer {
 
 	Clustering p_micro_cluster;
 	Clustering o_micro_cluster;
+	// Centers of the p- and o-micro-clusters, ranked in list order
+	CenterIndex<MicroCluster> p_index;
+	CenterIndex<MicroCluster> o_index;
+	IdentityHashMap<MicroCluster, Integer> indexHandles;
+	long nextRank;
 	ArrayList<DenPoint> initBuffer;
 
 	boolean initialized;
@@ -114,6 +121,10 @@ public class WithDBSCAN extends AbstractClusterer {
 		initialized = false;
 		p_micro_cluster = new Clustering();
 		o_micro_cluster = new Clustering();
+		p_index = null;
+		o_index = null;
+		indexHandles = new IdentityHashMap<MicroCluster, Integer>();
+		nextRank = 0;
 		initBuffer = new ArrayList<DenPoint>();
 		
 		tp = Math.round(1 / lambda * Math.log((beta * mu) / (beta * mu - 1))) + 1;
@@ -135,6 +146,7 @@ public class WithDBSCAN extends AbstractClusterer {
 							currentTimestamp);
 					expandCluster(mc, initBuffer, neighbourhood);
 					p_micro_cluster.add(mc);
+					indexAdd(p_index, mc);
 				} else {
 					point.covered = false;
 				}
@@ -159,6 +171,8 @@ public class WithDBSCAN extends AbstractClusterer {
 		if (!initialized) {
 			initBuffer.add(point);
 			if (initBuffer.size() >= initPointsOption.getValue()) {
+				p_index = new CenterIndex<MicroCluster>(point.numAttributes());
+				o_index = new CenterIndex<MicroCluster>(point.numAttributes());
 				initialDBScan();
 				initialized = true;
 			}
@@ -168,16 +182,17 @@ public class WithDBSCAN extends AbstractClusterer {
 			// ////////////
 			boolean merged = false;
 			if (p_micro_cluster.getClustering().size() != 0) {
-				MicroCluster x = nearestCluster(point, p_micro_cluster);
+				MicroCluster x = nearestCluster(point, p_micro_cluster, p_index);
 				MicroCluster xCopy = x.copy();
 				xCopy.insert(point, timestamp);
 				if (xCopy.getRadius(timestamp) <= epsilon) {
 					x.insert(point, timestamp);
+					indexUpdate(p_index, x);
 					merged = true;
 				}
 			}
 			if (!merged && (o_micro_cluster.getClustering().size() != 0)) {
-				MicroCluster x = nearestCluster(point, o_micro_cluster);
+				MicroCluster x = nearestCluster(point, o_micro_cluster, o_index);
 				MicroCluster xCopy = x.copy();
 				xCopy.insert(point, timestamp);
 
@@ -186,15 +201,20 @@ public class WithDBSCAN extends AbstractClusterer {
 					merged = true;
 					if (x.getWeight() > beta * mu) {
 						o_micro_cluster.getClustering().remove(x);
+						indexRemove(o_index, x);
 						p_micro_cluster.getClustering().add(x);
+						indexAdd(p_index, x);
+					} else {
+						indexUpdate(o_index, x);
 					}
 				}
 			}
 			if (!merged) {
-				o_micro_cluster.getClustering().add(
-						new MicroCluster(point.toDoubleArray(), point
-								.toDoubleArray().length, timestamp, lambda,
-								currentTimestamp));
+				MicroCluster mc = new MicroCluster(point.toDoubleArray(), point
+						.toDoubleArray().length, timestamp, lambda,
+						currentTimestamp);
+				o_micro_cluster.getClustering().add(mc);
+				indexAdd(o_index, mc);
 			}
 
 			// //////////////////////////
@@ -209,6 +229,7 @@ public class WithDBSCAN extends AbstractClusterer {
 				}
 				for (Cluster c : removalList) {
 					p_micro_cluster.getClustering().remove(c);
+					indexRemove(p_index, (MicroCluster) c);
 				}
 
 				for (Cluster c : o_micro_cluster.getClustering()) {
@@ -222,7 +243,9 @@ public class WithDBSCAN extends AbstractClusterer {
 					}
 				}
 				for (Cluster c : removalList) {
-					o_micro_cluster.getClustering().remove(c);
+					if (o_micro_cluster.getClustering().remove(c)) {
+						indexRemove(o_index, (MicroCluster) c);
+					}
 				}
 			}
 
@@ -261,23 +284,35 @@ public class WithDBSCAN extends AbstractClusterer {
 		return neighbourIDs;
 	}
 
-	private MicroCluster nearestCluster(DenPoint p, Clustering cl) {
-		MicroCluster min = null;
-		double minDist = 0;
-		for (int c = 0; c < cl.size(); c++) {
-			MicroCluster x = (MicroCluster) cl.get(c);
-			if (min == null) {
-				min = x;
-			}
-			double dist = distance(p.toDoubleArray(), x.getCenter());
+	/**
+	 * Returns the micro-cluster of cl whose border is the closest to p, among
+	 * those that contain p, or the first micro-cluster of cl if none does.
+	 */
+	private MicroCluster nearestCluster(DenPoint p, Clustering cl,
+			CenterIndex<MicroCluster> index) {
+		final double[] point = p.toDoubleArray();
+		int handle = index.nearest(point, 1.0, 0, Long.MIN_VALUE, -1, x -> {
+			double dist = distance(point, x.getCenter());
 			dist -= x.getRadius(timestamp);
-			if (dist < minDist) {
-				minDist = dist;
-				min = x;
-			}
+			return dist;
+		});
+		if (handle == -1) {
+			return (MicroCluster) cl.get(0);
 		}
-		return min;
+		return index.get(handle);
+	}
+
+	private void indexAdd(CenterIndex<MicroCluster> index, MicroCluster mc) {
+		int handle = index.add(mc, mc.getCenter(), mc.getRadiusBound(), nextRank++);
+		indexHandles.put(mc, handle);
+	}
+
+	private void indexUpdate(CenterIndex<MicroCluster> index, MicroCluster mc) {
+		index.update(indexHandles.get(mc), mc.getCenter(), mc.getRadiusBound());
+	}
 
+	private void indexRemove(CenterIndex<MicroCluster> index, MicroCluster mc) {
+		index.remove(indexHandles.remove(mc));
 	}
 
 	private double distance(double[] pointA, double[] pointB) {
@@ -226,6 +226,9 @@ public class CharacteristicVector {
 	 * Implements the update the density of all grids step given at line 2 of 
 	 * both Fig 3 and Fig 4 of Chen and Tu 2007.
 	 * 
+	 * The decay is applied lazily: the stored density stays the one of the last
+	 * update, and only the attribute is evaluated for the current time.
+	 * 
 	 * @param currTime the data stream's current internal time
 	 * @param decayFactor the value of lambda
 	 * @param dl the threshold for sparse grids
@@ -236,18 +239,8 @@ public class CharacteristicVector {
 		// record the last attribute
 		int lastAtt = this.getAttribute();
 
-		// Update the density grid's density
-		double densityOfG = (Math.pow(decayFactor, (currTime-this.getDensityTimeStamp())) * this.getGridDensity());
-
-		this.setGridDensity(densityOfG, currTime);
-
 		// Evaluate whether or not the density grid is now SPARSE, DENSE or TRANSITIONAL
-		if (this.isSparse(dl))
-			this.attribute = SPARSE;
-		else if (this.isDense(dm))
-			this.attribute = DENSE;
-		else
-			this.attribute = TRANSITIONAL;
+		this.attribute = this.getAttribute(currTime, decayFactor, dl, dm);
 
 		// Evaluate whether or not the density grid attribute has changed and set the attChange flag accordingly
 		if (this.getAttribute() == lastAtt)
@@ -256,6 +249,36 @@ public class CharacteristicVector {
 			this.attChange = true;
 	}
 	
+	/**
+	 * @param currTime the time at which to evaluate the density
+	 * @param decayFactor the value of lambda
+	 * @param dl the threshold for sparse grids
+	 * @param dm the threshold for dense grids
+	 * 
+	 * @return the attribute {SPARSE, TRANSITIONAL, DENSE} the grid has at the given time
+	 * if it receives no new record until then
+	 */
+	public int getAttribute(int currTime, double decayFactor, double dl, double dm)
+	{
+		double densityOfG = this.getCurrGridDensity(currTime, decayFactor);
+		
+		if (densityOfG <= dl)
+			return SPARSE;
+		else if (densityOfG >= dm)
+			return DENSE;
+		else
+			return TRANSITIONAL;
+	}
+	
+	/**
+	 * Clears the attChange flag, as an update of the grid density that leaves the
+	 * attribute unchanged would.
+	 */
+	public void clearAttChange()
+	{
+		this.attChange = false;
+	}
+	
 	/**
 	 * Implements the test for whether a density grid is dense given
 	 * in eq 8 of Chen and Tu 2007.
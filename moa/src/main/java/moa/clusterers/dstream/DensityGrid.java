@@ -189,6 +189,21 @@ public class DensityGrid extends CFCluster
 		return neighbours;
 	}
 	
+	/**
+	 * Moves the density grid by delta partitions along one dimension. Meant for copies used
+	 * to look up neighbouring grids without creating them, never for grids stored as keys.
+	 * 
+	 * @param dimension the dimension along which to move
+	 * @param delta the number of partitions to move by
+	 */
+	public void shift(int dimension, int delta)
+	{
+		int cI = this.coordinates[dimension] + delta;
+		this.coordinates[dimension] = cI;
+		LS[dimension] = (double)cI;
+		SS[dimension] = Math.pow((double)cI, 2);
+	}
+	
 	/**
 	 * @return coordinates the coordinates of the density grid
 	 */
@@ -18,11 +18,13 @@
 
 package moa.clusterers.dstream;
 
-import java.io.IOException;
+import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.function.IntPredicate;
 
 import com.github.javacliparser.FloatOption;
 import com.yahoo.labs.samoa.instances.Instance;
@@ -35,6 +37,12 @@ import moa.core.Measurement;
 /** Citation: Y. Chen and L. Tu, “Density-Based Clustering for Real-Time Stream Data,” in
  *  Proceedings of the 13th ACM SIGKDD international conference on Knowledge discovery and
  *  data mining, 2007, pp. 133–142.
+ *  
+ *  Grid densities are decayed lazily, when they are read. Between two adjustments of the
+ *  clustering, the density of a grid that receives no record only decreases and its sporadic
+ *  test (S1 and S2) can only turn from false to true, so each grid is inspected again only 
+ *  when it receives a record or at the first adjustment at which its attribute or sporadic 
+ *  status can have changed, instead of at every adjustment.
  */
 public class Dstream extends AbstractClusterer {
 
@@ -121,7 +129,7 @@ public class Dstream extends AbstractClusterer {
 	 * A list of all density grids which are being monitored;
 	 * given in figure 1 of Chen and Tu 2007
 	 */
-	private HashMap<DensityGrid,CharacteristicVector> grid_list;
+	private GridList grid_list;
 	
 	/**
 	 * A list of all density grids which have been deleted;
@@ -131,6 +139,49 @@ public class Dstream extends AbstractClusterer {
 	private HashMap<DensityGrid,Integer> deleted_grids;
 	
 	
+	/**
+	 * The coordinates of the density grid of the last record, reused for every record.
+	 */
+	private int[] gridCoordinates;
+	
+	/**
+	 * True if every grid must be inspected at the next adjustment, because the thresholds
+	 * or the gap changed; false otherwise.
+	 */
+	private boolean checkAllGrids;
+	
+	/**
+	 * True if every grid is inspected at every adjustment, as before grids were revisited
+	 * lazily. The clustering is the same either way; this is slower and only serves as a
+	 * reference.
+	 */
+	boolean inspectEveryGrid;
+	
+	/**
+	 * The times at which grids must be inspected again.
+	 */
+	private CheckQueue checkQueue;
+	
+	/**
+	 * The grids which received a record since the last adjustment.
+	 */
+	private IdList touchedGrids;
+	
+	/**
+	 * The grids inspected at the current adjustment, in increasing id order.
+	 */
+	private IdList gridsToCheck;
+	
+	/**
+	 * The grids whose attribute changed at the last adjustment, in increasing id order.
+	 */
+	private IdList changedGrids;
+	
+	/**
+	 * The position in changedGrids of the next grid for inspectChangedGrids() to consider.
+	 */
+	private int changedGridsCursor;
+	
 	/**
 	 * A list of all Grid Clusters, which are defined in 
 	 * Definition 3.6 of Chen and Tu 2007
@@ -203,7 +254,14 @@ public class Dstream extends AbstractClusterer {
 		//System.out.println("Option values set...");
 
 		this.initialized = false;
-		this.grid_list = new HashMap<DensityGrid, CharacteristicVector>();
+		this.grid_list = null;
+		this.gridCoordinates = null;
+		this.checkAllGrids = false;
+		this.checkQueue = new CheckQueue();
+		this.touchedGrids = new IdList();
+		this.gridsToCheck = new IdList();
+		this.changedGrids = new IdList();
+		this.changedGridsCursor = 0;
 		this.deleted_grids = new HashMap<DensityGrid, Integer>();
 		this.cluster_list = new ArrayList<GridCluster>();
 		//System.out.println("Data structures initialized...");
@@ -229,6 +287,7 @@ public class Dstream extends AbstractClusterer {
 		
 		//System.out.print("Dstream.trainOnInstanceImpl (");
 		int[]g;
+		int id;
 		DensityGrid dg;
 		CharacteristicVector cv;
 		boolean recalculateN = false;	// flag indicating whether N needs to be recalculated after this instance
@@ -244,6 +303,8 @@ public class Dstream extends AbstractClusterer {
 			//System.out.println("d = "+this.d);
 			this.minVals = new int[this.d];
 			this.maxVals = new int[this.d];
+			this.grid_list = new GridList(this.d);
+			this.gridCoordinates = new int[this.d];
 			//System.out.println("...data initialized");
 			
 			for(int i = 0 ; i < this.d ; i++)
@@ -265,7 +326,7 @@ public class Dstream extends AbstractClusterer {
 
 		// 2. Determine the density grid g that contains x
 		//System.out.print(" & Step 2 ");
-		g = new int[this.d];
+		g = this.gridCoordinates;
 
 		for (int i = 0 ; i < this.d ; i++)
 		{
@@ -317,16 +378,19 @@ public class Dstream extends AbstractClusterer {
 				gap = 1;
 			}
 			//System.out.println(" A is "+optionA+", B is "+optionB+" and gap = "+gap);
+			
+			// The thresholds and the times of the adjustments changed
+			this.checkAllGrids = true;
 		}
 
-		dg = new DensityGrid(g);
-		//System.out.println(dg.toString());
-		
 		// 3. If (g not in grid_list) insert dg to grid_list
 		//System.out.println(" & Step 3 or 4");
+		id = this.grid_list.find(g);
 		
-		if(!this.grid_list.containsKey(dg))
+		if(id == -1)
 		{
+			dg = new DensityGrid(g);
+			//System.out.println(dg.toString());
 			//System.out.print("3 - dg wasn't in grid_list!");
 			if(this.deleted_grids.containsKey(dg))
 			{
@@ -337,7 +401,7 @@ public class Dstream extends AbstractClusterer {
 			else
 				cv = new CharacteristicVector(this.getCurrTime(), -1, 1.0, -1, false, this.getDL(), this.getDM());
 			
-			this.grid_list.put(dg, cv);
+			id = this.grid_list.add(dg, cv);
 			//System.out.print(" "+dg.toString()+" "+cv.toString());
 			//System.out.println(" The size of grid_list is now "+grid_list.size());
 		}
@@ -345,16 +409,13 @@ public class Dstream extends AbstractClusterer {
 		else
 		{
 			//System.out.print("4 - dg was in grid_list!");
-			cv = this.grid_list.get(dg);
+			cv = this.grid_list.vector(id);
 				
 			cv.densityWithNew(this.getCurrTime(), this.getDecayFactor());
 				
 			cv.setUpdateTime(this.getCurrTime());
-		
-			//System.out.println(" "+dg.toString()+" "+cv.toString());
-		
-			grid_list.put(dg, cv);
 		}
+		touch(id);
 
 		// 5. If tc == gap, then initial clustering
 		// and
@@ -407,20 +468,19 @@ public class Dstream extends AbstractClusterer {
 		//printDStreamState();
 		// 1. Update the density of all grids in grid_list
 
+		collectAllGrids();
 		updateGridListDensity();
 		//printGridList();
 				
 		// 2. Assign each dense grid to a distinct cluster
 		// and
 		// 3. Label all other grids as NO_CLASS	
-		Iterator<Map.Entry<DensityGrid, CharacteristicVector>> glIter = this.grid_list.entrySet().iterator();
-		HashMap<DensityGrid, CharacteristicVector> newGL = new HashMap<DensityGrid, CharacteristicVector>();
-		
-		while(glIter.hasNext())
+		for (int id = 0 ; id < this.grid_list.idLimit() ; id++)
 		{
-			Map.Entry<DensityGrid, CharacteristicVector> grid = glIter.next();
-			DensityGrid dg = grid.getKey();
-			CharacteristicVector cvOfG = grid.getValue();
+			DensityGrid dg = this.grid_list.grid(id);
+			if (dg == null)
+				continue;
+			CharacteristicVector cvOfG = this.grid_list.vector(id);
 
 			//System.out.print(dg.toString());
 			if(cvOfG.getAttribute() == DENSE)
@@ -436,10 +496,8 @@ public class Dstream extends AbstractClusterer {
 				cvOfG.setLabel(NO_CLASS);
 
 			//System.out.println();
-			newGL.put(dg, cvOfG);
 		}
 
-		this.grid_list = newGL;
 		//printGridClusters();
 		
 		// 4. Make changes to grid labels by doing:
@@ -495,17 +553,16 @@ public class Dstream extends AbstractClusterer {
 				{
 					//System.out.println(" Density grid dg is outside!");
 					// c. for each neighbouring grid, dgprime, of dg
-					Iterator<DensityGrid> dgNeighbourhood = dg.getNeighbours().iterator();
-					
-					while(dgNeighbourhood.hasNext())
+					for (int n = 0 ; n < 2 * dg.getDimensions() ; n++)
 					{
-						DensityGrid dgprime = dgNeighbourhood.next();
+						int idprime = this.grid_list.findNeighbour(dg, n / 2, (n % 2 == 0) ? -1 : 1);
 						//System.out.print("Inspecting neighbour, dgprime:"+dgprime.toString()+", standby...");
 						
-						if(this.grid_list.containsKey(dgprime))
+						if(idprime != -1)
 						{
+							DensityGrid dgprime = this.grid_list.grid(idprime);
 							CharacteristicVector cv1 = this.grid_list.get(dg);
-							CharacteristicVector cv2 = this.grid_list.get(dgprime);
+							CharacteristicVector cv2 = this.grid_list.vector(idprime);
 							//System.out.print(" 1: "+cv1.toString()+", 2: "+cv2.toString());
 							int class1 = cv1.getLabel();
 							int class2 = cv2.getLabel();
@@ -527,13 +584,12 @@ public class Dstream extends AbstractClusterer {
 
 								}
 								// If dgprime is transitional and outside of c, assign it to c
-								else if (cv2.isTransitional(dm, dl))
+								else if (cv2.getAttribute() == TRANSITIONAL)
 								{
 									//System.out.println("h is transitional and is assigned to cluster "+class1);
 									cv2.setLabel(class1);
 									c.addGrid(dgprime);
 									this.cluster_list.set(class1, c);
-									this.grid_list.put(dg, cv2);
 									return true;
 								}
 							}
@@ -593,13 +649,14 @@ public class Dstream extends AbstractClusterer {
 	private boolean inspectChangedGrids()
 	{
 		HashMap<DensityGrid, CharacteristicVector> glNew = new HashMap<DensityGrid, CharacteristicVector>();
-		Iterator<Map.Entry<DensityGrid, CharacteristicVector>> gridIter = this.grid_list.entrySet().iterator();
 		
-		while (gridIter.hasNext() && glNew.isEmpty())
+		// Only the grids inspected at this adjustment can have a changed attribute, and
+		// those before the cursor have been visited
+		while (this.changedGridsCursor < this.changedGrids.size() && glNew.isEmpty())
 		{
-			Map.Entry<DensityGrid, CharacteristicVector> grid = gridIter.next();
-			DensityGrid dg = grid.getKey();
-			CharacteristicVector cv = grid.getValue();
+			int id = this.changedGrids.get(this.changedGridsCursor++);
+			DensityGrid dg = this.grid_list.grid(id);
+			CharacteristicVector cv = this.grid_list.vector(id);
 			int dgClass = cv.getLabel();
 			
 			if(cv.isAttChanged() && !dg.isVisited())
@@ -620,7 +677,7 @@ public class Dstream extends AbstractClusterer {
 		if (!glNew.isEmpty())
 		{
 			//System.out.println("There are "+glNew.size()+" entries to update from glNew to grid_list.");
-			this.grid_list.putAll(glNew);
+			putAll(glNew);
 			cleanClusters();
 			return true;
 		}
@@ -740,13 +797,12 @@ public class Dstream extends AbstractClusterer {
 				if (!inside)
 				{
 					// c. for each neighbouring grid, dgprime, of dg
-					Iterator<DensityGrid> dgNeighbourhood = dg.getNeighbours().iterator();
-					
-					while(dgNeighbourhood.hasNext())
+					for (int n = 0 ; n < 2 * dg.getDimensions() ; n++)
 					{
-						DensityGrid dgprime = dgNeighbourhood.next();
+						int idprime = this.grid_list.findNeighbour(dg, n / 2, (n % 2 == 0) ? -1 : 1);
+						DensityGrid dgprime = (idprime == -1) ? null : this.grid_list.grid(idprime);
 						
-						if(glNew.containsKey(dgprime))
+						if(dgprime != null && glNew.containsKey(dgprime))
 						{
 							CharacteristicVector cv1 = glNew.get(dg);
 							CharacteristicVector cv2 = glNew.get(dgprime);
@@ -770,7 +826,7 @@ public class Dstream extends AbstractClusterer {
 									return glAdjusted;
 								}
 								// If dgprime is transitional and outside of c, assign it to c
-								else if (cv2.isTransitional(dm, dl))
+								else if (cv2.getAttribute() == TRANSITIONAL)
 								{
 									cv2.setLabel(class1);
 									c1.addGrid(dgprime);
@@ -832,21 +888,20 @@ public class Dstream extends AbstractClusterer {
 
 		// Among all neighbours of dg, find the grid h whose cluster ch has the largest size
 		GridCluster ch;								// The cluster, ch, of h
-		DensityGrid hChosen = new DensityGrid(dg);	// The chosen grid h, whose cluster ch has the largest size
+		DensityGrid hChosen = dg;					// The chosen grid h, whose cluster ch has the largest size
 		double hChosenSize = -1.0;					// The size of ch, the largest cluster
-		DensityGrid dgH;							// The neighbour of g being considered
+		int idH;									// The neighbour of g being considered
 		int hClass = NO_CLASS;						// The class label of h
 		int hChosenClass = NO_CLASS;				// The class label of ch
-		Iterator<DensityGrid> dgNeighbourhood = dg.getNeighbours().iterator();
 		HashMap<DensityGrid, CharacteristicVector> glNew = new HashMap<DensityGrid, CharacteristicVector>();
 		
-		while (dgNeighbourhood.hasNext())
+		for (int n = 0 ; n < 2 * dg.getDimensions() ; n++)
 		{
-			dgH = dgNeighbourhood.next();
+			idH = this.grid_list.findNeighbour(dg, n / 2, (n % 2 == 0) ? -1 : 1);
 		
-			if (this.grid_list.containsKey(dgH))
+			if (idH != -1)
 			{
-				hClass = this.grid_list.get(dgH).getLabel();
+				hClass = this.grid_list.vector(idH).getLabel();
 				if (hClass != NO_CLASS)
 				{
 					ch = this.cluster_list.get(hClass);
@@ -855,7 +910,7 @@ public class Dstream extends AbstractClusterer {
 					{
 						hChosenSize = ch.getWeight();
 						hChosenClass = hClass;
-						hChosen = new DensityGrid(dgH);
+						hChosen = this.grid_list.grid(idH);
 					}
 				}
 			}
@@ -943,15 +998,14 @@ public class Dstream extends AbstractClusterer {
 			
 			// Iterate through the neighbourhood until no more transitional neighbours can be added
 			// (dense neighbours will add themselves as part of their adjust process)
-			dgNeighbourhood = dg.getNeighbours().iterator();
-					
-			while(dgNeighbourhood.hasNext())
+			for (int n = 0 ; n < 2 * dg.getDimensions() ; n++)
 			{
-				DensityGrid dghprime = dgNeighbourhood.next();
+				int idhprime = this.grid_list.findNeighbour(dg, n / 2, (n % 2 == 0) ? -1 : 1);
+				DensityGrid dghprime = (idhprime == -1) ? null : this.grid_list.grid(idhprime);
 						
-				if (this.grid_list.containsKey(dghprime) && !c.getGrids().containsKey(dghprime))
+				if (dghprime != null && !c.getGrids().containsKey(dghprime))
 				{
-					CharacteristicVector cvhprime = this.grid_list.get(dghprime);
+					CharacteristicVector cvhprime = this.grid_list.vector(idhprime);
 					if(cvhprime.getAttribute() == TRANSITIONAL)
 					{
 						//System.out.println("Added "+dghprime.toString()+" to cluster "+newClass+".");
@@ -986,19 +1040,18 @@ public class Dstream extends AbstractClusterer {
 		// and satisfies that dg would be an outside grid if added to it
 		GridCluster ch;								// The cluster, ch, of h
 		double hChosenSize = 0.0;					// The size of ch, the largest cluster
-		DensityGrid dgH;							// The neighbour of dg being considered
+		int idH;									// The neighbour of dg being considered
 		int hClass = NO_CLASS;						// The class label of h
 		int hChosenClass = NO_CLASS;				// The class label of ch
-		Iterator<DensityGrid> dgNeighbourhood = dg.getNeighbours().iterator();
 		HashMap<DensityGrid, CharacteristicVector> glNew = new HashMap<DensityGrid, CharacteristicVector>();
 		
-		while (dgNeighbourhood.hasNext())
+		for (int n = 0 ; n < 2 * dg.getDimensions() ; n++)
 		{
-			dgH = dgNeighbourhood.next();
+			idH = this.grid_list.findNeighbour(dg, n / 2, (n % 2 == 0) ? -1 : 1);
 			
-			if (this.grid_list.containsKey(dgH))
+			if (idH != -1)
 			{
-				hClass = this.grid_list.get(dgH).getLabel();
+				hClass = this.grid_list.vector(idH).getLabel();
 				if (hClass != NO_CLASS)
 				{
 					ch = this.cluster_list.get(hClass);
@@ -1145,6 +1198,9 @@ public class Dstream extends AbstractClusterer {
 	
 	/**
 	 * Implements the procedure described in section 4.2 of Chen and Tu 2007
+	 * 
+	 * Only the grids collected by collectGridsToCheck() are assessed: the sporadic status of 
+	 * the others cannot have changed since they were last inspected.
 	 */
 	private void removeSporadic() {
 		//System.out.println("REMOVE SPORADIC CALLED");
@@ -1156,16 +1212,15 @@ public class Dstream extends AbstractClusterer {
 		//    b. Else
 		//       i. If (S1 && S2), mark as sporadic
 		
-		// For each grid g in grid_list
-		Iterator<Map.Entry<DensityGrid, CharacteristicVector>> glIter = this.grid_list.entrySet().iterator();
-		HashMap<DensityGrid, CharacteristicVector> newGL = new HashMap<DensityGrid, CharacteristicVector>();
-		ArrayList<DensityGrid> remGL = new ArrayList<DensityGrid>();
+		// For each grid g in grid_list that must be inspected
+		collectGridsToCheck();
+		IdList remGL = new IdList();
 				
-		while(glIter.hasNext())
+		for (int i = 0 ; i < this.gridsToCheck.size() ; i++)
 		{
-			Map.Entry<DensityGrid, CharacteristicVector> grid = glIter.next();
-			DensityGrid dg = grid.getKey();
-			CharacteristicVector cv = grid.getValue();
+			int id = this.gridsToCheck.get(i);
+			DensityGrid dg = this.grid_list.grid(id);
+			CharacteristicVector cv = this.grid_list.vector(id);
 			
 			// If g is sporadic
 			if (cv.isSporadic())
@@ -1178,54 +1233,66 @@ public class Dstream extends AbstractClusterer {
 					if (dgClass != -1)
 						this.cluster_list.get(dgClass).removeGrid(dg);
 					
-					remGL.add(dg);
+					remGL.add(id);
 					//System.out.println("Removed "+dg.toString()+" from cluster "+dgClass);
 				}
 				// Else if (S1 && S2), mark as sporadic - Else mark as normal
 				else
 				{
-					cv.setSporadic(checkIfSporadic(cv));
+					cv.setSporadic(checkIfSporadic(cv, this.getCurrTime()));
 					//System.out.println("within gap" + dg.toString() + " sporadicity assessed "+cv.isSporadic());
-					newGL.put(dg, cv);
 				}
 				
 			}
 			// Else if (S1 && S2), mark as sporadic
 			else
 			{
-				cv.setSporadic(checkIfSporadic(cv));
+				cv.setSporadic(checkIfSporadic(cv, this.getCurrTime()));
 				//System.out.println(dg.toString() + " sporadicity assessed "+cv.isSporadic());
-				newGL.put(dg, cv);
 			}
 		}
 		
-		this.grid_list.putAll(newGL);
-		
 		//System.out.println(" - Removed "+remGL.size()+" grids from grid_list.");
-		Iterator<DensityGrid> remIter = remGL.iterator();
-		
-		while(remIter.hasNext())
+		for (int i = 0 ; i < remGL.size() ; i++)
 		{
-			DensityGrid sporadicDG = remIter.next();
+			int id = remGL.get(i);
+			DensityGrid sporadicDG = this.grid_list.grid(id);
 			//System.out.println("Removing sporadic grid "+sporadicDG.toString()+" at time "+this.getCurrTime()+".");
 			this.deleted_grids.put(sporadicDG, new Integer(this.getCurrTime()));
-			this.grid_list.remove(sporadicDG);
+			this.grid_list.remove(id);
 		}
 		
+		// Removed ids are not reused before the next record arrives
+		if (remGL.size() > 0)
+		{
+			int kept = 0;
+			for (int i = 0 ; i < this.gridsToCheck.size() ; i++)
+			{
+				int id = this.gridsToCheck.get(i);
+				if (this.grid_list.grid(id) != null)
+					this.gridsToCheck.set(kept++, id);
+			}
+			this.gridsToCheck.truncate(kept);
+		}
 	}
 
 	/**
 	 * Determines whether a sparse density grid is sporadic using rules S1 and S2 of Chen and Tu 2007
 	 * 
+	 * The threshold of rule S1 is computed from the density time stamp. As densities are 
+	 * decayed lazily, it is the time of the last record of the grid, tg in Definition 4.1,
+	 * whether or not the grid was inspected since.
+	 * 
 	 * @param cv - the CharacteristicVector of the density grid being assessed for sporadicity
+	 * @param t - the time at which the density grid is assessed
 	 */
-	private boolean checkIfSporadic(CharacteristicVector cv)
+	private boolean checkIfSporadic(CharacteristicVector cv, int t)
 	{
 		// Check S1
-		if(cv.getCurrGridDensity(this.getCurrTime(), this.getDecayFactor()) < densityThresholdFunction(cv.getDensityTimeStamp(), this.cl, this.getDecayFactor(), this.N))
+		if(cv.getCurrGridDensity(t, this.getDecayFactor()) < densityThresholdFunction(cv.getDensityTimeStamp(), t, this.cl, this.getDecayFactor(), this.N))
 		{
 			// Check S2
-			if(cv.getRemoveTime() == -1 || this.getCurrTime() >= ((1 + this.beta)*cv.getRemoveTime()))
+			if(cv.getRemoveTime() == -1 || t >= ((1 + this.beta)*cv.getRemoveTime()))
 				return true;
 		}
 		
@@ -1236,13 +1303,14 @@ public class Dstream extends AbstractClusterer {
 	 * Implements the function pi given in Definition 4.1 of Chen and Tu 2007
 	 * 
 	 * @param tg - the update time in the density grid's characteristic vector
+	 * @param t - the current time
 	 * @param cl - user defined parameter which controls the threshold for sparse grids
 	 * @param decayFactor - user defined parameter which is represented as lambda in Chen and Tu 2007
 	 * @param N - the number of density grids, defined after eq 2 in Chen and Tu 2007
 	 */
-	private double densityThresholdFunction(int tg, double cl, double decayFactor, int N)
+	private double densityThresholdFunction(int tg, int t, double cl, double decayFactor, int N)
 	{
-		return (cl * (1.0 - Math.pow(decayFactor, (this.getCurrTime()-tg+1.0))))/(N * (1.0 - decayFactor));
+		return (cl * (1.0 - Math.pow(decayFactor, (t-tg+1.0))))/(N * (1.0 - decayFactor));
 	}
 	
 	/**
@@ -1256,17 +1324,13 @@ public class Dstream extends AbstractClusterer {
 	{		
 		//System.out.println("Merge clusters "+smallClus+" and "+bigClus+".");
 		// Iterate through the density grids in grid_list to find those which are in highClass
-		for (Map.Entry<DensityGrid, CharacteristicVector> grid : grid_list.entrySet())
+		for (int id = 0 ; id < this.grid_list.idLimit() ; id++)
 		{
-			DensityGrid dg = grid.getKey();
-			CharacteristicVector cv = grid.getValue();
+			CharacteristicVector cv = this.grid_list.vector(id);
 
 			// Assign density grids in smallClus to bigClus
-			if(cv.getLabel() == smallClus)
-			{
+			if(cv != null && cv.getLabel() == smallClus)
 				cv.setLabel(bigClus);
-				this.grid_list.put(dg, cv);
-			}
 		}
 		//System.out.println("Density grids assigned to cluster "+bigClus+".");
 		
@@ -1280,22 +1344,211 @@ public class Dstream extends AbstractClusterer {
 	}
 
 	/**
-	 * Iterates through grid_list and updates the density for each density grid therein.
-	 * Also marks each density grid as unvisited for this call to adjustClustering.
+	 * Updates the density of each density grid collected for this adjustment, and marks
+	 * each of them as unvisited for this call to adjustClustering. The density of the other
+	 * grids is decayed lazily and their attribute is unchanged.
 	 */
 	private void updateGridListDensity()
 	{
-		for (Map.Entry<DensityGrid, CharacteristicVector> grid : grid_list.entrySet())
+		// The attribute of the grids changed at the last adjustment is unchanged since
+		for (int i = 0 ; i < this.changedGrids.size() ; i++)
 		{
-			DensityGrid dg = grid.getKey();
-			CharacteristicVector cvOfG = grid.getValue();
+			CharacteristicVector cv = this.grid_list.vector(this.changedGrids.get(i));
+			if (cv != null)
+				cv.clearAttChange();
+		}
+		this.changedGrids.clear();
+		this.changedGridsCursor = 0;
+		
+		for (int i = 0 ; i < this.gridsToCheck.size() ; i++)
+		{
+			int id = this.gridsToCheck.get(i);
+			DensityGrid dg = this.grid_list.grid(id);
+			CharacteristicVector cvOfG = this.grid_list.vector(id);
 
 			dg.setVisited(false);
 			cvOfG.updateGridDensity(this.getCurrTime(), this.getDecayFactor(), this.getDL(), this.getDM());
-
-			this.grid_list.put(dg, cvOfG);
+			
+			if (cvOfG.isAttChanged())
+				this.changedGrids.add(id);
+			
+			scheduleCheck(id);
+		}
+	}
+	
+	/**
+	 * Records that a density grid received a record, so that it is inspected at the next 
+	 * adjustment.
+	 * 
+	 * @param id - the entry id of the density grid in grid_list
+	 */
+	private void touch(int id)
+	{
+		if (!this.grid_list.isTouched(id))
+		{
+			this.grid_list.setTouched(id, true);
+			this.touchedGrids.add(id);
+		}
+	}
+	
+	/**
+	 * Copies the entries of glNew to grid_list. A density grid that was not in grid_list is
+	 * inspected at the next adjustment.
+	 * 
+	 * @param glNew - the density grids and characteristic vectors to copy
+	 */
+	private void putAll(HashMap<DensityGrid, CharacteristicVector> glNew)
+	{
+		for (Map.Entry<DensityGrid, CharacteristicVector> grid : glNew.entrySet())
+		{
+			int id = this.grid_list.find(grid.getKey());
+			
+			if (id == -1)
+				touch(this.grid_list.add(grid.getKey(), grid.getValue()));
+			else
+				this.grid_list.setVector(id, grid.getValue());
 		}
 	}
+	
+	/**
+	 * Collects in gridsToCheck every density grid in grid_list.
+	 */
+	private void collectAllGrids()
+	{
+		this.gridsToCheck.clear();
+		
+		for (int id = 0 ; id < this.grid_list.idLimit() ; id++)
+		{
+			if (this.grid_list.grid(id) != null)
+			{
+				this.grid_list.setTouched(id, false);
+				this.gridsToCheck.add(id);
+			}
+		}
+		
+		this.touchedGrids.clear();
+		this.checkAllGrids = false;
+		
+		// Every grid is rescheduled once inspected
+		this.checkQueue.clear();
+	}
+	
+	/**
+	 * Collects in gridsToCheck, in increasing id order, the density grids which must be 
+	 * inspected at the current adjustment: those which received a record since the last one
+	 * and those whose attribute or sporadic status may have changed by now.
+	 */
+	private void collectGridsToCheck()
+	{
+		if (this.checkAllGrids || this.inspectEveryGrid)
+		{
+			collectAllGrids();
+			return;
+		}
+		
+		this.gridsToCheck.clear();
+		
+		for (int i = 0 ; i < this.touchedGrids.size() ; i++)
+		{
+			int id = this.touchedGrids.get(i);
+			
+			if (this.grid_list.grid(id) != null && this.grid_list.isTouched(id))
+			{
+				this.grid_list.setTouched(id, false);
+				this.gridsToCheck.add(id);
+			}
+		}
+		this.touchedGrids.clear();
+		
+		while (!this.checkQueue.isEmpty() && this.checkQueue.peekTime() <= this.getCurrTime())
+		{
+			int time = this.checkQueue.peekTime();
+			int id = this.checkQueue.poll();
+			
+			// Entries of removed grids or of rescheduled grids are stale
+			if (this.grid_list.grid(id) != null && this.grid_list.getCheckTime(id) == time)
+				this.gridsToCheck.add(id);
+		}
+		
+		this.gridsToCheck.sortUnique();
+	}
+	
+	/**
+	 * Schedules the next inspection of a density grid that has just been inspected: at the 
+	 * first adjustment at which its attribute changes or, if it is sporadic, at the next one,
+	 * or else at the first one at which rules S1 and S2 hold, supposing it receives no record
+	 * meanwhile.
+	 * 
+	 * @param id - the entry id of the density grid in grid_list
+	 */
+	private void scheduleCheck(int id)
+	{
+		final CharacteristicVector cv = this.grid_list.vector(id);
+		final int att = cv.getAttribute();
+		int t = this.getCurrTime();
+		int next = Integer.MAX_VALUE;
+		
+		if (att != SPARSE)
+			next = firstAdjustmentWhere(t, q -> cv.getAttribute(q, this.getDecayFactor(), this.getDL(), this.getDM()) != att);
+		
+		if (cv.isSporadic())
+			next = (int) Math.min(next, (long) t + this.gap);
+		else
+			next = Math.min(next, firstAdjustmentWhere(t, q -> checkIfSporadic(cv, q)));
+		
+		this.grid_list.setCheckTime(id, next);
+		
+		if (next != Integer.MAX_VALUE)
+			this.checkQueue.add(next, id);
+		
+		// Drop the stale entries left by grids rescheduled before their time
+		if (this.checkQueue.size() > 4 * this.grid_list.size() + 64)
+		{
+			this.checkQueue.clear();
+			for (int i = 0 ; i < this.grid_list.idLimit() ; i++)
+			{
+				if (this.grid_list.grid(i) != null && this.grid_list.getCheckTime(i) != Integer.MAX_VALUE)
+					this.checkQueue.add(this.grid_list.getCheckTime(i), i);
+			}
+		}
+	}
+	
+	/**
+	 * Finds the first adjustment after time t at which a condition holds, supposing it 
+	 * keeps holding once it does.
+	 * 
+	 * @param t - the time of the current adjustment
+	 * @param condition - the condition, evaluated for the time of an adjustment
+	 * @return the time of the adjustment, or Integer.MAX_VALUE if it is out of range
+	 */
+	private int firstAdjustmentWhere(int t, IntPredicate condition)
+	{
+		long lo = 0;
+		long hi = 1;
+		
+		// Double the number of gaps until the condition holds, then bisect
+		while (true)
+		{
+			long q = t + hi * this.gap;
+			if (q > Integer.MAX_VALUE)
+				return Integer.MAX_VALUE;
+			if (condition.test((int) q))
+				break;
+			lo = hi;
+			hi *= 2;
+		}
+		
+		while (hi - lo > 1)
+		{
+			long mid = (lo + hi) >>> 1;
+			if (condition.test((int) (t + mid * this.gap)))
+				hi = mid;
+			else
+				lo = mid;
+		}
+		
+		return (int) (t + hi * this.gap);
+	}
 
 	/**
 	 * @return currTime - the stream's internal time
@@ -1379,14 +1632,14 @@ public class Dstream extends AbstractClusterer {
 	public void printGridList()
 	{
 		System.out.println("Grid List. Size "+this.grid_list.size()+".");
-		for (Map.Entry<DensityGrid, CharacteristicVector> grid : grid_list.entrySet())
+		for (int id = 0 ; id < this.grid_list.idLimit() ; id++)
 		{
-			DensityGrid dg = grid.getKey();
-			CharacteristicVector cv = grid.getValue();
+			DensityGrid dg = this.grid_list.grid(id);
+			CharacteristicVector cv = this.grid_list.vector(id);
 			
-			if (cv.getAttribute() != SPARSE)
+			if (dg != null && cv.getAttribute() != SPARSE)
 			{
-				double dtf = densityThresholdFunction(cv.getUpdateTime(), this.cl, this.getDecayFactor(), this.N);
+				double dtf = densityThresholdFunction(cv.getUpdateTime(), this.getCurrTime(), this.cl, this.getDecayFactor(), this.N);
 				System.out.println(dg.toString()+" "+cv.toString()+" // Density Threshold Function = "+dtf);
 			}
 		}
@@ -1414,4 +1667,138 @@ public class Dstream extends AbstractClusterer {
 		this.cl = clOption.getValue();
 		this.beta = betaOption.getValue();
 	}
+	
+	/**
+	 * A growable list of grid entry ids.
+	 */
+	private static class IdList implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+		
+		private int[] ids = new int[16];
+		
+		private int size;
+		
+		public int size()
+		{
+			return this.size;
+		}
+		
+		public int get(int i)
+		{
+			return this.ids[i];
+		}
+		
+		public void set(int i, int id)
+		{
+			this.ids[i] = id;
+		}
+		
+		public void add(int id)
+		{
+			if (this.size == this.ids.length)
+				this.ids = Arrays.copyOf(this.ids, 2 * this.size);
+			this.ids[this.size++] = id;
+		}
+		
+		public void clear()
+		{
+			this.size = 0;
+		}
+		
+		public void truncate(int newSize)
+		{
+			this.size = newSize;
+		}
+		
+		/**
+		 * Sorts the ids in increasing order and removes duplicates.
+		 */
+		public void sortUnique()
+		{
+			Arrays.sort(this.ids, 0, this.size);
+			int kept = 0;
+			for (int i = 0 ; i < this.size ; i++)
+			{
+				if (kept == 0 || this.ids[kept - 1] != this.ids[i])
+					this.ids[kept++] = this.ids[i];
+			}
+			this.size = kept;
+		}
+	}
+	
+	/**
+	 * A binary min-heap of (time, grid entry id) pairs, each packed into a long.
+	 */
+	private static class CheckQueue implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+		
+		private long[] heap = new long[16];
+		
+		private int size;
+		
+		public boolean isEmpty()
+		{
+			return this.size == 0;
+		}
+		
+		public int size()
+		{
+			return this.size;
+		}
+		
+		public void clear()
+		{
+			this.size = 0;
+		}
+		
+		public void add(int time, int id)
+		{
+			if (this.size == this.heap.length)
+				this.heap = Arrays.copyOf(this.heap, 2 * this.size);
+			long entry = ((long) time << 32) | (id & 0xFFFFFFFFL);
+			int i = this.size++;
+			while (i > 0)
+			{
+				int parent = (i - 1) >>> 1;
+				if (this.heap[parent] <= entry)
+					break;
+				this.heap[i] = this.heap[parent];
+				i = parent;
+			}
+			this.heap[i] = entry;
+		}
+		
+		public int peekTime()
+		{
+			return (int) (this.heap[0] >>> 32);
+		}
+		
+		/**
+		 * Removes the entry with the smallest time.
+		 * 
+		 * @return its grid entry id
+		 */
+		public int poll()
+		{
+			int id = (int) this.heap[0];
+			long last = this.heap[--this.size];
+			int i = 0;
+			while (true)
+			{
+				int child = 2 * i + 1;
+				if (child >= this.size)
+					break;
+				if (child + 1 < this.size && this.heap[child + 1] < this.heap[child])
+					child++;
+				if (this.heap[child] >= last)
+					break;
+				this.heap[i] = this.heap[child];
+				i = child;
+			}
+			this.heap[i] = last;
+			return id;
+		}
+	}
 }
@@ -18,6 +18,7 @@
 
 package moa.clusterers.dstream;
 
+import java.util.ArrayDeque;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -77,18 +78,31 @@ public class GridCluster extends NonConvexCluster
 		Boolean inside = isInside(dg);
 		this.grids.put(dg, inside);
 		
-		for(Map.Entry<DensityGrid, Boolean> gridToUpdate : this.grids.entrySet())
+		// Only the outside neighbours of dg can become inside grids
+		DensityGrid dg2U = new DensityGrid(dg);
+		for (int i = 0 ; i < dg.getDimensions() ; i++)
 		{
-			Boolean inside2U = gridToUpdate.getValue();
-			
-			if(!inside2U)
-			{
-				DensityGrid dg2U = gridToUpdate.getKey();
-				this.grids.put(dg2U, this.isInside(dg2U));
-			}
+			dg2U.shift(i, -1);
+			updateOutside(dg2U);
+			dg2U.shift(i, 2);
+			updateOutside(dg2U);
+			dg2U.shift(i, -1);
 		}
 	}
 	
+	/**
+	 * Re-evaluates whether a grid of the cluster labelled as outside is now inside.
+	 * 
+	 * @param dg2U a copy of the density grid; the key stored in the cluster is kept
+	 */
+	private void updateOutside(DensityGrid dg2U)
+	{
+		Boolean inside2U = this.grids.get(dg2U);
+		
+		if(inside2U != null && !inside2U)
+			this.grids.put(dg2U, this.isInside(dg2U));
+	}
+	
 	/**
 	 * @param dg the density grid to remove from the cluster
 	 */
@@ -144,18 +158,7 @@ public class GridCluster extends NonConvexCluster
 	 */
 	public Boolean isInside(DensityGrid dg)
 	{
-		Iterator<DensityGrid> dgNeighbourhood = dg.getNeighbours().iterator();
-		
-		while(dgNeighbourhood.hasNext())
-		{
-			DensityGrid dgprime = dgNeighbourhood.next();
-			if(!this.grids.containsKey(dgprime))
-			{
-				return false;
-			}
-		}
-		
-		return true;
+		return isInside(dg, null);
 	}
 	
 	/**
@@ -170,14 +173,18 @@ public class GridCluster extends NonConvexCluster
 	 */
 	public Boolean isInside(DensityGrid dg, DensityGrid dgH)
 	{
-		Iterator<DensityGrid> dgNeighbourhood = dg.getNeighbours().iterator();
+		// The neighbours are looked up by moving a single copy of dg
+		DensityGrid dgprime = new DensityGrid(dg);
 		
-		while(dgNeighbourhood.hasNext())
+		for (int i = 0 ; i < dg.getDimensions() ; i++)
 		{
-			DensityGrid dgprime = dgNeighbourhood.next();
-			if(!this.grids.containsKey(dgprime) && !dgprime.equals(dgH))
+			for (int delta = -1 ; delta <= 1 ; delta += 2)
 			{
-				return false;
+				dgprime.shift(i, delta);
+				boolean found = this.grids.containsKey(dgprime) || dgprime.equals(dgH);
+				dgprime.shift(i, -delta);
+				if (!found)
+					return false;
 			}
 		}
 		
@@ -229,44 +236,39 @@ public class GridCluster extends NonConvexCluster
 	{
 		this.visited = new HashMap<DensityGrid, Boolean>();
 		Iterator<DensityGrid> initIter = this.grids.keySet().iterator();
-		DensityGrid dg;
 		
 		if (initIter.hasNext())
 		{
-			dg = initIter.next();
+			// The grids of the cluster by themselves, to visit the stored keys rather than copies
+			HashMap<DensityGrid, DensityGrid> keys = new HashMap<DensityGrid, DensityGrid>();
+			for (DensityGrid key : this.grids.keySet())
+				keys.put(key, key);
+			
+			DensityGrid dg = initIter.next();
 			visited.put(dg, this.grids.get(dg));
-			boolean changesMade;
+			ArrayDeque<DensityGrid> toVisit = new ArrayDeque<DensityGrid>();
+			toVisit.add(dg);
 			
-			do{
-				changesMade = false;
-				
-				Iterator<Map.Entry<DensityGrid, Boolean>> visIter = this.visited.entrySet().iterator();
-				HashMap<DensityGrid, Boolean> toAdd = new HashMap<DensityGrid, Boolean>();
+			// Breadth first search over the neighbourhoods
+			while(!toVisit.isEmpty())
+			{
+				DensityGrid dg2VN = new DensityGrid(toVisit.poll());
 				
-				while(visIter.hasNext() && toAdd.isEmpty())
+				for (int i = 0 ; i < dg2VN.getDimensions() ; i++)
 				{
-					Map.Entry<DensityGrid, Boolean> toVisit = visIter.next();
-					DensityGrid dg2V = toVisit.getKey();
-					
-					Iterator<DensityGrid> dg2VNeighbourhood = dg2V.getNeighbours().iterator();
-					
-					while(dg2VNeighbourhood.hasNext())
+					for (int delta = -1 ; delta <= 1 ; delta += 2)
 					{
-						DensityGrid dg2VN = dg2VNeighbourhood.next();
-						
-						if(this.grids.containsKey(dg2VN) && !this.visited.containsKey(dg2VN))
-							toAdd.put(dg2VN, this.grids.get(dg2VN));
+						dg2VN.shift(i, delta);
+						DensityGrid key = keys.get(dg2VN);
+						if(key != null && !this.visited.containsKey(key))
+						{
+							this.visited.put(key, this.grids.get(key));
+							toVisit.add(key);
+						}
+						dg2VN.shift(i, -delta);
 					}
-					
-				}
-				
-				if(!toAdd.isEmpty())
-				{
-					this.visited.putAll(toAdd);
-					changesMade = true;
 				}
-			}while(changesMade);
-			
+			}
 		}		
 		
 		if (this.visited.size() == this.grids.size())
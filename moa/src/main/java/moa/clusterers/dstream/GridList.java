@@ -0,0 +1,412 @@
+/**
+ *    GridList.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package moa.clusterers.dstream;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * The grid_list of D-Stream (figure 1 of Chen and Tu 2007): the density grids being
+ * monitored and their characteristic vectors.
+ *
+ * Grids are looked up by their coordinates in an open-addressing hash table whose keys are
+ * stored as flat int arrays, so that neither the grid of an arriving point nor the
+ * neighbours of a grid need to be allocated to be found. Each grid gets an entry id, stable
+ * until the grid is removed; iterating over the ids in increasing order gives a
+ * deterministic order. Per entry, the list also keeps the bookkeeping D-Stream uses to
+ * revisit only the grids that may have changed between two adjustments of the clustering.
+ */
+public class GridList implements Serializable
+{
+	private static final long serialVersionUID = 1L;
+
+	private static final int NONE = -1;
+
+	/**
+	 * The number of dimensions of the density grids.
+	 */
+	private final int dimensions;
+
+	/**
+	 * Hash table of entry id + 1, 0 marking an empty slot. Its length is a power of two.
+	 */
+	private int[] table;
+
+	/**
+	 * The coordinates of each entry, dimensions ints per entry.
+	 */
+	private int[] coordinates;
+
+	/**
+	 * The hash of the coordinates of each entry.
+	 */
+	private int[] hashes;
+
+	/**
+	 * The density grid of each entry, null for free ids.
+	 */
+	private DensityGrid[] grids;
+
+	/**
+	 * The characteristic vector of each entry.
+	 */
+	private CharacteristicVector[] vectors;
+
+	/**
+	 * The time at which each entry must be inspected again.
+	 */
+	private int[] checkTimes;
+
+	/**
+	 * Whether each entry was updated since it was last inspected.
+	 */
+	private boolean[] touched;
+
+	/**
+	 * Ids freed by removals, reused before new ones.
+	 */
+	private int[] freeIds;
+
+	private int numFreeIds;
+
+	/**
+	 * One more than the largest id in use.
+	 */
+	private int idLimit;
+
+	private int size;
+
+	/**
+	 * @param dimensions the number of dimensions of the density grids
+	 */
+	public GridList(int dimensions)
+	{
+		this.dimensions = dimensions;
+		this.table = new int[64];
+		int capacity = 32;
+		this.coordinates = new int[capacity * dimensions];
+		this.hashes = new int[capacity];
+		this.grids = new DensityGrid[capacity];
+		this.vectors = new CharacteristicVector[capacity];
+		this.checkTimes = new int[capacity];
+		this.touched = new boolean[capacity];
+		this.freeIds = new int[capacity];
+	}
+
+	/**
+	 * @return the number of density grids in the list
+	 */
+	public int size()
+	{
+		return this.size;
+	}
+
+	/**
+	 * @return one more than the largest entry id in use; ids below it whose grid is null are free
+	 */
+	public int idLimit()
+	{
+		return this.idLimit;
+	}
+
+	/**
+	 * Finds the entry of the density grid with the given coordinates.
+	 *
+	 * @param c the coordinates
+	 * @return the entry id, or -1 if the grid is not in the list
+	 */
+	public int find(int[] c)
+	{
+		return findShifted(c, NONE, 0);
+	}
+
+	/**
+	 * @param dg a density grid
+	 * @return the entry id of the grid, or -1 if it is not in the list
+	 */
+	public int find(DensityGrid dg)
+	{
+		return findShifted(dg.getCoordinates(), NONE, 0);
+	}
+
+	/**
+	 * Finds the entry of a neighbour of a density grid, as generated by
+	 * DensityGrid.getNeighbours(), without creating it.
+	 *
+	 * @param dg the density grid
+	 * @param dimension the dimension along which the neighbour lies
+	 * @param delta -1 or +1
+	 * @return the entry id of the neighbour, or -1 if it is not in the list
+	 */
+	public int findNeighbour(DensityGrid dg, int dimension, int delta)
+	{
+		return findShifted(dg.getCoordinates(), dimension, delta);
+	}
+
+	/**
+	 * @param dg a density grid
+	 * @return TRUE if the grid is in the list, FALSE otherwise
+	 */
+	public boolean containsKey(DensityGrid dg)
+	{
+		return find(dg) != NONE;
+	}
+
+	/**
+	 * @param dg a density grid
+	 * @return the characteristic vector of the grid, or null if it is not in the list
+	 */
+	public CharacteristicVector get(DensityGrid dg)
+	{
+		int id = find(dg);
+		return id == NONE ? null : this.vectors[id];
+	}
+
+	/**
+	 * Sets the characteristic vector of a density grid, adding the grid if it is not in the list.
+	 *
+	 * @param dg the density grid
+	 * @param cv its characteristic vector
+	 * @return the entry id of the grid
+	 */
+	public int put(DensityGrid dg, CharacteristicVector cv)
+	{
+		int id = find(dg);
+		if (id == NONE)
+			return add(dg, cv);
+		this.vectors[id] = cv;
+		return id;
+	}
+
+	/**
+	 * Adds a density grid that is not in the list.
+	 *
+	 * @param dg the density grid, which is kept as the key of its entry
+	 * @param cv its characteristic vector
+	 * @return the entry id of the grid
+	 */
+	public int add(DensityGrid dg, CharacteristicVector cv)
+	{
+		int id;
+		if (this.numFreeIds > 0)
+			id = this.freeIds[--this.numFreeIds];
+		else
+		{
+			if (this.idLimit == this.grids.length)
+				growEntries();
+			id = this.idLimit++;
+		}
+		int[] c = dg.getCoordinates();
+		System.arraycopy(c, 0, this.coordinates, id * this.dimensions, this.dimensions);
+		int hash = hash(c, NONE, 0);
+		this.hashes[id] = hash;
+		this.grids[id] = dg;
+		this.vectors[id] = cv;
+		this.checkTimes[id] = 0;
+		this.touched[id] = false;
+		this.size++;
+		if (2 * this.size > this.table.length)
+			rehash(2 * this.table.length);
+		else
+			insert(id, hash);
+		return id;
+	}
+
+	/**
+	 * Removes an entry. Its id may be reused by a later addition.
+	 *
+	 * @param id the entry id
+	 */
+	public void remove(int id)
+	{
+		int mask = this.table.length - 1;
+		int slot = this.hashes[id] & mask;
+		while (this.table[slot] != id + 1)
+			slot = (slot + 1) & mask;
+		// Backward shift deletion keeps probe sequences without tombstones
+		int next = (slot + 1) & mask;
+		while (this.table[next] != 0)
+		{
+			int home = this.hashes[this.table[next] - 1] & mask;
+			if (((next - home) & mask) >= ((next - slot) & mask))
+			{
+				this.table[slot] = this.table[next];
+				slot = next;
+			}
+			next = (next + 1) & mask;
+		}
+		this.table[slot] = 0;
+		this.grids[id] = null;
+		this.vectors[id] = null;
+		this.touched[id] = false;
+		this.size--;
+		if (id == this.idLimit - 1)
+			this.idLimit--;
+		else
+			this.freeIds[this.numFreeIds++] = id;
+	}
+
+	/**
+	 * @param dg a density grid
+	 * @return TRUE if the grid was in the list and has been removed
+	 */
+	public boolean remove(DensityGrid dg)
+	{
+		int id = find(dg);
+		if (id == NONE)
+			return false;
+		remove(id);
+		return true;
+	}
+
+	/**
+	 * @param id an entry id
+	 * @return the density grid of the entry, null if the id is free
+	 */
+	public DensityGrid grid(int id)
+	{
+		return this.grids[id];
+	}
+
+	/**
+	 * @param id an entry id
+	 * @return the characteristic vector of the entry
+	 */
+	public CharacteristicVector vector(int id)
+	{
+		return this.vectors[id];
+	}
+
+	/**
+	 * @param id an entry id
+	 * @param cv the new characteristic vector of the entry
+	 */
+	public void setVector(int id, CharacteristicVector cv)
+	{
+		this.vectors[id] = cv;
+	}
+
+	/**
+	 * @param id an entry id
+	 * @return the time at which the entry must be inspected again
+	 */
+	public int getCheckTime(int id)
+	{
+		return this.checkTimes[id];
+	}
+
+	/**
+	 * @param id an entry id
+	 * @param time the time at which the entry must be inspected again
+	 */
+	public void setCheckTime(int id, int time)
+	{
+		this.checkTimes[id] = time;
+	}
+
+	/**
+	 * @param id an entry id
+	 * @return TRUE if the entry was updated since it was last inspected
+	 */
+	public boolean isTouched(int id)
+	{
+		return this.touched[id];
+	}
+
+	/**
+	 * @param id an entry id
+	 * @param touched whether the entry was updated since it was last inspected
+	 */
+	public void setTouched(int id, boolean touched)
+	{
+		this.touched[id] = touched;
+	}
+
+	private int findShifted(int[] c, int dimension, int delta)
+	{
+		int hash = hash(c, dimension, delta);
+		int mask = this.table.length - 1;
+		int slot = hash & mask;
+		int entry;
+		while ((entry = this.table[slot]) != 0)
+		{
+			int id = entry - 1;
+			if (this.hashes[id] == hash && sameCoordinates(id, c, dimension, delta))
+				return id;
+			slot = (slot + 1) & mask;
+		}
+		return NONE;
+	}
+
+	private boolean sameCoordinates(int id, int[] c, int dimension, int delta)
+	{
+		int offset = id * this.dimensions;
+		for (int i = 0 ; i < this.dimensions ; i++)
+		{
+			int cI = (i == dimension) ? c[i] + delta : c[i];
+			if (this.coordinates[offset + i] != cI)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Hashes coordinates like DensityGrid.hashCode(), then spreads the bits over the table.
+	 */
+	private static int hash(int[] c, int dimension, int delta)
+	{
+		int hc = 1;
+		for (int i = 0 ; i < c.length ; i++)
+		{
+			int cI = (i == dimension) ? c[i] + delta : c[i];
+			hc = (hc * 31) + cI;
+		}
+		hc *= 0x9E3779B1;
+		return hc ^ (hc >>> 16);
+	}
+
+	private void insert(int id, int hash)
+	{
+		int mask = this.table.length - 1;
+		int slot = hash & mask;
+		while (this.table[slot] != 0)
+			slot = (slot + 1) & mask;
+		this.table[slot] = id + 1;
+	}
+
+	private void rehash(int length)
+	{
+		this.table = new int[length];
+		for (int id = 0 ; id < this.idLimit ; id++)
+		{
+			if (this.grids[id] != null)
+				insert(id, this.hashes[id]);
+		}
+	}
+
+	private void growEntries()
+	{
+		int capacity = 2 * this.grids.length;
+		this.coordinates = Arrays.copyOf(this.coordinates, capacity * this.dimensions);
+		this.hashes = Arrays.copyOf(this.hashes, capacity);
+		this.grids = Arrays.copyOf(this.grids, capacity);
+		this.vectors = Arrays.copyOf(this.vectors, capacity);
+		this.checkTimes = Arrays.copyOf(this.checkTimes, capacity);
+		this.touched = Arrays.copyOf(this.touched, capacity);
+		this.freeIds = Arrays.copyOf(this.freeIds, capacity);
+	}
+}
@@ -22,9 +22,9 @@ package moa.clusterers.kmeanspm;
 import java.io.IOException;
 import java.io.Writer;
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Queue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import com.github.javacliparser.IntOption;
 import com.yahoo.labs.samoa.instances.Instance;
@@ -65,6 +65,21 @@ public class BICO extends AbstractClusterer {
 			"Number of random projections used for the nearest neighbour search.",
 			10, 1, Integer.MAX_VALUE);
 
+	public IntOption numberOfJobsOption = new IntOption("numberOfJobs", 'j',
+			"Total number of concurrent jobs used to project the points (-1 = as much as possible, 0 or 1 = do not use multithreading).",
+			1, -1, Integer.MAX_VALUE);
+
+	/**
+	 * Number of points that are projected together before they are inserted
+	 * when several jobs are used.
+	 */
+	protected static final int BATCH_SIZE = 256;
+
+	/**
+	 * Number of points of a batch projected by a single task.
+	 */
+	protected static final int PROJECTION_GRAIN = 16;
+
 	protected int numClusters;
 	protected int numDimensions;
 	protected int maxNumClusterFeatures;
@@ -75,10 +90,13 @@ public class BICO extends AbstractClusterer {
 	private double minDistance;
 	private int pairwiseDifferent;
 
-	private ClusteringTreeNode root;
+	private ClusteringTreeHeadNode root;
 	private int rootCount;
 	private double T;
 
+	private List<double[]> batch;
+	private transient ForkJoinPool pool;
+
 	/*
 	 * (non-Javadoc)
 	 *
@@ -106,6 +124,7 @@ public class BICO extends AbstractClusterer {
 	 */
 	@Override
 	public Clustering getMicroClusteringResult() {
+		flushBatch();
 		return this.root.addToClustering(new Clustering(
 				new AutoExpandVector<Cluster>(this.rootCount)));
 	}
@@ -119,6 +138,7 @@ public class BICO extends AbstractClusterer {
 	 *            If an I/O error occurs
 	 */
 	public void printMicroClusteringResult(Writer stream) throws IOException {
+		flushBatch();
 		this.root.printClusteringCenters(stream);
 	}
 
@@ -128,6 +148,7 @@ public class BICO extends AbstractClusterer {
 	 * @return The size of the micro clustering
 	 */
 	public int getMicroClusteringSize() {
+		flushBatch();
 		return this.rootCount;
 	}
 
@@ -148,6 +169,7 @@ public class BICO extends AbstractClusterer {
 	 */
 	@Override
 	public Clustering getClusteringResult() {
+		flushBatch();
 		List<double[]> microClustering;
 		// If the buffer phase is active then the buffer (without duplicates) is
 		// equal to the micro clustering
@@ -235,6 +257,19 @@ public class BICO extends AbstractClusterer {
 				this.numProjectionsOption.getValue(), Math.min(hashSize, 30),
 				this.clustererRandom);
 		this.rootCount = 0;
+
+		this.batch = new ArrayList<double[]>(BATCH_SIZE);
+		if (this.pool != null) {
+			this.pool.shutdownNow();
+			this.pool = null;
+		}
+		int numberOfJobs = this.numberOfJobsOption.getValue();
+		if (numberOfJobs == -1) {
+			numberOfJobs = Runtime.getRuntime().availableProcessors();
+		}
+		if (numberOfJobs > 1) {
+			this.pool = new ForkJoinPool(numberOfJobs);
+		}
 	}
 
 	/*
@@ -273,16 +308,60 @@ public class BICO extends AbstractClusterer {
 				this.root.setThreshold(calcRSquared(1));
 				this.bufferPhase = false;
 				// Adds all points to the ClusteringFeature tree
-				for (double[] point : this.buffer) {
-					bicoUpdate(point);
+				double[][] positions = project(this.buffer);
+				for (int i = 0; i < positions.length; i++) {
+					bicoUpdate(this.buffer.get(i), positions[i]);
 				}
 				this.buffer.clear();
 				this.buffer = null;
 			}
-		} else {
+		} else if (this.pool == null) {
 			// Adds the point directly to the ClusteringFeature tree
-			bicoUpdate(x);
+			bicoUpdate(x, this.root.project(x));
+		} else {
+			// Adds the points to the ClusteringFeature tree once a batch has
+			// been projected
+			this.batch.add(x);
+			if (this.batch.size() >= BATCH_SIZE) {
+				flushBatch();
+			}
+		}
+	}
+
+	/**
+	 * Inserts the points of the current batch into the ClusteringFeature tree,
+	 * in the order of their arrival. This is done before the tree is read, so
+	 * the batches do not change the result.
+	 */
+	protected void flushBatch() {
+		if (this.batch == null || this.batch.isEmpty()) {
+			return;
+		}
+		double[][] positions = project(this.batch);
+		for (int i = 0; i < positions.length; i++) {
+			bicoUpdate(this.batch.get(i), positions[i]);
+		}
+		this.batch.clear();
+	}
+
+	/**
+	 * Projects points to all random projections of the root, in parallel if
+	 * several jobs are used.
+	 *
+	 * @param points
+	 *            the points
+	 * @return the positions of each point
+	 */
+	protected double[][] project(List<double[]> points) {
+		double[][] positions = new double[points.size()][];
+		ProjectionRange task = new ProjectionRange(this.root, points,
+				positions, 0, positions.length);
+		if (this.pool == null) {
+			task.projectDirectly();
+		} else {
+			this.pool.invoke(task);
 		}
+		return positions;
 	}
 
 	/**
@@ -292,19 +371,39 @@ public class BICO extends AbstractClusterer {
 	 *            the point
 	 */
 	protected void bicoUpdate(double[] x) {
+		bicoUpdate(x, this.root.project(x));
+	}
+
+	/**
+	 * Inserts a new point into the ClusteringFeature tree.
+	 *
+	 * @param x
+	 *            the point
+	 * @param positions
+	 *            the positions of the point on the random projections of the
+	 *            root
+	 */
+	protected void bicoUpdate(double[] x, double[] positions) {
 		assert (!this.bufferPhase && this.numDimensions == x.length);
 		// Starts with the global root node as the current root node
 		ClusteringTreeNode r = this.root;
 		int i = 1;
 		while (true) {
-			ClusteringTreeNode y = r.nearestChild(x);
+			ClusteringTreeNode y = r == this.root ? this.root.nearestChild(x,
+					positions) : r.nearestChild(x);
 			// Checks if the point can not be added to the current level
 			if (r.hasNoChildren()
 					|| y == null
 					|| Metric.distanceSquared(x, y.getCenter()) > calcRSquared(i)) {
 				// Creates a new node for the point and adds it to the current
 				// root node
-				r.addChild(new ClusteringTreeNode(x, new ClusteringFeature(x, calcR(i))));
+				ClusteringTreeNode node = new ClusteringTreeNode(x,
+						new ClusteringFeature(x, calcR(i)));
+				if (r == this.root) {
+					this.root.addChild(node, positions);
+				} else {
+					r.addChild(node);
+				}
 				this.rootCount++;
 				break;
 			} else {
@@ -339,17 +438,25 @@ public class BICO extends AbstractClusterer {
 			// Doubles the global threshold
 			this.T *= 2.0;
 			this.root.setThreshold(calcRSquared(1));
-			// Adds all nodes to the ClusteringFeature tree again
-			Queue<ClusteringTreeNode> Q = new LinkedList<ClusteringTreeNode>();
+			// Adds all nodes to the ClusteringFeature tree again, in breadth
+			// first order
+			List<ClusteringTreeNode> Q = new ArrayList<ClusteringTreeNode>(
+					this.rootCount);
 			Q.addAll(this.root.getChildren());
+			for (int j = 0; j < Q.size(); j++) {
+				Q.addAll(Q.get(j).getChildren());
+			}
+			List<double[]> centers = new ArrayList<double[]>(Q.size());
+			for (ClusteringTreeNode x : Q) {
+				centers.add(x.getCenter());
+			}
+			double[][] positions = project(centers);
 			this.root.clearChildren();
 			this.rootCount = 0;
-			while (!Q.isEmpty()) {
-				ClusteringTreeNode x = Q.element();
-				Q.addAll(x.getChildren());
+			for (int j = 0; j < Q.size(); j++) {
+				ClusteringTreeNode x = Q.get(j);
 				x.clearChildren();
-				bicoCFUpdate(x);
-				Q.remove();
+				bicoCFUpdate(x, positions[j]);
 			}
 		}
 	}
@@ -361,18 +468,36 @@ public class BICO extends AbstractClusterer {
 	 *            the ClusteringTreeNode
 	 */
 	protected void bicoCFUpdate(ClusteringTreeNode x) {
+		bicoCFUpdate(x, this.root.project(x.getCenter()));
+	}
+
+	/**
+	 * Inserts a ClusteringTreeNode into the ClusteringFeature tree.
+	 *
+	 * @param x
+	 *            the ClusteringTreeNode
+	 * @param positions
+	 *            the positions of the center of the node on the random
+	 *            projections of the root
+	 */
+	protected void bicoCFUpdate(ClusteringTreeNode x, double[] positions) {
 		// Starts with the global root node as the current root node
 		ClusteringTreeNode r = this.root;
 		int i = 1;
 		while (true) {
-			ClusteringTreeNode y = r.nearestChild(x.getCenter());
+			ClusteringTreeNode y = r == this.root ? this.root.nearestChild(
+					x.getCenter(), positions) : r.nearestChild(x.getCenter());
 			// Checks if the node can not be merged to the current level
 			if (r.hasNoChildren()
 					|| y == null
 					|| Metric.distanceSquared(x.getCenter(), y.getCenter()) > calcRSquared(i)) {
 				// Adds the node to the current root node
 				x.setThreshold(calcR(i));
-				r.addChild(x);
+				if (r == this.root) {
+					this.root.addChild(x, positions);
+				} else {
+					r.addChild(x);
+				}
 				this.rootCount++;
 				break;
 			} else {
@@ -417,6 +542,51 @@ public class BICO extends AbstractClusterer {
 		return Math.sqrt(calcRSquared(level));
 	}
 
+	/**
+	 * Fork-join task projecting a range of points to the random projections of
+	 * the root.
+	 */
+	protected static class ProjectionRange extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final ClusteringTreeHeadNode root;
+		private final List<double[]> points;
+		private final double[][] positions;
+		private final int from;
+		private final int to;
+
+		public ProjectionRange(ClusteringTreeHeadNode root,
+				List<double[]> points, double[][] positions, int from, int to) {
+			this.root = root;
+			this.points = points;
+			this.positions = positions;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (this.to - this.from > PROJECTION_GRAIN) {
+				int mid = (this.from + this.to) >>> 1;
+				invokeAll(new ProjectionRange(this.root, this.points,
+						this.positions, this.from, mid), new ProjectionRange(
+						this.root, this.points, this.positions, mid, this.to));
+			} else {
+				projectDirectly();
+			}
+		}
+
+		/**
+		 * Projects the points of the range on the calling thread.
+		 */
+		public void projectDirectly() {
+			for (int i = this.from; i < this.to; i++) {
+				this.positions[i] = this.root.project(this.points.get(i));
+			}
+		}
+	}
+
 	/*
 	 * (non-Javadoc)
 	 *
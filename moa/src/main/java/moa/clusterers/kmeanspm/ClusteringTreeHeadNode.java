@@ -95,27 +95,30 @@ public class ClusteringTreeHeadNode extends ClusteringTreeNode {
 	 * @param pointA
 	 *            the point to project
 	 * @param i
-	 *            the index of the projection
+	 *            the projection
 	 * @return the position of the point
 	 */
-	private double project(double[] pointA, int i) {
-		assert (this.projections.size() < i &&
-				this.projections.get(i).length == pointA.length);
-		return Metric.dotProduct(pointA, this.projections.get(i));
+	private double project(double[] pointA, double[] i) {
+		assert (i.length == pointA.length);
+		return Metric.dotProduct(pointA, i);
 	}
 
 	/**
-	 * Projects a point to a random projection.
+	 * Projects a point to all random projections. The positions do not depend
+	 * on the state of the tree, so they can be calculated for several points
+	 * at the same time before the points are inserted one after the other.
 	 *
 	 * @param pointA
 	 *            the point to project
-	 * @param i
-	 *            the projection
-	 * @return the position of the point
+	 * @return the positions of the point, one for each projection
 	 */
-	private double project(double[] pointA, double[] i) {
-		assert (i.length == pointA.length);
-		return Metric.dotProduct(pointA, i);
+	public double[] project(double[] pointA) {
+		double[] positions = new double[this.projections.size()];
+		Iterator<double[]> iIterProjections = this.projections.iterator();
+		for (int i = 0; i < positions.length; i++) {
+			positions[i] = project(pointA, iIterProjections.next());
+		}
+		return positions;
 	}
 
 	/**
@@ -136,17 +139,31 @@ public class ClusteringTreeHeadNode extends ClusteringTreeNode {
 	 */
 	@Override
 	public ClusteringTreeNode nearestChild(double[] pointA) {
+		return nearestChild(pointA, project(pointA));
+	}
+
+	/**
+	 * Searches for the nearest child node of a point whose positions on the
+	 * random projections are already known.
+	 *
+	 * @param pointA
+	 *            to find the nearest child for
+	 * @param positions
+	 *            the positions of the point as calculated by
+	 *            {@link #project(double[])}
+	 * @return the child node which is the nearest
+	 */
+	public ClusteringTreeNode nearestChild(double[] pointA, double[] positions) {
 		assert (this.projections.size() > 0 &&
-				this.projections.get(0).length == pointA.length);
+				this.projections.get(0).length == pointA.length &&
+				positions.length == this.projections.size());
 		int minBucketProjection = -1;
 		int minSize = Integer.MAX_VALUE;
-		Iterator<double[]> iIterProjections = this.projections.iterator();
 		Iterator<CuckooHashing<List<ClusteringTreeNode>>> iIterBuckets = this.buckets
 				.iterator();
 		int size = this.projections.size();
 		for (int i = 0; i < size; i++) {
-			long bucketNumber = calcBucketNumber(project(pointA,
-					iIterProjections.next()));
+			long bucketNumber = calcBucketNumber(positions[i]);
 			List<ClusteringTreeNode> currentBucket = iIterBuckets.next().get(
 					bucketNumber);
 			int bucketSize;
@@ -160,8 +177,7 @@ public class ClusteringTreeHeadNode extends ClusteringTreeNode {
 			return null;
 		}
 
-		long bucketNumber = calcBucketNumber(project(pointA,
-				minBucketProjection));
+		long bucketNumber = calcBucketNumber(positions[minBucketProjection]);
 		double minDistance = Double.POSITIVE_INFINITY;
 		ClusteringTreeNode min = null;
 		// for (int i = -1; i <= 1; i++) {
@@ -188,16 +204,29 @@ public class ClusteringTreeHeadNode extends ClusteringTreeNode {
 	 */
 	@Override
 	public boolean addChild(ClusteringTreeNode e) {
+		return addChild(e, project(e.getCenter()));
+	}
+
+	/**
+	 * Adds a child node whose positions on the random projections are already
+	 * known.
+	 *
+	 * @param e
+	 *            the child node to add
+	 * @param positions
+	 *            the positions of the center of the node as calculated by
+	 *            {@link #project(double[])}
+	 * @return <code>true</code>
+	 */
+	public boolean addChild(ClusteringTreeNode e, double[] positions) {
 		assert (this.projections.get(0).length == e.getClusteringFeature()
-				.getCenter().length);
+				.getCenter().length && positions.length == this.projections.size());
 		super.addChild(e);
-		Iterator<double[]> iIterProjections = this.projections.iterator();
 		Iterator<CuckooHashing<List<ClusteringTreeNode>>> iIterBuckets = this.buckets
 				.iterator();
 		int size = this.projections.size();
 		for (int i = 0; i < size; i++) {
-			long bucketNumber = calcBucketNumber(project(e.getCenter(),
-					iIterProjections.next()));
+			long bucketNumber = calcBucketNumber(positions[i]);
 			CuckooHashing<List<ClusteringTreeNode>> currentBuckets = iIterBuckets
 					.next();
 			List<ClusteringTreeNode> bucket = currentBuckets.get(bucketNumber);
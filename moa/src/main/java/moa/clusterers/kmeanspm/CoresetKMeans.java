@@ -20,10 +20,13 @@
 package moa.clusterers.kmeanspm;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
 
+import moa.clusterers.KMeans;
+
 /**
  * Provides methods to execute the k-means and k-means++ algorithm with a
  * clustering.
@@ -53,44 +56,15 @@ public class CoresetKMeans {
 		int d = input.get(0).length - 1;
 		assert (k <= n);
 
-		List<double[]> centerValue = new ArrayList<double[]>(k);
-		// Selects and copies the first centroid
-		double[] lastCenter = new double[d];
-		System.arraycopy(input.get(random.nextInt(n)), 1, lastCenter, 0, d);
-		centerValue.add(lastCenter);
-
-		double[] distance = new double[n];
-		for (int j = 0; j < n; j++) {
-			distance[j] = Double.POSITIVE_INFINITY;
-		}
-		for (int i = 1; i < k; i++) {
-			// Selects the next centroid
-			double sum = 0.0;
-			Iterator<double[]> jIter = input.iterator();
-			for (int j = 0; j < n; j++) {
-				double[] point = jIter.next();
-				distance[j] = Math
-						.min(distance[j],
-								point[0]
-										* Metric.distanceSquared(lastCenter,
-												point, 1));
-				sum += distance[j];
+		double[] points = new double[n * d];
+		double[] weights = new double[n];
+		flatten(input, d, points, weights);
+		double[] centers = KMeans.kMeansPlusPlus(k, points, weights, d, random);
 
-			}
-			int candidate = 0;
-			if (sum > 0) {
-				double nextCenterValue = sum * random.nextDouble();
-				double currentValue = distance[0];
-				while (!(nextCenterValue < currentValue)) {
-					currentValue += distance[++candidate];
-				}
-			}
-			// Copies the selected centroid
-			lastCenter = new double[d];
-			System.arraycopy(input.get(candidate), 1, lastCenter, 0, d);
-			centerValue.add(lastCenter);
+		List<double[]> centerValue = new ArrayList<double[]>(k);
+		for (int i = 0; i < k; i++) {
+			centerValue.add(Arrays.copyOfRange(centers, i * d, (i + 1) * d));
 		}
-
 		return centerValue;
 	}
 
@@ -110,64 +84,25 @@ public class CoresetKMeans {
 		int d = centroids.get(0).length;
 		int size = input.size();
 
-		double[][] center = new double[k][];
+		double[] points = new double[size * d];
+		double[] weights = new double[size];
+		flatten(input, d, points, weights);
+		double[] centers = new double[k * d];
 		Iterator<double[]> iIter = centroids.iterator();
 		for (int i = 0; i < k; i++) {
-			center[i] = iIter.next();
+			System.arraycopy(iIter.next(), 0, centers, i * d, d);
 		}
 
-		double[][] newCenter = new double[k][d];
-		double[] newCenterWeight = new double[k];
+		// Centroids without weight keep their position
 		int[] nearestCluster = new int[size];
-		boolean converged;
-		do {
-			for (int i = 0; i < k; i++) {
-				for (int j = 0; j < d; j++) {
-					newCenter[i][j] = 0.0;
-				}
-				newCenterWeight[i] = 0.0;
-			}
-			Iterator<double[]> lIter = input.iterator();
-			for (int l = 0; l < size; l++) {
-				// Calculates the distance from all points to all centroids
-				double[] point = lIter.next();
-				assert (d == point.length - 1);
-				double minDistance = Double.POSITIVE_INFINITY;
-				int closestCluster = -1;
-				for (int i = 0; i < k; i++) {
-					double distance = Metric.distance(center[i], point, 1);
-					if (distance < minDistance) {
-						closestCluster = i;
-						minDistance = distance;
-					}
-				}
-
-				// Sums up all points for the new centroids
-				assert (closestCluster >= 0 && closestCluster < k);
-				for (int j = 0; j < d; j++) {
-					newCenter[closestCluster][j] += point[0] * point[j + 1];
-				}
-				newCenterWeight[closestCluster] += point[0];
-				nearestCluster[l] = closestCluster;
-			}
+		KMeans.lloyd(points, weights, d, centers, Integer.MAX_VALUE, true,
+				nearestCluster);
 
-			// Calculates the new centroids
-			converged = true;
-			for (int i = 0; i < k; i++) {
-				for (int j = 0; j < d; j++) {
-					if (newCenterWeight[i] != 0.0) {
-						double newValue = newCenter[i][j] / newCenterWeight[i];
-						if (newValue != center[i][j]) {
-							converged = false;
-						}
-						center[i][j] = newValue;
-					}
-				}
-			}
-		} while (!converged);
 		// Replaces the old centroids with the new ones
 		for (int i = 0; i < k; i++) {
-			centroids.set(i, center[i]);
+			double[] center = centroids.get(i);
+			System.arraycopy(centers, i * d, center, 0, d);
+			centroids.set(i, center);
 		}
 
 		// Calculates the costs of the solution
@@ -176,10 +111,24 @@ public class CoresetKMeans {
 		for (int l = 0; l < size; l++) {
 			double[] point = lIter.next();
 			costs += point[0]
-					* Metric.distanceSquared(center[nearestCluster[l]], point,
-							1);
+					* Metric.distanceSquared(centroids.get(nearestCluster[l]),
+							point, 1);
 		}
 		return costs;
 	}
 
+	/**
+	 * Copies points with their weight in the first element into flat arrays.
+	 */
+	private static void flatten(List<double[]> input, int d, double[] points,
+			double[] weights) {
+		Iterator<double[]> lIter = input.iterator();
+		for (int l = 0; l < weights.length; l++) {
+			double[] point = lIter.next();
+			assert (d == point.length - 1);
+			weights[l] = point[0];
+			System.arraycopy(point, 1, points, l * d, d);
+		}
+	}
+
 }
@@ -24,8 +24,11 @@
 package moa.clusterers.macro.dbscan;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Vector;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 import moa.cluster.CFCluster;
 import moa.cluster.Cluster;
@@ -35,6 +38,12 @@ import moa.clusterers.macro.NonConvexCluster;
 
 public class DBScan extends AbstractMacroClusterer {
 
+	/**
+	 * number of micro-clusters from which the core micro-clusters are
+	 * detected in parallel
+	 */
+	private static final int PARALLEL_MIN_MICROCLUSTERS = 1024;
+
 	Clustering datasource;
 	private double mEps;
 	private int mMinPts;
@@ -45,30 +54,49 @@ public class DBScan extends AbstractMacroClusterer {
 		mMinPts = MinPts;
 	}
 
-	private ArrayList<DenseMicroCluster> expandCluster(DenseMicroCluster dmc,
-			List<DenseMicroCluster> neighbours,
-			ArrayList<DenseMicroCluster> arrayList,
-			Vector<DenseMicroCluster> dbmc) {
+	/**
+	 * Collects the micro-clusters density-reachable from a core micro-cluster.
+	 * Only core micro-clusters are added besides the seed itself.
+	 */
+	private ArrayList<DenseMicroCluster> expandCluster(int seed,
+			int[] neighbours, ArrayList<DenseMicroCluster> arrayList,
+			List<DenseMicroCluster> dbmc, boolean[] core, RegionQueryIndex index) {
 
+		DenseMicroCluster dmc = dbmc.get(seed);
 		if (!dmc.isClustered()) {
 			dmc.setClustered();
 			arrayList.add(dmc);
 		}
-		while (!neighbours.isEmpty()) {
-			DenseMicroCluster mc = neighbours.get(0);
-			neighbours.remove(0);
+		// breadth first, visited micro-clusters are not queued as they would be
+		// skipped anyway
+		int[] queue = new int[Math.max(16, neighbours.length)];
+		int head = 0;
+		int tail = 0;
+		for (int n : neighbours) {
+			if (!dbmc.get(n).isVisited()) {
+				queue[tail++] = n;
+			}
+		}
+		while (head < tail) {
+			int m = queue[head++];
+			DenseMicroCluster mc = dbmc.get(m);
 			if (!mc.isVisited()) {
 				mc.setVisited();
-				List<DenseMicroCluster> neighbours2 = getNeighbourhood(mc, dbmc);
-				if (neighbours2.size() >= mMinPts) {
-					while (!neighbours2.isEmpty()) {
-						DenseMicroCluster temp = neighbours2.get(0);
-						neighbours2.remove(0);
-						if (!temp.isVisited()) {
-							neighbours.add(temp);
+				if (core[m]) {
+					for (int n : index.getNeighbours(m)) {
+						if (!dbmc.get(n).isVisited()) {
+							if (tail == queue.length) {
+								// drop the processed head before growing
+								System.arraycopy(queue, head, queue, 0, tail - head);
+								tail -= head;
+								head = 0;
+								if (tail == queue.length) {
+									queue = Arrays.copyOf(queue, 2 * queue.length);
+								}
+							}
+							queue[tail++] = n;
 						}
 					}
-					neighbours.addAll(neighbours2);
 					if (!mc.isClustered()) {
 						mc.setClustered();
 						arrayList.add(mc);
@@ -79,36 +107,29 @@ public class DBScan extends AbstractMacroClusterer {
 		return arrayList;
 	}
 
-	private List<DenseMicroCluster> getNeighbourhood(DenseMicroCluster mc,
-			Vector<DenseMicroCluster> dbmc) {
-		List<DenseMicroCluster> res = new Vector<DenseMicroCluster>();
-		for (DenseMicroCluster dmc : dbmc) {
-			if (distance(dmc.getCFCluster().getCenter(), mc.getCFCluster().getCenter()) < mEps) {
-				res.add(dmc);
-			}
-		}
-		return res;
-	}
-
 	/**
-	 * eclidean distance
-	 * 
-	 * @param center
-	 * @param center2
-	 * @return
+	 * Marks the micro-clusters with at least MinPts centres, their own
+	 * included, closer than eps to their centre. The counts stop at MinPts
+	 * and are independent of each other, so larger inputs are counted in
+	 * parallel.
 	 */
-	private double distance(double[] center, double[] center2) {
-		double d = 0D;
-		for (int i = 0; i < center.length; i++) {
-			d += Math.pow((center[i] - center2[i]), 2);
+	private boolean[] findCorePoints(int numMicroClusters, RegionQueryIndex index) {
+		boolean[] core = new boolean[numMicroClusters];
+		IntConsumer detect = i -> core[i] = index.countNeighbours(i, mMinPts) >= mMinPts;
+		if (numMicroClusters >= PARALLEL_MIN_MICROCLUSTERS) {
+			IntStream.range(0, numMicroClusters).parallel().forEach(detect);
+		} else {
+			for (int i = 0; i < numMicroClusters; i++) {
+				detect.accept(i);
+			}
 		}
-		return Math.sqrt(d);
+		return core;
 	}
 
 	@Override
 	public Clustering getClustering(Clustering microClusters) {
 		if (microClusters != null && microClusters.size() != 0) {
-			Vector<DenseMicroCluster> dbmc = new Vector<DenseMicroCluster>();
+			List<DenseMicroCluster> dbmc = new ArrayList<DenseMicroCluster>();
 			for (Cluster c : microClusters.getClustering()) {
 				CFCluster cf = null;
 				if (c instanceof CFCluster) {
@@ -118,17 +139,28 @@ public class DBScan extends AbstractMacroClusterer {
 					throw new RuntimeException();
 			}
 
+			// the centres are computed once, the region queries run on an
+			// index over them instead of comparing all pairs
+			int numDims = dbmc.get(0).getCFCluster().getCenter().length;
+			double[] centers = new double[dbmc.size() * numDims];
+			for (int i = 0; i < dbmc.size(); i++) {
+				System.arraycopy(dbmc.get(i).getCFCluster().getCenter(), 0,
+						centers, i * numDims, numDims);
+			}
+			RegionQueryIndex index = new RegionQueryIndex(centers, numDims, mEps);
+			boolean[] core = findCorePoints(dbmc.size(), index);
+
 			ArrayList<ArrayList<DenseMicroCluster>> clusters = new ArrayList<ArrayList<DenseMicroCluster>>();
 
-			for (DenseMicroCluster dmc : dbmc) {
+			for (int i = 0; i < dbmc.size(); i++) {
+				DenseMicroCluster dmc = dbmc.get(i);
 				if (!dmc.isVisited()) {
 					dmc.setVisited();
-					List<DenseMicroCluster> neighbours = getNeighbourhood(dmc,
-							dbmc);
-					if (neighbours.size() >= mMinPts) {
+					if (core[i]) {
 						ArrayList<DenseMicroCluster> cluster = expandCluster(
-								dmc, neighbours,
-								new ArrayList<DenseMicroCluster>(), dbmc);
+								i, index.getNeighbours(i),
+								new ArrayList<DenseMicroCluster>(), dbmc, core,
+								index);
 						clusters.add(cluster);
 					}
 				}
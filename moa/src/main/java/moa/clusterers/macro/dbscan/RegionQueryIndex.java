@@ -0,0 +1,235 @@
+/**
+ * [RegionQueryIndex.java] for Subspace MOA
+ * 
+ * A k-d tree over micro-cluster centres answering DBSCAN region queries.
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *    
+ *    
+ */
+
+package moa.clusterers.macro.dbscan;
+
+import java.util.Arrays;
+
+/**
+ * Answers the eps-neighbourhood queries of {@link DBScan} with a k-d tree
+ * over the flattened micro-cluster centres. The tree is built once per
+ * macro-clustering and is not modified afterwards, so it can be queried from
+ * several threads. The results are exactly those of comparing the query
+ * against every centre.
+ */
+final class RegionQueryIndex {
+
+	/** ranges up to this size are scanned */
+	private static final int LEAF_SIZE = 8;
+
+	private final double[] centers;
+	private final int numDims;
+	private final double eps;
+
+	/** centre IDs, each range is split at its middle element */
+	private final int[] ids;
+
+	/** splitting dimension of the range whose middle element is at this position */
+	private final int[] splitDims;
+
+	/**
+	 * @param centers the centres, numDims consecutive values each
+	 * @param numDims dimensionality of the centres
+	 * @param eps radius of the neighbourhoods
+	 */
+	RegionQueryIndex(double[] centers, int numDims, double eps) {
+		this.centers = centers;
+		this.numDims = numDims;
+		this.eps = eps;
+		int numCenters = numDims == 0 ? 0 : centers.length / numDims;
+		// a centre with a NaN or infinite coordinate is no neighbour of any
+		// centre, not even of itself, so it is left out of the tree
+		int[] finite = new int[numCenters];
+		int numFinite = 0;
+		for (int i = 0; i < numCenters; i++) {
+			if (isFinite(i)) {
+				finite[numFinite++] = i;
+			}
+		}
+		this.ids = Arrays.copyOf(finite, numFinite);
+		this.splitDims = new int[numFinite];
+		build(0, numFinite);
+	}
+
+	private boolean isFinite(int id) {
+		for (int i = id * numDims; i < (id + 1) * numDims; i++) {
+			if (Double.isNaN(centers[i]) || Double.isInfinite(centers[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void build(int lo, int hi) {
+		if (hi - lo <= LEAF_SIZE)
+			return;
+		// split along the dimension with the largest spread
+		int dim = 0;
+		double maxSpread = -1;
+		for (int d = 0; d < numDims; d++) {
+			double min = Double.POSITIVE_INFINITY;
+			double max = Double.NEGATIVE_INFINITY;
+			for (int i = lo; i < hi; i++) {
+				double v = centers[ids[i] * numDims + d];
+				if (v < min) min = v;
+				if (v > max) max = v;
+			}
+			if (max - min > maxSpread) {
+				maxSpread = max - min;
+				dim = d;
+			}
+		}
+		int mid = (lo + hi) >>> 1;
+		select(lo, hi - 1, mid, dim);
+		splitDims[mid] = dim;
+		build(lo, mid);
+		build(mid + 1, hi);
+	}
+
+	/**
+	 * Moves the element of rank k within lo..hi (inclusive) to k, smaller or
+	 * equal values before and larger or equal values after it
+	 */
+	private void select(int lo, int hi, int k, int dim) {
+		while (hi > lo) {
+			double pivot = centers[ids[(lo + hi) >>> 1] * numDims + dim];
+			// three way partition, so duplicate values do not degrade it
+			int lt = lo, i = lo, gt = hi;
+			while (i <= gt) {
+				double v = centers[ids[i] * numDims + dim];
+				if (v < pivot)
+					swap(lt++, i++);
+				else if (v > pivot)
+					swap(i, gt--);
+				else
+					i++;
+			}
+			if (k < lt)
+				hi = lt - 1;
+			else if (k > gt)
+				lo = gt + 1;
+			else
+				return;
+		}
+	}
+
+	private void swap(int i, int j) {
+		int tmp = ids[i];
+		ids[i] = ids[j];
+		ids[j] = tmp;
+	}
+
+	/**
+	 * Counts the centres closer than eps to the given one, itself included,
+	 * but stops as soon as limit of them are found
+	 * 
+	 * @param queryID ID of the query centre
+	 * @param limit number of neighbours after which the search stops
+	 * @return the number of neighbours, at most limit
+	 */
+	int countNeighbours(int queryID, int limit) {
+		Neighbours result = new Neighbours(queryID, limit);
+		if (limit > 0)
+			search(0, ids.length, result);
+		return result.size;
+	}
+
+	/**
+	 * Finds all centres closer than eps to the given one, itself included
+	 * 
+	 * @param queryID ID of the query centre
+	 * @return the neighbour IDs in ascending order
+	 */
+	int[] getNeighbours(int queryID) {
+		Neighbours result = new Neighbours(queryID, Integer.MAX_VALUE);
+		search(0, ids.length, result);
+		int[] neighbours = Arrays.copyOf(result.ids, result.size);
+		Arrays.sort(neighbours);
+		return neighbours;
+	}
+
+	private void search(int lo, int hi, Neighbours result) {
+		if (hi - lo <= LEAF_SIZE) {
+			for (int i = lo; i < hi && !result.isFull(); i++) {
+				offer(ids[i], result);
+			}
+			return;
+		}
+		int mid = (lo + hi) >>> 1;
+		int dim = splitDims[mid];
+		double diff = centers[result.queryID * numDims + dim] - centers[ids[mid] * numDims + dim];
+		offer(ids[mid], result);
+		// every centre on the other side of the split is at least as far
+		// away as the split itself, so the far side is skipped only if the
+		// linear scan would reject all of its centres as well
+		boolean beyond = Math.sqrt(Math.pow(diff, 2)) >= eps;
+		if (diff < 0) {
+			search(lo, mid, result);
+			if (!beyond && !result.isFull())
+				search(mid + 1, hi, result);
+		} else {
+			search(mid + 1, hi, result);
+			if (!beyond && !result.isFull())
+				search(lo, mid, result);
+		}
+	}
+
+	private void offer(int id, Neighbours result) {
+		if (!result.isFull() && distance(result.queryID, id) < eps) {
+			result.add(id);
+		}
+	}
+
+	/**
+	 * eclidean distance, summed up like the former linear scan
+	 */
+	private double distance(int id1, int id2) {
+		int offset1 = id1 * numDims;
+		int offset2 = id2 * numDims;
+		double d = 0D;
+		for (int i = 0; i < numDims; i++) {
+			d += Math.pow((centers[offset1 + i] - centers[offset2 + i]), 2);
+		}
+		return Math.sqrt(d);
+	}
+
+	private static class Neighbours {
+		private final int queryID;
+		private final int limit;
+		private int[] ids = new int[16];
+		private int size;
+
+		private Neighbours(int queryID, int limit) {
+			this.queryID = queryID;
+			this.limit = limit;
+		}
+
+		private boolean isFull() {
+			return size >= limit;
+		}
+
+		private void add(int id) {
+			if (size == ids.length) {
+				ids = Arrays.copyOf(ids, 2 * size);
+			}
+			ids[size++] = id;
+		}
+	}
+}
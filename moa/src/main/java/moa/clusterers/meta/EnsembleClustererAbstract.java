@@ -6,8 +6,10 @@ import java.io.FileReader;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import com.github.javacliparser.FileOption;
 import com.google.gson.Gson;
@@ -69,6 +71,7 @@ class GeneralConfiguration {
 	public boolean useTestEnsemble = true;
 	public double resetProbability = 0.01;
 	public int numberOfCores = 1;
+	public boolean asyncEvaluation = false;
 	public String performanceMeasure = "SilhouetteCoefficient";
 	public boolean performanceMeasureMaximisation = true;
 }
@@ -88,8 +91,13 @@ public abstract class EnsembleClustererAbstract extends AbstractClusterer {
 	GeneralConfiguration settings;
 	ArrayList<Double> performanceMeasures;
 	int verbose = 0;
-	protected ExecutorService executor;
+	protected transient ExecutorService executor;
 	int numberOfCores;
+	// asynchronous evaluation: the members and pending results of the previous window
+	// and the instances that arrived since, which are trained once the evaluation is done
+	ArrayList<Algorithm> evaluatedAlgorithms;
+	protected transient ArrayList<Future<Double>> pendingEvaluation;
+	ArrayList<Instance> deferredInstances = new ArrayList<Instance>();
 
 	// the file option dialogue in the UI
 	public FileOption fileOption = new FileOption("ConfigurationFile", 'f', "Configuration file in json format.",
@@ -122,6 +130,10 @@ public abstract class EnsembleClustererAbstract extends AbstractClusterer {
 		this.iter = 0;
 		this.windowPoints = new ArrayList<DataPoint>(this.settings.windowSize);
 
+		// drop the evaluation of a previous run and its pool
+		shutdownExecutor();
+		this.deferredInstances.clear();
+
 		// reset ARFrefs
 		for (AdaptiveRandomForestRegressor ARFreg : this.ARFregs.values()) {
 			ARFreg.resetLearning();
@@ -138,7 +150,42 @@ public abstract class EnsembleClustererAbstract extends AbstractClusterer {
 		} else {
 			this.numberOfCores = this.settings.numberOfCores;
 		}
-		this.executor = Executors.newFixedThreadPool(this.numberOfCores);
+	}
+
+	// returns the pool of the ensemble, created on first use and kept until the next reset.
+	// Its threads are daemons so an unused clusterer does not keep the virtual machine alive.
+	protected ExecutorService getExecutor() {
+		if (this.executor == null) {
+			this.executor = Executors.newFixedThreadPool(this.numberOfCores, r -> {
+				Thread thread = new Thread(r, "EnsembleClusterer-worker");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return this.executor;
+	}
+
+	// cancels a pending evaluation and releases the threads of the pool
+	public void shutdownExecutor() {
+		if (this.pendingEvaluation != null) {
+			for (Future<Double> future : this.pendingEvaluation) {
+				future.cancel(true);
+			}
+			this.pendingEvaluation = null;
+			this.evaluatedAlgorithms = null;
+		}
+		if (this.executor != null) {
+			this.executor.shutdownNow();
+			this.executor = null;
+		}
+	}
+
+	boolean useExecutor() {
+		return this.numberOfCores > 1;
+	}
+
+	boolean useAsyncEvaluation() {
+		return this.settings.asyncEvaluation && useExecutor();
 	}
 
 	@Override
@@ -153,7 +200,38 @@ public abstract class EnsembleClustererAbstract extends AbstractClusterer {
 		this.windowPoints.add(point); // remember points of the current window
 		this.instancesSeen++;
 
-		if (this.numberOfCores == 1) {
+		if (this.pendingEvaluation != null && isEvaluationDone()) {
+			completeConfigurationUpdate();
+		}
+		if (this.pendingEvaluation != null) {
+			// the members must not change while their clusterings are evaluated
+			this.deferredInstances.add(inst);
+		} else {
+			trainEnsemble(inst);
+		}
+
+		// every windowSize we update the configurations
+		if (this.instancesSeen % this.settings.windowSize == 0) {
+			if (this.verbose >= 1) {
+				System.out.println(" ");
+				System.out.println("-------------- Processed " + instancesSeen + " Instances --------------");
+			}
+
+			if (useAsyncEvaluation()) {
+				// wait for the previous window before evaluating this one
+				if (this.pendingEvaluation != null) {
+					completeConfigurationUpdate();
+				}
+				startConfigurationUpdate();
+			} else {
+				updateConfiguration(); // update configuration
+			}
+		}
+
+	}
+
+	protected void trainEnsemble(Instance inst) {
+		if (!useExecutor()) {
 			// train all models with the instance
 			for (int i = 0; i < this.ensemble.size(); i++) {
 				this.ensemble.get(i).clusterer.trainOnInstance(inst);
@@ -178,25 +256,72 @@ public abstract class EnsembleClustererAbstract extends AbstractClusterer {
 				}
 			}
 			try {
-				this.executor.invokeAll(trainers);
+				getExecutor().invokeAll(trainers);
 			} catch (InterruptedException ex) {
 				throw new RuntimeException("Could not call invokeAll() on training threads.");
 			}
 		}
+	}
 
-		// every windowSize we update the configurations
-		if (this.instancesSeen % this.settings.windowSize == 0) {
-			if (this.verbose >= 1) {
-				System.out.println(" ");
-				System.out.println("-------------- Processed " + instancesSeen + " Instances --------------");
-			}
+	protected void updateConfiguration() {
+		ArrayList<Algorithm> algorithms = getEvaluatedAlgorithms();
+		double[] performances = computePerformanceMeasures(getEvaluationClusterings(algorithms), this.windowPoints);
+		applyConfiguration(algorithms, performances);
+
+		this.windowPoints.clear(); // flush the current window
+		this.iter++;
+	}
 
-			updateConfiguration(); // update configuration
+	// takes the clusterings of the window that just ended and evaluates them in the
+	// background while the next window is buffered
+	protected void startConfigurationUpdate() {
+		this.evaluatedAlgorithms = getEvaluatedAlgorithms();
+		ArrayList<Clustering> results = getEvaluationClusterings(this.evaluatedAlgorithms);
+		ArrayList<DataPoint> points = this.windowPoints;
+		this.windowPoints = new ArrayList<DataPoint>(this.settings.windowSize);
+		this.pendingEvaluation = submitPerformanceMeasures(results, points);
+	}
+
+	// applies the pending evaluation and trains the updated ensemble with the instances
+	// that arrived in the meantime
+	protected void completeConfigurationUpdate() {
+		double[] performances = collectPerformanceMeasures(this.pendingEvaluation);
+		ArrayList<Algorithm> algorithms = this.evaluatedAlgorithms;
+		this.pendingEvaluation = null;
+		this.evaluatedAlgorithms = null;
+
+		applyConfiguration(algorithms, performances);
+		this.iter++;
+
+		for (Instance inst : this.deferredInstances) {
+			trainEnsemble(inst);
 		}
+		this.deferredInstances.clear();
+	}
 
+	boolean isEvaluationDone() {
+		for (Future<Double> future : this.pendingEvaluation) {
+			if (!future.isDone()) {
+				return false;
+			}
+		}
+		return true;
 	}
 
-	protected void updateConfiguration() {
+	// the ensemble followed by the test ensemble
+	ArrayList<Algorithm> getEvaluatedAlgorithms() {
+		ArrayList<Algorithm> algorithms = new ArrayList<Algorithm>(this.ensemble);
+		if (this.settings.useTestEnsemble) {
+			algorithms.addAll(this.candidateEnsemble);
+		}
+		return algorithms;
+	}
+
+	protected void applyConfiguration(ArrayList<Algorithm> algorithms, double[] performances) {
+		for (int i = 0; i < algorithms.size(); i++) {
+			algorithms.get(i).performanceMeasure = performances[i];
+		}
+
 		// init evaluation measure
 		if (this.verbose >= 2) {
 			System.out.println(" ");
@@ -215,9 +340,6 @@ public abstract class EnsembleClustererAbstract extends AbstractClusterer {
 		}
 
 		generateNewConfigurations();
-
-		this.windowPoints.clear(); // flush the current window
-		this.iter++;
 	}
 
 	protected void evaluatePerformance() {
@@ -233,7 +355,8 @@ public abstract class EnsembleClustererAbstract extends AbstractClusterer {
 			// predict performance just for evaluation
 			predictPerformance(this.ensemble.get(i));
 
-			double performance = computePerformanceMeasure(this.ensemble.get(i));
+			// computed beforehand for all members, see applyConfiguration
+			double performance = this.ensemble.get(i).performanceMeasure;
 			this.performanceMeasures.add(performance);
 			if (performance > bestPerformance) {
 				this.bestModel = i;
@@ -260,10 +383,59 @@ public abstract class EnsembleClustererAbstract extends AbstractClusterer {
 	}
 
 	protected double computePerformanceMeasure(Algorithm algorithm) {
+		double performance = computePerformanceMeasure(getEvaluationClustering(algorithm), this.windowPoints);
+		algorithm.performanceMeasure = performance;
 
-		ClassOption opt = new ClassOption("", ' ', "", MeasureCollection.class, this.settings.performanceMeasure);
-		MeasureCollection performanceMeasure = (MeasureCollection) opt.materializeObject(null, null);
+		return performance;
+	}
+
+	ArrayList<Clustering> getEvaluationClusterings(ArrayList<Algorithm> algorithms) {
+		ArrayList<Clustering> results = new ArrayList<Clustering>(algorithms.size());
+		for (Algorithm algorithm : algorithms) {
+			results.add(getEvaluationClustering(algorithm));
+		}
+		return results;
+	}
+
+	// evaluates the clusterings on the pool if there is one, one task per clustering
+	protected double[] computePerformanceMeasures(ArrayList<Clustering> results, ArrayList<DataPoint> points) {
+		if (!useExecutor()) {
+			double[] performances = new double[results.size()];
+			for (int i = 0; i < results.size(); i++) {
+				performances[i] = computePerformanceMeasure(results.get(i), points);
+			}
+			return performances;
+		}
+		return collectPerformanceMeasures(submitPerformanceMeasures(results, points));
+	}
+
+	ArrayList<Future<Double>> submitPerformanceMeasures(ArrayList<Clustering> results, ArrayList<DataPoint> points) {
+		ArrayList<Future<Double>> futures = new ArrayList<Future<Double>>(results.size());
+		for (Clustering result : results) {
+			futures.add(getExecutor().submit(() -> computePerformanceMeasure(result, points)));
+		}
+		return futures;
+	}
+
+	double[] collectPerformanceMeasures(ArrayList<Future<Double>> futures) {
+		double[] performances = new double[futures.size()];
+		try {
+			for (int i = 0; i < futures.size(); i++) {
+				performances[i] = futures.get(i).get();
+			}
+		} catch (InterruptedException e) {
+			throw new RuntimeException("Interrupted while waiting for the clustering performance.");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException("Could not compute clustering performance.", e.getCause());
+		}
+		return performances;
+	}
 
+	// the clustering of an algorithm that is evaluated
+	protected Clustering getEvaluationClustering(Algorithm algorithm) {
 		// compare micro-clusters
 		Clustering result = null;
 		if (!this.settings.evaluateMacro) {
@@ -280,16 +452,26 @@ public abstract class EnsembleClustererAbstract extends AbstractClusterer {
 			result = algorithm.clusterer.getClusteringResult();
 		}
 
-		double performance;
 		if (result == null) {
 			throw new RuntimeException("Neither micro- nor macro clusters available for "
 					+ algorithm.clusterer.getCLICreationString(Clusterer.class));
-		} else if (result.size() == 0 || result.size() == 1) {
+		}
+		return result;
+	}
+
+	// the performance of a clustering on the given points, safe to call concurrently
+	protected double computePerformanceMeasure(Clustering result, ArrayList<DataPoint> points) {
+
+		ClassOption opt = new ClassOption("", ' ', "", MeasureCollection.class, this.settings.performanceMeasure);
+		MeasureCollection performanceMeasure = (MeasureCollection) opt.materializeObject(null, null);
+
+		double performance;
+		if (result.size() == 0 || result.size() == 1) {
 			performance = -1.0; // discourage solutions with no or a single cluster
 		} else {
 			// evaluate clustering using evaluation measure
 			try {
-				performanceMeasure.evaluateClusteringPerformance(result, null, windowPoints);
+				performanceMeasure.evaluateClusteringPerformance(result, null, points);
 			} catch (Exception e) {
 				throw new RuntimeException("Could not compute clustering performance.");
 			}
@@ -299,7 +481,6 @@ public abstract class EnsembleClustererAbstract extends AbstractClusterer {
 				performance = -1.0;
 			}
 		}
-		algorithm.performanceMeasure = performance;
 
 		return performance;
 	}
@@ -313,8 +494,8 @@ public abstract class EnsembleClustererAbstract extends AbstractClusterer {
 			// predict performance just for evaluation
 			predictPerformance(newAlgorithm);
 
-			// evaluate
-			double performance = computePerformanceMeasure(newAlgorithm);
+			// evaluated beforehand, see applyConfiguration
+			double performance = newAlgorithm.performanceMeasure;
 
 			if (this.verbose >= 1) {
 				System.out.println("Test " + i + ") " + newAlgorithm.clusterer.getCLICreationString(Clusterer.class)
@@ -417,6 +598,12 @@ public abstract class EnsembleClustererAbstract extends AbstractClusterer {
 		// get performance values
 		if (this.settings.useTestEnsemble) {
 			candidateEnsemble.clear();
+
+			// the candidates do not change the ensemble, so they can be copied and adjusted concurrently
+			if (useExecutor()) {
+				generateCandidatesConcurrently();
+				return;
+			}
 		}
 
 		for (int z = 0; z < this.settings.newConfigurations; z++) {
@@ -488,6 +675,36 @@ public abstract class EnsembleClustererAbstract extends AbstractClusterer {
 
 	}
 
+	// samples the parents in order and creates the candidate configurations on the pool
+	protected void generateCandidatesConcurrently() {
+		int[] parents = new int[this.settings.newConfigurations];
+		ArrayList<Future<Algorithm>> futures = new ArrayList<Future<Algorithm>>(parents.length);
+		for (int z = 0; z < parents.length; z++) {
+			int parentIdx = sampleParent(this.performanceMeasures);
+			parents[z] = parentIdx;
+			futures.add(getExecutor().submit(() -> sampleNewConfiguration(this.performanceMeasures, parentIdx)));
+		}
+
+		for (int z = 0; z < parents.length; z++) {
+			Algorithm newAlgorithm;
+			try {
+				newAlgorithm = futures.get(z).get();
+			} catch (InterruptedException e) {
+				throw new RuntimeException("Interrupted while sampling new configurations.");
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) e.getCause();
+				}
+				throw new RuntimeException("Could not sample new configuration.", e.getCause());
+			}
+			if (this.verbose >= 1) {
+				System.out.println("Based on " + parents[z] + " add "
+						+ newAlgorithm.clusterer.getCLICreationString(Clusterer.class) + " to test ensemble");
+			}
+			candidateEnsemble.add(newAlgorithm);
+		}
+	}
+
 	protected int sampleParent(ArrayList<Double> silhs) {
 		// copy existing clusterer configuration
 		HashMap<Integer, Double> parents = new HashMap<Integer, Double>();
@@ -20,9 +20,10 @@
 
 package moa.clusterers.outliers.AbstractC;
 
-import java.util.Vector;
 import moa.clusterers.outliers.AbstractC.ISBIndex.ISBNode;
-import moa.clusterers.outliers.AbstractC.ISBIndex.ISBSearchResult;
+import moa.clusterers.outliers.utils.window.RangeSearchResults;
+import moa.clusterers.outliers.utils.window.SlidingWindow;
+import moa.clusterers.outliers.utils.window.StreamObj;
 import com.github.javacliparser.FlagOption;
 import com.github.javacliparser.FloatOption;
 import com.github.javacliparser.IntOption;
@@ -65,7 +66,7 @@ public class AbstractC extends AbstractCBase {
         
         objId = FIRST_OBJ_ID; // init object identifier
         // create fifo
-        windowNodes = new Vector<ISBNode>();
+        windowNodes = new SlidingWindow<ISBNode>();
         // create ISB
         ISB = new ISBIndex(m_radius, m_Fraction);
         
@@ -79,12 +80,12 @@ public class AbstractC extends AbstractCBase {
         if (n == q) return;
         if (bTrace) Println("UpdateNeighbors: n.id: " + n.id + ", q.id: " + q.id);
         
-        int len = q.lt_cnt.size();
+        int len = q.Size_lt_cnt();
         for (int i = 0; i < len; i++) {
             // n.lt_cnt++
-            n.lt_cnt.set(i, n.lt_cnt.get(i) + 1);
+            n.lt_cnt[n.lt_start + i]++;
             // q.lt_cnt++
-            q.lt_cnt.set(i, q.lt_cnt.get(i) + 1);
+            q.lt_cnt[q.lt_start + i]++;
         }
     }
     
@@ -94,15 +95,15 @@ public class AbstractC extends AbstractCBase {
         double thr = m_Fraction * m_WindowSize;
         
         for (ISBNode node : windowNodes) {
-            if (node.lt_cnt.size() > 0) {
+            if (node.Size_lt_cnt() > 0) {
                 if (IsWinFull() || !waitWinFullOption.isSet()) {
-                    if (node.lt_cnt.get(0) < thr) {
+                    if (node.lt_cnt[node.lt_start] < thr) {
                         SaveOutlier(node);
                     } else {
                         RemoveOutlier(node);
                     }
                 }
-                node.lt_cnt.remove(0);
+                node.lt_start++;
             } else {
                 if (bWarning) Println("OutputPatterns: " + node.id + ".lt_cnt is empty!");
             }
@@ -137,21 +138,18 @@ public class AbstractC extends AbstractCBase {
         
         // initialize nodeNew.lt_cnt
         if (bTrace) Println("initialize nodeNew");
-        for (int i = 0; i < m_WindowSize; i++) {
-            nodeNew.lt_cnt.add(1);
-        }        
+        nodeNew.Init_lt_cnt(m_WindowSize);
         AddNode(nodeNew); // add nodeNew to window and index
         if (bTrace) PrintWindow();
         
         // perform range query search
         if (bTrace) Println("Perform range query seach");
         nRangeQueriesExecuted++;
-        Vector<ISBIndex.ISBSearchResult> neighbors = ISB.RangeSearch(nodeNew, m_radius);
+        RangeSearchResults<ISBNode> neighbors = ISB.RangeSearch(nodeNew, m_radius);
 
         // process each returned node
-        for (ISBSearchResult res : neighbors) {
-            ISBNode node = res.node;
-            UpdateNeighbors(nodeNew, node);
+        for (int i = 0; i < neighbors.size(); i++) {
+            UpdateNeighbors(nodeNew, neighbors.getNode(i));
         }
         
         OutputPatterns();
@@ -159,7 +157,7 @@ public class AbstractC extends AbstractCBase {
         if (bTrace) {            
             PrintOutliers();
             for (ISBNode node : windowNodes) {
-                Print(node.id + ".lt_count: "); Print_lt_cnt(node.lt_cnt);
+                Print(node.id + ".lt_count: "); Print_lt_cnt(node);
             }
         }
     }
@@ -22,9 +22,9 @@
 package moa.clusterers.outliers.AbstractC;
 
 import java.util.ArrayList;
-import java.util.Vector;
 import moa.clusterers.outliers.AbstractC.ISBIndex.ISBNode;
 import moa.clusterers.outliers.MyBaseOutlierDetector;
+import moa.clusterers.outliers.utils.window.SlidingWindow;
 
 public abstract class AbstractCBase extends MyBaseOutlierDetector {    
     protected static final Long FIRST_OBJ_ID = 1L;
@@ -32,7 +32,7 @@ public abstract class AbstractCBase extends MyBaseOutlierDetector {
     // object identifier increments with each new data stream object
     protected Long objId;
     // list used to find expired nodes
-    protected Vector<ISBNode> windowNodes; 
+    protected SlidingWindow<ISBNode> windowNodes; 
     protected ISBIndex ISB;
     protected int m_WindowSize;
     protected double m_radius;
@@ -203,9 +203,9 @@ public abstract class AbstractCBase extends MyBaseOutlierDetector {
         Println(")");
     }
     
-    public void Print_lt_cnt(ArrayList<Integer> lt_cnt) {
-        for (int i = 0; i < lt_cnt.size(); i++) {
-            Print("(" + i + ": " + lt_cnt.get(i) + ") ");
+    public void Print_lt_cnt(ISBNode node) {
+        for (int i = 0; i < node.Size_lt_cnt(); i++) {
+            Print("(" + i + ": " + node.lt_cnt[node.lt_start + i] + ") ");
         }
         Println("");
     }
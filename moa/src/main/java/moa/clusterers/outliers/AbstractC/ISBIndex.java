@@ -21,152 +21,37 @@
 
 package moa.clusterers.outliers.AbstractC;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.Set;
-import java.util.Vector;
+import java.util.Arrays;
 import com.yahoo.labs.samoa.instances.Instance;
+import moa.clusterers.outliers.utils.window.StreamObj;
+import moa.clusterers.outliers.utils.window.WindowIndex;
+import moa.clusterers.outliers.utils.window.WindowNode;
 
-
-
-public class ISBIndex {    
-    public static class ISBNode {
-        public Instance inst;
-        public StreamObj obj;
-        public Long id;
-        public ArrayList<Integer> lt_cnt;
-        
-        // statistics
-        public int nOutlier;
-        public int nInlier;
+public class ISBIndex extends WindowIndex<ISBIndex.ISBNode> {    
+    public static class ISBNode extends WindowNode {
+        // neighbour counts in the current and the following windows of the 
+        // node, starting at position lt_start
+        public int[] lt_cnt;
+        public int lt_start;
 
         public ISBNode(Instance inst, StreamObj obj, Long id) {
-            this.inst = inst;
-            this.obj = obj;
-            this.id = id;
-            lt_cnt = new ArrayList<Integer>();
-            
-            // init statistics
-            nOutlier = 0;
-            nInlier  = 0;
+            super(inst, obj, id);
+            lt_cnt = new int[0];
+            lt_start = 0;
         }
-    }
-    
-    MyMTree mtree;
-    Map<Integer, Set<ISBNode>> mapNodes;
-    double m_radius;
-    double m_Fraction;
-    
-    public ISBIndex(double radius, double fra) {
-        mtree = new MyMTree();
-        mapNodes = new HashMap<Integer, Set<ISBNode>>();
-        m_radius = radius;
-        m_Fraction = fra;
-    }
-    
-    public static class ISBSearchResult {
-        public ISBNode node;
-        public double distance;
         
-        public ISBSearchResult(ISBNode n, double distance) {
-            this.node = n;
-            this.distance = distance;
+        public void Init_lt_cnt(int nWindows) {
+            lt_cnt = new int[nWindows];
+            Arrays.fill(lt_cnt, 1);
+            lt_start = 0;
         }
-    }
-    
-    public Vector<ISBSearchResult> RangeSearch(ISBNode node, double radius) {
-        Vector<ISBSearchResult> results = new Vector<ISBSearchResult>();
-        // execute range search at mtree
-        StreamObj obj;
-        double d;
-        MyMTree.Query query = mtree.getNearestByRange(node.obj, radius);
-        for (MyMTree.ResultItem q : query) {
-            // get next obj found within range
-            obj = q.data;
-            // get distance of obj from query
-            d = q.distance;
-            // get all nodes referencing obj
-            Vector<ISBNode> nodes = MapGetNodes(obj);
-            for (int i = 0; i < nodes.size(); i++)
-                results.add(new ISBSearchResult(nodes.get(i), d));
-        }        
-        return results;
-    }
-    
-    public void Insert(ISBNode node) {
-        // insert object of node at mtree
-        mtree.add(node.obj);
-        // insert node at map
-        MapInsert(node);    
-    }
-    
-    public void Remove(ISBNode node) {
-        // remove from map
-        MapDelete(node);
-        // check if stream object at mtree is still being referenced
-        if (MapCountObjRefs(node.obj) <= 0) {
-            // delete stream object from mtree
-            mtree.remove(node.obj);
-        }
-    }
-    
-    Vector<ISBNode> MapGetNodes(StreamObj obj) {
-        int h = obj.hashCode();
-        Vector<ISBNode> v = new Vector<ISBNode>();
-        if (mapNodes.containsKey(h)) {
-            Set<ISBNode> s = mapNodes.get(h);
-            ISBNode node;
-            Iterator<ISBNode> i = s.iterator();
-            while (i.hasNext()) {
-                node = i.next();
-                if (node.obj.equals(obj))
-                    v.add(node);
-            }
-        }
-        return v;
-    }
-    
-    int MapCountObjRefs(StreamObj obj) {
-        int h = obj.hashCode();
-        int iCount = 0;
-        if (mapNodes.containsKey(h)) {
-            Set<ISBNode> s = mapNodes.get(h);
-            ISBNode n;
-            Iterator<ISBNode> i = s.iterator();
-            while (i.hasNext()) {
-                n = i.next();
-                if (n.obj.equals(obj))
-                    iCount++;
-            }
+        
+        public int Size_lt_cnt() {
+            return lt_cnt.length - lt_start;
         }
-        return iCount;
     }
     
-    void MapInsert(ISBNode node) {
-        int h = node.obj.hashCode();
-        Set<ISBNode> s;
-        if (mapNodes.containsKey(h)) {
-            s = mapNodes.get(h);
-            s.add(node);
-        }
-        else {
-            s = new HashSet<ISBNode>();
-            s.add(node);
-            mapNodes.put(h, s);
-        }
+    public ISBIndex(double radius, double fra) {
+        super(radius);
     }
-    
-    void MapDelete(ISBNode node) {
-        int h = node.obj.hashCode();
-        if (mapNodes.containsKey(h)) {
-            Set<ISBNode> s = mapNodes.get(h);
-            s.remove(node);
-            if (s.isEmpty()) { // ### added
-                mapNodes.remove(h);
-            }
-        }
-    }    
 }
@@ -25,9 +25,10 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Random;
 import java.util.Set;
-import java.util.Vector;
 import moa.clusterers.outliers.Angiulli.ISBIndex.ISBNode;
-import moa.clusterers.outliers.Angiulli.ISBIndex.ISBSearchResult;
+import moa.clusterers.outliers.utils.window.RangeSearchResults;
+import moa.clusterers.outliers.utils.window.SlidingWindow;
+import moa.clusterers.outliers.utils.window.StreamObj;
 import com.github.javacliparser.FloatOption;
 import com.github.javacliparser.IntOption;
 import com.yahoo.labs.samoa.instances.Instance;
@@ -119,7 +120,7 @@ public class ApproxSTORM extends STORMBase {
         
         objId = FIRST_OBJ_ID; // init object identifier
         // create fifo
-        windowNodes = new Vector<ISBNode>();
+        windowNodes = new SlidingWindow<ISBNode>();
         // create ISB
         ISB = new ISBIndex(m_radius, m_k);
         // create safe_inliers list
@@ -228,16 +229,16 @@ public class ApproxSTORM extends STORMBase {
         // perform range query search
         if (bTrace) Println("Perform range query seach:");
         nRangeQueriesExecuted++;
-        Vector<ISBIndex.ISBSearchResult> nodes = ISB.RangeSearch(nodeNew, m_radius);
+        RangeSearchResults<ISBNode> nodes = ISB.RangeSearch(nodeNew, m_radius);
 
         // process each returned node
         int nSafeInliers;
         Long count_si_before = 0L;
-        for (ISBSearchResult res : nodes) {
-            ISBNodeAppr n = (ISBNodeAppr) res.node;
+        for (int i = 0; i < nodes.size(); i++) {
+            ISBNodeAppr n = (ISBNodeAppr) nodes.getNode(i);
             if (bTrace) {
-                Printf("   Found at d=%.2f: ", res.distance);
-                PrintNode(res.node);
+                Printf("   Found at d=%.2f: ", nodes.getDistance(i));
+                PrintNode(n);
             }
 
             n.count_after++;
@@ -21,11 +21,11 @@
 package moa.clusterers.outliers.Angiulli;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Iterator;
-import java.util.Vector;
 import moa.clusterers.outliers.Angiulli.ISBIndex.ISBNode;
-import moa.clusterers.outliers.Angiulli.ISBIndex.ISBSearchResult;
+import moa.clusterers.outliers.utils.window.PrecedingNeighbours;
+import moa.clusterers.outliers.utils.window.RangeSearchResults;
+import moa.clusterers.outliers.utils.window.SlidingWindow;
+import moa.clusterers.outliers.utils.window.StreamObj;
 import com.github.javacliparser.FloatOption;
 import com.github.javacliparser.IntOption;
 import com.yahoo.labs.samoa.instances.Instance;
@@ -41,48 +41,29 @@ public class ExactSTORM extends STORMBase {
         // nn_before:
         //   A list that needs O(logn) time for ordered insertion and search.
         //   It must be able to perform a search in the list using e.g. <=.
-        private ArrayList<Long> nn_before;
+        private PrecedingNeighbours<ISBNode> nn_before;
         
         public ISBNodeExact(Instance inst, StreamObj obj, Long id, int k) {
             super(inst, obj, id);
             m_k = k;
             count_after = 0;
-            nn_before = new ArrayList<Long>();
+            nn_before = new PrecedingNeighbours<ISBNode>();
         }
         
-        public void AddPrecNeigh(Long id) {
-            int pos = Collections.binarySearch(nn_before, id);
-            if (pos < 0) {
-                // item does not exist, so add it to the right position
-                nn_before.add(-(pos + 1), id);
-            }
+        public void AddPrecNeigh(ISBNode node) {
+            // only the k most recent preceding neighbours are needed
+            nn_before.insert(node, m_k);
         }
         
         public int CountPrecNeighs(Long sinceId) {
-            if (nn_before.size() > 0) {
-                // get number of neighs with id >= sinceId
-                int startPos;
-                int pos = Collections.binarySearch(nn_before, sinceId);
-                if (pos < 0) {
-                    // item does not exist, should insert at position startPos
-                    startPos = -(pos + 1);
-                } else {
-                    // item exists at startPos
-                    startPos = pos;
-                }
-                
-                if (startPos < nn_before.size()) {
-                    return nn_before.size() - startPos;
-                }
-            }
-            return 0;
+            // get number of neighs with id >= sinceId
+            return nn_before.countSince(sinceId);
         }
         
         public void PrintPrecNeighs() {
             Print("      nn_before: ");
-            Iterator it = nn_before.iterator();
-            while (it.hasNext()) {
-                Print((Long)it.next() + " ");
+            for (ISBNode node : nn_before) {
+                Print(node.id + " ");
             }
             Println(" ");
         }
@@ -152,7 +133,7 @@ public class ExactSTORM extends STORMBase {
         
         objId = FIRST_OBJ_ID; // init object identifier
         // create fifo
-        windowNodes = new Vector<ISBNode>();
+        windowNodes = new SlidingWindow<ISBNode>();
         // create ISB
         ISB = new ISBIndex(m_radius, m_k);
         
@@ -219,18 +200,18 @@ public class ExactSTORM extends STORMBase {
         // perform range query search
         if (bTrace) Println("Perform range query seach:");
         nRangeQueriesExecuted++;
-        Vector<ISBIndex.ISBSearchResult> nodes = ISB.RangeSearch(nodeNew, m_radius);
+        RangeSearchResults<ISBNode> nodes = ISB.RangeSearch(nodeNew, m_radius);
 
         // process each returned node
-        for (ISBSearchResult res : nodes) {
-            ISBNodeExact n = (ISBNodeExact) res.node;
+        for (int i = 0; i < nodes.size(); i++) {
+            ISBNodeExact n = (ISBNodeExact) nodes.getNode(i);
             if (bTrace)  {
-                Printf("   Found at d=%.2f: ", res.distance);
-                PrintNode(res.node);
+                Printf("   Found at d=%.2f: ", nodes.getDistance(i));
+                PrintNode(n);
             }
             
             n.count_after++;            
-            nodeNew.AddPrecNeigh(res.node.id);
+            nodeNew.AddPrecNeigh(n);
         }
 
         if (bTrace) Println("Insert new node to ISB.");
@@ -20,9 +20,9 @@
 
 package moa.clusterers.outliers.Angiulli;
 
-import java.util.Vector;
 import moa.clusterers.outliers.Angiulli.ISBIndex.ISBNode;
 import moa.clusterers.outliers.MyBaseOutlierDetector;
+import moa.clusterers.outliers.utils.window.SlidingWindow;
 import com.github.javacliparser.FlagOption;
 
 public abstract class STORMBase extends MyBaseOutlierDetector {   
@@ -33,7 +33,7 @@ public abstract class STORMBase extends MyBaseOutlierDetector {
     // object identifier increments with each new data stream object
     protected Long objId;
     // list used to find expired nodes
-    protected Vector<ISBNode> windowNodes; 
+    protected SlidingWindow<ISBNode> windowNodes; 
     protected ISBIndex ISB;
     protected int m_WindowSize;
     protected double m_radius;
@@ -108,13 +108,22 @@ public abstract class STORMBase extends MyBaseOutlierDetector {
         return false;
     }
     
+    // the query visits every node of the window, only update the outliers 
+    // found when the outlierness of a node changes
+    
     void SaveOutlier(ISBNode node) {
-        AddOutlier(new Outlier(node.inst, node.id, node));
+        if (!node.bOutlier) {
+            AddOutlier(new Outlier(node.inst, node.id, node));
+            node.bOutlier = true;
+        }
         node.nOutlier++; // update statistics
     }
     
     void RemoveOutlier(ISBNode node) {
-        RemoveOutlier(new Outlier(node.inst, node.id, node));
+        if (node.bOutlier) {
+            RemoveOutlier(new Outlier(node.inst, node.id, node));
+            node.bOutlier = false;
+        }
         node.nInlier++; // update statistics
     }
     
@@ -108,18 +108,23 @@ public class AnyOut extends MyBaseOutlierDetector {
 			// Calculate scores for the object.
 			anyout.initObject(o.getId(), o.getFeatures());
 			
-			// Simulate anyout characteristics.
-			double depth = Math.random();
-			if (depth < minDepth) {
-				depth = minDepth;
-			} else if (depth > maxDepth) {
-				depth = maxDepth;
+			if (anyout.refinementModeOption.getChosenIndex() == 1) {
+				// Refine within the time until the next object is expected.
+				anyout.improveObjects(o.getId(), anyout.nextRefinementBudget());
+			} else {
+				// Simulate anyout characteristics.
+				double depth = Math.random();
+				if (depth < minDepth) {
+					depth = minDepth;
+				} else if (depth > maxDepth) {
+					depth = maxDepth;
+				}
+				
+				while (anyout.moreImprovementsPossible(o.getId(), depth)){
+					anyout.improveObjectOnce(o.getId());
+				}			
 			}
 			
-			while (anyout.moreImprovementsPossible(o.getId(), depth)){
-				anyout.improveObjectOnce(o.getId());
-			}			
-			
 			// Learn object into ClusTree.
 			anyout.learnObject(o.getFeatures());
 
@@ -200,6 +205,9 @@ public class AnyOut extends MyBaseOutlierDetector {
         sb.append(String.format("  Outliers found: %d (%.1f%%)\n", sum, (100 * sum) / (double)totalOutliers));
         sb.append(String.format("  True positive found: %d (%.1f%%)\n", truePositive, (100 * truePositive) / (double)totalOutliers));
         sb.append(String.format("  False positive found: %d (%.1f%%)\n", falsePositive, (100 * falsePositive) / (double)totalOutliers));
+        if (anyout.refinementModeOption.getChosenIndex() == 1) {
+            sb.append("  Objects pending refinement: " + anyout.getNumberPendingObjects() + "\n");
+        }
         sb.append("\n");
         sb.append("  Max memory usage: " + iMaxMemUsage + " MB\n");
         sb.append("  Total process time: " + String.format("%.2f ms", nTotalRunTime / 1000.0) + "\n");
@@ -24,13 +24,17 @@ package moa.clusterers.outliers.AnyOut;
 import com.github.javacliparser.FlagOption;
 import com.github.javacliparser.FloatOption;
 import com.github.javacliparser.IntOption;
+import com.github.javacliparser.MultiChoiceOption;
 import com.yahoo.labs.samoa.instances.DenseInstance;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.HashMap;
 import moa.clusterers.clustree.ClusKernel;
 import moa.clusterers.clustree.ClusTree;
 import moa.clusterers.clustree.Entry;
 import moa.clusterers.clustree.Node;
+import moa.clusterers.clustree.util.ArrivalRateBudget;
+import moa.clusterers.clustree.util.Budget;
 import moa.clusterers.outliers.AnyOut.util.DataObject;
 import moa.clusterers.outliers.AnyOut.util.DataSet;
 
@@ -50,6 +54,16 @@ public class AnyOutCore extends ClusTree {
 	private HashMap<Integer, Integer> currentLevel;
 	///////////////////////////////////////////////
 
+	// Objects whose refinement ran out of time, refined round-robin in the
+	// time left by later objects. They leave the window oldest first, so they
+	// are mostly removed from the head.
+	private ArrayDeque<Integer> pendingObjects;
+	
+	// Budget restarted for every object in the ArrivalRate refinement mode.
+	// It follows the arrival of the objects, not of their insertions into
+	// the tree.
+	private ArrivalRateBudget refinementBudget;
+
 	// Outlier score threshold.
 	private double threshold;
 	
@@ -65,6 +79,18 @@ public class AnyOutCore extends ClusTree {
 	public IntOption confidenceChoiceOption = new IntOption("confidence", 'd', "Confidence Measure.", 4, 1, 6);
 	public FlagOption UseMeanScoreOption = new FlagOption("UseMeanScore", 'm', "Use Mean score or Density score.");
 	public FloatOption threshholdOption = new FloatOption("Threshold", 'z', "Threshold", 0.07, 0, 1);
+	public MultiChoiceOption refinementModeOption = new MultiChoiceOption("refinementMode", 'R',
+			"How long the outlier score of an object is refined.",
+			new String[]{"RandomDepth", "ArrivalRate"},
+			new String[]{"Each object descends to a random depth between 50% and 90% of the tree height",
+				"Each object is refined for a fraction of the observed time between two objects, at most refinementTimeBudget nanoseconds, and the objects still pending are refined round-robin in the time left"},
+			0);
+	public IntOption refinementTimeBudgetOption = new IntOption("refinementTimeBudget", 'D',
+			"Upper bound in nanoseconds of the refinement time of an object in the ArrivalRate mode.",
+			100000, 0, Integer.MAX_VALUE);
+	public FloatOption refinementBudgetFractionOption = new FloatOption("refinementBudgetFraction", 'F',
+			"Fraction of the average time between two objects given to their refinement in the ArrivalRate mode.",
+			0.5, 0.0, 1.0);
 	
 	public AnyOutCore() {
 		lastOScoreResult = new HashMap<Integer,Double>();
@@ -74,6 +100,8 @@ public class AnyOutCore extends ClusTree {
 		previousOScoreResultList = new HashMap<Integer,ArrayList<Double>>();
 		descendToNode = new HashMap<Integer,Node>();
 		currentLevel = new HashMap<Integer,Integer>();
+		pendingObjects = new ArrayDeque<Integer>();
+		refinementBudget = new ArrivalRateBudget();
 	}
 	
 	public void resetLearning() {
@@ -84,6 +112,8 @@ public class AnyOutCore extends ClusTree {
 		}
 		oScoreK = oScoreKOption.getValue();
 		confK = confKOption.getValue();
+		pendingObjects.clear();
+		refinementBudget.reset();
 		super.resetLearningImpl();
 	}
 	
@@ -146,6 +176,7 @@ public class AnyOutCore extends ClusTree {
 		descendToNode.remove(objectId);
 		objectAsKernel.remove(objectId);
 		currentLevel.remove(objectId);
+		pendingObjects.remove(objectId);
 	}
 	
 	// TODO fix not working density measure!!! Must be between 0 and 1.
@@ -227,6 +258,50 @@ public class AnyOutCore extends ClusTree {
         }
 	}
 		
+	/**
+	 * Returns the refinement budget of an object that arrives now, a fraction
+	 * of the moving average of the time between two objects, at most
+	 * refinementTimeBudget nanoseconds.
+	 * @return The budget, which is only valid until the next call.
+	 */
+	public Budget nextRefinementBudget() {
+		refinementBudget.restartOnArrival(refinementTimeBudgetOption.getValue(),
+				refinementBudgetFractionOption.getValue());
+		return refinementBudget;
+	}
+	
+	/**
+	 * Refines the given object down to the leaves while the budget has time
+	 * left, and spends the remaining time on one step at a time for each
+	 * pending object in turn. An object that is not done when the time runs
+	 * out stays pending, its score and confidence are those of the levels
+	 * reached so far.
+	 * @param objectId The object that has just been initialized.
+	 * @param budget The refinement budget, see {@link #nextRefinementBudget()}.
+	 */
+	public void improveObjects(int objectId, Budget budget) {
+		while (budget.hasMoreTime() && moreImprovementsPossible(objectId, 1.0)) {
+			improveObjectOnce(objectId);
+		}
+		if (moreImprovementsPossible(objectId, 1.0)) {
+			pendingObjects.add(objectId);
+		}
+		while (budget.hasMoreTime() && !pendingObjects.isEmpty()) {
+			int id = pendingObjects.poll();
+			improveObjectOnce(id);
+			if (moreImprovementsPossible(id, 1.0)) {
+				pendingObjects.add(id);
+			}
+		}
+	}
+	
+	/**
+	 * @return The number of objects waiting for further refinement.
+	 */
+	public int getNumberPendingObjects() {
+		return pendingObjects.size();
+	}
+	
 	/**
 	 * Calculates the Confidence on the basis of the standard deviation of previous OScore results
 	 * @return confidence
@@ -25,7 +25,9 @@ import java.util.TreeSet;
 import java.util.Vector;
 import moa.clusterers.outliers.MCOD.ISBIndex.ISBNode;
 import moa.clusterers.outliers.MCOD.ISBIndex.ISBNode.NodeType;
-import moa.clusterers.outliers.MCOD.ISBIndex.ISBSearchResult;
+import moa.clusterers.outliers.utils.window.RangeSearchResults;
+import moa.clusterers.outliers.utils.window.SlidingWindow;
+import moa.clusterers.outliers.utils.window.StreamObj;
 import com.github.javacliparser.FloatOption;
 import com.github.javacliparser.IntOption;
 import com.yahoo.labs.samoa.instances.Instance;
@@ -64,13 +66,14 @@ public class MCOD extends MCODBase {
         
         objId = FIRST_OBJ_ID; // init object identifier
         // create nodes list of window
-        windowNodes = new Vector<ISBNode>();
+        windowNodes = new SlidingWindow<ISBNode>();
         // create ISB
         ISB_PD = new ISBIndex(m_radius, m_k);
         // create helper sets for micro-cluster management
         setMC = new TreeSet<MicroCluster>();
         // micro-cluster index
         mtreeMC = new MTreeMicroClusters();
+        removedMC = new ArrayList<MicroCluster>();
         // create event queue
         eventQueue = new EventQueue();
         
@@ -99,7 +102,7 @@ public class MCOD extends MCODBase {
         }
         
         if (q.id < node.id) {
-            node.AddPrecNeigh(q);
+            node.AddPrecNeigh(q, m_k);
         } else {
             node.count_after++;
         }        
@@ -160,19 +163,18 @@ public class MCOD extends MCODBase {
             if (bTrace) { Print("mcClosest.nodes: "); PrintNodeList(mcClosest.nodes); } 
             
             if (bTrace) Println("Update neighbors of set PD"); 
-            Vector<ISBNode> nodes;
-            nodes = ISB_PD.GetAllNodes();
-            for (ISBNode q : nodes) {
+            RangeSearchResults<ISBNode> nodes;
+            nodes = ISB_PD.RangeSearch(nodeNew, m_radius);
+            for (int i = 0; i < nodes.size(); i++) {
+                ISBNode q = nodes.getNode(i);
                 if (q.Rmc.contains(mcClosest)) {
-                    if (GetEuclideanDist(q, nodeNew) <= m_radius) {
-                        if (bNewNode) {
-                            // update q.count_after and its' outlierness
+                    if (bNewNode) {
+                        // update q.count_after and its' outlierness
+                        AddNeighbor(q, nodeNew, true);
+                    } else {
+                        if (nodesReinsert.contains(q)) {
+                            // update q.count_after or q.nn_before and its' outlierness
                             AddNeighbor(q, nodeNew, true);
-                        } else {
-                            if (nodesReinsert.contains(q)) {
-                                // update q.count_after or q.nn_before and its' outlierness
-                                AddNeighbor(q, nodeNew, true);
-                            }
                         }
                     }
                 }
@@ -187,11 +189,14 @@ public class MCOD extends MCODBase {
             // create helper sets for micro-cluster management
             ArrayList<ISBNode> setNC = new ArrayList<ISBNode>();
             ArrayList<ISBNode> setNNC = new ArrayList<ISBNode>();
-            Vector<ISBSearchResult> resultNodes;
+            RangeSearchResults<ISBNode> resultNodes;
             resultNodes = ISB_PD.RangeSearch(nodeNew, 1.5 * m_radius); // 1.5 ###
-            for (ISBSearchResult sr : resultNodes) {
-                ISBNode q = sr.node;
-                if (sr.distance <= m_radius) {                    
+            // visit the nodes ascending by distance
+            resultNodes.sortByDistance();
+            for (int i = 0; i < resultNodes.size(); i++) {
+                ISBNode q = resultNodes.getNode(i);
+                double distance = resultNodes.getDistance(i);
+                if (distance <= m_radius) {                    
                     // add q to neighs of nodeNew
                     AddNeighbor(nodeNew, q, false);                
                     if (bNewNode) {
@@ -205,7 +210,7 @@ public class MCOD extends MCODBase {
                     }
                 }
                 
-                if (sr.distance <= m_radius / 2.0) {
+                if (distance <= m_radius / 2.0) {
                     setNC.add(q);
                 } else {
                     setNNC.add(q);
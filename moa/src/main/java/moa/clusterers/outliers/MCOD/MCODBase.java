@@ -28,6 +28,7 @@ import java.util.Vector;
 import moa.clusterers.outliers.MCOD.ISBIndex.ISBNode;
 import moa.clusterers.outliers.MCOD.ISBIndex.ISBNode.NodeType;
 import moa.clusterers.outliers.MyBaseOutlierDetector;
+import moa.clusterers.outliers.utils.window.SlidingWindow;
 
 public abstract class MCODBase extends MyBaseOutlierDetector {    
     protected static class EventItem implements Comparable<EventItem> {
@@ -89,12 +90,14 @@ public abstract class MCODBase extends MyBaseOutlierDetector {
     // object identifier increments with each new data stream object
     protected Long objId;
     // list used to find expired nodes
-    protected Vector<ISBNode> windowNodes; 
+    protected SlidingWindow<ISBNode> windowNodes; 
     protected EventQueue eventQueue;
     // MTree index of micro-clusters
     protected MTreeMicroClusters mtreeMC;
     // set of micro-clusters (for trace)
     protected TreeSet<MicroCluster> setMC;
+    // removed micro-clusters still indexed by mtreeMC
+    protected ArrayList<MicroCluster> removedMC;
     // nodes treated as new nodes when a mc removed
     protected TreeSet<ISBNode> nodesReinsert;
     // index of objects not in any micro-cluster
@@ -267,7 +270,16 @@ public abstract class MCODBase extends MyBaseOutlierDetector {
     }
     
     void RemoveMicroCluster(MicroCluster mc) {
-        mtreeMC.remove(mc);
+        // mc is skipped by the range queries and left in the M-tree until
+        // the removed micro-clusters are half of the indexed ones; they are
+        // then removed together, which bulk loads the tree again from the
+        // remaining ones instead of removing them one by one
+        mc.bRemoved = true;
+        removedMC.add(mc);
+        if (2 * removedMC.size() >= mtreeMC.size()) {
+            mtreeMC.removeAll(removedMC);
+            removedMC.clear();
+        }
         setMC.remove(mc);
     }
     
@@ -288,7 +300,8 @@ public abstract class MCODBase extends MyBaseOutlierDetector {
         // query results are returned ascenting by distance
         MTreeMicroClusters.Query query = mtreeMC.getNearestByRange(dummy, radius);
         for (MTreeMicroClusters.ResultItem q : query) {            
-            results.add(new SearchResultMC(q.data, q.distance));
+            if (!q.data.bRemoved)
+                results.add(new SearchResultMC(q.data, q.distance));
         }        
         return results;
     }
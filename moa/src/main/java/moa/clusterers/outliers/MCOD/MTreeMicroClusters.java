@@ -20,6 +20,7 @@
 
 package moa.clusterers.outliers.MCOD;
 
+import java.util.Collection;
 import java.util.Set;
 import moa.clusterers.outliers.utils.mtree.ComposedSplitFunction;
 import moa.clusterers.outliers.utils.mtree.DistanceFunction;
@@ -58,6 +59,17 @@ class MTreeMicroClusters extends MTree<MicroCluster> {
         return result;
     }
 
+    public void addAll(Collection<? extends MicroCluster> data) {
+        super.addAll(data);
+        _check();
+    }
+
+    public int removeAll(Collection<? extends MicroCluster> data) {
+        int result = super.removeAll(data);
+        _check();
+        return result;
+    }
+
     DistanceFunction<? super MicroCluster> getDistanceFunction() {
         return distanceFunction;
     }
@@ -27,6 +27,8 @@ import moa.clusterers.outliers.utils.mtree.DistanceFunctions.EuclideanCoordinate
 public class MicroCluster implements EuclideanCoordinate, Comparable<MicroCluster> {
     public ISBNode mcc;
     public ArrayList<ISBNode> nodes;
+    // set when the micro-cluster is removed, before it leaves the M-tree
+    public boolean bRemoved = false;
 
     public MicroCluster(ISBNode mcc) {
         this.mcc = mcc;
@@ -20,9 +20,10 @@
 
 package moa.clusterers.outliers.SimpleCOD;
 
-import java.util.Vector;
 import moa.clusterers.outliers.SimpleCOD.ISBIndex.ISBNode;
-import moa.clusterers.outliers.SimpleCOD.ISBIndex.ISBSearchResult;
+import moa.clusterers.outliers.utils.window.RangeSearchResults;
+import moa.clusterers.outliers.utils.window.SlidingWindow;
+import moa.clusterers.outliers.utils.window.StreamObj;
 import com.github.javacliparser.FloatOption;
 import com.github.javacliparser.IntOption;
 import com.yahoo.labs.samoa.instances.Instance;
@@ -60,7 +61,7 @@ public class SimpleCOD extends SimpleCODBase {
         
         objId = FIRST_OBJ_ID; // init object identifier
         // create nodes list of window
-        windowNodes = new Vector<ISBNode>();
+        windowNodes = new SlidingWindow<ISBNode>();
         // create ISB
         ISB = new ISBIndex(m_radius, m_k);
         // create event queue
@@ -77,14 +78,14 @@ public class SimpleCOD extends SimpleCODBase {
         
         if (bTrace) Println("Perform R range query");    
         nRangeQueriesExecuted++;
-        Vector<ISBSearchResult> resultNodes;
+        RangeSearchResults<ISBNode> resultNodes;
         resultNodes = ISB.RangeSearch(nodeNew, m_radius);
-        for (ISBSearchResult sr : resultNodes) {
-            double distance = sr.distance;
-            ISBNode q = sr.node;
+        for (int i = 0; i < resultNodes.size(); i++) {
+            double distance = resultNodes.getDistance(i);
+            ISBNode q = resultNodes.getNode(i);
             if ( (nodeNew != q) && (distance <= m_radius) ) {  
                 if (bTrace) Println("nodeNew has neighbor q.id " + q.id);  
-                nodeNew.AddPrecNeigh(q);
+                nodeNew.AddPrecNeigh(q, m_k);
                 q.count_after++;
                 
                 if (q.bOutlier) {
@@ -26,6 +26,7 @@ import java.util.TreeSet;
 import java.util.Vector;
 import moa.clusterers.outliers.MyBaseOutlierDetector;
 import moa.clusterers.outliers.SimpleCOD.ISBIndex.ISBNode;
+import moa.clusterers.outliers.utils.window.SlidingWindow;
 
 public abstract class SimpleCODBase extends MyBaseOutlierDetector {    
     protected static class EventItem implements Comparable<EventItem> {
@@ -87,7 +88,7 @@ public abstract class SimpleCODBase extends MyBaseOutlierDetector {
     // object identifier increments with each new data stream object
     protected Long objId;
     // list used to find expired nodes
-    protected Vector<ISBNode> windowNodes; 
+    protected SlidingWindow<ISBNode> windowNodes; 
     protected EventQueue eventQueue;
     // index of objects
     protected ISBIndex ISB;
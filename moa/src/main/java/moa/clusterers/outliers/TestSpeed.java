@@ -21,53 +21,68 @@
 package moa.clusterers.outliers;
 
 import moa.clusterers.outliers.AbstractC.AbstractC;
+import moa.clusterers.outliers.Angiulli.ApproxSTORM;
 import moa.clusterers.outliers.Angiulli.ExactSTORM;
 import moa.clusterers.outliers.MCOD.MCOD;
 import moa.clusterers.outliers.SimpleCOD.SimpleCOD;
 import moa.streams.clustering.RandomRBFGeneratorEvents;
 import com.yahoo.labs.samoa.instances.Instance;
 
-public class TestSpeed {    
+/**
+ * Measures the throughput of the distance-based outlier detectors.
+ * 
+ * Usage: TestSpeed [windowSize [numInstances]], by default a window of 
+ * 100000 objects and twice as many instances, so that the second half is 
+ * processed with a full window.
+ */
+public class TestSpeed {
+    // AbstractC keeps a count per future window for every node, so its 
+    // memory grows with the square of the window size
+    static final int ABSTRACTC_MAX_WINDOW = 10000;
+    
     public static void main(String[] args) throws Exception 
     {        
-        int numInstances = 2000;        
-        RandomRBFGeneratorEvents stream = new RandomRBFGeneratorEvents();
-        stream.prepareForUse();
-        
-        SimpleCOD scod = new SimpleCOD();   
-        MCOD mcod = new MCOD();        
-        ExactSTORM angiulli = new ExactSTORM();   
-        //DistanceOutliersAppr angiulli = new DistanceOutliersAppr(); 
-        AbstractC abstractC = new AbstractC();        
-        
-        angiulli.queryFreqOption.setValue(1);
-        
-        scod.setModelContext(stream.getHeader());
-        scod.prepareForUse(); 
-        
-        mcod.setModelContext(stream.getHeader());
-        mcod.prepareForUse(); 
+        int windowSize = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int numInstances = args.length > 1 ? Integer.parseInt(args[1]) : 2 * windowSize;
         
-        angiulli.setModelContext(stream.getHeader());
-        angiulli.prepareForUse(); 
+        MyBaseOutlierDetector[] detectors = { 
+            new MCOD(), new SimpleCOD(), new ExactSTORM(), new ApproxSTORM(), new AbstractC() 
+        };
         
-        abstractC.setModelContext(stream.getHeader());
-        abstractC.prepareForUse();
-        
-        Long tmStart = System.currentTimeMillis();
-        
-        int numberSamples = 0;     
-        while (stream.hasMoreInstances() && (numberSamples < numInstances)) {               
-            Instance newInst = stream.nextInstance().getData();
+        for (MyBaseOutlierDetector detector : detectors) {
+            String name = detector.getClass().getSimpleName();
+            if ((detector instanceof AbstractC) && (windowSize > ABSTRACTC_MAX_WINDOW)) {
+                System.out.println(name + ": skipped, window larger than " + ABSTRACTC_MAX_WINDOW);
+                continue;
+            }
             
-            //scod.processNewInstanceImpl(newInst);  
-            mcod.processNewInstanceImpl(newInst);  
-            //angiulli.processNewInstanceImpl(newInst);  
-            //abstractC.processNewInstanceImpl(newInst); 
+            RandomRBFGeneratorEvents stream = new RandomRBFGeneratorEvents();
+            stream.prepareForUse();
             
-            numberSamples++;
-        }      
-        
-        System.out.println("Total time = " + (System.currentTimeMillis() - tmStart) + " ms");
+            detector.windowSizeOption.setValue(windowSize);
+            detector.setModelContext(stream.getHeader());
+            detector.prepareForUse();
+            detector.SetShowProgress(false);
+            
+            // the first window fills the index, time the objects after it
+            long tmStart = 0;
+            int numberSamples = 0;
+            int numberTimed = 0;
+            while (stream.hasMoreInstances() && (numberSamples < numInstances)) {               
+                Instance newInst = stream.nextInstance().getData();
+                if (numberSamples == Math.min(windowSize, numInstances / 2)) {
+                    tmStart = System.nanoTime();
+                }
+                detector.processNewInstanceImpl(newInst);
+                numberSamples++;
+                if (tmStart > 0) {
+                    numberTimed++;
+                }
+            }
+            
+            double seconds = (System.nanoTime() - tmStart) / 1e9;
+            System.out.println(String.format("%s: window %d, %d objects in %.2f s, %.0f objects/s",
+                    name, windowSize, numberTimed, seconds, numberTimed / seconds));
+        }
     }
 }
@@ -16,13 +16,20 @@
 
 package moa.clusterers.outliers.utils.mtree;
 
+import moa.clusterers.outliers.utils.mtree.DistanceFunctions.EuclideanCoordinate;
 import moa.clusterers.outliers.utils.mtree.SplitFunction.SplitResult;
 
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Deque;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
-import java.util.Map;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.PriorityQueue;
 import java.util.Set;
@@ -32,8 +39,14 @@ import java.util.Set;
 /**
  * The main class that implements the M-Tree.
  *
+ * <p>The children of each node are kept in parallel arrays with their
+ * distances to the routing object of the node and their covering radii, so
+ * that queries prune children without dereferencing them. When the tree
+ * uses the {@link DistanceFunctions#EUCLIDEAN} distance, the coordinates of
+ * the children are copied into a primitive array of the node as well.
+ *
  * @param <DATA> The type of data that will be indexed by the M-Tree. Objects of
- *        this type are stored in HashMaps and HashSets, so their
+ *        this type are stored in HashSets during node splits, so their
  *        {@code hashCode()} and {@code equals()} methods must be consistent.
  */
 public class MTree<DATA> {
@@ -98,7 +111,10 @@ public class MTree<DATA> {
 	 * results are fetched. It means that, by the time when the <i>n</i>-th
 	 * result is fetched, the next result may still not be known, and the
 	 * resources allocated were only the necessary to identify the <i>n</i>
-	 * first results.
+	 * first results. Pure range queries, which are limited by distance only,
+	 * are the exception: all of their results are needed anyway, so they
+	 * are collected by a single traversal of the tree when the iteration
+	 * starts and sorted by distance.
 	 */
 	public class Query implements Iterable<ResultItem> {
 
@@ -134,6 +150,8 @@ public class MTree<DATA> {
 			private double nextPendingMinDistance;
 			private PriorityQueue<ItemWithDistances<Entry>> nearestQueue = new PriorityQueue<ItemWithDistances<Entry>>();
 			private int yieldedCount;
+			private double[] queryCoordinates;
+			private Iterator<ResultItem> rangeResults;
 			
 			private ResultsIterator() {
 				if(MTree.this.root == null) {
@@ -141,8 +159,23 @@ public class MTree<DATA> {
 					return;
 				}
 				
+				queryCoordinates = MTree.this.coordinatesOf(Query.this.data);
 				double distance = MTree.this.distanceFunction.calculate(Query.this.data, MTree.this.root.data);
-				double minDistance = Math.max(distance - MTree.this.root.radius, 0.0);
+
+				if(Query.this.range != Double.POSITIVE_INFINITY  &&  Query.this.limit == Integer.MAX_VALUE) {
+					List<ResultItem> results = new ArrayList<ResultItem>();
+					collectRange(MTree.this.root, distance, results);
+					Collections.sort(results, new Comparator<ResultItem>() {
+						@Override
+						public int compare(ResultItem item1, ResultItem item2) {
+							return Double.compare(item1.distance, item2.distance);
+						}
+					});
+					rangeResults = results.iterator();
+					return;
+				}
+
+				double minDistance = Math.max(distance - MTree.this.root.radius - roundingSlack(distance, MTree.this.root.radius), 0.0);
 				
 				pendingQueue.add(new ItemWithDistances<Node>(MTree.this.root, distance, minDistance));
 				nextPendingMinDistance = minDistance;
@@ -184,8 +217,38 @@ public class MTree<DATA> {
 			}
 			
 			
+			private void collectRange(Node node, double distance, List<ResultItem> results) {
+				for(int i = 0; i < node.childCount; i++) {
+					double childRadius = node.childRadii[i];
+					double childDistanceToParent = node.childDistances[i];
+					if(Math.abs(distance - childDistanceToParent) - childRadius - roundingSlack(distance, childDistanceToParent + childRadius) <= Query.this.range) {
+						double childDistance = node.distanceToChild(i, Query.this.data, queryCoordinates);
+						IndexItem child = node.childItems[i];
+						if(child instanceof MTree.Entry) {
+							if(childDistance <= Query.this.range) {
+								results.add(new ResultItem(child.data, childDistance));
+							}
+						} else if(childDistance - childRadius - roundingSlack(childDistance, childRadius) <= Query.this.range) {
+							@SuppressWarnings("unchecked")
+							Node childNode = (Node)child;
+							collectRange(childNode, childDistance, results);
+						}
+					}
+				}
+			}
+
+
 			private void fetchNext() {
 				assert !finished;
+
+				if(rangeResults != null) {
+					if(rangeResults.hasNext()) {
+						nextResultItem = rangeResults.next();
+					} else {
+						finished = true;
+					}
+					return;
+				}
 				
 				if(finished  ||  yieldedCount >= Query.this.limit) {
 					finished = true;
@@ -202,10 +265,15 @@ public class MTree<DATA> {
 					ItemWithDistances<Node> pending = pendingQueue.poll();
 					Node node = pending.item;
 					
-					for(IndexItem child : node.children.values()) {
-						if(Math.abs(pending.distance - child.distanceToParent) - child.radius <= Query.this.range) {
-							double childDistance = MTree.this.distanceFunction.calculate(Query.this.data, child.data);
-							double childMinDistance = Math.max(childDistance - child.radius, 0.0);
+					for(int i = 0; i < node.childCount; i++) {
+						double childRadius = node.childRadii[i];
+						double childDistanceToParent = node.childDistances[i];
+						if(Math.abs(pending.distance - childDistanceToParent) - childRadius - roundingSlack(pending.distance, childDistanceToParent + childRadius) <= Query.this.range) {
+							double childDistance = node.distanceToChild(i, Query.this.data, queryCoordinates);
+							IndexItem child = node.childItems[i];
+							double childMinDistance = (child instanceof MTree.Entry)
+							                        ? childDistance
+							                        : Math.max(childDistance - childRadius - roundingSlack(childDistance, childRadius), 0.0);
 							if(childMinDistance <= Query.this.range) {
 								if(child instanceof MTree.Entry) {
 									@SuppressWarnings("unchecked")
@@ -275,11 +343,34 @@ public class MTree<DATA> {
 	public static final int DEFAULT_MIN_NODE_CAPACITY = 50;
 
 
+	/**
+	 * Whether the consistency checks of {@link #_check()} are performed. They
+	 * walk the whole tree and compute a distance per node, so they only run
+	 * when assertions are enabled.
+	 */
+	private static final boolean CHECKS_ENABLED;
+	static {
+		boolean enabled = false;
+		assert enabled = true;
+		CHECKS_ENABLED = enabled;
+	}
+
+
 	protected int minNodeCapacity;
 	protected int maxNodeCapacity;
 	protected DistanceFunction<? super DATA> distanceFunction;
 	protected SplitFunction<DATA> splitFunction;
 	protected Node root;
+
+	private int size;
+
+	// Number of coordinates copied into the nodes per child: 0 until the
+	// first data object is added, -1 if the distance function is not the
+	// Euclidean one or the data objects differ in dimensionality.
+	private int coordinateDimensions;
+
+	// Coordinates of the data object being added or removed.
+	private double[] updateCoordinates;
 	
 	
 	/**
@@ -338,6 +429,15 @@ public class MTree<DATA> {
 		this.distanceFunction = distanceFunction;
 		this.splitFunction = splitFunction;
 		this.root = null;
+		this.coordinateDimensions = (distanceFunction == DistanceFunctions.EUCLIDEAN) ? 0 : -1;
+	}
+
+
+	/**
+	 * Returns the number of data objects indexed by the M-Tree.
+	 */
+	public int size() {
+		return size;
 	}
 	
 	
@@ -350,6 +450,8 @@ public class MTree<DATA> {
 	 * @param data The data object to index.
 	 */
 	public void add(DATA data) {
+		trackCoordinates(data);
+		updateCoordinates = coordinatesOf(data);
 		if(root == null) {
 			root = new RootLeafNode(data);
 			try {
@@ -372,11 +474,156 @@ public class MTree<DATA> {
 				}
 			}
 		}
+		updateCoordinates = null;
+		size++;
+	}
+
+
+	/**
+	 * Adds and indexes a collection of data objects.
+	 *
+	 * <p>If the M-Tree is empty, it is bulk loaded bottom-up: the data objects
+	 * are recursively divided into groups of nearby objects that become the
+	 * leaves, and the nodes of each level are grouped the same way until they
+	 * fit in the root. This avoids the repeated promotions and node splits of
+	 * adding the objects one by one, and leaves the nodes well filled.
+	 * Otherwise the objects are added one by one.
+	 *
+	 * <p>As with {@link #add(Object)}, objects that are already indexed should
+	 * not be added.
+	 *
+	 * @param data The data objects to index.
+	 */
+	public void addAll(Collection<? extends DATA> data) {
+		if(root != null  ||  data.size() <= maxNodeCapacity) {
+			for(DATA d : data) {
+				add(d);
+			}
+			return;
+		}
+
+		List<IndexItem> level = new ArrayList<IndexItem>(data.size());
+		for(DATA d : data) {
+			trackCoordinates(d);
+			level.add(new Entry(d));
+		}
+
+		boolean leafLevel = true;
+		while(level.size() > maxNodeCapacity) {
+			int groups = (level.size() + maxNodeCapacity - 1) / maxNodeCapacity;
+			List<List<IndexItem>> partition = new ArrayList<List<IndexItem>>(groups);
+			bulkPartition(level, 0, level.size(), groups, partition);
+
+			List<IndexItem> nextLevel = new ArrayList<IndexItem>(groups);
+			for(List<IndexItem> group : partition) {
+				DATA routingData = bulkRoutingData(group);
+				Node node = leafLevel ? new LeafNode(routingData) : new InternalNode(routingData);
+				bulkFill(node, group);
+				nextLevel.add(node);
+			}
+			level = nextLevel;
+			leafLevel = false;
+		}
+
+		root = new RootNode(bulkRoutingData(level));
+		bulkFill(root, level);
+		size = data.size();
+	}
+
+	/**
+	 * Divides the items from {@code from} to {@code to} into {@code groups}
+	 * groups whose sizes differ by at most one. The range is ordered along
+	 * the axis through two distant items and halved, so that each group holds
+	 * items which are close to each other.
+	 */
+	private void bulkPartition(List<IndexItem> items, int from, int to, int groups,
+			List<List<IndexItem>> partition) {
+		if(groups == 1) {
+			partition.add(new ArrayList<IndexItem>(items.subList(from, to)));
+			return;
+		}
+
+		int count = to - from;
+		int firstGroups = groups / 2;
+		int firstCount = firstGroups * (count / groups) + Math.min(firstGroups, count % groups);
+
+		DATA pivot0 = bulkFarthest(items, from, to, items.get(from).data);
+		DATA pivot1 = bulkFarthest(items, from, to, pivot0);
+		final double[] keys = new double[count];
+		Integer[] order = new Integer[count];
+		for(int i = 0; i < count; i++) {
+			DATA data = items.get(from + i).data;
+			keys[i] = distanceFunction.calculate(data, pivot0) - distanceFunction.calculate(data, pivot1);
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer i1, Integer i2) {
+				return Double.compare(keys[i1], keys[i2]);
+			}
+		});
+		List<IndexItem> sorted = new ArrayList<IndexItem>(count);
+		for(int i = 0; i < count; i++) {
+			sorted.add(items.get(from + order[i]));
+		}
+		for(int i = 0; i < count; i++) {
+			items.set(from + i, sorted.get(i));
+		}
+
+		bulkPartition(items, from, from + firstCount, firstGroups, partition);
+		bulkPartition(items, from + firstCount, to, groups - firstGroups, partition);
+	}
+
+	private DATA bulkFarthest(List<IndexItem> items, int from, int to, DATA data) {
+		DATA farthest = data;
+		double farthestDistance = -1;
+		for(int i = from; i < to; i++) {
+			DATA candidate = items.get(i).data;
+			double distance = distanceFunction.calculate(data, candidate);
+			if(distance > farthestDistance) {
+				farthestDistance = distance;
+				farthest = candidate;
+			}
+		}
+		return farthest;
+	}
+
+	/**
+	 * Chooses the routing object of a group as the member which gives the
+	 * group the smallest covering radius.
+	 */
+	private DATA bulkRoutingData(List<IndexItem> group) {
+		DATA best = null;
+		double bestRadius = Double.POSITIVE_INFINITY;
+		for(IndexItem candidate : group) {
+			double radius = 0;
+			for(IndexItem item : group) {
+				radius = Math.max(radius, distanceFunction.calculate(candidate.data, item.data) + item.radius);
+				if(radius >= bestRadius) {
+					break;
+				}
+			}
+			if(radius < bestRadius) {
+				bestRadius = radius;
+				best = candidate.data;
+			}
+		}
+		return best;
+	}
+
+	private void bulkFill(Node node, List<IndexItem> group) {
+		for(IndexItem item : group) {
+			node.putChild(item, distanceFunction.calculate(node.data, item.data));
+		}
 	}
 
 
 	/**
 	 * Removes a data object from the M-Tree.
+	 *
+	 * <p>The object is looked up by identity first, so that of several equal
+	 * indexed objects the given one is removed, and by equality otherwise.
+	 *
 	 * @param data The data object to be removed.
 	 * @return {@code true} if and only if the object was found.
 	 */
@@ -385,9 +632,20 @@ public class MTree<DATA> {
 			return false;
 		}
 		
+		updateCoordinates = coordinatesOf(data);
 		double distanceToRoot = distanceFunction.calculate(data, root.data);
+		boolean removed = removeData(data, distanceToRoot, true)
+		               || removeData(data, distanceToRoot, false);
+		updateCoordinates = null;
+		if(removed) {
+			size--;
+		}
+		return removed;
+	}
+
+	private boolean removeData(DATA data, double distanceToRoot, boolean identity) {
 		try {
-			root.removeData(data, distanceToRoot);
+			root.removeData(data, distanceToRoot, identity);
 		} catch(RootNodeReplacement e) {
 			@SuppressWarnings("unchecked")
 			Node newRoot = (Node) e.newRoot;
@@ -400,6 +658,67 @@ public class MTree<DATA> {
 		return true;
 	}
 
+
+	/**
+	 * Removes a collection of data objects from the M-Tree.
+	 *
+	 * <p>If the objects are at least half of the indexed ones, as when a batch
+	 * of expired objects leaves a window, the remaining objects are collected
+	 * and the tree is bulk loaded again with {@link #addAll(Collection)}.
+	 * Otherwise the objects are removed one by one.
+	 *
+	 * @param data The data objects to be removed.
+	 * @return The number of data objects that were found and removed.
+	 */
+	public int removeAll(Collection<? extends DATA> data) {
+		if(root == null  ||  data.isEmpty()) {
+			return 0;
+		}
+
+		if(2 * data.size() < size) {
+			int removed = 0;
+			for(DATA d : data) {
+				if(remove(d)) {
+					removed++;
+				}
+			}
+			return removed;
+		}
+
+		Set<DATA> pending = Collections.newSetFromMap(new IdentityHashMap<DATA, Boolean>());
+		pending.addAll(data);
+		List<DATA> remaining = new ArrayList<DATA>(size);
+		collectData(root, pending, remaining);
+		// objects that are only equal to indexed ones
+		for(DATA d : pending) {
+			int index = remaining.indexOf(d);
+			if(index >= 0) {
+				remaining.remove(index);
+			}
+		}
+
+		int removed = size - remaining.size();
+		root = null;
+		size = 0;
+		addAll(remaining);
+		return removed;
+	}
+
+	private void collectData(Node node, Set<DATA> excluded, List<DATA> collected) {
+		for(int i = 0; i < node.childCount; i++) {
+			IndexItem child = node.childItems[i];
+			if(child instanceof MTree.Entry) {
+				if(!excluded.remove(child.data)) {
+					collected.add(child.data);
+				}
+			} else {
+				@SuppressWarnings("unchecked")
+				Node childNode = (Node)child;
+				collectData(childNode, excluded, collected);
+			}
+		}
+	}
+
 	/**
 	 * Performs a nearest-neighbors query on the M-Tree, constrained by distance.
 	 * @param queryData The query data object.
@@ -447,21 +766,67 @@ public class MTree<DATA> {
 	
 	
 	protected void _check() {
-		if(root != null) {
+		if(CHECKS_ENABLED  &&  root != null) {
 			root._check();
 		}
 	}
+
+
+	/**
+	 * Returns the tolerance of the pruning tests that compare the given
+	 * distances. Covering radii are sums of distances, so rounding can leave
+	 * them a few ulps below the computed distance of an object they cover,
+	 * as duplicate or grid aligned data objects show. Widening the tests
+	 * only visits a few more nodes, since the distance to each data object is
+	 * still tested exactly.
+	 */
+	private static double roundingSlack(double distance1, double distance2) {
+		return 1e-9 * (distance1 + distance2);
+	}
+
+	private void trackCoordinates(DATA data) {
+		if(coordinateDimensions < 0) {
+			return;
+		}
+		int dimensions = ((EuclideanCoordinate) data).dimensions();
+		if(coordinateDimensions == 0  &&  dimensions > 0) {
+			coordinateDimensions = dimensions;
+		} else if(dimensions != coordinateDimensions) {
+			coordinateDimensions = -1;
+		}
+	}
+
+	/**
+	 * Returns the coordinates of a data object if the nodes keep copies of
+	 * the coordinates of their children, or {@code null} otherwise.
+	 */
+	private double[] coordinatesOf(DATA data) {
+		if(coordinateDimensions <= 0) {
+			return null;
+		}
+		EuclideanCoordinate coordinate = (EuclideanCoordinate) data;
+		if(coordinate.dimensions() != coordinateDimensions) {
+			return null;
+		}
+		double[] coordinates = new double[coordinateDimensions];
+		for(int i = 0; i < coordinateDimensions; i++) {
+			coordinates[i] = coordinate.get(i);
+		}
+		return coordinates;
+	}
 	
 
 	private class IndexItem {
 		DATA data;
 		protected double radius;
 		double distanceToParent;
+		int slot;
 
 		private IndexItem(DATA data) {
 			this.data = data;
 			this.radius = 0;
 			this.distanceToParent = -1;
+			this.slot = -1;
 		}
 
 		int _check() {
@@ -485,10 +850,18 @@ public class MTree<DATA> {
 	
 	private abstract class Node extends IndexItem {
 
-		protected Map<DATA, IndexItem> children = new HashMap<DATA, IndexItem>();
+		// The children and, at the same positions, their distances to the
+		// routing object of this node, their covering radii and, if
+		// coordinateDimensions > 0, their coordinates.
+		protected IndexItem[] childItems;
+		protected double[] childDistances;
+		protected double[] childRadii;
+		protected double[] childCoordinates;
+		protected int childCount;
 		protected Rootness       rootness;
 		protected Leafness<DATA> leafness;
 		
+		@SuppressWarnings("unchecked")
 		private
 		<R extends NodeTrait & Rootness, L extends NodeTrait & Leafness<DATA>>
 		Node(DATA data, R rootness, L leafness) {
@@ -499,6 +872,14 @@ public class MTree<DATA> {
 			
 			leafness.thisNode = this;
 			this.leafness = leafness;
+
+			int capacity = MTree.this.maxNodeCapacity + 1;
+			childItems = new MTree.IndexItem[capacity];
+			childDistances = new double[capacity];
+			childRadii = new double[capacity];
+			if(MTree.this.coordinateDimensions > 0) {
+				childCoordinates = new double[capacity * MTree.this.coordinateDimensions];
+			}
 		}
 
 		private final void addData(DATA data, double distance) throws SplitNodeReplacement {
@@ -512,10 +893,11 @@ public class MTree<DATA> {
 			_checkMaxCapacity();
 
 			int childHeight = -1;
-			for(Map.Entry<DATA, IndexItem> e : children.entrySet()) {
-				DATA data = e.getKey();
-				IndexItem child = e.getValue();
-				assert child.data.equals(data);
+			for(int i = 0; i < childCount; i++) {
+				IndexItem child = childItems[i];
+				assert child.slot == i;
+				assert childDistances[i] == child.distanceToParent;
+				assert childRadii[i] == child.radius;
 
 				_checkChildClass(child);
 				_checkChildMetrics(child);
@@ -535,36 +917,65 @@ public class MTree<DATA> {
 			leafness.doAddData(data, distance);
 		}
 
-		protected void doRemoveData(DATA data, double distance) throws DataNotFound {
-			leafness.doRemoveData(data, distance);
+		protected void doRemoveData(DATA data, double distance, boolean identity) throws DataNotFound {
+			leafness.doRemoveData(data, distance, identity);
 		}
 
 		private final void checkMaxCapacity() throws SplitNodeReplacement {
-			if(children.size() > MTree.this.maxNodeCapacity) {
+			if(childCount > MTree.this.maxNodeCapacity) {
 				DistanceFunction<? super DATA> cachedDistanceFunction = DistanceFunctions.cached(MTree.this.distanceFunction);
-				SplitResult<DATA> splitResult = MTree.this.splitFunction.process(children.keySet(), cachedDistanceFunction);
-				
+				Set<DATA> dataSet = new HashSet<DATA>();
+				for(int i = 0; i < childCount; i++) {
+					dataSet.add(childItems[i].data);
+				}
 				Node newNode0 = null;
 				Node newNode1 = null;
-				for(int i = 0; i < 2; ++i) {
-					DATA promotedData   = splitResult.promoted.get(i);
-					Set<DATA> partition = splitResult.partitions.get(i);
+				if(dataSet.size() < 2) {
+					// All the children have equal data, which the split
+					// function cannot tell apart, so they are simply halved.
+					newNode0 = newSplitNodeReplacement(childItems[0].data);
+					newNode1 = newSplitNodeReplacement(childItems[childCount - 1].data);
+				} else {
+					SplitResult<DATA> splitResult = MTree.this.splitFunction.process(dataSet, cachedDistanceFunction);
 					
-					Node newNode = newSplitNodeReplacement(promotedData);
-					for(DATA data : partition) {
-						IndexItem child = children.get(data);
-						children.remove(data);
-						double distance = cachedDistanceFunction.calculate(promotedData, data);
-						newNode.addChild(child, distance);
+					for(int i = 0; i < 2; ++i) {
+						DATA promotedData   = splitResult.promoted.get(i);
+						Set<DATA> partition = splitResult.partitions.get(i);
+						
+						Node newNode = newSplitNodeReplacement(promotedData);
+						for(DATA data : partition) {
+							IndexItem child = removeChildAt(indexOfChild(data));
+							double distance = cachedDistanceFunction.calculate(promotedData, data);
+							newNode.addChild(child, distance);
+						}
+
+						if(i == 0) {
+							newNode0 = newNode;
+						} else {
+							newNode1 = newNode;
+						}
 					}
+				}
 
-					if(i == 0) {
-						newNode0 = newNode;
+				// Children with equal data share one element of the data set,
+				// so the ones left over go to the nearest promoted data, unless
+				// the other new node still lacks its minimum capacity.
+				while(childCount > 0) {
+					IndexItem child = removeChildAt(childCount - 1);
+					double distance0 = cachedDistanceFunction.calculate(newNode0.data, child.data);
+					double distance1 = cachedDistanceFunction.calculate(newNode1.data, child.data);
+					boolean toNode0 = (distance0 <= distance1);
+					if(newNode0.childCount < newNode0.getMinCapacity()) {
+						toNode0 = true;
+					} else if(newNode1.childCount < newNode1.getMinCapacity()) {
+						toNode0 = false;
+					}
+					if(toNode0) {
+						newNode0.addChild(child, distance0);
 					} else {
-						newNode1 = newNode;
+						newNode1.addChild(child, distance1);
 					}
 				}
-				assert children.isEmpty();
 
 				throw new SplitNodeReplacement(newNode0, newNode1);
 			}
@@ -579,9 +990,9 @@ public class MTree<DATA> {
 			leafness.addChild(child, distance);
 		}
 
-		void removeData(DATA data, double distance) throws RootNodeReplacement, NodeUnderCapacity, DataNotFound {
-			doRemoveData(data, distance);
-			if(children.size() < getMinCapacity()) {
+		void removeData(DATA data, double distance, boolean identity) throws RootNodeReplacement, NodeUnderCapacity, DataNotFound {
+			doRemoveData(data, distance, identity);
+			if(childCount < getMinCapacity()) {
 				throw new NodeUnderCapacity();
 			}
 		}
@@ -590,14 +1001,102 @@ public class MTree<DATA> {
 			return rootness.getMinCapacity();
 		}
 
+		private void putChild(IndexItem child, double distance) {
+			if(childCount == childItems.length) {
+				int capacity = 2 * childItems.length;
+				childItems = Arrays.copyOf(childItems, capacity);
+				childDistances = Arrays.copyOf(childDistances, capacity);
+				childRadii = Arrays.copyOf(childRadii, capacity);
+				if(childCoordinates != null) {
+					childCoordinates = Arrays.copyOf(childCoordinates, capacity * MTree.this.coordinateDimensions);
+				}
+			}
+
+			int i = childCount++;
+			childItems[i] = child;
+			child.slot = i;
+			if(childCoordinates != null  &&  MTree.this.coordinateDimensions > 0) {
+				EuclideanCoordinate coordinate = (EuclideanCoordinate) child.data;
+				int offset = i * MTree.this.coordinateDimensions;
+				for(int j = 0; j < MTree.this.coordinateDimensions; j++) {
+					childCoordinates[offset + j] = coordinate.get(j);
+				}
+			}
+			updateMetrics(child, distance);
+		}
+
+		private IndexItem removeChildAt(int i) {
+			IndexItem child = childItems[i];
+			int last = --childCount;
+			if(i < last) {
+				childItems[i] = childItems[last];
+				childItems[i].slot = i;
+				childDistances[i] = childDistances[last];
+				childRadii[i] = childRadii[last];
+				if(childCoordinates != null  &&  MTree.this.coordinateDimensions > 0) {
+					int dimensions = MTree.this.coordinateDimensions;
+					System.arraycopy(childCoordinates, last * dimensions, childCoordinates, i * dimensions, dimensions);
+				}
+			}
+			childItems[last] = null;
+			child.slot = -1;
+			return child;
+		}
+
+		private void clearChildren() {
+			Arrays.fill(childItems, 0, childCount, null);
+			childCount = 0;
+		}
+
+		/**
+		 * Returns the position of the child whose data is the given object,
+		 * or else is equal to it, or -1 if there is none.
+		 */
+		private int indexOfChild(DATA data) {
+			int i = indexOfChild(data, true);
+			return (i >= 0) ? i : indexOfChild(data, false);
+		}
+
+		private int indexOfChild(DATA data, boolean identity) {
+			for(int i = 0; i < childCount; i++) {
+				DATA childData = childItems[i].data;
+				if(identity ? childData == data : childData.equals(data)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * Calculates the distance from a data object to the {@code i}-th
+		 * child, using the copied coordinates when they are given for the
+		 * data object.
+		 */
+		private double distanceToChild(int i, DATA data, double[] coordinates) {
+			if(coordinates != null  &&  childCoordinates != null) {
+				int offset = i * coordinates.length;
+				double distance = 0;
+				for(int j = 0; j < coordinates.length; j++) {
+					double diff = coordinates[j] - childCoordinates[offset + j];
+					distance += diff * diff;
+				}
+				return Math.sqrt(distance);
+			}
+			return MTree.this.distanceFunction.calculate(data, childItems[i].data);
+		}
+
 		private void updateMetrics(IndexItem child, double distance) {
 			child.distanceToParent = distance;
+			childDistances[child.slot] = distance;
 			updateRadius(child);
 		}
 
 		private void updateRadius(IndexItem child) {
-                        if (child != null) // ### added by mits
+                        if (child != null) { // ### added by mits
+                            if (child.slot >= 0 && child.slot < childCount && childItems[child.slot] == child)
+                                childRadii[child.slot] = child.radius;
                             this.radius = Math.max(this.radius, child.distanceToParent + child.radius);
+                        }
 		}
 
 		void _checkMinCapacity() {
@@ -605,7 +1104,7 @@ public class MTree<DATA> {
 		}
 
 		private void _checkMaxCapacity() {
-			assert children.size() <= MTree.this.maxNodeCapacity;
+			assert childCount <= MTree.this.maxNodeCapacity;
 		}
 
 		private void _checkChildClass(IndexItem child) {
@@ -639,7 +1138,7 @@ public class MTree<DATA> {
 	private interface Leafness<DATA> {
 		void doAddData(DATA data, double distance);
 		void addChild(MTree<DATA>.IndexItem child, double distance);
-		void doRemoveData(DATA data, double distance) throws DataNotFound;
+		void doRemoveData(DATA data, double distance, boolean identity) throws DataNotFound;
 		MTree<DATA>.Node newSplitNodeReplacement(DATA data);
 		void _checkChildClass(MTree<DATA>.IndexItem child);
 	}
@@ -681,7 +1180,7 @@ public class MTree<DATA> {
 		
 		@Override
 		public void _checkMinCapacity() {
-			assert thisNode.children.size() >= thisNode.mtree().minNodeCapacity;
+			assert thisNode.childCount >= thisNode.mtree().minNodeCapacity;
 		}
 		
 		@Override
@@ -695,17 +1194,11 @@ public class MTree<DATA> {
 		
 		public void doAddData(DATA data, double distance) {
 			Entry entry = thisNode.mtree().new Entry(data);
-			assert !thisNode.children.containsKey(data);
-			thisNode.children.put(data, entry);
-			assert thisNode.children.containsKey(data);
-			thisNode.updateMetrics(entry, distance);
+			thisNode.putChild(entry, distance);
 		}
 
 		public void addChild(IndexItem child, double distance) {
-			assert !thisNode.children.containsKey(child.data);
-			thisNode.children.put(child.data, child);
-			assert thisNode.children.containsKey(child.data);
-			thisNode.updateMetrics(child, distance);
+			thisNode.putChild(child, distance);
 		}
 		
 		public Node newSplitNodeReplacement(DATA data) {
@@ -714,10 +1207,12 @@ public class MTree<DATA> {
 		
 
 		@Override
-		public void doRemoveData(DATA data, double distance) throws DataNotFound {
-			if(thisNode.children.remove(data) == null) {
+		public void doRemoveData(DATA data, double distance, boolean identity) throws DataNotFound {
+			int i = thisNode.indexOfChild(data, identity);
+			if(i < 0) {
 				throw new DataNotFound();
 			}
+			thisNode.removeChildAt(i);
 		}
 
 		public void _checkChildClass(IndexItem child) {
@@ -729,48 +1224,42 @@ public class MTree<DATA> {
 	class NonLeafNodeTrait extends NodeTrait implements Leafness<DATA> {
 		
 		public void doAddData(DATA data, double distance) {
-			class CandidateChild {
-				Node node;
-				double distance;
-				double metric;
-				private CandidateChild(Node node, double distance, double metric) {
-					this.node = node;
-					this.distance = distance;
-					this.metric = metric;
-				}
-			}
+			double[] coordinates = thisNode.mtree().updateCoordinates;
 			
-			CandidateChild minRadiusIncreaseNeeded = new CandidateChild(null, -1.0, Double.POSITIVE_INFINITY);
-			CandidateChild nearestDistance         = new CandidateChild(null, -1.0, Double.POSITIVE_INFINITY);
+			Node minRadiusIncreaseNeeded = null;
+			double minRadiusIncreaseDistance = -1.0;
+			double minRadiusIncrease = Double.POSITIVE_INFINITY;
+			Node nearest = null;
+			double nearestDistance = Double.POSITIVE_INFINITY;
 			
-			for(IndexItem item : thisNode.children.values()) {
+			for(int i = 0; i < thisNode.childCount; i++) {
 				@SuppressWarnings("unchecked")
-				Node child = (Node)item;
-				double childDistance = thisNode.mtree().distanceFunction.calculate(child.data, data);
-				if(childDistance > child.radius) {
-					double radiusIncrease = childDistance - child.radius;
-					if(radiusIncrease < minRadiusIncreaseNeeded.metric) {
-						minRadiusIncreaseNeeded = new CandidateChild(child, childDistance, radiusIncrease);
+				Node child = (Node)thisNode.childItems[i];
+				double childDistance = thisNode.distanceToChild(i, data, coordinates);
+				double childRadius = thisNode.childRadii[i];
+				if(childDistance > childRadius) {
+					double radiusIncrease = childDistance - childRadius;
+					if(radiusIncrease < minRadiusIncrease) {
+						minRadiusIncreaseNeeded = child;
+						minRadiusIncreaseDistance = childDistance;
+						minRadiusIncrease = radiusIncrease;
 					}
 				} else {
-					if(childDistance < nearestDistance.metric) {
-						nearestDistance = new CandidateChild(child, childDistance, childDistance);
+					if(childDistance < nearestDistance) {
+						nearest = child;
+						nearestDistance = childDistance;
 					}
 				}
 			}
 			
-			CandidateChild chosen = (nearestDistance.node != null)
-			                      ? nearestDistance
-			                      : minRadiusIncreaseNeeded;
-			
-			Node child = chosen.node;
+			Node child = (nearest != null) ? nearest : minRadiusIncreaseNeeded;
+			double childDistance = (nearest != null) ? nearestDistance : minRadiusIncreaseDistance;
 			try {
-				child.addData(data, chosen.distance);
+				child.addData(data, childDistance);
 				thisNode.updateRadius(child);
 			} catch(SplitNodeReplacement e) {
 				// Replace current child with new nodes
-				IndexItem ii = thisNode.children.remove(child.data);
-				assert ii != null;
+				thisNode.removeChildAt(child.slot);
 				
 				for(int i = 0; i < e.newNodes.length; ++i) {
 					@SuppressWarnings("unchecked")
@@ -803,22 +1292,26 @@ public class MTree<DATA> {
 				
 				newChild = cwd.child;
 				distance = cwd.distance;
-				if(thisNode.children.containsKey(newChild.data)) {
+				// Only a node promoted from the same data object is merged;
+				// siblings may have equal but distinct routing objects.
+				int existingIndex = thisNode.indexOfChild(newChild.data, true);
+				if(existingIndex >= 0) {
 					@SuppressWarnings("unchecked")
-					Node existingChild = (Node) thisNode.children.get(newChild.data);
-					assert existingChild.data.equals(newChild.data);
+					Node existingChild = (Node) thisNode.childItems[existingIndex];
+					assert existingChild.data == newChild.data;
 					
 					// Transfer the _children_ of the newChild to the existingChild
-					for(IndexItem grandchild : newChild.children.values()) {
+					for(int i = 0; i < newChild.childCount; i++) {
+						IndexItem grandchild = newChild.childItems[i];
 						existingChild.addChild(grandchild, grandchild.distanceToParent);
 					}
-					newChild.children.clear();
+					newChild.clearChildren();
 					
 					try {
 						existingChild.checkMaxCapacity();
+						thisNode.updateRadius(existingChild);
 					} catch(SplitNodeReplacement e) {
-						IndexItem ii = thisNode.children.remove(existingChild.data);
-						assert ii != null;
+						thisNode.removeChildAt(existingChild.slot);
 						
 						for(int i = 0; i < e.newNodes.length; ++i) {
 							@SuppressWarnings("unchecked")
@@ -828,8 +1321,7 @@ public class MTree<DATA> {
 						}
 					}
 				} else {
-					thisNode.children.put(newChild.data, newChild);
-					thisNode.updateMetrics(newChild, distance);
+					thisNode.putChild(newChild, distance);
 				}
 			}
 		}
@@ -840,15 +1332,18 @@ public class MTree<DATA> {
 		}
 
 
-		public void doRemoveData(DATA data, double distance) throws DataNotFound {
-			for(IndexItem childItem : thisNode.children.values()) {
-				@SuppressWarnings("unchecked")
-				Node child = (Node)childItem;
-				if(Math.abs(distance - child.distanceToParent) <= child.radius) {
-					double distanceToChild = thisNode.mtree().distanceFunction.calculate(data, child.data);
-					if(distanceToChild <= child.radius) {
+		public void doRemoveData(DATA data, double distance, boolean identity) throws DataNotFound {
+			double[] coordinates = thisNode.mtree().updateCoordinates;
+			for(int i = 0; i < thisNode.childCount; i++) {
+				double childRadius = thisNode.childRadii[i];
+				double childDistanceToParent = thisNode.childDistances[i];
+				if(Math.abs(distance - childDistanceToParent) <= childRadius + roundingSlack(distance, childDistanceToParent + childRadius)) {
+					double distanceToChild = thisNode.distanceToChild(i, data, coordinates);
+					if(distanceToChild <= childRadius + roundingSlack(distanceToChild, childRadius)) {
+						@SuppressWarnings("unchecked")
+						Node child = (Node)thisNode.childItems[i];
 						try {
-							child.removeData(data, distanceToChild);
+							child.removeData(data, distanceToChild, identity);
 							thisNode.updateRadius(child);
 							return;
 						} catch(DataNotFound e) {
@@ -877,13 +1372,13 @@ public class MTree<DATA> {
 			Node nearestMergeCandidate = null;
 			double distanceNearestMergeCandidate = Double.POSITIVE_INFINITY;
 
-			for(IndexItem child : thisNode.children.values()) {
+			for(int i = 0; i < thisNode.childCount; i++) {
 				@SuppressWarnings("unchecked")
-				Node anotherChild = (Node)child;
+				Node anotherChild = (Node)thisNode.childItems[i];
 				if(anotherChild == theChild) continue;
 
 				double distance = thisNode.mtree().distanceFunction.calculate(theChild.data, anotherChild.data);
-				if(anotherChild.children.size() > anotherChild.getMinCapacity()) {
+				if(anotherChild.childCount > anotherChild.getMinCapacity()) {
 					if(distance < distanceNearestDonor) {
 						distanceNearestDonor = distance;
 						nearestDonor = anotherChild;
@@ -898,39 +1393,32 @@ public class MTree<DATA> {
 
 			if(nearestDonor == null) {
 				// Merge
-				for(IndexItem grandchild : theChild.children.values()) {
-                                    //if (thisNode == null) System.out.println("thisNode is null");
-                                    //if (thisNode.mtree() == null) System.out.println("thisNode.mtree() is null");
-                                    //if (grandchild == null) System.out.println("grandchild is null");
-                                    //if (grandchild.data == null) System.out.println("grandchild.data is null");                                
-                                    //if (nearestMergeCandidate == null) System.out.println("nearestMergeCandidate is null");                                
-                                    //if (nearestMergeCandidate.data == null) System.out.println("nearestMergeCandidate.data is null");
-
+				for(int i = 0; i < theChild.childCount; i++) {
+                                    IndexItem grandchild = theChild.childItems[i];
                                     if (nearestMergeCandidate != null) { // ### added by mits
                                         double distance = thisNode.mtree().distanceFunction.calculate(grandchild.data, nearestMergeCandidate.data);
                                         nearestMergeCandidate.addChild(grandchild, distance); 
                                     }                                    
 				}
 
-				IndexItem removed = thisNode.children.remove(theChild.data);
-				assert removed != null;
+				thisNode.removeChildAt(theChild.slot);
 				return nearestMergeCandidate;
 			} else {
 				// Donate
 				// Look for the nearest grandchild
-				IndexItem nearestGrandchild = null;
+				int nearestGrandchild = -1;
 				double nearestGrandchildDistance = Double.POSITIVE_INFINITY;
-				for(IndexItem grandchild : nearestDonor.children.values()) {
+				for(int i = 0; i < nearestDonor.childCount; i++) {
+					IndexItem grandchild = nearestDonor.childItems[i];
 					double distance = thisNode.mtree().distanceFunction.calculate(grandchild.data, theChild.data);
 					if(distance < nearestGrandchildDistance) {
 						nearestGrandchildDistance = distance;
-						nearestGrandchild = grandchild;
+						nearestGrandchild = i;
 					}
 				}
 
-				IndexItem ii = nearestDonor.children.remove(nearestGrandchild.data);
-				assert ii != null;
-				theChild.addChild(nearestGrandchild, nearestGrandchildDistance);
+				IndexItem grandchild = nearestDonor.removeChildAt(nearestGrandchild);
+				theChild.addChild(grandchild, nearestGrandchildDistance);
 				return theChild;
 			}
 		}
@@ -949,11 +1437,11 @@ public class MTree<DATA> {
 			super(data, new RootNodeTrait(), new LeafNodeTrait());
 		}
 		
-		void removeData(DATA data, double distance) throws RootNodeReplacement, DataNotFound {
+		void removeData(DATA data, double distance, boolean identity) throws RootNodeReplacement, DataNotFound {
 			try {
-				super.removeData(data, distance);
+				super.removeData(data, distance, identity);
 			} catch (NodeUnderCapacity e) {
-				assert children.isEmpty();
+				assert childCount == 0;
 				throw new RootNodeReplacement(null);
 			}
 		}
@@ -963,7 +1451,7 @@ public class MTree<DATA> {
 		}
 
 		void _checkMinCapacity() {
-			assert children.size() >= 1;
+			assert childCount >= 1;
 		}
 	}
 
@@ -973,13 +1461,13 @@ public class MTree<DATA> {
 			super(data, new RootNodeTrait(), new NonLeafNodeTrait());
 		}
 		
-		void removeData(DATA data, double distance) throws RootNodeReplacement, NodeUnderCapacity, DataNotFound {
+		void removeData(DATA data, double distance, boolean identity) throws RootNodeReplacement, NodeUnderCapacity, DataNotFound {
 			try {
-				super.removeData(data, distance);
+				super.removeData(data, distance, identity);
 			} catch(NodeUnderCapacity e) {
 				// Promote the only child to root
 				@SuppressWarnings("unchecked")
-				Node theChild = (Node)(children.values().iterator().next());
+				Node theChild = (Node)childItems[0];
 				Node newRoot;
 				if(theChild instanceof MTree.InternalNode) {
 					newRoot = new RootNode(theChild.data);
@@ -988,11 +1476,12 @@ public class MTree<DATA> {
 					newRoot = new RootLeafNode(theChild.data);
 				}
 
-				for(IndexItem grandchild : theChild.children.values()) {
+				for(int i = 0; i < theChild.childCount; i++) {
+					IndexItem grandchild = theChild.childItems[i];
 					distance = MTree.this.distanceFunction.calculate(newRoot.data, grandchild.data);
 					newRoot.addChild(grandchild, distance);
 				}
-				theChild.children.clear();
+				theChild.clearChildren();
 
 				throw new RootNodeReplacement(newRoot);
 			}
@@ -1006,7 +1495,7 @@ public class MTree<DATA> {
 		
 		@Override
 		void _checkMinCapacity() {
-			assert children.size() >= 2;
+			assert childCount >= 2;
 		}
 	}
 
@@ -17,7 +17,7 @@
 package moa.clusterers.outliers.utils.mtree;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
@@ -72,27 +72,8 @@ public final class PartitionFunctions {
 				final DistanceFunction<? super DATA> distanceFunction
 			)
 		{
-			List<DATA> queue1 = new ArrayList<DATA>(dataSet);
-			// Sort by distance to the first promoted data
-			Collections.sort(queue1, new Comparator<DATA>() {
-				@Override
-				public int compare(DATA data1, DATA data2) {
-					double distance1 = distanceFunction.calculate(data1, promoted.first);
-					double distance2 = distanceFunction.calculate(data2, promoted.first);
-					return Double.compare(distance1, distance2);
-				}
-			});
-			
-			List<DATA> queue2 = new ArrayList<DATA>(dataSet);
-			// Sort by distance to the second promoted data
-			Collections.sort(queue2, new Comparator<DATA>() {
-				@Override
-				public int compare(DATA data1, DATA data2) {
-					double distance1 = distanceFunction.calculate(data1, promoted.second);
-					double distance2 = distanceFunction.calculate(data2, promoted.second);
-					return Double.compare(distance1, distance2);
-				}
-			});
+			List<DATA> queue1 = sortByDistance(dataSet, promoted.first, distanceFunction);
+			List<DATA> queue2 = sortByDistance(dataSet, promoted.second, distanceFunction);
 			
 			Pair<Set<DATA>> partitions = new Pair<Set<DATA>>(new HashSet<DATA>(), new HashSet<DATA>());
 			
@@ -119,5 +100,35 @@ public final class PartitionFunctions {
 			
 			return partitions;
 		}
+		
+		/**
+		 * Sorts the data objects by distance to {@code origin}. Each distance
+		 * is calculated once, rather than on every comparison of the sort.
+		 */
+		private static <DATA> List<DATA> sortByDistance(
+				Set<DATA> dataSet,
+				DATA origin,
+				DistanceFunction<? super DATA> distanceFunction
+			)
+		{
+			List<DATA> list = new ArrayList<DATA>(dataSet);
+			final double[] distances = new double[list.size()];
+			Integer[] order = new Integer[list.size()];
+			for(int i = 0; i < distances.length; i++) {
+				distances[i] = distanceFunction.calculate(list.get(i), origin);
+				order[i] = i;
+			}
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer i1, Integer i2) {
+					return Double.compare(distances[i1], distances[i2]);
+				}
+			});
+			List<DATA> sorted = new ArrayList<DATA>(distances.length);
+			for(Integer i : order) {
+				sorted.add(list.get(i));
+			}
+			return sorted;
+		}
 	}
 }
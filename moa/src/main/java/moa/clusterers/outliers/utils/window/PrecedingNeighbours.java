@@ -0,0 +1,131 @@
+/*
+ *    PrecedingNeighbours.java
+ *    Copyright (C) 2013 Aristotle University of Thessaloniki, Greece
+ *    @author D. Georgiadis, A. Gounaris, A. Papadopoulos, K. Tsichlas, Y. Manolopoulos
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *    
+ *    
+ */
+
+package moa.clusterers.outliers.utils.window;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * The preceding neighbours of a node, kept ascending by id. The ids are held
+ * in a primitive array so that the queries by id do not allocate. The list
+ * view is read-only, use {@link #insert} and {@link #delete} to modify it.
+ */
+public class PrecedingNeighbours<N extends WindowNode> extends AbstractList<N> implements RandomAccess {
+    private long[] ids = new long[4];
+    private Object[] nodes = new Object[4];
+    private int size;
+    
+    @Override
+    public int size() {
+        return size;
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")
+    public N get(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return (N) nodes[index];
+    }
+    
+    /**
+     * Adds the node, unless a node with the same id is already present.
+     */
+    public void insert(N node) {
+        int pos = search(node.id);
+        if (pos < 0) {
+            // item does not exist, so add it to the right position
+            pos = -(pos + 1);
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, 2 * size);
+                nodes = Arrays.copyOf(nodes, 2 * size);
+            }
+            System.arraycopy(ids, pos, ids, pos + 1, size - pos);
+            System.arraycopy(nodes, pos, nodes, pos + 1, size - pos);
+            ids[pos] = node.id;
+            nodes[pos] = node;
+            size++;
+            modCount++;
+        }
+    }
+    
+    /**
+     * Adds the node, keeping at most the given number of neighbours with the 
+     * greatest ids. As neighbours expire in order of id, the dropped ones 
+     * cannot change whether the node has that many neighbours in the window.
+     */
+    public void insert(N node, int limit) {
+        if (size >= limit && (size == 0 || node.id < ids[0])) {
+            return; // would be dropped at once
+        }
+        insert(node);
+        while (size > limit) {
+            System.arraycopy(ids, 1, ids, 0, size - 1);
+            System.arraycopy(nodes, 1, nodes, 0, size - 1);
+            nodes[--size] = null;
+        }
+    }
+    
+    /**
+     * Removes the node with the id of the given one, if present.
+     */
+    public void delete(N node) {
+        int pos = search(node.id);
+        if (pos >= 0) {
+            // item exists
+            System.arraycopy(ids, pos + 1, ids, pos, size - pos - 1);
+            System.arraycopy(nodes, pos + 1, nodes, pos, size - pos - 1);
+            nodes[--size] = null;
+            modCount++;
+        }
+    }
+    
+    /**
+     * Returns the node with the smallest id >= sinceId, or null if none.
+     */
+    @SuppressWarnings("unchecked")
+    public N firstSince(long sinceId) {
+        int startPos = startPosition(sinceId);
+        return startPos < size ? (N) nodes[startPos] : null;
+    }
+    
+    /**
+     * Returns the number of nodes with id >= sinceId.
+     */
+    public int countSince(long sinceId) {
+        return size - startPosition(sinceId);
+    }
+    
+    private int startPosition(long sinceId) {
+        if (size == 0 || ids[0] >= sinceId) {
+            return 0; // none expired
+        }
+        int pos = search(sinceId);
+        // if the item does not exist, it should be inserted at startPos
+        return pos < 0 ? -(pos + 1) : pos;
+    }
+    
+    private int search(long id) {
+        return Arrays.binarySearch(ids, 0, size, id);
+    }
+}
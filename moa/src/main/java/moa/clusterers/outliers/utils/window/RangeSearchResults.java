@@ -0,0 +1,130 @@
+/*
+ *    RangeSearchResults.java
+ *    Copyright (C) 2013 Aristotle University of Thessaloniki, Greece
+ *    @author D. Georgiadis, A. Gounaris, A. Papadopoulos, K. Tsichlas, Y. Manolopoulos
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *    
+ *    
+ */
+
+package moa.clusterers.outliers.utils.window;
+
+import java.util.Arrays;
+
+/**
+ * The result of a range query on a {@link WindowIndex}: the nodes found, in 
+ * no particular order, and their distances from the query. The buffer is 
+ * owned by the index and reused by its next range query.
+ */
+public class RangeSearchResults<N extends WindowNode> {
+    private Object[] nodes = new Object[16];
+    private double[] distances = new double[16];
+    private int size;
+    
+    // merge buffers
+    private Object[] tmpNodes = new Object[0];
+    private double[] tmpDistances = new double[0];
+    
+    public int size() {
+        return size;
+    }
+    
+    @SuppressWarnings("unchecked")
+    public N getNode(int i) {
+        return (N) nodes[i];
+    }
+    
+    public double getDistance(int i) {
+        return distances[i];
+    }
+    
+    void clear() {
+        Arrays.fill(nodes, 0, size, null);
+        size = 0;
+    }
+    
+    void add(WindowNode node, double distance) {
+        if (size == nodes.length) {
+            nodes = Arrays.copyOf(nodes, 2 * size);
+            distances = Arrays.copyOf(distances, 2 * size);
+        }
+        nodes[size] = node;
+        distances[size] = distance;
+        size++;
+    }
+    
+    /**
+     * Sorts the results ascending by distance, breaking ties by node id.
+     */
+    public void sortByDistance() {
+        if (size < 2) {
+            return;
+        }
+        if (tmpNodes.length < nodes.length) {
+            tmpNodes = new Object[nodes.length];
+            tmpDistances = new double[nodes.length];
+        }
+        mergeSort(0, size);
+        Arrays.fill(tmpNodes, 0, size, null);
+    }
+    
+    private void mergeSort(int from, int to) {
+        if (to - from < 16) {
+            // insertion sort on the short runs
+            for (int i = from + 1; i < to; i++) {
+                Object n = nodes[i];
+                double d = distances[i];
+                int j = i - 1;
+                while (j >= from && before(d, n, distances[j], nodes[j])) {
+                    nodes[j + 1] = nodes[j];
+                    distances[j + 1] = distances[j];
+                    j--;
+                }
+                nodes[j + 1] = n;
+                distances[j + 1] = d;
+            }
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        mergeSort(from, mid);
+        mergeSort(mid, to);
+        if (!before(distances[mid], nodes[mid], distances[mid - 1], nodes[mid - 1])) {
+            return; // already in order
+        }
+        System.arraycopy(nodes, from, tmpNodes, from, to - from);
+        System.arraycopy(distances, from, tmpDistances, from, to - from);
+        int i = from, j = mid, k = from;
+        while (i < mid && j < to) {
+            if (before(tmpDistances[j], tmpNodes[j], tmpDistances[i], tmpNodes[i])) {
+                nodes[k] = tmpNodes[j];
+                distances[k++] = tmpDistances[j++];
+            } else {
+                nodes[k] = tmpNodes[i];
+                distances[k++] = tmpDistances[i++];
+            }
+        }
+        while (i < mid) {
+            nodes[k] = tmpNodes[i];
+            distances[k++] = tmpDistances[i++];
+        }
+        // the remainder of the right half is already in place
+    }
+    
+    private static boolean before(double d1, Object n1, double d2, Object n2) {
+        if (d1 != d2) {
+            return d1 < d2;
+        }
+        return ((WindowNode) n1).id < ((WindowNode) n2).id;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ *    SlidingWindow.java
+ *    Copyright (C) 2013 Aristotle University of Thessaloniki, Greece
+ *    @author D. Georgiadis, A. Gounaris, A. Papadopoulos, K. Tsichlas, Y. Manolopoulos
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *    
+ *    
+ */
+
+package moa.clusterers.outliers.utils.window;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * The nodes of a sliding window, in order of arrival, held in a ring buffer. 
+ * Nodes are appended with ascending ids, so that the removal of an arbitrary 
+ * node finds it by binary search; removing the oldest node takes constant 
+ * time.
+ */
+public class SlidingWindow<N extends WindowNode> extends AbstractList<N> implements RandomAccess {
+    private Object[] nodes = new Object[16];
+    private int head;
+    private int size;
+    
+    @Override
+    public int size() {
+        return size;
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")
+    public N get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return (N) nodes[position(index)];
+    }
+    
+    /**
+     * Appends the node, whose id must be greater than those in the window.
+     */
+    @Override
+    public boolean add(N node) {
+        if (size == nodes.length) {
+            Object[] grown = new Object[2 * size];
+            for (int i = 0; i < size; i++) {
+                grown[i] = nodes[position(i)];
+            }
+            nodes = grown;
+            head = 0;
+        }
+        nodes[position(size)] = node;
+        size++;
+        modCount++;
+        return true;
+    }
+    
+    @Override
+    public boolean remove(Object o) {
+        if (!(o instanceof WindowNode)) {
+            return false;
+        }
+        int index = indexOf(o);
+        if (index < 0) {
+            return false;
+        }
+        remove(index);
+        return true;
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")
+    public N remove(int index) {
+        N node = get(index);
+        // shift the shorter side of the window over the removed node
+        if (index < size / 2) {
+            for (int i = index; i > 0; i--) {
+                nodes[position(i)] = nodes[position(i - 1)];
+            }
+            nodes[head] = null;
+            head = position(1);
+        } else {
+            for (int i = index; i < size - 1; i++) {
+                nodes[position(i)] = nodes[position(i + 1)];
+            }
+            nodes[position(size - 1)] = null;
+        }
+        size--;
+        modCount++;
+        return node;
+    }
+    
+    @Override
+    public int indexOf(Object o) {
+        if (!(o instanceof WindowNode)) {
+            return -1;
+        }
+        long id = ((WindowNode) o).id;
+        int low = 0, high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midId = ((WindowNode) nodes[position(mid)]).id;
+            if (midId < id) {
+                low = mid + 1;
+            } else if (midId > id) {
+                high = mid - 1;
+            } else {
+                return nodes[position(mid)] == o ? mid : -1;
+            }
+        }
+        return -1;
+    }
+    
+    @Override
+    public void clear() {
+        Arrays.fill(nodes, null);
+        head = 0;
+        size = 0;
+        modCount++;
+    }
+    
+    private int position(int index) {
+        int p = head + index;
+        return p < nodes.length ? p : p - nodes.length;
+    }
+}
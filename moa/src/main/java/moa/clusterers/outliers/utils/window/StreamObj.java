@@ -18,7 +18,7 @@
  *    
  */
 
-package moa.clusterers.outliers.SimpleCOD;
+package moa.clusterers.outliers.utils.window;
 
 import moa.clusterers.outliers.utils.mtree.DistanceFunctions.EuclideanCoordinate;
 
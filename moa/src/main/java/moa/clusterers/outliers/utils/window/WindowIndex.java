@@ -0,0 +1,346 @@
+/*
+ *    WindowIndex.java
+ *    Copyright (C) 2013 Aristotle University of Thessaloniki, Greece
+ *    @author D. Georgiadis, A. Gounaris, A. Papadopoulos, K. Tsichlas, Y. Manolopoulos
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *    
+ *    
+ */
+
+package moa.clusterers.outliers.utils.window;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Index of the stream objects of a sliding window, answering range queries 
+ * under the euclidean distance. 
+ * 
+ * The coordinates are copied into a primitive array, one slot per node, and 
+ * the slots of removed nodes are reused. The slots are hashed into a uniform 
+ * grid over the first (up to four) dimensions, with cells as wide as the 
+ * radius of the index, so that a range query only visits the cells 
+ * overlapping its bounding box. Queries whose box spans more cells than 
+ * there are nodes scan the window instead. 
+ * 
+ * A node can be held by only one index at a time.
+ */
+public class WindowIndex<N extends WindowNode> {
+    // maximum number of dimensions hashed into the grid
+    private static final int GRID_DIMENSIONS = 4;
+    
+    private static final int UNUSED = -2;
+    private static final int EMPTY = -1;
+    
+    private final double cellSize;
+    private final boolean useGrid;
+    private int dim = -1;
+    private int gridDim;
+    
+    // slots
+    private double[] coords = new double[0];
+    private Object[] nodes = new Object[0];
+    private int[] freeSlots = new int[0];
+    private int nFreeSlots;
+    private int slotLimit;
+    private int size;
+    
+    // grid cells, open addressing on the cell keys
+    private long[] cellKeys;
+    private int[] cellHeads;
+    private int[] cellStamps;
+    private int cellsUsed;
+    private int cellsNonEmpty;
+    private int stamp;
+    
+    // cell membership of the slots, as doubly linked lists
+    private long[] slotKeys = new long[0];
+    private int[] slotCells = new int[0];
+    private int[] slotNext = new int[0];
+    private int[] slotPrev = new int[0];
+    
+    // query buffers
+    private final RangeSearchResults<N> results = new RangeSearchResults<N>();
+    private double[] query = new double[0];
+    private final long[] lo = new long[GRID_DIMENSIONS];
+    private final long[] hi = new long[GRID_DIMENSIONS];
+    private final long[] cell = new long[GRID_DIMENSIONS];
+    
+    /**
+     * @param radius the radius of the range queries, used as the grid cell width
+     */
+    public WindowIndex(double radius) {
+        this.cellSize = radius;
+        this.useGrid = radius > 0 && !Double.isInfinite(radius);
+        if (useGrid) {
+            allocateCells(64);
+        }
+    }
+    
+    public int Size() {
+        return size;
+    }
+    
+    /**
+     * Returns the indexed nodes, in no particular order.
+     */
+    @SuppressWarnings("unchecked")
+    public List<N> GetAllNodes() {
+        List<N> list = new ArrayList<N>(size);
+        for (int slot = 0; slot < slotLimit; slot++) {
+            if (nodes[slot] != null) {
+                list.add((N) nodes[slot]);
+            }
+        }
+        return list;
+    }
+    
+    public void Insert(N node) {
+        if (node.slot >= 0) {
+            return; // already indexed
+        }
+        if (dim < 0) {
+            dim = node.obj.dimensions();
+            gridDim = Math.min(dim, GRID_DIMENSIONS);
+            query = new double[dim];
+        }
+        int slot = nFreeSlots > 0 ? freeSlots[--nFreeSlots] : newSlot();
+        for (int i = 0; i < dim; i++) {
+            coords[slot * dim + i] = node.obj.get(i);
+        }
+        nodes[slot] = node;
+        node.slot = slot;
+        size++;
+        
+        if (useGrid) {
+            for (int i = 0; i < gridDim; i++) {
+                cell[i] = cellCoordinate(coords[slot * dim + i]);
+            }
+            slotKeys[slot] = cellKey(cell);
+            link(slot);
+        }
+    }
+    
+    public void Remove(N node) {
+        int slot = node.slot;
+        if (slot < 0 || nodes[slot] != node) {
+            return; // not indexed
+        }
+        if (useGrid) {
+            unlink(slot);
+        }
+        nodes[slot] = null;
+        node.slot = -1;
+        freeSlots[nFreeSlots++] = slot;
+        size--;
+    }
+    
+    /**
+     * Returns the indexed nodes within the given distance of the node. The 
+     * returned buffer is reused by the next range query, but is not affected 
+     * by inserting or removing nodes meanwhile.
+     */
+    public RangeSearchResults<N> RangeSearch(N node, double radius) {
+        results.clear();
+        if (size == 0) {
+            return results;
+        }
+        int d = Math.min(dim, node.obj.dimensions());
+        for (int i = 0; i < d; i++) {
+            query[i] = node.obj.get(i);
+        }
+        // partial sums beyond this bound cannot end within the radius
+        double bound = radius * radius * (1 + 1e-9) + Double.MIN_NORMAL;
+        
+        if (useGrid && countBoxCells(radius) <= size) {
+            if (++stamp == 0) {
+                Arrays.fill(cellStamps, 0);
+                stamp = 1;
+            }
+            System.arraycopy(lo, 0, cell, 0, gridDim);
+            while (true) {
+                int c = findCell(cellKey(cell));
+                if (c >= 0 && cellStamps[c] != stamp) {
+                    // distinct cells may share a key, visit each list once
+                    cellStamps[c] = stamp;
+                    for (int slot = cellHeads[c]; slot >= 0; slot = slotNext[slot]) {
+                        match(slot, d, radius, bound);
+                    }
+                }
+                // next cell of the box
+                int i = 0;
+                while (i < gridDim && cell[i] == hi[i]) {
+                    cell[i] = lo[i];
+                    i++;
+                }
+                if (i == gridDim) {
+                    break;
+                }
+                cell[i]++;
+            }
+        } else {
+            for (int slot = 0; slot < slotLimit; slot++) {
+                if (nodes[slot] != null) {
+                    match(slot, d, radius, bound);
+                }
+            }
+        }
+        return results;
+    }
+    
+    private void match(int slot, int d, double radius, double bound) {
+        int offset = slot * dim;
+        double sum = 0;
+        for (int i = 0; i < d; i++) {
+            double diff = query[i] - coords[offset + i];
+            sum += diff * diff;
+            if (sum > bound) {
+                return;
+            }
+        }
+        double distance = Math.sqrt(sum);
+        if (distance <= radius) {
+            results.add((WindowNode) nodes[slot], distance);
+        }
+    }
+    
+    /**
+     * Sets the bounding box of the query in grid cells and returns the number 
+     * of cells it spans. The box is widened by the rounding error of its 
+     * bounds, so that it also holds the points whose computed distance is 
+     * exactly the radius.
+     */
+    private double countBoxCells(double radius) {
+        double count = 1;
+        for (int i = 0; i < gridDim; i++) {
+            double reach = radius + 1e-9 * (radius + Math.abs(query[i])) + Double.MIN_NORMAL;
+            lo[i] = cellCoordinate(query[i] - reach);
+            hi[i] = cellCoordinate(query[i] + reach);
+            count *= (double) hi[i] - lo[i] + 1;
+        }
+        return count;
+    }
+    
+    private long cellCoordinate(double x) {
+        return (long) Math.floor(x / cellSize);
+    }
+    
+    private long cellKey(long[] c) {
+        long h = 0;
+        for (int i = 0; i < gridDim; i++) {
+            h = (h + c[i]) * 0x9E3779B97F4A7C15L;
+        }
+        return h;
+    }
+    
+    private int cellPosition(long key) {
+        long h = key ^ (key >>> 31);
+        return (int) (h ^ (h >>> 29)) & (cellKeys.length - 1);
+    }
+    
+    private int findCell(long key) {
+        int mask = cellKeys.length - 1;
+        for (int c = cellPosition(key); cellHeads[c] != UNUSED; c = (c + 1) & mask) {
+            if (cellKeys[c] == key) {
+                return c;
+            }
+        }
+        return -1;
+    }
+    
+    private void link(int slot) {
+        long key = slotKeys[slot];
+        int mask = cellKeys.length - 1;
+        int c = cellPosition(key);
+        while (cellHeads[c] != UNUSED && cellKeys[c] != key) {
+            c = (c + 1) & mask;
+        }
+        if (cellHeads[c] == UNUSED) {
+            cellKeys[c] = key;
+            cellHeads[c] = EMPTY;
+            cellsUsed++;
+        }
+        if (cellHeads[c] == EMPTY) {
+            cellsNonEmpty++;
+        } else {
+            slotPrev[cellHeads[c]] = slot;
+        }
+        slotNext[slot] = cellHeads[c];
+        slotPrev[slot] = -1;
+        cellHeads[c] = slot;
+        slotCells[slot] = c;
+        
+        if (2 * cellsUsed > cellKeys.length) {
+            rebuildCells();
+        }
+    }
+    
+    private void unlink(int slot) {
+        int c = slotCells[slot];
+        int next = slotNext[slot];
+        int prev = slotPrev[slot];
+        if (prev >= 0) {
+            slotNext[prev] = next;
+        } else {
+            cellHeads[c] = next;
+        }
+        if (next >= 0) {
+            slotPrev[next] = prev;
+        }
+        if (cellHeads[c] == EMPTY) {
+            cellsNonEmpty--;
+        }
+    }
+    
+    /**
+     * Drops the empty cells, resizing the table to the non-empty ones.
+     */
+    private void rebuildCells() {
+        int capacity = 64;
+        while (capacity < 4 * cellsNonEmpty) {
+            capacity <<= 1;
+        }
+        allocateCells(capacity);
+        for (int slot = 0; slot < slotLimit; slot++) {
+            if (nodes[slot] != null) {
+                link(slot);
+            }
+        }
+    }
+    
+    private void allocateCells(int capacity) {
+        cellKeys = new long[capacity];
+        cellHeads = new int[capacity];
+        cellStamps = new int[capacity];
+        Arrays.fill(cellHeads, UNUSED);
+        cellsUsed = 0;
+        cellsNonEmpty = 0;
+        stamp = 0;
+    }
+    
+    private int newSlot() {
+        if (slotLimit == nodes.length) {
+            int capacity = Math.max(16, 2 * slotLimit);
+            coords = Arrays.copyOf(coords, capacity * dim);
+            nodes = Arrays.copyOf(nodes, capacity);
+            freeSlots = Arrays.copyOf(freeSlots, capacity);
+            slotKeys = Arrays.copyOf(slotKeys, capacity);
+            slotCells = Arrays.copyOf(slotCells, capacity);
+            slotNext = Arrays.copyOf(slotNext, capacity);
+            slotPrev = Arrays.copyOf(slotPrev, capacity);
+        }
+        return slotLimit++;
+    }
+}
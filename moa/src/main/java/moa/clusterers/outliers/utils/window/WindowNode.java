@@ -0,0 +1,51 @@
+/*
+ *    WindowNode.java
+ *    Copyright (C) 2013 Aristotle University of Thessaloniki, Greece
+ *    @author D. Georgiadis, A. Gounaris, A. Papadopoulos, K. Tsichlas, Y. Manolopoulos
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *    
+ *    
+ */
+
+package moa.clusterers.outliers.utils.window;
+
+import com.yahoo.labs.samoa.instances.Instance;
+
+/**
+ * Base class of the nodes stored in a {@link WindowIndex}: a stream object
+ * of the current window together with its identifier and outlierness
+ * statistics.
+ */
+public abstract class WindowNode {
+    public Instance inst;
+    public StreamObj obj;
+    public Long id;
+    
+    // statistics
+    public int nOutlier;
+    public int nInlier;
+    
+    // position of the node in the index, -1 when not indexed
+    int slot = -1;
+
+    public WindowNode(Instance inst, StreamObj obj, Long id) {
+        this.inst = inst;
+        this.obj  = obj;
+        this.id   = id;
+        
+        // init statistics
+        nOutlier = 0;
+        nInlier  = 0;
+    }
+}
@@ -1,5 +1,7 @@
 package moa.clusterers.streamkm;
 
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  *
@@ -42,20 +44,34 @@ public class BucketManager  {
 	protected Bucket[] buckets;
 	protected MTRandom clustererRandom;
 	protected TreeCoreset treeCoreset;
+	//pool running the merges of the buckets, null to merge on the calling thread
+	protected ForkJoinPool pool;
+	//merges of the buckets that may still be running
+	protected ForkJoinTask<?> pendingMerges;
 	
 	
 	/**
 	initializes a bucketmanager for n points with bucketsize maxsize and dimension d
 	**/
 	public BucketManager(int n,int d,int maxsize, MTRandom random){
+		this(n, d, maxsize, random, null);
+	}
+
+	/**
+	initializes a bucketmanager whose buckets are merged on the given pool while the next points
+	are inserted into the first bucket. The merges still happen one after the other in the order
+	of the serial manager and draw the same random numbers, so the coresets are the same.
+	**/
+	public BucketManager(int n,int d,int maxsize, MTRandom random, ForkJoinPool pool){
 		this.clustererRandom = random;
+		this.pool = pool;
 		this.numberOfBuckets = (int) Math.ceil(Math.log((double)n/(double)maxsize) / Math.log(2) )+2;
 		this.maxBucketsize = maxsize;
 		this.buckets = new Bucket[this.numberOfBuckets];
 		for(int i=0; i<this.numberOfBuckets; i++){
 			this.buckets[i] = new Bucket(d,maxsize);
 		}
-		this.treeCoreset = new TreeCoreset();
+		this.treeCoreset = new TreeCoreset(pool);
 		//printf("Created manager with %d buckets of dimension %d \n",this.numberOfBuckets,d);
 	}
 
@@ -67,6 +83,8 @@ public class BucketManager  {
 		//check if there is enough space in the first bucket
 		int cursize = this.buckets[0].cursize;	
 		if(cursize >= this.maxBucketsize) {
+			//the other buckets must not be changed by earlier merges anymore
+			awaitMerges();
 			//printf("Bucket 0 full \n");
 			//start spillover process
 			int curbucket  = 0;
@@ -95,36 +113,11 @@ public class BucketManager  {
 				}
 				this.buckets[0].cursize=0;
 				cursize = 0;
-				curbucket++;
-				nextbucket++;
-				/*
-				as long as the next bucket is full output the coreset to the spillover of the next bucket
-				*/
-				while(nextbucket < this.numberOfBuckets && this.buckets[nextbucket].cursize == this.maxBucketsize){
-					//printf("Bucket %d full \n",nextbucket);
-					this.treeCoreset.unionTreeCoreset(this.maxBucketsize,this.maxBucketsize,
-						this.maxBucketsize,p.dimension, 
-						this.buckets[curbucket].points,this.buckets[curbucket].spillover,
-						this.buckets[nextbucket].spillover, this.clustererRandom);
-					//bucket now empty
-					this.buckets[curbucket].cursize = 0;
-					curbucket++;
-					nextbucket++;
-				}
-				if(nextbucket < this.numberOfBuckets){
-					this.treeCoreset.unionTreeCoreset(this.maxBucketsize,this.maxBucketsize,
-							this.maxBucketsize,p.dimension,
-							this.buckets[curbucket].points,this.buckets[curbucket].spillover,
-							this.buckets[nextbucket].points, this.clustererRandom);
-					this.buckets[curbucket].cursize = 0;
-					this.buckets[nextbucket].cursize = this.maxBucketsize;
-				} else { // if there is no more bucket, move into first bucket
-					this.treeCoreset.unionTreeCoreset(this.maxBucketsize,this.maxBucketsize,
-													  this.maxBucketsize,p.dimension,
-													  this.buckets[curbucket].points,this.buckets[curbucket].spillover,
-													  this.buckets[1].points, this.clustererRandom);
-					this.buckets[curbucket].cursize = 0;
-					this.buckets[1].cursize = this.maxBucketsize;
+				final int dimension = p.dimension;
+				if(this.pool == null){
+					mergeSpillover(dimension);
+				} else {
+					this.pendingMerges = this.pool.submit(() -> mergeSpillover(dimension));
 				}
 			}
 		}
@@ -134,6 +127,54 @@ public class BucketManager  {
 		this.buckets[0].cursize++;
 	}
 
+	/**
+	merges the spillover of the second bucket with the following full buckets, until the result
+	can be stored in an empty bucket
+	**/
+	private void mergeSpillover(int dimension){
+		int curbucket  = 1;
+		int nextbucket = 2;
+		/*
+		as long as the next bucket is full output the coreset to the spillover of the next bucket
+		*/
+		while(nextbucket < this.numberOfBuckets && this.buckets[nextbucket].cursize == this.maxBucketsize){
+			//printf("Bucket %d full \n",nextbucket);
+			this.treeCoreset.unionTreeCoreset(this.maxBucketsize,this.maxBucketsize,
+				this.maxBucketsize,dimension, 
+				this.buckets[curbucket].points,this.buckets[curbucket].spillover,
+				this.buckets[nextbucket].spillover, this.clustererRandom);
+			//bucket now empty
+			this.buckets[curbucket].cursize = 0;
+			curbucket++;
+			nextbucket++;
+		}
+		if(nextbucket < this.numberOfBuckets){
+			this.treeCoreset.unionTreeCoreset(this.maxBucketsize,this.maxBucketsize,
+					this.maxBucketsize,dimension,
+					this.buckets[curbucket].points,this.buckets[curbucket].spillover,
+					this.buckets[nextbucket].points, this.clustererRandom);
+			this.buckets[curbucket].cursize = 0;
+			this.buckets[nextbucket].cursize = this.maxBucketsize;
+		} else { // if there is no more bucket, move into first bucket
+			this.treeCoreset.unionTreeCoreset(this.maxBucketsize,this.maxBucketsize,
+											  this.maxBucketsize,dimension,
+											  this.buckets[curbucket].points,this.buckets[curbucket].spillover,
+											  this.buckets[1].points, this.clustererRandom);
+			this.buckets[curbucket].cursize = 0;
+			this.buckets[1].cursize = this.maxBucketsize;
+		}
+	}
+
+	/**
+	waits until the merges started by the last full first bucket are done
+	**/
+	void awaitMerges(){
+		if(this.pendingMerges != null){
+			this.pendingMerges.join();
+			this.pendingMerges = null;
+		}
+	}
+
 	/**
 	It may happen that the manager is not full (since n is not always a power of 2). In this case we extract the coreset
 	from the manager by computing a coreset of all nonempty buckets
@@ -147,6 +188,7 @@ public class BucketManager  {
 	this operation should only be called after the streaming process is finished
 	**/
 	Point[] getCoresetFromManager(int d){
+		awaitMerges();
 		Point[] coreset = new Point[d];
 		int i = 0;
 		//if(this.buckets[this.numberOfBuckets-1].cursize == this.maxBucketsize){
@@ -2,6 +2,7 @@ package moa.clusterers.streamkm;
 
 import com.github.javacliparser.FlagOption;
 import com.github.javacliparser.IntOption;
+import java.util.concurrent.ForkJoinPool;
 import moa.cluster.Clustering;
 import moa.clusterers.AbstractClusterer;
 import moa.core.Measurement;
@@ -37,6 +38,9 @@ public class StreamKM extends AbstractClusterer {
 	public IntOption randomSeedOption = new IntOption("randomSeed", 'r',
 			"Seed for random behaviour of the classifier.", 1);	
 
+	public IntOption numberOfJobsOption = new IntOption("numberOfJobs", 'j',
+			"Total number of concurrent jobs used for the coreset reduction (-1 = as much as possible, 0 or 1 = do not use multithreading)", 1, -1, Integer.MAX_VALUE);
+
 	protected MTRandom clustererRandom;
 	protected Point[] centresStreamingCoreset;
 
@@ -49,6 +53,9 @@ public class StreamKM extends AbstractClusterer {
 
 	protected BucketManager manager;
 
+	//pool merging the buckets of the manager, null if it works on the calling thread
+	protected transient ForkJoinPool pool;
+
 	protected boolean initialized = false;	
 
 	private final static double THRESHOLD = 1.000;
@@ -56,6 +63,10 @@ public class StreamKM extends AbstractClusterer {
 	@Override
 	public void resetLearningImpl() {
 		this.initialized = false;
+		if (this.pool != null) {
+			this.pool.shutdownNow();
+			this.pool = null;
+		}
 		this.coresetsize = sizeCoresetOption.getValue();
 		this.numberOfCentres = numClustersOption.getValue();
 		this.length = lengthOption.getValue();
@@ -70,7 +81,14 @@ public class StreamKM extends AbstractClusterer {
 
 		if (this.initialized == false) {
 			this.dimension =  inst.numAttributes();
-			manager = new BucketManager(this.length, this.dimension, this.coresetsize, this.clustererRandom);
+			int numberOfJobs = this.numberOfJobsOption.getValue();
+			if (numberOfJobs == -1) {
+				numberOfJobs = Runtime.getRuntime().availableProcessors();
+			}
+			if (numberOfJobs > 1) {
+				this.pool = new ForkJoinPool(numberOfJobs);
+			}
+			manager = new BucketManager(this.length, this.dimension, this.coresetsize, this.clustererRandom, this.pool);
 			this.initialized = true;
 		}
 
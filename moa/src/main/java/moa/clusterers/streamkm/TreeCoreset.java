@@ -1,5 +1,9 @@
 package moa.clusterers.streamkm;
 
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
 /**
  *
  * @author Marcel R. Ackermann, Christiane Lammersen, Marcus Maertens, Christoph Raupach, 
@@ -7,6 +11,32 @@ Christian Sohler, Kamil Swierkot
  */
 public class TreeCoreset {
 
+	/**
+	number of points of a treenode from which the distances are computed in parallel
+	**/
+	static final int PARALLEL_THRESHOLD = 4096;
+
+	/**
+	number of distances computed by a single task
+	**/
+	static final int GRAIN = 1024;
+
+	//pool for the distance computations of large treenodes, null to work on the calling thread
+	protected ForkJoinPool pool;
+
+	public TreeCoreset() {
+		this(null);
+	}
+
+	/**
+	creates a TreeCoreset that computes the distances of the points of large treenodes on the given
+	pool. The random choices are made on the calling thread and the costs are summed up in the order
+	of the points, so the coresets do not depend on the pool.
+	**/
+	public TreeCoreset(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
 	/**
 	datastructure representing a node within a tree
 	**/
@@ -20,6 +50,9 @@ public class TreeCoreset {
 		//pointer on the centre of the treenode
 		Point centre;
 
+		//squared distances of the centroids of the points to the centroid of the centre
+		double[] distances;
+
 		//pointer on the left childnode
 		treeNode lc;
 		
@@ -38,15 +71,24 @@ public class TreeCoreset {
 			this.rc     	= null;
 			this.points		= null; 
 			this.centre     = null;  
+			this.distances  = null;
 		}
 		
 		public treeNode(int n, Point[] points, Point centre, treeNode parent) {
+			this(n, points, centre, parent, distancesToCentre(n, points, centre));
+		}
+
+		/**
+		initializes a treenode whose distances of the points to the centre are already known
+		**/
+		treeNode(int n, Point[] points, Point centre, treeNode parent, double[] distances) {
 			this.n = n;
 			this.points = points; 
 			this.centre = centre; 
 			this.lc = null;
 			this.rc = null;
 			this.parent = parent;
+			this.distances = distances;
 			this.cost = treeNodeTargetFunctionValue();;
 		}
 		
@@ -80,6 +122,7 @@ public class TreeCoreset {
 			this.centre = centre;
 
 			//calculate costs
+			this.distances = distancesToCentre(this.n, this.points, centre);
 			this.cost = treeNodeTargetFunctionValue();
 		}
 		
@@ -91,6 +134,8 @@ public class TreeCoreset {
 		2. works on arrays of pointers instead on arrays of points 
 
 		3. stores the cost in the treenode
+
+		The distances of the points to the centre are computed when the treenode is initialized.
 		**/
 		double treeNodeTargetFunctionValue(){
 			//loop counter variable
@@ -100,33 +145,7 @@ public class TreeCoreset {
 			double sum = 0.0;
 
 			for(i=0; i<this.n; i++){
-				//stores the distance
-				double distance = 0.0;
-
-				//loop counter variable
-				int l;
-
-				for(l=0;l<this.points[i].dimension;l++){
-					//centroid coordinate of the point
-					double centroidCoordinatePoint;
-					if(this.points[i].weight != 0.0){
-						centroidCoordinatePoint = this.points[i].coordinates[l] / this.points[i].weight;
-					} else {
-						centroidCoordinatePoint = this.points[i].coordinates[l];
-					}
-					//centroid coordinate of the centre
-					double centroidCoordinateCentre;
-					if(this.centre.weight != 0.0){
-						centroidCoordinateCentre = this.centre.coordinates[l] / this.centre.weight;
-					} else {
-						centroidCoordinateCentre = this.centre.coordinates[l];
-					}
-					distance += (centroidCoordinatePoint-centroidCoordinateCentre) * 
-							(centroidCoordinatePoint-centroidCoordinateCentre) ;
-						
-				}
-
-				sum += distance*this.points[i].weight;	
+				sum += this.distances[i]*this.points[i].weight;	
 			}
 			return sum;
 		}
@@ -136,69 +155,30 @@ public class TreeCoreset {
 	computes the hypothetical cost if the node would be split with new centers centreA, centreB
 	**/
 	double treeNodeSplitCost(treeNode node, Point centreA, Point centreB){
+		return treeNodeSplitCost(node, centreA, distancesToCentre(node.n, node.points, centreB));
+	}
+
+	/**
+	computes the hypothetical cost if the node would be split with new centers centreA, centreB,
+	given the distances of the points of the node to centreB
+	**/
+	double treeNodeSplitCost(treeNode node, Point centreA, double[] distancesB){
 		//loop counter variable
 		int i;
+
+		double[] distancesA = centreA == node.centre ? node.distances
+				: distancesToCentre(node.n, node.points, centreA);
 		
 		//stores the cost
 		double sum = 0.0;
 		
 		for(i=0; i<node.n; i++){
-			//loop counter variable
-			int l;	
-
-			//stores the distance between p and centreA
-			double distanceA = 0.0;
-
-			for(l=0;l<node.points[i].dimension;l++){
-				//centroid coordinate of the point
-				double centroidCoordinatePoint;
-				if(node.points[i].weight != 0.0){
-					centroidCoordinatePoint = node.points[i].coordinates[l] / node.points[i].weight;
-				} else {
-					centroidCoordinatePoint = node.points[i].coordinates[l];
-				}
-				//centroid coordinate of the centre
-				double centroidCoordinateCentre;
-				if(centreA.weight != 0.0){
-					centroidCoordinateCentre = centreA.coordinates[l] / centreA.weight;
-				} else {
-					centroidCoordinateCentre = centreA.coordinates[l];
-				}
-
-				distanceA += (centroidCoordinatePoint-centroidCoordinateCentre) * 
-						(centroidCoordinatePoint-centroidCoordinateCentre) ;
-			}
-
-			//stores the distance between p and centreB
-			double distanceB = 0.0;
-
-			for(l=0;l<node.points[i].dimension;l++){
-				//centroid coordinate of the point
-				double centroidCoordinatePoint;
-				if(node.points[i].weight != 0.0){
-					centroidCoordinatePoint = node.points[i].coordinates[l] / node.points[i].weight;
-				} else {
-					centroidCoordinatePoint = node.points[i].coordinates[l];
-				}
-				//centroid coordinate of the centre
-				double centroidCoordinateCentre;
-				if(centreB.weight != 0.0){
-					centroidCoordinateCentre = centreB.coordinates[l] / centreB.weight;
-				} else {
-					centroidCoordinateCentre = centreB.coordinates[l];
-				}
-
-				distanceB += (centroidCoordinatePoint-centroidCoordinateCentre) * 
-						(centroidCoordinatePoint-centroidCoordinateCentre) ;
-			}
-
 			//add the cost of the closest centre to the sum
-			if(distanceA < distanceB){
-				sum += distanceA*node.points[i].weight;
+			if(distancesA[i] < distancesB[i]){
+				sum += distancesA[i]*node.points[i].weight;
 			} else {
-				sum += distanceB*node.points[i].weight;
+				sum += distancesB[i]*node.points[i].weight;
 			}
-
 		}
 		
 		//return the total cost
@@ -206,7 +186,6 @@ public class TreeCoreset {
 
 	}
 
-
 	/**
 	computes the cost of point p with the centre of treenode node
 	**/
@@ -243,6 +222,92 @@ public class TreeCoreset {
 		return distance * p.weight;
 	}
 
+	/**
+	computes the squared distances between the centroids of the first n points and the centroid
+	of the centre, in parallel for large treenodes
+	**/
+	double[] distancesToCentre(int n, Point[] points, Point centre){
+		double[] distances = new double[n];
+		DistanceRange task = new DistanceRange(points, centre, distances, 0, n);
+		if(this.pool == null || n < PARALLEL_THRESHOLD){
+			task.computeDirectly();
+		} else if(ForkJoinTask.getPool() == this.pool){
+			task.invoke();
+		} else {
+			this.pool.invoke(task);
+		}
+		return distances;
+	}
+
+	/**
+	fork-join task computing the distances of a range of points to a centre
+	**/
+	static class DistanceRange extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		final Point[] points;
+		final Point centre;
+		final double[] distances;
+		final int from;
+		final int to;
+
+		DistanceRange(Point[] points, Point centre, double[] distances, int from, int to){
+			this.points = points;
+			this.centre = centre;
+			this.distances = distances;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute(){
+			if(this.to - this.from > GRAIN){
+				int mid = (this.from + this.to) >>> 1;
+				invokeAll(new DistanceRange(this.points, this.centre, this.distances, this.from, mid),
+						new DistanceRange(this.points, this.centre, this.distances, mid, this.to));
+			} else {
+				computeDirectly();
+			}
+		}
+
+		void computeDirectly(){
+			for(int i=this.from;i<this.to;i++){
+				Point p = this.points[i];
+				double distance = 0.0;
+				for(int l=0;l<p.dimension;l++){
+					//centroid coordinate of the point
+					double centroidCoordinatePoint;
+					if(p.weight != 0.0){
+						centroidCoordinatePoint = p.coordinates[l] / p.weight;
+					} else {
+						centroidCoordinatePoint = p.coordinates[l];
+					}
+					//centroid coordinate of the centre
+					double centroidCoordinateCentre;
+					if(this.centre.weight != 0.0){
+						centroidCoordinateCentre = this.centre.coordinates[l] / this.centre.weight;
+					} else {
+						centroidCoordinateCentre = this.centre.coordinates[l];
+					}
+					distance += (centroidCoordinatePoint-centroidCoordinateCentre) * 
+							(centroidCoordinatePoint-centroidCoordinateCentre) ;
+				}
+				this.distances[i] = distance;
+			}
+		}
+	}
+
+	/**
+	computes the cost of the i-th point of treenode node with its centre
+	**/
+	double treeNodeCostOfPoint(treeNode node, int i){
+		if(node.points[i].weight == 0.0){
+			return 0.0;
+		}
+		return node.distances[i] * node.points[i].weight;
+	}
+
 	/**
 	tests if a node is a leaf
 	**/
@@ -316,7 +381,7 @@ public class TreeCoreset {
 			
 			for(i=0;i<node.n;i++){
 			
-				sum += treeNodeCostOfPoint(node,node.points[i]) / node.cost;
+				sum += treeNodeCostOfPoint(node,i) / node.cost;
 				if(sum >= random){
 					if(node.points[i].weight == 0.0){
 						//printf("ERROR: CHOOSEN DUMMY NODE THOUGH OTHER AVAILABLE \n");
@@ -408,15 +473,18 @@ public class TreeCoreset {
 		//loop counter variable
 		int i;
 
+		//distances of the points to the new centre
+		double[] newDistances = distancesToCentre(parent.n, parent.points, newCentre);
+
 		//1. Counts how many points belong to the new and how many points belong to the old centre
+		//(the new centre wins ties, as in determineClosestCentre)
 		int nOld = 0;
 		int nNew = 0;
 		for(i=0;i<parent.n;i++){
-			Point centre = determineClosestCentre(parent.points[i], parent.centre, newCentre);
-			if(centre == newCentre){
-				nNew++;
-			} else {
+			if(parent.distances[i] < newDistances[i]){
 				nOld++;
+			} else {
+				nNew++;
 			} 
 		}
 
@@ -424,30 +492,31 @@ public class TreeCoreset {
 		
 		//array for pointer on the points belonging to the old centre
 		Point[] oldPoints = new Point[nOld];
+		double[] oldDistances = new double[nOld];
 
 		//array for pointer on the points belonging to the new centre
 		Point[] newPoints = new Point[nNew];
+		double[] newPointDistances = new double[nNew];
 
 		int indexOld = 0;
 		int indexNew = 0;
 
 		for(i=0;i<parent.n;i++){
-			Point centre = determineClosestCentre(parent.points[i],parent.centre,newCentre);
-			if(centre == newCentre){
-				newPoints[indexNew] = parent.points[i];
-				newPoints[indexNew].centreIndex = newCentreIndex;
-				indexNew++;
-			} else if(centre == parent.centre){
+			if(parent.distances[i] < newDistances[i]){
 				oldPoints[indexOld] = parent.points[i];
+				oldDistances[indexOld] = parent.distances[i];
 				indexOld++;
 			} else {
-				//printf("ERROR !!! NO CENTER NEAREST !! \n");
+				newPoints[indexNew] = parent.points[i];
+				newPoints[indexNew].centreIndex = newCentreIndex;
+				newPointDistances[indexNew] = newDistances[i];
+				indexNew++;
 			}
 		}
 
 		//left child: old centre
 		treeNode lc = new treeNode(nOld, oldPoints, 
-						parent.centre, parent);
+						parent.centre, parent, oldDistances);
 		/*lc.centre = parent.centre;
 		lc.points = oldPoints;
 		lc.n = nOld;
@@ -460,7 +529,7 @@ public class TreeCoreset {
 		
 		//right child: new centre
 		treeNode rc = new treeNode(nNew, newPoints, newCentre, 
-							 parent);
+							 parent, newPointDistances);
 		/*rc.centre = newCentre;
 		rc.points = newPoints;
 		rc.n = nNew;
@@ -474,6 +543,8 @@ public class TreeCoreset {
 		//set childs of the parent node
 		parent.lc = lc;
 		parent.rc = rc;
+		//the distances are only needed for leaves
+		parent.distances = null;
 
 		//propagate the cost changes to the parent nodes
 		while(parent != null){
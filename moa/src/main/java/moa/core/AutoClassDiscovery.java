@@ -40,6 +40,15 @@ import java.util.Set;
  * <br>
  * If analyzing of classpath fails, it falls back on reading class names
  * from file list {@link #CLASS_LIST} as resource stream.
+ * <br>
+ * If the class index {@link #CLASS_INDEX} generated by the build is present,
+ * {@link #findClassesOfType(String, Class)} looks up the packages it covers
+ * in the index instead, which loads no class but the ones found. Only the
+ * classpath entries that contain these packages but no index, e.g. the
+ * classes of a project being developed, are still scanned, and only their
+ * classes are loaded to check their type. Extensions like moa-kafka
+ * generate their own index at build time. Setting the system property
+ * {@link #USE_INDEX_PROPERTY} to false scans the classpath as before.
  *
  * @author Richard Kirkby (rkirkby@cs.waikato.ac.nz)
  */
@@ -51,6 +60,22 @@ public class AutoClassDiscovery {
 
     public final static String CLASS_LIST = "moa.classes";
 
+    public final static String CLASS_INDEX = "moa.class-index";
+
+    public final static String USE_INDEX_PROPERTY = "moa.core.AutoClassDiscovery.useIndex";
+
+    /** the root packages of the index generated by {@link #main(String[])} */
+    public final static String INDEX_ROOT = "moa";
+
+    protected static ClassIndex m_Index;
+
+    protected static boolean m_IndexLoaded;
+
+    /** the classes in the packages of the index from classpath entries without one */
+    protected static List<String> m_UnindexedClassNames;
+
+    protected static final Map<String, String[]> cachedIndexedClassNames = new HashMap<String, String[]>();
+
     /**
      * Initializes the class cache
      */
@@ -83,6 +108,28 @@ public class AutoClassDiscovery {
         }
     }
 
+    /**
+     * Loads the class index on first use.
+     *
+     * @return the index, null if there is none or it is disabled
+     */
+    protected static synchronized ClassIndex getIndex() {
+        if (!m_IndexLoaded) {
+            m_IndexLoaded = true;
+            if (!"false".equalsIgnoreCase(System.getProperty(USE_INDEX_PROPERTY))) {
+                try {
+                    m_Index = ClassIndex.load(AutoClassDiscovery.class.getClassLoader(), CLASS_INDEX);
+                }
+                catch (Exception e) {
+                    System.err.println("Failed to read class index (" + CLASS_INDEX + "), scanning classpath instead!");
+                    e.printStackTrace();
+                    m_Index = null;
+                }
+            }
+        }
+        return m_Index;
+    }
+
     /**
      * Returns all class names stored in the cache.
      * @return the class names
@@ -119,9 +166,70 @@ public class AutoClassDiscovery {
         return cached;
     }
 
+    /**
+     * Lists the classes in the packages of the index that are found in
+     * classpath entries without an index of their own, on first use.
+     *
+     * @param index the index
+     * @return the class names
+     */
+    protected static synchronized List<String> getUnindexedClassNames(ClassIndex index) {
+        if (m_UnindexedClassNames == null) {
+            m_UnindexedClassNames = new ArrayList<String>();
+            index.scanUnindexed(AutoClassDiscovery.class.getClassLoader(), CLASS_INDEX, m_UnindexedClassNames);
+        }
+        return m_UnindexedClassNames;
+    }
+
+    /**
+     * Looks up the public concrete classes of the type in the class index,
+     * together with the ones of classpath entries without an index.
+     *
+     * @param packageNameToSearch the package to search, including subpackages
+     * @param typeDesired the type
+     * @return the sorted class names, or null if the index does not cover
+     * the package
+     */
+    protected static synchronized String[] findIndexedClassNames(String packageNameToSearch,
+                                                                 Class<?> typeDesired) {
+        ClassIndex index = getIndex();
+        if (index == null || !index.covers(packageNameToSearch))
+            return null;
+        String key = packageNameToSearch + " " + typeDesired.getName();
+        String[] cached = cachedIndexedClassNames.get(key);
+        if (cached == null) {
+            Set<String> classNames = new HashSet<String>(
+                Arrays.asList(index.findClassNames(packageNameToSearch, typeDesired.getName())));
+            for (String className : getUnindexedClassNames(index)) {
+                String pkg = ClassIndex.packageName(className);
+                if ((pkg.equals(packageNameToSearch) || pkg.startsWith(packageNameToSearch + "."))
+                    && !classNames.contains(className) && isPublicConcreteClassOfType(className, typeDesired))
+                    classNames.add(className);
+            }
+            cached = classNames.toArray(new String[classNames.size()]);
+            Arrays.sort(cached);
+            cachedIndexedClassNames.put(key, cached);
+        }
+        return cached;
+    }
+
     public static Class[] findClassesOfType(String packageNameToSearch,
                                             Class<?> typeDesired) {
         ArrayList<Class<?>> classesFound = new ArrayList<>();
+        String[] indexed = findIndexedClassNames(packageNameToSearch, typeDesired);
+        if (indexed != null) {
+            // only the classes found are loaded
+            for (String className : indexed) {
+                try {
+                    Class<?> cls = Class.forName(className);
+                    if (typeDesired.isAssignableFrom(cls))
+                        classesFound.add(cls);
+                } catch (Throwable ignored) {
+                    // ignore classes that we cannot load
+                }
+            }
+            return classesFound.toArray(new Class[classesFound.size()]);
+        }
         String[] classNames = findClassNames(packageNameToSearch);
         for (String className : classNames) {
             if (isPublicConcreteClassOfType(className, typeDesired)) {
@@ -160,14 +268,26 @@ public class AutoClassDiscovery {
 
     /**
      * Outputs all class names below "moa" either to stdout or to the
-     * file provided as first argument.
+     * file provided as first argument. If a second file is provided, the
+     * class index {@link #CLASS_INDEX} of these classes is written to it.
+     * If a directory is provided as third argument, only the classes below
+     * "moa" in that directory are listed, e.g. the classes of an extension,
+     * whose index then leaves out the classes of MOA itself.
      *
-     * @param args optional file for storing the classnames
+     * @param args optional file for storing the classnames, optional file for
+     *             storing the class index, optional directory of the classes
+     *             to list
      * @throws Exception if writing to file fails
      */
     public static void main(String[] args) throws Exception {
-        initCache();
-        List<String> allClassnames = getAllClassNames();
+        List<String> allClassnames;
+        if (args.length > 2) {
+            allClassnames = new ArrayList<String>();
+            new ClassIndex(INDEX_ROOT).scanDirectory(new File(args[2]), "", allClassnames);
+        } else {
+            initCache();
+            allClassnames = getAllClassNames();
+        }
         PrintStream out = System.out;
         if (args.length > 0)
             out = new PrintStream(new File(args[0]));
@@ -177,5 +297,10 @@ public class AutoClassDiscovery {
         out.flush();
         if (args.length > 0)
             out.close();
+        if (args.length > 1) {
+            try (PrintStream indexOut = new PrintStream(new File(args[1]), "UTF-8")) {
+                ClassIndex.write(Collections.singletonList(INDEX_ROOT), allClassnames, indexOut);
+            }
+        }
     }
 }
@@ -0,0 +1,377 @@
+/*
+ *    ClassIndex.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.core;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Index of the classes below some root packages and their type hierarchy,
+ * generated at build time by {@link AutoClassDiscovery#main(String[])}, so
+ * that {@link AutoClassDiscovery#findClassesOfType(String, Class)} neither
+ * has to scan the class path nor to load every candidate class.
+ * <br>
+ * The index is a text resource. Lines starting with "root " name the root
+ * packages the index covers, every other line holds a class name, a flag
+ * ("+" if it is a public concrete class with an empty constructor, "-"
+ * otherwise) and the names of its direct superclass and interfaces. The
+ * supertypes are listed as well, also outside the root packages, so the
+ * subtypes of any type follow from the lines without loading a class.
+ * All resources of that name on the class path are merged. Class path entries
+ * without an index can be scanned for the classes in the root packages with
+ * {@link #scanUnindexed(ClassLoader, String, Collection)}.
+ */
+public class ClassIndex {
+
+    /** the root packages covered */
+    protected final Set<String> m_Roots = new HashSet<String>();
+
+    /** the direct subtypes of each type */
+    protected final Map<String, List<String>> m_Subtypes = new HashMap<String, List<String>>();
+
+    /** the public concrete classes with an empty constructor, by package */
+    protected final Map<String, List<String>> m_Discoverable = new TreeMap<String, List<String>>();
+
+    /**
+     * Creates an index without classes that covers the given root packages,
+     * e.g. to scan class path entries for their classes.
+     *
+     * @param roots the root packages
+     */
+    public ClassIndex(String... roots) {
+        m_Roots.addAll(Arrays.asList(roots));
+    }
+
+    /**
+     * Loads and merges all index resources of the given name.
+     *
+     * @param loader the class loader to get the resources from
+     * @param resource the name of the resources
+     * @return the index, or null if there is no such resource
+     * @throws IOException if reading a resource fails
+     */
+    public static ClassIndex load(ClassLoader loader, String resource) throws IOException {
+        ClassIndex result = null;
+        Enumeration<URL> urls = loader.getResources(resource);
+        while (urls.hasMoreElements()) {
+            if (result == null)
+                result = new ClassIndex();
+            try (InputStream in = urls.nextElement().openStream()) {
+                result.read(in);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Adds the lines of an index.
+     *
+     * @param in the index to read
+     * @throws IOException if reading fails
+     */
+    protected void read(InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+            String[] parts = line.split(" ");
+            if (parts[0].equals("root")) {
+                m_Roots.add(parts[1]);
+                continue;
+            }
+            String className = parts[0];
+            if (parts[1].equals("+"))
+                m_Discoverable.computeIfAbsent(packageName(className), k -> new ArrayList<String>()).add(className);
+            for (int i = 2; i < parts.length; i++)
+                m_Subtypes.computeIfAbsent(parts[i], k -> new ArrayList<String>()).add(className);
+        }
+    }
+
+    /**
+     * Returns whether the index covers the package and all its subpackages.
+     *
+     * @param packageName the package
+     * @return true if the package lies within a root package
+     */
+    public boolean covers(String packageName) {
+        for (String root : m_Roots) {
+            if (packageName.equals(root) || packageName.startsWith(root + "."))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the public concrete classes with an empty constructor in the
+     * package or its subpackages that are of the given type.
+     *
+     * @param packageName the package to search
+     * @param typeName the name of the type desired
+     * @return the sorted class names
+     */
+    public String[] findClassNames(String packageName, String typeName) {
+        // the type and all its subtypes
+        Set<String> subtypes = new HashSet<String>();
+        Deque<String> queue = new ArrayDeque<String>();
+        subtypes.add(typeName);
+        queue.add(typeName);
+        while (!queue.isEmpty()) {
+            for (String subtype : m_Subtypes.getOrDefault(queue.poll(), Collections.<String>emptyList())) {
+                if (subtypes.add(subtype))
+                    queue.add(subtype);
+            }
+        }
+
+        Set<String> result = new HashSet<String>();
+        for (Map.Entry<String, List<String>> entry : m_Discoverable.entrySet()) {
+            String pkg = entry.getKey();
+            if (pkg.equals(packageName) || pkg.startsWith(packageName + ".")) {
+                for (String className : entry.getValue()) {
+                    // Object is not listed as a supertype
+                    if (subtypes.contains(className) || typeName.equals(Object.class.getName()))
+                        result.add(className);
+                }
+            }
+        }
+        String[] names = result.toArray(new String[result.size()]);
+        Arrays.sort(names);
+        return names;
+    }
+
+    /**
+     * Adds the names of the classes within the root packages of the class
+     * path entries of the loader that contain no index resource of the given
+     * name. Only the entries that contain the directory of a root package
+     * are scanned, they are found by looking up these directories as
+     * resources. Jars without directory entries, which neither Maven nor the
+     * jar tool build, are therefore not scanned and should ship an index.
+     *
+     * @param loader the class loader whose entries to scan
+     * @param resource the name of the index resources
+     * @param classNames the class names to add to
+     */
+    public void scanUnindexed(ClassLoader loader, String resource, Collection<String> classNames) {
+        Set<File> entries = new LinkedHashSet<File>();
+        for (String root : m_Roots) {
+            String path = root.replace('.', '/') + "/";
+            try {
+                Enumeration<URL> urls = loader.getResources(path);
+                while (urls.hasMoreElements()) {
+                    File entry = classPathEntry(urls.nextElement(), path);
+                    if (entry != null)
+                        entries.add(entry);
+                }
+            }
+            catch (IOException e) {
+                // nothing to scan for this root
+            }
+        }
+        for (File entry : entries)
+            scanUnindexed(entry, resource, classNames);
+    }
+
+    /**
+     * Returns the directory or jar that contains the resource of the given
+     * path, null if it is neither a local directory nor a local jar.
+     */
+    protected static File classPathEntry(URL url, String path) {
+        try {
+            if (url.getProtocol().equals("file")) {
+                File entry = new File(url.toURI());
+                for (String segment : path.split("/")) {
+                    if (entry != null && !segment.isEmpty())
+                        entry = entry.getParentFile();
+                }
+                return entry;
+            }
+            if (url.getProtocol().equals("jar")) {
+                String spec = url.getPath();
+                int pos = spec.indexOf("!/");
+                URL jar = new URL(pos < 0 ? spec : spec.substring(0, pos));
+                if (jar.getProtocol().equals("file"))
+                    return new File(jar.toURI());
+            }
+        }
+        catch (Exception e) {
+            // not a local entry
+        }
+        return null;
+    }
+
+    /**
+     * Adds the names of the classes of a class path entry that lie within
+     * the root packages, unless the entry contains an index resource of the
+     * given name. Entries that cannot be read are skipped.
+     *
+     * @param entry the directory or jar
+     * @param resource the name of the index resources
+     * @param classNames the class names to add to
+     */
+    public void scanUnindexed(File entry, String resource, Collection<String> classNames) {
+        if (entry.isDirectory()) {
+            if (!new File(entry, resource).exists())
+                scanDirectory(entry, "", classNames);
+        }
+        else if (entry.isFile()) {
+            try (ZipFile jar = new ZipFile(entry)) {
+                if (jar.getEntry(resource) == null) {
+                    Enumeration<? extends ZipEntry> entries = jar.entries();
+                    while (entries.hasMoreElements())
+                        addClassName(entries.nextElement().getName(), classNames);
+                }
+            }
+            catch (IOException e) {
+                // not a jar
+            }
+        }
+    }
+
+    /**
+     * Adds the classes below the directory, only descending into the root
+     * packages and the packages leading to them.
+     */
+    protected void scanDirectory(File dir, String path, Collection<String> classNames) {
+        File[] files = dir.listFiles();
+        if (files == null)
+            return;
+        for (File file : files) {
+            String name = path + file.getName();
+            if (file.isDirectory()) {
+                if (leadsToRoot(name.replace('/', '.')))
+                    scanDirectory(file, name + "/", classNames);
+            }
+            else {
+                addClassName(name, classNames);
+            }
+        }
+    }
+
+    /**
+     * Returns whether the package is covered or contains a root package.
+     */
+    protected boolean leadsToRoot(String packageName) {
+        if (covers(packageName))
+            return true;
+        for (String root : m_Roots) {
+            if (root.startsWith(packageName + "."))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Adds the class of the path of a class file if the index covers its
+     * package.
+     */
+    protected void addClassName(String path, Collection<String> classNames) {
+        if (!path.endsWith(".class"))
+            return;
+        String className = path.substring(0, path.length() - ".class".length()).replace('/', '.');
+        if (className.endsWith("package-info") || className.endsWith("module-info"))
+            return;
+        if (covers(packageName(className)))
+            classNames.add(className);
+    }
+
+    /**
+     * Writes the index of the given classes, the classes are loaded without
+     * being initialized. Classes that cannot be loaded are left out.
+     *
+     * @param roots the root packages the class names cover
+     * @param classNames the classes to index
+     * @param out the stream to write to
+     */
+    public static void write(List<String> roots, List<String> classNames, PrintStream out) {
+        out.println("# class, public concrete with empty constructor (+/-), direct supertypes");
+        for (String root : roots)
+            out.println("root " + root);
+        ClassLoader loader = ClassIndex.class.getClassLoader();
+        Set<String> indexed = new HashSet<String>(classNames);
+        Set<Class<?>> written = new HashSet<Class<?>>();
+        List<String> sorted = new ArrayList<String>(indexed);
+        Collections.sort(sorted);
+        for (String className : sorted) {
+            try {
+                Class<?> cls = Class.forName(className, false, loader);
+                write(cls, indexed, written, out);
+            }
+            catch (Throwable t) {
+                // classes with missing dependencies cannot be discovered either
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes the line of the class and then the lines of its supertypes that
+     * were not written yet. Only indexed classes can be discovered.
+     */
+    protected static void write(Class<?> cls, Set<String> indexed, Set<Class<?>> written, PrintStream out) {
+        if (cls == Object.class || !written.add(cls))
+            return;
+        List<Class<?>> supertypes = new ArrayList<Class<?>>();
+        if (cls.getSuperclass() != null && cls.getSuperclass() != Object.class)
+            supertypes.add(cls.getSuperclass());
+        supertypes.addAll(Arrays.asList(cls.getInterfaces()));
+
+        StringBuilder line = new StringBuilder(cls.getName());
+        int modifiers = cls.getModifiers();
+        boolean discoverable = indexed.contains(cls.getName()) && Modifier.isPublic(modifiers) && !Modifier.isAbstract(modifiers)
+            && AutoClassDiscovery.hasEmptyConstructor(cls);
+        line.append(discoverable ? " +" : " -");
+        for (Class<?> supertype : supertypes)
+            line.append(' ').append(supertype.getName());
+        out.println(line);
+
+        for (Class<?> supertype : supertypes)
+            write(supertype, indexed, written, out);
+    }
+
+    /**
+     * Returns the package of the class name, empty for the default package.
+     */
+    protected static String packageName(String className) {
+        int pos = className.lastIndexOf('.');
+        return (pos < 0 ? "" : className.substring(0, pos));
+    }
+}
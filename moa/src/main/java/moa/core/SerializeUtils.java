@@ -84,6 +84,34 @@ public class SerializeUtils {
         return obj;
     }
 
+    /**
+     * Serializes an object to an uncompressed byte array. Cheaper than
+     * writing to a file, so suitable for taking a snapshot of an object
+     * that is being modified on the calling thread.
+     */
+    public static byte[] toByteArray(Serializable obj) throws IOException {
+        ByteArrayOutputStream baoStream = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(
+                new BufferedOutputStream(baoStream));
+        out.writeObject(obj);
+        out.flush();
+        out.close();
+        return baoStream.toByteArray();
+    }
+
+    /**
+     * Writes bytes produced by {@link #toByteArray(Serializable)} to a file
+     * in the format read by {@link #readFromFile(File)}.
+     */
+    public static void writeBytesToFile(File file, byte[] bytes)
+            throws IOException {
+        OutputStream out = new GZIPOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)));
+        out.write(bytes);
+        out.flush();
+        out.close();
+    }
+
     public static Object copyObject(Serializable obj) throws Exception {
         ByteArrayOutputStream baoStream = new ByteArrayOutputStream();
         ObjectOutputStream out = new ObjectOutputStream(
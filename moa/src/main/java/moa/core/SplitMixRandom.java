@@ -0,0 +1,84 @@
+/*
+ *    SplitMixRandom.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.core;
+
+import java.util.Random;
+
+/**
+ * Random number generator based on SplitMix64, the generator behind
+ * java.util.SplittableRandom, usable wherever a java.util.Random is expected.
+ * Its state is a 64 bit counter, so independent streams are obtained by
+ * seeding with {@link #streamSeed(long, long)}: stream k of a seed can be
+ * generated without generating the streams before it, e.g. one stream per
+ * chunk of a data stream on different threads.
+ * <br>
+ * Not thread safe, every thread needs its own instance.
+ */
+public class SplitMixRandom extends Random {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    // set by setSeed, which the Random constructor calls
+    private long state;
+
+    public SplitMixRandom(long seed) {
+        super(seed);
+    }
+
+    /**
+     * Returns the seed of an independent stream of a seed.
+     *
+     * @param seed the seed
+     * @param stream the number of the stream
+     * @return the seed of the stream
+     */
+    public static long streamSeed(long seed, long stream) {
+        return mix64(seed * GOLDEN_GAMMA + mix64(stream + GOLDEN_GAMMA));
+    }
+
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    @Override
+    public void setSeed(long seed) {
+        // clears the cached gaussian
+        super.setSeed(seed);
+        this.state = seed;
+    }
+
+    @Override
+    protected int next(int bits) {
+        return (int) (nextLong() >>> (64 - bits));
+    }
+
+    @Override
+    public long nextLong() {
+        this.state += GOLDEN_GAMMA;
+        return mix64(this.state);
+    }
+
+    @Override
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+}
@@ -36,10 +36,11 @@ package moa.evaluation;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 import moa.cluster.Clustering;
 import moa.core.AutoExpandVector;
 import moa.gui.visualization.DataPoint;
-import com.yahoo.labs.samoa.instances.Instance;
 
 public class CMM_GTAnalysis{
 	
@@ -89,6 +90,16 @@ public class CMM_GTAnalysis{
      */
     private int numDims;
 
+    /**
+     * coordinates of all points, numDims values per point ID
+     */
+    private double[] coordinates;
+
+    /**
+     * number of points from which per point computations run on the fork-join pool
+     */
+    private static final int PARALLEL_MIN_POINTS = 1024;
+
     /**
      * mapping between true cluster ID/class label of the original ground truth 
      * and the internal cluster ID/working class label. 
@@ -255,6 +266,9 @@ public class CMM_GTAnalysis{
         
         /** connectivity of the cluster to all other clusters */
         private ArrayList<Double> connections = new ArrayList<Double>();
+
+        /** index of the points for knn queries, rebuilt after merging */
+        private KnnIndex knnIndex = null;
         
 
         private GTCluster(int workclass, int label, int gtClusteringID) {
@@ -288,34 +302,50 @@ public class CMM_GTAnalysis{
             return prob;
         }
 
+        /**
+         * The knn index of the points in the cluster, built on first use
+         * @return knn index
+         */
+        private synchronized KnnIndex getKnnIndex(){
+            if(knnIndex == null){
+                knnIndex = new KnnIndex(coordinates, numDims, points);
+            }
+            return knnIndex;
+        }
+
         
         /**
          * calculate knn distances of points within own cluster 
          * + average knn distance and average knn distance deviation of all points 
          */
         private void calculateKnn(){
-            for (int p0 : points) {
-                CMMPoint cmdp = cmmpoints.get(p0);
+            getKnnIndex();
+            forEachPoint(points.size(), i -> {
+                CMMPoint cmdp = cmmpoints.get(points.get(i));
                 if(!cmdp.isNoise()){
                     AutoExpandVector<Double> knnDist = new AutoExpandVector<Double>();
                     AutoExpandVector<Integer> knnPointIndex = new AutoExpandVector<Integer>();
                     
                     //calculate nearest neighbours 
-                    getKnnInCluster(cmdp, knnNeighbourhood, points, knnDist,knnPointIndex);
+                    getKnnInCluster(cmdp, knnNeighbourhood, this, knnDist,knnPointIndex);
 
                     //TODO: What to do if we have less then k neighbours?
                     double avgKnn = 0;
-                    for (int i = 0; i < knnDist.size(); i++) {
-                        avgKnn+= knnDist.get(i);
+                    for (int k = 0; k < knnDist.size(); k++) {
+                        avgKnn+= knnDist.get(k);
                     }
                     if(knnDist.size()!=0)
                         avgKnn/=knnDist.size();
                     cmdp.knnInCluster = avgKnn;
                     cmdp.knnIndices = knnPointIndex;
                     cmdp.p.setMeasureValue("knnAvg", cmdp.knnInCluster);
-
-                    knnMeanAvg+=avgKnn;
-                    knnDevAvg+=Math.pow(avgKnn,2);
+                }
+            });
+            for (int p0 : points) {
+                CMMPoint cmdp = cmmpoints.get(p0);
+                if(!cmdp.isNoise()){
+                    knnMeanAvg+=cmdp.knnInCluster;
+                    knnDevAvg+=Math.pow(cmdp.knnInCluster,2);
                 }
             }
             knnMeanAvg=knnMeanAvg/(double)points.size();
@@ -343,9 +373,15 @@ public class CMM_GTAnalysis{
                 AutoExpandVector<Double> kmax = new AutoExpandVector<Double>();
                 AutoExpandVector<Integer> kmaxIndexes = new AutoExpandVector<Integer>();
 
-                for(int p : points){
+                //connection values of all points first, they only read the other cluster
+                gt0Clusters.get(otherCid).getKnnIndex();
+                double[] con_Cj = new double[points.size()];
+                forEachPoint(points.size(), i -> con_Cj[i] = getConnectionValue(cmmpoints.get(points.get(i)), otherCid));
+
+                for(int i = 0; i < points.size(); i++){
+                    int p = points.get(i);
                     CMMPoint cmdp = cmmpoints.get(p);
-                    double con_p_Cj = getConnectionValue(cmmpoints.get(p), otherCid);
+                    double con_p_Cj = con_Cj[i];
                     double connection = cmdp.connectivity * con_p_Cj;
                     if(initial){
                         cmdp.p.setMeasureValue("Connection to C"+otherCid, con_p_Cj);
@@ -418,6 +454,7 @@ public class CMM_GTAnalysis{
 
                 //merge points from B into A
                 points.addAll(gtcMerge.points);
+                knnIndex = null;
                 clusterRepresentations.addAll(gtcMerge.clusterRepresentations);
                 if(mergedWorkLabels==null){
                     mergedWorkLabels = new ArrayList<Integer>();
@@ -501,9 +538,13 @@ public class CMM_GTAnalysis{
 
         //create cmd point wrapper instances
         cmmpoints = new ArrayList<CMMPoint>();
+        coordinates = new double[numPoints * numDims];
         for (int p = 0; p < points.size(); p++) {
             CMMPoint cmdp = new CMMPoint(points.get(p), p);
             cmmpoints.add(cmdp);
+            for (int i = 0; i < numDims; i++) {
+                coordinates[p * numDims + i] = cmdp.value(i);
+            }
         }
 
 
@@ -547,7 +588,7 @@ public class CMM_GTAnalysis{
         AutoExpandVector<Integer> knnPointIndex = new AutoExpandVector<Integer>();
         
         //calculate the knn distance of the point to the cluster
-        getKnnInCluster(cmmp, knnNeighbourhood, gt0Clusters.get(clusterID).points, knnDist, knnPointIndex);
+        getKnnInCluster(cmmp, knnNeighbourhood, gt0Clusters.get(clusterID), knnDist, knnPointIndex);
 
         //TODO: What to do if we have less then k neighbors?
         double avgDist = 0;
@@ -588,31 +629,36 @@ public class CMM_GTAnalysis{
     /**
      * @param cmmp point to calculate knn distance for
      * @param k number of nearest neighbors to look for
-     * @param pointIDs list of point IDs to check
-     * @param knnDist sorted list of smallest knn distances (can already be filled to make updates possible)  
+     * @param cluster cluster whose points are checked
+     * @param knnDist sorted list of smallest knn distances
      * @param knnPointIndex list of corresponding knn indices
      */
     private void getKnnInCluster(CMMPoint cmmp, int k,
-                                 ArrayList<Integer> pointIDs,
+                                 GTCluster cluster,
                                  AutoExpandVector<Double> knnDist,
                                  AutoExpandVector<Integer> knnPointIndex) {
 
-        //iterate over every point in the choosen cluster, cal distance and insert into list
-        for (int p1 = 0; p1 < pointIDs.size(); p1++) {
-            int pid = pointIDs.get(p1);
-            if(cmmp.pID == pid) continue;
-            double dist = distance(cmmp,cmmpoints.get(pid));
-            if(knnDist.size() < k || dist < knnDist.get(knnDist.size()-1)){
-                int index = 0;
-                while(index < knnDist.size() && dist > knnDist.get(index)) {
-                    index++;
-                }
-                knnDist.add(index, dist);
-                knnPointIndex.add(index,pid);
-                if(knnDist.size() > k){
-                    knnDist.remove(knnDist.size()-1);
-                    knnPointIndex.remove(knnPointIndex.size()-1);
-                }
+        double[] dists = new double[k];
+        int[] pointIDs = new int[k];
+        int count = cluster.getKnnIndex().knn(cmmp.pID, k, dists, pointIDs);
+        for (int i = 0; i < count; i++) {
+            knnDist.add(dists[i]);
+            knnPointIndex.add(pointIDs[i]);
+        }
+    }
+
+    /**
+     * Runs the action for the indices 0 to size-1, in parallel for large point sets
+     * @param size number of indices
+     * @param action action for one index, must only write state of that index
+     */
+    private static void forEachPoint(int size, IntConsumer action){
+        if(size >= PARALLEL_MIN_POINTS){
+            IntStream.range(0, size).parallel().forEach(action);
+        }
+        else{
+            for (int i = 0; i < size; i++) {
+                action.accept(i);
             }
         }
     }
@@ -623,13 +669,16 @@ public class CMM_GTAnalysis{
      * calculate initial connectivities
      */
     private void calculateGTPointQualities(){
-        for (int p = 0; p < numPoints; p++) {
+        for (GTCluster gtc : gt0Clusters) {
+            gtc.getKnnIndex();
+        }
+        forEachPoint(numPoints, p -> {
             CMMPoint cmdp = cmmpoints.get(p);
             if(!cmdp.isNoise()){
                 cmdp.connectivity = getConnectionValue(cmdp, cmdp.workclass());
                 cmdp.p.setMeasureValue("Connectivity", cmdp.connectivity);
             }
-        }
+        });
     }
 
     
@@ -718,9 +767,12 @@ public class CMM_GTAnalysis{
         if(noise.isEmpty()) 
             return 1;
 
-        double connectivity = 0;
-        for(int p : noise){
-            CMMPoint npoint = cmmpoints.get(p);
+        for (GTCluster gtc : gt0Clusters) {
+            gtc.getKnnIndex();
+        }
+        double[] maxConnections = new double[noise.size()];
+        forEachPoint(noise.size(), i -> {
+            CMMPoint npoint = cmmpoints.get(noise.get(i));
             double maxConnection = 0;
 
             //TODO: some kind of pruning possible. what about weighting?
@@ -729,8 +781,13 @@ public class CMM_GTAnalysis{
                 if(connection > maxConnection)
                     maxConnection = connection;
             }
-            connectivity+=maxConnection;
+            maxConnections[i] = maxConnection;
             npoint.p.setMeasureValue("MaxConnection", maxConnection);
+        });
+
+        double connectivity = 0;
+        for (int i = 0; i < noise.size(); i++) {
+            connectivity+=maxConnections[i];
         }
 
         return 1-(connectivity / noise.size());
@@ -790,32 +847,6 @@ public class CMM_GTAnalysis{
         return numGT0Classes;
     }
     
-    /**
-     * Calculates Euclidian distance 
-     * @param inst1 point as double array
-     * @param inst2 point as double array
-     * @return euclidian distance
-     */
-    private double distance(Instance inst1, Instance inst2){
-          return distance(inst1, inst2.toDoubleArray());
-
-    }
-    
-    /**
-     * Calculates Euclidian distance 
-     * @param inst1 point as an instance
-     * @param inst2 point as double array
-     * @return euclidian distance
-     */
-    private double distance(Instance inst1, double[] inst2){
-        double distance = 0.0;
-        for (int i = 0; i < numDims; i++) {
-            double d = inst1.value(i) - inst2[i];
-            distance += d * d;
-        }
-        return Math.sqrt(distance);
-    }
-    
     /**
      * String with main CMM parameters
      * @return main CMM parameter
@@ -833,6 +864,195 @@ public class CMM_GTAnalysis{
 
         return para;
     }    
-}
 
 
+    /**
+     * k-d tree over the points of a cluster. The knn queries return the same
+     * distances as a scan over all points, a subtree is only skipped if the
+     * distance to its splitting plane already exceeds the k-th distance.
+     */
+    private static class KnnIndex{
+        /** ranges up to this size are scanned */
+        private static final int LEAF_SIZE = 8;
+
+        private final double[] coordinates;
+        private final int numDims;
+
+        /** point IDs, each range is split at its middle element */
+        private final int[] ids;
+
+        /** splitting dimension of the range whose middle element is at this position */
+        private final int[] splitDims;
+
+        private KnnIndex(double[] coordinates, int numDims, ArrayList<Integer> pointIDs){
+            this.coordinates = coordinates;
+            this.numDims = numDims;
+            this.ids = new int[pointIDs.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = pointIDs.get(i);
+            }
+            this.splitDims = new int[ids.length];
+            build(0, ids.length);
+        }
+
+        private void build(int lo, int hi){
+            if(hi - lo <= LEAF_SIZE)
+                return;
+            //split along the dimension with the largest spread
+            int dim = 0;
+            double maxSpread = -1;
+            for (int d = 0; d < numDims; d++) {
+                double min = Double.POSITIVE_INFINITY;
+                double max = Double.NEGATIVE_INFINITY;
+                for (int i = lo; i < hi; i++) {
+                    double v = coordinates[ids[i] * numDims + d];
+                    if(v < min) min = v;
+                    if(v > max) max = v;
+                }
+                if(max - min > maxSpread){
+                    maxSpread = max - min;
+                    dim = d;
+                }
+            }
+            int mid = (lo + hi) >>> 1;
+            select(lo, hi - 1, mid, dim);
+            splitDims[mid] = dim;
+            build(lo, mid);
+            build(mid + 1, hi);
+        }
+
+        /**
+         * Moves the element of rank k within lo..hi (inclusive) to k, smaller
+         * or equal values before and larger or equal values after it
+         */
+        private void select(int lo, int hi, int k, int dim){
+            while(hi > lo){
+                double pivot = coordinates[ids[(lo + hi) >>> 1] * numDims + dim];
+                //three way partition, so duplicate values do not degrade it
+                int lt = lo, i = lo, gt = hi;
+                while(i <= gt){
+                    double v = coordinates[ids[i] * numDims + dim];
+                    if(v < pivot)
+                        swap(lt++, i++);
+                    else if(v > pivot)
+                        swap(i, gt--);
+                    else
+                        i++;
+                }
+                if(k < lt)
+                    hi = lt - 1;
+                else if(k > gt)
+                    lo = gt + 1;
+                else
+                    return;
+            }
+        }
+
+        private void swap(int i, int j){
+            int tmp = ids[i];
+            ids[i] = ids[j];
+            ids[j] = tmp;
+        }
+
+        /**
+         * Finds the k nearest points of the point with the given ID, which is
+         * not a neighbour of itself
+         * @param queryID ID of the query point
+         * @param k number of nearest neighbours
+         * @param dists the neighbour distances in ascending order
+         * @param neighbours the neighbour IDs
+         * @return number of neighbours found
+         */
+        private int knn(int queryID, int k, double[] dists, int[] neighbours){
+            KnnResult result = new KnnResult(queryID, k, dists, neighbours);
+            if(k > 0)
+                search(0, ids.length, result);
+            return result.count;
+        }
+
+        private void search(int lo, int hi, KnnResult result){
+            if(hi - lo <= LEAF_SIZE){
+                for (int i = lo; i < hi; i++) {
+                    offer(ids[i], result);
+                }
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            int dim = splitDims[mid];
+            double diff = coordinates[result.queryID * numDims + dim] - coordinates[ids[mid] * numDims + dim];
+            offer(ids[mid], result);
+            if(diff < 0){
+                search(lo, mid, result);
+                if(!result.isBeyond(diff))
+                    search(mid + 1, hi, result);
+            }
+            else{
+                search(mid + 1, hi, result);
+                if(!result.isBeyond(diff))
+                    search(lo, mid, result);
+            }
+        }
+
+        private void offer(int pid, KnnResult result){
+            if(pid == result.queryID)
+                return;
+            //same summation as the Euclidean distance of the linear scan
+            int q = result.queryID * numDims;
+            int c = pid * numDims;
+            double sum = 0.0;
+            for (int i = 0; i < numDims; i++) {
+                double d = coordinates[q + i] - coordinates[c + i];
+                sum += d * d;
+            }
+            result.add(pid, Math.sqrt(sum), sum);
+        }
+    }
+
+    /**
+     * the k smallest distances found so far, ascending
+     */
+    private static class KnnResult{
+        private final int queryID;
+        private final int k;
+        private final double[] dists;
+        private final double[] sums;
+        private final int[] neighbours;
+        private int count = 0;
+
+        private KnnResult(int queryID, int k, double[] dists, int[] neighbours){
+            this.queryID = queryID;
+            this.k = k;
+            this.dists = dists;
+            this.sums = new double[k];
+            this.neighbours = neighbours;
+        }
+
+        private void add(int pid, double dist, double sum){
+            if(count == k && !(dist < dists[count - 1]))
+                return;
+            int index = 0;
+            while(index < count && dist > dists[index]) {
+                index++;
+            }
+            int last = (count == k) ? k - 1 : count++;
+            for (int i = last; i > index; i--) {
+                dists[i] = dists[i - 1];
+                sums[i] = sums[i - 1];
+                neighbours[i] = neighbours[i - 1];
+            }
+            dists[index] = dist;
+            sums[index] = sum;
+            neighbours[index] = pid;
+        }
+
+        /**
+         * Whether all points at least |diff| away in one dimension are too far
+         * to enter the result. Their squared distance sums are at least
+         * diff*diff, also in floating point, so their distances cannot be smaller
+         * than the k-th one.
+         */
+        private boolean isBeyond(double diff){
+            return count == k && diff * diff > sums[count - 1];
+        }
+    }
+}
@@ -21,7 +21,10 @@
 package moa.evaluation; 
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 import moa.cluster.Cluster;
 import moa.cluster.Clustering;
 import moa.gui.visualization.DataPoint;
@@ -29,6 +32,14 @@ import moa.gui.visualization.DataPoint;
 public class SilhouetteCoefficient extends MeasureCollection{
     private double pointInclusionProbThreshold = 0.8;
 
+    /**
+     * number of distance computations from which the points are evaluated in parallel
+     */
+    private static final long PARALLEL_MIN_PAIRS = 1 << 20;
+
+    private int sampleSize = 0;
+    private long sampleSeed = 1;
+
     public SilhouetteCoefficient() {
         super();
     }
@@ -48,94 +59,177 @@ public class SilhouetteCoefficient extends MeasureCollection{
     public void evaluateClustering(Clustering clustering, Clustering trueClustering, ArrayList<DataPoint> points) {
         int numFCluster = clustering.size();
 
-        double [][] pointInclusionProbFC = new double[points.size()][numFCluster];
+        //clusters each point belongs to, points without any cluster take no part
+        int[][] ownClustersByPoint = new int[points.size()][];
+        int[] members = new int[points.size()];
+        int numMembers = 0;
         for (int p = 0; p < points.size(); p++) {
             DataPoint point = points.get(p);
+            int[] ownClusters = new int[numFCluster];
+            int numOwn = 0;
             for (int fc = 0; fc < numFCluster; fc++) {
                 Cluster cl = clustering.get(fc);
-                pointInclusionProbFC[p][fc] = cl.getInclusionProbability(point);
+                if(cl.getInclusionProbability(point) > pointInclusionProbThreshold){
+                    ownClusters[numOwn++] = fc;
+                }
             }
+            if(numOwn > 0){
+                ownClustersByPoint[numMembers] = Arrays.copyOf(ownClusters, numOwn);
+                members[numMembers++] = p;
+            }
+        }
+        if(numMembers == 0){
+            addValue(0, 0.5);
+            return;
         }
 
-        double silhCoeff = 0.0;
-        int totalCount = 0;
-        for (int p = 0; p < points.size(); p++) {
-            DataPoint point = points.get(p);
-            ArrayList<Integer> ownClusters = new ArrayList<Integer>();
-            for (int fc = 0; fc < numFCluster; fc++) {
-                if(pointInclusionProbFC[p][fc] > pointInclusionProbThreshold){
-                    ownClusters.add(fc);
-                }
+        int numDims = points.get(members[0]).numAttributes();
+        double[] coordinates = new double[numMembers * numDims];
+        for (int m = 0; m < numMembers; m++) {
+            DataPoint point = points.get(members[m]);
+            for (int i = 0; i < numDims; i++) {
+                coordinates[m * numDims + i] = point.value(i);
             }
+        }
+
+        int[] evaluated = getEvaluatedMembers(numMembers);
+        double[] silhouettes = new double[evaluated.length];
+        final int numMembersFinal = numMembers;
+        IntConsumer evaluate = e -> silhouettes[e] = silhouette(points.get(members[evaluated[e]]), evaluated[e],
+                numFCluster, numMembersFinal, numDims, coordinates, ownClustersByPoint);
+        if((long) evaluated.length * numMembers >= PARALLEL_MIN_PAIRS){
+            IntStream.range(0, evaluated.length).parallel().forEach(evaluate);
+        }
+        else{
+            for (int e = 0; e < evaluated.length; e++) {
+                evaluate.accept(e);
+            }
+        }
+
+        double silhCoeff = 0.0;
+        for (int e = 0; e < evaluated.length; e++) {
+            silhCoeff+=silhouettes[e];
+        }
+        silhCoeff/=(double)evaluated.length;
+        //normalize from -1, 1 to 0,1
+        silhCoeff = (silhCoeff+1)/2.0;
+        addValue(0,silhCoeff);
+    }
 
-            if(ownClusters.size() > 0){
-                double[] distanceByClusters = new double[numFCluster];
-                int[] countsByClusters = new int[numFCluster];
-                    //calculate averageDistance of p to all cluster
-                for (int p1 = 0; p1 < points.size(); p1++) {
-                    DataPoint point1 = points.get(p1);
-                    if(p1!= p){ 
-                        // Matthias Carnein 2019/04/03
-                        // Removed second part of if-condition: && point1.classValue() != -1 
-                        // Accessing the classValue will go outOfBounds when no class label exists
-                        // What is the purpose of this check anyway? Class label is not used for Silhouette calculation
-                        for (int fc = 0; fc < numFCluster; fc++) {
-                            if(pointInclusionProbFC[p1][fc] > pointInclusionProbThreshold){
-                                double distance = distance(point, point1);
-                                distanceByClusters[fc]+=distance;
-                                countsByClusters[fc]++;
-                            }
-                        }
-                    }
+    /**
+     * Silhouette of one member point, its average distances to the other
+     * members are summed up per cluster.
+     */
+    private double silhouette(DataPoint point, int p, int numFCluster, int numMembers, int numDims,
+            double[] coordinates, int[][] ownClustersByPoint) {
+        double[] distanceByClusters = new double[numFCluster];
+        int[] countsByClusters = new int[numFCluster];
+            //calculate averageDistance of p to all cluster
+        for (int p1 = 0; p1 < numMembers; p1++) {
+            if(p1!= p){
+                // Matthias Carnein 2019/04/03
+                // Removed second part of if-condition: && point1.classValue() != -1 
+                // Accessing the classValue will go outOfBounds when no class label exists
+                // What is the purpose of this check anyway? Class label is not used for Silhouette calculation
+                double distance = distance(coordinates, p * numDims, p1 * numDims, numDims);
+                for (int fc : ownClustersByPoint[p1]) {
+                    distanceByClusters[fc]+=distance;
+                    countsByClusters[fc]++;
                 }
+            }
+        }
 
-                //find closest OWN cluster as clusters might overlap
-                double minAvgDistanceOwn = Double.MAX_VALUE;
-                int minOwnIndex = -1;
-                for (int fc : ownClusters) {
-                        double normDist = distanceByClusters[fc]/(double)countsByClusters[fc];
-                        if(normDist < minAvgDistanceOwn){// && pointInclusionProbFC[p][fc] > pointInclusionProbThreshold){
-                            minAvgDistanceOwn = normDist;
-                            minOwnIndex = fc;
-                        }
+        //find closest OWN cluster as clusters might overlap
+        double minAvgDistanceOwn = Double.MAX_VALUE;
+        int minOwnIndex = -1;
+        for (int fc : ownClustersByPoint[p]) {
+                double normDist = distanceByClusters[fc]/(double)countsByClusters[fc];
+                if(normDist < minAvgDistanceOwn){// && pointInclusionProbFC[p][fc] > pointInclusionProbThreshold){
+                    minAvgDistanceOwn = normDist;
+                    minOwnIndex = fc;
                 }
+        }
 
 
-                //find closest other (or other own) cluster
-                double minAvgDistanceOther = Double.MAX_VALUE;
-                for (int fc = 0; fc < numFCluster; fc++) {
-                    if(fc != minOwnIndex){
-                        double normDist = distanceByClusters[fc]/(double)countsByClusters[fc];
-                        if(normDist < minAvgDistanceOther){
-                            minAvgDistanceOther = normDist;
-                        }
-                    }
+        //find closest other (or other own) cluster
+        double minAvgDistanceOther = Double.MAX_VALUE;
+        for (int fc = 0; fc < numFCluster; fc++) {
+            if(fc != minOwnIndex){
+                double normDist = distanceByClusters[fc]/(double)countsByClusters[fc];
+                if(normDist < minAvgDistanceOther){
+                    minAvgDistanceOther = normDist;
                 }
+            }
+        }
 
-                double silhP = (minAvgDistanceOther-minAvgDistanceOwn)/Math.max(minAvgDistanceOther, minAvgDistanceOwn);
-                point.setMeasureValue("SC - own", minAvgDistanceOwn);
-                point.setMeasureValue("SC - other", minAvgDistanceOther);
-                point.setMeasureValue("SC", silhP);
+        double silhP = (minAvgDistanceOther-minAvgDistanceOwn)/Math.max(minAvgDistanceOther, minAvgDistanceOwn);
+        point.setMeasureValue("SC - own", minAvgDistanceOwn);
+        point.setMeasureValue("SC - other", minAvgDistanceOther);
+        point.setMeasureValue("SC", silhP);
+        //System.out.println(point.getTimestamp()+" Silh "+silhP+" / "+avgDistanceOwn+" "+minAvgDistanceOther+" (C"+minIndex+")");
+        return silhP;
+    }
 
-                silhCoeff+=silhP;
-                totalCount++;
-                //System.out.println(point.getTimestamp()+" Silh "+silhP+" / "+avgDistanceOwn+" "+minAvgDistanceOther+" (C"+minIndex+")");
-            }
+    /**
+     * The members whose silhouette is computed: all of them, or a uniform
+     * sample without replacement in their original order.
+     */
+    private int[] getEvaluatedMembers(int numMembers) {
+        int[] evaluated = new int[numMembers];
+        for (int m = 0; m < numMembers; m++) {
+            evaluated[m] = m;
         }
-        if(totalCount>0)
-            silhCoeff/=(double)totalCount;
-        //normalize from -1, 1 to 0,1
-        silhCoeff = (silhCoeff+1)/2.0;
-        addValue(0,silhCoeff);
+        if(sampleSize <= 0 || sampleSize >= numMembers){
+            return evaluated;
+        }
+        Random random = new Random(sampleSeed);
+        for (int m = 0; m < sampleSize; m++) {
+            int swap = m + random.nextInt(numMembers - m);
+            int tmp = evaluated[m];
+            evaluated[m] = evaluated[swap];
+            evaluated[swap] = tmp;
+        }
+        int[] sample = Arrays.copyOf(evaluated, sampleSize);
+        Arrays.sort(sample);
+        return sample;
     }
 
-    private double distance(DataPoint inst1, DataPoint inst2){
+    private static double distance(double[] coordinates, int offset1, int offset2, int numDims){
         double distance = 0.0;
-        int numDims = inst1.numAttributes();
         for (int i = 0; i < numDims; i++) {
-            double d = inst1.value(i) - inst2.value(i);
+            double d = coordinates[offset1 + i] - coordinates[offset2 + i];
             distance += d * d;
         }
         return Math.sqrt(distance);
     }
+
+    /**
+     * Sets the number of points whose silhouette is averaged, 0 (the default)
+     * uses all points that belong to a cluster. The sampled points are still
+     * compared against all points, so each sampled silhouette is exact and
+     * only the average is estimated. As the normalised silhouettes lie in
+     * [0,1], the estimate deviates from the exact coefficient by more than
+     * epsilon with probability at most 2*exp(-2*sampleSize*epsilon^2)
+     * (Hoeffding), e.g. by less than 0.043 with 95% probability for a
+     * sample of 1000 points. Only the sampled points get the per point
+     * "SC" measure values.
+     *
+     * @param sampleSize number of sampled points, 0 for all points
+     */
+    public void setSampleSize(int sampleSize) {
+        this.sampleSize = sampleSize;
+    }
+
+    public int getSampleSize() {
+        return sampleSize;
+    }
+
+    /**
+     * Sets the seed of the point sample, see {@link #setSampleSize(int)}.
+     *
+     * @param sampleSeed the seed
+     */
+    public void setSampleSeed(long sampleSeed) {
+        this.sampleSeed = sampleSeed;
+    }
 }
@@ -128,8 +128,22 @@ public class BatchCmd implements ClusterEventListener{
 
 	public static void runBatch(ClusteringStream stream, AbstractClusterer clusterer,
 			boolean[] measureCollection, int amountInstances, String outputFile){
+		runBatch(stream, clusterer, measureCollection, amountInstances, outputFile, 0);
+	}
+
+
+	/**
+	 * Runs the batch job, averaging the silhouette over a sample of
+	 * silhouetteSampleSize points, see {@link SilhouetteCoefficient#setSampleSize(int)}.
+	 */
+	public static void runBatch(ClusteringStream stream, AbstractClusterer clusterer,
+			boolean[] measureCollection, int amountInstances, String outputFile, int silhouetteSampleSize){
 		// create the measure collection 
 		MeasureCollection[] measures = getMeasures(getMeasureSelection(measureCollection));
+		for (MeasureCollection m : measures) {
+			if (m instanceof SilhouetteCoefficient)
+				((SilhouetteCoefficient) m).setSampleSize(silhouetteSampleSize);
+		}
 		
 		// run the batch job
 		BatchCmd batch = new BatchCmd(clusterer, stream, measures, amountInstances);
@@ -24,10 +24,13 @@ import java.util.ArrayList;
 import java.util.logging.Logger;
 import javax.swing.JCheckBox;
 import javax.swing.JLabel;
+import javax.swing.JSpinner;
+import javax.swing.SpinnerNumberModel;
 import moa.core.AutoClassDiscovery;
 import moa.core.AutoExpandVector;
 import moa.evaluation.ClassificationMeasureCollection;
 import moa.evaluation.MeasureCollection;
+import moa.evaluation.SilhouetteCoefficient;
 
 public class ClusteringEvalPanel extends javax.swing.JPanel {
 
@@ -37,6 +40,8 @@ public class ClusteringEvalPanel extends javax.swing.JPanel {
 
     ArrayList<JCheckBox> checkboxes = null;
 
+    JSpinner silhouetteSampleSize = null;
+
     /** Creates new form ClusteringEvalPanel */
     public ClusteringEvalPanel() {
         initComponents();
@@ -74,6 +79,15 @@ public class ClusteringEvalPanel extends javax.swing.JPanel {
                     gb.gridx = 1;
                     checkboxes.add(cb);
                     contentPanel.add(cb, gb);
+
+                    if (m instanceof SilhouetteCoefficient) {
+                        silhouetteSampleSize = new JSpinner(new SpinnerNumberModel(
+                                ((SilhouetteCoefficient) m).getSampleSize(), 0, Integer.MAX_VALUE, 100));
+                        silhouetteSampleSize.setToolTipText(
+                                "Number of sampled points whose silhouette is averaged (0 = all points)");
+                        gb.gridx = 2;
+                        contentPanel.add(silhouetteSampleSize, gb);
+                    }
                     counter++;
                 }
             } catch (Exception ex) {
@@ -127,6 +141,9 @@ public class ClusteringEvalPanel extends javax.swing.JPanel {
                     }
                     counter++;
                 }
+                if (m instanceof SilhouetteCoefficient && silhouetteSampleSize != null) {
+                    ((SilhouetteCoefficient) m).setSampleSize((Integer) silhouetteSampleSize.getValue());
+                }
                 if (addMeasure) {
                     measuresSelect.add(m);
                 }
@@ -24,6 +24,7 @@ import java.util.List;
 import moa.core.ObjectRepository;
 import moa.options.AbstractOptionHandler;
 import moa.options.ClassOption;
+import com.github.javacliparser.FlagOption;
 import com.github.javacliparser.FloatOption;
 import com.github.javacliparser.IntOption;
 import moa.recommender.data.RecommenderData;
@@ -53,6 +54,11 @@ import moa.tasks.TaskMonitor;
  *      regularization</li>
  * <li> i: iterations - the number of iterations to be used when retraining
  *      user and item features (online training). </li>
+ * <li> p: parallel training - whether the batch training updates the features
+ *      from several threads without locking. </li>
+ * <li> n: prune with norms - whether top-N recommendations skip the items
+ *      whose feature norm is too small for them to make it into the list.
+ *      </li>
  * </lu>
  * 
  */
@@ -77,6 +83,12 @@ public class BRISMFPredictor extends AbstractOptionHandler implements RatingPred
             "How many iterations to use.",
             100, 0, Integer.MAX_VALUE);
 
+    public FlagOption parallelTrainingOption = new FlagOption("parallelTraining",
+            'p', "Batch training updates the features from several threads without locking (Hogwild), the result is not reproducible.");
+
+    public FlagOption pruneWithNormsOption = new FlagOption("pruneWithNorms",
+            'n', "Top-N recommendations visit the items by decreasing feature norm and stop once no remaining item can make it into the list.");
+
     public ClassOption dataOption = new ClassOption("data", 'd',
             "Data", RecommenderData.class, "moa.recommender.data.MemRecommenderData");
      
@@ -86,6 +98,8 @@ public class BRISMFPredictor extends AbstractOptionHandler implements RatingPred
         RecommenderData data = (RecommenderData) getPreparedClassOption(this.dataOption);
         rp = new moa.recommender.rc.predictor.impl.BRISMFPredictor(featuresOption.getValue(), data.getData(), lRateOption.getValue(), rFactorOption.getValue(), false);
         rp.setNIterations(iterationsOption.getValue());
+        rp.setParallelTraining(parallelTrainingOption.isSet());
+        rp.setPruneWithNorms(pruneWithNormsOption.isSet());
     }
 
     @Override
@@ -115,5 +129,10 @@ public class BRISMFPredictor extends AbstractOptionHandler implements RatingPred
     public void train() {
         rp.train();
     }
+
+    @Override
+    public List<Integer> recommendTopN(int userID, int n) {
+        return rp.recommendTopN(userID, n);
+    }
     
 }
@@ -73,4 +73,9 @@ public class BaselinePredictor extends AbstractOptionHandler implements moa.reco
         rp.train();
     }
 
+    @Override
+    public List<Integer> recommendTopN(int userID, int n) {
+        return rp.recommendTopN(userID, n);
+    }
+
 }
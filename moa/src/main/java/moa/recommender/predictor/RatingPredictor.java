@@ -21,8 +21,11 @@
 package moa.recommender.predictor;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.List;
 import moa.recommender.rc.data.RecommenderData;
+import moa.recommender.rc.utils.SparseVector;
+import moa.recommender.rc.utils.TopN;
 
 /**
  * Rating predicting algorithm. The core of any recommender system is its 
@@ -36,4 +39,27 @@ public interface RatingPredictor extends Serializable {
 	public List<Double> predictRatings(int userID, List<Integer> itemIDS);
 	public RecommenderData getData();
 	public void train();
+
+	/**
+	 * Recommends the n items the user has not rated yet with the highest
+	 * predicted rating, ties go to the lower ID. This default predicts every
+	 * candidate item, predictors that can score all items at once override it.
+	 * @return The IDs of at most n items, best first.
+	 */
+	public default List<Integer> recommendTopN(int userID, int n) {
+		RecommenderData data = getData();
+		SparseVector rated = data.getRatingsUser(userID);
+		List<Integer> items = new ArrayList<Integer>();
+		for (Integer itemID : data.getItems()) {
+			if (rated == null || rated.get(itemID) == null) {
+				items.add(itemID);
+			}
+		}
+		List<Double> predictions = predictRatings(userID, items);
+		TopN top = new TopN(n);
+		for (int i = 0; i < items.size(); ++i) {
+			top.offer(items.get(i), predictions.get(i));
+		}
+		return top.getIds();
+	}
 }
@@ -20,31 +20,26 @@
 
 package moa.recommender.rc.data.impl;
 
-import java.io.Serializable;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import moa.recommender.rc.data.AbstractRecommenderData;
 import moa.recommender.rc.utils.Rating;
 import moa.recommender.rc.utils.SparseVector;
 
+/**
+ * Keeps the ratings in memory, once by user and once by item, each in a
+ * {@link RatingStore} of primitive arrays that also holds the running sum and
+ * count of the ratings of every user and item. The ratings of a user or item
+ * are returned as read-only views.
+ */
 public class MemRecommenderData extends AbstractRecommenderData {
 
-    private static final long serialVersionUID = 2844235954903772074L;
+    private static final long serialVersionUID = -645617123174501916L;
 
-    class EntityStats implements Serializable {
-        private static final long serialVersionUID = -8933750377510577120L;
-        public double sum = 0;
-        public double num = 0;
-    }
-    
-    protected Map<Integer, Map<Integer, Double>> ratingsUser;
-    protected Map<Integer, Map<Integer, Double>> ratingsItem;
-    protected Map<Integer, EntityStats> usersStats;
-    protected Map<Integer, EntityStats> itemsStats;
+    protected RatingStore ratingsUser;
+    protected RatingStore ratingsItem;
     
     protected int nItems = 0;
     protected int nUsers = 0;
@@ -53,84 +48,53 @@ public class MemRecommenderData extends AbstractRecommenderData {
     protected double minRating = 0;
     protected double maxRating = 0;
     
+    /**
+     * Goes through the ratings user by user.
+     */
     protected class RatingIterator implements Iterator<Rating> {
-        private int currentUser = -1;
-        private Iterator<Integer> userIt = null;
-        private Iterator<Entry<Integer, Double>> ratsIt = null;
-        private boolean calculated = false;
-        private boolean result = true;
-        
-        RatingIterator() throws Exception {
-        }
+        private final Iterator<Integer> userIt = ratingsUser.ids().iterator();
+        private int currentUser;
+        private int currentIdx = -1;
+        private int pos = 0;
         
         @Override
         public boolean hasNext() {
-            if (calculated)
-                return result;
-            
-            calculated = true;
-            result = false;
-            if (ratsIt == null) {
-                if (!ratingsUser.isEmpty()) {
-                    userIt = ratingsUser.keySet().iterator();
-                    if (userIt.hasNext()) {
-                        Integer first = userIt.next();
-                        currentUser = first;
-                        ratsIt = ratingsUser.get(first).entrySet().iterator();
-                        if (ratsIt.hasNext()) {
-                            result = true;
-                        }
-                    }
-                }
-            }
-            else {
-                if (ratsIt.hasNext()) {
-                    result = true;
-                }
-                else if (userIt.hasNext()) {
-                    Integer first = userIt.next();
-                    currentUser = first;
-                    ratsIt = ratingsUser.get(first).entrySet().iterator();
-                    if (ratsIt.hasNext()) {
-                        result = true;
-                    }
-                }
+            while (currentIdx < 0 || pos >= ratingsUser.rowSize(currentIdx)) {
+                if (!userIt.hasNext())
+                    return false;
+                currentUser = userIt.next();
+                currentIdx = ratingsUser.index(currentUser);
+                pos = 0;
             }
-            return result;
+            return true;
         }
 
         @Override
         public Rating next() {
-            if (!calculated)
-                hasNext();
-            calculated = false;
-            Entry<Integer, Double> pair = ratsIt.next();
-            
-            return new Rating(currentUser, pair.getKey(), pair.getValue());
+            if (!hasNext())
+                throw new NoSuchElementException();
+            int p = ratingsUser.rowStart(currentIdx) + pos++;
+            return new Rating(currentUser, ratingsUser.key(p), ratingsUser.value(p));
         }
 
         @Override
         public void remove() {
-            // TODO Auto-generated method stub
-            
+            throw new UnsupportedOperationException();
         }
         
     }
     
     public MemRecommenderData() {
         super();
-        ratingsItem = new HashMap<Integer, Map<Integer, Double>>();
-        ratingsUser = new HashMap<Integer, Map<Integer, Double>>();
-        usersStats = new HashMap<Integer, EntityStats>();
-        itemsStats = new HashMap<Integer, EntityStats>();
+        ratingsItem = new RatingStore();
+        ratingsUser = new RatingStore();
     }
     
     @Override
     public void addUser(int userID, List<Integer> ratedItems, List<Double> ratings) {
         super.addUser(userID, ratedItems, ratings);
         
-        ratingsUser.put(userID, new HashMap<Integer, Double>());
-        usersStats.put(userID, new EntityStats());
+        ratingsUser.reset(userID);
         
         int n = ratedItems.size();
         
@@ -143,15 +107,13 @@ public class MemRecommenderData extends AbstractRecommenderData {
     public void removeUser(int userID) {
         super.removeUser(userID);
         ratingsUser.remove(userID);
-        usersStats.remove(userID);
     }
 
     @Override
     public void addItem(int itemID, List<Integer> ratingUsers, List<Double> ratings) {
         super.addItem(itemID, ratingUsers, ratings);
         
-        ratingsItem.put(itemID, new HashMap<Integer, Double>());
-        itemsStats.put(itemID, new EntityStats());
+        ratingsItem.reset(itemID);
         int n = ratingUsers.size();
         for (int i = 0; i < n; ++i)
             auxSetRating(ratingUsers.get(i), itemID, ratings.get(i));
@@ -162,7 +124,6 @@ public class MemRecommenderData extends AbstractRecommenderData {
     public void removeItem(int itemID) {
         super.removeItem(itemID);
         ratingsItem.remove(itemID);
-        itemsStats.remove(itemID);
     }
 
     private void auxSetRating(int userID, int itemID, double rating) {
@@ -175,42 +136,33 @@ public class MemRecommenderData extends AbstractRecommenderData {
             maxRating = Math.max(maxRating, rating);
         }
         
-        EntityStats userStats = usersStats.get(userID);
-        EntityStats itemStats = itemsStats.get(itemID);
-        if (userStats == null) {
+        int userIdx = ratingsUser.index(userID);
+        int itemIdx = ratingsItem.index(itemID);
+        if (userIdx < 0) {
             ++nUsers;
-            ratingsUser.put(userID, new HashMap<Integer, Double>());
-            userStats = new EntityStats();
-            usersStats.put(userID, userStats);
+            userIdx = ratingsUser.add(userID);
         }
         
-        if (itemStats == null) {
+        if (itemIdx < 0) {
             ++nItems;
-            ratingsItem.put(itemID, new HashMap<Integer, Double>());
-            itemStats = new EntityStats();
-            itemsStats.put(itemID, itemStats);
+            itemIdx = ratingsItem.add(itemID);
         }
         
-        Map<Integer, Double> ratUser = ratingsUser.get(userID);
-        Map<Integer, Double> ratItem = ratingsItem.get(itemID);
-        Double rat = ratUser.get(itemID);
-        if (rat != null) {
+        int pos = ratingsUser.find(userIdx, itemID);
+        if (pos >= 0) {
+            double rat = ratingsUser.value(pos);
             sumRatings -= rat;
-            userStats.sum -= rat;
-            userStats.num--;
-            itemStats.sum -= rat;
-            itemStats.num--;
+            ratingsUser.updateStats(userIdx, -rat, -1);
+            ratingsItem.updateStats(itemIdx, -rat, -1);
             --nRatings;
         }
         
-        userStats.sum += rating;
-        userStats.num++;
-        itemStats.sum += rating;
-        itemStats.num++;
+        ratingsUser.updateStats(userIdx, rating, 1);
+        ratingsItem.updateStats(itemIdx, rating, 1);
         sumRatings += rating;
         ++nRatings;
-        ratUser.put(itemID, rating);
-        ratItem.put(userID, rating);
+        ratingsUser.put(userIdx, itemID, rating);
+        ratingsItem.put(itemIdx, userID, rating);
     }
     
     @Override
@@ -223,33 +175,32 @@ public class MemRecommenderData extends AbstractRecommenderData {
     public void removeRating(int userID, int itemID) {
         super.removeRating(userID, itemID);
         
-        Map<Integer, Double> ratUser = ratingsUser.get(userID);
-        Map<Integer, Double> ratItem = ratingsItem.get(itemID);
-        Double rat = ratUser.get(itemID);
-        EntityStats userStats = usersStats.get(userID);
-        EntityStats itemStats = itemsStats.get(itemID);
-        if (rat != null) {
+        int userIdx = ratingsUser.index(userID);
+        int itemIdx = ratingsItem.index(itemID);
+        int pos = (userIdx >= 0 ? ratingsUser.find(userIdx, itemID) : -1);
+        if (pos >= 0) {
+            double rat = ratingsUser.value(pos);
             sumRatings -= rat;
             --nRatings;
-            userStats.sum -= rat;
-            userStats.num--;
-            itemStats.sum -= rat;
-            itemStats.num--;
-            ratUser.remove(itemID);
-            ratItem.remove(userID);
+            ratingsUser.updateStats(userIdx, -rat, -1);
+            ratingsUser.delete(userIdx, itemID);
+            if (itemIdx >= 0) {
+                ratingsItem.updateStats(itemIdx, -rat, -1);
+                ratingsItem.delete(itemIdx, userID);
+            }
         }
     }
 
     @Override
     public SparseVector getRatingsUser(int userID) {
-        Map<Integer, Double> ratUser = ratingsUser.get(userID);
-        return new SparseVector(ratUser);
+        return ratingsUser.ratings(userID);
     }
     
     @Override
     public double getRating(int userID, int itemID) {
-        Map<Integer, Double> ratUser = ratingsUser.get(userID);
-        return (ratUser.get(itemID) != null ? ratUser.get(itemID) : 0);
+        int userIdx = ratingsUser.index(userID);
+        int pos = (userIdx >= 0 ? ratingsUser.find(userIdx, itemID) : -1);
+        return (pos >= 0 ? ratingsUser.value(pos) : 0);
     }
 
     @Override
@@ -264,18 +215,18 @@ public class MemRecommenderData extends AbstractRecommenderData {
     
     @Override
     public double getAvgRatingUser(int userID) {
-        EntityStats stats = usersStats.get(userID);
-        double sum = (stats != null ? stats.sum : 0);
-        double num = (stats != null ? stats.num : 0);
-        double mean = (nRatings > 0 ? sumRatings/(double)nRatings : (minRating + maxRating)/2.0);
-        return (mean*25 + sum)/(25 + num);
+        return getAvgRating(ratingsUser, userID);
     }
 
     @Override
     public double getAvgRatingItem(int itemID) {
-        EntityStats stats = itemsStats.get(itemID);
-        double sum = (stats != null ? stats.sum : 0);
-        double num = (stats != null ? stats.num : 0);
+        return getAvgRating(ratingsItem, itemID);
+    }
+    
+    private double getAvgRating(RatingStore store, int id) {
+        int idx = store.index(id);
+        double sum = (idx >= 0 ? store.sum(idx) : 0);
+        double num = (idx >= 0 ? store.count(idx) : 0);
         double mean = (nRatings > 0 ? sumRatings/(double)nRatings : (minRating + maxRating)/2.0);
         return (mean*25 + sum)/(25 + num);
     }
@@ -292,18 +243,17 @@ public class MemRecommenderData extends AbstractRecommenderData {
 
     @Override
     public Set<Integer> getUsers() {
-        return usersStats.keySet();
+        return ratingsUser.ids();
     }
 
     @Override
     public SparseVector getRatingsItem(int itemID) {
-        Map<Integer, Double> ratItem = ratingsItem.get(itemID);
-        return new SparseVector(ratItem);
+        return ratingsItem.ratings(itemID);
     }
 
     @Override
     public Set<Integer> getItems() {
-        return itemsStats.keySet();
+        return ratingsItem.ids();
     }
 
     @Override
@@ -313,20 +263,19 @@ public class MemRecommenderData extends AbstractRecommenderData {
 
     @Override
     public int countRatingsUser(int userID) {
-        EntityStats stats = usersStats.get(userID);
-        return (stats != null ? (int)stats.num : 0);
+        int idx = ratingsUser.index(userID);
+        return (idx >= 0 ? ratingsUser.count(idx) : 0);
     }
 
     @Override
     public int countRatingsItem(int itemID) {
-        EntityStats stats = itemsStats.get(itemID);
-        return (stats != null ? (int)stats.num : 0);
+        int idx = ratingsItem.index(itemID);
+        return (idx >= 0 ? ratingsItem.count(idx) : 0);
     }
 
     @Override
     public Iterator<Rating> ratingIterator() {
-        // TODO Auto-generated method stub
-        return null;
+        return new RatingIterator();
     }
 
     @Override
@@ -336,21 +285,18 @@ public class MemRecommenderData extends AbstractRecommenderData {
     
     @Override
     public boolean userExists(int userID) {
-        return usersStats.containsKey(userID);
+        return ratingsUser.index(userID) >= 0;
     }
     @Override
     public boolean itemExists(int itemID) {
-        return itemsStats.containsKey(itemID);
+        return ratingsItem.index(itemID) >= 0;
     }
 
     @Override
     public void clear() {
-        usersStats.clear();
-        itemsStats.clear();
         minRating = maxRating = nItems = nUsers = 0;
         sumRatings = nRatings = 0;
         ratingsUser.clear();
         ratingsItem.clear();
     }
 }
-
@@ -0,0 +1,516 @@
+/*
+ *    RatingStore.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ *
+ */
+
+package moa.recommender.rc.data.impl;
+
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import moa.recommender.rc.utils.IdIndex;
+import moa.recommender.rc.utils.Pair;
+import moa.recommender.rc.utils.SparseVector;
+
+/**
+ * One side of the ratings of {@link MemRecommenderData}: the ratings of every
+ * user keyed by item, or of every item keyed by user, together with the
+ * running sum and count of each entity. Everything is kept in primitive
+ * arrays, the entities are addressed through an {@link IdIndex}.
+ *
+ * <p>The ratings of an entity form a row of the shared key and value arrays.
+ * A row is a prefix sorted by key followed by an append buffer of at most
+ * SUFFIX_LIMIT unsorted ratings, which is merged into the prefix when it
+ * overflows, so a lookup is a binary search plus a short scan. A row that
+ * outgrows its capacity moves to the end of the arrays with half again the
+ * capacity. Once the space left behind exceeds a third of the space in use,
+ * the rows are copied into new arrays in CSR form: fully sorted and one after
+ * the other, each with a little spare capacity.</p>
+ */
+class RatingStore implements Serializable {
+
+    private static final long serialVersionUID = -2637934807931475493L;
+
+    private static final int SUFFIX_LIMIT = 32;
+    private static final int MIN_CAPACITY = 4;
+
+    private IdIndex indices;
+
+    // per entity, rowStart is -1 for a free index
+    private int[] ids;
+    private int[] rowStart;
+    private int[] rowSize;
+    private int[] rowSorted;
+    private int[] rowCapacity;
+    private double[] sums;
+    private int[] counts;
+    private int nIndices;
+    private int[] freeIndices;
+    private int nFreeIndices;
+
+    // rows
+    private int[] keys;
+    private double[] values;
+    private int used;
+    private int garbage;
+
+    // buffer of the merge of an append buffer
+    private int[] mergeKeys = new int[SUFFIX_LIMIT + 1];
+    private double[] mergeValues = new double[SUFFIX_LIMIT + 1];
+
+    RatingStore() {
+        clear();
+    }
+
+    void clear() {
+        indices = new IdIndex();
+        ids = new int[16];
+        rowStart = new int[16];
+        rowSize = new int[16];
+        rowSorted = new int[16];
+        rowCapacity = new int[16];
+        sums = new double[16];
+        counts = new int[16];
+        nIndices = 0;
+        freeIndices = new int[8];
+        nFreeIndices = 0;
+        keys = new int[64];
+        values = new double[64];
+        used = 0;
+        garbage = 0;
+    }
+
+    /**
+     * @return The number of entities.
+     */
+    int size() {
+        return indices.size();
+    }
+
+    /**
+     * @return The index of the entity, or -1 if it does not exist.
+     */
+    int index(int id) {
+        return indices.get(id);
+    }
+
+    /**
+     * Returns the index of the entity, adding it without ratings if it does
+     * not exist.
+     */
+    int add(int id) {
+        int idx = indices.get(id);
+        if (idx >= 0) {
+            return idx;
+        }
+        if (nFreeIndices > 0) {
+            idx = freeIndices[--nFreeIndices];
+        } else {
+            idx = nIndices++;
+            if (idx == ids.length) {
+                int capacity = 2 * ids.length;
+                ids = Arrays.copyOf(ids, capacity);
+                rowStart = Arrays.copyOf(rowStart, capacity);
+                rowSize = Arrays.copyOf(rowSize, capacity);
+                rowSorted = Arrays.copyOf(rowSorted, capacity);
+                rowCapacity = Arrays.copyOf(rowCapacity, capacity);
+                sums = Arrays.copyOf(sums, capacity);
+                counts = Arrays.copyOf(counts, capacity);
+            }
+        }
+        ids[idx] = id;
+        rowStart[idx] = used;
+        rowSize[idx] = 0;
+        rowSorted[idx] = 0;
+        rowCapacity[idx] = 0;
+        sums[idx] = 0;
+        counts[idx] = 0;
+        indices.put(id, idx);
+        return idx;
+    }
+
+    /**
+     * Removes all ratings and statistics of the entity, adding it if it does
+     * not exist.
+     * @return The index of the entity.
+     */
+    int reset(int id) {
+        int idx = add(id);
+        rowSize[idx] = 0;
+        rowSorted[idx] = 0;
+        sums[idx] = 0;
+        counts[idx] = 0;
+        return idx;
+    }
+
+    /**
+     * Removes the entity with its ratings and statistics.
+     */
+    void remove(int id) {
+        int idx = indices.remove(id);
+        if (idx < 0) {
+            return;
+        }
+        garbage += rowCapacity[idx];
+        rowStart[idx] = -1;
+        rowCapacity[idx] = 0;
+        if (nFreeIndices == freeIndices.length) {
+            freeIndices = Arrays.copyOf(freeIndices, 2 * nFreeIndices);
+        }
+        freeIndices[nFreeIndices++] = idx;
+    }
+
+    double sum(int idx) {
+        return sums[idx];
+    }
+
+    int count(int idx) {
+        return counts[idx];
+    }
+
+    /**
+     * Adds rating to the sum and change to the count of the entity.
+     */
+    void updateStats(int idx, double rating, int change) {
+        sums[idx] += rating;
+        counts[idx] += change;
+    }
+
+    /**
+     * @return The position of the rating of key in the row of the entity, or
+     * -1 if there is none. Positions are only valid until the next change.
+     */
+    int find(int idx, int key) {
+        int start = rowStart[idx];
+        int lo = start;
+        int hi = start + rowSorted[idx] - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int k = keys[mid];
+            if (k < key) {
+                lo = mid + 1;
+            } else if (k > key) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        int end = start + rowSize[idx];
+        for (int pos = start + rowSorted[idx]; pos < end; ++pos) {
+            if (keys[pos] == key) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    int key(int pos) {
+        return keys[pos];
+    }
+
+    double value(int pos) {
+        return values[pos];
+    }
+
+    int rowStart(int idx) {
+        return rowStart[idx];
+    }
+
+    int rowSize(int idx) {
+        return rowSize[idx];
+    }
+
+    /**
+     * Sets the rating of key in the row of the entity.
+     */
+    void put(int idx, int key, double value) {
+        int pos = find(idx, key);
+        if (pos >= 0) {
+            values[pos] = value;
+            return;
+        }
+        if (rowSize[idx] == rowCapacity[idx]) {
+            grow(idx);
+        }
+        pos = rowStart[idx] + rowSize[idx]++;
+        keys[pos] = key;
+        values[pos] = value;
+        if (rowSize[idx] - rowSorted[idx] > SUFFIX_LIMIT) {
+            mergeAppended(idx);
+        }
+    }
+
+    /**
+     * Removes the rating of key from the row of the entity, if there is one.
+     */
+    void delete(int idx, int key) {
+        int pos = find(idx, key);
+        if (pos < 0) {
+            return;
+        }
+        int end = rowStart[idx] + rowSize[idx];
+        if (pos < rowStart[idx] + rowSorted[idx]) {
+            System.arraycopy(keys, pos + 1, keys, pos, end - pos - 1);
+            System.arraycopy(values, pos + 1, values, pos, end - pos - 1);
+            rowSorted[idx]--;
+        } else {
+            keys[pos] = keys[end - 1];
+            values[pos] = values[end - 1];
+        }
+        rowSize[idx]--;
+    }
+
+    /**
+     * Moves the row of the entity to the end of the arrays with half again its
+     * capacity, compacting all rows first if a third of the space in use is
+     * wasted.
+     */
+    private void grow(int idx) {
+        int capacity = Math.max(MIN_CAPACITY, rowCapacity[idx] + rowCapacity[idx] / 2);
+        if (garbage > used / 3) {
+            compact();
+        }
+        if (used + capacity > keys.length) {
+            int length = Math.max(used + capacity, keys.length + keys.length / 2);
+            keys = Arrays.copyOf(keys, length);
+            values = Arrays.copyOf(values, length);
+        }
+        System.arraycopy(keys, rowStart[idx], keys, used, rowSize[idx]);
+        System.arraycopy(values, rowStart[idx], values, used, rowSize[idx]);
+        garbage += rowCapacity[idx];
+        rowStart[idx] = used;
+        rowCapacity[idx] = capacity;
+        used += capacity;
+    }
+
+    /**
+     * Copies the rows into new arrays in the order of their indices, each one
+     * sorted and with a quarter of its size as spare capacity, so the rows
+     * do not all have to move again on their next rating.
+     */
+    private void compact() {
+        long total = 0;
+        for (int idx = 0; idx < nIndices; ++idx) {
+            if (rowStart[idx] >= 0) {
+                total += spareCapacity(rowSize[idx]);
+            }
+        }
+        int length = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(64, total + total / 2));
+        int[] newKeys = new int[length];
+        double[] newValues = new double[length];
+        int cursor = 0;
+        for (int idx = 0; idx < nIndices; ++idx) {
+            if (rowStart[idx] >= 0) {
+                mergeAppended(idx);
+                System.arraycopy(keys, rowStart[idx], newKeys, cursor, rowSize[idx]);
+                System.arraycopy(values, rowStart[idx], newValues, cursor, rowSize[idx]);
+                rowStart[idx] = cursor;
+                rowCapacity[idx] = spareCapacity(rowSize[idx]);
+                cursor += rowCapacity[idx];
+            }
+        }
+        keys = newKeys;
+        values = newValues;
+        used = cursor;
+        garbage = 0;
+    }
+
+    private static int spareCapacity(int size) {
+        return size == 0 ? 0 : Math.max(MIN_CAPACITY, size + size / 4);
+    }
+
+    /**
+     * Sorts the append buffer of the row and merges it into the sorted prefix.
+     */
+    private void mergeAppended(int idx) {
+        int start = rowStart[idx];
+        int sortedEnd = start + rowSorted[idx];
+        int end = start + rowSize[idx];
+        int n = end - sortedEnd;
+        if (n == 0) {
+            return;
+        }
+        // insertion sort of the short buffer into the merge arrays
+        for (int i = 0; i < n; ++i) {
+            int key = keys[sortedEnd + i];
+            double value = values[sortedEnd + i];
+            int j = i - 1;
+            while (j >= 0 && mergeKeys[j] > key) {
+                mergeKeys[j + 1] = mergeKeys[j];
+                mergeValues[j + 1] = mergeValues[j];
+                --j;
+            }
+            mergeKeys[j + 1] = key;
+            mergeValues[j + 1] = value;
+        }
+        // merges from the back, the keys are unique
+        int i = sortedEnd - 1;
+        int j = n - 1;
+        for (int w = end - 1; j >= 0; --w) {
+            if (i >= start && keys[i] > mergeKeys[j]) {
+                keys[w] = keys[i];
+                values[w] = values[i];
+                --i;
+            } else {
+                keys[w] = mergeKeys[j];
+                values[w] = mergeValues[j];
+                --j;
+            }
+        }
+        rowSorted[idx] = rowSize[idx];
+    }
+
+    /**
+     * @return A view of the IDs of the entities, in the order of their
+     * indices.
+     */
+    Set<Integer> ids() {
+        return new AbstractSet<Integer>() {
+            @Override
+            public Iterator<Integer> iterator() {
+                return new Iterator<Integer>() {
+                    private int next = advance(0);
+
+                    private int advance(int idx) {
+                        while (idx < nIndices && rowStart[idx] < 0) {
+                            ++idx;
+                        }
+                        return idx;
+                    }
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < nIndices;
+                    }
+
+                    @Override
+                    public Integer next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        int id = ids[next];
+                        next = advance(next + 1);
+                        return id;
+                    }
+                };
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return o instanceof Integer && indices.get((Integer) o) >= 0;
+            }
+
+            @Override
+            public int size() {
+                return indices.size();
+            }
+        };
+    }
+
+    /**
+     * @return A read-only view of the ratings of the entity, empty if it does
+     * not exist.
+     */
+    SparseVector ratings(int id) {
+        return new RatingsVector(id);
+    }
+
+    private class RatingsVector extends SparseVector {
+
+        private static final long serialVersionUID = 4164826380305373305L;
+
+        private final int id;
+
+        RatingsVector(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public int size() {
+            int idx = indices.get(id);
+            return idx < 0 ? 0 : rowSize[idx];
+        }
+
+        @Override
+        public void set(int index, double val) {
+            throw new UnsupportedOperationException("The ratings can only be changed through the data.");
+        }
+
+        @Override
+        public void remove(int index) {
+            throw new UnsupportedOperationException("The ratings can only be changed through the data.");
+        }
+
+        @Override
+        public Double get(int index) {
+            int idx = indices.get(id);
+            if (idx < 0) {
+                return null;
+            }
+            int pos = find(idx, index);
+            return pos < 0 ? null : values[pos];
+        }
+
+        @Override
+        public Set<Integer> getIdxs() {
+            Set<Integer> idxs = new HashSet<Integer>();
+            Iterator<Pair<Integer, Double>> it = iterator();
+            while (it.hasNext()) {
+                idxs.add(it.next().getFirst());
+            }
+            return idxs;
+        }
+
+        @Override
+        public SparseVector copy() {
+            Map<Integer, Double> map = new HashMap<Integer, Double>();
+            Iterator<Pair<Integer, Double>> it = iterator();
+            while (it.hasNext()) {
+                Pair<Integer, Double> p = it.next();
+                map.put(p.getFirst(), p.getSecond());
+            }
+            return new SparseVector(map);
+        }
+
+        @Override
+        public Iterator<Pair<Integer, Double>> iterator() {
+            final int idx = indices.get(id);
+            return new Iterator<Pair<Integer, Double>>() {
+                private int i = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return idx >= 0 && i < rowSize[idx];
+                }
+
+                @Override
+                public Pair<Integer, Double> next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    int pos = rowStart[idx] + i++;
+                    return new Pair<Integer, Double>(keys[pos], values[pos]);
+                }
+            };
+        }
+    }
+}
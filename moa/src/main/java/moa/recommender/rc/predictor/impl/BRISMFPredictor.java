@@ -21,14 +21,17 @@
 package moa.recommender.rc.predictor.impl;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
+import java.util.stream.IntStream;
 import moa.recommender.rc.data.RecommenderData;
+import moa.recommender.rc.utils.FactorMatrix;
 import moa.recommender.rc.utils.Pair;
 import moa.recommender.rc.utils.Rating;
 import moa.recommender.rc.utils.SparseVector;
+import moa.recommender.rc.utils.TopN;
 import moa.recommender.rc.utils.Updatable;
 
 /**
@@ -55,20 +58,61 @@ import moa.recommender.rc.utils.Updatable;
  *      regularization</li>
  * <li> iterations - the number of iterations to be used when retraining
  *      user and item features (online training). </li>
+ * <li> parallel training - whether the batch training updates the features
+ *      from several threads without locking (Hogwild). Concurrent updates
+ *      of the same features may overwrite each other, so the result is not
+ *      reproducible, but the sparse ratings rarely touch the same features
+ *      at once. </li>
  * </lu>
  * 
+ * <p>The features are kept in the rows of a {@link FactorMatrix} for the
+ * users and another one for the items. Training a user or item first looks up
+ * the rows of its ratings once, so the iterations run on primitive arrays
+ * without allocating.</p>
+ * 
+ * <p>{@link #recommendTopN(int, int)} scores all items at once as the product
+ * of the item feature matrix with the user features. With norm pruning, the
+ * items are visited by decreasing norm of their features and the scan stops
+ * once the norm times the norm of the user features, an upper bound of the
+ * remaining scores, falls below the n-th best score. The sorted norms are
+ * kept between queries, items retrained since are scored separately, and
+ * the norms are sorted again once too many have been retrained.</p>
+ * 
  */
 
 public class BRISMFPredictor implements Updatable {
     
+    /**
+     * Number of ratings one task of the parallel batch training goes through.
+     */
+    private static final int PARALLEL_CHUNK_SIZE = 4096;
+    
     protected RecommenderData data;
     protected int nFeatures;
-    protected HashMap<Integer, float[]> userFeature;
-    protected HashMap<Integer, float[]> itemFeature;
+    protected FactorMatrix userFeature;
+    protected FactorMatrix itemFeature;
     protected Random rnd;
     protected double lRate = 0.01;
     protected double rFactor = 0.02;
     protected int nIterations = 30;
+    protected boolean parallelTraining = false;
+    protected boolean pruneWithNorms = false;
+    
+    // rows and ratings of the user or item being trained, reused
+    private int[] trainRows = new int[16];
+    private double[] trainRatings = new double[16];
+    
+    // item rows rated by the user of a top-N query, reused
+    private boolean[] ratedRows = new boolean[16];
+    
+    // item rows by decreasing norm of their features, valid while normsSorted
+    private boolean normsSorted = false;
+    private int[] normRows = new int[0];
+    private double[] norms = new double[0];
+    // item rows retrained since the norms were sorted
+    private boolean[] staleRows = new boolean[16];
+    private int[] staleList = new int[16];
+    private int nStale = 0;
     
     public void setLRate(double lRate) {
         this.lRate = lRate;
@@ -82,6 +126,14 @@ public class BRISMFPredictor implements Updatable {
         this.nIterations = nIterations; 
     }
     
+    public void setParallelTraining(boolean parallelTraining) {
+        this.parallelTraining = parallelTraining;
+    }
+    
+    public void setPruneWithNorms(boolean pruneWithNorms) {
+        this.pruneWithNorms = pruneWithNorms;
+    }
+    
     public RecommenderData getData() {
     	return data;
     }
@@ -89,8 +141,8 @@ public class BRISMFPredictor implements Updatable {
     public BRISMFPredictor(int nFeatures, RecommenderData data, boolean train) {
         this.data = data;
         this.nFeatures = nFeatures;
-        this.userFeature = new HashMap<Integer, float[]>();
-        this.itemFeature = new HashMap<Integer, float[]>();
+        this.userFeature = new FactorMatrix(nFeatures);
+        this.itemFeature = new FactorMatrix(nFeatures);
         this.rnd = new Random(12345);
         data.attachUpdatable(this);
         if (train) train();
@@ -99,8 +151,8 @@ public class BRISMFPredictor implements Updatable {
     public BRISMFPredictor(int nFeatures, RecommenderData data, double lRate, double rFactor, boolean train) {
         this.data = data;
         this.nFeatures = nFeatures;
-        this.userFeature = new HashMap<Integer, float[]>();
-        this.itemFeature = new HashMap<Integer, float[]>();
+        this.userFeature = new FactorMatrix(nFeatures);
+        this.itemFeature = new FactorMatrix(nFeatures);
         this.rnd = new Random(12345);
         this.lRate = lRate;
         this.rFactor = rFactor;
@@ -108,214 +160,303 @@ public class BRISMFPredictor implements Updatable {
         if (train) train();
     }
     
-    private void resetFeatures(float[] feats, boolean userFeats) {
-        int n = feats.length;
-        for (int i = 0; i < n; ++i)
-            feats[i] = (float)0.01*(rnd.nextFloat()*2 - 1);
-        if (userFeats) feats[0] = 1;
-        else feats[1] = 1;
+    private void resetFeatures(float[] feats, int offset, boolean userFeats) {
+        for (int i = 0; i < nFeatures; ++i)
+            feats[offset + i] = (float)0.01*(rnd.nextFloat()*2 - 1);
+        if (userFeats) feats[offset] = 1;
+        else feats[offset + 1] = 1;
     }
     
     public double predictRating(int userID, int itemID) {
-        float[] userFeats = userFeature.get(userID);
-        float[] itemFeats = itemFeature.get(itemID);
-        return predictRating(userFeats, itemFeats);
+        int userRow = userFeature.getRow(userID);
+        int itemRow = itemFeature.getRow(itemID);
+        return predictRating(userFeature.getValues(), offset(userRow),
+                itemFeature.getValues(), offset(itemRow));
     }
     
     public double predictRating(float userFeats[], float itemFeats[]) {
-        double ret = data.getGlobalMean();
-        if (userFeats != null && itemFeats != null)
+        return predictRating(userFeats, userFeats != null ? 0 : -1,
+                itemFeats, itemFeats != null ? 0 : -1);
+    }
+    
+    private double predictRating(float[] userValues, int u, float[] itemValues, int v) {
+        return predictRating(userValues, u, itemValues, v,
+                data.getGlobalMean(), data.getMinRating(), data.getMaxRating());
+    }
+    
+    /**
+     * Predicts the rating from the features at the given offsets, a negative
+     * offset stands for missing features. The statistics of the data are
+     * passed in, as they do not change while training.
+     */
+    private double predictRating(float[] userValues, int u, float[] itemValues, int v,
+            double mean, double minRating, double maxRating) {
+        double ret = mean;
+        if (u >= 0 && v >= 0)
             for (int i = 0; i < nFeatures; ++i)
-                ret += userFeats[i]*itemFeats[i];
+                ret += userValues[u + i]*itemValues[v + i];
 
-        if (ret < data.getMinRating()) ret = data.getMinRating();
-        else if (ret > data.getMaxRating()) ret = data.getMaxRating();
+        if (ret < minRating) ret = minRating;
+        else if (ret > maxRating) ret = maxRating;
         
         return ret;
     }
     
-    public float[] trainUserFeats(List<Integer> itm, List<Double> rat, int nIts) {
-        float[] userFeats = new float[nFeatures];
-        resetFeatures(userFeats, true);
-        
-        int n = itm.size();
+    private int offset(int row) {
+        return row < 0 ? -1 : row*nFeatures;
+    }
+    
+    /**
+     * Trains the user features at offset u from scratch on the first n
+     * ratings collected in trainRows and trainRatings.
+     */
+    private void trainUserFeats(float[] userFeats, int u, int n, int nIts) {
+        resetFeatures(userFeats, u, true);
+        float[] itemValues = itemFeature.getValues();
+        double mean = data.getGlobalMean();
+        double minRating = data.getMinRating();
+        double maxRating = data.getMaxRating();
         for (int k = 0; k < nIts; ++k) {
             for (int i = 0; i < n; ++i) {
-                int itemID = itm.get(i);
-                float[] itemFeats = itemFeature.get(itemID);
-                double rating = rat.get(i);
-                double pred = predictRating(userFeats, itemFeats);
+                int v = offset(trainRows[i]);
+                double rating = trainRatings[i];
+                double pred = predictRating(userFeats, u, itemValues, v, mean, minRating, maxRating);
                 double err = rating - pred;
                 
-                if (itemFeats != null)
+                if (v >= 0)
                     for (int j = 1; j < nFeatures; ++j) 
-                        userFeats[j] += lRate*(err*itemFeats[j] - rFactor*userFeats[j]);
+                        userFeats[u + j] += lRate*(err*itemValues[v + j] - rFactor*userFeats[u + j]);
             }
         }
-        
-        return userFeats;
     }
     
-    public float[] trainItemFeats(int itemID, List<Integer> usr, List<Double> rat, int nIts) {
-        float[] itemFeats = new float[nFeatures];
-        resetFeatures(itemFeats, false);
-        
-        int n = usr.size();
+    /**
+     * Trains the item features at offset v from scratch on the first n
+     * ratings collected in trainRows and trainRatings.
+     */
+    private void trainItemFeats(float[] itemFeats, int v, int n, int nIts) {
+        resetFeatures(itemFeats, v, false);
+        float[] userValues = userFeature.getValues();
+        double mean = data.getGlobalMean();
+        double minRating = data.getMinRating();
+        double maxRating = data.getMaxRating();
         for (int k = 0; k < nIts; ++k) {
             for (int i = 0; i < n; ++i) {
-                int userID = usr.get(i);
-                float[] userFeats = userFeature.get(userID);
-                double rating = rat.get(i);
-                double pred = predictRating(userFeats, itemFeats);
+                int u = offset(trainRows[i]);
+                double rating = trainRatings[i];
+                double pred = predictRating(userValues, u, itemFeats, v, mean, minRating, maxRating);
                 double err = rating - pred;
                 
-                if (userFeats != null) {
-                    itemFeats[0] += lRate*(err*userFeats[0] - rFactor*itemFeats[0]);
+                if (u >= 0) {
+                    itemFeats[v] += lRate*(err*userValues[u] - rFactor*itemFeats[v]);
                     for (int j = 2; j < nFeatures; ++j)
-                        itemFeats[j] += lRate*(err*userFeats[j] - rFactor*itemFeats[j]);
+                        itemFeats[v + j] += lRate*(err*userValues[u + j] - rFactor*itemFeats[v + j]);
                 }
             }
         }
-        
+    }
+    
+    public float[] trainUserFeats(List<Integer> itm, List<Double> rat, int nIts) {
+        float[] userFeats = new float[nFeatures];
+        trainUserFeats(userFeats, 0, collectRatings(itm, rat, itemFeature), nIts);
+        return userFeats;
+    }
+    
+    public float[] trainItemFeats(int itemID, List<Integer> usr, List<Double> rat, int nIts) {
+        float[] itemFeats = new float[nFeatures];
+        trainItemFeats(itemFeats, 0, collectRatings(usr, rat, userFeature), nIts);
         return itemFeats;
     }
     
-    public void trainUser(int userID, List<Integer> itm, List<Double> rat, int nIts) {
-        userFeature.put(userID, trainUserFeats(itm, rat, nIts));
+    private void trainUserRow(int userID, int n, int nIts) {
+        int row = userFeature.addRow(userID);
+        trainUserFeats(userFeature.getValues(), row*nFeatures, n, nIts);
     }
     
-    public void trainUser(int userID, int nIts) {
-        SparseVector usrRats = data.getRatingsUser(userID);
-        ArrayList<Integer> itm = new ArrayList<Integer>();
-        ArrayList<Double> rat = new ArrayList<Double>();
-        Iterator<Pair<Integer, Double>> it = usrRats.iterator();
-        
+    private void trainItemRow(int itemID, int n, int nIts) {
+        int row = itemFeature.addRow(itemID);
+        trainItemFeats(itemFeature.getValues(), row*nFeatures, n, nIts);
+        markStale(row);
+    }
+    
+    /**
+     * Collects the rows of the rated (or rating) IDs and the ratings into
+     * trainRows and trainRatings.
+     * @return The number of ratings collected.
+     */
+    private int collectRatings(List<Integer> ids, List<Double> rat, FactorMatrix features) {
+        int n = ids.size();
+        ensureTrainCapacity(n);
+        for (int i = 0; i < n; ++i) {
+            trainRows[i] = features.getRow(ids.get(i));
+            trainRatings[i] = rat.get(i);
+        }
+        return n;
+    }
+    
+    /**
+     * Collects the ratings of a user or item like
+     * {@link #collectRatings(List, List, FactorMatrix)}. If setRating is true,
+     * the rating of changedID is replaced, or appended if it is not rated yet.
+     */
+    private int collectRatings(SparseVector rats, FactorMatrix features,
+            boolean setRating, int changedID, double changedRating) {
+        ensureTrainCapacity(rats.size() + 1);
+        boolean found = false;
+        int n = 0;
+        Iterator<Pair<Integer, Double>> it = rats.iterator();
         while (it.hasNext()) {
             Pair<Integer, Double> p = it.next();
-            itm.add(p.getFirst());
-            rat.add(p.getSecond());
+            trainRows[n] = features.getRow(p.getFirst());
+            if (setRating && p.getFirst() == changedID) {
+                found = true;
+                trainRatings[n] = changedRating;
+            }
+            else trainRatings[n] = p.getSecond();
+            ++n;
+        }
+        if (setRating && !found) {
+            trainRows[n] = features.getRow(changedID);
+            trainRatings[n] = changedRating;
+            ++n;
+        }
+        return n;
+    }
+    
+    private void ensureTrainCapacity(int n) {
+        if (trainRows.length < n) {
+            int capacity = Math.max(n, 2*trainRows.length);
+            trainRows = new int[capacity];
+            trainRatings = new double[capacity];
         }
-        trainUser(userID, itm, rat, nIts);
+    }
+    
+    public void trainUser(int userID, List<Integer> itm, List<Double> rat, int nIts) {
+        trainUserRow(userID, collectRatings(itm, rat, itemFeature), nIts);
+    }
+    
+    public void trainUser(int userID, int nIts) {
+        trainUserRow(userID, collectRatings(data.getRatingsUser(userID), itemFeature, false, 0, 0), nIts);
     }
     
     public void trainUser(int userID, List<Integer> itm, List<Double> rat) {
-        userFeature.put(userID, trainUserFeats(itm, rat, nIterations));
+        trainUser(userID, itm, rat, nIterations);
     }
     
     public void trainItem(int itemID) {
-        SparseVector itmRats = data.getRatingsItem(itemID);
-        ArrayList<Integer> usr = new ArrayList<Integer>();
-        ArrayList<Double> rat = new ArrayList<Double>();
-        Iterator<Pair<Integer, Double>> it = itmRats.iterator();
-        
-        while (it.hasNext()) {
-            Pair<Integer, Double> p = it.next();
-            usr.add(p.getFirst());
-            rat.add(p.getSecond());
-        }
-        trainItem(itemID, usr, rat);
+        trainItem(itemID, nIterations);
     }
     
     public void trainItem(int itemID, int nIts) {
-        SparseVector itmRats = data.getRatingsItem(itemID);
-        ArrayList<Integer> usr = new ArrayList<Integer>();
-        ArrayList<Double> rat = new ArrayList<Double>();
-        Iterator<Pair<Integer, Double>> it = itmRats.iterator();
-        
-        while (it.hasNext()) {
-            Pair<Integer, Double> p = it.next();
-            usr.add(p.getFirst());
-            rat.add(p.getSecond());
-        }
-        trainItem(itemID, usr, rat, nIts);
+        trainItemRow(itemID, collectRatings(data.getRatingsItem(itemID), userFeature, false, 0, 0), nIts);
     }
     
     public void trainUser(int userID) {
-        SparseVector usrRats = data.getRatingsUser(userID);
-        ArrayList<Integer> itm = new ArrayList<Integer>();
-        ArrayList<Double> rat = new ArrayList<Double>();
-        Iterator<Pair<Integer, Double>> it = usrRats.iterator();
-        
-        while (it.hasNext()) {
-            Pair<Integer, Double> p = it.next();
-            itm.add(p.getFirst());
-            rat.add(p.getSecond());
-        }
-        trainUser(userID, itm, rat);
+        trainUser(userID, nIterations);
     }
     
     public void trainItem(int itemID, List<Integer> usr, List<Double> rat) {
-        itemFeature.put(itemID, trainItemFeats(itemID, usr, rat, nIterations));
+        trainItem(itemID, usr, rat, nIterations);
     }
     
     public void trainItem(int itemID, List<Integer> usr, List<Double> rat, int nIts) {
-        itemFeature.put(itemID, trainItemFeats(itemID, usr, rat, nIts));
+        trainItemRow(itemID, collectRatings(usr, rat, userFeature), nIts);
     }
     
     public void train() {
         userFeature.clear();
         itemFeature.clear();
+        clearNorms();
         
         int n = data.getNumRatings();
         
         Iterator<Integer> it = data.getUsers().iterator();
         while (it.hasNext()) {
-            float[] feats = new float[nFeatures];
-            resetFeatures(feats, true);
-            userFeature.put(it.next(), feats);
+            int row = userFeature.addRow(it.next());
+            resetFeatures(userFeature.getValues(), row*nFeatures, true);
         }
         
         it = data.getItems().iterator();
         while (it.hasNext()) {
-            float[] feats = new float[nFeatures];
-            resetFeatures(feats, false);
-            itemFeature.put(it.next(), feats);
+            int row = itemFeature.addRow(it.next());
+            resetFeatures(itemFeature.getValues(), row*nFeatures, false);
+        }
+        float[] userValues = userFeature.getValues();
+        float[] itemValues = itemFeature.getValues();
+
+        // The ratings are collected once as feature offsets, every
+        // trainDiv-th one is held out to decide when to stop.
+        int trainDiv = Math.max(20, n/1000000);
+        int[] trainUsers = new int[n - n/trainDiv];
+        int[] trainItems = new int[trainUsers.length];
+        double[] trainRats = new double[trainUsers.length];
+        int[] testUsers = new int[n/trainDiv + 1];
+        int[] testItems = new int[testUsers.length];
+        double[] testRats = new double[testUsers.length];
+        int nTrain = 0;
+        int nTest = 0;
+        Iterator<Rating> ratIt = data.ratingIterator();
+        int idx = 0;
+        while (ratIt.hasNext()) {
+            Rating rat = ratIt.next();
+            int u = userFeature.getRow(rat.userID)*nFeatures;
+            int v = itemFeature.getRow(rat.itemID)*nFeatures;
+            if (idx%trainDiv == 0) {
+                if (nTest == testUsers.length) {
+                    testUsers = Arrays.copyOf(testUsers, 2*nTest);
+                    testItems = Arrays.copyOf(testItems, 2*nTest);
+                    testRats = Arrays.copyOf(testRats, 2*nTest);
+                }
+                testUsers[nTest] = u;
+                testItems[nTest] = v;
+                testRats[nTest++] = rat.rating;
+            }
+            else {
+                if (nTrain == trainUsers.length) {
+                    trainUsers = Arrays.copyOf(trainUsers, Math.max(16, 2*nTrain));
+                    trainItems = Arrays.copyOf(trainItems, trainUsers.length);
+                    trainRats = Arrays.copyOf(trainRats, trainUsers.length);
+                }
+                trainUsers[nTrain] = u;
+                trainItems[nTrain] = v;
+                trainRats[nTrain++] = rat.rating;
+            }
+            ++idx;
         }
+        final int[] users = trainUsers;
+        final int[] items = trainItems;
+        final double[] rats = trainRats;
+        final int nRats = nTrain;
+        double mean = data.getGlobalMean();
+        double minRating = data.getMinRating();
+        double maxRating = data.getMaxRating();
 
         int exit = 0;
         double lastRMSE = 1e20;
         
-        int count = 0;
-        int trainDiv = Math.max(20, n/1000000);
-        ArrayList<Rating> ratTest = new ArrayList<Rating>(n/trainDiv);
         do {
             long start = System.currentTimeMillis();
-            Iterator<Rating> ratIt = data.ratingIterator();
-            int idx = 0;
-            
-            while (ratIt.hasNext()) {
-                Rating rat = ratIt.next();
-                if (idx%trainDiv == 0) {
-                    if (count == 0) ratTest.add(rat);
-                }
-                else {
-                    int userID = rat.userID;
-                    int itemID = rat.itemID;
-                    double rating = rat.rating;
-                    float[] userFeats = userFeature.get(userID);
-                    float[] itemFeats = itemFeature.get(itemID);
-                    
-                    double pred = predictRating(userFeats, itemFeats);
-                    double err = rating - pred;
-                    
-                    itemFeats[0] += lRate*(err*userFeats[0] - rFactor*itemFeats[0]);
-                    userFeats[1] += lRate*(err*itemFeats[1] - rFactor*userFeats[1]);
-                    for (int j = 2; j < nFeatures; ++j) {
-                        double uv = userFeats[j];
-                        userFeats[j] += lRate*(err*itemFeats[j] - rFactor*userFeats[j]);
-                        itemFeats[j] += lRate*(err*uv - rFactor*itemFeats[j]);
-                    }
-                }
-                ++idx;
+            if (parallelTraining) {
+                // lock-free, the tasks share the feature arrays
+                int nChunks = (nRats + PARALLEL_CHUNK_SIZE - 1)/PARALLEL_CHUNK_SIZE;
+                IntStream.range(0, nChunks).parallel().forEach(c -> {
+                    int end = Math.min(nRats, (c + 1)*PARALLEL_CHUNK_SIZE);
+                    for (int i = c*PARALLEL_CHUNK_SIZE; i < end; ++i)
+                        trainRating(userValues, users[i], itemValues, items[i], rats[i],
+                            mean, minRating, maxRating);
+                });
+            }
+            else {
+                for (int i = 0; i < nRats; ++i)
+                    trainRating(userValues, users[i], itemValues, items[i], rats[i],
+                            mean, minRating, maxRating);
             }
-            int nTest = ratTest.size();
 
             double sum = 0;
             for (int i = 0; i < nTest; ++i) {
-                int userID = ratTest.get(i).userID;
-                int itemID = ratTest.get(i).itemID;
-                double rating = ratTest.get(i).rating;
-                double pred = predictRating(userID, itemID);
+                double rating = testRats[i];
+                double pred = predictRating(userValues, testUsers[i], itemValues, testItems[i],
+                        mean, minRating, maxRating);
                 sum += Math.pow(rating - pred, 2);
             }
             
@@ -325,17 +466,40 @@ public class BRISMFPredictor implements Updatable {
                 ++exit;
             }
             lastRMSE = curRMSE;
-            ++count;
         }
         while (exit < 1);
     }
     
+    /**
+     * One gradient step of the batch training on the user features at offset
+     * u and the item features at offset v.
+     */
+    private void trainRating(float[] userValues, int u, float[] itemValues, int v, double rating,
+            double mean, double minRating, double maxRating) {
+        double pred = predictRating(userValues, u, itemValues, v, mean, minRating, maxRating);
+        double err = rating - pred;
+        
+        itemValues[v] += lRate*(err*userValues[u] - rFactor*itemValues[v]);
+        userValues[u + 1] += lRate*(err*itemValues[v + 1] - rFactor*userValues[u + 1]);
+        for (int j = 2; j < nFeatures; ++j) {
+            double uv = userValues[u + j];
+            userValues[u + j] += lRate*(err*itemValues[v + j] - rFactor*userValues[u + j]);
+            itemValues[v + j] += lRate*(err*uv - rFactor*itemValues[v + j]);
+        }
+    }
+    
+    /**
+     * @return A copy of the features of the user, or null if it has none.
+     */
     public float[] getUserFeatures(int userID) {
-        return userFeature.get(userID);
+        return userFeature.getRowCopy(userID);
     }
 
+    /**
+     * @return A copy of the features of the item, or null if it has none.
+     */
     public float[] getItemFeatures(int itemID) {
-        return itemFeature.get(itemID);
+        return itemFeature.getRowCopy(itemID);
     }
 
     public int getNumFeatures() {
@@ -360,12 +524,12 @@ public class BRISMFPredictor implements Updatable {
 
     @Override
     public void updateRemoveUser(int userID) {
-        userFeature.remove(userID);
+        userFeature.removeRow(userID);
     }
 
     @Override
     public void updateRemoveItem(int itemID) {
-        itemFeature.remove(itemID);
+        itemFeature.removeRow(itemID);
     }
     
     //We retrain the user/item separately, depending on a probability
@@ -379,50 +543,15 @@ public class BRISMFPredictor implements Updatable {
         double prob2 = Math.pow(0.99, nItm);
 
         if (nUsr < 5 || rnd.nextDouble() < prob1) {
-            SparseVector usrRats = data.getRatingsUser(userID);
-            ArrayList<Integer> itm = new ArrayList<Integer>();
-            ArrayList<Double> rat = new ArrayList<Double>();
-            
             //Train user
-            boolean found = false;
-            Iterator<Pair<Integer, Double>> it = usrRats.iterator();
-            while (it.hasNext()) {
-                Pair<Integer, Double> p = it.next();
-                itm.add(p.getFirst());
-                if (p.getFirst() == itemID) {
-                    found = true;
-                    rat.add(rating);
-                }
-                else rat.add(p.getSecond());
-            }
-            if (!found) {
-                itm.add(itemID);
-                rat.add(rating);
-            }
-            trainUser(userID, itm, rat);
+            int n = collectRatings(data.getRatingsUser(userID), itemFeature, true, itemID, rating);
+            trainUserRow(userID, n, nIterations);
         }
         
         if (nItm < 5 || rnd.nextDouble() < prob2) {
-            SparseVector itmRats = data.getRatingsItem(itemID);
             //Train item
-            Iterator<Pair<Integer, Double>> it = itmRats.iterator();
-            boolean found = false;
-            ArrayList<Integer> usr = new ArrayList<Integer>();
-            ArrayList<Double> rat = new ArrayList<Double>();
-            while (it.hasNext()) {
-                Pair<Integer, Double> p = it.next();
-                usr.add(p.getFirst());
-                if (p.getFirst() == userID) {
-                    found = true;
-                    rat.add(rating);
-                }
-                else rat.add(p.getSecond());
-            }
-            if (!found) {
-                usr.add(itemID);
-                rat.add(rating);
-            }
-            trainItem(itemID, usr, rat);
+            int n = collectRatings(data.getRatingsItem(itemID), userFeature, true, userID, rating);
+            trainItemRow(itemID, n, nIterations);
         }
     }
 
@@ -437,5 +566,164 @@ public class BRISMFPredictor implements Updatable {
 			ret.add(predictRating(userID, itemIDS.get(i)));
 		return ret;
 	}
+    
+    /**
+     * Recommends the n items with the highest predicted rating the user has
+     * not rated yet. The items are ranked by the dot product of the features
+     * before the rating is clipped to the rating range, which orders them like
+     * predictRating without the ties at the ends of the range. Items without
+     * features score like a dot product of 0, ties go to the lower ID.
+     * @return The IDs of at most n items, best first.
+     */
+    public List<Integer> recommendTopN(int userID, int n) {
+        TopN top = new TopN(n);
+        int nRows = itemFeature.getNumRows();
+        if (ratedRows.length < nRows)
+            ratedRows = new boolean[Math.max(nRows, 2*ratedRows.length)];
+        SparseVector rated = data.getRatingsUser(userID);
+        markRated(rated, true);
+        
+        int u = offset(userFeature.getRow(userID));
+        if (u >= 0 && pruneWithNorms)
+            scoreItemsPruned(top, u);
+        else
+            scoreItems(top, u);
+        
+        // items of the data that have no features yet
+        if (data.getItems().size() > itemFeature.size()) {
+            Iterator<Integer> it = data.getItems().iterator();
+            while (it.hasNext()) {
+                int itemID = it.next();
+                if (itemFeature.getRow(itemID) < 0 && (rated == null || rated.get(itemID) == null))
+                    top.offer(itemID, 0);
+            }
+        }
+        
+        markRated(rated, false);
+        return top.getIds();
+    }
+    
+    private void markRated(SparseVector rated, boolean mark) {
+        if (rated == null)
+            return;
+        Iterator<Pair<Integer, Double>> it = rated.iterator();
+        while (it.hasNext()) {
+            int row = itemFeature.getRow(it.next().getFirst());
+            if (row >= 0)
+                ratedRows[row] = mark;
+        }
+    }
+    
+    private double score(float[] userValues, int u, float[] itemValues, int v) {
+        double ret = 0;
+        for (int i = 0; i < nFeatures; ++i)
+            ret += userValues[u + i]*itemValues[v + i];
+        return ret;
+    }
+    
+    /**
+     * Offers every unrated item with features, the user features are at
+     * offset u or missing if it is negative.
+     */
+    private void scoreItems(TopN top, int u) {
+        float[] userValues = userFeature.getValues();
+        float[] itemValues = itemFeature.getValues();
+        int nRows = itemFeature.getNumRows();
+        for (int row = 0; row < nRows; ++row) {
+            if (itemFeature.isUsed(row) && !ratedRows[row])
+                top.offer(itemFeature.getId(row), u >= 0 ? score(userValues, u, itemValues, row*nFeatures) : 0);
+        }
+    }
+    
+    /**
+     * Offers the unrated items with features in the order of decreasing
+     * norm until the remaining ones cannot score high enough.
+     */
+    private void scoreItemsPruned(TopN top, int u) {
+        float[] userValues = userFeature.getValues();
+        float[] itemValues = itemFeature.getValues();
+        if (!normsSorted)
+            sortNorms();
+        for (int i = 0; i < nStale; ++i) {
+            int row = staleList[i];
+            if (itemFeature.isUsed(row) && !ratedRows[row])
+                top.offer(itemFeature.getId(row), score(userValues, u, itemValues, row*nFeatures));
+        }
+        double userNorm = 0;
+        for (int i = 0; i < nFeatures; ++i)
+            userNorm += (double)userValues[u + i]*userValues[u + i];
+        userNorm = Math.sqrt(userNorm);
+        for (int i = 0; i < normRows.length; ++i) {
+            // the slack covers the float rounding of the products in the scores
+            if (top.isFull() && userNorm*norms[i]*(1 + 1e-6) < top.threshold())
+                break;
+            int row = normRows[i];
+            if (itemFeature.isUsed(row) && !ratedRows[row] && !staleRows[row])
+                top.offer(itemFeature.getId(row), score(userValues, u, itemValues, row*nFeatures));
+        }
+    }
+    
+    /**
+     * Sorts the used item rows by decreasing norm. The norms are rounded up
+     * to floats, so they are still upper bounds, and packed with the row into
+     * longs for a primitive sort.
+     */
+    private void sortNorms() {
+        clearNorms();
+        float[] itemValues = itemFeature.getValues();
+        int nRows = itemFeature.getNumRows();
+        if (staleRows.length < nRows)
+            staleRows = new boolean[nRows];
+        long[] packed = new long[itemFeature.size()];
+        int n = 0;
+        for (int row = 0; row < nRows; ++row) {
+            if (!itemFeature.isUsed(row))
+                continue;
+            int v = row*nFeatures;
+            double norm = 0;
+            for (int i = 0; i < nFeatures; ++i)
+                norm += (double)itemValues[v + i]*itemValues[v + i];
+            float bound = Math.nextUp((float)Math.sqrt(norm));
+            // the bits of non-negative floats sort like their values
+            packed[n++] = ((long)Float.floatToIntBits(bound) << 32) | row;
+        }
+        Arrays.sort(packed, 0, n);
+        normRows = new int[n];
+        norms = new double[n];
+        for (int i = 0; i < n; ++i) {
+            long p = packed[n - 1 - i];
+            normRows[i] = (int)p;
+            norms[i] = Float.intBitsToFloat((int)(p >>> 32));
+        }
+        normsSorted = true;
+    }
+    
+    private void clearNorms() {
+        for (int i = 0; i < nStale; ++i)
+            staleRows[staleList[i]] = false;
+        nStale = 0;
+        normsSorted = false;
+        normRows = new int[0];
+        norms = new double[0];
+    }
+    
+    /**
+     * Records that the features of the item row changed since the norms were
+     * sorted, the norms are dropped once an eighth of the rows changed.
+     */
+    private void markStale(int row) {
+        if (!normsSorted || (row < staleRows.length && staleRows[row]))
+            return;
+        if (nStale >= Math.max(64, normRows.length/8)) {
+            clearNorms();
+            return;
+        }
+        if (row >= staleRows.length)
+            staleRows = Arrays.copyOf(staleRows, Math.max(row + 1, 2*staleRows.length));
+        if (nStale == staleList.length)
+            staleList = Arrays.copyOf(staleList, 2*nStale);
+        staleRows[row] = true;
+        staleList[nStale++] = row;
+    }
 
 }
@@ -21,9 +21,12 @@
 package moa.recommender.rc.predictor.impl;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import moa.recommender.rc.data.RecommenderData;
 import moa.recommender.rc.predictor.RatingPredictor;
+import moa.recommender.rc.utils.SparseVector;
+import moa.recommender.rc.utils.TopN;
 
 public class BaselinePredictor implements RatingPredictor {
     /**
@@ -57,6 +60,26 @@ public class BaselinePredictor implements RatingPredictor {
         return ret;
     }
 
+    /**
+     * Recommends the n items the user has not rated yet with the highest
+     * predicted rating. The user mean shifts all predictions alike, so the
+     * items are ranked by their mean rating before clipping, ties go to the
+     * lower ID.
+     * @return The IDs of at most n items, best first.
+     */
+    public List<Integer> recommendTopN(int userID, int n) {
+        TopN top = new TopN(n);
+        SparseVector rated = data.getRatingsUser(userID);
+        Iterator<Integer> it = data.getItems().iterator();
+        while (it.hasNext()) {
+            int itemID = it.next();
+            if (rated == null || rated.get(itemID) == null) {
+                top.offer(itemID, data.getAvgRatingItem(itemID));
+            }
+        }
+        return top.getIds();
+    }
+
     @Override
     public RecommenderData getData() {
         return data;
@@ -0,0 +1,171 @@
+/*
+ *    FactorMatrix.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ *
+ */
+
+package moa.recommender.rc.utils;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Feature vectors of users or items stored as the rows of one contiguous,
+ * growable float matrix. The rows are addressed through an {@link IdIndex}
+ * from the user or item ID to the row, so no boxing or hashing of Integer
+ * keys is needed. The rows of removed IDs are reused.
+ *
+ * <p>The values of row <code>r</code> are
+ * <code>getValues()[r*getNumColumns()]</code> to
+ * <code>getValues()[(r+1)*getNumColumns()-1]</code>. The array is replaced
+ * when the matrix grows, so it must be fetched again after adding a row.</p>
+ */
+public class FactorMatrix implements Serializable {
+
+    private static final long serialVersionUID = -4519526404532542917L;
+
+    private final int nColumns;
+    private float[] values;
+    private int nRows;
+
+    private IdIndex rows;
+
+    // ID of each row, the free rows are not used
+    private int[] rowIds;
+    private boolean[] rowUsed;
+
+    // rows of removed IDs, reused before new rows are added
+    private int[] freeRows;
+    private int nFreeRows;
+
+    public FactorMatrix(int nColumns) {
+        this.nColumns = nColumns;
+        clear();
+    }
+
+    public int getNumColumns() {
+        return nColumns;
+    }
+
+    /**
+     * @return The backing array, row r starts at r*getNumColumns().
+     */
+    public float[] getValues() {
+        return values;
+    }
+
+    /**
+     * @return The number of IDs with a row.
+     */
+    public int size() {
+        return rows.size();
+    }
+
+    /**
+     * @return The number of rows including the free ones, all rows are below.
+     */
+    public int getNumRows() {
+        return nRows;
+    }
+
+    /**
+     * @return Whether the row belongs to an ID.
+     */
+    public boolean isUsed(int row) {
+        return rowUsed[row];
+    }
+
+    /**
+     * @return The ID of a used row.
+     */
+    public int getId(int row) {
+        return rowIds[row];
+    }
+
+    /**
+     * @param id The user or item ID.
+     * @return The row of the ID, or -1 if it has none.
+     */
+    public int getRow(int id) {
+        return rows.get(id);
+    }
+
+    /**
+     * Returns the row of the ID, adding one if it has none. The values of an
+     * added row are undefined.
+     * @param id The user or item ID.
+     * @return The row of the ID.
+     */
+    public int addRow(int id) {
+        int row = rows.get(id);
+        if (row >= 0) {
+            return row;
+        }
+        if (nFreeRows > 0) {
+            row = freeRows[--nFreeRows];
+        } else {
+            row = nRows++;
+            if (nRows * nColumns > values.length) {
+                values = Arrays.copyOf(values, Math.max(2 * values.length, nRows * nColumns));
+            }
+            if (nRows > rowIds.length) {
+                rowIds = Arrays.copyOf(rowIds, 2 * rowIds.length);
+                rowUsed = Arrays.copyOf(rowUsed, rowIds.length);
+            }
+        }
+        rows.put(id, row);
+        rowIds[row] = id;
+        rowUsed[row] = true;
+        return row;
+    }
+
+    /**
+     * Removes the row of the ID, if it has one.
+     * @param id The user or item ID.
+     */
+    public void removeRow(int id) {
+        int row = rows.remove(id);
+        if (row < 0) {
+            return;
+        }
+        rowUsed[row] = false;
+        if (nFreeRows == freeRows.length) {
+            freeRows = Arrays.copyOf(freeRows, Math.max(8, 2 * nFreeRows));
+        }
+        freeRows[nFreeRows++] = row;
+    }
+
+    /**
+     * @param id The user or item ID.
+     * @return A copy of the row of the ID, or null if it has none.
+     */
+    public float[] getRowCopy(int id) {
+        int row = getRow(id);
+        if (row < 0) {
+            return null;
+        }
+        return Arrays.copyOfRange(values, row * nColumns, (row + 1) * nColumns);
+    }
+
+    public void clear() {
+        values = new float[16 * nColumns];
+        nRows = 0;
+        rows = new IdIndex();
+        rowIds = new int[16];
+        rowUsed = new boolean[16];
+        freeRows = new int[8];
+        nFreeRows = 0;
+    }
+}
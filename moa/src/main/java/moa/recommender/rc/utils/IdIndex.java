@@ -0,0 +1,144 @@
+/*
+ *    IdIndex.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ *
+ */
+
+package moa.recommender.rc.utils;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Maps user or item IDs to non-negative indices without boxing. It is an open
+ * addressing table with linear probing, keys are spread with
+ * {@link Hash#hashCode(int)} and removals shift the following entries back,
+ * so no deleted markers accumulate.
+ */
+public class IdIndex implements Serializable {
+
+    private static final long serialVersionUID = 6171460452983466383L;
+
+    private static final int EMPTY = -1;
+
+    // slots with index EMPTY are free
+    private int[] keys;
+    private int[] indices;
+    private int size;
+
+    public IdIndex() {
+        clear();
+    }
+
+    /**
+     * @return The number of IDs with an index.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param id The user or item ID.
+     * @return The index of the ID, or -1 if it has none.
+     */
+    public int get(int id) {
+        int mask = keys.length - 1;
+        for (int slot = Hash.hashCode(id) & mask; ; slot = (slot + 1) & mask) {
+            int index = indices[slot];
+            if (index == EMPTY || keys[slot] == id) {
+                return index;
+            }
+        }
+    }
+
+    /**
+     * Sets the index of the ID, replacing its previous index.
+     * @param id The user or item ID.
+     * @param index The index, not negative.
+     */
+    public void put(int id, int index) {
+        assert (index >= 0);
+        int mask = keys.length - 1;
+        int slot = Hash.hashCode(id) & mask;
+        while (indices[slot] != EMPTY) {
+            if (keys[slot] == id) {
+                indices[slot] = index;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = id;
+        indices[slot] = index;
+        if (++size * 2 > keys.length) {
+            rehash(2 * keys.length);
+        }
+    }
+
+    /**
+     * Removes the ID.
+     * @param id The user or item ID.
+     * @return The index the ID had, or -1 if it had none.
+     */
+    public int remove(int id) {
+        int mask = keys.length - 1;
+        int slot = Hash.hashCode(id) & mask;
+        while (indices[slot] != EMPTY && keys[slot] != id) {
+            slot = (slot + 1) & mask;
+        }
+        int index = indices[slot];
+        if (index == EMPTY) {
+            return EMPTY;
+        }
+        --size;
+        // shifts the following entries of the probe sequence back
+        int hole = slot;
+        for (int next = (hole + 1) & mask; indices[next] != EMPTY; next = (next + 1) & mask) {
+            int home = Hash.hashCode(keys[next]) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                indices[hole] = indices[next];
+                hole = next;
+            }
+        }
+        indices[hole] = EMPTY;
+        return index;
+    }
+
+    public void clear() {
+        keys = new int[32];
+        indices = new int[32];
+        Arrays.fill(indices, EMPTY);
+        size = 0;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldIndices = indices;
+        keys = new int[capacity];
+        indices = new int[capacity];
+        Arrays.fill(indices, EMPTY);
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; ++i) {
+            if (oldIndices[i] != EMPTY) {
+                int slot = Hash.hashCode(oldKeys[i]) & mask;
+                while (indices[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                indices[slot] = oldIndices[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ *    TopN.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ *
+ */
+
+package moa.recommender.rc.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Partial selection of the n best scored IDs out of a stream of candidates.
+ * The kept candidates form a binary min-heap on primitive arrays, so offering
+ * a candidate costs O(log n) at most and nothing once it scores below the
+ * threshold. Higher scores are better, equal scores are ordered by ascending
+ * ID, so the result does not depend on the order of the candidates. NaN
+ * scores are ignored.
+ */
+public class TopN {
+
+    private final int n;
+    private int size;
+    private final int[] ids;
+    private final double[] scores;
+
+    /**
+     * @param n The number of IDs to select, not negative.
+     */
+    public TopN(int n) {
+        if (n < 0) {
+            throw new IllegalArgumentException("negative n: " + n);
+        }
+        this.n = n;
+        this.ids = new int[n];
+        this.scores = new double[n];
+    }
+
+    /**
+     * @return Whether n candidates have been kept already.
+     */
+    public boolean isFull() {
+        return size == n;
+    }
+
+    /**
+     * @return The score of the worst kept candidate once full, a candidate
+     * has to score at least as high to be kept. Negative infinity before.
+     */
+    public double threshold() {
+        return (size == n && n > 0 ? scores[0] : Double.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * Offers a candidate.
+     * @return Whether the candidate is kept for now.
+     */
+    public boolean offer(int id, double score) {
+        if (Double.isNaN(score) || n == 0) {
+            return false;
+        }
+        if (size < n) {
+            // sift up
+            int pos = size++;
+            while (pos > 0) {
+                int parent = (pos - 1) >>> 1;
+                if (!worse(score, id, scores[parent], ids[parent])) {
+                    break;
+                }
+                ids[pos] = ids[parent];
+                scores[pos] = scores[parent];
+                pos = parent;
+            }
+            ids[pos] = id;
+            scores[pos] = score;
+            return true;
+        }
+        if (!worse(scores[0], ids[0], score, id)) {
+            return false;
+        }
+        siftDown(id, score, size);
+        return true;
+    }
+
+    /**
+     * @return The kept IDs, best first. The selection is emptied.
+     */
+    public List<Integer> getIds() {
+        int count = size;
+        int[] sorted = new int[count];
+        // pops the worst candidate into the back
+        while (size > 0) {
+            int last = --size;
+            sorted[last] = ids[0];
+            if (last > 0) {
+                siftDown(ids[last], scores[last], last);
+            }
+        }
+        List<Integer> ret = new ArrayList<Integer>(count);
+        for (int i = 0; i < count; ++i) {
+            ret.add(sorted[i]);
+        }
+        return ret;
+    }
+
+    /**
+     * Puts the candidate at the root of the first end heap entries and sifts
+     * it down.
+     */
+    private void siftDown(int id, double score, int end) {
+        int pos = 0;
+        while (true) {
+            int child = 2 * pos + 1;
+            if (child >= end) {
+                break;
+            }
+            if (child + 1 < end && worse(scores[child + 1], ids[child + 1], scores[child], ids[child])) {
+                ++child;
+            }
+            if (!worse(scores[child], ids[child], score, id)) {
+                break;
+            }
+            ids[pos] = ids[child];
+            scores[pos] = scores[child];
+            pos = child;
+        }
+        ids[pos] = id;
+        scores[pos] = score;
+    }
+
+    private static boolean worse(double score1, int id1, double score2, int id2) {
+        return score1 < score2 || (score1 == score2 && id1 > id2);
+    }
+}
@@ -57,12 +57,16 @@ import moa.tasks.TaskMonitor;
  * The built in functions are based on the paper (page 924),
  *  which turn out to be functions pred20 thru pred29 in the public C implementation.
  * Perturbation function works like C implementation rather than description in paper.
+ * <br/>
+ * With generation threads, the instances are generated in independent chunks,
+ * see {@link ChunkedGeneration}. Balanced classes alternate just like with a
+ * single random stream.
  * 
  * @author Richard Kirkby (rkirkby@cs.waikato.ac.nz)
  * @version $Revision: 7 $
  */
 public class AgrawalGenerator extends AbstractOptionHandler implements
-        InstanceStream, CapabilitiesHandler {
+        InstanceStream, CapabilitiesHandler, ChunkedGeneration.Generator {
 
     @Override
     public String getPurposeString() {
@@ -87,6 +91,10 @@ public class AgrawalGenerator extends AbstractOptionHandler implements
     public FlagOption balanceClassesOption = new FlagOption("balanceClasses",
             'b', "Balance the number of instances of each class.");
 
+    public IntOption generationThreadsOption = new IntOption("generationThreads", 'P',
+            "Generates the instances in independent chunks on this many threads, with one random stream per chunk. The instances do not depend on the number of threads but differ from the ones of 0, which uses a single random stream.",
+            0, 0, Integer.MAX_VALUE);
+
     protected interface ClassFunction {
 
         public int determineClass(double salary, double commission, int age,
@@ -278,6 +286,8 @@ public class AgrawalGenerator extends AbstractOptionHandler implements
 
     protected boolean nextClassShouldBeZero;
 
+    protected ChunkedGeneration chunkedGeneration;
+
     @Override
     protected void prepareForUseImpl(TaskMonitor monitor,
             ObjectRepository repository) {
@@ -336,25 +346,51 @@ public class AgrawalGenerator extends AbstractOptionHandler implements
 
     @Override
     public InstanceExample nextInstance() {
+        InstancesHeader header = getHeader();
+        if (this.generationThreadsOption.getValue() > 0) {
+            if (this.chunkedGeneration == null) {
+                this.chunkedGeneration = new ChunkedGeneration(this,
+                        header.numAttributes(), this.generationThreadsOption.getValue());
+            }
+            return this.chunkedGeneration.nextInstance(header);
+        }
+        double[] attVals = new double[header.numAttributes()];
+        generateValues(this.instanceRandom, attVals, 0, this.nextClassShouldBeZero);
+        if (this.balanceClassesOption.isSet()) {
+            this.nextClassShouldBeZero = !this.nextClassShouldBeZero;
+        }
+        Instance inst = new DenseInstance(1.0, attVals);
+        inst.setDataset(header);
+        return new InstanceExample(inst);
+    }
+
+    /**
+     * Writes the attribute values and the class value of an instance at
+     * offset into values.
+     *
+     * @param classShouldBeZero the class desired if the classes are balanced
+     */
+    protected void generateValues(Random random, double[] values, int offset,
+            boolean classShouldBeZero) {
         double salary = 0, commission = 0, hvalue = 0, loan = 0;
         int age = 0, elevel = 0, car = 0, zipcode = 0, hyears = 0, group = 0;
         boolean desiredClassFound = false;
         while (!desiredClassFound) {
             // generate attributes
-            salary = 20000.0 + 130000.0 * this.instanceRandom.nextDouble();
+            salary = 20000.0 + 130000.0 * random.nextDouble();
             commission = (salary >= 75000.0) ? 0
-                    : (10000.0 + 65000.0 * this.instanceRandom.nextDouble());
+                    : (10000.0 + 65000.0 * random.nextDouble());
             // true to c implementation:
             // if (instanceRandom.nextDouble() < 0.5 && salary < 75000.0)
             // commission = 10000.0 + 65000.0 * instanceRandom.nextDouble();
-            age = 20 + this.instanceRandom.nextInt(61);
-            elevel = this.instanceRandom.nextInt(5);
-            car = this.instanceRandom.nextInt(20);
-            zipcode = this.instanceRandom.nextInt(9);
+            age = 20 + random.nextInt(61);
+            elevel = random.nextInt(5);
+            car = random.nextInt(20);
+            zipcode = random.nextInt(9);
             hvalue = (9.0 - zipcode) * 100000.0
-                    * (0.5 + this.instanceRandom.nextDouble());
-            hyears = 1 + this.instanceRandom.nextInt(30);
-            loan = this.instanceRandom.nextDouble() * 500000.0;
+                    * (0.5 + random.nextDouble());
+            hyears = 1 + random.nextInt(30);
+            loan = random.nextDouble() * 500000.0;
             // determine class
             group = classificationFunctions[this.functionOption.getValue() - 1].determineClass(salary, commission, age, elevel, car,
                     zipcode, hvalue, hyears, loan);
@@ -362,48 +398,51 @@ public class AgrawalGenerator extends AbstractOptionHandler implements
                 desiredClassFound = true;
             } else {
                 // balance the classes
-                if ((this.nextClassShouldBeZero && (group == 0))
-                        || (!this.nextClassShouldBeZero && (group == 1))) {
+                if ((classShouldBeZero && (group == 0))
+                        || (!classShouldBeZero && (group == 1))) {
                     desiredClassFound = true;
-                    this.nextClassShouldBeZero = !this.nextClassShouldBeZero;
                 } // else keep searching
             }
         }
         // perturb values
         if (this.peturbFractionOption.getValue() > 0.0) {
-            salary = perturbValue(salary, 20000, 150000);
+            salary = perturbValue(random, salary, 20000, 150000);
             if (commission > 0) {
-                commission = perturbValue(commission, 10000, 75000);
+                commission = perturbValue(random, commission, 10000, 75000);
             }
-            age = (int) Math.round(perturbValue(age, 20, 80));
-            hvalue = perturbValue(hvalue, (9.0 - zipcode) * 100000.0, 0, 135000);
-            hyears = (int) Math.round(perturbValue(hyears, 1, 30));
-            loan = perturbValue(loan, 0, 500000);
+            age = (int) Math.round(perturbValue(random, age, 20, 80));
+            hvalue = perturbValue(random, hvalue, (9.0 - zipcode) * 100000.0, 0, 135000);
+            hyears = (int) Math.round(perturbValue(random, hyears, 1, 30));
+            loan = perturbValue(random, loan, 0, 500000);
         }
-        // construct instance
-        InstancesHeader header = getHeader();
-        Instance inst = new DenseInstance(header.numAttributes());
-        inst.setValue(0, salary);
-        inst.setValue(1, commission);
-        inst.setValue(2, age);
-        inst.setValue(3, elevel);
-        inst.setValue(4, car);
-        inst.setValue(5, zipcode);
-        inst.setValue(6, hvalue);
-        inst.setValue(7, hyears);
-        inst.setValue(8, loan);
-        inst.setDataset(header);
-        inst.setClassValue(group);
-        return new InstanceExample(inst);
+        values[offset] = salary;
+        values[offset + 1] = commission;
+        values[offset + 2] = age;
+        values[offset + 3] = elevel;
+        values[offset + 4] = car;
+        values[offset + 5] = zipcode;
+        values[offset + 6] = hvalue;
+        values[offset + 7] = hyears;
+        values[offset + 8] = loan;
+        values[offset + 9] = group;
     }
 
     protected double perturbValue(double val, double min, double max) {
-        return perturbValue(val, max - min, min, max);
+        return perturbValue(this.instanceRandom, val, min, max);
     }
 
     protected double perturbValue(double val, double range, double min,
             double max) {
-        val += range * (2.0 * (this.instanceRandom.nextDouble() - 0.5))
+        return perturbValue(this.instanceRandom, val, range, min, max);
+    }
+
+    protected double perturbValue(Random random, double val, double min, double max) {
+        return perturbValue(random, val, max - min, min, max);
+    }
+
+    protected double perturbValue(Random random, double val, double range, double min,
+            double max) {
+        val += range * (2.0 * (random.nextDouble() - 0.5))
                 * this.peturbFractionOption.getValue();
         if (val < min) {
             val = min;
@@ -413,10 +452,34 @@ public class AgrawalGenerator extends AbstractOptionHandler implements
         return val;
     }
 
+    @Override
+    public Object getInitialChunkState() {
+        return null;
+    }
+
+    @Override
+    public Object getNextChunkState(Object state, long chunk) {
+        return null;
+    }
+
+    @Override
+    public void generateChunk(Object state, long chunk, double[] values) {
+        Random random = ChunkedGeneration.chunkRandom(this.instanceRandomSeedOption.getValue(), chunk, 0);
+        int numValues = getHeader().numAttributes();
+        for (int i = 0; i < ChunkedGeneration.CHUNK_SIZE; i++) {
+            // balanced classes start with class one, CHUNK_SIZE is even
+            generateValues(random, values, i * numValues, i % 2 == 1);
+        }
+    }
+
     @Override
     public void restart() {
         this.instanceRandom = new Random(this.instanceRandomSeedOption.getValue());
         this.nextClassShouldBeZero = false;
+        if (this.chunkedGeneration != null) {
+            this.chunkedGeneration.close();
+            this.chunkedGeneration = null;
+        }
     }
 
     @Override
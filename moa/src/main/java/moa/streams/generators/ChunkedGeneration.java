@@ -0,0 +1,238 @@
+/*
+ *    ChunkedGeneration.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.streams.generators;
+
+import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+import java.io.Serializable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import moa.core.InstanceExample;
+import moa.core.SplitMixRandom;
+
+/**
+ * Generates the instances of a generator in chunks of {@link #CHUNK_SIZE}
+ * instances, which are computed independently of each other on worker
+ * threads and handed out in order.
+ * <br>
+ * Each chunk draws from its own random stream, see
+ * {@link SplitMixRandom#streamSeed(long, long)}, so the instances only depend
+ * on the seed and not on the number of threads; a single thread generates
+ * the chunks on the consumer thread when they are needed. The state a
+ * generator carries from one instance to the next, like drifting weights, is
+ * advanced chunk by chunk on the consumer thread and handed to the chunk.
+ * <br>
+ * The values of the chunks are written to buffers that are reused once their
+ * instances are handed out, up to two chunks per thread are generated ahead.
+ * The threads stop after a few seconds without work.
+ */
+public class ChunkedGeneration implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** the number of instances of a chunk, fixed so the stream does not change */
+    public static final int CHUNK_SIZE = 1024;
+
+    /**
+     * A generator of independent chunks of instances.
+     */
+    public interface Generator extends Serializable {
+
+        /**
+         * @return the state before the first chunk, null if there is none
+         */
+        Object getInitialChunkState();
+
+        /**
+         * Returns the state after the chunk, without changing the state
+         * passed in. Called in the order of the chunks on the consumer thread.
+         *
+         * @param state the state before the chunk
+         * @param chunk the number of the chunk
+         * @return the state before the next chunk
+         */
+        Object getNextChunkState(Object state, long chunk);
+
+        /**
+         * Writes the values of the instances of the chunk one after the
+         * other, the class value included. Called on a worker thread.
+         *
+         * @param state the state before the chunk, must not be changed
+         * @param chunk the number of the chunk, its first instance is
+         *              chunk*CHUNK_SIZE
+         * @param values the buffer of CHUNK_SIZE instances
+         */
+        void generateChunk(Object state, long chunk, double[] values);
+    }
+
+    protected final Generator generator;
+
+    protected final int numValues;
+
+    protected final int numThreads;
+
+    /** the number of instances handed out */
+    protected long numInstances;
+
+    protected transient ThreadPoolExecutor executor;
+
+    protected transient double[][] buffers;
+
+    protected transient Future<?>[] futures;
+
+    protected transient Object nextState;
+
+    protected transient long currentChunk;
+
+    protected transient int currentSlot = -1;
+
+    protected transient int position;
+
+    /**
+     * @param generator the generator of the chunks
+     * @param numValues the number of values of an instance
+     * @param numThreads the number of threads generating chunks
+     */
+    public ChunkedGeneration(Generator generator, int numValues, int numThreads) {
+        this.generator = generator;
+        this.numValues = numValues;
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    /**
+     * Returns a random generator for the chunk.
+     *
+     * @param seed the seed of the stream
+     * @param chunk the number of the chunk
+     * @param substream a number to tell several generators of a chunk apart
+     * @return the random generator
+     */
+    public static SplitMixRandom chunkRandom(long seed, long chunk, int substream) {
+        return new SplitMixRandom(SplitMixRandom.streamSeed(SplitMixRandom.streamSeed(seed, chunk), substream));
+    }
+
+    /**
+     * Returns the next instance, its values are copied from the buffer of its
+     * chunk.
+     *
+     * @param header the header of the instance
+     * @return the instance
+     */
+    public InstanceExample nextInstance(InstancesHeader header) {
+        if (this.buffers == null) {
+            start();
+        }
+        if (this.position == CHUNK_SIZE) {
+            nextChunk();
+        }
+        double[] attVals = new double[this.numValues];
+        System.arraycopy(this.buffers[this.currentSlot], this.position * this.numValues, attVals, 0, this.numValues);
+        this.position++;
+        this.numInstances++;
+        Instance inst = new DenseInstance(1.0, attVals);
+        inst.setDataset(header);
+        return new InstanceExample(inst);
+    }
+
+    /**
+     * Stops the threads, generating again continues after the instances
+     * handed out.
+     */
+    public void close() {
+        if (this.executor != null) {
+            this.executor.shutdownNow();
+        }
+        this.executor = null;
+        this.buffers = null;
+        this.futures = null;
+        this.nextState = null;
+        this.currentSlot = -1;
+    }
+
+    /**
+     * Sets up the buffers at the chunk of the next instance, e.g. after
+     * deserialization.
+     */
+    protected void start() {
+        long firstChunk = this.numInstances / CHUNK_SIZE;
+        this.nextState = this.generator.getInitialChunkState();
+        for (long chunk = 0; chunk < firstChunk; chunk++) {
+            this.nextState = this.generator.getNextChunkState(this.nextState, chunk);
+        }
+        int numSlots = 1;
+        if (this.numThreads > 1) {
+            numSlots = 2 * this.numThreads;
+            this.executor = new ThreadPoolExecutor(this.numThreads, this.numThreads,
+                    5, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), r -> {
+                        Thread thread = new Thread(r, "moa-chunked-generation");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            this.executor.allowCoreThreadTimeOut(true);
+        }
+        this.buffers = new double[numSlots][CHUNK_SIZE * this.numValues];
+        this.futures = new Future<?>[numSlots];
+        for (int slot = 0; slot < numSlots; slot++) {
+            submit(slot, firstChunk + slot);
+        }
+        this.currentChunk = firstChunk - 1;
+        this.currentSlot = -1;
+        nextChunk();
+        this.position = (int) (this.numInstances % CHUNK_SIZE);
+    }
+
+    /**
+     * Hands the buffer of the current chunk to the chunk after the ones
+     * generated ahead and waits for the next chunk.
+     */
+    protected void nextChunk() {
+        int numSlots = this.buffers.length;
+        if (this.currentSlot >= 0) {
+            submit(this.currentSlot, this.currentChunk + numSlots);
+        }
+        this.currentSlot = (this.currentSlot + 1) % numSlots;
+        this.currentChunk++;
+        this.position = 0;
+        if (this.futures[this.currentSlot] != null) {
+            try {
+                this.futures[this.currentSlot].get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while generating instances", e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException("Failed to generate instances", e.getCause());
+            }
+            this.futures[this.currentSlot] = null;
+        }
+    }
+
+    protected void submit(int slot, long chunk) {
+        Object state = this.nextState;
+        this.nextState = this.generator.getNextChunkState(state, chunk);
+        double[] values = this.buffers[slot];
+        if (this.executor == null) {
+            this.generator.generateChunk(state, chunk, values);
+        } else {
+            this.futures[slot] = this.executor.submit(() -> this.generator.generateChunk(state, chunk, values));
+        }
+    }
+}
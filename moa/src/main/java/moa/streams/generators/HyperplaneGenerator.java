@@ -39,12 +39,17 @@ import com.yahoo.labs.samoa.instances.InstancesHeader;
 
 /**
  * Stream generator for Hyperplane data stream.
+ * <br>
+ * With generation threads, the instances are generated in independent chunks,
+ * see {@link ChunkedGeneration}. The changes of direction of the drift then
+ * draw from a random stream of their own, so the weights before each chunk
+ * can be found without generating its instances.
  *
  * @author Albert Bifet (abifet at cs dot waikato dot ac dot nz)
  * @version $Revision: 7 $
  */
 public class HyperplaneGenerator extends AbstractOptionHandler implements
-        InstanceStream, CapabilitiesHandler {
+        InstanceStream, CapabilitiesHandler, ChunkedGeneration.Generator {
 
     @Override
     public String getPurposeString() {
@@ -75,6 +80,10 @@ public class HyperplaneGenerator extends AbstractOptionHandler implements
     public IntOption sigmaPercentageOption = new IntOption("sigmaPercentage",
             's', "Percentage of probability that the direction of change is reversed.", 10, 0, 100);
 
+    public IntOption generationThreadsOption = new IntOption("generationThreads", 'P',
+            "Generates the instances in independent chunks on this many threads, with one random stream per chunk. The instances do not depend on the number of threads but differ from the ones of 0, which uses a single random stream.",
+            0, 0, Integer.MAX_VALUE);
+
     protected InstancesHeader streamHeader;
 
     protected Random instanceRandom;
@@ -85,6 +94,8 @@ public class HyperplaneGenerator extends AbstractOptionHandler implements
 
     public int numberInstance;
 
+    protected ChunkedGeneration chunkedGeneration;
+
     @Override
     protected void prepareForUseImpl(TaskMonitor monitor,
             ObjectRepository repository) {
@@ -131,15 +142,34 @@ public class HyperplaneGenerator extends AbstractOptionHandler implements
 
     @Override
     public InstanceExample nextInstance() {
-
+        if (this.generationThreadsOption.getValue() > 0) {
+            if (this.chunkedGeneration == null) {
+                this.chunkedGeneration = new ChunkedGeneration(this,
+                        this.numAttsOption.getValue() + 1, this.generationThreadsOption.getValue());
+            }
+            return this.chunkedGeneration.nextInstance(getHeader());
+        }
         int numAtts = this.numAttsOption.getValue();
         double[] attVals = new double[numAtts + 1];
+        generateValues(this.instanceRandom, this.weights, attVals, 0);
+        Instance inst = new DenseInstance(1.0, attVals);
+        inst.setDataset(getHeader());
+        addDrift(this.instanceRandom, this.weights, this.sigma);
+        return new InstanceExample(inst);
+    }
+
+    /**
+     * Writes the attribute values and the class value of an instance at
+     * offset into values.
+     */
+    protected void generateValues(Random random, double[] weights, double[] values, int offset) {
+        int numAtts = this.numAttsOption.getValue();
         double sum = 0.0;
         double sumWeights = 0.0;
         for (int i = 0; i < numAtts; i++) {
-            attVals[i] = this.instanceRandom.nextDouble();
-            sum += this.weights[i] * attVals[i];
-            sumWeights += this.weights[i];
+            values[offset + i] = random.nextDouble();
+            sum += weights[i] * values[offset + i];
+            sumWeights += weights[i];
         }
         int classLabel;
         if (sum >= sumWeights * 0.5) {
@@ -148,27 +178,51 @@ public class HyperplaneGenerator extends AbstractOptionHandler implements
             classLabel = 0;
         }
         //Add Noise
-        if ((1 + (this.instanceRandom.nextInt(100))) <= this.noisePercentageOption.getValue()) {
+        if ((1 + (random.nextInt(100))) <= this.noisePercentageOption.getValue()) {
             classLabel = (classLabel == 0 ? 1 : 0);
         }
-
-        Instance inst = new DenseInstance(1.0, attVals);
-        inst.setDataset(getHeader());
-        inst.setClassValue(classLabel);
-        addDrift();
-        return new InstanceExample(inst);
+        values[offset + numAtts] = classLabel;
     }
 
-    private void addDrift() {
+    private void addDrift(Random random, double[] weights, int[] sigma) {
         for (int i = 0; i < this.numDriftAttsOption.getValue(); i++) {
-            this.weights[i] += (double) ((double) sigma[i]) * ((double) this.magChangeOption.getValue());
+            weights[i] += (double) ((double) sigma[i]) * ((double) this.magChangeOption.getValue());
             if (//this.weights[i] >= 1.0 || this.weights[i] <= 0.0 ||
-                    (1 + (this.instanceRandom.nextInt(100))) <= this.sigmaPercentageOption.getValue()) {
-                this.sigma[i] *= -1;
+                    (1 + (random.nextInt(100))) <= this.sigmaPercentageOption.getValue()) {
+                sigma[i] *= -1;
             }
         }
     }
 
+    @Override
+    public Object getInitialChunkState() {
+        return new Object[]{this.weights.clone(), this.sigma.clone()};
+    }
+
+    @Override
+    public Object getNextChunkState(Object state, long chunk) {
+        double[] weights = ((double[]) ((Object[]) state)[0]).clone();
+        int[] sigma = ((int[]) ((Object[]) state)[1]).clone();
+        Random driftRandom = ChunkedGeneration.chunkRandom(this.instanceRandomSeedOption.getValue(), chunk, 1);
+        for (int i = 0; i < ChunkedGeneration.CHUNK_SIZE; i++) {
+            addDrift(driftRandom, weights, sigma);
+        }
+        return new Object[]{weights, sigma};
+    }
+
+    @Override
+    public void generateChunk(Object state, long chunk, double[] values) {
+        double[] weights = ((double[]) ((Object[]) state)[0]).clone();
+        int[] sigma = ((int[]) ((Object[]) state)[1]).clone();
+        Random random = ChunkedGeneration.chunkRandom(this.instanceRandomSeedOption.getValue(), chunk, 0);
+        Random driftRandom = ChunkedGeneration.chunkRandom(this.instanceRandomSeedOption.getValue(), chunk, 1);
+        int numValues = this.numAttsOption.getValue() + 1;
+        for (int i = 0; i < ChunkedGeneration.CHUNK_SIZE; i++) {
+            generateValues(random, weights, values, i * numValues);
+            addDrift(driftRandom, weights, sigma);
+        }
+    }
+
     @Override
     public void restart() {
         this.instanceRandom = new Random(this.instanceRandomSeedOption.getValue());
@@ -178,6 +232,10 @@ public class HyperplaneGenerator extends AbstractOptionHandler implements
             this.weights[i] = this.instanceRandom.nextDouble();
             this.sigma[i] = (i < this.numDriftAttsOption.getValue() ? 1 : 0);
         }
+        if (this.chunkedGeneration != null) {
+            this.chunkedGeneration.close();
+            this.chunkedGeneration = null;
+        }
     }
 
     @Override
@@ -41,12 +41,15 @@ import moa.tasks.TaskMonitor;
 
 /**
  * Stream generator for the problem of predicting the digit displayed on a 7-segment LED display.
+ * <br>
+ * With generation threads, the instances are generated in independent chunks,
+ * see {@link ChunkedGeneration}.
  *
  * @author Richard Kirkby (rkirkby@cs.waikato.ac.nz)
  * @version $Revision: 7 $
  */
 public class LEDGenerator extends AbstractOptionHandler implements
-        InstanceStream, CapabilitiesHandler {
+        InstanceStream, CapabilitiesHandler, ChunkedGeneration.Generator {
 
     @Override
     public String getPurposeString() {
@@ -75,10 +78,16 @@ public class LEDGenerator extends AbstractOptionHandler implements
             "suppressIrrelevantAttributes", 's',
             "Reduce the data to only contain 7 relevant binary attributes.");
 
+    public IntOption generationThreadsOption = new IntOption("generationThreads", 'P',
+            "Generates the instances in independent chunks on this many threads, with one random stream per chunk. The instances do not depend on the number of threads but differ from the ones of 0, which uses a single random stream.",
+            0, 0, Integer.MAX_VALUE);
+
     protected InstancesHeader streamHeader;
 
     protected Random instanceRandom;
 
+    protected ChunkedGeneration chunkedGeneration;
+
     @Override
     protected void prepareForUseImpl(TaskMonitor monitor,
             ObjectRepository repository) {
@@ -128,28 +137,75 @@ public class LEDGenerator extends AbstractOptionHandler implements
     @Override
     public InstanceExample nextInstance() {
         InstancesHeader header = getHeader();
-        Instance inst = new DenseInstance(header.numAttributes());
+        if (this.generationThreadsOption.getValue() > 0) {
+            if (this.chunkedGeneration == null) {
+                this.chunkedGeneration = new ChunkedGeneration(this,
+                        header.numAttributes(), this.generationThreadsOption.getValue());
+            }
+            return this.chunkedGeneration.nextInstance(header);
+        }
+        double[] attVals = new double[header.numAttributes()];
+        generateValues(this.instanceRandom, attVals, 0);
+        Instance inst = new DenseInstance(1.0, attVals);
         inst.setDataset(header);
-        int selected = this.instanceRandom.nextInt(10);
+        return new InstanceExample(inst);
+    }
+
+    /**
+     * Writes the attribute values and the class value of an instance at
+     * offset into values.
+     */
+    protected void generateValues(Random random, double[] values, int offset) {
+        int selected = random.nextInt(10);
         for (int i = 0; i < 7; i++) {
-            if ((1 + (this.instanceRandom.nextInt(100))) <= this.noisePercentageOption.getValue()) {
-                inst.setValue(i, originalInstances[selected][i] == 0 ? 1 : 0);
+            if ((1 + (random.nextInt(100))) <= this.noisePercentageOption.getValue()) {
+                values[offset + attributeIndex(i)] = originalInstances[selected][i] == 0 ? 1 : 0;
             } else {
-                inst.setValue(i, originalInstances[selected][i]);
+                values[offset + attributeIndex(i)] = originalInstances[selected][i];
             }
         }
         if (!this.suppressIrrelevantAttributesOption.isSet()) {
             for (int i = 0; i < NUM_IRRELEVANT_ATTRIBUTES; i++) {
-                inst.setValue(i + 7, this.instanceRandom.nextInt(2));
+                values[offset + attributeIndex(i + 7)] = random.nextInt(2);
             }
         }
-        inst.setClassValue(selected);
-        return new InstanceExample(inst);
+        values[offset + getHeader().classIndex()] = selected;
+    }
+
+    /**
+     * Returns the index of the attribute that holds the i-th segment or
+     * irrelevant value.
+     */
+    protected int attributeIndex(int i) {
+        return i;
+    }
+
+    @Override
+    public Object getInitialChunkState() {
+        return null;
+    }
+
+    @Override
+    public Object getNextChunkState(Object state, long chunk) {
+        return null;
+    }
+
+    @Override
+    public void generateChunk(Object state, long chunk, double[] values) {
+        Random random = ChunkedGeneration.chunkRandom(this.instanceRandomSeedOption.getValue(), chunk, 0);
+        int numValues = getHeader().numAttributes();
+        for (int i = 0; i < ChunkedGeneration.CHUNK_SIZE; i++) {
+            generateValues(random, values, i * numValues);
+        }
     }
 
     @Override
     public void restart() {
         this.instanceRandom = new Random(this.instanceRandomSeedOption.getValue());
+        if (this.chunkedGeneration != null) {
+            this.chunkedGeneration.close();
+            this.chunkedGeneration = null;
+        }
     }
 
     @Override
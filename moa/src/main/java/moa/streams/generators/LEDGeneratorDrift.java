@@ -21,10 +21,6 @@ package moa.streams.generators;
 
 import moa.capabilities.Capability;
 import moa.capabilities.ImmutableCapabilities;
-import moa.core.InstanceExample;
-import com.yahoo.labs.samoa.instances.DenseInstance;
-import com.yahoo.labs.samoa.instances.Instance;
-import com.yahoo.labs.samoa.instances.InstancesHeader;
 import moa.core.ObjectRepository;
 import com.github.javacliparser.IntOption;
 import moa.tasks.TaskMonitor;
@@ -71,25 +67,8 @@ public class LEDGeneratorDrift extends LEDGenerator {
     }
 
     @Override
-    public InstanceExample nextInstance() {
-        InstancesHeader header = getHeader();
-        Instance inst = new DenseInstance(header.numAttributes());
-        inst.setDataset(header);
-        int selected = this.instanceRandom.nextInt(10);
-        for (int i = 0; i < 7; i++) {
-            if ((1 + (this.instanceRandom.nextInt(100))) <= this.noisePercentageOption.getValue()) {
-                inst.setValue(this.numberAttribute[i], originalInstances[selected][i] == 0 ? 1 : 0);
-            } else {
-                inst.setValue(this.numberAttribute[i], originalInstances[selected][i]);
-            }
-        }
-        if (!this.suppressIrrelevantAttributesOption.isSet()) {
-            for (int i = 0; i < NUM_IRRELEVANT_ATTRIBUTES; i++) {
-                inst.setValue(this.numberAttribute[i + 7], this.instanceRandom.nextInt(2));
-            }
-        }
-        inst.setClassValue(selected);
-        return new InstanceExample(inst);
+    protected int attributeIndex(int i) {
+        return this.numberAttribute[i];
     }
 
     @Override
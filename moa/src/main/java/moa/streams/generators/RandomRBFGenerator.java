@@ -42,12 +42,15 @@ import moa.tasks.TaskMonitor;
 
 /**
  * Stream generator for a random radial basis function stream.
+ * <br>
+ * With generation threads, the instances are generated in independent chunks,
+ * see {@link ChunkedGeneration}.
  *
  * @author Richard Kirkby (rkirkby@cs.waikato.ac.nz)
  * @version $Revision: 7 $
  */
 public class RandomRBFGenerator extends AbstractOptionHandler implements
-        InstanceStream, CapabilitiesHandler {
+        InstanceStream, CapabilitiesHandler, ChunkedGeneration.Generator {
 
     @Override
     public String getPurposeString() {
@@ -72,6 +75,10 @@ public class RandomRBFGenerator extends AbstractOptionHandler implements
     public IntOption numCentroidsOption = new IntOption("numCentroids", 'n',
             "The number of centroids in the model.", 50, 1, Integer.MAX_VALUE);
 
+    public IntOption generationThreadsOption = new IntOption("generationThreads", 'P',
+            "Generates the instances in independent chunks on this many threads, with one random stream per chunk. The instances do not depend on the number of threads but differ from the ones of 0, which uses a single random stream.",
+            0, 0, Integer.MAX_VALUE);
+
     protected static class Centroid implements Serializable {
 
         private static final long serialVersionUID = 1L;
@@ -91,6 +98,8 @@ public class RandomRBFGenerator extends AbstractOptionHandler implements
 
     protected Random instanceRandom;
 
+    protected ChunkedGeneration chunkedGeneration;
+
     @Override
     public void prepareForUseImpl(TaskMonitor monitor,
             ObjectRepository repository) {
@@ -123,32 +132,75 @@ public class RandomRBFGenerator extends AbstractOptionHandler implements
     @Override
     public void restart() {
         this.instanceRandom = new Random(this.instanceRandomSeedOption.getValue());
+        if (this.chunkedGeneration != null) {
+            this.chunkedGeneration.close();
+            this.chunkedGeneration = null;
+        }
     }
 
     @Override
     public InstanceExample nextInstance() {
-        Centroid centroid = this.centroids[MiscUtils.chooseRandomIndexBasedOnWeights(this.centroidWeights,
-                this.instanceRandom)];
+        if (this.generationThreadsOption.getValue() > 0) {
+            return nextChunkedInstance();
+        }
         int numAtts = this.numAttsOption.getValue();
         double[] attVals = new double[numAtts + 1];
+        generateValues(this.instanceRandom, this.centroids, attVals, 0);
+        Instance inst = new DenseInstance(1.0, attVals);
+        inst.setDataset(getHeader());
+        return new InstanceExample(inst);
+    }
+
+    protected InstanceExample nextChunkedInstance() {
+        if (this.chunkedGeneration == null) {
+            this.chunkedGeneration = new ChunkedGeneration(this,
+                    this.numAttsOption.getValue() + 1, this.generationThreadsOption.getValue());
+        }
+        return this.chunkedGeneration.nextInstance(getHeader());
+    }
+
+    /**
+     * Writes the attribute values and the class value of an instance at
+     * offset into values.
+     */
+    protected void generateValues(Random random, Centroid[] centroids, double[] values, int offset) {
+        Centroid centroid = centroids[MiscUtils.chooseRandomIndexBasedOnWeights(this.centroidWeights,
+                random)];
+        int numAtts = this.numAttsOption.getValue();
         for (int i = 0; i < numAtts; i++) {
-            attVals[i] = (this.instanceRandom.nextDouble() * 2.0) - 1.0;
+            values[offset + i] = (random.nextDouble() * 2.0) - 1.0;
         }
         double magnitude = 0.0;
         for (int i = 0; i < numAtts; i++) {
-            magnitude += attVals[i] * attVals[i];
+            magnitude += values[offset + i] * values[offset + i];
         }
         magnitude = Math.sqrt(magnitude);
-        double desiredMag = this.instanceRandom.nextGaussian()
+        double desiredMag = random.nextGaussian()
                 * centroid.stdDev;
         double scale = desiredMag / magnitude;
         for (int i = 0; i < numAtts; i++) {
-            attVals[i] = centroid.centre[i] + attVals[i] * scale;
+            values[offset + i] = centroid.centre[i] + values[offset + i] * scale;
+        }
+        values[offset + numAtts] = centroid.classLabel;
+    }
+
+    @Override
+    public Object getInitialChunkState() {
+        return null;
+    }
+
+    @Override
+    public Object getNextChunkState(Object state, long chunk) {
+        return null;
+    }
+
+    @Override
+    public void generateChunk(Object state, long chunk, double[] values) {
+        Random random = ChunkedGeneration.chunkRandom(this.instanceRandomSeedOption.getValue(), chunk, 0);
+        int numValues = this.numAttsOption.getValue() + 1;
+        for (int i = 0; i < ChunkedGeneration.CHUNK_SIZE; i++) {
+            generateValues(random, this.centroids, values, i * numValues);
         }
-        Instance inst = new DenseInstance(1.0, attVals);
-        inst.setDataset(getHeader());
-        inst.setClassValue(centroid.classLabel);
-        return new InstanceExample(inst);
     }
 
     protected void generateHeader() {
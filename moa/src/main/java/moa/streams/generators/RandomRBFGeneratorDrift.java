@@ -53,25 +53,92 @@ public class RandomRBFGeneratorDrift extends RandomRBFGenerator {
 
     @Override
     public InstanceExample nextInstance() {
+        if (this.generationThreadsOption.getValue() > 0) {
+            return nextChunkedInstance();
+        }
         //Update Centroids with drift
+        moveCentroids(this.centroids, this.speedCentroids);
+        return super.nextInstance();
+    }
+
+    /**
+     * Moves the drifting centroids one step, they bounce off the borders of
+     * the unit cube.
+     */
+    protected void moveCentroids(Centroid[] centroids, double[][] speedCentroids) {
         int len = this.numDriftCentroidsOption.getValue();
-        if (len > this.centroids.length) {
-            len = this.centroids.length;
+        if (len > centroids.length) {
+            len = centroids.length;
         }
         for (int j = 0; j < len; j++) {
             for (int i = 0; i < this.numAttsOption.getValue(); i++) {
-                this.centroids[j].centre[i] += this.speedCentroids[j][i] * this.speedChangeOption.getValue();
-                if (this.centroids[j].centre[i] > 1) {
-                    this.centroids[j].centre[i] = 1;
-                    this.speedCentroids[j][i] = -this.speedCentroids[j][i];
+                centroids[j].centre[i] += speedCentroids[j][i] * this.speedChangeOption.getValue();
+                if (centroids[j].centre[i] > 1) {
+                    centroids[j].centre[i] = 1;
+                    speedCentroids[j][i] = -speedCentroids[j][i];
                 }
-                if (this.centroids[j].centre[i] < 0) {
-                    this.centroids[j].centre[i] = 0;
-                    this.speedCentroids[j][i] = -this.speedCentroids[j][i];
+                if (centroids[j].centre[i] < 0) {
+                    centroids[j].centre[i] = 0;
+                    speedCentroids[j][i] = -speedCentroids[j][i];
                 }
             }
         }
-        return super.nextInstance();
+    }
+
+    /**
+     * The positions and speeds of the centroids before a chunk.
+     */
+    protected static class DriftState {
+
+        public Centroid[] centroids;
+
+        public double[][] speedCentroids;
+    }
+
+    /**
+     * Copies the drifting centroids and their speeds, the other centroids are
+     * shared.
+     */
+    protected DriftState copyDriftState(Centroid[] centroids, double[][] speedCentroids) {
+        DriftState copy = new DriftState();
+        copy.centroids = centroids.clone();
+        copy.speedCentroids = new double[speedCentroids.length][];
+        for (int j = 0; j < speedCentroids.length; j++) {
+            Centroid centroid = new Centroid();
+            centroid.centre = centroids[j].centre.clone();
+            centroid.classLabel = centroids[j].classLabel;
+            centroid.stdDev = centroids[j].stdDev;
+            copy.centroids[j] = centroid;
+            copy.speedCentroids[j] = speedCentroids[j].clone();
+        }
+        return copy;
+    }
+
+    @Override
+    public Object getInitialChunkState() {
+        return copyDriftState(this.centroids, this.speedCentroids);
+    }
+
+    @Override
+    public Object getNextChunkState(Object state, long chunk) {
+        DriftState previous = (DriftState) state;
+        DriftState next = copyDriftState(previous.centroids, previous.speedCentroids);
+        for (int i = 0; i < ChunkedGeneration.CHUNK_SIZE; i++) {
+            moveCentroids(next.centroids, next.speedCentroids);
+        }
+        return next;
+    }
+
+    @Override
+    public void generateChunk(Object state, long chunk, double[] values) {
+        DriftState previous = (DriftState) state;
+        DriftState current = copyDriftState(previous.centroids, previous.speedCentroids);
+        Random random = ChunkedGeneration.chunkRandom(this.instanceRandomSeedOption.getValue(), chunk, 0);
+        int numValues = this.numAttsOption.getValue() + 1;
+        for (int i = 0; i < ChunkedGeneration.CHUNK_SIZE; i++) {
+            moveCentroids(current.centroids, current.speedCentroids);
+            generateValues(random, current.centroids, values, i * numValues);
+        }
     }
 
     @Override
@@ -43,12 +43,15 @@ import moa.tasks.TaskMonitor;
 
 /**
  * Stream generator for a stream based on a randomly generated tree..
+ * <br>
+ * With generation threads, the instances are generated in independent chunks,
+ * see {@link ChunkedGeneration}.
  *
  * @author Richard Kirkby (rkirkby@cs.waikato.ac.nz)
  * @version $Revision: 7 $
  */
 public class RandomTreeGenerator extends AbstractOptionHandler implements
-        InstanceStream, CapabilitiesHandler {
+        InstanceStream, CapabilitiesHandler, ChunkedGeneration.Generator {
 
     @Override
     public String getPurposeString() {
@@ -94,6 +97,10 @@ public class RandomTreeGenerator extends AbstractOptionHandler implements
             "The fraction of leaves per level from firstLeafLevel onwards.",
             0.15, 0.0, 1.0);
 
+    public IntOption generationThreadsOption = new IntOption("generationThreads", 'P',
+            "Generates the instances in independent chunks on this many threads, with one random stream per chunk. The instances do not depend on the number of threads but differ from the ones of 0, which uses a single random stream.",
+            0, 0, Integer.MAX_VALUE);
+
     protected static class Node implements Serializable {
 
         private static final long serialVersionUID = 1L;
@@ -113,6 +120,8 @@ public class RandomTreeGenerator extends AbstractOptionHandler implements
 
     protected Random instanceRandom;
 
+    protected ChunkedGeneration chunkedGeneration;
+
     @Override
     public void prepareForUseImpl(TaskMonitor monitor,
             ObjectRepository repository) {
@@ -135,6 +144,10 @@ public class RandomTreeGenerator extends AbstractOptionHandler implements
     @Override
     public void restart() {
         this.instanceRandom = new Random(this.instanceRandomSeedOption.getValue());
+        if (this.chunkedGeneration != null) {
+            this.chunkedGeneration.close();
+            this.chunkedGeneration = null;
+        }
     }
 
     @Override
@@ -149,20 +162,56 @@ public class RandomTreeGenerator extends AbstractOptionHandler implements
 
     @Override
     public InstanceExample nextInstance() {
+        if (this.generationThreadsOption.getValue() > 0) {
+            if (this.chunkedGeneration == null) {
+                this.chunkedGeneration = new ChunkedGeneration(this,
+                        getHeader().numAttributes(), this.generationThreadsOption.getValue());
+            }
+            return this.chunkedGeneration.nextInstance(getHeader());
+        }
         double[] attVals = new double[this.numNominalsOption.getValue()
                 + this.numNumericsOption.getValue()];
         InstancesHeader header = getHeader();
-        Instance inst = new DenseInstance(header.numAttributes());
-        for (int i = 0; i < attVals.length; i++) {
-            attVals[i] = i < this.numNominalsOption.getValue() ? this.instanceRandom.nextInt(this.numValsPerNominalOption.getValue())
-                    : this.instanceRandom.nextDouble();
-            inst.setValue(i, attVals[i]);
-        }
+        double[] values = new double[header.numAttributes()];
+        generateValues(this.instanceRandom, attVals, values, 0);
+        Instance inst = new DenseInstance(1.0, values);
         inst.setDataset(header);
-        inst.setClassValue(classifyInstance(this.treeRoot, attVals));
         return new InstanceExample(inst);
     }
 
+    /**
+     * Writes the attribute values and the class value of an instance at
+     * offset into values, attVals receives the attribute values as well.
+     */
+    protected void generateValues(Random random, double[] attVals, double[] values, int offset) {
+        for (int i = 0; i < attVals.length; i++) {
+            attVals[i] = i < this.numNominalsOption.getValue() ? random.nextInt(this.numValsPerNominalOption.getValue())
+                    : random.nextDouble();
+            values[offset + i] = attVals[i];
+        }
+        values[offset + attVals.length] = classifyInstance(this.treeRoot, attVals);
+    }
+
+    @Override
+    public Object getInitialChunkState() {
+        return null;
+    }
+
+    @Override
+    public Object getNextChunkState(Object state, long chunk) {
+        return null;
+    }
+
+    @Override
+    public void generateChunk(Object state, long chunk, double[] values) {
+        Random random = ChunkedGeneration.chunkRandom(this.instanceRandomSeedOption.getValue(), chunk, 0);
+        double[] attVals = new double[this.numNominalsOption.getValue()
+                + this.numNumericsOption.getValue()];
+        for (int i = 0; i < ChunkedGeneration.CHUNK_SIZE; i++) {
+            generateValues(random, attVals, values, i * (attVals.length + 1));
+        }
+    }
+
     protected int classifyInstance(Node node, double[] attVals) {
         if (node.children == null) {
             return node.classLabel;
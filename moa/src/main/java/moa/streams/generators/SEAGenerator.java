@@ -49,12 +49,16 @@ import moa.tasks.TaskMonitor;
  *
  * Notes:<br/>
  * The built in functions are based on the paper.
+ * <br/>
+ * With generation threads, the instances are generated in independent chunks,
+ * see {@link ChunkedGeneration}. Balanced classes alternate just like with a
+ * single random stream.
  *
  * @author Albert Bifet (abifet at cs dot waikato dot ac dot nz)
  * @version $Revision: 7 $
  */
 public class SEAGenerator extends AbstractOptionHandler implements
-        InstanceStream, CapabilitiesHandler {
+        InstanceStream, CapabilitiesHandler, ChunkedGeneration.Generator {
 
     @Override
     public String getPurposeString() {
@@ -80,6 +84,10 @@ public class SEAGenerator extends AbstractOptionHandler implements
     public IntOption noisePercentageOption = new IntOption("noisePercentage",
             'p', "Percentage of noise to add to the data.", 10, 0, 100);
 
+    public IntOption generationThreadsOption = new IntOption("generationThreads", 'P',
+            "Generates the instances in independent chunks on this many threads, with one random stream per chunk. The instances do not depend on the number of threads but differ from the ones of 0, which uses a single random stream.",
+            0, 0, Integer.MAX_VALUE);
+
     protected interface ClassFunction {
 
         public int determineClass(double attrib1, double attrib2, double attrib3);
@@ -125,6 +133,8 @@ public class SEAGenerator extends AbstractOptionHandler implements
 
     protected boolean nextClassShouldBeZero;
 
+    protected ChunkedGeneration chunkedGeneration;
+
     @Override
     protected void prepareForUseImpl(TaskMonitor monitor,
             ObjectRepository repository) {
@@ -166,14 +176,40 @@ public class SEAGenerator extends AbstractOptionHandler implements
 
     @Override
     public InstanceExample nextInstance() {
+        InstancesHeader header = getHeader();
+        if (this.generationThreadsOption.getValue() > 0) {
+            if (this.chunkedGeneration == null) {
+                this.chunkedGeneration = new ChunkedGeneration(this,
+                        header.numAttributes(), this.generationThreadsOption.getValue());
+            }
+            return this.chunkedGeneration.nextInstance(header);
+        }
+        double[] attVals = new double[header.numAttributes()];
+        generateValues(this.instanceRandom, attVals, 0, this.nextClassShouldBeZero);
+        if (this.balanceClassesOption.isSet()) {
+            this.nextClassShouldBeZero = !this.nextClassShouldBeZero;
+        }
+        Instance inst = new DenseInstance(1.0, attVals);
+        inst.setDataset(header);
+        return new InstanceExample(inst);
+    }
+
+    /**
+     * Writes the attribute values and the class value of an instance at
+     * offset into values.
+     *
+     * @param classShouldBeZero the class desired if the classes are balanced
+     */
+    protected void generateValues(Random random, double[] values, int offset,
+            boolean classShouldBeZero) {
         double attrib1 = 0, attrib2 = 0, attrib3 = 0;
         int group = 0;
         boolean desiredClassFound = false;
         while (!desiredClassFound) {
             // generate attributes
-            attrib1 = 10 * this.instanceRandom.nextDouble();
-            attrib2 = 10 * this.instanceRandom.nextDouble();
-            attrib3 = 10 * this.instanceRandom.nextDouble();
+            attrib1 = 10 * random.nextDouble();
+            attrib2 = 10 * random.nextDouble();
+            attrib3 = 10 * random.nextDouble();
 
             // determine class
             group = classificationFunctions[this.functionOption.getValue() - 1].determineClass(attrib1, attrib2, attrib3);
@@ -181,33 +217,50 @@ public class SEAGenerator extends AbstractOptionHandler implements
                 desiredClassFound = true;
             } else {
                 // balance the classes
-                if ((this.nextClassShouldBeZero && (group == 0))
-                        || (!this.nextClassShouldBeZero && (group == 1))) {
+                if ((classShouldBeZero && (group == 0))
+                        || (!classShouldBeZero && (group == 1))) {
                     desiredClassFound = true;
-                    this.nextClassShouldBeZero = !this.nextClassShouldBeZero;
                 } // else keep searching
             }
         }
         //Add Noise
-        if ((1 + (this.instanceRandom.nextInt(100))) <= this.noisePercentageOption.getValue()) {
+        if ((1 + (random.nextInt(100))) <= this.noisePercentageOption.getValue()) {
             group = (group == 0 ? 1 : 0);
         }
+        values[offset] = attrib1;
+        values[offset + 1] = attrib2;
+        values[offset + 2] = attrib3;
+        values[offset + 3] = group;
+    }
 
-        // construct instance
-        InstancesHeader header = getHeader();
-        Instance inst = new DenseInstance(header.numAttributes());
-        inst.setValue(0, attrib1);
-        inst.setValue(1, attrib2);
-        inst.setValue(2, attrib3);
-        inst.setDataset(header);
-        inst.setClassValue(group);
-        return new InstanceExample(inst);
+    @Override
+    public Object getInitialChunkState() {
+        return null;
+    }
+
+    @Override
+    public Object getNextChunkState(Object state, long chunk) {
+        return null;
+    }
+
+    @Override
+    public void generateChunk(Object state, long chunk, double[] values) {
+        Random random = ChunkedGeneration.chunkRandom(this.instanceRandomSeedOption.getValue(), chunk, 0);
+        int numValues = getHeader().numAttributes();
+        for (int i = 0; i < ChunkedGeneration.CHUNK_SIZE; i++) {
+            // balanced classes start with class one, CHUNK_SIZE is even
+            generateValues(random, values, i * numValues, i % 2 == 1);
+        }
     }
 
     @Override
     public void restart() {
         this.instanceRandom = new Random(this.instanceRandomSeedOption.getValue());
         this.nextClassShouldBeZero = false;
+        if (this.chunkedGeneration != null) {
+            this.chunkedGeneration.close();
+            this.chunkedGeneration = null;
+        }
     }
 
     @Override
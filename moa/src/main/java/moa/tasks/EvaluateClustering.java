@@ -60,6 +60,10 @@ public class EvaluateClustering extends AuxiliarMainTask {
     public FlagOption separationOption = new FlagOption("Separation", 'p', "BSS, BSS-GT, BSS-Ratio.");
     
     public FlagOption silhouetteOption = new FlagOption("Silhouette", 'h', "SilhCoeff.");
+
+    public IntOption silhouetteSampleSizeOption = new IntOption("silhouetteSampleSize", 'z',
+            "Number of sampled points whose silhouette is averaged (0 = all points).",
+            0, 0, Integer.MAX_VALUE);
     
     public FlagOption statisticalOption = new FlagOption("Statistical", 't', "van Dongen, Rand statistic.");
        
@@ -124,7 +128,8 @@ public class EvaluateClustering extends AuxiliarMainTask {
                 (AbstractClusterer) getPreparedClassOption(this.learnerOption),
                 measureCollection,
                 (int) this.instanceLimitOption.getValue(),
-                (String) dumpFileOption.getValue());
+                (String) dumpFileOption.getValue(),
+                this.silhouetteSampleSizeOption.getValue());
 
         LearningCurve learningCurve = new LearningCurve("EvaluateClustering does not support custom output file (> [filename]).\n" +
         												"Check out the dump file to see the results (if you haven't specified, dumpClustering.csv by default).");
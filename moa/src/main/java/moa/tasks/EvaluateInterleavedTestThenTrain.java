@@ -37,6 +37,7 @@ import moa.evaluation.preview.LearningCurve;
 import moa.learners.Learner;
 import moa.options.ClassOption;
 import com.github.javacliparser.FileOption;
+import com.github.javacliparser.FlagOption;
 import com.github.javacliparser.IntOption;
 import moa.streams.ExampleStream;
 import moa.streams.InstanceStream;
@@ -94,6 +95,20 @@ public class EvaluateInterleavedTestThenTrain extends ClassificationMainTask {
     public FileOption dumpFileOption = new FileOption("dumpFile", 'd',
             "File to append intermediate csv reslts to.", null, "csv", true);
 
+    public FileOption checkpointFileOption = new FileOption("checkpointFile", 'c',
+            "File to periodically save the evaluation state to.", null, "moa", true);
+
+    public IntOption checkpointFrequencyOption = new IntOption("checkpointFrequency", 'C',
+            "How many instances between checkpoints (0 = no instance-based checkpoints).",
+            0, 0, Integer.MAX_VALUE);
+
+    public IntOption checkpointIntervalOption = new IntOption("checkpointInterval", 'T',
+            "How many seconds between checkpoints (0 = no time-based checkpoints).",
+            0, 0, Integer.MAX_VALUE);
+
+    public FlagOption resumeOption = new FlagOption("resume", 'R',
+            "Resume from the checkpoint file if it exists.");
+
     @Override
     public Class<?> getTaskResultType() {
         return LearningCurve.class;
@@ -123,7 +138,31 @@ public class EvaluateInterleavedTestThenTrain extends ClassificationMainTask {
         monitor.setCurrentActivity("Evaluating learner...", -1.0);
         LearningCurve learningCurve = new LearningCurve(
                 "learning evaluation instances");
+        boolean firstDump = true;
+        boolean preciseCPUTiming = TimingUtils.enablePreciseTiming();
+        long evaluateStartTime = TimingUtils.getNanoCPUTimeOfCurrentThread();
+        long lastEvaluateStartTime = evaluateStartTime;
+        double RAMHours = 0.0;
+        double timeOffset = 0.0;
+        EvaluationCheckpointer checkpointer = EvaluationCheckpointer.open(
+                this.checkpointFileOption.getFile(),
+                this.checkpointFrequencyOption.getValue(),
+                this.checkpointIntervalOption.getValue(),
+                this.resumeOption.isSet(), stream, monitor);
+        if ((checkpointer != null) && (checkpointer.getResumed() != null)) {
+            EvaluationCheckpointer.Checkpoint checkpoint = checkpointer.getResumed();
+            learner = checkpoint.learner;
+            evaluator = (LearningPerformanceEvaluator) checkpoint.evaluator;
+            learningCurve = checkpoint.learningCurve;
+            instancesProcessed = checkpoint.instancesProcessed;
+            timeOffset = checkpoint.evaluationTime;
+            RAMHours = checkpoint.ramHours;
+            firstDump = learningCurve.numEntries() == 0;
+        }
         File dumpFile = this.dumpFileOption.getFile();
+        if (checkpointer != null) {
+            checkpointer.restoreOutputs(dumpFile);
+        }
         PrintStream immediateResultStream = null;
         if (dumpFile != null) {
             try {
@@ -139,11 +178,6 @@ public class EvaluateInterleavedTestThenTrain extends ClassificationMainTask {
                         "Unable to open immediate result file: " + dumpFile, ex);
             }
         }
-        boolean firstDump = true;
-        boolean preciseCPUTiming = TimingUtils.enablePreciseTiming();
-        long evaluateStartTime = TimingUtils.getNanoCPUTimeOfCurrentThread();
-        long lastEvaluateStartTime = evaluateStartTime;
-        double RAMHours = 0.0;
         while (stream.hasMoreInstances()
                 && ((maxInstances < 0) || (instancesProcessed < maxInstances))
                 && ((maxSeconds < 0) || (secondsElapsed < maxSeconds))) {
@@ -160,7 +194,7 @@ public class EvaluateInterleavedTestThenTrain extends ClassificationMainTask {
             if (instancesProcessed % this.sampleFrequencyOption.getValue() == 0
                   ||  stream.hasMoreInstances() == false) {
                 long evaluateTime = TimingUtils.getNanoCPUTimeOfCurrentThread();
-                double time = TimingUtils.nanoTimeToSeconds(evaluateTime - evaluateStartTime);
+                double time = timeOffset + TimingUtils.nanoTimeToSeconds(evaluateTime - evaluateStartTime);
                 double timeIncrement = TimingUtils.nanoTimeToSeconds(evaluateTime - lastEvaluateStartTime);
                 double RAMHoursIncrement = learner.measureByteSize() / (1024.0 * 1024.0 * 1024.0); //GBs
                 RAMHoursIncrement *= (timeIncrement / 3600.0); //Hours
@@ -192,8 +226,15 @@ public class EvaluateInterleavedTestThenTrain extends ClassificationMainTask {
                     immediateResultStream.flush();
                 }
             }
+            if (checkpointer != null) {
+                checkpointer.checkpointIfDue(learner, evaluator, learningCurve,
+                        instancesProcessed, evaluateStartTime, RAMHours);
+            }
             if (instancesProcessed % INSTANCES_BETWEEN_MONITOR_UPDATES == 0) {
                 if (monitor.taskShouldAbort()) {
+                    if (checkpointer != null) {
+                        checkpointer.close();
+                    }
                     return null;
                 }
                 long estimatedRemainingInstances = stream.estimatedRemainingInstances();
@@ -217,6 +258,9 @@ public class EvaluateInterleavedTestThenTrain extends ClassificationMainTask {
         if (immediateResultStream != null) {
             immediateResultStream.close();
         }
+        if (checkpointer != null) {
+            checkpointer.close();
+        }
         return learningCurve;
     }
 
@@ -91,6 +91,10 @@ public class EvaluateMultipleClusterings extends AuxiliarMainTask {
     public FlagOption separationOption = new FlagOption("Separation", 'p', "BSS, BSS-GT, BSS-Ratio.");
     
     public FlagOption silhouetteOption = new FlagOption("Silhouette", 'h', "SilhCoeff.");
+
+    public IntOption silhouetteSampleSizeOption = new IntOption("silhouetteSampleSize", 'z',
+            "Number of sampled points whose silhouette is averaged (0 = all points).",
+            0, 0, Integer.MAX_VALUE);
     
     public FlagOption statisticalOption = new FlagOption("Statistical", 't', "van Dongen, Rand statistic.");
 
@@ -153,6 +157,7 @@ public class EvaluateMultipleClusterings extends AuxiliarMainTask {
         	measureCollection[7] = this.statisticalOption.isSet();
             
             this.task.setMeasures(measureCollection);
+            this.task.silhouetteSampleSizeOption.setValue(this.silhouetteSampleSizeOption.getValue());
             
             System.out.println("Evaluation #"+(i+1)+" of "+this.numStreamsOption.getValue()+
             		": "+this.task.getCLICreationString(this.task.getClass()));
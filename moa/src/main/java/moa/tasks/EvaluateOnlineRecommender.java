@@ -19,11 +19,14 @@
  */
 package moa.tasks;
 
+import java.util.ArrayList;
+import java.util.List;
 import moa.core.Measurement;
 import moa.core.ObjectRepository;
 import moa.evaluation.LearningEvaluation;
 import moa.evaluation.preview.LearningCurve;
 import moa.options.ClassOption;
+import com.github.javacliparser.FloatOption;
 import com.github.javacliparser.IntOption;
 import moa.recommender.dataset.Dataset;
 import moa.recommender.predictor.RatingPredictor;
@@ -38,8 +41,19 @@ import moa.recommender.rc.data.RecommenderData;
  * <ul>  
  * <li> d: dataset - the dataset to be used to train/test the rating predictor.</li>
  * <li> f: sample frequency - the frequency in which a rating from the dataset will be used to test the model </li>
+ * <li> n: top N - the length of the recommendation lists whose ranking is evaluated, 0 to evaluate only the RMSE </li>
+ * <li> r: ranking frequency - the frequency in which a relevant rating is used to evaluate the ranking </li>
+ * <li> l: relevant rating - the minimum rating of a relevant item </li>
  * </ul>
  *
+ * <p>The ranking is evaluated before training on a relevant rating of an item
+ * the user has not rated yet: the predictor recommends its top N items to the
+ * user and the rated item should be among them. The hit rate is the fraction
+ * of evaluated ratings whose item is recommended, the MRR the mean reciprocal
+ * rank of the item and the NDCG the mean of 1/log2(rank + 1), both counting
+ * 0 if the item is missing. As a recommendation scores all items, only every
+ * r-th relevant rating is evaluated.</p>
+ *
  * @author Alex Catarineu (a.catarineu@gmail.com)
  * @version $Revision: 7 $
  */
@@ -64,6 +78,21 @@ public class EvaluateOnlineRecommender extends AuxiliarMainTask {
             "How many instances between samples of the learning performance.",
             100, 0, Integer.MAX_VALUE);
 
+    public IntOption topNOption = new IntOption("topN",
+            'n',
+            "Length of the recommendation lists whose ranking is evaluated, 0 to skip the ranking.",
+            0, 0, Integer.MAX_VALUE);
+
+    public IntOption rankingFrequencyOption = new IntOption("rankingFrequency",
+            'r',
+            "How many relevant ratings between evaluations of the ranking.",
+            10, 1, Integer.MAX_VALUE);
+
+    public FloatOption relevantRatingOption = new FloatOption("relevantRating",
+            'l',
+            "Minimum rating of an item relevant to the user.",
+            4.0);
+
     public EvaluateOnlineRecommender() {
     }
 
@@ -87,6 +116,14 @@ public class EvaluateOnlineRecommender extends AuxiliarMainTask {
         int n = 0;
         //ArrayList<TestMetric> metrics = new ArrayList<TestMetric>();
         int sampleFrequency = this.sampleFrequencyOption.getValue();
+        int topN = this.topNOption.getValue();
+        int rankingFrequency = this.rankingFrequencyOption.getValue();
+        double relevantRating = this.relevantRatingOption.getValue();
+        int nRelevant = 0;
+        int nRanked = 0;
+        double sumHits = 0;
+        double sumReciprocalRanks = 0;
+        double sumDCG = 0;
         int count = 0;
         while (d.next())
           ++count;
@@ -98,6 +135,16 @@ public class EvaluateOnlineRecommender extends AuxiliarMainTask {
             long startPredTime = System.currentTimeMillis();
             double pred = rp.predictRating(user, item);
             sum += Math.pow(pred - rating, 2);
+            if (topN > 0 && rating >= relevantRating && nRelevant++ % rankingFrequency == 0
+                    && data.getRatingsUser(user).get(item) == null) {
+                int rank = rp.recommendTopN(user, topN).indexOf(item) + 1;
+                if (rank > 0) {
+                    sumHits++;
+                    sumReciprocalRanks += 1.0/rank;
+                    sumDCG += 1.0/(Math.log(rank + 1)/Math.log(2));
+                }
+                nRanked++;
+            }
             evalTime += System.currentTimeMillis() - startPredTime;
             data.setRating(user, item, rating);
             //System.out.println(data.countRatingsItem(item) + " " + data.countRatingsUser(user));
@@ -108,22 +155,32 @@ public class EvaluateOnlineRecommender extends AuxiliarMainTask {
                     return null;
                 }
                 monitor.setCurrentActivityFractionComplete((double)n/(double)count);
-                learningCurve.insertEntry(new LearningEvaluation(
-                        new Measurement[]{
-                            new Measurement(
+                List<Measurement> measurements = new ArrayList<Measurement>();
+                measurements.add(new Measurement(
                             "n",
-                            n),
-                            new Measurement(
+                            n));
+                measurements.add(new Measurement(
                             "RMSE",
-                            Math.sqrt(sum/(double)n)),
-                            new Measurement(
+                            Math.sqrt(sum/(double)n)));
+                if (topN > 0) {
+                    measurements.add(new Measurement(
+                            "HitRate@" + topN,
+                            nRanked > 0 ? sumHits/nRanked : 0));
+                    measurements.add(new Measurement(
+                            "MRR@" + topN,
+                            nRanked > 0 ? sumReciprocalRanks/nRanked : 0));
+                    measurements.add(new Measurement(
+                            "NDCG@" + topN,
+                            nRanked > 0 ? sumDCG/nRanked : 0));
+                }
+                measurements.add(new Measurement(
                             "trainingTime",
-                            (int)((System.currentTimeMillis() - start - evalTime)/1000)),
-                            new Measurement(
+                            (int)((System.currentTimeMillis() - start - evalTime)/1000)));
+                measurements.add(new Measurement(
                             "evalTime",
-                            (int)(evalTime/1000))
-                        }
-                         ));
+                            (int)(evalTime/1000)));
+                learningCurve.insertEntry(new LearningEvaluation(
+                        measurements.toArray(new Measurement[measurements.size()])));
                 if (monitor.resultPreviewRequested()) {
                     monitor.setLatestResultPreview(learningCurve.headerToString() + "\n" +
                       learningCurve.entryToString(learningCurve.numEntries() - 1));
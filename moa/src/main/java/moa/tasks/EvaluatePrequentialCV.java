@@ -35,6 +35,7 @@ import moa.streams.ExampleStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.PrintStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
@@ -108,6 +109,14 @@ public class EvaluatePrequentialCV extends ClassificationMainTask {
     public IntOption randomSeedOption = new IntOption("randomSeed", 'r',
             "Seed for random behaviour of the task.", 1);
 
+    public IntOption numberOfJobsOption = new IntOption("numberOfJobs", 'j',
+            "Number of threads to evaluate the folds on (1 = no parallelism, -1 = number of processors).",
+            1, -1, Integer.MAX_VALUE);
+
+    public IntOption batchSizeOption = new IntOption("batchSize", 'b',
+            "Number of instances each fold processes between synchronisations (1 = lock-step).",
+            100, 1, Integer.MAX_VALUE);
+
 
     @Override
     public Class<?> getTaskResultType() {
@@ -161,101 +170,134 @@ public class EvaluatePrequentialCV extends ClassificationMainTask {
         boolean preciseCPUTiming = TimingUtils.enablePreciseTiming();
         long evaluateStartTime = TimingUtils.getNanoCPUTimeOfCurrentThread();
         long lastEvaluateStartTime = evaluateStartTime;
+        long workerCPUTime = 0;
         double RAMHours = 0.0;
-        while (stream.hasMoreInstances()
-                && ((maxInstances < 0) || (instancesProcessed < maxInstances))
-                && ((maxSeconds < 0) || (secondsElapsed < maxSeconds))) {
-            Example trainInst = stream.nextInstance();
-            Example testInst = (Example) trainInst; //.copy();
-            //testInst.setClassMissing();
-
-            for (int i = 0; i < learners.length; i++) {
-                evaluators[i].addResult(testInst, learners[i].getVotesForInstance(testInst));
-            }
-
-            for (int i = 0; i < learners.length; i++) {
-                int k = 1;
-                switch (this.validationMethodologyOption.getChosenIndex()) {
-                    case 0: //Cross-Validation;
-                        k = instancesProcessed % learners.length == i ? 0: 1; //Test all except one
-                        break;
-                    case 1: //Bootstrap;
-                        k = MiscUtils.poisson(1, random);
-                        break;
-                    case 2: //Split-Validation;
-                        k = instancesProcessed % learners.length == i ? 1: 0; //Test only one
-                        break;
+        int sampleFrequency = this.sampleFrequencyOption.getValue();
+        int batchSize = this.batchSizeOption.getValue();
+        int methodology = this.validationMethodologyOption.getChosenIndex();
+        final double[] byteSizes = new double[learners.length];
+        FoldExecutor foldExecutor = new FoldExecutor(this.numberOfJobsOption.getValue(), learners.length);
+        try {
+            while (stream.hasMoreInstances()
+                    && ((maxInstances < 0) || (instancesProcessed < maxInstances))
+                    && ((maxSeconds < 0) || (secondsElapsed < maxSeconds))) {
+                // Read a batch that ends at the latest at the next sample point,
+                // drawing the training weights of all folds in the serial order
+                int maxBatch = (int) Math.min(batchSize,
+                        sampleFrequency - instancesProcessed % sampleFrequency);
+                if (maxInstances >= 0) {
+                    maxBatch = (int) Math.min(maxBatch, maxInstances - instancesProcessed);
                 }
-                if (k > 0) {
-                    Example weightedInst = (Example) trainInst.copy();
-                    weightedInst.setWeight(trainInst.weight() * k);
-                    learners[i].trainOnInstance(weightedInst);
+                final List<Example> batch = new ArrayList<Example>(maxBatch);
+                final List<int[]> weights = new ArrayList<int[]>(maxBatch);
+                while ((batch.size() < maxBatch) && stream.hasMoreInstances()) {
+                    long index = instancesProcessed + batch.size();
+                    int[] k = new int[learners.length];
+                    for (int i = 0; i < learners.length; i++) {
+                        k[i] = 1;
+                        switch (methodology) {
+                            case 0: //Cross-Validation;
+                                k[i] = index % learners.length == i ? 0: 1; //Test all except one
+                                break;
+                            case 1: //Bootstrap;
+                                k[i] = MiscUtils.poisson(1, random);
+                                break;
+                            case 2: //Split-Validation;
+                                k[i] = index % learners.length == i ? 1: 0; //Test only one
+                                break;
+                        }
+                    }
+                    batch.add(stream.nextInstance());
+                    weights.add(k);
                 }
-            }
 
-            instancesProcessed++;
-            if (instancesProcessed % this.sampleFrequencyOption.getValue() == 0
-                    || stream.hasMoreInstances() == false) {
-                long evaluateTime = TimingUtils.getNanoCPUTimeOfCurrentThread();
-                double time = TimingUtils.nanoTimeToSeconds(evaluateTime - evaluateStartTime);
-                double timeIncrement = TimingUtils.nanoTimeToSeconds(evaluateTime - lastEvaluateStartTime);
-
-                for (int i = 0; i < learners.length; i++) {
-                    double RAMHoursIncrement = learners[i].measureByteSize() / (1024.0 * 1024.0 * 1024.0); //GBs
-                    RAMHoursIncrement *= (timeIncrement / 3600.0); //Hours
-                    RAMHours += RAMHoursIncrement;
-                }
+                instancesProcessed += batch.size();
+                final boolean samplePoint = instancesProcessed % sampleFrequency == 0
+                        || stream.hasMoreInstances() == false;
+
+                // Folds are independent, so each one tests then trains on the whole batch
+                workerCPUTime += foldExecutor.run(learners.length, (int i) -> {
+                    for (int j = 0; j < batch.size(); j++) {
+                        Example trainInst = batch.get(j);
+                        Example testInst = (Example) trainInst; //.copy();
+                        //testInst.setClassMissing();
+                        evaluators[i].addResult(testInst, learners[i].getVotesForInstance(testInst));
+                        int k = weights.get(j)[i];
+                        if (k > 0) {
+                            Example weightedInst = (Example) trainInst.copy();
+                            weightedInst.setWeight(trainInst.weight() * k);
+                            learners[i].trainOnInstance(weightedInst);
+                        }
+                    }
+                    if (samplePoint) {
+                        byteSizes[i] = learners[i].measureByteSize();
+                    }
+                });
+
+                if (samplePoint) {
+                    long evaluateTime = TimingUtils.getNanoCPUTimeOfCurrentThread() + workerCPUTime;
+                    double time = TimingUtils.nanoTimeToSeconds(evaluateTime - evaluateStartTime);
+                    double timeIncrement = TimingUtils.nanoTimeToSeconds(evaluateTime - lastEvaluateStartTime);
 
-                lastEvaluateStartTime = evaluateTime;
-                learningCurve.insertEntry(new LearningEvaluation(
-                        getEvaluationMeasurements(
-                        new Measurement[]{
-                                new Measurement(
-                                        "learning evaluation instances",
-                                        instancesProcessed),
-                                new Measurement(
-                                        "evaluation time ("
-                                                + (preciseCPUTiming ? "cpu "
-                                                : "") + "seconds)",
-                                        time),
-                                new Measurement(
-                                        "model cost (RAM-Hours)",
-                                        RAMHours)
-                        }, evaluators)));
-
-                if (immediateResultStream != null) {
-                    if (firstDump) {
-                        immediateResultStream.println(learningCurve.headerToString());
-                        firstDump = false;
+                    for (int i = 0; i < learners.length; i++) {
+                        double RAMHoursIncrement = byteSizes[i] / (1024.0 * 1024.0 * 1024.0); //GBs
+                        RAMHoursIncrement *= (timeIncrement / 3600.0); //Hours
+                        RAMHours += RAMHoursIncrement;
                     }
-                    immediateResultStream.println(learningCurve.entryToString(learningCurve.numEntries() - 1));
-                    immediateResultStream.flush();
-                }
-            }
-            if (instancesProcessed % INSTANCES_BETWEEN_MONITOR_UPDATES == 0) {
-                if (monitor.taskShouldAbort()) {
-                    return null;
-                }
-                long estimatedRemainingInstances = stream.estimatedRemainingInstances();
-                if (maxInstances > 0) {
-                    long maxRemaining = maxInstances - instancesProcessed;
-                    if ((estimatedRemainingInstances < 0)
-                            || (maxRemaining < estimatedRemainingInstances)) {
-                        estimatedRemainingInstances = maxRemaining;
+
+                    lastEvaluateStartTime = evaluateTime;
+                    learningCurve.insertEntry(new LearningEvaluation(
+                            getEvaluationMeasurements(
+                            new Measurement[]{
+                                    new Measurement(
+                                            "learning evaluation instances",
+                                            instancesProcessed),
+                                    new Measurement(
+                                            "evaluation time ("
+                                                    + (preciseCPUTiming ? "cpu "
+                                                    : "") + "seconds)",
+                                            time),
+                                    new Measurement(
+                                            "model cost (RAM-Hours)",
+                                            RAMHours)
+                            }, evaluators)));
+
+                    if (immediateResultStream != null) {
+                        if (firstDump) {
+                            immediateResultStream.println(learningCurve.headerToString());
+                            firstDump = false;
+                        }
+                        immediateResultStream.println(learningCurve.entryToString(learningCurve.numEntries() - 1));
+                        immediateResultStream.flush();
                     }
                 }
-                monitor.setCurrentActivityFractionComplete(estimatedRemainingInstances < 0 ? -1.0
-                        : (double) instancesProcessed
-                        / (double) (instancesProcessed + estimatedRemainingInstances));
-                if (monitor.resultPreviewRequested()) {
-                    monitor.setLatestResultPreview(learningCurve.copy());
+                if (instancesProcessed % INSTANCES_BETWEEN_MONITOR_UPDATES < batch.size()) {
+                    if (monitor.taskShouldAbort()) {
+                        return null;
+                    }
+                    long estimatedRemainingInstances = stream.estimatedRemainingInstances();
+                    if (maxInstances > 0) {
+                        long maxRemaining = maxInstances - instancesProcessed;
+                        if ((estimatedRemainingInstances < 0)
+                                || (maxRemaining < estimatedRemainingInstances)) {
+                            estimatedRemainingInstances = maxRemaining;
+                        }
+                    }
+                    monitor.setCurrentActivityFractionComplete(estimatedRemainingInstances < 0 ? -1.0
+                            : (double) instancesProcessed
+                            / (double) (instancesProcessed + estimatedRemainingInstances));
+                    if (monitor.resultPreviewRequested()) {
+                        monitor.setLatestResultPreview(learningCurve.copy());
+                    }
+                    secondsElapsed = (int) TimingUtils.nanoTimeToSeconds(TimingUtils.getNanoCPUTimeOfCurrentThread()
+                            + workerCPUTime - evaluateStartTime);
                 }
-                secondsElapsed = (int) TimingUtils.nanoTimeToSeconds(TimingUtils.getNanoCPUTimeOfCurrentThread()
-                        - evaluateStartTime);
             }
-        }
-        if (immediateResultStream != null) {
-            immediateResultStream.close();
+        } finally {
+            foldExecutor.shutdown();
+            if (immediateResultStream != null) {
+                immediateResultStream.close();
+            }
         }
         return learningCurve;
     }
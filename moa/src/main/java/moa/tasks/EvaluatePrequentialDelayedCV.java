@@ -36,6 +36,7 @@ import moa.streams.ExampleStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.PrintStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
@@ -120,6 +121,14 @@ public class EvaluatePrequentialDelayedCV extends ClassificationMainTask {
     public IntOption randomSeedOption = new IntOption("randomSeed", 'r',
             "Seed for random behaviour of the task.", 1);
 
+    public IntOption numberOfJobsOption = new IntOption("numberOfJobs", 'j',
+            "Number of threads to evaluate the folds on (1 = no parallelism, -1 = number of processors).",
+            1, -1, Integer.MAX_VALUE);
+
+    public IntOption batchSizeOption = new IntOption("batchSize", 'b',
+            "Number of instances each fold processes between synchronisations (1 = lock-step).",
+            100, 1, Integer.MAX_VALUE);
+
     // Buffer of instances to use for training. 
     // Note: It is a list of lists because it stores instances per learner, e.g.
     // CV of 10, would be 10 lists of buffered instances for delayed training. 
@@ -182,105 +191,140 @@ public class EvaluatePrequentialDelayedCV extends ClassificationMainTask {
         boolean preciseCPUTiming = TimingUtils.enablePreciseTiming();
         long evaluateStartTime = TimingUtils.getNanoCPUTimeOfCurrentThread();
         long lastEvaluateStartTime = evaluateStartTime;
+        long workerCPUTime = 0;
         double RAMHours = 0.0;
-        
-        while (stream.hasMoreInstances()
-                && ((maxInstances < 0) || (instancesProcessed < maxInstances))
-                && ((maxSeconds < 0) || (secondsElapsed < maxSeconds))) {
-            
-            
-            Example trainInst = stream.nextInstance();
-            Example testInst = (Example) trainInst;
-            
-            instancesProcessed++;
-            for (int i = 0; i < learners.length; i++) {
-                
-                double[] prediction = learners[i].getVotesForInstance(testInst);
-                evaluators[i].addResult(testInst, prediction);
-                
-                int k = 1;
-                switch (this.validationMethodologyOption.getChosenIndex()) {
-                    case 0: //Cross-Validation;
-                        k = instancesProcessed % learners.length == i ? 0: 1; //Test all except one
-                        break;
-                    case 1: //Bootstrap;
-                        k = MiscUtils.poisson(1, random);
-                        break;
-                    case 2: //Split-Validation;
-                        k = instancesProcessed % learners.length == i ? 1: 0; //Test only one
-                        break;
+        int sampleFrequency = this.sampleFrequencyOption.getValue();
+        int batchSize = this.batchSizeOption.getValue();
+        int methodology = this.validationMethodologyOption.getChosenIndex();
+        final int delayLength = this.delayLengthOption.getValue();
+        final double[] byteSizes = new double[learners.length];
+        FoldExecutor foldExecutor = new FoldExecutor(this.numberOfJobsOption.getValue(), learners.length);
+        try {
+            while (stream.hasMoreInstances()
+                    && ((maxInstances < 0) || (instancesProcessed < maxInstances))
+                    && ((maxSeconds < 0) || (secondsElapsed < maxSeconds))) {
+                // Read a batch that ends at the latest at the next sample point,
+                // drawing the training weights of all folds in the serial order
+                int maxBatch = (int) Math.min(batchSize,
+                        sampleFrequency - instancesProcessed % sampleFrequency);
+                if (maxInstances >= 0) {
+                    maxBatch = (int) Math.min(maxBatch, maxInstances - instancesProcessed);
                 }
-                if (k > 0) {
-                    this.trainInstances.get(i).addLast(trainInst);
-                }
-                if(this.delayLengthOption.getValue() < this.trainInstances.get(i).size()) {
-                    Example trainInstI = this.trainInstances.get(i).removeFirst();
-                    learners[i].trainOnInstance(trainInstI);
-                }
-            }
-            
-            if (instancesProcessed % this.sampleFrequencyOption.getValue() == 0
-                    || stream.hasMoreInstances() == false) {
-                long evaluateTime = TimingUtils.getNanoCPUTimeOfCurrentThread();
-                double time = TimingUtils.nanoTimeToSeconds(evaluateTime - evaluateStartTime);
-                double timeIncrement = TimingUtils.nanoTimeToSeconds(evaluateTime - lastEvaluateStartTime);
-
-                for (int i = 0; i < learners.length; i++) {
-                    double RAMHoursIncrement = learners[i].measureByteSize() / (1024.0 * 1024.0 * 1024.0); //GBs
-                    RAMHoursIncrement *= (timeIncrement / 3600.0); //Hours
-                    RAMHours += RAMHoursIncrement;
+                final List<Example> batch = new ArrayList<Example>(maxBatch);
+                final List<int[]> weights = new ArrayList<int[]>(maxBatch);
+                while ((batch.size() < maxBatch) && stream.hasMoreInstances()) {
+                    long index = instancesProcessed + batch.size() + 1;
+                    int[] k = new int[learners.length];
+                    for (int i = 0; i < learners.length; i++) {
+                        k[i] = 1;
+                        switch (methodology) {
+                            case 0: //Cross-Validation;
+                                k[i] = index % learners.length == i ? 0: 1; //Test all except one
+                                break;
+                            case 1: //Bootstrap;
+                                k[i] = MiscUtils.poisson(1, random);
+                                break;
+                            case 2: //Split-Validation;
+                                k[i] = index % learners.length == i ? 1: 0; //Test only one
+                                break;
+                        }
+                    }
+                    batch.add(stream.nextInstance());
+                    weights.add(k);
                 }
 
-                lastEvaluateStartTime = evaluateTime;
-                learningCurve.insertEntry(new LearningEvaluation(
-                        getEvaluationMeasurements(
-                        new Measurement[]{
-                                new Measurement(
-                                        "learning evaluation instances",
-                                        instancesProcessed),
-                                new Measurement(
-                                        "evaluation time ("
-                                                + (preciseCPUTiming ? "cpu "
-                                                : "") + "seconds)",
-                                        time),
-                                new Measurement(
-                                        "model cost (RAM-Hours)",
-                                        RAMHours)
-                        }, evaluators)));
-
-                if (immediateResultStream != null) {
-                    if (firstDump) {
-                        immediateResultStream.println(learningCurve.headerToString());
-                        firstDump = false;
+                instancesProcessed += batch.size();
+                final boolean samplePoint = instancesProcessed % sampleFrequency == 0
+                        || stream.hasMoreInstances() == false;
+
+                // Folds are independent (each has its own delay buffer), so each
+                // one tests then trains on the whole batch
+                workerCPUTime += foldExecutor.run(learners.length, (int i) -> {
+                    LinkedList<Example> foldTrainInstances = this.trainInstances.get(i);
+                    for (int j = 0; j < batch.size(); j++) {
+                        Example trainInst = batch.get(j);
+                        Example testInst = (Example) trainInst;
+
+                        double[] prediction = learners[i].getVotesForInstance(testInst);
+                        evaluators[i].addResult(testInst, prediction);
+
+                        if (weights.get(j)[i] > 0) {
+                            foldTrainInstances.addLast(trainInst);
+                        }
+                        if(delayLength < foldTrainInstances.size()) {
+                            Example trainInstI = foldTrainInstances.removeFirst();
+                            learners[i].trainOnInstance(trainInstI);
+                        }
                     }
-                    immediateResultStream.println(learningCurve.entryToString(learningCurve.numEntries() - 1));
-                    immediateResultStream.flush();
-                }
-            }
-            if (instancesProcessed % INSTANCES_BETWEEN_MONITOR_UPDATES == 0) {
-                if (monitor.taskShouldAbort()) {
-                    return null;
-                }
-                long estimatedRemainingInstances = stream.estimatedRemainingInstances();
-                if (maxInstances > 0) {
-                    long maxRemaining = maxInstances - instancesProcessed;
-                    if ((estimatedRemainingInstances < 0)
-                            || (maxRemaining < estimatedRemainingInstances)) {
-                        estimatedRemainingInstances = maxRemaining;
+                    if (samplePoint) {
+                        byteSizes[i] = learners[i].measureByteSize();
+                    }
+                });
+
+                if (samplePoint) {
+                    long evaluateTime = TimingUtils.getNanoCPUTimeOfCurrentThread() + workerCPUTime;
+                    double time = TimingUtils.nanoTimeToSeconds(evaluateTime - evaluateStartTime);
+                    double timeIncrement = TimingUtils.nanoTimeToSeconds(evaluateTime - lastEvaluateStartTime);
+
+                    for (int i = 0; i < learners.length; i++) {
+                        double RAMHoursIncrement = byteSizes[i] / (1024.0 * 1024.0 * 1024.0); //GBs
+                        RAMHoursIncrement *= (timeIncrement / 3600.0); //Hours
+                        RAMHours += RAMHoursIncrement;
+                    }
+
+                    lastEvaluateStartTime = evaluateTime;
+                    learningCurve.insertEntry(new LearningEvaluation(
+                            getEvaluationMeasurements(
+                            new Measurement[]{
+                                    new Measurement(
+                                            "learning evaluation instances",
+                                            instancesProcessed),
+                                    new Measurement(
+                                            "evaluation time ("
+                                                    + (preciseCPUTiming ? "cpu "
+                                                    : "") + "seconds)",
+                                            time),
+                                    new Measurement(
+                                            "model cost (RAM-Hours)",
+                                            RAMHours)
+                            }, evaluators)));
+
+                    if (immediateResultStream != null) {
+                        if (firstDump) {
+                            immediateResultStream.println(learningCurve.headerToString());
+                            firstDump = false;
+                        }
+                        immediateResultStream.println(learningCurve.entryToString(learningCurve.numEntries() - 1));
+                        immediateResultStream.flush();
                     }
                 }
-                monitor.setCurrentActivityFractionComplete(estimatedRemainingInstances < 0 ? -1.0
-                        : (double) instancesProcessed
-                        / (double) (instancesProcessed + estimatedRemainingInstances));
-                if (monitor.resultPreviewRequested()) {
-                    monitor.setLatestResultPreview(learningCurve.copy());
+                if (instancesProcessed % INSTANCES_BETWEEN_MONITOR_UPDATES < batch.size()) {
+                    if (monitor.taskShouldAbort()) {
+                        return null;
+                    }
+                    long estimatedRemainingInstances = stream.estimatedRemainingInstances();
+                    if (maxInstances > 0) {
+                        long maxRemaining = maxInstances - instancesProcessed;
+                        if ((estimatedRemainingInstances < 0)
+                                || (maxRemaining < estimatedRemainingInstances)) {
+                            estimatedRemainingInstances = maxRemaining;
+                        }
+                    }
+                    monitor.setCurrentActivityFractionComplete(estimatedRemainingInstances < 0 ? -1.0
+                            : (double) instancesProcessed
+                            / (double) (instancesProcessed + estimatedRemainingInstances));
+                    if (monitor.resultPreviewRequested()) {
+                        monitor.setLatestResultPreview(learningCurve.copy());
+                    }
+                    secondsElapsed = (int) TimingUtils.nanoTimeToSeconds(TimingUtils.getNanoCPUTimeOfCurrentThread()
+                            + workerCPUTime - evaluateStartTime);
                 }
-                secondsElapsed = (int) TimingUtils.nanoTimeToSeconds(TimingUtils.getNanoCPUTimeOfCurrentThread()
-                        - evaluateStartTime);
             }
-        }
-        if (immediateResultStream != null) {
-            immediateResultStream.close();
+        } finally {
+            foldExecutor.shutdown();
+            if (immediateResultStream != null) {
+                immediateResultStream.close();
+            }
         }
         return learningCurve;
     }
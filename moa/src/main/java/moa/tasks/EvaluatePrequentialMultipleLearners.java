@@ -0,0 +1,497 @@
+/*
+ *    EvaluatePrequentialMultipleLearners.java
+ *    Copyright (C) 2020 University of Waikato, Hamilton, New Zealand
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.tasks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import moa.capabilities.CapabilitiesHandler;
+import moa.capabilities.Capability;
+import moa.capabilities.ImmutableCapabilities;
+import moa.classifiers.MultiClassClassifier;
+import moa.core.Example;
+import moa.core.Measurement;
+import moa.core.ObjectRepository;
+import moa.core.TimingUtils;
+import moa.evaluation.LearningEvaluation;
+import moa.evaluation.LearningPerformanceEvaluator;
+import moa.evaluation.preview.LearningCurve;
+import moa.learners.Learner;
+import moa.options.ClassOption;
+import moa.streams.ExampleStream;
+
+import com.github.javacliparser.FileOption;
+import com.github.javacliparser.FlagOption;
+import com.github.javacliparser.IntOption;
+import com.github.javacliparser.ListOption;
+import com.github.javacliparser.Option;
+import com.github.javacliparser.StringOption;
+
+/**
+ * Task for evaluating several classifiers prequentially on the same stream
+ * in a single pass.
+ *
+ * The stream is read once. Instances are read in batches and each learner
+ * tests then trains on the batch in stream order on a worker pool, while the
+ * next batch is read. Instances are shared read-only between learners,
+ * unless a learner is listed as modifying its input, in which case it gets
+ * its own copies. Each learner keeps its own evaluator and learning curve;
+ * the result merges the curves with a "learner" column giving the 1-based
+ * index of the learner, and so does the dump file unless each learner is
+ * dumped to its own file. A learner's own dump file has the format of the
+ * one of {@link EvaluatePrequential}, and its name is the one of the dump
+ * file with the index of the learner appended (results-1.csv, ...).
+ *
+ * @version $Revision: 1 $
+ */
+public class EvaluatePrequentialMultipleLearners extends ClassificationMainTask implements CapabilitiesHandler {
+
+    @Override
+    public String getPurposeString() {
+        return "Evaluates several classifiers on a stream in a single pass by testing then training with each example in sequence.";
+    }
+
+    private static final long serialVersionUID = 1L;
+
+    public ListOption learnersOption = new ListOption("learners", 'l',
+            "The learners to evaluate.",
+            new ClassOption("learner", ' ', "", MultiClassClassifier.class,
+            "moa.classifiers.bayes.NaiveBayes"),
+            new Option[]{
+                new ClassOption("", ' ', "", MultiClassClassifier.class,
+                "moa.classifiers.bayes.NaiveBayes"),
+                new ClassOption("", ' ', "", MultiClassClassifier.class,
+                "moa.classifiers.trees.HoeffdingTree")},
+            ',');
+
+    public ClassOption streamOption = new ClassOption("stream", 's',
+            "Stream to learn from.", ExampleStream.class,
+            "generators.RandomTreeGenerator");
+
+    public ClassOption evaluatorOption = new ClassOption("evaluator", 'e',
+            "Classification performance evaluation method, copied for each learner.",
+            LearningPerformanceEvaluator.class,
+            "WindowClassificationPerformanceEvaluator");
+
+    public IntOption instanceLimitOption = new IntOption("instanceLimit", 'i',
+            "Maximum number of instances to test/train on  (-1 = no limit).",
+            100000000, -1, Integer.MAX_VALUE);
+
+    public IntOption sampleFrequencyOption = new IntOption("sampleFrequency",
+            'f',
+            "How many instances between samples of the learning performance.",
+            100000, 1, Integer.MAX_VALUE);
+
+    public IntOption numberOfJobsOption = new IntOption("numberOfJobs", 'j',
+            "Number of threads to evaluate the learners on (-1 = number of processors).",
+            -1, -1, Integer.MAX_VALUE);
+
+    public IntOption batchSizeOption = new IntOption("batchSize", 'b',
+            "Number of instances handed to the learners at a time.",
+            1000, 1, Integer.MAX_VALUE);
+
+    public StringOption copyInstancesForOption = new StringOption("copyInstancesFor", 'c',
+            "Comma-separated 1-based indices of learners that modify their input and need their own copy of each instance ('all' = every learner).",
+            "");
+
+    public FileOption dumpFileOption = new FileOption("dumpFile", 'd',
+            "File to append intermediate csv results to.", null, "csv", true);
+
+    public FlagOption dumpPerLearnerOption = new FlagOption("dumpPerLearner", 'p',
+            "Append the results of each learner to its own file, named after the dump file with the learner index appended.");
+
+    @Override
+    public Class<?> getTaskResultType() {
+        return LearningCurve.class;
+    }
+
+    /**
+     * The prequential evaluation of one learner.
+     */
+    protected class LearnerEvaluation {
+
+        protected final Learner learner;
+
+        protected final LearningPerformanceEvaluator evaluator;
+
+        protected final boolean copyInstances;
+
+        protected final LearningCurve learningCurve = new LearningCurve(
+                "learning evaluation instances");
+
+        protected long instancesProcessed = 0;
+
+        protected long cpuTime = 0;
+
+        protected long lastSampleCpuTime = 0;
+
+        protected double ramHours = 0.0;
+
+        protected LearnerEvaluation(Learner learner,
+                LearningPerformanceEvaluator evaluator, boolean copyInstances) {
+            this.learner = learner;
+            this.evaluator = evaluator;
+            this.copyInstances = copyInstances;
+        }
+
+        /**
+         * Tests then trains on a batch of instances, in order.
+         */
+        protected void process(List<Example> batch, boolean lastBatch,
+                int sampleFrequency, boolean preciseCPUTiming) {
+            long start = TimingUtils.getNanoCPUTimeOfCurrentThread();
+            for (int i = 0; i < batch.size(); i++) {
+                Example example = batch.get(i);
+                if (this.copyInstances) {
+                    example = example.copy();
+                }
+                double[] prediction = this.learner.getVotesForInstance(example);
+                this.evaluator.addResult(example, prediction);
+                this.learner.trainOnInstance(example);
+                this.instancesProcessed++;
+                if ((this.instancesProcessed % sampleFrequency == 0)
+                        || (lastBatch && (i == batch.size() - 1))) {
+                    sample(this.cpuTime + TimingUtils.getNanoCPUTimeOfCurrentThread() - start,
+                            preciseCPUTiming);
+                }
+            }
+            this.cpuTime += TimingUtils.getNanoCPUTimeOfCurrentThread() - start;
+        }
+
+        protected void sample(long cpuTimeNow, boolean preciseCPUTiming) {
+            double time = TimingUtils.nanoTimeToSeconds(cpuTimeNow);
+            double timeIncrement = TimingUtils.nanoTimeToSeconds(cpuTimeNow - this.lastSampleCpuTime);
+            double RAMHoursIncrement = this.learner.measureByteSize() / (1024.0 * 1024.0 * 1024.0); //GBs
+            RAMHoursIncrement *= (timeIncrement / 3600.0); //Hours
+            this.ramHours += RAMHoursIncrement;
+            this.lastSampleCpuTime = cpuTimeNow;
+            this.learningCurve.insertEntry(new LearningEvaluation(
+                    new Measurement[]{
+                        new Measurement(
+                        "learning evaluation instances",
+                        this.instancesProcessed),
+                        new Measurement(
+                        "evaluation time ("
+                        + (preciseCPUTiming ? "cpu "
+                        : "") + "seconds)",
+                        time),
+                        new Measurement(
+                        "model cost (RAM-Hours)",
+                        this.ramHours)
+                    },
+                    this.evaluator, this.learner));
+        }
+    }
+
+    @Override
+    protected Object doMainTask(TaskMonitor monitor, ObjectRepository repository) {
+        ExampleStream stream = (ExampleStream) getPreparedClassOption(this.streamOption);
+        LearningPerformanceEvaluator evaluatorTemplate = (LearningPerformanceEvaluator) getPreparedClassOption(this.evaluatorOption);
+
+        // Materialize the learners
+        Option[] learnerOptions = this.learnersOption.getList();
+        boolean[] copyInstances = parseCopyInstancesFor(this.copyInstancesForOption.getValue(), learnerOptions.length);
+        List<LearnerEvaluation> evaluations = new ArrayList<>();
+        for (int i = 0; i < learnerOptions.length; i++) {
+            monitor.setCurrentActivity("Materializing learner " + (i + 1) + "...", -1.0);
+            Learner learner = (Learner) ((ClassOption) learnerOptions[i]).materializeObject(monitor, repository);
+            if (monitor.taskShouldAbort()) {
+                return null;
+            }
+            learner.prepareForUse(monitor, repository);
+            learner.setModelContext(stream.getHeader());
+            evaluations.add(new LearnerEvaluation(learner,
+                    (LearningPerformanceEvaluator) evaluatorTemplate.copy(), copyInstances[i]));
+        }
+
+        File dumpFile = this.dumpFileOption.getFile();
+        PrintStream immediateResultStream = null;
+        PrintStream[] learnerResultStreams = null;
+        if (dumpFile != null) {
+            if (this.dumpPerLearnerOption.isSet()) {
+                learnerResultStreams = new PrintStream[evaluations.size()];
+                for (int i = 0; i < evaluations.size(); i++) {
+                    learnerResultStreams[i] = openDumpFile(learnerDumpFile(dumpFile, i));
+                }
+            } else {
+                immediateResultStream = openDumpFile(dumpFile);
+            }
+        }
+
+        int numberOfJobs = this.numberOfJobsOption.getValue();
+        if (numberOfJobs == -1) {
+            numberOfJobs = Runtime.getRuntime().availableProcessors();
+        }
+        numberOfJobs = Math.max(1, Math.min(numberOfJobs, evaluations.size()));
+        ExecutorService executor = Executors.newFixedThreadPool(numberOfJobs);
+
+        int maxInstances = this.instanceLimitOption.getValue();
+        int batchSize = this.batchSizeOption.getValue();
+        int sampleFrequency = this.sampleFrequencyOption.getValue();
+        boolean preciseCPUTiming = TimingUtils.enablePreciseTiming();
+        int[] dumpedEntries = new int[evaluations.size()];
+        List<String> dumpedNames = null;
+        long instancesRead = 0;
+        monitor.setCurrentActivity("Evaluating learners...", -1.0);
+
+        try {
+            List<Example> batch = readBatch(stream, batchSize, maxInstances, instancesRead);
+            instancesRead += batch.size();
+            while (!batch.isEmpty()) {
+                final List<Example> current = batch;
+                final boolean lastBatch = !stream.hasMoreInstances()
+                        || ((maxInstances >= 0) && (instancesRead >= maxInstances));
+
+                // Hand the batch to every learner, and read the next one meanwhile
+                List<Future<?>> futures = new ArrayList<>();
+                for (final LearnerEvaluation evaluation : evaluations) {
+                    futures.add(executor.submit(() -> evaluation.process(
+                            current, lastBatch, sampleFrequency, preciseCPUTiming)));
+                }
+                batch = lastBatch ? new ArrayList<>()
+                        : readBatch(stream, batchSize, maxInstances, instancesRead);
+                instancesRead += batch.size();
+                for (Future<?> future : futures) {
+                    try {
+                        future.get();
+                    } catch (Exception ex) {
+                        throw new RuntimeException("Learner evaluation failed", ex);
+                    }
+                }
+
+                if (immediateResultStream != null) {
+                    for (int i = 0; i < evaluations.size(); i++) {
+                        LearningCurve curve = evaluations.get(i).learningCurve;
+                        for (; dumpedEntries[i] < curve.numEntries(); dumpedEntries[i]++) {
+                            if (dumpedNames == null) {
+                                // All learners sample on the same batches, so
+                                // all their columns are known by now
+                                dumpedNames = measurementNames(evaluations);
+                                immediateResultStream.println(String.join(",", dumpedNames));
+                            }
+                            immediateResultStream.println(rowToString(
+                                    mergedRow(dumpedNames, curve, dumpedEntries[i], i)));
+                        }
+                    }
+                    immediateResultStream.flush();
+                }
+                if (learnerResultStreams != null) {
+                    for (int i = 0; i < evaluations.size(); i++) {
+                        LearningCurve curve = evaluations.get(i).learningCurve;
+                        for (; dumpedEntries[i] < curve.numEntries(); dumpedEntries[i]++) {
+                            if (dumpedEntries[i] == 0) {
+                                learnerResultStreams[i].println(curve.headerToString());
+                            }
+                            learnerResultStreams[i].println(curve.entryToString(dumpedEntries[i]));
+                        }
+                        learnerResultStreams[i].flush();
+                    }
+                }
+
+                if (monitor.taskShouldAbort()) {
+                    return null;
+                }
+                long estimatedRemainingInstances = stream.estimatedRemainingInstances();
+                if (maxInstances > 0) {
+                    long maxRemaining = maxInstances - instancesRead;
+                    if ((estimatedRemainingInstances < 0)
+                            || (maxRemaining < estimatedRemainingInstances)) {
+                        estimatedRemainingInstances = maxRemaining;
+                    }
+                }
+                monitor.setCurrentActivityFractionComplete(estimatedRemainingInstances < 0 ? -1.0
+                        : (double) instancesRead
+                        / (double) (instancesRead + estimatedRemainingInstances));
+                if (monitor.resultPreviewRequested()) {
+                    monitor.setLatestResultPreview(mergeLearningCurves(evaluations));
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            if (immediateResultStream != null) {
+                immediateResultStream.close();
+            }
+            if (learnerResultStreams != null) {
+                for (PrintStream learnerResultStream : learnerResultStreams) {
+                    learnerResultStream.close();
+                }
+            }
+        }
+        return mergeLearningCurves(evaluations);
+    }
+
+    protected static PrintStream openDumpFile(File dumpFile) {
+        try {
+            if (dumpFile.exists()) {
+                return new PrintStream(new FileOutputStream(dumpFile, true), true);
+            } else {
+                return new PrintStream(new FileOutputStream(dumpFile), true);
+            }
+        } catch (Exception ex) {
+            throw new RuntimeException(
+                    "Unable to open immediate result file: " + dumpFile, ex);
+        }
+    }
+
+    /**
+     * Gets the dump file of a learner: the 1-based index of the learner is
+     * appended to the name of the dump file, before its extension.
+     */
+    public static File learnerDumpFile(File dumpFile, int learnerIndex) {
+        String name = dumpFile.getName();
+        int dot = name.lastIndexOf('.');
+        if (dot <= 0) {
+            dot = name.length();
+        }
+        return new File(dumpFile.getParentFile(),
+                name.substring(0, dot) + "-" + (learnerIndex + 1) + name.substring(dot));
+    }
+
+    protected static List<Example> readBatch(ExampleStream stream, int batchSize,
+            int maxInstances, long instancesRead) {
+        List<Example> batch = new ArrayList<>(batchSize);
+        while ((batch.size() < batchSize) && stream.hasMoreInstances()
+                && ((maxInstances < 0) || (instancesRead + batch.size() < maxInstances))) {
+            batch.add(stream.nextInstance());
+        }
+        return batch;
+    }
+
+    protected static boolean[] parseCopyInstancesFor(String value, int numLearners) {
+        boolean[] result = new boolean[numLearners];
+        value = value.trim();
+        if (value.equalsIgnoreCase("all")) {
+            Arrays.fill(result, true);
+            return result;
+        }
+        for (String part : value.split(",")) {
+            part = part.trim();
+            if (part.isEmpty()) {
+                continue;
+            }
+            int index = Integer.parseInt(part) - 1;
+            if ((index < 0) || (index >= numLearners)) {
+                throw new IllegalArgumentException("No learner with index " + part);
+            }
+            result[index] = true;
+        }
+        return result;
+    }
+
+    /**
+     * Gets the union of the columns of the learning curves of all learners,
+     * with a "learner" column after the instances.
+     */
+    protected static List<String> measurementNames(List<LearnerEvaluation> evaluations) {
+        List<String> names = new ArrayList<>();
+        names.add("learning evaluation instances");
+        names.add("learner");
+        for (LearnerEvaluation evaluation : evaluations) {
+            LearningCurve curve = evaluation.learningCurve;
+            for (int m = 1; m < curve.getMeasurementNameCount(); m++) {
+                if (!names.contains(curve.getMeasurementName(m))) {
+                    names.add(curve.getMeasurementName(m));
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Places an entry of the learning curve of a learner in the given
+     * columns. Columns the learner does not have are NaN, measurements
+     * without a column are left out.
+     */
+    protected static double[] mergedRow(List<String> names, LearningCurve curve,
+            int entry, int learnerIndex) {
+        double[] row = new double[names.size()];
+        Arrays.fill(row, Double.NaN);
+        row[0] = curve.getMeasurement(entry, 0);
+        row[1] = learnerIndex + 1;
+        for (int m = 1; m < curve.getEntryMeasurementCount(entry); m++) {
+            int column = names.indexOf(curve.getMeasurementName(m));
+            if (column >= 0) {
+                row[column] = curve.getMeasurement(entry, m);
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Formats a row like {@link LearningCurve#entryToString(int)}.
+     */
+    protected static String rowToString(double[] row) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < row.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            if (Double.isNaN(row[i])) {
+                sb.append('?');
+            } else {
+                sb.append(Double.toString(row[i]));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Combines the learning curves of all learners into one, ordered by
+     * instances then learner, with a "learner" column.
+     */
+    protected LearningCurve mergeLearningCurves(List<LearnerEvaluation> evaluations) {
+        List<String> names = measurementNames(evaluations);
+
+        List<double[]> rows = new ArrayList<>();
+        int[] next = new int[evaluations.size()];
+        while (true) {
+            // Pick the learner whose next entry has the fewest instances
+            int chosen = -1;
+            for (int i = 0; i < evaluations.size(); i++) {
+                LearningCurve curve = evaluations.get(i).learningCurve;
+                if ((next[i] < curve.numEntries()) && ((chosen < 0)
+                        || (curve.getMeasurement(next[i], 0)
+                        < evaluations.get(chosen).learningCurve.getMeasurement(next[chosen], 0)))) {
+                    chosen = i;
+                }
+            }
+            if (chosen < 0) {
+                break;
+            }
+            rows.add(mergedRow(names, evaluations.get(chosen).learningCurve, next[chosen], chosen));
+            next[chosen]++;
+        }
+
+        LearningCurve result = new LearningCurve("learning evaluation instances");
+        result.setData(names, rows);
+        return result;
+    }
+
+    @Override
+    public ImmutableCapabilities defineImmutableCapabilities() {
+        return new ImmutableCapabilities(Capability.VIEW_STANDARD);
+    }
+}
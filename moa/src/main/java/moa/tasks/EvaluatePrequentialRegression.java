@@ -38,6 +38,7 @@ import moa.learners.Learner;
 import moa.options.ClassOption;
 
 import com.github.javacliparser.FileOption;
+import com.github.javacliparser.FlagOption;
 import com.github.javacliparser.FloatOption;
 import com.github.javacliparser.IntOption;
 
@@ -99,6 +100,20 @@ public class EvaluatePrequentialRegression extends RegressionMainTask {
     public FileOption dumpFileOption = new FileOption("dumpFile", 'd',
             "File to append intermediate csv results to.", null, "csv", true);
 
+    public FileOption checkpointFileOption = new FileOption("checkpointFile", 'c',
+            "File to periodically save the evaluation state to.", null, "moa", true);
+
+    public IntOption checkpointFrequencyOption = new IntOption("checkpointFrequency", 'C',
+            "How many instances between checkpoints (0 = no instance-based checkpoints).",
+            0, 0, Integer.MAX_VALUE);
+
+    public IntOption checkpointIntervalOption = new IntOption("checkpointInterval", 'T',
+            "How many seconds between checkpoints (0 = no time-based checkpoints).",
+            0, 0, Integer.MAX_VALUE);
+
+    public FlagOption resumeOption = new FlagOption("resume", 'R',
+            "Resume from the checkpoint file if it exists.");
+
     public FileOption outputPredictionFileOption = new FileOption("outputPredictionFile", 'o',
             "File to append output predictions to.", null, "pred", true);
 
@@ -154,7 +169,32 @@ public class EvaluatePrequentialRegression extends RegressionMainTask {
         int secondsElapsed = 0;
         monitor.setCurrentActivity("Evaluating learner...", -1.0);
 
+        boolean firstDump = true;
+        boolean preciseCPUTiming = TimingUtils.enablePreciseTiming();
+        long evaluateStartTime = TimingUtils.getNanoCPUTimeOfCurrentThread();
+        long lastEvaluateStartTime = evaluateStartTime;
+        double RAMHours = 0.0;
+        double timeOffset = 0.0;
+        EvaluationCheckpointer checkpointer = EvaluationCheckpointer.open(
+                this.checkpointFileOption.getFile(),
+                this.checkpointFrequencyOption.getValue(),
+                this.checkpointIntervalOption.getValue(),
+                this.resumeOption.isSet(), stream, monitor);
+        if ((checkpointer != null) && (checkpointer.getResumed() != null)) {
+            EvaluationCheckpointer.Checkpoint checkpoint = checkpointer.getResumed();
+            learner = checkpoint.learner;
+            evaluator = (LearningPerformanceEvaluator) checkpoint.evaluator;
+            learningCurve = checkpoint.learningCurve;
+            instancesProcessed = checkpoint.instancesProcessed;
+            timeOffset = checkpoint.evaluationTime;
+            RAMHours = checkpoint.ramHours;
+            firstDump = learningCurve.numEntries() == 0;
+        }
         File dumpFile = this.dumpFileOption.getFile();
+        File outputPredictionFile = this.outputPredictionFileOption.getFile();
+        if (checkpointer != null) {
+            checkpointer.restoreOutputs(dumpFile, outputPredictionFile);
+        }
         PrintStream immediateResultStream = null;
         if (dumpFile != null) {
             try {
@@ -171,7 +211,6 @@ public class EvaluatePrequentialRegression extends RegressionMainTask {
             }
         }
         //File for output predictions
-        File outputPredictionFile = this.outputPredictionFileOption.getFile();
         PrintStream outputPredictionResultStream = null;
         if (outputPredictionFile != null) {
             try {
@@ -187,11 +226,6 @@ public class EvaluatePrequentialRegression extends RegressionMainTask {
                         "Unable to open prediction result file: " + outputPredictionFile, ex);
             }
         }
-        boolean firstDump = true;
-        boolean preciseCPUTiming = TimingUtils.enablePreciseTiming();
-        long evaluateStartTime = TimingUtils.getNanoCPUTimeOfCurrentThread();
-        long lastEvaluateStartTime = evaluateStartTime;
-        double RAMHours = 0.0;
         while (stream.hasMoreInstances()
                 && ((maxInstances < 0) || (instancesProcessed < maxInstances))
                 && ((maxSeconds < 0) || (secondsElapsed < maxSeconds))) {
@@ -213,7 +247,7 @@ public class EvaluatePrequentialRegression extends RegressionMainTask {
             if (instancesProcessed % this.sampleFrequencyOption.getValue() == 0
                     || stream.hasMoreInstances() == false) {
                 long evaluateTime = TimingUtils.getNanoCPUTimeOfCurrentThread();
-                double time = TimingUtils.nanoTimeToSeconds(evaluateTime - evaluateStartTime);
+                double time = timeOffset + TimingUtils.nanoTimeToSeconds(evaluateTime - evaluateStartTime);
                 double timeIncrement = TimingUtils.nanoTimeToSeconds(evaluateTime - lastEvaluateStartTime);
                 double RAMHoursIncrement = learner.measureByteSize() / (1024.0 * 1024.0 * 1024.0); //GBs
                 RAMHoursIncrement *= (timeIncrement / 3600.0); //Hours
@@ -244,8 +278,15 @@ public class EvaluatePrequentialRegression extends RegressionMainTask {
                     immediateResultStream.flush();
                 }
             }
+            if (checkpointer != null) {
+                checkpointer.checkpointIfDue(learner, evaluator, learningCurve,
+                        instancesProcessed, evaluateStartTime, RAMHours);
+            }
             if (instancesProcessed % INSTANCES_BETWEEN_MONITOR_UPDATES == 0) {
                 if (monitor.taskShouldAbort()) {
+                    if (checkpointer != null) {
+                        checkpointer.close();
+                    }
                     return null;
                 }
                 long estimatedRemainingInstances = stream.estimatedRemainingInstances();
@@ -272,6 +313,9 @@ public class EvaluatePrequentialRegression extends RegressionMainTask {
         if (outputPredictionResultStream != null) {
             outputPredictionResultStream.close();
         }
+        if (checkpointer != null) {
+            checkpointer.close();
+        }
         return learningCurve;
     }
 }
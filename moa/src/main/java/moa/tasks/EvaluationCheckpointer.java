@@ -0,0 +1,335 @@
+/*
+ *    EvaluationCheckpointer.java
+ *    Copyright (C) 2020 University of Waikato, Hamilton, New Zealand
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.tasks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import moa.core.SerializeUtils;
+import moa.core.TimingUtils;
+import moa.evaluation.preview.LearningCurve;
+import moa.learners.Learner;
+import moa.streams.ExampleStream;
+
+/**
+ * Periodically saves the state of a prequential evaluation so that a long
+ * run can be resumed after a failure.
+ *
+ * A checkpoint is serialized to memory on the calling thread, which gives
+ * a consistent snapshot of the learner and evaluator. Compressing and
+ * writing it to disk happens on a background thread while learning
+ * continues. At most one write is in flight; the file is replaced
+ * atomically so an interrupted write never corrupts the last checkpoint.
+ *
+ * The lengths of the output files of the task (see
+ * {@link #restoreOutputs(File...)}) are stored with each checkpoint. On
+ * resume the files are truncated to them, so the rows written between the
+ * last checkpoint and the failure are not appended a second time.
+ *
+ * @version $Revision: 1 $
+ */
+public class EvaluationCheckpointer {
+
+    /**
+     * The state of an evaluation at a given point of the stream.
+     */
+    public static class Checkpoint implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        public final Learner learner;
+
+        public final Serializable evaluator;
+
+        public final LearningCurve learningCurve;
+
+        public final long instancesProcessed;
+
+        public final double evaluationTime;
+
+        public final double ramHours;
+
+        /** the lengths of the output files, null if not recorded */
+        public final long[] outputLengths;
+
+        public Checkpoint(Learner learner, Serializable evaluator,
+                LearningCurve learningCurve, long instancesProcessed,
+                double evaluationTime, double ramHours) {
+            this(learner, evaluator, learningCurve, instancesProcessed,
+                    evaluationTime, ramHours, null);
+        }
+
+        public Checkpoint(Learner learner, Serializable evaluator,
+                LearningCurve learningCurve, long instancesProcessed,
+                double evaluationTime, double ramHours, long[] outputLengths) {
+            this.learner = learner;
+            this.evaluator = evaluator;
+            this.learningCurve = learningCurve;
+            this.instancesProcessed = instancesProcessed;
+            this.evaluationTime = evaluationTime;
+            this.ramHours = ramHours;
+            this.outputLengths = outputLengths;
+        }
+    }
+
+    protected final File file;
+
+    protected final int instanceFrequency;
+
+    protected final int secondsFrequency;
+
+    protected long lastCheckpointInstances;
+
+    protected long lastCheckpointMillis;
+
+    protected ExecutorService writer;
+
+    protected Future<?> pendingWrite;
+
+    protected Checkpoint resumed;
+
+    protected File[] outputFiles;
+
+    /**
+     * Creates a checkpointer.
+     *
+     * @param file the file to write checkpoints to
+     * @param instanceFrequency instances between checkpoints (0 = never)
+     * @param secondsFrequency wall-clock seconds between checkpoints (0 = never)
+     */
+    public EvaluationCheckpointer(File file, int instanceFrequency, int secondsFrequency) {
+        this.file = file;
+        this.instanceFrequency = instanceFrequency;
+        this.secondsFrequency = secondsFrequency;
+        this.lastCheckpointMillis = System.currentTimeMillis();
+        this.writer = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "EvaluationCheckpointer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Creates the checkpointer of an evaluation task. When resuming and the
+     * file exists, the checkpoint is loaded and the stream is advanced past
+     * the instances it covers; the task restores its state from
+     * {@link #getResumed()}.
+     *
+     * @param file the file to write checkpoints to, null for none
+     * @param instanceFrequency instances between checkpoints (0 = never)
+     * @param secondsFrequency wall-clock seconds between checkpoints (0 = never)
+     * @param resume whether to resume from the file
+     * @param stream the stream of the task
+     * @param monitor the monitor of the task
+     * @return the checkpointer, null if no file is given
+     */
+    public static EvaluationCheckpointer open(File file, int instanceFrequency,
+            int secondsFrequency, boolean resume, ExampleStream stream, TaskMonitor monitor) {
+        if (file == null) {
+            return null;
+        }
+        Checkpoint resumed = null;
+        if (resume && file.exists()) {
+            resumed = load(file);
+            String activity = monitor.getCurrentActivityDescription();
+            monitor.setCurrentActivity("Skipping instances evaluated before checkpoint...", -1.0);
+            skipInstances(stream, resumed.instancesProcessed);
+            monitor.setCurrentActivity(activity, -1.0);
+        }
+        EvaluationCheckpointer result = new EvaluationCheckpointer(file, instanceFrequency, secondsFrequency);
+        if (resumed != null) {
+            result.resumed = resumed;
+            result.setResumedFrom(resumed.instancesProcessed);
+        }
+        return result;
+    }
+
+    /**
+     * The checkpoint the evaluation was resumed from, null if it was not.
+     */
+    public Checkpoint getResumed() {
+        return this.resumed;
+    }
+
+    /**
+     * Sets the output files the task appends to; null entries are ignored.
+     * Their lengths are stored with each checkpoint. When resuming, each
+     * file is truncated to its length at the checkpoint, so this has to be
+     * called before the task opens them.
+     */
+    public void restoreOutputs(File... files) {
+        this.outputFiles = files;
+        if ((this.resumed == null) || (this.resumed.outputLengths == null)
+                || (this.resumed.outputLengths.length != files.length)) {
+            return;
+        }
+        for (int i = 0; i < files.length; i++) {
+            if ((files[i] != null) && (this.resumed.outputLengths[i] >= 0)
+                    && (files[i].length() > this.resumed.outputLengths[i])) {
+                try (RandomAccessFile out = new RandomAccessFile(files[i], "rw")) {
+                    out.setLength(this.resumed.outputLengths[i]);
+                } catch (IOException ex) {
+                    throw new RuntimeException("Unable to truncate output file: " + files[i], ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * The current lengths of the output files, -1 for missing ones.
+     */
+    protected long[] outputLengths() {
+        if (this.outputFiles == null) {
+            return null;
+        }
+        long[] lengths = new long[this.outputFiles.length];
+        for (int i = 0; i < lengths.length; i++) {
+            lengths[i] = ((this.outputFiles[i] != null) && this.outputFiles[i].exists())
+                    ? this.outputFiles[i].length() : -1;
+        }
+        return lengths;
+    }
+
+    /**
+     * Sets the starting point after resuming from a checkpoint.
+     */
+    public void setResumedFrom(long instancesProcessed) {
+        this.lastCheckpointInstances = instancesProcessed;
+    }
+
+    /**
+     * Whether a checkpoint should be taken after the given number of
+     * instances.
+     */
+    public boolean isDue(long instancesProcessed) {
+        if ((this.instanceFrequency > 0)
+                && (instancesProcessed - this.lastCheckpointInstances >= this.instanceFrequency)) {
+            return true;
+        }
+        return (this.secondsFrequency > 0)
+                && (System.currentTimeMillis() - this.lastCheckpointMillis >= this.secondsFrequency * 1000L);
+    }
+
+    /**
+     * Snapshots the checkpoint on the calling thread and writes it in the
+     * background. Waits for the previous write if it is still running.
+     */
+    public void checkpoint(Checkpoint checkpoint) {
+        final byte[] snapshot;
+        try {
+            snapshot = SerializeUtils.toByteArray(checkpoint);
+        } catch (IOException ex) {
+            throw new RuntimeException("Unable to snapshot evaluation state", ex);
+        }
+        waitForPendingWrite();
+        this.pendingWrite = this.writer.submit(() -> {
+            write(snapshot);
+            return null;
+        });
+        this.lastCheckpointInstances = checkpoint.instancesProcessed;
+        this.lastCheckpointMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Takes a checkpoint if one is due after the given number of instances.
+     * The evaluation time adds the CPU time of this run to the one of the
+     * checkpoint resumed from. The output files have to be flushed before.
+     *
+     * @param evaluateStartTime the CPU time of the current thread when this
+     * run started evaluating
+     */
+    public void checkpointIfDue(Learner learner, Serializable evaluator,
+            LearningCurve learningCurve, long instancesProcessed,
+            long evaluateStartTime, double ramHours) {
+        if (!isDue(instancesProcessed)) {
+            return;
+        }
+        double time = TimingUtils.nanoTimeToSeconds(
+                TimingUtils.getNanoCPUTimeOfCurrentThread() - evaluateStartTime);
+        if (this.resumed != null) {
+            time += this.resumed.evaluationTime;
+        }
+        checkpoint(new Checkpoint(learner, evaluator, learningCurve,
+                instancesProcessed, time, ramHours, outputLengths()));
+    }
+
+    /**
+     * Waits for any outstanding write and stops the background thread.
+     */
+    public void close() {
+        try {
+            waitForPendingWrite();
+        } finally {
+            this.writer.shutdown();
+        }
+    }
+
+    protected void write(byte[] snapshot) throws IOException {
+        File tmpFile = new File(this.file.getPath() + ".tmp");
+        SerializeUtils.writeBytesToFile(tmpFile, snapshot);
+        Files.move(tmpFile.toPath(), this.file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    protected void waitForPendingWrite() {
+        if (this.pendingWrite == null) {
+            return;
+        }
+        try {
+            this.pendingWrite.get();
+        } catch (Exception ex) {
+            throw new RuntimeException("Unable to write checkpoint file: " + this.file, ex);
+        } finally {
+            this.pendingWrite = null;
+        }
+    }
+
+    /**
+     * Reads the checkpoint from the given file.
+     */
+    public static Checkpoint load(File file) {
+        try {
+            return (Checkpoint) SerializeUtils.readFromFile(file);
+        } catch (Exception ex) {
+            throw new RuntimeException("Unable to read checkpoint file: " + file, ex);
+        }
+    }
+
+    /**
+     * Advances the stream past the instances already consumed before the
+     * checkpoint, without testing or training on them.
+     *
+     * @return the number of instances actually skipped
+     */
+    public static long skipInstances(ExampleStream stream, long numInstances) {
+        long skipped = 0;
+        while ((skipped < numInstances) && stream.hasMoreInstances()) {
+            stream.nextInstance();
+            skipped++;
+        }
+        return skipped;
+    }
+}
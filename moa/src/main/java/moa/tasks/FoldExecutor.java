@@ -0,0 +1,106 @@
+/*
+ *    FoldExecutor.java
+ *    Copyright (C) 2020 University of Waikato, Hamilton, New Zealand
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.tasks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
+
+import moa.core.TimingUtils;
+
+/**
+ * Runs the same piece of work for every fold of a cross-validation
+ * evaluation, either on the calling thread or on a fixed pool of threads.
+ * Folds must not share mutable state.
+ *
+ * @version $Revision: 1 $
+ */
+public class FoldExecutor {
+
+    protected ExecutorService executor;
+
+    /**
+     * Creates the executor.
+     *
+     * @param numberOfJobs the number of threads (1 = calling thread,
+     * -1 = number of processors)
+     * @param numFolds the number of folds, which bounds the useful threads
+     */
+    public FoldExecutor(int numberOfJobs, int numFolds) {
+        if (numberOfJobs == -1) {
+            numberOfJobs = Runtime.getRuntime().availableProcessors();
+        }
+        numberOfJobs = Math.min(numberOfJobs, numFolds);
+        if (numberOfJobs > 1) {
+            this.executor = Executors.newFixedThreadPool(numberOfJobs);
+        }
+    }
+
+    /**
+     * Whether folds run on a pool rather than on the calling thread.
+     */
+    public boolean isParallel() {
+        return this.executor != null;
+    }
+
+    /**
+     * Runs the work for every fold and waits for all of them.
+     *
+     * @return the CPU time in nanoseconds spent by pool threads, which is
+     * not included in the CPU time of the calling thread (0 if not parallel)
+     */
+    public long run(int numFolds, final IntConsumer foldWork) {
+        if (this.executor == null) {
+            for (int i = 0; i < numFolds; i++) {
+                foldWork.accept(i);
+            }
+            return 0;
+        }
+        List<Future<Long>> futures = new ArrayList<Future<Long>>(numFolds);
+        for (int i = 0; i < numFolds; i++) {
+            final int fold = i;
+            futures.add(this.executor.submit(() -> {
+                long start = TimingUtils.getNanoCPUTimeOfCurrentThread();
+                foldWork.accept(fold);
+                return TimingUtils.getNanoCPUTimeOfCurrentThread() - start;
+            }));
+        }
+        long cpuTime = 0;
+        for (Future<Long> future : futures) {
+            try {
+                cpuTime += future.get();
+            } catch (Exception ex) {
+                throw new RuntimeException("Fold evaluation failed", ex);
+            }
+        }
+        return cpuTime;
+    }
+
+    /**
+     * Stops the pool threads.
+     */
+    public void shutdown() {
+        if (this.executor != null) {
+            this.executor.shutdownNow();
+        }
+    }
+}
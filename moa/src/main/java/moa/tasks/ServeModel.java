@@ -0,0 +1,678 @@
+/*
+ *    ServeModel.java
+ *    Copyright (C) 2020 University of Waikato, Hamilton, New Zealand
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.tasks;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import moa.capabilities.CapabilitiesHandler;
+import moa.capabilities.Capability;
+import moa.capabilities.ImmutableCapabilities;
+import moa.classifiers.MultiClassClassifier;
+import moa.core.InstanceExample;
+import moa.core.Measurement;
+import moa.core.ObjectRepository;
+import moa.evaluation.LearningEvaluation;
+import moa.learners.Learner;
+import moa.options.ClassOption;
+import moa.streams.ExampleStream;
+
+import com.github.javacliparser.IntOption;
+import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+/**
+ * Task for training a learner on a stream while serving its predictions
+ * over a local socket.
+ *
+ * Predictions are never made by the learner being trained. Every few
+ * instances the training thread publishes a copy of the learner, and each
+ * request batch is answered by the latest published copy. Published copies
+ * are never changed, and since predicting may change a learner's state,
+ * each connection predicts with a private copy of the published one, so
+ * serving neither races with training nor with other connections. Each
+ * connection holds a server thread, connections beyond the number of
+ * threads wait for a free one.
+ *
+ * Protocol (one request/response per batch, UTF-8 text lines):
+ * <pre>
+ *   client: PREDICT n
+ *   client: n lines of comma-separated attribute values (? = missing)
+ *   server: n lines of comma-separated votes
+ *   client: QUIT
+ * </pre>
+ * A request that cannot be answered (unknown command, malformed batch
+ * size or instance, failing prediction) gets a single line
+ * <code>ERROR message</code> instead, after the whole batch has been read,
+ * and the connection stays usable. Errors are counted, shown in the
+ * activity of the task monitor and reported in the result.
+ *
+ * Optionally, a number of local load-generator clients replay a copy of
+ * the stream against the server while training runs, and throughput and
+ * latency of their requests are reported in the result.
+ *
+ * @version $Revision: 1 $
+ */
+public class ServeModel extends ClassificationMainTask implements CapabilitiesHandler {
+
+    @Override
+    public String getPurposeString() {
+        return "Trains a learner on a stream while serving predictions from periodically published copies of it.";
+    }
+
+    private static final long serialVersionUID = 1L;
+
+    public ClassOption learnerOption = new ClassOption("learner", 'l',
+            "Learner to train.", MultiClassClassifier.class, "moa.classifiers.trees.HoeffdingTree");
+
+    public ClassOption streamOption = new ClassOption("stream", 's',
+            "Stream to learn from.", ExampleStream.class,
+            "generators.RandomTreeGenerator");
+
+    public IntOption instanceLimitOption = new IntOption("instanceLimit", 'i',
+            "Maximum number of instances to train on (-1 = no limit).",
+            1000000, -1, Integer.MAX_VALUE);
+
+    public IntOption publishFrequencyOption = new IntOption("publishFrequency", 'f',
+            "How many instances between publishing a copy of the model for serving.",
+            10000, 1, Integer.MAX_VALUE);
+
+    public IntOption portOption = new IntOption("port", 'p',
+            "Local port to serve predictions on (0 = any free port).",
+            0, 0, 65535);
+
+    public IntOption serverThreadsOption = new IntOption("serverThreads", 't',
+            "Number of threads answering requests.",
+            4, 1, Integer.MAX_VALUE);
+
+    public IntOption serveAfterTrainingOption = new IntOption("serveAfterTraining", 'w',
+            "Seconds to keep serving once training has finished (-1 = until aborted).",
+            0, -1, Integer.MAX_VALUE);
+
+    public IntOption loadClientsOption = new IntOption("loadClients", 'c',
+            "Number of local load-generator clients (0 = none).",
+            0, 0, Integer.MAX_VALUE);
+
+    public IntOption loadBatchSizeOption = new IntOption("loadBatchSize", 'b',
+            "Number of instances per load-generator request.",
+            100, 1, Integer.MAX_VALUE);
+
+    @Override
+    public Class<?> getTaskResultType() {
+        return LearningEvaluation.class;
+    }
+
+    @Override
+    protected Object doMainTask(TaskMonitor monitor, ObjectRepository repository) {
+        Learner learner = (Learner) getPreparedClassOption(this.learnerOption);
+        ExampleStream stream = (ExampleStream) getPreparedClassOption(this.streamOption);
+        InstancesHeader header = stream.getHeader();
+        learner.setModelContext(header);
+
+        // The load generators replay their own copies of the stream
+        List<ExampleStream> loadStreams = new ArrayList<>();
+        for (int i = 0; i < this.loadClientsOption.getValue(); i++) {
+            ExampleStream copy = (ExampleStream) stream.copy();
+            copy.restart();
+            loadStreams.add(copy);
+        }
+
+        AtomicReference<Learner> published = new AtomicReference<>((Learner) learner.copy());
+        long publications = 1;
+        Server server;
+        try {
+            server = new Server(this.portOption.getValue(),
+                    this.serverThreadsOption.getValue(), header, published);
+        } catch (IOException ex) {
+            throw new RuntimeException("Unable to open server socket on port " + this.portOption.getValue(), ex);
+        }
+
+        List<LoadGenerator> generators = new ArrayList<>();
+        List<Thread> generatorThreads = new ArrayList<>();
+        for (ExampleStream loadStream : loadStreams) {
+            LoadGenerator generator = new LoadGenerator(server.getPort(),
+                    loadStream, this.loadBatchSizeOption.getValue());
+            Thread thread = new Thread(generator, "ServeModel-load-" + generators.size());
+            thread.setDaemon(true);
+            generators.add(generator);
+            generatorThreads.add(thread);
+        }
+        for (Thread thread : generatorThreads) {
+            thread.start();
+        }
+
+        int maxInstances = this.instanceLimitOption.getValue();
+        int publishFrequency = this.publishFrequencyOption.getValue();
+        long instancesProcessed = 0;
+        long startTime = System.nanoTime();
+        boolean aborted = false;
+        long reportedErrors = 0;
+        String activity = "Training and serving on port " + server.getPort();
+        monitor.setCurrentActivity(activity + "...", -1.0);
+        try {
+            while (stream.hasMoreInstances()
+                    && ((maxInstances < 0) || (instancesProcessed < maxInstances))) {
+                learner.trainOnInstance(stream.nextInstance());
+                instancesProcessed++;
+                if (instancesProcessed % publishFrequency == 0) {
+                    published.set((Learner) learner.copy());
+                    publications++;
+                }
+                if (instancesProcessed % INSTANCES_BETWEEN_MONITOR_UPDATES == 0) {
+                    if (monitor.taskShouldAbort()) {
+                        aborted = true;
+                        break;
+                    }
+                    reportedErrors = reportErrors(monitor, server, activity, reportedErrors);
+                    if (maxInstances > 0) {
+                        monitor.setCurrentActivityFractionComplete(
+                                (double) instancesProcessed / (double) maxInstances);
+                    }
+                }
+            }
+            published.set((Learner) learner.copy());
+            publications++;
+
+            // Keep serving the final model if requested
+            int serveSeconds = this.serveAfterTrainingOption.getValue();
+            if (!aborted && (serveSeconds != 0)) {
+                activity = "Serving on port " + server.getPort();
+                monitor.setCurrentActivity(activity + "...", -1.0);
+                reportedErrors = 0;
+                long serveEnd = System.nanoTime() + TimeUnit.SECONDS.toNanos(serveSeconds);
+                while (((serveSeconds < 0) || (System.nanoTime() < serveEnd))
+                        && !monitor.taskShouldAbort()) {
+                    reportedErrors = reportErrors(monitor, server, activity, reportedErrors);
+                    try {
+                        Thread.sleep(100);
+                    } catch (InterruptedException ex) {
+                        break;
+                    }
+                }
+            }
+        } finally {
+            for (LoadGenerator generator : generators) {
+                generator.stop();
+            }
+            // Clients waiting for a server thread only return once their
+            // connection is closed
+            server.close();
+            for (Thread thread : generatorThreads) {
+                try {
+                    thread.join();
+                } catch (InterruptedException ex) {
+                    break;
+                }
+            }
+        }
+        double elapsed = (System.nanoTime() - startTime) / 1e9;
+
+        if (aborted) {
+            return null;
+        }
+
+        // Gather the client-side statistics
+        long numRequests = 0;
+        long numPredictions = 0;
+        long numFailures = 0;
+        long[] latencies = new long[0];
+        for (LoadGenerator generator : generators) {
+            if (generator.getFailure() != null) {
+                numFailures++;
+            }
+            numRequests += generator.getNumRequests();
+            numPredictions += generator.getNumPredictions();
+            long[] more = generator.getLatencies();
+            long[] merged = Arrays.copyOf(latencies, latencies.length + more.length);
+            System.arraycopy(more, 0, merged, latencies.length, more.length);
+            latencies = merged;
+        }
+        Arrays.sort(latencies);
+
+        return new LearningEvaluation(new Measurement[]{
+            new Measurement("instances trained", instancesProcessed),
+            new Measurement("models published", publications),
+            new Measurement("elapsed time (seconds)", elapsed),
+            new Measurement("requests served", server.getNumRequests()),
+            new Measurement("predictions served", server.getNumPredictions()),
+            new Measurement("request errors", server.getNumErrors()),
+            new Measurement("load-generator requests", numRequests),
+            new Measurement("load-generator failures", numFailures),
+            new Measurement("load-generator throughput (predictions/second)",
+                    elapsed > 0 ? numPredictions / elapsed : 0.0),
+            new Measurement("request latency mean (ms)", mean(latencies) / 1e6),
+            new Measurement("request latency p50 (ms)", percentile(latencies, 0.5) / 1e6),
+            new Measurement("request latency p99 (ms)", percentile(latencies, 0.99) / 1e6),
+            new Measurement("request latency max (ms)", percentile(latencies, 1.0) / 1e6)
+        });
+    }
+
+    /**
+     * Shows the number of request errors and the last one in the activity
+     * of the monitor if there were new ones.
+     *
+     * @return the number of errors reported
+     */
+    protected static long reportErrors(TaskMonitor monitor, Server server,
+            String activity, long reportedErrors) {
+        long errors = server.getNumErrors();
+        if (errors != reportedErrors) {
+            monitor.setCurrentActivityDescription(activity + " (" + errors
+                    + " request errors, last: " + server.getLastError() + ")...");
+        }
+        return errors;
+    }
+
+    protected static double mean(long[] values) {
+        if (values.length == 0) {
+            return 0.0;
+        }
+        double sum = 0.0;
+        for (long value : values) {
+            sum += value;
+        }
+        return sum / values.length;
+    }
+
+    protected static double percentile(long[] sortedValues, double fraction) {
+        if (sortedValues.length == 0) {
+            return 0.0;
+        }
+        int index = (int) Math.ceil(fraction * sortedValues.length) - 1;
+        return sortedValues[Math.max(0, Math.min(index, sortedValues.length - 1))];
+    }
+
+    /**
+     * Formats the attribute values of an instance as one request line.
+     */
+    public static String formatInstance(Instance inst) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < inst.numAttributes(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            if (inst.isMissing(i)) {
+                sb.append('?');
+            } else {
+                sb.append(inst.value(i));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Parses one request line into an instance of the given header.
+     */
+    public static Instance parseInstance(String line, InstancesHeader header) {
+        String[] parts = line.split(",", -1);
+        if (parts.length != header.numAttributes()) {
+            throw new IllegalArgumentException("Expected " + header.numAttributes()
+                    + " values but got " + parts.length);
+        }
+        double[] values = new double[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            String part = parts[i].trim();
+            values[i] = part.equals("?") ? Double.NaN : Double.parseDouble(part);
+        }
+        Instance inst = new DenseInstance(1.0, values);
+        inst.setDataset(header);
+        return inst;
+    }
+
+    /**
+     * Accepts connections and answers batched prediction requests from the
+     * latest published model.
+     */
+    protected static class Server implements Runnable, Closeable {
+
+        protected final ServerSocket socket;
+
+        protected final ExecutorService handlers;
+
+        protected final InstancesHeader header;
+
+        protected final AtomicReference<Learner> published;
+
+        protected final Thread acceptor;
+
+        protected final List<Socket> connections = new ArrayList<>();
+
+        protected final AtomicLong numRequests = new AtomicLong();
+
+        protected final AtomicLong numPredictions = new AtomicLong();
+
+        protected final AtomicLong numErrors = new AtomicLong();
+
+        protected volatile String lastError;
+
+        protected volatile boolean running = true;
+
+        public Server(int port, int numThreads, InstancesHeader header,
+                AtomicReference<Learner> published) throws IOException {
+            this.socket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+            this.handlers = Executors.newFixedThreadPool(numThreads, r -> {
+                Thread thread = new Thread(r, "ServeModel-handler");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.header = header;
+            this.published = published;
+            this.acceptor = new Thread(this, "ServeModel-acceptor");
+            this.acceptor.setDaemon(true);
+            this.acceptor.start();
+        }
+
+        public int getPort() {
+            return this.socket.getLocalPort();
+        }
+
+        public long getNumRequests() {
+            return this.numRequests.get();
+        }
+
+        public long getNumPredictions() {
+            return this.numPredictions.get();
+        }
+
+        /**
+         * Gets the number of failed requests and dropped connections.
+         */
+        public long getNumErrors() {
+            return this.numErrors.get();
+        }
+
+        /**
+         * Gets the message of the last error, null if there was none.
+         */
+        public String getLastError() {
+            return this.lastError;
+        }
+
+        protected void recordError(String message) {
+            this.lastError = message;
+            this.numErrors.incrementAndGet();
+        }
+
+        /**
+         * Records the error and sends it to the client as one line.
+         */
+        protected void sendError(Writer out, String message) throws IOException {
+            recordError(message);
+            out.write("ERROR " + message.replace('\n', ' ').replace('\r', ' ') + "\n");
+            out.flush();
+        }
+
+        protected static String describe(Exception ex) {
+            return (ex.getMessage() != null) ? ex.getMessage() : ex.toString();
+        }
+
+        @Override
+        public void run() {
+            while (this.running) {
+                try {
+                    final Socket connection = this.socket.accept();
+                    synchronized (this.connections) {
+                        this.connections.add(connection);
+                    }
+                    this.handlers.execute(() -> handle(connection));
+                } catch (IOException ex) {
+                    // socket closed
+                }
+            }
+        }
+
+        protected void handle(Socket connection) {
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                    connection.getInputStream(), StandardCharsets.UTF_8));
+                 Writer out = new BufferedWriter(new OutputStreamWriter(
+                    connection.getOutputStream(), StandardCharsets.UTF_8))) {
+                // The private copy of the published model last used
+                Learner source = null;
+                Learner model = null;
+                String line;
+                while (this.running && ((line = in.readLine()) != null)) {
+                    if (line.equals("QUIT")) {
+                        break;
+                    }
+                    if (!line.startsWith("PREDICT ")) {
+                        sendError(out, "unknown request");
+                        continue;
+                    }
+                    int n;
+                    try {
+                        n = Integer.parseInt(line.substring(8).trim());
+                    } catch (NumberFormatException ex) {
+                        n = -1;
+                    }
+                    if (n < 0) {
+                        sendError(out, "invalid batch size: " + line.substring(8).trim());
+                        continue;
+                    }
+
+                    // The whole batch is answered by the same model
+                    Learner latest = this.published.get();
+                    if (latest != source) {
+                        source = latest;
+                        model = (Learner) source.copy();
+                    }
+                    StringBuilder response = new StringBuilder();
+                    String error = null;
+                    for (int i = 0; i < n; i++) {
+                        String request = in.readLine();
+                        if (request == null) {
+                            return;
+                        }
+                        // the rest of a failed batch is read but not answered
+                        if (error != null) {
+                            continue;
+                        }
+                        try {
+                            double[] votes = model.getVotesForInstance(
+                                    new InstanceExample(parseInstance(request, this.header)));
+                            for (int j = 0; j < votes.length; j++) {
+                                if (j > 0) {
+                                    response.append(',');
+                                }
+                                response.append(votes[j]);
+                            }
+                            response.append('\n');
+                        } catch (RuntimeException ex) {
+                            error = "instance " + (i + 1) + ": " + describe(ex);
+                        }
+                    }
+                    if (error != null) {
+                        sendError(out, error);
+                        continue;
+                    }
+                    out.write(response.toString());
+                    out.flush();
+                    this.numRequests.incrementAndGet();
+                    this.numPredictions.addAndGet(n);
+                }
+            } catch (IOException ex) {
+                // the connections are closed on shutdown
+                if (this.running) {
+                    recordError("connection dropped: " + describe(ex));
+                }
+            } catch (RuntimeException ex) {
+                recordError("connection closed after failure: " + describe(ex));
+            } finally {
+                synchronized (this.connections) {
+                    this.connections.remove(connection);
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            this.running = false;
+            try {
+                this.socket.close();
+            } catch (IOException ex) {
+                // ignore
+            }
+            synchronized (this.connections) {
+                for (Socket connection : this.connections) {
+                    try {
+                        connection.close();
+                    } catch (IOException ex) {
+                        // ignore
+                    }
+                }
+            }
+            this.handlers.shutdownNow();
+            try {
+                this.acceptor.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Local client that sends batches of instances from a stream and records
+     * the round-trip latency of each request.
+     */
+    public static class LoadGenerator implements Runnable {
+
+        protected final int port;
+
+        protected final ExampleStream stream;
+
+        protected final int batchSize;
+
+        protected volatile boolean running = true;
+
+        protected long numRequests;
+
+        protected long numPredictions;
+
+        protected long[] latencies = new long[1024];
+
+        protected volatile IOException failure;
+
+        public LoadGenerator(int port, ExampleStream stream, int batchSize) {
+            this.port = port;
+            this.stream = stream;
+            this.batchSize = batchSize;
+        }
+
+        public void stop() {
+            this.running = false;
+        }
+
+        public long getNumRequests() {
+            return this.numRequests;
+        }
+
+        public long getNumPredictions() {
+            return this.numPredictions;
+        }
+
+        /**
+         * Gets the error that ended this client early, null if there was none.
+         */
+        public IOException getFailure() {
+            return this.failure;
+        }
+
+        /**
+         * Gets the round-trip latency of each request in nanoseconds.
+         */
+        public long[] getLatencies() {
+            return Arrays.copyOf(this.latencies, (int) Math.min(this.numRequests, this.latencies.length));
+        }
+
+        @Override
+        public void run() {
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), this.port);
+                 BufferedReader in = new BufferedReader(new InputStreamReader(
+                    socket.getInputStream(), StandardCharsets.UTF_8));
+                 Writer out = new BufferedWriter(new OutputStreamWriter(
+                    socket.getOutputStream(), StandardCharsets.UTF_8))) {
+                socket.setTcpNoDelay(true);
+                StringBuilder request = new StringBuilder();
+                while (this.running) {
+                    request.setLength(0);
+                    int n = 0;
+                    while (n < this.batchSize) {
+                        if (!this.stream.hasMoreInstances()) {
+                            this.stream.restart();
+                        }
+                        request.append(formatInstance((Instance) this.stream.nextInstance().getData()));
+                        request.append('\n');
+                        n++;
+                    }
+                    long start = System.nanoTime();
+                    out.write("PREDICT " + n + "\n");
+                    out.write(request.toString());
+                    out.flush();
+                    for (int i = 0; i < n; i++) {
+                        String response = in.readLine();
+                        if (response == null) {
+                            return;
+                        }
+                        if (response.startsWith("ERROR")) {
+                            throw new IOException("Server replied: " + response);
+                        }
+                    }
+                    long latency = System.nanoTime() - start;
+                    if (this.numRequests == this.latencies.length) {
+                        this.latencies = Arrays.copyOf(this.latencies, this.latencies.length * 2);
+                    }
+                    this.latencies[(int) this.numRequests] = latency;
+                    this.numRequests++;
+                    this.numPredictions += n;
+                }
+                out.write("QUIT\n");
+                out.flush();
+            } catch (SocketException ex) {
+                // server shut down
+            } catch (IOException ex) {
+                if (this.running) {
+                    this.failure = ex;
+                }
+            }
+        }
+    }
+
+    @Override
+    public ImmutableCapabilities defineImmutableCapabilities() {
+        return new ImmutableCapabilities(Capability.VIEW_STANDARD);
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ *    CramerTest.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.classifiers.core.statisticaltests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.yahoo.labs.samoa.instances.Instance;
+
+import Jama.Matrix;
+import moa.streams.generators.RandomRBFGenerator;
+
+/**
+ * Compares the eigenvalue solver of the Cramer test with Jama, and the test
+ * on windows with the test on lists of the same instances, for the
+ * eigenvalue and the permutation approaches.
+ */
+public class CramerTest {
+
+    /**
+     * Returns the instances of a random RBF stream, their attributes shifted
+     * by the given offset.
+     */
+    protected static List<Instance> sample(int seed, int numAttributes, int size, double shift) {
+        RandomRBFGenerator stream = new RandomRBFGenerator();
+        stream.instanceRandomSeedOption.setValue(seed);
+        stream.numAttsOption.setValue(numAttributes);
+        stream.prepareForUse();
+        List<Instance> instances = new ArrayList<Instance>();
+        for (int i = 0; i < size; i++) {
+            Instance inst = stream.nextInstance().getData();
+            for (int j = 0; j < numAttributes; j++) {
+                inst.setValue(j, inst.value(j) + shift);
+            }
+            instances.add(inst);
+        }
+        return instances;
+    }
+
+    protected static SampleWindow window(List<Instance> instances, boolean cacheDistances) {
+        SampleWindow window = new SampleWindow(instances.size(), cacheDistances);
+        for (Instance inst : instances) {
+            window.add(inst);
+        }
+        return window;
+    }
+
+    protected static Cramer newCramer(String options) {
+        Cramer cramer = new Cramer();
+        cramer.getOptions().setViaCLIString(options);
+        cramer.prepareForUse();
+        return cramer;
+    }
+
+    protected static void assertSameTest(String message, Cramer.CramerTest expected, Cramer.CramerTest actual) {
+        assertEquals(message + ": m", expected.m, actual.m);
+        assertEquals(message + ": n", expected.n, actual.n);
+        assertEquals(message + ": statistic", expected.statistic, actual.statistic, 1e-12 * Math.abs(expected.statistic));
+        assertEquals(message + ": p-value", expected.pValue, actual.pValue, 1e-9);
+        assertEquals(message + ": critical value", expected.critValue, actual.critValue, 1e-9 * Math.abs(expected.critValue));
+        assertEquals(message + ": result", expected.result, actual.result, 0.0);
+    }
+
+    /**
+     * Computes the eigenvalues with symmetricEigenvalues and with Jama and
+     * compares them in ascending order.
+     */
+    protected static void assertSameEigenvalues(String message, double[][] matrix) throws Exception {
+        int n = matrix.length;
+        double[][] lower = new double[n][];
+        double norm = 1;
+        for (int i = 0; i < n; i++) {
+            lower[i] = Arrays.copyOf(matrix[i], i + 1);
+            for (int j = 0; j < n; j++) {
+                assertEquals(message + ": not symmetric", matrix[i][j], matrix[j][i], 0.0);
+                norm = Math.max(norm, Math.abs(matrix[i][j]));
+            }
+        }
+        double[] expected = new Matrix(matrix).eig().getRealEigenvalues();
+        double[] actual = Cramer.symmetricEigenvalues(lower);
+        Arrays.sort(expected);
+        Arrays.sort(actual);
+        assertEquals(message, n, actual.length);
+        for (int i = 0; i < n; i++) {
+            assertEquals(message + ": eigenvalue " + i, expected[i], actual[i], 1e-10 * n * norm);
+        }
+    }
+
+    /**
+     * Returns H D H for the Householder reflection H = I - 2 v v' / v'v, a
+     * full symmetric matrix with the given eigenvalues.
+     */
+    protected static double[][] reflected(double[] eigenvalues, Random random) {
+        int n = eigenvalues.length;
+        double[] v = new double[n];
+        double vv = 0;
+        for (int i = 0; i < n; i++) {
+            v[i] = random.nextGaussian();
+            vv += v[i] * v[i];
+        }
+        double[][] h = new double[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                h[i][j] = (i == j ? 1 : 0) - 2 * v[i] * v[j] / vv;
+            }
+        }
+        double[][] result = new double[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j <= i; j++) {
+                double sum = 0;
+                for (int k = 0; k < n; k++) {
+                    sum += h[i][k] * eigenvalues[k] * h[j][k];
+                }
+                result[i][j] = sum;
+                result[j][i] = sum;
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void testEigenvaluesSameAsJama() throws Exception {
+        Random random = new Random(1);
+        int[] sizes = {1, 2, 3, 5, 10, 31, 64};
+        for (int n : sizes) {
+            for (int run = 0; run < 5; run++) {
+                double[][] matrix = new double[n][n];
+                for (int i = 0; i < n; i++) {
+                    for (int j = 0; j <= i; j++) {
+                        matrix[i][j] = random.nextGaussian() * Math.pow(10, run - 2);
+                        matrix[j][i] = matrix[i][j];
+                    }
+                }
+                assertSameEigenvalues("random " + n + ", run " + run, matrix);
+            }
+
+            // degenerate matrices: zero, multiples of the identity, rank one
+            // and a double-centred matrix with a zero eigenvalue
+            assertSameEigenvalues("zero " + n, new double[n][n]);
+            double[][] identity = new double[n][n];
+            double[][] rankOne = new double[n][n];
+            double[][] centred = new double[n][n];
+            double[] v = new double[n];
+            for (int i = 0; i < n; i++) {
+                identity[i][i] = 3;
+                v[i] = random.nextDouble() - 0.5;
+            }
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j < n; j++) {
+                    rankOne[i][j] = v[i] * v[j];
+                    centred[i][j] = (i == j ? 1 : 0) - 1.0 / n;
+                }
+            }
+            assertSameEigenvalues("identity " + n, identity);
+            assertSameEigenvalues("rank one " + n, rankOne);
+            assertSameEigenvalues("centred " + n, centred);
+
+            // repeated eigenvalues in a full matrix
+            double[] repeated = new double[n];
+            for (int i = 0; i < n; i++) {
+                repeated[i] = new double[]{2, -1, 0, 2, 5}[i % 5];
+            }
+            double[][] matrix = reflected(repeated, random);
+            assertSameEigenvalues("repeated " + n, matrix);
+            double[] actual = Cramer.symmetricEigenvalues(matrix);
+            Arrays.sort(actual);
+            Arrays.sort(repeated);
+            for (int i = 0; i < n; i++) {
+                assertEquals("repeated " + n + ": eigenvalue " + i, repeated[i], actual[i], 1e-10 * n);
+            }
+        }
+    }
+
+    @Test
+    public void testWindowsSameAsLists() throws Exception {
+        String[] options = {"", "-f 1", "-f 4", "-s permutation -r 300 -z 3", "-s permutation -r 300 -p"};
+        List<Instance> x = sample(1, 3, 60, 0);
+        List<Instance>[] others = new List[]{sample(2, 3, 45, 0), sample(3, 3, 45, 0.5)};
+        for (String option : options) {
+            for (List<Instance> y : others) {
+                Cramer cramer = newCramer(option);
+                Cramer.CramerTest expected = cramer.cramerTest(x, y);
+                for (boolean cacheDistances : new boolean[]{true, false}) {
+                    String message = "\"" + option + "\", cache " + cacheDistances;
+                    SampleWindow windowX = window(x, cacheDistances);
+                    SampleWindow windowY = window(y, !cacheDistances);
+                    assertSameTest(message, expected, cramer.cramerTest(windowX, windowY));
+
+                    // test() and call() return the p-value
+                    assertEquals(message, expected.pValue, cramer.test(x, y), 1e-9);
+                    cramer.set(windowX, windowY);
+                    assertEquals(message, expected.pValue, cramer.call(), 1e-9);
+                    cramer.set(x, y);
+                    assertEquals(message, expected.pValue, cramer.call(), 1e-9);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPermutationReproducible() throws Exception {
+        List<Instance> x = sample(1, 2, 50, 0);
+        List<Instance> same = sample(2, 2, 50, 0);
+        List<Instance> shifted = sample(3, 2, 50, 1);
+        for (List<Instance> y : new List[]{same, shifted}) {
+            Cramer.CramerTest expected = newCramer("-s permutation -r 500 -z 7").cramerTest(x, y);
+            Cramer.CramerTest again = newCramer("-s permutation -r 500 -z 7").cramerTest(x, y);
+            Cramer.CramerTest parallel = newCramer("-s permutation -r 500 -z 7 -p").cramerTest(x, y);
+            assertSameTest("same seed", expected, again);
+            assertSameTest("parallel", expected, parallel);
+            assertArrayEquals("parallel replicates", expected.hypdistX, parallel.hypdistX, 0.0);
+            assertTrue(expected.pValue >= 0 && expected.pValue < 1);
+
+            Cramer.CramerTest otherSeed = newCramer("-s permutation -r 500 -z 8").cramerTest(x, y);
+            assertEquals(expected.statistic, otherSeed.statistic, 0.0);
+            assertFalse(Arrays.equals(expected.hypdistX, otherSeed.hypdistX));
+        }
+        Cramer.CramerTest sameTest = newCramer("-s permutation -r 500").cramerTest(x, same);
+        Cramer.CramerTest shiftedTest = newCramer("-s permutation -r 500").cramerTest(x, shifted);
+        assertTrue("same: " + sameTest.pValue, sameTest.pValue > 0.01);
+        assertTrue("shifted: " + shiftedTest.pValue, shiftedTest.pValue < 0.01);
+        assertEquals(1.0, shiftedTest.result, 0.0);
+    }
+}
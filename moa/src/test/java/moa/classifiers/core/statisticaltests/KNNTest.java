@@ -0,0 +1,96 @@
+/*
+ *    KNNTest.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.classifiers.core.statisticaltests;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.yahoo.labs.samoa.instances.Instance;
+
+/**
+ * Compares the KNN test on windows, with and without the distance cache,
+ * with the test on lists of the same instances, including samples with
+ * many equal distances.
+ */
+public class KNNTest {
+
+    protected static KNN newKNN(int k) {
+        KNN knn = new KNN();
+        knn.kValueOption.setValue(k);
+        knn.prepareForUse();
+        return knn;
+    }
+
+    /**
+     * Rounds the attributes to a few values, so that many neighbours are at
+     * the same distance.
+     */
+    protected static List<Instance> rounded(List<Instance> instances) {
+        for (Instance inst : instances) {
+            for (int j = 0; j < inst.numAttributes() - 1; j++) {
+                inst.setValue(j, Math.round(inst.value(j) * 2) / 2.0);
+            }
+        }
+        return instances;
+    }
+
+    @Test
+    public void testWindowsSameAsLists() throws Exception {
+        List<Instance>[][] pairs = new List[][]{
+            {CramerTest.sample(1, 3, 80, 0), CramerTest.sample(2, 3, 60, 0)},
+            {CramerTest.sample(3, 2, 50, 0), CramerTest.sample(4, 2, 50, 0.7)},
+            {rounded(CramerTest.sample(5, 2, 70, 0)), rounded(CramerTest.sample(6, 2, 40, 0))},
+            {rounded(CramerTest.sample(7, 1, 30, 0)), rounded(CramerTest.sample(8, 1, 30, 0.5))}
+        };
+        int[] ks = {1, 5, 12};
+        for (int p = 0; p < pairs.length; p++) {
+            List<Instance> x = pairs[p][0];
+            List<Instance> y = pairs[p][1];
+            for (int k : ks) {
+                KNN knn = newKNN(k);
+                double[] expected = knn.mtsknn(x, y);
+                assertEquals(3, expected.length);
+                for (boolean cacheDistances : new boolean[]{true, false}) {
+                    String message = "pair " + p + ", k " + k + ", cache " + cacheDistances;
+                    SampleWindow windowX = CramerTest.window(x, cacheDistances);
+                    SampleWindow windowY = CramerTest.window(y, !cacheDistances);
+                    assertArrayEquals(message, expected, knn.mtsknn(windowX, windowY), 1e-12);
+
+                    // test() and call() return the p-value
+                    assertEquals(message, expected[2], knn.test(x, y), 0.0);
+                    knn.set(windowX, windowY);
+                    assertEquals(message, expected[2], knn.call(), 1e-12);
+                    knn.set(x, y);
+                    assertEquals(message, expected[2], knn.call(), 0.0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDetectsShift() throws Exception {
+        KNN knn = newKNN(5);
+        double same = knn.test(CramerTest.sample(1, 2, 100, 0), CramerTest.sample(2, 2, 100, 0));
+        double shifted = knn.test(CramerTest.sample(1, 2, 100, 0), CramerTest.sample(3, 2, 100, 1));
+        assertTrue("same: " + same, same > 0.01);
+        assertTrue("shifted: " + shifted, shifted < 0.01);
+    }
+}
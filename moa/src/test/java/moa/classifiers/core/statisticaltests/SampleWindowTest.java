@@ -0,0 +1,159 @@
+/*
+ *    SampleWindowTest.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.classifiers.core.statisticaltests;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.yahoo.labs.samoa.instances.Instance;
+
+import moa.streams.generators.RandomRBFGenerator;
+
+/**
+ * Adds instances to windows with and without a distance cache, reading the
+ * distances at random points in between, and compares them with distances
+ * computed from the instances kept in a list.
+ */
+public class SampleWindowTest {
+
+    private static double distance(Instance a, Instance b) {
+        double sum = 0;
+        for (int k = 0; k < a.numAttributes() - 1; k++) {
+            double diff = a.value(k) - b.value(k);
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    private static SampleWindow serializeAndDeserialize(SampleWindow window) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(window);
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        return (SampleWindow) in.readObject();
+    }
+
+    private static void assertSameDistances(String message, List<Instance> expected, SampleWindow window) {
+        assertEquals(message + ": size", expected.size(), window.size());
+        assertEquals(message + ": instances", expected, window.getInstances());
+        for (int i = 0; i < expected.size(); i++) {
+            assertSame(message + ": instance " + i, expected.get(i), window.get(i));
+            for (int j = 0; j < expected.size(); j++) {
+                assertEquals(message + ": distance " + i + ", " + j,
+                        distance(expected.get(i), expected.get(j)), window.getDistance(i, j), 0.0);
+            }
+        }
+    }
+
+    private static void assertSamePairwiseDistances(String message, List<Instance> x, List<Instance> y,
+            SampleWindow windowX, SampleWindow windowY) throws Exception {
+        List<Instance> all = new ArrayList<Instance>(x);
+        all.addAll(y);
+        int n = all.size();
+        double[] matrix = SampleWindow.pairwiseDistances(windowX, windowY);
+        assertEquals(message, n * n, matrix.length);
+        double[] from = new double[n + 3];
+        for (int i = 0; i < n; i++) {
+            SampleWindow.distancesFrom(windowX, windowY, i, from);
+            for (int j = 0; j < n; j++) {
+                double expected = distance(all.get(i), all.get(j));
+                assertEquals(message + ": matrix " + i + ", " + j, expected, matrix[i * n + j], 0.0);
+                assertEquals(message + ": from " + i + ", " + j, expected, from[j], 0.0);
+            }
+        }
+    }
+
+    private void runRandomAdditions(long seed, int capacity, boolean cacheDistances) throws Exception {
+        Random random = new Random(seed);
+        RandomRBFGenerator stream = new RandomRBFGenerator();
+        stream.instanceRandomSeedOption.setValue((int) seed);
+        stream.numAttsOption.setValue(1 + random.nextInt(5));
+        stream.prepareForUse();
+
+        SampleWindow window = new SampleWindow(capacity, cacheDistances);
+        SampleWindow other = new SampleWindow(1 + random.nextInt(capacity), !cacheDistances);
+        List<Instance> expected = new ArrayList<Instance>();
+        List<Instance> expectedOther = new ArrayList<Instance>();
+        assertEquals(cacheDistances, window.isCachingDistances());
+        assertEquals(capacity, window.getCapacity());
+        for (int step = 0; step < 6 * capacity; step++) {
+            String message = "seed " + seed + ", capacity " + capacity + ", cache " + cacheDistances
+                    + ", step " + step;
+            // several instances may be added between two reads
+            int additions = random.nextInt(random.nextBoolean() ? 3 : capacity + 2);
+            for (int i = 0; i < additions; i++) {
+                Instance inst = stream.nextInstance().getData();
+                window.add(inst);
+                expected.add(inst);
+                if (expected.size() > capacity) {
+                    expected.remove(0);
+                }
+                if (random.nextBoolean()) {
+                    other.add(inst);
+                    expectedOther.add(inst);
+                    if (expectedOther.size() > other.getCapacity()) {
+                        expectedOther.remove(0);
+                    }
+                }
+            }
+            int read = random.nextInt(10);
+            if (read < 4) {
+                assertSameDistances(message, expected, window);
+            } else if (read < 7) {
+                assertSamePairwiseDistances(message, expected, expectedOther, window, other);
+                assertSamePairwiseDistances(message + ", swapped", expectedOther, expected, other, window);
+            } else if (read < 8) {
+                window = serializeAndDeserialize(window);
+                List<Instance> restored = window.getInstances();
+                for (int i = 0; i < expected.size(); i++) {
+                    assertArrayEquals(message + ", deserialized " + i, expected.get(i).toDoubleArray(),
+                            restored.get(i).toDoubleArray(), 0.0);
+                }
+                expected = restored;
+                assertSameDistances(message + ", deserialized", expected, window);
+            }
+        }
+        assertSameDistances("seed " + seed + ", end", expected, window);
+    }
+
+    @Test
+    public void testCachedDistances() throws Exception {
+        int[] capacities = {1, 2, 5, 16, 17, 40, 100};
+        for (int i = 0; i < capacities.length; i++) {
+            runRandomAdditions(i, capacities[i], true);
+        }
+    }
+
+    @Test
+    public void testUncachedDistances() throws Exception {
+        int[] capacities = {1, 3, 20, 50};
+        for (int i = 0; i < capacities.length; i++) {
+            runRandomAdditions(10 + i, capacities[i], false);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ *    WindowedNNSearchTest.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.classifiers.lazy.neighboursearch;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import com.yahoo.labs.samoa.instances.Attribute;
+import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+
+/**
+ * Slides a window over random instances with numeric and nominal attributes,
+ * missing values and many equal distances, and compares the neighbours found
+ * by WindowedNNSearch after every insertion and eviction with the ones of a
+ * LinearNNSearch built over the current window.
+ */
+public class WindowedNNSearchTest {
+
+    protected static Instances header() {
+        List<Attribute> attributes = new ArrayList<Attribute>();
+        attributes.add(new Attribute("a0"));
+        attributes.add(new Attribute("n0", Arrays.asList("x", "y", "z")));
+        attributes.add(new Attribute("a1"));
+        attributes.add(new Attribute("a2"));
+        attributes.add(new Attribute("class", Arrays.asList("0", "1")));
+        Instances header = new Instances("window", attributes, 0);
+        header.setClassIndex(attributes.size() - 1);
+        return header;
+    }
+
+    /**
+     * Returns an instance whose numeric values take the given number of
+     * levels, or any value if 0, with an occasional outlier that widens the
+     * ranges, and whose values are sometimes missing. With few levels many
+     * distances are equal; with many levels most evictions leave the ranges
+     * unchanged.
+     */
+    protected static Instance randomInstance(Instances header, Random random, int levels) {
+        double[] values = new double[header.numAttributes()];
+        for (int j = 0; j < values.length; j++) {
+            if (j == header.classIndex()) {
+                values[j] = random.nextInt(2);
+            } else if (random.nextInt(10) == 0) {
+                values[j] = Double.NaN;
+            } else if (header.attribute(j).isNominal()) {
+                values[j] = random.nextInt(3);
+            } else if (random.nextInt(50) == 0) {
+                values[j] = 20 * random.nextGaussian();
+            } else if (levels == 0) {
+                values[j] = random.nextDouble();
+            } else {
+                values[j] = random.nextInt(levels) / 2.0;
+            }
+        }
+        Instance inst = new DenseInstance(1, values);
+        inst.setDataset(header);
+        return inst;
+    }
+
+    protected static void assertSameNeighbours(String message, Instances window, WindowedNNSearch search,
+            Instance target, int k) throws Exception {
+        LinearNNSearch linear = new LinearNNSearch(window);
+        Instances expected = linear.kNearestNeighbours(target, k);
+        double[] expectedDistances = linear.getDistances();
+        List<Instance> actual = search.kNearestNeighbourList(target, k);
+        double[] actualDistances = search.getDistances();
+        assertEquals(message + ": neighbours", expected.numInstances(), actual.size());
+        assertEquals(message + ": distances", expected.numInstances(), actualDistances.length);
+        for (int i = 0; i < actual.size(); i++) {
+            assertArrayEquals(message + ": neighbour " + i, expected.instance(i).toDoubleArray(),
+                    actual.get(i).toDoubleArray(), 0.0);
+            assertEquals(message + ": distance " + i, expectedDistances[i], actualDistances[i], 1e-12);
+        }
+    }
+
+    protected void runSlidingWindow(long seed, int capacity, int levels, boolean synchronize,
+            ExecutorService executor) throws Exception {
+        Random random = new Random(seed);
+        Instances header = header();
+        Instances window = new Instances(header, capacity);
+        for (int i = 0; i < capacity / 2; i++) {
+            window.add(randomInstance(header, random, levels));
+        }
+        WindowedNNSearch search = new WindowedNNSearch(window);
+        search.setCacheLimit(1 + random.nextInt(2 * capacity));
+        int maxK = 1 + random.nextInt(4);
+        for (int step = 0; step < 20 * capacity; step++) {
+            String message = "seed " + seed + ", step " + step;
+            int additions = 1 + (synchronize ? random.nextInt(3) : 0);
+            for (int a = 0; a < additions; a++) {
+                window.add(randomInstance(header, random, levels));
+                if (!synchronize) {
+                    search.update(window.instance(window.numInstances() - 1));
+                }
+                while (window.numInstances() > capacity) {
+                    window.delete(0);
+                    if (!synchronize) {
+                        search.removeOldest();
+                    }
+                }
+            }
+            if (synchronize) {
+                search.synchronize();
+            }
+            assertEquals(message, window.numInstances(), search.size());
+            for (int i = 0; i < window.numInstances(); i++) {
+                assertSame(message, window.instance(i), search.instance(i));
+            }
+            if (window.numInstances() < 2) {
+                continue;
+            }
+            int k = Math.min(maxK, window.numInstances() - 1);
+            if (executor != null && random.nextInt(4) == 0) {
+                search.searchAll(k, executor);
+            }
+            // the most recent instances are searched again and again, so that
+            // cached neighbours are returned after insertions and evictions
+            for (int q = 0; q < 3; q++) {
+                int position = window.numInstances() - 1 - random.nextInt(Math.min(4, window.numInstances()));
+                assertSameNeighbours(message + ", target " + position, window, search,
+                        window.instance(position), k);
+            }
+            assertSameNeighbours(message + ", outside", window, search, randomInstance(header, random, levels), k);
+        }
+    }
+
+    @Test
+    public void testSameAsLinearSearch() throws Exception {
+        int[] capacities = {2, 3, 10, 13, 40};
+        int[] levels = {3, 4, 40, 0};
+        for (int i = 0; i < capacities.length; i++) {
+            for (int j = 0; j < levels.length; j++) {
+                runSlidingWindow(10 * i + j, capacities[i], levels[j], false, null);
+            }
+        }
+    }
+
+    @Test
+    public void testSynchronize() throws Exception {
+        int[] capacities = {2, 7, 30};
+        int[] levels = {4, 40, 0};
+        for (int i = 0; i < capacities.length; i++) {
+            runSlidingWindow(100 + i, capacities[i], levels[i], true, null);
+        }
+    }
+
+    @Test
+    public void testSearchAll() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            runSlidingWindow(200, 25, 4, false, executor);
+            runSlidingWindow(201, 60, 40, true, executor);
+            runSlidingWindow(202, 15, 0, false, null);
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
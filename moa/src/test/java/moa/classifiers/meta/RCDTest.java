@@ -0,0 +1,166 @@
+/*
+ *    RCDTest.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.classifiers.meta;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.yahoo.labs.samoa.instances.Instance;
+
+import moa.core.Measurement;
+import moa.streams.generators.SEAGenerator;
+
+/**
+ * Runs RCD on a stream of recurring concepts with one test thread and with
+ * several. The tests run on a reused pool and surplus tests are cancelled
+ * once enough classifiers are identified, which must not change any
+ * decision: the votes for every instance and the drifts detected have to be
+ * the same whatever the number of threads, and with or without the distance
+ * cache.
+ */
+public class RCDTest {
+
+    private static final int CONCEPT_LENGTH = 1500;
+
+    private static final int NUM_INSTANCES = 8 * CONCEPT_LENGTH;
+
+    /**
+     * Alternates between two concepts, every concept recurring: the second
+     * one has the attributes halved and the classes swapped, so both the
+     * distribution and the decision boundary change.
+     */
+    private static List<Instance> recurringConcepts() {
+        SEAGenerator stream = new SEAGenerator();
+        stream.noisePercentageOption.setValue(5);
+        stream.prepareForUse();
+        List<Instance> instances = new ArrayList<Instance>();
+        for (int i = 0; i < NUM_INSTANCES; i++) {
+            Instance inst = stream.nextInstance().getData();
+            if ((i / CONCEPT_LENGTH) % 2 == 1) {
+                for (int j = 0; j < inst.numAttributes() - 1; j++) {
+                    inst.setValue(j, inst.value(j) / 2);
+                }
+                inst.setClassValue(1 - inst.classValue());
+            }
+            instances.add(inst);
+        }
+        return instances;
+    }
+
+    private static RCD newRCD(String options) {
+        RCD rcd = new RCD();
+        rcd.getOptions().setViaCLIString("-l bayes.NaiveBayes -b 100 -t 100 -s 0.05 " + options);
+        rcd.prepareForUse();
+        rcd.setModelContext(new SEAGenerator().getHeader());
+        return rcd;
+    }
+
+    /**
+     * Runs RCD test-then-train on a range of instances and adds its votes for
+     * each of them to the result.
+     */
+    private static void feed(RCD rcd, List<Instance> instances, int from, int to, List<String> result) {
+        for (int i = from; i < to; i++) {
+            double[] votes = rcd.getVotesForInstance(instances.get(i));
+            StringBuilder sb = new StringBuilder();
+            for (double vote : votes) {
+                sb.append(vote).append(' ');
+            }
+            result.add(sb.toString());
+            rcd.trainOnInstance(instances.get(i));
+        }
+    }
+
+    private static void addMeasurements(RCD rcd, List<String> result) {
+        for (Measurement measurement : rcd.getModelMeasurements()) {
+            result.add(measurement.getName() + " = " + measurement.getValue());
+        }
+    }
+
+    /**
+     * Runs RCD on all the instances and returns its votes for every instance
+     * followed by its model measurements.
+     */
+    private static List<String> run(List<Instance> instances, String options) {
+        RCD rcd = newRCD(options);
+        List<String> result = new ArrayList<String>();
+        feed(rcd, instances, 0, instances.size(), result);
+        addMeasurements(rcd, result);
+        return result;
+    }
+
+    private static double measurement(List<String> result, String name) {
+        for (String line : result) {
+            if (line.startsWith(name + " = ")) {
+                return Double.parseDouble(line.substring(name.length() + 3));
+            }
+        }
+        fail("no measurement " + name);
+        return Double.NaN;
+    }
+
+    private static void assertSameRun(String message, List<String> expected, List<String> actual) {
+        assertEquals(message, expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(message + ", line " + i, expected.get(i), actual.get(i));
+        }
+    }
+
+    @Test
+    public void testSameDecisionsForAnyNumberOfThreads() {
+        List<Instance> instances = recurringConcepts();
+        String[] quantities = {"-q 1", "-q 3"};
+        for (String quantity : quantities) {
+            List<String> expected = run(instances, quantity + " -m 1");
+            assertTrue(quantity + ": drifts", measurement(expected, "Change detected") > 0);
+            assertSameRun(quantity + " -m 4", expected, run(instances, quantity + " -m 4"));
+            assertSameRun(quantity + " -m 16", expected, run(instances, quantity + " -m 16"));
+            assertSameRun(quantity + " -m 4 -x 0", expected, run(instances, quantity + " -m 4 -x 0"));
+            assertSameRun(quantity + " -m 1 -x 50", expected, run(instances, quantity + " -m 1 -x 50"));
+        }
+    }
+
+    @Test
+    public void testCopyAndReset() {
+        List<Instance> instances = recurringConcepts();
+        List<String> expected = run(instances, "-m 3");
+
+        // a copy gets its own pool and caches, and continues where the
+        // original was; resetting starts over
+        RCD rcd = newRCD("-m 3");
+        List<String> firstHalf = new ArrayList<String>();
+        feed(rcd, instances, 0, NUM_INSTANCES / 2, firstHalf);
+        RCD copy = (RCD) rcd.copy();
+        // the drift counters are cleared when read, not when reset
+        rcd.getModelMeasurements();
+        rcd.resetLearning();
+        List<String> restarted = new ArrayList<String>();
+        feed(rcd, instances, 0, NUM_INSTANCES, restarted);
+        addMeasurements(rcd, restarted);
+        List<String> continued = new ArrayList<String>(firstHalf);
+        feed(copy, instances, NUM_INSTANCES / 2, NUM_INSTANCES, continued);
+        addMeasurements(copy, continued);
+
+        assertSameRun("reset", expected, restarted);
+        assertSameRun("copy", expected, continued);
+    }
+}
@@ -20,10 +20,17 @@
  */
 package moa.classifiers.meta.imbalanced;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.yahoo.labs.samoa.instances.Instance;
+
 import junit.framework.Test;
 import junit.framework.TestSuite;
 import moa.classifiers.AbstractMultipleClassifierTestCase;
 import moa.classifiers.Classifier;
+import moa.streams.ImbalancedStream;
 
 /**
  * Tests the RebalanceStream classifier.
@@ -63,6 +70,57 @@ public class RebalanceStreamTest
     };
   }
   
+  /**
+   * Returns an imbalanced stream whose concept changes twice, so that the
+   * three models are trained on the batches after the drifts.
+   *
+   * @return		the stream
+   */
+  protected static ImbalancedStream driftingStream() {
+    ImbalancedStream stream = new ImbalancedStream();
+    stream.getOptions().setViaCLIString("-s (ConceptDriftStream -s (generators.SEAGenerator -f 1)"
+        + " -d (ConceptDriftStream -s (generators.SEAGenerator -f 4) -d (generators.SEAGenerator -f 2)"
+        + " -p 3000 -w 1) -p 3000 -w 1) -c 0.85;0.15");
+    stream.prepareForUse();
+    return stream;
+  }
+
+  /**
+   * Runs RebalanceStream test-then-train on the drifting stream.
+   *
+   * @param numberOfJobs	the number of threads training the models
+   * @param minInstanceLimitBatch	the minimum batch size for training them
+   * @return		the votes for every instance
+   */
+  protected static List<String> run(int numberOfJobs, int minInstanceLimitBatch) {
+    RebalanceStream learner = new RebalanceStream();
+    learner.baseLearnerOption.setValueViaCLIString("bayes.NaiveBayes");
+    learner.numberOfJobsOption.setValue(numberOfJobs);
+    learner.minInstanceLimitBatchOption.setValue(minInstanceLimitBatch);
+    learner.prepareForUse();
+    ImbalancedStream stream = driftingStream();
+    learner.setModelContext(stream.getHeader());
+    List<String> votes = new ArrayList<String>();
+    for (int i = 0; i < 9000; i++) {
+      Instance inst = stream.nextInstance().getData();
+      votes.add(Arrays.toString(learner.getVotesForInstance(inst)));
+      learner.trainOnInstance(inst);
+    }
+    return votes;
+  }
+
+  /**
+   * Trains the three models after each drift on one thread and on several,
+   * which must give the same votes.
+   */
+  public void testSameForAnyNumberOfJobs() {
+    List<String> expected = run(1, -1);
+    assertEquals(expected, run(3, -1));
+    assertEquals(expected, run(2, -1));
+    // the models trained after the drifts do change the votes
+    assertFalse(expected.equals(run(1, 100001)));
+  }
+
   /**
    * Returns a test suite.
    *
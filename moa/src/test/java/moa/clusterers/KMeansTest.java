@@ -0,0 +1,357 @@
+/*
+ *    KMeansTest.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package moa.clusterers;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import moa.cluster.Cluster;
+import moa.cluster.Clustering;
+import moa.cluster.SphereCluster;
+
+/**
+ * Compares the bounded Lloyd iterations of {@link KMeans} with plain loops
+ * that compare every point with every center in every iteration, as
+ * KMeans.kMeans and CoresetKMeans did before they shared the engine. The
+ * results have to be identical, not only close.
+ */
+public class KMeansTest {
+
+    /**
+     * Draws points around a few blobs, or on a coarse lattice so that points
+     * repeat and lie at equal distances from several centers.
+     */
+    private static double[][] randomPoints(Random random, int n, int d, boolean lattice) {
+        double[][] blobs = new double[1 + random.nextInt(6)][d];
+        for (double[] blob : blobs) {
+            for (int j = 0; j < d; j++) {
+                blob[j] = random.nextDouble() * 20;
+            }
+        }
+        double[][] points = new double[n][d];
+        for (int i = 0; i < n; i++) {
+            double[] blob = blobs[random.nextInt(blobs.length)];
+            for (int j = 0; j < d; j++) {
+                points[i][j] = lattice ? random.nextInt(6) : blob[j] + random.nextGaussian();
+            }
+        }
+        return points;
+    }
+
+    /**
+     * Initial centers drawn from the points, with a far away center now and
+     * then that never gets any point.
+     */
+    private static double[][] initialCenters(Random random, double[][] points, int k) {
+        double[][] centers = new double[k][];
+        for (int c = 0; c < k; c++) {
+            centers[c] = points[random.nextInt(points.length)].clone();
+        }
+        if (k > 1 && random.nextInt(3) == 0) {
+            for (int j = 0; j < centers[k - 1].length; j++) {
+                centers[k - 1][j] = 1e6;
+            }
+        }
+        return centers;
+    }
+
+    private static double distance(double[] a, double[] b) {
+        double distance = 0.0;
+        for (int i = 0; i < a.length; i++) {
+            double diff = a[i] - b[i];
+            distance += diff * diff;
+        }
+        return Math.sqrt(distance);
+    }
+
+    /**
+     * The squared distance of a center to a point whose first value is the
+     * weight, like Metric.distanceSquared with offset 1.
+     */
+    private static double distanceSquared(double[] center, double[] point) {
+        double distance = 0.0;
+        for (int i = 0; i < center.length; i++) {
+            double diff = center[i] - point[i + 1];
+            distance += diff * diff;
+        }
+        return distance;
+    }
+
+    /**
+     * The loop of KMeans.kMeans: a fixed number of iterations, centers without
+     * clusters move to the origin, the radius covers the assigned clusters.
+     * Also returns the number of clusters assigned to each center.
+     */
+    private static SphereCluster[] referenceKMeans(double[][] initial, List<Cluster> data, int iterations,
+            int[] count) {
+        int k = initial.length;
+        int d = initial[0].length;
+        SphereCluster[] centers = new SphereCluster[k];
+        for (int c = 0; c < k; c++) {
+            centers[c] = new SphereCluster(initial[c].clone(), 0.0);
+        }
+        List<List<Cluster>> clustering = new ArrayList<List<Cluster>>();
+        for (int c = 0; c < k; c++) {
+            clustering.add(new ArrayList<Cluster>());
+        }
+        for (int iteration = 0; iteration < iterations; iteration++) {
+            for (Cluster point : data) {
+                double minDistance = distance(point.getCenter(), centers[0].getCenter());
+                int closestCluster = 0;
+                for (int c = 1; c < k; c++) {
+                    double distance = distance(point.getCenter(), centers[c].getCenter());
+                    if (distance < minDistance) {
+                        closestCluster = c;
+                        minDistance = distance;
+                    }
+                }
+                clustering.get(closestCluster).add(point);
+            }
+            for (int c = 0; c < k; c++) {
+                List<Cluster> members = clustering.get(c);
+                double[] res = new double[d];
+                double radius = 0.0;
+                if (!members.isEmpty()) {
+                    for (Cluster point : members) {
+                        for (int j = 0; j < d; j++) {
+                            res[j] += point.getCenter()[j];
+                        }
+                    }
+                    for (int j = 0; j < d; j++) {
+                        res[j] /= members.size();
+                    }
+                    for (Cluster point : members) {
+                        radius = Math.max(radius, distance(res, point.getCenter()));
+                    }
+                }
+                centers[c] = new SphereCluster(res, radius);
+                count[c] = members.size();
+                members.clear();
+            }
+        }
+        return centers;
+    }
+
+    /**
+     * The loop of CoresetKMeans.kMeans on points whose first value is the
+     * weight: iterates until the centers do not change, centers without
+     * weight stay in place. Returns the assignment of the last iteration.
+     */
+    private static int[] referenceWeightedKMeans(double[][] center, List<double[]> input) {
+        int k = center.length;
+        int d = center[0].length;
+        double[][] newCenter = new double[k][d];
+        double[] newCenterWeight = new double[k];
+        int[] nearestCluster = new int[input.size()];
+        boolean converged;
+        do {
+            for (int c = 0; c < k; c++) {
+                newCenter[c] = new double[d];
+                newCenterWeight[c] = 0.0;
+            }
+            for (int l = 0; l < input.size(); l++) {
+                double[] point = input.get(l);
+                double minDistance = Double.POSITIVE_INFINITY;
+                int closestCluster = -1;
+                for (int c = 0; c < k; c++) {
+                    double distance = Math.sqrt(distanceSquared(center[c], point));
+                    if (distance < minDistance) {
+                        closestCluster = c;
+                        minDistance = distance;
+                    }
+                }
+                for (int j = 0; j < d; j++) {
+                    newCenter[closestCluster][j] += point[0] * point[j + 1];
+                }
+                newCenterWeight[closestCluster] += point[0];
+                nearestCluster[l] = closestCluster;
+            }
+            converged = true;
+            for (int c = 0; c < k; c++) {
+                for (int j = 0; j < d; j++) {
+                    if (newCenterWeight[c] != 0.0) {
+                        double newValue = newCenter[c][j] / newCenterWeight[c];
+                        if (newValue != center[c][j]) {
+                            converged = false;
+                        }
+                        center[c][j] = newValue;
+                    }
+                }
+            }
+        } while (!converged);
+        return nearestCluster;
+    }
+
+    /**
+     * The seeding of CoresetKMeans on points whose first value is the weight.
+     */
+    private static double[][] referenceKMeansPlusPlus(int k, List<double[]> input, Random random) {
+        int n = input.size();
+        int d = input.get(0).length - 1;
+        double[][] centers = new double[k][d];
+        System.arraycopy(input.get(random.nextInt(n)), 1, centers[0], 0, d);
+        double[] distance = new double[n];
+        for (int j = 0; j < n; j++) {
+            distance[j] = Double.POSITIVE_INFINITY;
+        }
+        for (int c = 1; c < k; c++) {
+            double sum = 0.0;
+            for (int j = 0; j < n; j++) {
+                double[] point = input.get(j);
+                distance[j] = Math.min(distance[j], point[0] * distanceSquared(centers[c - 1], point));
+                sum += distance[j];
+            }
+            int candidate = 0;
+            if (sum > 0) {
+                double nextCenterValue = sum * random.nextDouble();
+                double currentValue = distance[0];
+                while (!(nextCenterValue < currentValue)) {
+                    currentValue += distance[++candidate];
+                }
+            }
+            System.arraycopy(input.get(candidate), 1, centers[c], 0, d);
+        }
+        return centers;
+    }
+
+    private static double[] flatten(double[][] points) {
+        int d = points[0].length;
+        double[] flat = new double[points.length * d];
+        for (int i = 0; i < points.length; i++) {
+            System.arraycopy(points[i], 0, flat, i * d, d);
+        }
+        return flat;
+    }
+
+    /**
+     * Points with the weight in front, some of them with weight 0.
+     */
+    private static List<double[]> weightedPoints(Random random, double[][] points, double[] weights) {
+        List<double[]> input = new ArrayList<double[]>();
+        for (int i = 0; i < points.length; i++) {
+            weights[i] = random.nextInt(10) == 0 ? 0.0 : 0.5 + random.nextDouble() * 4;
+            double[] point = new double[points[i].length + 1];
+            point[0] = weights[i];
+            System.arraycopy(points[i], 0, point, 1, points[i].length);
+            input.add(point);
+        }
+        return input;
+    }
+
+    private void compareKMeans(long seed, int n, int k, int d, boolean lattice, int maxIterations) {
+        String message = "seed " + seed + ", n " + n + ", k " + k + ", d " + d;
+        Random random = new Random(seed);
+        double[][] points = randomPoints(random, n, d, lattice);
+        double[][] initial = initialCenters(random, points, k);
+        List<Cluster> data = new ArrayList<Cluster>();
+        for (double[] point : points) {
+            data.add(new SphereCluster(point, random.nextDouble()));
+        }
+        Cluster[] centers = new Cluster[k];
+        for (int c = 0; c < k; c++) {
+            centers[c] = new SphereCluster(initial[c].clone(), 1.0);
+        }
+
+        int[] count = new int[k];
+        SphereCluster[] expected = referenceKMeans(initial, data, maxIterations, count);
+        Clustering actual = (maxIterations == 101) ? KMeans.kMeans(centers, data)
+                : KMeans.kMeans(centers, data, maxIterations);
+        assertEquals(message + ": centers", k, actual.size());
+        for (int c = 0; c < k; c++) {
+            SphereCluster cluster = (SphereCluster) actual.get(c);
+            assertArrayEquals(message + ": center " + c, expected[c].getCenter(), cluster.getCenter(), 0.0);
+            assertEquals(message + ": radius " + c, expected[c].getRadius(), cluster.getRadius(), 0.0);
+            if (maxIterations != 101 && count[c] > 0) {
+                assertEquals(message + ": weight " + c, count[c], cluster.getWeight(), 0.0);
+            }
+        }
+    }
+
+    private void compareWeightedLloyd(long seed, int n, int k, int d, boolean lattice) {
+        String message = "seed " + seed + ", n " + n + ", k " + k + ", d " + d;
+        Random random = new Random(seed);
+        double[][] points = randomPoints(random, n, d, lattice);
+        double[][] initial = initialCenters(random, points, k);
+        double[] weights = new double[n];
+        List<double[]> input = weightedPoints(random, points, weights);
+
+        double[][] expected = new double[k][];
+        for (int c = 0; c < k; c++) {
+            expected[c] = initial[c].clone();
+        }
+        int[] expectedAssignment = referenceWeightedKMeans(expected, input);
+
+        double[] centers = flatten(initial);
+        int[] assignment = new int[n];
+        KMeans.lloyd(flatten(points), weights, d, centers, Integer.MAX_VALUE, true, assignment);
+        assertArrayEquals(message + ": centers", flatten(expected), centers, 0.0);
+        assertArrayEquals(message + ": assignment", expectedAssignment, assignment);
+    }
+
+    @Test
+    public void testKMeansMatchesFullLoop() {
+        for (long seed = 0; seed < 30; seed++) {
+            compareKMeans(seed, 20 + (int) seed * 10, 1 + (int) (seed % 7), 1 + (int) (seed % 4), seed % 3 == 0, 101);
+        }
+    }
+
+    @Test
+    public void testKMeansWithFewIterations() {
+        for (long seed = 0; seed < 30; seed++) {
+            compareKMeans(seed, 200, 2 + (int) (seed % 6), 2, seed % 3 == 0, 1 + (int) (seed % 5));
+        }
+    }
+
+    @Test
+    public void testWeightedLloydMatchesFullLoop() {
+        for (long seed = 0; seed < 30; seed++) {
+            compareWeightedLloyd(seed, 20 + (int) seed * 10, 1 + (int) (seed % 7), 1 + (int) (seed % 4), seed % 3 == 0);
+        }
+    }
+
+    @Test
+    public void testParallelPasses() {
+        // enough points, centers and dimensions to assign and sum in parallel
+        compareKMeans(100, 4000, 8, 3, false, 101);
+        compareKMeans(101, 4000, 8, 3, true, 101);
+        compareWeightedLloyd(102, 5000, 10, 2, false);
+        compareWeightedLloyd(103, 5000, 10, 2, true);
+    }
+
+    @Test
+    public void testKMeansPlusPlusMatchesCoresetSeeding() {
+        for (long seed = 0; seed < 20; seed++) {
+            Random random = new Random(seed);
+            int n = seed < 18 ? 10 + random.nextInt(300) : 40000;
+            int d = 1 + random.nextInt(4);
+            int k = 1 + random.nextInt(Math.min(n, 12));
+            double[][] points = randomPoints(random, n, d, seed % 3 == 0);
+            double[] weights = new double[n];
+            List<double[]> input = weightedPoints(random, points, weights);
+
+            double[][] expected = referenceKMeansPlusPlus(k, input, new Random(seed));
+            double[] actual = KMeans.kMeansPlusPlus(k, flatten(points), weights, d, new Random(seed));
+            assertArrayEquals("seed " + seed, flatten(expected), actual, 0.0);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ *    DstreamTest.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package moa.clusterers.dstream;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.yahoo.labs.samoa.instances.Instance;
+
+import moa.cluster.Cluster;
+import moa.cluster.Clustering;
+import moa.streams.clustering.RandomRBFGeneratorEvents;
+
+/**
+ * Checks that D-Stream, which only inspects the density grids that may have changed at
+ * each adjustment, clusters evolving streams exactly as when every grid is inspected at
+ * every adjustment.
+ */
+public class DstreamTest
+{
+	private static Dstream newDstream(boolean inspectEveryGrid, double decayFactor, double cm)
+	{
+		Dstream dstream = new Dstream();
+		dstream.decayFactorOption.setValue(decayFactor);
+		dstream.cmOption.setValue(cm);
+		dstream.prepareForUse();
+		dstream.inspectEveryGrid = inspectEveryGrid;
+		return dstream;
+	}
+
+	/**
+	 * @return the label and the grids of each cluster, with whether they are inside grids
+	 */
+	private static String describe(Clustering clustering)
+	{
+		StringBuilder sb = new StringBuilder();
+		for (Cluster cluster : clustering.getClustering())
+		{
+			GridCluster gc = (GridCluster) cluster;
+			List<String> grids = new ArrayList<String>();
+			for (Map.Entry<DensityGrid, Boolean> grid : gc.getGrids().entrySet())
+				grids.add(grid.getKey().toString() + (grid.getValue() ? " inside" : " outside"));
+			Collections.sort(grids);
+			sb.append(gc.getClusterLabel()).append(": ").append(grids).append('\n');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * D-Stream uses the integer part of each attribute as grid coordinate, so the attributes
+	 * generated in [0,1] are scaled to spread over several grids. Cm is raised so that the
+	 * clustering is adjusted every few records rather than at each one.
+	 */
+	private void compareOnStream(String streamOptions, double scale, double decayFactor, double cm,
+			int numInstances) throws Exception
+	{
+		RandomRBFGeneratorEvents stream = new RandomRBFGeneratorEvents();
+		stream.getOptions().setViaCLIString(streamOptions);
+		stream.prepareForUse();
+		Dstream lazy = newDstream(false, decayFactor, cm);
+		Dstream eager = newDstream(true, decayFactor, cm);
+
+		int maxClusters = 0;
+		for (int i = 0 ; i < numInstances ; i++)
+		{
+			Instance inst = stream.nextInstance().getData().copy();
+			for (int j = 0 ; j < inst.numAttributes() ; j++)
+			{
+				if (j != inst.classIndex() && inst.attribute(j).isNumeric())
+					inst.setValue(j, inst.value(j) * scale);
+			}
+			lazy.trainOnInstance(inst);
+			eager.trainOnInstance(inst);
+			if (i % 50 == 0 || i == numInstances - 1)
+			{
+				Clustering expected = eager.getClusteringResult();
+				assertEquals(streamOptions + ", instance " + i, describe(expected), describe(lazy.getClusteringResult()));
+				maxClusters = Math.max(maxClusters, expected.size());
+			}
+		}
+		assertTrue(streamOptions + ": no clusters found", maxClusters > 0);
+	}
+
+	@Test
+	public void testSameClusteringAsInspectingEveryGrid() throws Exception
+	{
+		compareOnStream("-m 1 -i 1 -a 2 -K 4 -N 0.1 -E 2000 -M -C", 10, 0.999, 10, 15000);
+		compareOnStream("-m 2 -i 2 -a 2 -K 3 -V 200 -N 0.3 -E 1000 -M -C", 20, 0.999, 30, 15000);
+		compareOnStream("-m 3 -i 3 -a 3 -K 5 -N 0.2 -E 3000 -C", 8, 0.998, 20, 15000);
+	}
+}
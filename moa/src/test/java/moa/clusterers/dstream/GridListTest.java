@@ -0,0 +1,139 @@
+/**
+ *    GridListTest.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package moa.clusterers.dstream;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Applies random additions, updates and removals to a GridList and compares it after
+ * each one with a HashMap of the density grids.
+ */
+public class GridListTest
+{
+	private static DensityGrid randomGrid(Random random, int dimensions)
+	{
+		int[] c = new int[dimensions];
+		for (int i = 0 ; i < dimensions ; i++)
+			c[i] = random.nextInt(7) - 3;
+		return new DensityGrid(c);
+	}
+
+	private static CharacteristicVector newVector(int t)
+	{
+		return new CharacteristicVector(t, -1, 1.0, -1, false, 0.1, 1.0);
+	}
+
+	private static void assertSameContent(String message, Map<DensityGrid, CharacteristicVector> expected,
+			Map<DensityGrid, Integer> ids, GridList list, Random random, int dimensions)
+	{
+		assertEquals(message + ": size", expected.size(), list.size());
+
+		int count = 0;
+		for (int id = 0 ; id < list.idLimit() ; id++)
+		{
+			DensityGrid dg = list.grid(id);
+			if (dg == null)
+				continue;
+			count++;
+			assertSame(message + ": vector of " + dg, expected.get(dg), list.vector(id));
+			assertEquals(message + ": id of " + dg, ids.get(dg).intValue(), id);
+		}
+		assertEquals(message + ": entries", expected.size(), count);
+
+		// lookups of grids and neighbours, present or not
+		for (int i = 0 ; i < 20 ; i++)
+		{
+			DensityGrid dg = randomGrid(random, dimensions);
+			Integer id = ids.get(dg);
+			assertEquals(message + ": find " + dg, id == null ? -1 : id.intValue(), list.find(dg));
+			assertEquals(message + ": find " + dg, id == null ? -1 : id.intValue(), list.find(dg.getCoordinates()));
+			assertEquals(message + ": contains " + dg, expected.containsKey(dg), list.containsKey(dg));
+			assertSame(message + ": get " + dg, expected.get(dg), list.get(dg));
+
+			int dimension = random.nextInt(dimensions);
+			int delta = random.nextBoolean() ? 1 : -1;
+			DensityGrid neighbour = new DensityGrid(dg);
+			neighbour.shift(dimension, delta);
+			Integer neighbourId = ids.get(neighbour);
+			assertEquals(message + ": neighbour of " + dg, neighbourId == null ? -1 : neighbourId.intValue(),
+					list.findNeighbour(dg, dimension, delta));
+		}
+	}
+
+	private void runRandomOperations(long seed, int dimensions)
+	{
+		Random random = new Random(seed);
+		GridList list = new GridList(dimensions);
+		Map<DensityGrid, CharacteristicVector> expected = new HashMap<DensityGrid, CharacteristicVector>();
+		Map<DensityGrid, Integer> ids = new HashMap<DensityGrid, Integer>();
+
+		for (int step = 0 ; step < 3000 ; step++)
+		{
+			String message = "seed " + seed + ", step " + step;
+			DensityGrid dg = randomGrid(random, dimensions);
+			CharacteristicVector cv = newVector(step);
+			int operation = random.nextInt(10);
+
+			if (operation < 4)
+			{
+				// put: adds the grid, or replaces its vector under the same id
+				int id = list.put(dg, cv);
+				Integer previous = ids.put(dg, id);
+				if (previous != null)
+					assertEquals(message + ": id after update", previous.intValue(), id);
+				expected.put(dg, cv);
+			}
+			else if (operation < 6)
+			{
+				if (!expected.containsKey(dg))
+				{
+					ids.put(dg, list.add(dg, cv));
+					expected.put(dg, cv);
+				}
+			}
+			else if (operation < 8)
+			{
+				assertEquals(message + ": removal of " + dg, expected.containsKey(dg), list.remove(dg));
+				expected.remove(dg);
+				ids.remove(dg);
+			}
+			else if (!ids.isEmpty())
+			{
+				// removal by id of an arbitrary grid
+				DensityGrid[] grids = ids.keySet().toArray(new DensityGrid[ids.size()]);
+				DensityGrid removed = grids[random.nextInt(grids.length)];
+				list.remove(ids.remove(removed).intValue());
+				expected.remove(removed);
+			}
+
+			assertSameContent(message, expected, ids, list, random, dimensions);
+		}
+	}
+
+	@Test
+	public void testRandomOperations()
+	{
+		for (long seed = 0 ; seed < 10 ; seed++)
+			runRandomOperations(seed, 1 + (int) (seed % 4));
+	}
+}
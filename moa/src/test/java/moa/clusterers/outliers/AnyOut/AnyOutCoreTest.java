@@ -0,0 +1,133 @@
+/*
+ *    AnyOutCoreTest.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.clusterers.outliers.AnyOut;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import moa.clusterers.clustree.util.ArrivalRateBudget;
+import moa.clusterers.clustree.util.TimeBudget;
+
+/**
+ * Checks the budgets of the ArrivalRate refinement mode, and that objects
+ * whose refinement runs out of time stay pending and are finished by later
+ * budgets with the scores a full refinement gives.
+ */
+public class AnyOutCoreTest {
+
+    private static final int NUM_OBJECTS = 8;
+
+    private static double[][] objects(long seed, int count) {
+        Random random = new Random(seed);
+        double[][] objects = new double[count][];
+        for (int i = 0; i < count; i++) {
+            int c = random.nextInt(4);
+            objects[i] = new double[]{c + 0.1 * random.nextGaussian(), c % 2 + 0.1 * random.nextGaussian()};
+        }
+        return objects;
+    }
+
+    private static AnyOutCore trainedCore(String options) {
+        AnyOutCore anyout = new AnyOutCore();
+        anyout.getOptions().setViaCLIString(options);
+        anyout.prepareForUse();
+        anyout.resetLearning();
+        for (double[] features : objects(1, 2000)) {
+            anyout.learnObject(features);
+        }
+        return anyout;
+    }
+
+    private static TimeBudget budget(long nanos) {
+        TimeBudget budget = new TimeBudget();
+        budget.restart(nanos);
+        return budget;
+    }
+
+    @Test
+    public void testArrivalRateBudget() {
+        ArrivalRateBudget budget = new ArrivalRateBudget();
+        // the first arrival gets the full time, the next ones a fraction of
+        // the average inter-arrival time
+        assertEquals(500, budget.restartOnArrival(1000, 500, 0.5));
+        assertEquals(0.0, budget.getAverageInterArrival(), 0.0);
+        assertEquals(500, budget.restartOnArrival(2000, 500, 0.5));
+        assertEquals(1000.0, budget.getAverageInterArrival(), 0.0);
+        assertEquals(480, budget.restartOnArrival(2200, 500, 0.5));
+        assertEquals(1000 + ArrivalRateBudget.INTER_ARRIVAL_ALPHA * (200 - 1000),
+                budget.getAverageInterArrival(), 1e-9);
+        assertEquals(0, budget.restartOnArrival(2300, 0, 0.5));
+
+        budget.reset();
+        assertEquals(0.0, budget.getAverageInterArrival(), 0.0);
+        assertEquals(700, budget.restartOnArrival(5000, 700, 0.5));
+
+        long now = System.nanoTime();
+        budget.reset();
+        budget.restartOnArrival(now - 2000000000L, 1000000000L, 1.0);
+        assertFalse(budget.hasMoreTime());
+        budget.restartOnArrival(now, 1000000000000L, 1.0);
+        assertTrue(budget.hasMoreTime());
+    }
+
+    @Test
+    public void testPendingObjectsFinishedLater() {
+        AnyOutCore anyout = trainedCore("-R ArrivalRate -D 0");
+        AnyOutCore reference = trainedCore("-R ArrivalRate -D 0");
+        assertTrue("height " + anyout.getHeight(), anyout.getHeight() > 0);
+        double[][] objects = objects(2, NUM_OBJECTS);
+
+        // without time, every object stays pending after its first level
+        for (int id = 0; id < NUM_OBJECTS; id++) {
+            anyout.initObject(id, objects[id]);
+            assertTrue(anyout.moreImprovementsPossible(id, 1.0));
+            if (id % 2 == 0) {
+                anyout.improveObjects(id, anyout.nextRefinementBudget());
+            } else {
+                anyout.improveObjects(id, budget(0));
+            }
+            assertEquals(id + 1, anyout.getNumberPendingObjects());
+        }
+        anyout.removeObject(3);
+        assertEquals(NUM_OBJECTS - 1, anyout.getNumberPendingObjects());
+
+        // a later budget refines the new object and the pending ones down to
+        // the leaves
+        int last = NUM_OBJECTS;
+        anyout.initObject(last, objects(3, 1)[0]);
+        anyout.improveObjects(last, budget(10000000000L));
+        assertEquals(0, anyout.getNumberPendingObjects());
+
+        for (int id = 0; id <= last; id++) {
+            if (id == 3) {
+                continue;
+            }
+            double[] features = id == last ? objects(3, 1)[0] : objects[id];
+            reference.initObject(id, features);
+            while (reference.moreImprovementsPossible(id, 1.0)) {
+                reference.improveObjectOnce(id);
+            }
+            assertFalse("object " + id, anyout.moreImprovementsPossible(id, 1.0));
+            assertEquals("object " + id, reference.getOutlierScore(id), anyout.getOutlierScore(id), 0.0);
+            assertEquals("object " + id, reference.getConfidence(id), anyout.getConfidence(id), 0.0);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ *    MCODTest.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.clusterers.outliers.MCOD;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import com.yahoo.labs.samoa.instances.Attribute;
+import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+import com.yahoo.labs.samoa.instances.InstancesHeader;
+
+import moa.clusterers.outliers.MyBaseOutlierDetector.Outlier;
+
+/**
+ * Runs MCOD on clusters that move from time to time, so that micro-clusters
+ * are created and removed all along, and compares the outliers it reports
+ * after every object with the ones found by counting the neighbours of
+ * every object of the window. Removed micro-clusters are checked to leave
+ * the M-tree in batches.
+ */
+public class MCODTest {
+
+    protected static Instances header(int dimensions) {
+        List<Attribute> attributes = new ArrayList<Attribute>();
+        for (int i = 0; i < dimensions; i++) {
+            attributes.add(new Attribute("a" + i));
+        }
+        attributes.add(new Attribute("class"));
+        Instances header = new Instances("clusters", attributes, 0);
+        header.setClassIndex(dimensions);
+        return header;
+    }
+
+    protected static double distance(double[] a, double[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += (a[i] - b[i]) * (a[i] - b[i]);
+        }
+        return Math.sqrt(sum);
+    }
+
+    /**
+     * Returns the identifiers of the objects of the window that have fewer
+     * than k neighbours within the radius. As in MCOD, an object is counted
+     * among its own neighbours.
+     */
+    protected static TreeSet<Long> scan(List<double[]> window, long firstId, double radius, int k) {
+        TreeSet<Long> outliers = new TreeSet<Long>();
+        for (int i = 0; i < window.size(); i++) {
+            int count = 0;
+            for (int j = 0; j < window.size(); j++) {
+                if (distance(window.get(i), window.get(j)) <= radius) {
+                    count++;
+                }
+            }
+            if (count < k) {
+                outliers.add(firstId + i);
+            }
+        }
+        return outliers;
+    }
+
+    /**
+     * Checks that the M-tree indexes the micro-clusters of the window and
+     * the removed ones not yet taken out, and that these are fewer than half
+     * of the indexed ones.
+     */
+    protected static void assertMicroClusters(String message, MCOD mcod) {
+        Map<MicroCluster, Boolean> live = new IdentityHashMap<MicroCluster, Boolean>();
+        for (int i = 0; i < mcod.windowNodes.size(); i++) {
+            MicroCluster mc = mcod.windowNodes.get(i).mc;
+            if (mc != null) {
+                assertFalse(message + ": removed micro-cluster in use", mc.bRemoved);
+                live.put(mc, Boolean.TRUE);
+            }
+        }
+        for (MicroCluster mc : mcod.removedMC) {
+            assertTrue(message + ": micro-cluster not marked as removed", mc.bRemoved);
+        }
+        assertEquals(message + ": indexed micro-clusters", live.size() + mcod.removedMC.size(), mcod.mtreeMC.size());
+        assertTrue(message + ": removed micro-clusters", 2 * mcod.removedMC.size() < Math.max(1, mcod.mtreeMC.size()));
+    }
+
+    protected void runMovingClusters(long seed, int windowSize, double radius, int k, int dimensions,
+            boolean grid) {
+        Random random = new Random(seed);
+        Instances header = header(dimensions);
+        MCOD mcod = new MCOD();
+        mcod.windowSizeOption.setValue(windowSize);
+        mcod.radiusOption.setValue(radius);
+        mcod.kOption.setValue(k);
+        mcod.prepareForUse();
+        mcod.setModelContext(new InstancesHeader(header));
+        mcod.SetShowProgress(false);
+
+        double[][] centres = new double[4][dimensions];
+        List<double[]> window = new ArrayList<double[]>();
+        long firstId = 1;
+        int removals = 0;
+        int batches = 0;
+        for (int step = 0; step < 20 * windowSize; step++) {
+            String message = "seed " + seed + ", step " + step;
+            // a cluster moves now and then
+            if (step % (windowSize / 4) == 0) {
+                int c = random.nextInt(centres.length);
+                for (int i = 0; i < dimensions; i++) {
+                    centres[c][i] = random.nextDouble() * 10;
+                }
+            }
+            double[] values = new double[dimensions + 1];
+            double[] centre = centres[random.nextInt(centres.length)];
+            boolean noise = random.nextInt(20) == 0;
+            for (int i = 0; i < dimensions; i++) {
+                values[i] = noise ? random.nextDouble() * 10 : centre[i] + random.nextGaussian() * radius / 2;
+                if (grid) {
+                    values[i] = Math.round(values[i] / radius * 4) * radius / 4;
+                }
+            }
+            Instance inst = new DenseInstance(1, values);
+            inst.setDataset(header);
+            int removed = mcod.removedMC.size();
+            int indexed = mcod.mtreeMC.size();
+            mcod.trainOnInstance(inst);
+            if (mcod.removedMC.size() > removed) {
+                removals++;
+            } else if (mcod.removedMC.size() < removed || mcod.mtreeMC.size() < indexed) {
+                batches++;
+            }
+
+            window.add(Arrays.copyOf(values, dimensions));
+            if (window.size() > windowSize) {
+                window.remove(0);
+                firstId++;
+            }
+            TreeSet<Long> expected = scan(window, firstId, radius, k);
+            TreeSet<Long> actual = new TreeSet<Long>();
+            for (Outlier outlier : mcod.getOutliersResult()) {
+                actual.add(outlier.id);
+            }
+            assertEquals(message + ": outliers", expected, actual);
+            assertMicroClusters(message, mcod);
+        }
+        assertTrue("seed " + seed + ": removals " + removals + ", batches " + batches,
+                removals > 0 && batches > 0);
+    }
+
+    @Test
+    public void testSameOutliersAsScan() {
+        runMovingClusters(1, 200, 0.5, 5, 2, false);
+        runMovingClusters(2, 400, 0.3, 8, 3, false);
+        runMovingClusters(3, 100, 1.0, 3, 1, false);
+    }
+
+    @Test
+    public void testSameOutliersAsScanOnGrid() {
+        runMovingClusters(4, 200, 0.5, 5, 2, true);
+        runMovingClusters(5, 300, 0.4, 10, 2, true);
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ *    MTreeTest.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.clusterers.outliers.utils.mtree;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Applies random additions, removals and queries to M-trees and compares
+ * the query results with a linear scan of the indexed points. Points are
+ * rounded to a coarse grid in some runs, so that the trees hold duplicate
+ * and equidistant points.
+ */
+public class MTreeTest {
+
+	static class Point implements DistanceFunctions.EuclideanCoordinate {
+		final double[] values;
+
+		Point(double[] values) {
+			this.values = values;
+		}
+
+		@Override
+		public int dimensions() {
+			return values.length;
+		}
+
+		@Override
+		public double get(int index) {
+			return values[index];
+		}
+	}
+
+	/** the Euclidean distance, without the coordinate copies the nodes keep for {@link DistanceFunctions#EUCLIDEAN} */
+	static final DistanceFunction<Point> GENERIC_EUCLIDEAN = new DistanceFunction<Point>() {
+		@Override
+		public double calculate(Point data1, Point data2) {
+			return DistanceFunctions.euclidean(data1, data2);
+		}
+	};
+
+	static class CheckedMTree extends MTree<Point> {
+		CheckedMTree(int minNodeCapacity, DistanceFunction<? super Point> distanceFunction) {
+			super(minNodeCapacity, distanceFunction,
+				new ComposedSplitFunction<Point>(
+					new PromotionFunctions.RandomPromotion<Point>(),
+					new PartitionFunctions.BalancedPartition<Point>()));
+		}
+
+		@Override
+		public void add(Point data) {
+			super.add(data);
+			_check();
+		}
+
+		@Override
+		public boolean remove(Point data) {
+			boolean result = super.remove(data);
+			_check();
+			return result;
+		}
+
+		@Override
+		public void addAll(Collection<? extends Point> data) {
+			super.addAll(data);
+			_check();
+		}
+
+		@Override
+		public int removeAll(Collection<? extends Point> data) {
+			int result = super.removeAll(data);
+			_check();
+			return result;
+		}
+	}
+
+	protected static Point randomPoint(Random random, int dimensions, boolean grid) {
+		double[] values = new double[dimensions];
+		for (int i = 0; i < dimensions; i++) {
+			values[i] = grid ? random.nextInt(5) : random.nextDouble() * 10;
+		}
+		return new Point(values);
+	}
+
+	/**
+	 * Returns the distances of the points within the range, nearest first.
+	 */
+	protected static List<Double> scan(List<Point> points, Point query, double range) {
+		List<Double> result = new ArrayList<Double>();
+		for (Point point : points) {
+			double distance = DistanceFunctions.euclidean(point, query);
+			if (distance <= range)
+				result.add(distance);
+		}
+		Collections.sort(result);
+		return result;
+	}
+
+	protected static void assertQuery(String message, List<Double> expected, Point queryData,
+		MTree<Point>.Query query, int limit, List<Point> points) {
+		Map<Point, Boolean> seen = new IdentityHashMap<Point, Boolean>();
+		List<Double> actual = new ArrayList<Double>();
+		for (MTree<Point>.ResultItem item : query) {
+			assertNull(message + ": result repeated", seen.put(item.data, Boolean.TRUE));
+			assertTrue(message + ": result not indexed", points.contains(item.data));
+			assertEquals(message + ": result distance", DistanceFunctions.euclidean(item.data, queryData),
+				item.distance, 1e-9);
+			actual.add(item.distance);
+		}
+		expected = expected.subList(0, Math.min(limit, expected.size()));
+		assertEquals(message + ": result count", expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++)
+			assertEquals(message + ": distance of result " + i, expected.get(i), actual.get(i), 1e-9);
+	}
+
+	protected void runRandomOperations(long seed, int minNodeCapacity, DistanceFunction<? super Point> distanceFunction,
+		int dimensions, boolean grid) {
+		Random random = new Random(seed);
+		MTree<Point> tree = new CheckedMTree(minNodeCapacity, distanceFunction);
+		List<Point> points = new ArrayList<Point>();
+		for (int step = 0; step < 600; step++) {
+			String message = "seed " + seed + ", step " + step;
+			int operation = random.nextInt(12);
+			if (operation < 5 || points.isEmpty()) {
+				Point point = randomPoint(random, dimensions, grid);
+				tree.add(point);
+				points.add(point);
+			}
+			else if (operation < 7) {
+				Point point = points.remove(random.nextInt(points.size()));
+				assertTrue(message + ": removal", tree.remove(point));
+			}
+			else if (operation < 8) {
+				assertFalse(message + ": removal of a point not indexed",
+					tree.remove(randomPoint(random, dimensions, grid)));
+			}
+			else if (operation < 9) {
+				// bulk loads the tree when it is empty
+				List<Point> batch = new ArrayList<Point>();
+				int count = random.nextInt(tree.size() == 0 ? 200 : 20);
+				for (int i = 0; i < count; i++)
+					batch.add(randomPoint(random, dimensions, grid));
+				tree.addAll(batch);
+				points.addAll(batch);
+			}
+			else if (operation < 10) {
+				// removes a few points, or most of them so that the tree is
+				// bulk loaded again, with some that are not indexed
+				Collections.shuffle(points, random);
+				int count = random.nextInt(random.nextBoolean() ? Math.min(5, points.size() + 1) : points.size() + 1);
+				List<Point> batch = new ArrayList<Point>(points.subList(0, count));
+				points.subList(0, count).clear();
+				int missing = random.nextInt(3);
+				for (int i = 0; i < missing; i++)
+					batch.add(randomPoint(random, dimensions, grid));
+				Collections.shuffle(batch, random);
+				assertEquals(message + ": batch removal", count, tree.removeAll(batch));
+			}
+			else {
+				Point query = random.nextBoolean() ? points.get(random.nextInt(points.size()))
+					: randomPoint(random, dimensions, grid);
+				double range = random.nextDouble() * 5;
+				int limit = 1 + random.nextInt(10);
+				assertQuery(message + ", range query", scan(points, query, range), query,
+					tree.getNearestByRange(query, range), Integer.MAX_VALUE, points);
+				assertQuery(message + ", limit query", scan(points, query, Double.POSITIVE_INFINITY), query,
+					tree.getNearestByLimit(query, limit), limit, points);
+				assertQuery(message + ", bounded query", scan(points, query, range), query,
+					tree.getNearest(query, range, limit), limit, points);
+			}
+			assertEquals(message + ": size", points.size(), tree.size());
+		}
+		// removes the remaining points in random order, after bulk loading
+		// them into a new tree in some runs
+		if (seed % 2 == 1) {
+			tree = new CheckedMTree(minNodeCapacity, distanceFunction);
+			tree.addAll(points);
+			assertEquals("seed " + seed + ": size after bulk loading", points.size(), tree.size());
+		}
+		Collections.shuffle(points, random);
+		while (!points.isEmpty()) {
+			assertTrue("seed " + seed + ": final removal", tree.remove(points.remove(points.size() - 1)));
+			assertEquals("seed " + seed + ": size", points.size(), tree.size());
+		}
+	}
+
+	@Test
+	public void testEuclidean() {
+		for (long seed = 0; seed < 20; seed++)
+			runRandomOperations(seed, 2, DistanceFunctions.EUCLIDEAN, 3, false);
+	}
+
+	@Test
+	public void testEuclideanGrid() {
+		for (long seed = 0; seed < 20; seed++)
+			runRandomOperations(seed, 3, DistanceFunctions.EUCLIDEAN, 2, true);
+	}
+
+	@Test
+	public void testGenericDistance() {
+		for (long seed = 0; seed < 10; seed++)
+			runRandomOperations(seed, 4, GENERIC_EUCLIDEAN, 3, seed % 2 == 0);
+	}
+}
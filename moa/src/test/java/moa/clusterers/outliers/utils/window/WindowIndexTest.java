@@ -0,0 +1,160 @@
+/*
+ *    WindowIndexTest.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package moa.clusterers.outliers.utils.window;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Slides windows over random points and compares every range query of a
+ * {@link WindowIndex} with a linear scan of the window.
+ */
+public class WindowIndexTest {
+
+    static class Node extends WindowNode {
+        Node(StreamObj obj, long id) {
+            super(null, obj, id);
+        }
+    }
+
+    /**
+     * Draws a point, either anywhere or on a lattice of half the radius, so
+     * that points fall on cell boundaries and at exactly the query radius.
+     */
+    private static StreamObj randomPoint(Random random, int dimensions, double radius, boolean lattice) {
+        double[] values = new double[dimensions];
+        for (int i = 0; i < dimensions; i++) {
+            values[i] = lattice ? (random.nextInt(21) - 10) * radius / 2 : (random.nextDouble() - 0.5) * 10 * radius;
+        }
+        return new StreamObj(values);
+    }
+
+    private static double distance(StreamObj a, StreamObj b) {
+        double sum = 0;
+        for (int i = 0; i < a.dimensions(); i++) {
+            double diff = a.get(i) - b.get(i);
+            sum += diff * diff;
+        }
+        return Math.sqrt(sum);
+    }
+
+    private static void assertRangeSearch(String message, WindowIndex<Node> index, List<Node> window,
+            Node query, double radius) {
+        List<Node> expected = new ArrayList<Node>();
+        for (Node node : window) {
+            if (distance(node.obj, query.obj) <= radius) {
+                expected.add(node);
+            }
+        }
+
+        RangeSearchResults<Node> results = index.RangeSearch(query, radius);
+        assertEquals(message + ": result count", expected.size(), results.size());
+        Set<Long> found = new HashSet<Long>();
+        for (int i = 0; i < results.size(); i++) {
+            Node node = results.getNode(i);
+            assertTrue(message + ": result repeated", found.add(node.id));
+            assertEquals(message + ": distance", distance(node.obj, query.obj), results.getDistance(i), 0.0);
+        }
+        for (Node node : expected) {
+            assertTrue(message + ": missing node " + node.id, found.contains(node.id));
+        }
+
+        results.sortByDistance();
+        for (int i = 1; i < results.size(); i++) {
+            double previous = results.getDistance(i - 1);
+            double current = results.getDistance(i);
+            assertTrue(message + ": order", previous < current
+                    || (previous == current && results.getNode(i - 1).id < results.getNode(i).id));
+        }
+    }
+
+    private void slideWindow(long seed, int dimensions, double radius, boolean lattice) {
+        String config = "seed " + seed + ", " + dimensions + " dimensions, radius " + radius;
+        Random random = new Random(seed);
+        WindowIndex<Node> index = new WindowIndex<Node>(radius);
+        List<Node> window = new ArrayList<Node>();
+        int windowSize = 50 + random.nextInt(300);
+        double pointScale = Double.isInfinite(radius) || radius == 0 ? 1 : radius;
+
+        for (long id = 0; id < 2000; id++) {
+            String message = config + ", node " + id;
+            Node node = new Node(randomPoint(random, dimensions, pointScale, lattice), id);
+
+            // queries with the radius of the index and with others, which
+            // span fewer or more cells, before the node joins the window
+            assertRangeSearch(message, index, window, node, radius);
+            if (!Double.isInfinite(radius)) {
+                assertRangeSearch(message + ", half radius", index, window, node, radius / 2);
+                assertRangeSearch(message + ", 1.5 radius", index, window, node, 1.5 * radius);
+                assertRangeSearch(message + ", 20 radius", index, window, node, 20 * radius);
+            }
+
+            index.Insert(node);
+            window.add(node);
+            if (window.size() > windowSize) {
+                index.Remove(window.remove(0));
+            }
+            // evicts a random node now and then, as outlier detectors do
+            if (random.nextInt(20) == 0) {
+                index.Remove(window.remove(random.nextInt(window.size())));
+            }
+            assertEquals(message + ": size", window.size(), index.Size());
+        }
+
+        Set<Long> all = new HashSet<Long>();
+        for (Node node : index.GetAllNodes()) {
+            all.add(node.id);
+        }
+        assertEquals(config + ": all nodes", window.size(), all.size());
+        for (Node node : window) {
+            assertTrue(config + ": all nodes", all.contains(node.id));
+        }
+    }
+
+    @Test
+    public void testRandomPoints() {
+        int[] dimensions = {1, 2, 3, 4, 6};
+        for (int i = 0; i < dimensions.length; i++) {
+            slideWindow(i, dimensions[i], 0.1, false);
+            slideWindow(i, dimensions[i], 3.0, false);
+        }
+    }
+
+    @Test
+    public void testLatticePoints() {
+        int[] dimensions = {1, 2, 3, 5};
+        for (int i = 0; i < dimensions.length; i++) {
+            slideWindow(10 + i, dimensions[i], 0.5, true);
+            slideWindow(10 + i, dimensions[i], 0.7, true);
+        }
+    }
+
+    @Test
+    public void testWithoutGrid() {
+        slideWindow(20, 3, 0, false);
+        slideWindow(21, 3, Double.POSITIVE_INFINITY, false);
+        slideWindow(22, 2, 0, true);
+    }
+}
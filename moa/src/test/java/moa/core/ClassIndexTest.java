@@ -0,0 +1,244 @@
+/*
+ *    ClassIndexTest.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.core;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.io.Serializable;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Writes and reads the class index of a small class hierarchy and compares
+ * the lookups with the reflective check of {@link AutoClassDiscovery}.
+ */
+public class ClassIndexTest {
+
+	public interface Shape {
+	}
+
+	public static abstract class AbstractShape implements Shape {
+	}
+
+	public static class Circle extends AbstractShape {
+	}
+
+	public static class Square extends AbstractShape implements Serializable {
+		private static final long serialVersionUID = 1L;
+	}
+
+	public static class Sized extends AbstractShape {
+		public Sized(int size) {
+		}
+	}
+
+	static class Hidden extends Circle {
+	}
+
+	public static class Items extends AbstractList<Object> {
+		public Object get(int index) {
+			return null;
+		}
+
+		public int size() {
+			return 0;
+		}
+	}
+
+	protected static final String PREFIX = ClassIndexTest.class.getName() + "$";
+
+	protected static final List<String> CLASS_NAMES = Arrays.asList(
+		PREFIX + "Shape", PREFIX + "AbstractShape", PREFIX + "Circle",
+		PREFIX + "Square", PREFIX + "Sized", PREFIX + "Hidden", PREFIX + "Items",
+		"moa.core.NoSuchClass");
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	protected ClassIndex writeAndRead() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ClassIndex.write(Collections.singletonList("moa.core"), CLASS_NAMES, new PrintStream(bytes, true, "UTF-8"));
+		ClassIndex index = new ClassIndex();
+		index.read(new ByteArrayInputStream(bytes.toByteArray()));
+		return index;
+	}
+
+	@Test
+	public void testLookupsMatchReflection() throws Exception {
+		ClassIndex index = writeAndRead();
+		Class<?>[] types = {Shape.class, AbstractShape.class, Circle.class, Serializable.class,
+			Collection.class, List.class, Object.class, Runnable.class};
+		for (Class<?> type : types) {
+			for (String pkg : new String[]{"moa", "moa.core", "moa.core.sub"}) {
+				List<String> expected = new ArrayList<String>();
+				for (String className : CLASS_NAMES) {
+					if (inPackage(className, pkg) && AutoClassDiscovery.isPublicConcreteClassOfType(className, type))
+						expected.add(className);
+				}
+				Collections.sort(expected);
+				assertEquals(type.getName() + " in " + pkg, expected,
+					Arrays.asList(index.findClassNames(pkg, type.getName())));
+			}
+		}
+		// spot checks, independent of the reflective check
+		assertArrayEquals(new String[]{PREFIX + "Circle", PREFIX + "Square"},
+			index.findClassNames("moa.core", Shape.class.getName()));
+	}
+
+	@Test
+	public void testCovers() throws Exception {
+		ClassIndex index = writeAndRead();
+		assertTrue(index.covers("moa.core"));
+		assertTrue(index.covers("moa.core.sub"));
+		assertFalse(index.covers("moa"));
+		assertFalse(index.covers("moa.corex"));
+		assertFalse(index.covers("weka.clusterers"));
+	}
+
+	@Test
+	public void testScanUnindexed() throws Exception {
+		ClassIndex index = writeAndRead();
+
+		File dir = folder.newFolder("classes");
+		for (String path : new String[]{"moa/core/A.class", "moa/core/sub/B$1.class", "moa/core/package-info.class",
+			"moa/core/notes.txt", "moa/other/C.class", "weka/D.class"}) {
+			File file = new File(dir, path);
+			file.getParentFile().mkdirs();
+			file.createNewFile();
+		}
+		File indexedDir = folder.newFolder("indexed");
+		new File(indexedDir, "moa/core").mkdirs();
+		new File(indexedDir, "moa/core/E.class").createNewFile();
+		new File(indexedDir, AutoClassDiscovery.CLASS_INDEX).createNewFile();
+
+		File jar = new File(folder.getRoot(), "extension.jar");
+		try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar))) {
+			for (String path : new String[]{"moa/core/F.class", "moa/G.class", "META-INF/MANIFEST.MF"}) {
+				out.putNextEntry(new ZipEntry(path));
+				out.closeEntry();
+			}
+		}
+		File indexedJar = new File(folder.getRoot(), "indexed.jar");
+		try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(indexedJar))) {
+			for (String path : new String[]{"moa/core/H.class", AutoClassDiscovery.CLASS_INDEX}) {
+				out.putNextEntry(new ZipEntry(path));
+				out.closeEntry();
+			}
+		}
+
+		Set<String> classNames = new TreeSet<String>();
+		for (File entry : new File[]{dir, indexedDir, jar, indexedJar, new File(folder.getRoot(), "missing.jar")})
+			index.scanUnindexed(entry, AutoClassDiscovery.CLASS_INDEX, classNames);
+		assertEquals(new TreeSet<String>(Arrays.asList("moa.core.A", "moa.core.F", "moa.core.sub.B$1")), classNames);
+	}
+
+	protected static File jar(File file, String... paths) throws Exception {
+		try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file))) {
+			for (String path : paths) {
+				out.putNextEntry(new ZipEntry(path));
+				out.closeEntry();
+			}
+		}
+		return file;
+	}
+
+	@Test
+	public void testScanUnindexedFromLoader() throws Exception {
+		ClassIndex index = new ClassIndex("moa.core");
+
+		File dir = folder.newFolder("classes");
+		File indexedDir = folder.newFolder("indexed");
+		File otherDir = folder.newFolder("other");
+		for (String path : new String[]{"classes/moa/core/A.class", "classes/moa/core/sub/B.class",
+			"classes/moa/other/C.class", "indexed/moa/core/E.class", "indexed/" + AutoClassDiscovery.CLASS_INDEX,
+			"other/weka/D.class"}) {
+			File file = new File(folder.getRoot(), path);
+			file.getParentFile().mkdirs();
+			file.createNewFile();
+		}
+		File[] entries = {dir, indexedDir, otherDir,
+			jar(folder.newFile("extension.jar"), "moa/", "moa/core/", "moa/core/F.class", "moa/G.class"),
+			jar(folder.newFile("indexed.jar"), "moa/", "moa/core/", "moa/core/H.class", AutoClassDiscovery.CLASS_INDEX),
+			// without directory entries the jar cannot be found
+			jar(folder.newFile("flat.jar"), "moa/core/K.class"),
+			jar(folder.newFile("weka.jar"), "weka/", "weka/L.class")};
+		URL[] urls = new URL[entries.length];
+		for (int i = 0; i < entries.length; i++)
+			urls[i] = entries[i].toURI().toURL();
+
+		Set<String> classNames = new TreeSet<String>();
+		try (URLClassLoader loader = new URLClassLoader(urls, null)) {
+			index.scanUnindexed(loader, AutoClassDiscovery.CLASS_INDEX, classNames);
+		}
+		assertEquals(new TreeSet<String>(Arrays.asList("moa.core.A", "moa.core.F", "moa.core.sub.B")), classNames);
+	}
+
+	@Test
+	public void testMainListsDirectory() throws Exception {
+		File dir = folder.newFolder("classes");
+		for (String path : new String[]{"moa/streams/A.class", "moa/streams/A$1.class", "weka/D.class"}) {
+			File file = new File(dir, path);
+			file.getParentFile().mkdirs();
+			file.createNewFile();
+		}
+		File list = new File(folder.getRoot(), "list");
+		File indexFile = new File(folder.getRoot(), "index");
+		AutoClassDiscovery.main(new String[]{list.getPath(), indexFile.getPath(), dir.getPath()});
+		assertEquals(Arrays.asList("moa.streams.A", "moa.streams.A$1"),
+			Files.readAllLines(list.toPath(), StandardCharsets.UTF_8));
+		// the empty class files cannot be loaded, so only the root is indexed
+		try (URLClassLoader loader = new URLClassLoader(new URL[]{folder.getRoot().toURI().toURL()}, null)) {
+			ClassIndex index = ClassIndex.load(loader, "index");
+			assertTrue(index.covers("moa.streams"));
+			assertEquals(0, index.findClassNames("moa", Object.class.getName()).length);
+		}
+	}
+
+	@Test
+	public void testFindClassesOfType() {
+		// test classes are found whether or not their classpath entry has an index
+		List<Class<?>> found = Arrays.<Class<?>>asList(AutoClassDiscovery.findClassesOfType("moa.core", Shape.class));
+		assertEquals(Arrays.<Class<?>>asList(Circle.class, Square.class), found);
+	}
+
+	protected static boolean inPackage(String className, String pkg) {
+		String classPackage = ClassIndex.packageName(className);
+		return classPackage.equals(pkg) || classPackage.startsWith(pkg + ".");
+	}
+}
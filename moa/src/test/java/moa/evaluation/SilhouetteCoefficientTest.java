@@ -0,0 +1,113 @@
+/*
+ *    SilhouetteCoefficientTest.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.evaluation;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.yahoo.labs.samoa.instances.Attribute;
+import com.yahoo.labs.samoa.instances.DenseInstance;
+import com.yahoo.labs.samoa.instances.Instance;
+import com.yahoo.labs.samoa.instances.Instances;
+
+import moa.cluster.Cluster;
+import moa.cluster.Clustering;
+import moa.cluster.SphereCluster;
+import moa.gui.visualization.DataPoint;
+import moa.tasks.EvaluateClustering;
+
+/**
+ * Compares the silhouette averaged over sampled points with the exact one,
+ * and checks that the sample size can be set from EvaluateClustering.
+ */
+public class SilhouetteCoefficientTest {
+
+    private static final double[][] CENTRES = {{0, 0}, {3, 0}, {1, 2.5}};
+
+    private static ArrayList<DataPoint> points(long seed, int count) {
+        List<Attribute> attributes = new ArrayList<Attribute>();
+        attributes.add(new Attribute("x"));
+        attributes.add(new Attribute("y"));
+        attributes.add(new Attribute("class", new ArrayList<String>(Arrays.asList("0", "1", "2"))));
+        Instances header = new Instances("points", attributes, 0);
+        header.setClassIndex(2);
+        Random random = new Random(seed);
+        ArrayList<DataPoint> points = new ArrayList<DataPoint>();
+        for (int i = 0; i < count; i++) {
+            int c = random.nextInt(CENTRES.length);
+            Instance inst = new DenseInstance(1, new double[]{
+                CENTRES[c][0] + random.nextGaussian() * 0.6, CENTRES[c][1] + random.nextGaussian() * 0.6, c});
+            inst.setDataset(header);
+            points.add(new DataPoint(inst, i));
+        }
+        return points;
+    }
+
+    private static Clustering clustering() {
+        Cluster[] clusters = new Cluster[CENTRES.length];
+        for (int c = 0; c < CENTRES.length; c++) {
+            clusters[c] = new SphereCluster(CENTRES[c], 1.5);
+        }
+        return new Clustering(clusters);
+    }
+
+    private static double silhouette(ArrayList<DataPoint> points, int sampleSize, long sampleSeed) {
+        SilhouetteCoefficient measure = new SilhouetteCoefficient();
+        measure.setEnabled(0, true);
+        measure.setSampleSize(sampleSize);
+        measure.setSampleSeed(sampleSeed);
+        Clustering clustering = clustering();
+        measure.evaluateClustering(clustering, clustering, points);
+        return measure.getLastValue(0);
+    }
+
+    @Test
+    public void testSampleWithinBound() {
+        ArrayList<DataPoint> points = points(1, 3000);
+        double exact = silhouette(points, 0, 1);
+        assertTrue("exact: " + exact, exact > 0.5 && exact < 1);
+        // a sample at least as large as the members is the exact silhouette
+        assertEquals(exact, silhouette(points, 3000, 1), 0.0);
+        assertEquals(exact, silhouette(points, 10000, 1), 0.0);
+
+        // each estimate from 400 points deviates by more than 0.1 with
+        // probability at most 2 exp(-2 * 400 * 0.01) < 0.001
+        double[] estimates = new double[10];
+        for (int seed = 0; seed < estimates.length; seed++) {
+            estimates[seed] = silhouette(points, 400, seed);
+            assertEquals("seed " + seed, exact, estimates[seed], 0.1);
+        }
+        assertEquals("same seed", estimates[3], silhouette(points, 400, 3), 0.0);
+        assertTrue("other seeds", estimates[0] != estimates[1]);
+    }
+
+    @Test
+    public void testSampleSizeOption() {
+        EvaluateClustering task = new EvaluateClustering();
+        assertEquals(0, task.silhouetteSampleSizeOption.getValue());
+        task.getOptions().setViaCLIString("-h -z 400");
+        assertTrue(task.silhouetteOption.isSet());
+        assertEquals(400, task.silhouetteSampleSizeOption.getValue());
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ *    RatingStoreTest.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package moa.recommender.rc.data.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import moa.recommender.rc.utils.Pair;
+import moa.recommender.rc.utils.Rating;
+import moa.recommender.rc.utils.SparseVector;
+
+/**
+ * Applies random additions, resets and removals of entities and random
+ * changes of their ratings to a RatingStore and compares it after each one
+ * with maps of the ratings and statistics. The rows get long enough to merge
+ * their append buffers, move and be compacted.
+ */
+public class RatingStoreTest {
+
+    private static class Entity {
+        Map<Integer, Double> ratings = new HashMap<Integer, Double>();
+        double sum;
+        int count;
+    }
+
+    private static void assertSameContent(String message, Map<Integer, Entity> expected, RatingStore store,
+            Random random, int maxId, int maxKey) {
+        assertEquals(message + ": size", expected.size(), store.size());
+        Set<Integer> ids = new HashSet<Integer>();
+        for (Integer id : store.ids()) {
+            assertTrue(message + ": id repeated " + id, ids.add(id));
+        }
+        assertEquals(message + ": ids", expected.keySet(), ids);
+        assertEquals(message + ": ids size", expected.size(), store.ids().size());
+
+        for (Map.Entry<Integer, Entity> e : expected.entrySet()) {
+            int id = e.getKey();
+            Entity entity = e.getValue();
+            int idx = store.index(id);
+            assertTrue(message + ": index of " + id, idx >= 0);
+            assertTrue(message + ": ids contain " + id, store.ids().contains(id));
+            assertEquals(message + ": sum of " + id, entity.sum, store.sum(idx), 0.0);
+            assertEquals(message + ": count of " + id, entity.count, store.count(idx));
+            assertEquals(message + ": row size of " + id, entity.ratings.size(), store.rowSize(idx));
+
+            SparseVector view = store.ratings(id);
+            assertEquals(message + ": view size of " + id, entity.ratings.size(), view.size());
+            Map<Integer, Double> row = new HashMap<Integer, Double>();
+            Iterator<Pair<Integer, Double>> it = view.iterator();
+            while (it.hasNext()) {
+                Pair<Integer, Double> p = it.next();
+                assertNull(message + ": key repeated in " + id, row.put(p.getFirst(), p.getSecond()));
+            }
+            assertEquals(message + ": ratings of " + id, entity.ratings, row);
+            assertEquals(message + ": keys of " + id, entity.ratings.keySet(), view.getIdxs());
+
+            // lookups of keys, rated or not
+            for (int i = 0; i < 5; i++) {
+                int key = random.nextInt(maxKey);
+                Double rating = entity.ratings.get(key);
+                int pos = store.find(idx, key);
+                if (rating == null) {
+                    assertEquals(message + ": find " + key + " in " + id, -1, pos);
+                    assertNull(message + ": get " + key + " of " + id, view.get(key));
+                } else {
+                    assertEquals(message + ": key at " + pos, key, store.key(pos));
+                    assertEquals(message + ": value of " + key + " in " + id, rating, store.value(pos), 0.0);
+                    assertEquals(message + ": get " + key + " of " + id, rating, view.get(key));
+                }
+            }
+        }
+
+        int missing = maxId + random.nextInt(maxId);
+        assertEquals(message + ": index of missing", -1, store.index(missing));
+        assertFalse(message + ": ids contain missing", store.ids().contains(missing));
+        assertEquals(message + ": view of missing", 0, store.ratings(missing).size());
+        assertFalse(message + ": view of missing", store.ratings(missing).iterator().hasNext());
+    }
+
+    private static RatingStore serializeAndDeserialize(RatingStore store) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(store);
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        return (RatingStore) in.readObject();
+    }
+
+    private void runRandomOperations(long seed, int maxId, int maxKey, int steps) throws Exception {
+        Random random = new Random(seed);
+        RatingStore store = new RatingStore();
+        Map<Integer, Entity> expected = new HashMap<Integer, Entity>();
+
+        for (int step = 0; step < steps; step++) {
+            String message = "seed " + seed + ", step " + step;
+            int id = random.nextInt(maxId);
+            int operation = random.nextInt(100);
+
+            if (operation < 3) {
+                store.add(id);
+                if (!expected.containsKey(id)) {
+                    expected.put(id, new Entity());
+                }
+            } else if (operation < 5) {
+                store.reset(id);
+                expected.put(id, new Entity());
+            } else if (operation < 7) {
+                store.remove(id);
+                expected.remove(id);
+            } else if (operation < 80) {
+                // sets a rating as MemRecommenderData does, replacing the previous one
+                int idx = store.add(id);
+                if (!expected.containsKey(id)) {
+                    expected.put(id, new Entity());
+                }
+                Entity entity = expected.get(id);
+                int key = random.nextInt(maxKey);
+                double rating = 1 + random.nextInt(9) / 2.0;
+                int pos = store.find(idx, key);
+                if (pos >= 0) {
+                    store.updateStats(idx, -store.value(pos), -1);
+                    entity.sum -= entity.ratings.get(key);
+                    entity.count--;
+                }
+                store.updateStats(idx, rating, 1);
+                store.put(idx, key, rating);
+                entity.sum += rating;
+                entity.count++;
+                entity.ratings.put(key, rating);
+            } else if (!expected.isEmpty()) {
+                // removes a rating, rated or not, of an existing entity
+                List<Integer> existing = new ArrayList<Integer>(expected.keySet());
+                id = existing.get(random.nextInt(existing.size()));
+                int key = random.nextInt(maxKey);
+                store.delete(store.index(id), key);
+                expected.get(id).ratings.remove(key);
+            }
+
+            assertSameContent(message, expected, store, random, maxId, maxKey);
+            if (step % 1000 == 999) {
+                store = serializeAndDeserialize(store);
+                assertSameContent(message + ", deserialized", expected, store, random, maxId, maxKey);
+            }
+        }
+
+        store.clear();
+        assertSameContent("seed " + seed + ", cleared", new HashMap<Integer, Entity>(), store, random, maxId, maxKey);
+    }
+
+    @Test
+    public void testRandomOperations() throws Exception {
+        for (long seed = 0; seed < 3; seed++) {
+            runRandomOperations(seed, 40, 300, 5000);
+        }
+    }
+
+    @Test
+    public void testFewLongRows() throws Exception {
+        // a handful of entities with hundreds of ratings each
+        for (long seed = 10; seed < 13; seed++) {
+            runRandomOperations(seed, 5, 2000, 5000);
+        }
+    }
+
+    @Test
+    public void testManyShortRows() throws Exception {
+        for (long seed = 20; seed < 23; seed++) {
+            runRandomOperations(seed, 300, 10, 3000);
+        }
+    }
+
+    @Test
+    public void testMemRecommenderData() {
+        Random random = new Random(30);
+        MemRecommenderData data = new MemRecommenderData();
+        Map<Integer, Map<Integer, Double>> expected = new HashMap<Integer, Map<Integer, Double>>();
+        for (int step = 0; step < 5000; step++) {
+            int user = random.nextInt(50);
+            int item = random.nextInt(200);
+            if (random.nextInt(5) == 0) {
+                data.removeRating(user, item);
+                if (expected.containsKey(user)) {
+                    expected.get(user).remove(item);
+                }
+            } else {
+                double rating = 1 + random.nextInt(5);
+                data.setRating(user, item, rating);
+                if (!expected.containsKey(user)) {
+                    expected.put(user, new HashMap<Integer, Double>());
+                }
+                expected.get(user).put(item, rating);
+            }
+        }
+
+        int numRatings = 0;
+        for (Map.Entry<Integer, Map<Integer, Double>> e : expected.entrySet()) {
+            numRatings += e.getValue().size();
+            for (Map.Entry<Integer, Double> r : e.getValue().entrySet()) {
+                assertEquals(r.getValue(), data.getRating(e.getKey(), r.getKey()), 0.0);
+                assertEquals(r.getValue(), data.getRatingsItem(r.getKey()).get(e.getKey()));
+            }
+            assertEquals(e.getValue().size(), data.countRatingsUser(e.getKey()));
+        }
+        assertEquals(numRatings, data.getNumRatings());
+
+        Map<Integer, Map<Integer, Double>> iterated = new HashMap<Integer, Map<Integer, Double>>();
+        Iterator<Rating> it = data.ratingIterator();
+        while (it.hasNext()) {
+            Rating r = it.next();
+            if (!iterated.containsKey(r.userID)) {
+                iterated.put(r.userID, new HashMap<Integer, Double>());
+            }
+            assertNull(iterated.get(r.userID).put(r.itemID, r.rating));
+        }
+        for (Map.Entry<Integer, Map<Integer, Double>> e : expected.entrySet()) {
+            Map<Integer, Double> ratings = iterated.get(e.getKey());
+            assertEquals(e.getValue(), ratings == null ? new HashMap<Integer, Double>() : ratings);
+        }
+        assertEquals(0.0, data.getRating(1000, 0), 0.0);
+        data.removeRating(1000, 0);
+        assertEquals(numRatings, data.getNumRatings());
+    }
+}
@@ -0,0 +1,464 @@
+/*
+ *    BRISMFPredictorTest.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package moa.recommender.rc.predictor.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import moa.recommender.rc.data.RecommenderData;
+import moa.recommender.rc.data.impl.MemRecommenderData;
+import moa.recommender.rc.utils.Pair;
+import moa.recommender.rc.utils.Rating;
+import moa.recommender.rc.utils.SparseVector;
+import moa.recommender.rc.utils.Updatable;
+
+/**
+ * Checks the features BRISMFPredictor trains against a predictor that keeps
+ * them in hash maps of float arrays, and its top-N recommendations, dense and
+ * with norm pruning, against a sort of the scores of all unrated items while
+ * ratings are added and items come and go.
+ */
+public class BRISMFPredictorTest {
+
+    private static final int USERS = 200;
+    private static final int ITEMS = 400;
+
+    /**
+     * BRISMF with the features in hash maps, trained rating by rating through
+     * the lists and the data, as BRISMFPredictor did before its features moved
+     * to factor matrices. Draws the same random numbers, so both have to end
+     * up with the same features.
+     */
+    static class HashMapBRISMF implements Updatable {
+        RecommenderData data;
+        int nFeatures;
+        HashMap<Integer, float[]> userFeature = new HashMap<Integer, float[]>();
+        HashMap<Integer, float[]> itemFeature = new HashMap<Integer, float[]>();
+        Random rnd = new Random(12345);
+        double lRate = 0.01;
+        double rFactor = 0.02;
+        int nIterations = 30;
+
+        HashMapBRISMF(int nFeatures, RecommenderData data) {
+            this.data = data;
+            this.nFeatures = nFeatures;
+            data.attachUpdatable(this);
+            train();
+        }
+
+        void resetFeatures(float[] feats, boolean userFeats) {
+            for (int i = 0; i < feats.length; ++i)
+                feats[i] = (float)0.01*(rnd.nextFloat()*2 - 1);
+            if (userFeats) feats[0] = 1;
+            else feats[1] = 1;
+        }
+
+        double predictRating(float[] userFeats, float[] itemFeats) {
+            double ret = data.getGlobalMean();
+            if (userFeats != null && itemFeats != null)
+                for (int i = 0; i < nFeatures; ++i)
+                    ret += userFeats[i]*itemFeats[i];
+            if (ret < data.getMinRating()) ret = data.getMinRating();
+            else if (ret > data.getMaxRating()) ret = data.getMaxRating();
+            return ret;
+        }
+
+        void trainUser(int userID, List<Integer> itm, List<Double> rat) {
+            float[] userFeats = new float[nFeatures];
+            resetFeatures(userFeats, true);
+            for (int k = 0; k < nIterations; ++k) {
+                for (int i = 0; i < itm.size(); ++i) {
+                    float[] itemFeats = itemFeature.get(itm.get(i));
+                    double err = rat.get(i) - predictRating(userFeats, itemFeats);
+                    if (itemFeats != null)
+                        for (int j = 1; j < nFeatures; ++j)
+                            userFeats[j] += lRate*(err*itemFeats[j] - rFactor*userFeats[j]);
+                }
+            }
+            userFeature.put(userID, userFeats);
+        }
+
+        void trainItem(int itemID, List<Integer> usr, List<Double> rat) {
+            float[] itemFeats = new float[nFeatures];
+            resetFeatures(itemFeats, false);
+            for (int k = 0; k < nIterations; ++k) {
+                for (int i = 0; i < usr.size(); ++i) {
+                    float[] userFeats = userFeature.get(usr.get(i));
+                    double err = rat.get(i) - predictRating(userFeats, itemFeats);
+                    if (userFeats != null) {
+                        itemFeats[0] += lRate*(err*userFeats[0] - rFactor*itemFeats[0]);
+                        for (int j = 2; j < nFeatures; ++j)
+                            itemFeats[j] += lRate*(err*userFeats[j] - rFactor*itemFeats[j]);
+                    }
+                }
+            }
+            itemFeature.put(itemID, itemFeats);
+        }
+
+        void train() {
+            userFeature.clear();
+            itemFeature.clear();
+            for (int userID : data.getUsers()) {
+                float[] feats = new float[nFeatures];
+                resetFeatures(feats, true);
+                userFeature.put(userID, feats);
+            }
+            for (int itemID : data.getItems()) {
+                float[] feats = new float[nFeatures];
+                resetFeatures(feats, false);
+                itemFeature.put(itemID, feats);
+            }
+
+            int trainDiv = Math.max(20, data.getNumRatings()/1000000);
+            List<Rating> ratTest = new ArrayList<Rating>();
+            int count = 0;
+            int exit = 0;
+            double lastRMSE = 1e20;
+            do {
+                Iterator<Rating> ratIt = data.ratingIterator();
+                int idx = 0;
+                while (ratIt.hasNext()) {
+                    Rating rat = ratIt.next();
+                    if (idx%trainDiv == 0) {
+                        if (count == 0) ratTest.add(rat);
+                    }
+                    else {
+                        float[] userFeats = userFeature.get(rat.userID);
+                        float[] itemFeats = itemFeature.get(rat.itemID);
+                        double err = rat.rating - predictRating(userFeats, itemFeats);
+                        itemFeats[0] += lRate*(err*userFeats[0] - rFactor*itemFeats[0]);
+                        userFeats[1] += lRate*(err*itemFeats[1] - rFactor*userFeats[1]);
+                        for (int j = 2; j < nFeatures; ++j) {
+                            double uv = userFeats[j];
+                            userFeats[j] += lRate*(err*itemFeats[j] - rFactor*userFeats[j]);
+                            itemFeats[j] += lRate*(err*uv - rFactor*itemFeats[j]);
+                        }
+                    }
+                    ++idx;
+                }
+                double sum = 0;
+                for (Rating rat : ratTest) {
+                    double pred = predictRating(userFeature.get(rat.userID), itemFeature.get(rat.itemID));
+                    sum += Math.pow(rat.rating - pred, 2);
+                }
+                double curRMSE = Math.sqrt(sum/(double)ratTest.size());
+                if (curRMSE + 0.0001 >= lastRMSE) {
+                    ++exit;
+                }
+                lastRMSE = curRMSE;
+                ++count;
+            }
+            while (exit < 1);
+        }
+
+        @Override
+        public void updateNewUser(int userID, List<Integer> ratedItems, List<Double> ratings) {
+            if (!ratedItems.isEmpty()) trainUser(userID, ratedItems, ratings);
+        }
+
+        @Override
+        public void updateNewItem(int itemID, List<Integer> ratingUsers, List<Double> ratings) {
+            if (!ratingUsers.isEmpty()) trainItem(itemID, ratingUsers, ratings);
+        }
+
+        @Override
+        public void updateRemoveUser(int userID) {
+            userFeature.remove(userID);
+        }
+
+        @Override
+        public void updateRemoveItem(int itemID) {
+            itemFeature.remove(itemID);
+        }
+
+        @Override
+        public void updateSetRating(int userID, int itemID, double rating) {
+            double nUsr = data.countRatingsUser(userID);
+            double nItm = data.countRatingsItem(itemID);
+            double prob1 = Math.pow(0.99, nUsr);
+            double prob2 = Math.pow(0.99, nItm);
+
+            if (nUsr < 5 || rnd.nextDouble() < prob1) {
+                List<Integer> itm = new ArrayList<Integer>();
+                List<Double> rat = new ArrayList<Double>();
+                collect(data.getRatingsUser(userID), itemID, rating, itm, rat);
+                trainUser(userID, itm, rat);
+            }
+            if (nItm < 5 || rnd.nextDouble() < prob2) {
+                List<Integer> usr = new ArrayList<Integer>();
+                List<Double> rat = new ArrayList<Double>();
+                collect(data.getRatingsItem(itemID), userID, rating, usr, rat);
+                trainItem(itemID, usr, rat);
+            }
+        }
+
+        /**
+         * Lists the ratings with the one of changedID set to rating.
+         */
+        private static void collect(SparseVector rats, int changedID, double rating,
+                List<Integer> ids, List<Double> values) {
+            boolean found = false;
+            Iterator<Pair<Integer, Double>> it = rats.iterator();
+            while (it.hasNext()) {
+                Pair<Integer, Double> p = it.next();
+                ids.add(p.getFirst());
+                if (p.getFirst() == changedID) {
+                    found = true;
+                    values.add(rating);
+                }
+                else values.add(p.getSecond());
+            }
+            if (!found) {
+                ids.add(changedID);
+                values.add(rating);
+            }
+        }
+
+        @Override
+        public void updateRemoveRating(int userID, int itemID) {
+        }
+    }
+
+    private static MemRecommenderData randomData(Random random, int nRatings) {
+        MemRecommenderData data = new MemRecommenderData();
+        for (int i = 0; i < nRatings; i++) {
+            data.setRating(random.nextInt(USERS), random.nextInt(ITEMS), 1 + random.nextInt(5));
+        }
+        return data;
+    }
+
+    /**
+     * Scores every item the user has not rated with the dot product of the
+     * features, 0 if the user or item has none, and sorts them by decreasing
+     * score and increasing ID.
+     */
+    private static List<Integer> bruteForceTopN(BRISMFPredictor predictor, RecommenderData data, int userID, int n) {
+        final List<Integer> items = new ArrayList<Integer>();
+        final List<Double> scores = new ArrayList<Double>();
+        float[] userFeats = predictor.getUserFeatures(userID);
+        for (int itemID : data.getItems()) {
+            if (data.getRatingsUser(userID).get(itemID) != null) {
+                continue;
+            }
+            float[] itemFeats = predictor.getItemFeatures(itemID);
+            double score = 0;
+            if (userFeats != null && itemFeats != null) {
+                for (int i = 0; i < predictor.getNumFeatures(); i++) {
+                    score += userFeats[i] * itemFeats[i];
+                }
+            }
+            items.add(itemID);
+            scores.add(score);
+        }
+        List<Integer> order = new ArrayList<Integer>();
+        for (int i = 0; i < items.size(); i++) {
+            order.add(i);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int c = Double.compare(scores.get(b), scores.get(a));
+                return c != 0 ? c : Integer.compare(items.get(a), items.get(b));
+            }
+        });
+        List<Integer> top = new ArrayList<Integer>();
+        for (int i = 0; i < Math.min(n, order.size()); i++) {
+            top.add(items.get(order.get(i)));
+        }
+        return top;
+    }
+
+    private void compareWithBruteForce(long seed, boolean pruneWithNorms) {
+        Random random = new Random(seed);
+        MemRecommenderData data = randomData(random, 6000);
+        BRISMFPredictor predictor = new BRISMFPredictor(10, data, true);
+        predictor.setPruneWithNorms(pruneWithNorms);
+        predictor.setNIterations(5);
+        int[] sizes = {1, 5, 20, 100, 10000};
+
+        for (int step = 0; step < 400; step++) {
+            String message = "seed " + seed + ", step " + step;
+            int operation = random.nextInt(20);
+            if (operation < 10) {
+                // online training of the user and item features, new items
+                // get rows the sorted norms do not cover yet
+                data.setRating(random.nextInt(USERS + 10), random.nextInt(ITEMS + 100), 1 + random.nextInt(5));
+            } else if (operation < 12) {
+                // an item without features
+                data.addItem(ITEMS + 100 + step, new ArrayList<Integer>(), new ArrayList<Double>());
+            } else if (operation < 13) {
+                data.removeItem(random.nextInt(ITEMS));
+            }
+
+            // users with and without features, some unknown to the data
+            int userID = random.nextInt(USERS + 20);
+            int n = sizes[random.nextInt(sizes.length)];
+            assertEquals(message + ", user " + userID + ", n " + n,
+                    bruteForceTopN(predictor, data, userID, n), predictor.recommendTopN(userID, n));
+        }
+    }
+
+    private static void assertSameFeatures(String message, HashMapBRISMF expected, BRISMFPredictor predictor,
+            Set<Integer> userIDs, Set<Integer> itemIDs) {
+        for (int userID : userIDs) {
+            float[] feats = expected.userFeature.get(userID);
+            if (feats == null)
+                assertNull(message + ": user " + userID, predictor.getUserFeatures(userID));
+            else
+                assertArrayEquals(message + ": user " + userID, feats, predictor.getUserFeatures(userID), 0f);
+        }
+        for (int itemID : itemIDs) {
+            float[] feats = expected.itemFeature.get(itemID);
+            if (feats == null)
+                assertNull(message + ": item " + itemID, predictor.getItemFeatures(itemID));
+            else
+                assertArrayEquals(message + ": item " + itemID, feats, predictor.getItemFeatures(itemID), 0f);
+        }
+    }
+
+    private static List<Integer> randomIds(Random random, int n, int bound) {
+        List<Integer> ids = new ArrayList<Integer>();
+        Set<Integer> seen = new HashSet<Integer>();
+        for (int i = 0; i < n; i++) {
+            int id = random.nextInt(bound);
+            if (seen.add(id))
+                ids.add(id);
+        }
+        return ids;
+    }
+
+    private static List<Double> randomRatings(Random random, int n) {
+        List<Double> ratings = new ArrayList<Double>();
+        for (int i = 0; i < n; i++)
+            ratings.add(1.0 + random.nextInt(5));
+        return ratings;
+    }
+
+    @Test
+    public void testSameFeaturesAsHashMaps() {
+        for (long seed = 0; seed < 3; seed++) {
+            Random random = new Random(seed);
+            MemRecommenderData data = randomData(random, 5000);
+            HashMapBRISMF expected = new HashMapBRISMF(6, data);
+            BRISMFPredictor predictor = new BRISMFPredictor(6, data, true);
+            Set<Integer> userIDs = new HashSet<Integer>(data.getUsers());
+            Set<Integer> itemIDs = new HashSet<Integer>(data.getItems());
+            assertSameFeatures("seed " + seed + ", batch", expected, predictor, userIDs, itemIDs);
+
+            // online updates, including new users and items and removed ones
+            // whose rows are reused
+            for (int step = 0; step < 1500; step++) {
+                String message = "seed " + seed + ", step " + step;
+                int operation = random.nextInt(100);
+                if (operation < 85) {
+                    int userID = random.nextInt(USERS + 20);
+                    int itemID = random.nextInt(ITEMS + 40);
+                    data.setRating(userID, itemID, 1 + random.nextInt(5));
+                    userIDs.add(userID);
+                    itemIDs.add(itemID);
+                } else if (operation < 90) {
+                    int userID = USERS + 20 + step;
+                    List<Integer> items = randomIds(random, random.nextInt(10), ITEMS);
+                    data.addUser(userID, items, randomRatings(random, items.size()));
+                    userIDs.add(userID);
+                } else if (operation < 95) {
+                    int itemID = ITEMS + 40 + step;
+                    List<Integer> users = randomIds(random, random.nextInt(10), USERS);
+                    data.addItem(itemID, users, randomRatings(random, users.size()));
+                    itemIDs.add(itemID);
+                } else if (operation < 97) {
+                    data.removeUser(random.nextInt(USERS));
+                } else {
+                    data.removeItem(random.nextInt(ITEMS));
+                }
+                assertSameFeatures(message, expected, predictor, userIDs, itemIDs);
+            }
+
+            for (int i = 0; i < 100; i++) {
+                int userID = random.nextInt(USERS + 20);
+                int itemID = random.nextInt(ITEMS + 40);
+                assertEquals("seed " + seed + ", prediction",
+                        expected.predictRating(expected.userFeature.get(userID), expected.itemFeature.get(itemID)),
+                        predictor.predictRating(userID, itemID), 0.0);
+            }
+        }
+    }
+
+    private static double trainingRMSE(BRISMFPredictor predictor, RecommenderData data) {
+        double sum = 0;
+        Iterator<Rating> it = data.ratingIterator();
+        while (it.hasNext()) {
+            Rating rat = it.next();
+            sum += Math.pow(rat.rating - predictor.predictRating(rat.userID, rat.itemID), 2);
+        }
+        return Math.sqrt(sum/data.getNumRatings());
+    }
+
+    @Test
+    public void testParallelTraining() {
+        // enough ratings for several chunks, whose updates may interleave
+        MemRecommenderData data = randomData(new Random(20), 30000);
+        BRISMFPredictor sequential = new BRISMFPredictor(8, data, false);
+        sequential.train();
+        BRISMFPredictor parallel = new BRISMFPredictor(8, data, false);
+        parallel.setParallelTraining(true);
+        parallel.train();
+
+        for (int userID : data.getUsers()) {
+            for (float value : parallel.getUserFeatures(userID))
+                assertFalse("user " + userID, Float.isNaN(value) || Float.isInfinite(value));
+        }
+        double sequentialRMSE = trainingRMSE(sequential, data);
+        double parallelRMSE = trainingRMSE(parallel, data);
+        assertTrue("RMSE " + parallelRMSE + " against " + sequentialRMSE, parallelRMSE < 1.05*sequentialRMSE);
+    }
+
+    @Test
+    public void testRecommendTopN() {
+        for (long seed = 0; seed < 3; seed++) {
+            compareWithBruteForce(seed, false);
+        }
+    }
+
+    @Test
+    public void testRecommendTopNPruned() {
+        for (long seed = 0; seed < 3; seed++) {
+            compareWithBruteForce(seed, true);
+        }
+    }
+
+    @Test
+    public void testRecommendNothing() {
+        MemRecommenderData data = randomData(new Random(10), 500);
+        BRISMFPredictor predictor = new BRISMFPredictor(5, data, true);
+        assertTrue(predictor.recommendTopN(0, 0).isEmpty());
+        predictor.setPruneWithNorms(true);
+        assertTrue(predictor.recommendTopN(0, 0).isEmpty());
+    }
+}
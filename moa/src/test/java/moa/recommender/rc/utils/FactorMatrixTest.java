@@ -0,0 +1,113 @@
+/*
+ *    FactorMatrixTest.java
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ *
+ */
+
+package moa.recommender.rc.utils;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Adds and removes random rows of a FactorMatrix, writes random values into
+ * them and compares the matrix after each change with a map of float arrays.
+ */
+public class FactorMatrixTest {
+
+    private static void assertSameContent(String message, Map<Integer, float[]> expected, FactorMatrix matrix,
+            Random random, int maxId) {
+        int columns = matrix.getNumColumns();
+        assertEquals(message + ": size", expected.size(), matrix.size());
+
+        Set<Integer> rows = new HashSet<Integer>();
+        for (Map.Entry<Integer, float[]> e : expected.entrySet()) {
+            int row = matrix.getRow(e.getKey());
+            assertTrue(message + ": row of " + e.getKey(), row >= 0 && row < matrix.getNumRows());
+            assertTrue(message + ": row shared " + row, rows.add(row));
+            assertTrue(message + ": used " + row, matrix.isUsed(row));
+            assertEquals(message + ": id of " + row, e.getKey().intValue(), matrix.getId(row));
+            assertArrayEquals(message + ": values of " + e.getKey(), e.getValue(), matrix.getRowCopy(e.getKey()), 0f);
+            for (int i = 0; i < columns; i++) {
+                assertEquals(message + ": value of " + e.getKey(), e.getValue()[i],
+                        matrix.getValues()[row * columns + i], 0f);
+            }
+        }
+        int used = 0;
+        for (int row = 0; row < matrix.getNumRows(); row++) {
+            if (matrix.isUsed(row)) {
+                used++;
+            }
+        }
+        assertEquals(message + ": used rows", expected.size(), used);
+
+        int missing = maxId + random.nextInt(maxId);
+        assertEquals(message + ": row of missing", -1, matrix.getRow(missing));
+        assertNull(message + ": copy of missing", matrix.getRowCopy(missing));
+    }
+
+    private void runRandomOperations(long seed, int columns, int maxId) {
+        Random random = new Random(seed);
+        FactorMatrix matrix = new FactorMatrix(columns);
+        Map<Integer, float[]> expected = new HashMap<Integer, float[]>();
+
+        for (int step = 0; step < 4000; step++) {
+            String message = "seed " + seed + ", step " + step;
+            int id = random.nextInt(maxId) - maxId / 4;
+            int operation = random.nextInt(10);
+            if (operation < 5) {
+                int row = matrix.addRow(id);
+                float[] values = expected.get(id);
+                if (values == null) {
+                    values = new float[columns];
+                    expected.put(id, values);
+                }
+                // the values of an added row are undefined, so they are all written
+                for (int i = 0; i < columns; i++) {
+                    values[i] = random.nextFloat();
+                    matrix.getValues()[row * columns + i] = values[i];
+                }
+            } else if (operation < 8) {
+                matrix.removeRow(id);
+                expected.remove(id);
+            } else if (operation < 9 && !expected.isEmpty()) {
+                // changes one value of an existing row in place
+                Integer[] ids = expected.keySet().toArray(new Integer[expected.size()]);
+                int changed = ids[random.nextInt(ids.length)];
+                int column = random.nextInt(columns);
+                float value = random.nextFloat();
+                expected.get(changed)[column] = value;
+                matrix.getValues()[matrix.getRow(changed) * columns + column] = value;
+            } else if (random.nextInt(100) == 0) {
+                matrix.clear();
+                expected.clear();
+            }
+            assertSameContent(message, expected, matrix, random, maxId);
+        }
+    }
+
+    @Test
+    public void testRandomOperations() {
+        for (long seed = 0; seed < 10; seed++) {
+            runRandomOperations(seed, 1 + (int) (seed % 5), seed % 2 == 0 ? 50 : 1000);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ *    ChunkedGenerationTest.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.streams.generators;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.yahoo.labs.samoa.instances.Instance;
+
+import moa.options.AbstractOptionHandler;
+import moa.streams.InstanceStream;
+
+/**
+ * Checks the generators that can generate their instances in chunks: without
+ * generation threads they have to produce the same instances as before
+ * chunked generation was added, with threads the instances must not depend
+ * on the number of threads nor on serialization in between.
+ */
+public class ChunkedGenerationTest {
+
+    /**
+     * Generators, options and the hash of their first 3000 instances, as
+     * generated before chunked generation was added.
+     */
+    private static final Object[][] LEGACY_STREAMS = {
+        {"HyperplaneGenerator", "", -3923878430124929498L},
+        {"HyperplaneGenerator", "-k 5 -t 0.1 -s 30 -n 0", 7973419436637863433L},
+        {"RandomRBFGenerator", "", -3160224368678999423L},
+        {"RandomRBFGenerator", "-a 3 -n 7", 3564949893701555153L},
+        {"RandomRBFGeneratorDrift", "-s 0.01 -k 10", -3891421810386897809L},
+        {"RandomRBFGeneratorDrift", "-s 0.001 -k 50", 5694349061006711810L},
+        {"RandomTreeGenerator", "", -3913351357887921454L},
+        {"RandomTreeGenerator", "-o 3 -u 4 -d 7", 3500781543088555413L},
+        {"AgrawalGenerator", "", -2563699430088238790L},
+        {"AgrawalGenerator", "-f 3 -b -p 0.1", 3859497646744445659L},
+        {"AgrawalGenerator", "-f 7 -p 0", 5071713754330931655L},
+        {"SEAGenerator", "", 6295616987215873857L},
+        {"SEAGenerator", "-f 2 -b -p 0", -9139212350769275019L},
+        {"LEDGenerator", "", -2446338359225745529L},
+        {"LEDGenerator", "-s -n 20", 7565622130011654791L},
+        {"LEDGeneratorDrift", "-d 5", -3719205144503517305L},
+        {"LEDGeneratorDrift", "-s", -7328959839737099641L},
+    };
+
+    private static final int LEGACY_INSTANCES = 3000;
+
+    /** several chunks and a partial one */
+    private static final int CHUNKED_INSTANCES = 4 * ChunkedGeneration.CHUNK_SIZE + 100;
+
+    private static InstanceStream newStream(String generator, String options) throws Exception {
+        AbstractOptionHandler stream = (AbstractOptionHandler) Class.forName("moa.streams.generators." + generator)
+                .getDeclaredConstructor().newInstance();
+        stream.getOptions().setViaCLIString(options);
+        stream.prepareForUse();
+        return (InstanceStream) stream;
+    }
+
+    private static long hash(InstanceStream stream, int numInstances) {
+        long hash = 7;
+        for (int i = 0; i < numInstances; i++) {
+            Instance inst = stream.nextInstance().getData();
+            hash = hash * 31 + Double.doubleToLongBits(inst.weight());
+            hash = hash * 31 + Arrays.hashCode(inst.toDoubleArray());
+            hash = hash * 31 + Double.doubleToLongBits(inst.classValue());
+        }
+        return hash;
+    }
+
+    private static InstanceStream serializeAndDeserialize(InstanceStream stream) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(stream);
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        return (InstanceStream) in.readObject();
+    }
+
+    private static void assertSameInstances(String message, InstanceStream expected, InstanceStream actual,
+            int first, int numInstances) {
+        for (int i = first; i < first + numInstances; i++) {
+            Instance expectedInst = expected.nextInstance().getData();
+            Instance actualInst = actual.nextInstance().getData();
+            assertEquals(message + ", instance " + i + ": weight", expectedInst.weight(), actualInst.weight(), 0.0);
+            assertEquals(message + ", instance " + i + ": class index",
+                    expectedInst.classIndex(), actualInst.classIndex());
+            assertArrayEquals(message + ", instance " + i,
+                    expectedInst.toDoubleArray(), actualInst.toDoubleArray(), 0.0);
+        }
+    }
+
+    private static String chunkedOptions(String options, int threads) {
+        return (options + " -P " + threads).trim();
+    }
+
+    @Test
+    public void testLegacyStreamUnchanged() throws Exception {
+        for (Object[] legacy : LEGACY_STREAMS) {
+            String message = legacy[0] + " [" + legacy[1] + "]";
+            InstanceStream stream = newStream((String) legacy[0], (String) legacy[1]);
+            assertEquals(message, ((Long) legacy[2]).longValue(), hash(stream, LEGACY_INSTANCES));
+
+            stream = newStream((String) legacy[0], chunkedOptions((String) legacy[1], 0));
+            assertEquals(message + " -P 0", ((Long) legacy[2]).longValue(), hash(stream, LEGACY_INSTANCES));
+        }
+    }
+
+    @Test
+    public void testSameInstancesForAnyNumberOfThreads() throws Exception {
+        for (Object[] legacy : LEGACY_STREAMS) {
+            String generator = (String) legacy[0];
+            String options = (String) legacy[1];
+            InstanceStream single = newStream(generator, chunkedOptions(options, 1));
+            InstanceStream two = newStream(generator, chunkedOptions(options, 2));
+            InstanceStream four = newStream(generator, chunkedOptions(options, 4));
+            for (int i = 0; i < CHUNKED_INSTANCES; i++) {
+                String message = generator + " [" + options + "], instance " + i;
+                Instance expected = single.nextInstance().getData();
+                Instance actual2 = two.nextInstance().getData();
+                Instance actual4 = four.nextInstance().getData();
+                assertEquals(message + ": class index", expected.numAttributes() - 1, expected.classIndex());
+                assertEquals(message + ": weight", expected.weight(), actual4.weight(), 0.0);
+                assertArrayEquals(message + ", 2 threads", expected.toDoubleArray(), actual2.toDoubleArray(), 0.0);
+                assertArrayEquals(message + ", 4 threads", expected.toDoubleArray(), actual4.toDoubleArray(), 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void testChunkedSerializationAndRestart() throws Exception {
+        for (Object[] legacy : LEGACY_STREAMS) {
+            String generator = (String) legacy[0];
+            String message = generator + " [" + legacy[1] + "]";
+            String options = chunkedOptions((String) legacy[1], 2);
+            InstanceStream stream = newStream(generator, options);
+            InstanceStream expected = newStream(generator, options);
+
+            // continues in the middle of a chunk after deserialization
+            int first = ChunkedGeneration.CHUNK_SIZE + 300;
+            assertSameInstances(message, expected, stream, 0, first);
+            InstanceStream copy = serializeAndDeserialize(stream);
+            InstanceStream reference = newStream(generator, options);
+            hash(reference, first);
+            assertSameInstances(message + ", deserialized", expected, copy, first, 2 * ChunkedGeneration.CHUNK_SIZE);
+            assertSameInstances(message + ", original", reference, stream, first, 2 * ChunkedGeneration.CHUNK_SIZE);
+
+            // starts over from the first instance
+            stream.restart();
+            assertSameInstances(message + ", restarted", newStream(generator, options), stream, 0,
+                    ChunkedGeneration.CHUNK_SIZE + 10);
+        }
+    }
+}
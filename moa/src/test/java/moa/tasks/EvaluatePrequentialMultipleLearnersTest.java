@@ -0,0 +1,186 @@
+/*
+ *    EvaluatePrequentialMultipleLearnersTest.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.tasks;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import moa.evaluation.preview.LearningCurve;
+
+/**
+ * Evaluates several learners in one pass and compares the rows of each
+ * learner, in the merged result and in its own dump file, with the ones of
+ * a plain EvaluatePrequential run of that learner.
+ */
+public class EvaluatePrequentialMultipleLearnersTest {
+
+    private static final String[] LEARNERS = {
+        "bayes.NaiveBayes",
+        "trees.HoeffdingTree -g 50",
+        "functions.MajorityClass"
+    };
+
+    /** batches are not aligned to the samples */
+    private static final String OPTIONS = "-s generators.RandomTreeGenerator"
+            + " -e BasicClassificationPerformanceEvaluator -i 5000 -f 1000";
+
+    /** the columns with the evaluation time and the RAM-Hours, which differ between runs */
+    private static final String[] TIMING_COLUMNS = {
+        "evaluation time (cpu seconds)", "evaluation time (seconds)", "model cost (RAM-Hours)"
+    };
+
+    protected File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        this.dir = Files.createTempDirectory("multiple").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : this.dir.listFiles()) {
+            file.delete();
+        }
+        this.dir.delete();
+    }
+
+    protected static boolean isTimingColumn(String name) {
+        for (String timing : TIMING_COLUMNS) {
+            if (name.equals(timing)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    protected static LearningCurve runSingle(String learner, File dumpFile) throws Exception {
+        EvaluatePrequential task = new EvaluatePrequential();
+        task.getOptions().setViaCLIString(OPTIONS + " -l (" + learner + ") -d " + dumpFile);
+        task.prepareForUse();
+        return (LearningCurve) task.doTask(new NullMonitor(), null);
+    }
+
+    protected static LearningCurve runMultiple(String options) throws Exception {
+        EvaluatePrequentialMultipleLearners task = new EvaluatePrequentialMultipleLearners();
+        task.getOptions().setViaCLIString(OPTIONS + " -l (" + String.join(",", LEARNERS) + ") " + options);
+        task.prepareForUse();
+        return (LearningCurve) task.doTask(new NullMonitor(), null);
+    }
+
+    /**
+     * Compares the rows of a learner in the merged curve with the curve of
+     * a plain run of it.
+     */
+    protected static void assertSameRows(String message, LearningCurve expected, LearningCurve merged,
+            int learnerIndex) {
+        assertEquals(message, "learner", merged.getMeasurementName(1));
+        int entry = 0;
+        for (int row = 0; row < merged.numEntries(); row++) {
+            if (merged.getMeasurement(row, 1) != learnerIndex + 1) {
+                continue;
+            }
+            assertTrue(message + ": too many rows", entry < expected.numEntries());
+            for (int m = 0; m < merged.getMeasurementNameCount(); m++) {
+                String name = merged.getMeasurementName(m);
+                if ((m == 1) || isTimingColumn(name)) {
+                    continue;
+                }
+                int column = -1;
+                for (int c = 0; c < expected.getMeasurementNameCount(); c++) {
+                    if (expected.getMeasurementName(c).equals(name)) {
+                        column = c;
+                    }
+                }
+                double value = (column < 0) ? Double.NaN : expected.getMeasurement(entry, column);
+                assertEquals(message + ", entry " + entry + ", " + name, value, merged.getMeasurement(row, m), 0.0);
+            }
+            entry++;
+        }
+        assertEquals(message + ": rows", expected.numEntries(), entry);
+    }
+
+    protected static void assertSameDump(String message, File expected, File actual) throws Exception {
+        List<String> expectedLines = Files.readAllLines(expected.toPath(), StandardCharsets.UTF_8);
+        List<String> actualLines = Files.readAllLines(actual.toPath(), StandardCharsets.UTF_8);
+        assertEquals(message + ": dump lines", expectedLines.size(), actualLines.size());
+        String[] header = expectedLines.get(0).split(",", -1);
+        assertEquals(message + ": header", expectedLines.get(0), actualLines.get(0));
+        for (int i = 1; i < expectedLines.size(); i++) {
+            String[] expectedCells = expectedLines.get(i).split(",", -1);
+            String[] actualCells = actualLines.get(i).split(",", -1);
+            assertEquals(message + ", dump line " + i, expectedCells.length, actualCells.length);
+            for (int j = 0; j < expectedCells.length; j++) {
+                if (!isTimingColumn(header[j])) {
+                    assertEquals(message + ", dump line " + i + ", " + header[j], expectedCells[j], actualCells[j]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSameAsSingleLearnerRuns() throws Exception {
+        LearningCurve[] expected = new LearningCurve[LEARNERS.length];
+        for (int i = 0; i < LEARNERS.length; i++) {
+            expected[i] = runSingle(LEARNERS[i], new File(this.dir, "single-" + (i + 1) + ".csv"));
+            assertEquals(5, expected[i].numEntries());
+        }
+
+        File dumpFile = new File(this.dir, "multiple.csv");
+        String[] options = {
+            "-j 1 -b 700 -p -d " + dumpFile,
+            "-j 3 -b 700",
+            "-j 2 -b 1 -c all",
+            "-j 2 -b 5000 -c 2"
+        };
+        for (String option : options) {
+            LearningCurve merged = runMultiple(option);
+            assertEquals(option, 5 * LEARNERS.length, merged.numEntries());
+            for (int i = 0; i < LEARNERS.length; i++) {
+                assertSameRows(option + ", learner " + (i + 1), expected[i], merged, i);
+            }
+        }
+
+        assertFalse(dumpFile.exists());
+        for (int i = 0; i < LEARNERS.length; i++) {
+            File learnerDumpFile = EvaluatePrequentialMultipleLearners.learnerDumpFile(dumpFile, i);
+            assertEquals("multiple-" + (i + 1) + ".csv", learnerDumpFile.getName());
+            assertSameDump("learner " + (i + 1), new File(this.dir, "single-" + (i + 1) + ".csv"), learnerDumpFile);
+        }
+    }
+
+    @Test
+    public void testLearnerDumpFile() {
+        File dir = new File("results");
+        assertEquals(new File(dir, "run-2.csv"),
+                EvaluatePrequentialMultipleLearners.learnerDumpFile(new File(dir, "run.csv"), 1));
+        assertEquals(new File(dir, "run.a-1.csv"),
+                EvaluatePrequentialMultipleLearners.learnerDumpFile(new File(dir, "run.a.csv"), 0));
+        assertEquals(new File("run-3"),
+                EvaluatePrequentialMultipleLearners.learnerDumpFile(new File("run"), 2));
+        assertEquals(new File(".run-1"),
+                EvaluatePrequentialMultipleLearners.learnerDumpFile(new File(".run"), 0));
+    }
+}
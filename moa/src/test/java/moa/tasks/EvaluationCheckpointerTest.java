@@ -0,0 +1,165 @@
+/*
+ *    EvaluationCheckpointerTest.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.tasks;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import moa.evaluation.preview.LearningCurve;
+
+/**
+ * Interrupts EvaluatePrequential after a checkpoint, resumes it and compares
+ * the learning curve, the dump file and the prediction file with the ones of
+ * an uninterrupted run.
+ */
+public class EvaluationCheckpointerTest {
+
+    private static final String OPTIONS = "-l trees.HoeffdingTree -s generators.RandomTreeGenerator"
+            + " -i 6000 -f 500";
+
+    /** the columns with the evaluation time and the RAM-Hours, which differ between runs */
+    private static final int[] TIMING_COLUMNS = {1, 2};
+
+    protected File dir;
+
+    /**
+     * Aborts the task after the given number of monitor updates once it
+     * started evaluating.
+     */
+    protected static class AbortingMonitor extends NullMonitor {
+
+        protected int remaining;
+
+        protected boolean evaluating;
+
+        public AbortingMonitor(int updates) {
+            this.remaining = updates;
+        }
+
+        @Override
+        public void setCurrentActivity(String activityDescription, double fracComplete) {
+            this.evaluating = activityDescription.startsWith("Evaluating");
+        }
+
+        @Override
+        public boolean taskShouldAbort() {
+            return this.evaluating && (--this.remaining < 0);
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        this.dir = Files.createTempDirectory("checkpoint").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : this.dir.listFiles()) {
+            file.delete();
+        }
+        this.dir.delete();
+    }
+
+    protected File file(String name) {
+        return new File(this.dir, name);
+    }
+
+    protected static Object run(String options, TaskMonitor monitor) throws Exception {
+        EvaluatePrequential task = new EvaluatePrequential();
+        task.getOptions().setViaCLIString(options);
+        task.prepareForUse();
+        return task.doTask(monitor, null);
+    }
+
+    protected static boolean isTimingColumn(int column) {
+        for (int timing : TIMING_COLUMNS) {
+            if (column == timing) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    protected static void assertSameCurve(LearningCurve expected, LearningCurve actual) {
+        assertEquals(expected.headerToString(), actual.headerToString());
+        assertEquals(expected.numEntries(), actual.numEntries());
+        for (int i = 0; i < expected.numEntries(); i++) {
+            for (int j = 0; j < expected.getEntryMeasurementCount(i); j++) {
+                if (!isTimingColumn(j)) {
+                    assertEquals("entry " + i + ", " + expected.getMeasurementName(j),
+                            expected.getMeasurement(i, j), actual.getMeasurement(i, j), 0.0);
+                }
+            }
+        }
+    }
+
+    protected static void assertSameDump(File expected, File actual) throws Exception {
+        List<String> expectedLines = Files.readAllLines(expected.toPath(), StandardCharsets.UTF_8);
+        List<String> actualLines = Files.readAllLines(actual.toPath(), StandardCharsets.UTF_8);
+        assertEquals("dump lines", expectedLines.size(), actualLines.size());
+        for (int i = 0; i < expectedLines.size(); i++) {
+            String[] expectedCells = expectedLines.get(i).split(",", -1);
+            String[] actualCells = actualLines.get(i).split(",", -1);
+            assertEquals("dump line " + i, expectedCells.length, actualCells.length);
+            for (int j = 0; j < expectedCells.length; j++) {
+                if ((i == 0) || !isTimingColumn(j)) {
+                    assertEquals("dump line " + i + ", column " + j, expectedCells[j], actualCells[j]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testResumeAfterInterruption() throws Exception {
+        LearningCurve expected = (LearningCurve) run(OPTIONS + " -d " + file("full.csv")
+                + " -o " + file("full.pred"), new NullMonitor());
+
+        String options = OPTIONS + " -d " + file("resumed.csv") + " -o " + file("resumed.pred")
+                + " -c " + file("eval.checkpoint") + " -C 2000 -R";
+        // the monitor is asked every 10 instances: aborts after 3500 instances,
+        // three dump rows and 1500 predictions after the checkpoint at 2000
+        assertNull(run(options, new AbortingMonitor(349)));
+        assertTrue(file("eval.checkpoint").exists());
+        assertEquals(8, Files.readAllLines(file("resumed.csv").toPath(), StandardCharsets.UTF_8).size());
+        assertEquals(3500, Files.readAllLines(file("resumed.pred").toPath(), StandardCharsets.UTF_8).size());
+
+        LearningCurve resumed = (LearningCurve) run(options, new NullMonitor());
+        assertSameCurve(expected, resumed);
+        assertSameDump(file("full.csv"), file("resumed.csv"));
+        assertEquals(Files.readAllLines(file("full.pred").toPath(), StandardCharsets.UTF_8),
+                Files.readAllLines(file("resumed.pred").toPath(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testResumeWithoutCheckpoint() throws Exception {
+        // nothing to resume from: same as an uninterrupted run
+        LearningCurve expected = (LearningCurve) run(OPTIONS, new NullMonitor());
+        LearningCurve resumed = (LearningCurve) run(OPTIONS + " -c " + file("eval.checkpoint") + " -C 2000 -R",
+                new NullMonitor());
+        assertSameCurve(expected, resumed);
+        assertTrue(file("eval.checkpoint").exists());
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ *    FoldExecutorTest.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.tasks;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Test;
+
+import moa.evaluation.preview.LearningCurve;
+import moa.options.AbstractOptionHandler;
+
+/**
+ * Checks the FoldExecutor and that the cross-validation tasks evaluating
+ * their folds on it give the same results for any number of threads and
+ * batch size as on the calling thread in lock-step.
+ */
+public class FoldExecutorTest {
+
+    private static final String OPTIONS = "-l trees.HoeffdingTree -s generators.RandomTreeGenerator"
+            + " -e BasicClassificationPerformanceEvaluator -i 3000 -f 500 -w 5";
+
+    /** the parallel settings compared with "-j 1 -b 1" */
+    private static final String[] PARALLEL = {"-j 1 -b 100", "-j 3 -b 100", "-j 2 -b 7", "-j -1 -b 1000"};
+
+    /** the columns with the evaluation time and the RAM-Hours, which differ between runs */
+    private static final String[] TIMING_COLUMNS = {
+        "evaluation time (cpu seconds)", "evaluation time (seconds)", "model cost (RAM-Hours)"
+    };
+
+    protected static boolean isTimingColumn(String name) {
+        for (String timing : TIMING_COLUMNS) {
+            if (name.equals(timing)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    protected static LearningCurve run(AbstractOptionHandler task, String options) throws Exception {
+        task.getOptions().setViaCLIString(options);
+        task.prepareForUse();
+        return (LearningCurve) ((Task) task).doTask(new NullMonitor(), null);
+    }
+
+    protected static void assertSameCurve(String message, LearningCurve expected, LearningCurve actual) {
+        assertEquals(message, expected.headerToString(), actual.headerToString());
+        assertEquals(message, expected.numEntries(), actual.numEntries());
+        for (int i = 0; i < expected.numEntries(); i++) {
+            for (int j = 0; j < expected.getEntryMeasurementCount(i); j++) {
+                if (!isTimingColumn(expected.getMeasurementName(j))) {
+                    assertEquals(message + ", entry " + i + ", " + expected.getMeasurementName(j),
+                            expected.getMeasurement(i, j), actual.getMeasurement(i, j), 0.0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRunsEveryFoldOnce() {
+        int[] jobs = {1, 2, 4, 10, -1};
+        for (int numberOfJobs : jobs) {
+            FoldExecutor executor = new FoldExecutor(numberOfJobs, 7);
+            assertEquals("-j " + numberOfJobs, (numberOfJobs > 1)
+                    || ((numberOfJobs == -1) && (Runtime.getRuntime().availableProcessors() > 1)),
+                    executor.isParallel());
+            try {
+                for (int run = 0; run < 20; run++) {
+                    final AtomicIntegerArray visits = new AtomicIntegerArray(7);
+                    long cpuTime = executor.run(7, (int i) -> visits.incrementAndGet(i));
+                    assertTrue(cpuTime >= 0);
+                    if (!executor.isParallel()) {
+                        assertEquals(0, cpuTime);
+                    }
+                    for (int i = 0; i < 7; i++) {
+                        assertEquals("-j " + numberOfJobs + ", fold " + i, 1, visits.get(i));
+                    }
+                }
+            } finally {
+                executor.shutdown();
+            }
+        }
+        assertFalse(new FoldExecutor(3, 1).isParallel());
+    }
+
+    @Test
+    public void testFoldFailure() {
+        int[] jobs = {1, 3};
+        for (int numberOfJobs : jobs) {
+            FoldExecutor executor = new FoldExecutor(numberOfJobs, 4);
+            try {
+                executor.run(4, (int i) -> {
+                    if (i == 2) {
+                        throw new IllegalStateException("fold " + i);
+                    }
+                });
+                fail("-j " + numberOfJobs + ": no exception");
+            } catch (RuntimeException ex) {
+                Throwable cause = (ex instanceof IllegalStateException) ? ex : ex.getCause().getCause();
+                assertTrue("-j " + numberOfJobs, cause instanceof IllegalStateException);
+                assertEquals("fold 2", cause.getMessage());
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testPrequentialCVSameForAnyNumberOfJobs() throws Exception {
+        for (int methodology = 0; methodology < 3; methodology++) {
+            String options = OPTIONS + " -a " + methodology;
+            LearningCurve expected = run(new EvaluatePrequentialCV(), options + " -j 1 -b 1");
+            assertEquals(6, expected.numEntries());
+            for (String parallel : PARALLEL) {
+                assertSameCurve("-a " + methodology + " " + parallel, expected,
+                        run(new EvaluatePrequentialCV(), options + " " + parallel));
+            }
+        }
+    }
+
+    @Test
+    public void testDelayedCVSameForAnyNumberOfJobs() throws Exception {
+        for (int methodology = 0; methodology < 3; methodology++) {
+            String options = OPTIONS + " -k 50 -a " + methodology;
+            LearningCurve expected = run(new EvaluatePrequentialDelayedCV(), options + " -j 1 -b 1");
+            assertEquals(6, expected.numEntries());
+            for (String parallel : PARALLEL) {
+                assertSameCurve("-a " + methodology + " " + parallel, expected,
+                        run(new EvaluatePrequentialDelayedCV(), options + " " + parallel));
+            }
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ *    ServeModelTest.java
+ *
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program. If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package moa.tasks;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.yahoo.labs.samoa.instances.Instance;
+
+import moa.classifiers.bayes.NaiveBayes;
+import moa.core.InstanceExample;
+import moa.evaluation.LearningEvaluation;
+import moa.learners.Learner;
+import moa.streams.generators.RandomTreeGenerator;
+import moa.streams.generators.SEAGenerator;
+
+/**
+ * Sends valid and malformed requests to the server of ServeModel: valid
+ * batches are answered by the published model, malformed ones get an error
+ * line and are counted, and the connection stays usable after them.
+ */
+public class ServeModelTest {
+
+    protected RandomTreeGenerator stream;
+
+    protected Learner learner;
+
+    protected ServeModel.Server server;
+
+    protected Socket socket;
+
+    protected BufferedReader in;
+
+    protected Writer out;
+
+    @Before
+    public void setUp() throws Exception {
+        this.stream = new RandomTreeGenerator();
+        this.stream.prepareForUse();
+        this.learner = new NaiveBayes();
+        this.learner.prepareForUse();
+        this.learner.setModelContext(this.stream.getHeader());
+        for (int i = 0; i < 1000; i++) {
+            this.learner.trainOnInstance(this.stream.nextInstance());
+        }
+        this.server = new ServeModel.Server(0, 2, this.stream.getHeader(),
+                new AtomicReference<Learner>(this.learner));
+        this.socket = new Socket(InetAddress.getLoopbackAddress(), this.server.getPort());
+        this.in = new BufferedReader(new InputStreamReader(this.socket.getInputStream(), StandardCharsets.UTF_8));
+        this.out = new BufferedWriter(new OutputStreamWriter(this.socket.getOutputStream(), StandardCharsets.UTF_8));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.socket.close();
+        this.server.close();
+    }
+
+    protected void send(String... lines) throws Exception {
+        for (String line : lines) {
+            this.out.write(line + "\n");
+        }
+        this.out.flush();
+    }
+
+    protected static String format(double[] votes) {
+        StringBuilder sb = new StringBuilder();
+        for (int j = 0; j < votes.length; j++) {
+            if (j > 0) {
+                sb.append(',');
+            }
+            sb.append(votes[j]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Sends a batch of instances and checks the votes against the ones of
+     * the published model.
+     */
+    protected void assertPredicts(int n) throws Exception {
+        Instance[] instances = new Instance[n];
+        StringBuilder request = new StringBuilder("PREDICT " + n);
+        for (int i = 0; i < n; i++) {
+            instances[i] = this.stream.nextInstance().getData();
+            request.append('\n').append(ServeModel.formatInstance(instances[i]));
+        }
+        send(request.toString());
+        for (int i = 0; i < n; i++) {
+            assertEquals("instance " + i,
+                    format(this.learner.getVotesForInstance(new InstanceExample(instances[i]))), this.in.readLine());
+        }
+    }
+
+    protected void assertError(String expectedStart) throws Exception {
+        String line = this.in.readLine();
+        assertNotNull(line);
+        assertTrue(line, line.startsWith("ERROR " + expectedStart));
+    }
+
+    @Test
+    public void testValidRequests() throws Exception {
+        assertPredicts(1);
+        assertPredicts(20);
+        assertPredicts(0);
+        assertPredicts(5);
+        send("QUIT");
+        assertNull(this.in.readLine());
+        assertEquals(4, this.server.getNumRequests());
+        assertEquals(26, this.server.getNumPredictions());
+        assertEquals(0, this.server.getNumErrors());
+        assertNull(this.server.getLastError());
+    }
+
+    @Test
+    public void testMalformedRequests() throws Exception {
+        send("HELLO");
+        assertError("unknown request");
+        assertPredicts(3);
+
+        send("PREDICT x");
+        assertError("invalid batch size: x");
+        send("PREDICT -2");
+        assertError("invalid batch size: -2");
+        assertPredicts(3);
+
+        // a malformed instance in the middle of a batch: the rest of the
+        // batch is read and the whole batch answered by one error line
+        String valid = ServeModel.formatInstance(this.stream.nextInstance().getData());
+        send("PREDICT 4", valid, "1,2,3", "a" + valid, valid);
+        assertError("instance 2: Expected ");
+        assertPredicts(2);
+
+        send("QUIT");
+        assertNull(this.in.readLine());
+        assertEquals(4, this.server.getNumErrors());
+        assertTrue(this.server.getLastError(), this.server.getLastError().startsWith("instance 2"));
+        assertEquals(3, this.server.getNumRequests());
+        assertEquals(8, this.server.getNumPredictions());
+
+        TaskMonitor monitor = new StandardTaskMonitor();
+        assertEquals(4, ServeModel.reportErrors(monitor, this.server, "Serving", 0));
+        assertEquals("Serving (4 request errors, last: " + this.server.getLastError() + ")...",
+                monitor.getCurrentActivityDescription());
+    }
+
+    @Test
+    public void testLoadGeneratorFailsOnErrors() throws Exception {
+        // instances of another stream do not match the header of the server
+        SEAGenerator other = new SEAGenerator();
+        other.prepareForUse();
+        ServeModel.LoadGenerator generator = new ServeModel.LoadGenerator(this.server.getPort(), other, 10);
+        Thread thread = new Thread(generator);
+        thread.start();
+        thread.join(10000);
+        assertFalse(thread.isAlive());
+        assertNotNull(generator.getFailure());
+        assertTrue(generator.getFailure().getMessage(), generator.getFailure().getMessage().contains("ERROR"));
+        assertEquals(0, generator.getNumRequests());
+        assertEquals(1, this.server.getNumErrors());
+    }
+
+    @Test
+    public void testTaskReportsNoErrors() throws Exception {
+        ServeModel task = new ServeModel();
+        task.getOptions().setViaCLIString("-l bayes.NaiveBayes -i 3000 -f 500 -c 2 -b 10");
+        task.prepareForUse();
+        LearningEvaluation result = (LearningEvaluation) task.doTask(new NullMonitor(), null);
+        double requestErrors = Double.NaN;
+        double failures = Double.NaN;
+        for (int i = 0; i < result.getMeasurements().length; i++) {
+            if (result.getMeasurements()[i].getName().equals("request errors")) {
+                requestErrors = result.getMeasurements()[i].getValue();
+            } else if (result.getMeasurements()[i].getName().equals("load-generator failures")) {
+                failures = result.getMeasurements()[i].getValue();
+            }
+        }
+        assertEquals(0.0, requestErrors, 0.0);
+        assertEquals(0.0, failures, 0.0);
+    }
+}